@@ -16,4 +16,10 @@ public class RingoConstants {
 
     public static final String CLIENT_DOWNLOAD_URL = "https://ringo.domain.com/download/ringo-client-current.zip";
 
+    /** Request header identifying an upload, allowing it to be retried without creating another message */
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
+    /** Response header marking the response to a repeated upload, holding the message created by the first one */
+    public static final String IDEMPOTENT_REPLAYED_HEADER = "Idempotent-Replayed";
+
 }
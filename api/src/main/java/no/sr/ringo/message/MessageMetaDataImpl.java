@@ -29,6 +29,7 @@ public class MessageMetaDataImpl implements TransmissionMetaData {
 
     URI payloadUri;
     URI evidenceUri;
+    String payloadDigest;
 
     private PeppolHeader peppolHeader;
 
@@ -58,6 +59,7 @@ public class MessageMetaDataImpl implements TransmissionMetaData {
         sbdhInstanceIdentifier = mmd.getSbdhInstanceIdentifier();
         payloadUri = mmd.getPayloadUri();
         evidenceUri = mmd.getEvidenceUri();
+        payloadDigest = mmd.getPayloadDigest();
     }
     
     @Override
@@ -140,6 +142,15 @@ public class MessageMetaDataImpl implements TransmissionMetaData {
         this.evidenceUri = nativeEvidenceUri;
     }
 
+    @Override
+    public String getPayloadDigest() {
+        return payloadDigest;
+    }
+
+    public void setPayloadDigest(String payloadDigest) {
+        this.payloadDigest = payloadDigest;
+    }
+
     @Override
     public ReceptionId getReceptionId() {
         return receptionId;
@@ -204,6 +215,7 @@ public class MessageMetaDataImpl implements TransmissionMetaData {
         sb.append(", sbdhInstanceIdentifier=").append(sbdhInstanceIdentifier);
         sb.append(", payloadUri=").append(payloadUri);
         sb.append(", nativeEvidenceUri=").append(evidenceUri);
+        sb.append(", payloadDigest=").append(payloadDigest);
         sb.append(", peppolHeader=").append(peppolHeader);
         sb.append('}');
         return sb.toString();
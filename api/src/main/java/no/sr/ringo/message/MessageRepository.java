@@ -27,6 +27,7 @@ import no.sr.ringo.transport.TransferDirection;
 import org.w3c.dom.Document;
 
 import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Optional;
 
@@ -49,6 +50,21 @@ public interface MessageRepository {
 
     Long saveOutboundMessage(TransmissionMetaData messageMetaData, Document payloadDocument);
 
+    /**
+     * Saves an outbound message, the payload of which has already been spooled to a file residing in the same file
+     * system as the payload store. The file is moved into place rather than copied, i.e. ownership of the file is
+     * transferred to the repository.
+     */
+    Long saveOutboundMessage(TransmissionMetaData messageMetaData, Path spooledPayload);
+
+    /**
+     * Saves a number of outbound messages as {@link #saveOutboundMessage(TransmissionMetaData, Path)} does, within
+     * the current transaction, inserting the meta data in batches rather than one by one.
+     *
+     * @return the message numbers, in the order of the meta data supplied
+     */
+    List<Long> saveOutboundMessages(List<? extends TransmissionMetaData> messageMetaData, List<Path> spooledPayloads);
+
     Long saveInboundMessage(TransmissionMetaData messageMetaData, InputStream payload);
 
     void saveOutboundTransportReceipt(Receipt transmissionEvidence, ReceptionId receptionId);
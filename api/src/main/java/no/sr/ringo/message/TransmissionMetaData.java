@@ -16,4 +16,9 @@ public interface TransmissionMetaData extends MessageMetaData {
     AccountId getAccountId();
 
     URI getEvidenceUri();
+
+    /**
+     * @return hex encoded SHA-256 digest of the payload, or null if the payload is not held in the content addressed store.
+     */
+    String getPayloadDigest();
 }
@@ -3,8 +3,12 @@ package no.sr.ringo.response;
 
 import no.sr.ringo.message.MessageWithLocations;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 
+import static no.sr.ringo.response.XmlResponseWriter.constant;
+
 /**
  * Represents a list of messages from the /inbox
  * This list may represent only part of the full list. I.e. if there are thousands of messages in the
@@ -16,20 +20,23 @@ import java.util.List;
  */
 public class InboxQueryResponse extends MessagesQueryResponse {
 
+    private static final byte[] START = constant("<inbox-query-response version=\"");
+    private static final byte[] START_END = constant("\">\n<messages>\n");
+    private static final byte[] END = constant("</messages>\n</inbox-query-response>");
+
     public InboxQueryResponse(List<MessageWithLocations> messages) {
         super(messages);
     }
 
-    public String asXml() {
-        StringBuilder resultXml = new StringBuilder();
-        resultXml.append("<inbox-query-response version=\""+version+"\">\n");
-        resultXml.append("<messages>\n");
-        messagesAsXml(resultXml);
-        resultXml.append("</messages>\n</inbox-query-response>");
-        return resultXml.toString();
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        XmlResponseWriter xml = new XmlResponseWriter(outputStream);
+        xml.append(START).appendText(version).append(START_END);
+        messagesAsXml(xml);
+        xml.append(END);
+        xml.flush();
     }
 
-
     @Override
     public Navigation getNavigation() {
         return null;
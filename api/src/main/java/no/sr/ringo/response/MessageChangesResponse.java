@@ -0,0 +1,81 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package no.sr.ringo.response;
+
+import no.sr.ringo.message.MessageWithLocations;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import static no.sr.ringo.response.XmlResponseWriter.constant;
+
+/**
+ * The response from a query on /messages/changes, holding the messages added or changed since a cursor, in the
+ * order of the changes, along with the cursor to supply in the next query.
+ *
+ * The navigation holds a link to the next changes when there are more changes than provided by a single response.
+ */
+public class MessageChangesResponse extends MessagesQueryResponse {
+
+    private static final byte[] START = constant("<messages-changes-response version=\"");
+    private static final byte[] START_END = constant("\">\n");
+    private static final byte[] CURSOR = constant("<cursor>");
+    private static final byte[] CURSOR_END = constant("</cursor>\n");
+    private static final byte[] MESSAGES = constant("<messages>\n");
+    private static final byte[] END = constant("</messages>\n</messages-changes-response>");
+
+    private final long cursor;
+
+    public MessageChangesResponse(List<MessageWithLocations> messages, long cursor) {
+        super(messages);
+        this.cursor = cursor;
+    }
+
+    public long getCursor() {
+        return cursor;
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        XmlResponseWriter xml = new XmlResponseWriter(outputStream);
+        xml.append(START).appendText(version).append(START_END);
+        xml.append(CURSOR).appendNumber(cursor).append(CURSOR_END);
+        navigationAsXml(xml);
+        xml.append(MESSAGES);
+        messagesAsXml(xml);
+        xml.append(END);
+        xml.flush();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return super.equals(o) && cursor == ((MessageChangesResponse) o).cursor;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + Long.hashCode(cursor);
+    }
+}
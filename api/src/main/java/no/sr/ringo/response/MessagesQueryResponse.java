@@ -2,10 +2,13 @@
 package no.sr.ringo.response;
 
 import no.sr.ringo.message.MessageWithLocations;
-import no.sr.ringo.peppol.RingoUtils;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 
+import static no.sr.ringo.response.XmlResponseWriter.constant;
+
 /**
  * The response from a query on /messages
  *
@@ -13,6 +16,19 @@ import java.util.List;
  */
 public class MessagesQueryResponse implements MessageQueryRestResponse {
 
+    private static final byte[] START = constant("<messages-query-response version=\"");
+    private static final byte[] START_END = constant("\">\n");
+    private static final byte[] MESSAGES = constant("<messages>\n");
+    private static final byte[] END = constant("</messages>\n</messages-query-response>");
+
+    private static final byte[] NO_NAVIGATION = constant("<navigation/>\n");
+    private static final byte[] NAVIGATION = constant("<navigation>\n");
+    private static final byte[] NEXT = constant("<next>");
+    private static final byte[] NEXT_END = constant("</next>\n");
+    private static final byte[] PREVIOUS = constant("<previous>");
+    private static final byte[] PREVIOUS_END = constant("</previous>\n");
+    private static final byte[] NAVIGATION_END = constant("</navigation>\n");
+
     String version = "1.0";
 
     Navigation navigation;
@@ -77,40 +93,45 @@ public class MessagesQueryResponse implements MessageQueryRestResponse {
      * @return string representation of xml
      */
     public String asXml() {
-        StringBuilder xml = new StringBuilder();
-        xml.append("<messages-query-response version=\""+version+"\">\n");
+        return XmlResponseWriter.toString(this);
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        XmlResponseWriter xml = new XmlResponseWriter(outputStream);
+        xml.append(START).appendText(version).append(START_END);
         navigationAsXml(xml);
-        xml.append("<messages>\n");
+        xml.append(MESSAGES);
         messagesAsXml(xml);
-        xml.append("</messages>\n</messages-query-response>");
-        return xml.toString();
+        xml.append(END);
+        xml.flush();
     }
 
     /**
      * Helper method for adding the navigation
-     * @param xml the {@link StringBuilder} instance
+     * @param xml the {@link XmlResponseWriter} instance
      */
-    protected void navigationAsXml(StringBuilder xml) {
+    protected void navigationAsXml(XmlResponseWriter xml) throws IOException {
         if (navigation == null) {
-            xml.append("<navigation/>\n");
+            xml.append(NO_NAVIGATION);
         }
         else {
-            xml.append("<navigation>\n");
+            xml.append(NAVIGATION);
             if (navigation.getNext() != null) {
-                xml.append(String.format("<next>%s</next>\n", RingoUtils.toXml(navigation.getNext())));
+                xml.append(NEXT).appendUri(navigation.getNext()).append(NEXT_END);
             }
             if (navigation.getPrevious() != null) {
-                xml.append(String.format("<previous>%s</previous>\n", RingoUtils.toXml(navigation.getPrevious())));
+                xml.append(PREVIOUS).appendUri(navigation.getPrevious()).append(PREVIOUS_END);
             }
-            xml.append("</navigation>\n");
+            xml.append(NAVIGATION_END);
         }
     }
 
     /**
      * Helper method generating xml from messages
-     * @param xml {@link StringBuilder} instance
+     * @param xml {@link XmlResponseWriter} instance
      */
-    protected void messagesAsXml(StringBuilder xml) {
+    protected void messagesAsXml(XmlResponseWriter xml) throws IOException {
         for (MessageWithLocations current : messageList) {
             SingleMessagesResponse.singleMessageAsXml(xml, current);
         }
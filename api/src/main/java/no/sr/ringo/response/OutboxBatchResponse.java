@@ -0,0 +1,154 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package no.sr.ringo.response;
+
+import no.sr.ringo.message.MessageWithLocations;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import static no.sr.ringo.response.XmlResponseWriter.constant;
+
+/**
+ * The response to POST /outbox/batch, holding the outcome of every document of the batch in the order received.
+ *
+ * Documents are either created, i.e. placed on the outbound queue, accepted pending validation, or rejected
+ * along with the reason, the message being provided for the documents created or accepted.
+ */
+public class OutboxBatchResponse implements RestResponse {
+
+    private static final String VERSION = "1.0";
+
+    private static final byte[] START = constant("<outbox-batch-response version=\"" + VERSION + "\">\n");
+    private static final byte[] DOCUMENT = constant("<document file=\"");
+    private static final byte[] STATUS = constant("\" status=\"");
+    private static final byte[] DOCUMENT_START_END = constant("\">\n");
+    private static final byte[] ERROR = constant("<error>");
+    private static final byte[] ERROR_END = constant("</error>\n");
+    private static final byte[] DOCUMENT_END = constant("</document>\n");
+    private static final byte[] END = constant("</outbox-batch-response>");
+
+    public enum Status {
+        CREATED, ACCEPTED, REJECTED
+    }
+
+    private final List<Entry> entries;
+
+    public OutboxBatchResponse(List<Entry> entries) {
+        this.entries = entries;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    @Override
+    public String getVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        XmlResponseWriter xml = new XmlResponseWriter(outputStream);
+        xml.append(START);
+        for (Entry entry : entries) {
+            xml.append(DOCUMENT).appendEscaped(entry.getFileName())
+                    .append(STATUS).appendText(entry.getStatus().name())
+                    .append(DOCUMENT_START_END);
+            if (entry.getMessage() != null) {
+                SingleMessagesResponse.singleMessageAsXml(xml, entry.getMessage(), entry.getValidationState(), null);
+            }
+            if (entry.getError() != null) {
+                xml.append(ERROR).appendEscaped(entry.getError()).append(ERROR_END);
+            }
+            xml.append(DOCUMENT_END);
+        }
+        xml.append(END);
+        xml.flush();
+    }
+
+    /**
+     * The outcome of a single document of the batch.
+     */
+    public static class Entry {
+
+        private final String fileName;
+        private final MessageWithLocations message;
+        private final String validationState;
+        private final String error;
+
+        private Entry(String fileName, MessageWithLocations message, String validationState, String error) {
+            this.fileName = fileName;
+            this.message = message;
+            this.validationState = validationState;
+            this.error = error;
+        }
+
+        public static Entry created(String fileName, MessageWithLocations message) {
+            return new Entry(fileName, message, null, null);
+        }
+
+        /**
+         * @param validationState the state of the message until validated
+         */
+        public static Entry accepted(String fileName, MessageWithLocations message, String validationState) {
+            return new Entry(fileName, message, validationState, null);
+        }
+
+        public static Entry rejected(String fileName, String error) {
+            return new Entry(fileName, null, null, error);
+        }
+
+        /**
+         * Provides a copy of the entry holding the supplied message, e.g. decorated with locations.
+         */
+        public Entry withMessage(MessageWithLocations message) {
+            return new Entry(fileName, message, validationState, error);
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public MessageWithLocations getMessage() {
+            return message;
+        }
+
+        public String getValidationState() {
+            return validationState;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public Status getStatus() {
+            if (error != null) {
+                return Status.REJECTED;
+            }
+            return validationState == null ? Status.CREATED : Status.ACCEPTED;
+        }
+    }
+}
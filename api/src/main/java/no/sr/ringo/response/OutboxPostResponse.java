@@ -1,10 +1,12 @@
 /* Created by steinar on 02.01.12 at 13:55 */
 package no.sr.ringo.response;
 
-import no.sr.ringo.common.RingoConstants;
 import no.sr.ringo.message.MessageWithLocations;
 
-import java.io.UnsupportedEncodingException;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static no.sr.ringo.response.XmlResponseWriter.constant;
 
 /**
  * @author Steinar Overbeck Cook steinar@sendregning.no
@@ -14,19 +16,24 @@ import java.io.UnsupportedEncodingException;
  */
 public class OutboxPostResponse extends SingleMessagesResponse {
 
+    private static final byte[] START = constant("<outbox-post-response version=\"" + version + "\">\n");
+    private static final byte[] END = constant("\n</outbox-post-response>");
 
     public OutboxPostResponse(MessageWithLocations message) {
         super(message);
     }
 
-    public String asXml() {
-        StringBuilder resultXml = new StringBuilder();
-        resultXml.append("<outbox-post-response version=\""+version+"\">\n");
-
-        SingleMessagesResponse.singleMessageAsXml(resultXml,message);
+    public OutboxPostResponse(MessageWithLocations message, String validationState) {
+        super(message, validationState, null);
+    }
 
-        resultXml.append("\n</outbox-post-response>");
-        return resultXml.toString();
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        XmlResponseWriter xml = new XmlResponseWriter(outputStream);
+        xml.append(START);
+        SingleMessagesResponse.singleMessageAsXml(xml, message, validationState, validationError);
+        xml.append(END);
+        xml.flush();
     }
 
     /**
@@ -36,10 +43,6 @@ public class OutboxPostResponse extends SingleMessagesResponse {
      * @return byte array
      */
     public byte[] asEntity() {
-        try {
-            return asXml().getBytes(RingoConstants.DEFAULT_CHARACTER_SET);
-        } catch (UnsupportedEncodingException e) {
-            throw new IllegalStateException(e);
-        }
+        return XmlResponseWriter.toBytes(this);
     }
 }
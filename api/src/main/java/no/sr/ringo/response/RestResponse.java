@@ -1,5 +1,8 @@
 package no.sr.ringo.response;
 
+import java.io.IOException;
+import java.io.OutputStream;
+
 /**
  * @author Steinar Overbeck Cook steinar@sendregning.no
  */
@@ -7,4 +10,9 @@ public interface RestResponse {
 
     String getVersion();
 
+    /**
+     * Writes the response as XML, encoded in UTF-8.
+     */
+    void writeTo(OutputStream outputStream) throws IOException;
+
 }
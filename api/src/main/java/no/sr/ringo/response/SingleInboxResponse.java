@@ -3,23 +3,31 @@ package no.sr.ringo.response;
 
 import no.sr.ringo.message.MessageWithLocations;
 
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static no.sr.ringo.response.XmlResponseWriter.constant;
+
 /**
  * Class representing the result of /inbox/{msg_no} request
  * @author adam
  */
 public class SingleInboxResponse extends SingleMessagesResponse {
 
+    private static final byte[] START = constant("<inbox-query-response version=\"" + version + "\">\n");
+    private static final byte[] END = constant("</inbox-query-response>");
 
     public SingleInboxResponse(MessageWithLocations message) {
         super(message);
     }
 
-    public String asXml() {
-        StringBuilder resultXml = new StringBuilder();
-        resultXml.append("<inbox-query-response version=\""+version+"\">\n");
-        SingleMessagesResponse.singleMessageAsXml(resultXml, message);
-        resultXml.append("</inbox-query-response>");
-        return resultXml.toString();
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        XmlResponseWriter xml = new XmlResponseWriter(outputStream);
+        xml.append(START);
+        SingleMessagesResponse.singleMessageAsXml(xml, message);
+        xml.append(END);
+        xml.flush();
     }
 
 
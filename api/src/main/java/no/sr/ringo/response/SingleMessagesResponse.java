@@ -3,7 +3,11 @@ package no.sr.ringo.response;
 
 import no.sr.ringo.message.MessageWithLocations;
 import no.sr.ringo.peppol.PeppolHeader;
-import no.sr.ringo.peppol.RingoUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static no.sr.ringo.response.XmlResponseWriter.constant;
 
 /**
  * Class representing the result of /messages/{msg_no} request
@@ -13,18 +17,59 @@ public class SingleMessagesResponse implements RestResponse {
 
     protected static final String version = "1.0";
 
+    private static final byte[] START = constant("<messages-query-response version=\"" + version + "\">\n");
+    private static final byte[] END = constant("</messages-query-response>");
+
+    private static final byte[] MESSAGE_SELF = constant("<message>\n        <self>");
+    private static final byte[] XML_DOCUMENT = constant("</self>\n        <xml-document>");
+    private static final byte[] MSG_NO = constant("</xml-document>\n        <message-meta-data>\n          <msg-no>");
+    private static final byte[] DIRECTION = constant("</msg-no>\n          <direction>");
+    private static final byte[] RECEIVED = constant("</direction>\n          <received>");
+    private static final byte[] RECEIVED_END = constant("</received>\n");
+    private static final byte[] DELIVERED = constant("          <delivered>");
+    private static final byte[] DELIVERED_END = constant("</delivered>\n");
+    private static final byte[] UUID = constant("          <uuid>");
+    private static final byte[] UUID_END = constant("</uuid>\n");
+    private static final byte[] VALIDATION_STATE = constant("          <validation state=\"");
+    private static final byte[] VALIDATION_EMPTY_END = constant("\"/>\n");
+    private static final byte[] VALIDATION_ERROR = constant("\">");
+    private static final byte[] VALIDATION_END = constant("</validation>\n");
+    private static final byte[] MESSAGE_END = constant("        </message-meta-data>\n</message>\n");
+
+    private static final byte[] SENDER = constant("          <peppol-header>\n            <sender>");
+    private static final byte[] RECEIVER = constant("</sender>\n            <receiver>");
+    private static final byte[] CHANNEL = constant("</receiver>\n            <channel>");
+    private static final byte[] DOCUMENT_ID = constant("</channel>\n            <document-id>");
+    private static final byte[] PROCESS_ID = constant("</document-id>\n            <process-id>");
+    private static final byte[] PEPPOL_HEADER_END = constant("</process-id>\n          </peppol-header>\n");
+
     protected final MessageWithLocations message;
 
+    // State and error of messages being validated asynchronously, null otherwise
+    protected final String validationState;
+    protected final String validationError;
+
     public SingleMessagesResponse(MessageWithLocations messageWithLocator) {
+        this(messageWithLocator, null, null);
+    }
+
+    public SingleMessagesResponse(MessageWithLocations messageWithLocator, String validationState, String validationError) {
         this.message = messageWithLocator;
+        this.validationState = validationState;
+        this.validationError = validationError;
     }
 
     public String asXml() {
-        StringBuilder resultXml = new StringBuilder();
-        resultXml.append("<messages-query-response version=\""+version+"\">\n");
-        SingleMessagesResponse.singleMessageAsXml(resultXml, message);
-        resultXml.append("</messages-query-response>");
-        return resultXml.toString();
+        return XmlResponseWriter.toString(this);
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        XmlResponseWriter xml = new XmlResponseWriter(outputStream);
+        xml.append(START);
+        SingleMessagesResponse.singleMessageAsXml(xml, message, validationState, validationError);
+        xml.append(END);
+        xml.flush();
     }
 
     public String getVersion() {
@@ -35,36 +80,66 @@ public class SingleMessagesResponse implements RestResponse {
         return message;
     }
 
-    protected static void singleMessageAsXml(StringBuilder xml, MessageWithLocations current) {
-        xml.append("<message>\n");
-        xml.append("        <self>" + RingoUtils.toXml(current.getSelfURI()) + "</self>\n");
-        xml.append("        <xml-document>" + RingoUtils.toXml(current.getXmlDocumentURI()) + "</xml-document>\n");
-        xml.append("        <message-meta-data>\n");
-        xml.append("          <msg-no>" + current.getMsgNo() + "</msg-no>\n");
-        xml.append("          <direction>" + current.getTransferDirection().name() + "</direction>\n");
-        xml.append("          <received>" + RingoUtils.formatDateTimeAsISO8601String(current.getReceived()) + "</received>\n");
+    /**
+     * @return state of messages being validated asynchronously, or null
+     */
+    public String getValidationState() {
+        return validationState;
+    }
+
+    public String getValidationError() {
+        return validationError;
+    }
+
+    protected static void singleMessageAsXml(XmlResponseWriter xml, MessageWithLocations current) throws IOException {
+        singleMessageAsXml(xml, current, null, null);
+    }
+
+    protected static void singleMessageAsXml(XmlResponseWriter xml, MessageWithLocations current, String validationState, String validationError) throws IOException {
+        xml.append(MESSAGE_SELF).appendUri(current.getSelfURI());
+        xml.append(XML_DOCUMENT).appendUri(current.getXmlDocumentURI());
+        xml.append(MSG_NO);
+        if (current.getMsgNo() != null) {
+            xml.appendNumber(current.getMsgNo().toLong());
+        } else {
+            xml.appendText(null);
+        }
+        xml.append(DIRECTION).appendText(current.getTransferDirection().name());
+        xml.append(RECEIVED).appendDateTime(current.getReceived()).append(RECEIVED_END);
         if (current.getDelivered() != null){
-            xml.append("          <delivered>" + RingoUtils.formatDateTimeAsISO8601String(current.getDelivered()) + "</delivered>\n");
+            xml.append(DELIVERED).appendDateTime(current.getDelivered()).append(DELIVERED_END);
         }
         if (current.getReceptionId() != null) {
-            xml.append("          <uuid>" + RingoUtils.encodePredefinedXmlEntities(current.getReceptionId().stringValue()) + "</uuid>\n");
+            xml.append(UUID).appendEscaped(current.getReceptionId().stringValue()).append(UUID_END);
         }
         peppolHeaderAsXml(xml, current.getPeppolHeader());
-        xml.append("        </message-meta-data>\n");
-        xml.append("</message>\n");
+        if (validationState != null) {
+            xml.append(VALIDATION_STATE).appendEscaped(validationState);
+            if (validationError == null) {
+                xml.append(VALIDATION_EMPTY_END);
+            } else {
+                xml.append(VALIDATION_ERROR).appendEscaped(validationError).append(VALIDATION_END);
+            }
+        }
+        xml.append(MESSAGE_END);
     }
 
-    private static void peppolHeaderAsXml(StringBuilder xml, PeppolHeader peppolHeader) {
-        xml.append("          <peppol-header>\n");
-        xml.append("            <sender>" + RingoUtils.toXml(peppolHeader.getSender()) + "</sender>\n");
-        xml.append("            <receiver>" + RingoUtils.toXml(peppolHeader.getReceiver()) + "</receiver>\n");
-        xml.append("            <channel>" + RingoUtils.toXml(peppolHeader.getPeppolChannelId()) + "</channel>\n");
+    private static void peppolHeaderAsXml(XmlResponseWriter xml, PeppolHeader peppolHeader) throws IOException {
+        xml.append(SENDER);
+        if (peppolHeader.getSender() != null) {
+            xml.appendText(peppolHeader.getSender().getIdentifier());
+        }
+        xml.append(RECEIVER);
+        if (peppolHeader.getReceiver() != null) {
+            xml.appendText(peppolHeader.getReceiver().getIdentifier());
+        }
+        xml.append(CHANNEL).appendEscaped(peppolHeader.getPeppolChannelId() == null ? null : peppolHeader.getPeppolChannelId().stringValue());
         // TODO: Consider replacing this with something else
-        // xml.append("            <document-type>" + RingoUtils.toXml(peppolHeader.getPeppolDocumentIdAcronym()) + "</document-type>\n");
-        xml.append("            <document-id>" + RingoUtils.toXml(peppolHeader.getPeppolDocumentTypeId()) + "</document-id>\n");
+        // document-type, holding the PeppolDocumentIdAcronym, is no longer supplied
+        xml.append(DOCUMENT_ID).appendEscaped(peppolHeader.getPeppolDocumentTypeId() == null ? null : peppolHeader.getPeppolDocumentTypeId().getIdentifier());
         // TODO: Consider replacing this with something else
-        // xml.append("            <process-name>" + RingoUtils.toXml(peppolHeader.getPeppolProcessIdAcronym()) + "</process-name>\n");
-        xml.append("            <process-id>" + RingoUtils.toXml(peppolHeader.getProcessIdentifier()) + "</process-id>\n");
-        xml.append("          </peppol-header>\n");
+        // process-name, holding the PeppolProcessIdAcronym, is no longer supplied
+        xml.append(PROCESS_ID).appendEscaped(peppolHeader.getProcessIdentifier() == null ? null : peppolHeader.getProcessIdentifier().getIdentifier());
+        xml.append(PEPPOL_HEADER_END);
     }
 }
@@ -3,23 +3,35 @@ package no.sr.ringo.response;
 
 import no.sr.ringo.message.MessageWithLocations;
 
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static no.sr.ringo.response.XmlResponseWriter.constant;
+
 /**
  * Class representing the result of /outbox/{msg_no} request
  * @author adam
  */
 public class SingleOutboxResponse extends SingleMessagesResponse {
 
+    private static final byte[] START = constant("<outbox-query-response version=\"" + version + "\">\n<navigation/>\n");
+    private static final byte[] END = constant("</outbox-query-response>");
+
     public SingleOutboxResponse(MessageWithLocations message) {
         super(message);
     }
 
-    public String asXml() {
-        StringBuilder resultXml = new StringBuilder();
-        resultXml.append("<outbox-query-response version=\""+version+"\">\n");
-        resultXml.append("<navigation/>\n");
-        SingleMessagesResponse.singleMessageAsXml(resultXml, message);
-        resultXml.append("</outbox-query-response>");
-        return resultXml.toString();
+    public SingleOutboxResponse(MessageWithLocations message, String validationState, String validationError) {
+        super(message, validationState, validationError);
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        XmlResponseWriter xml = new XmlResponseWriter(outputStream);
+        xml.append(START);
+        SingleMessagesResponse.singleMessageAsXml(xml, message, validationState, validationError);
+        xml.append(END);
+        xml.flush();
     }
 
 
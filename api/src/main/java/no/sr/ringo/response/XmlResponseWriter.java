@@ -0,0 +1,305 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package no.sr.ringo.response;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.ISODateTimeFormat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+/**
+ * Writes the XML of REST responses directly to an {@link OutputStream}, encoding UTF-8 into an internal buffer.
+ *
+ * Constant markup is supplied pre-encoded, see {@link #constant(String)}. Text is escaped and dates are formatted
+ * without creating intermediate strings, producing the same output as
+ * {@link no.sr.ringo.peppol.RingoUtils#encodePredefinedXmlEntities(String)} and
+ * {@link no.sr.ringo.peppol.RingoUtils#formatDateTimeAsISO8601String(Date)}.
+ *
+ * Not thread safe.
+ */
+public class XmlResponseWriter implements Flushable {
+
+    static final int BUFFER_SIZE = 8192;
+
+    /** Longest sequence written in one go, i.e. an ISO 8601 date time or a 64 bit number */
+    static final int MAX_TOKEN_LENGTH = 32;
+
+    private static final byte[] AMP = constant("&amp;");
+    private static final byte[] QUOT = constant("&quot;");
+    private static final byte[] APOS = constant("&apos;");
+    private static final byte[] LT = constant("&lt;");
+    private static final byte[] GT = constant("&gt;");
+    private static final byte[] NULL = constant("null");
+
+    private final OutputStream outputStream;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int count;
+
+    public XmlResponseWriter(OutputStream outputStream) {
+        this.outputStream = outputStream;
+    }
+
+    /**
+     * Encodes constant markup once, to be written using {@link #append(byte[])}.
+     */
+    public static byte[] constant(String markup) {
+        return markup.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes pre-encoded markup.
+     */
+    public XmlResponseWriter append(byte[] markup) throws IOException {
+        if (markup.length > buffer.length - count) {
+            flushBuffer();
+            if (markup.length > buffer.length) {
+                outputStream.write(markup);
+                return this;
+            }
+        }
+        System.arraycopy(markup, 0, buffer, count, markup.length);
+        count += markup.length;
+        return this;
+    }
+
+    /**
+     * Writes the text as is, without escaping. Null is written as "null".
+     */
+    public XmlResponseWriter appendText(String text) throws IOException {
+        if (text == null) {
+            return append(NULL);
+        }
+        for (int i = 0; i < text.length(); i++) {
+            i = encode(text, i);
+        }
+        return this;
+    }
+
+    /**
+     * Writes the text trimmed and with the predefined XML entities escaped. Null is written as "null".
+     */
+    public XmlResponseWriter appendEscaped(String text) throws IOException {
+        if (text == null) {
+            return append(NULL);
+        }
+
+        // Trims as String#trim() does
+        int start = 0;
+        int end = text.length();
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
+        }
+        while (start < end && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&':
+                    append(AMP);
+                    break;
+                case '"':
+                    append(QUOT);
+                    break;
+                case '\'':
+                    append(APOS);
+                    break;
+                case '<':
+                    append(LT);
+                    break;
+                case '>':
+                    append(GT);
+                    break;
+                default:
+                    i = encode(text, i);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Writes the URI in its escaped ASCII form, null being written as an empty string.
+     */
+    public XmlResponseWriter appendUri(URI uri) throws IOException {
+        return uri == null ? this : appendEscaped(uri.toASCIIString());
+    }
+
+    public XmlResponseWriter appendNumber(long number) throws IOException {
+        ensureCapacity(MAX_TOKEN_LENGTH);
+        if (number < 0) {
+            if (number == Long.MIN_VALUE) {
+                return appendText(Long.toString(number));
+            }
+            buffer[count++] = '-';
+            number = -number;
+        }
+        int digits = 1;
+        for (long n = number; n >= 10; n /= 10) {
+            digits++;
+        }
+        for (int i = count + digits - 1; i >= count; i--) {
+            buffer[i] = (byte) ('0' + number % 10);
+            number /= 10;
+        }
+        count += digits;
+        return this;
+    }
+
+    /**
+     * Writes the date as yyyy-MM-dd'T'HH:mm:ss.SSSZZ in the default time zone, null being written as an empty string.
+     */
+    public XmlResponseWriter appendDateTime(Date date) throws IOException {
+        if (date == null) {
+            return this;
+        }
+
+        long millis = date.getTime();
+        int offset = DateTimeZone.getDefault().getOffset(millis);
+        long local = millis + offset;
+        long days = Math.floorDiv(local, 86400000L);
+        int millisOfDay = (int) Math.floorMod(local, 86400000L);
+
+        // Civil date from days since epoch, using the proleptic Gregorian calendar as ISO chronology does
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        if (year < 0 || year > 9999 || offset % 60000 != 0) {
+            // Out of the range handled here, hence leaves it to Joda
+            return appendText(ISODateTimeFormat.dateTime().print(millis));
+        }
+
+        ensureCapacity(MAX_TOKEN_LENGTH);
+        digits((int) year, 4);
+        buffer[count++] = '-';
+        digits(month, 2);
+        buffer[count++] = '-';
+        digits(day, 2);
+        buffer[count++] = 'T';
+        digits(millisOfDay / 3600000, 2);
+        buffer[count++] = ':';
+        digits(millisOfDay / 60000 % 60, 2);
+        buffer[count++] = ':';
+        digits(millisOfDay / 1000 % 60, 2);
+        buffer[count++] = '.';
+        digits(millisOfDay % 1000, 3);
+
+        if (offset == 0) {
+            buffer[count++] = 'Z';
+        } else {
+            int offsetMinutes = Math.abs(offset) / 60000;
+            buffer[count++] = (byte) (offset < 0 ? '-' : '+');
+            digits(offsetMinutes / 60, 2);
+            buffer[count++] = ':';
+            digits(offsetMinutes % 60, 2);
+        }
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        outputStream.flush();
+    }
+
+    /**
+     * Provides the XML of the response as bytes, for those needing the whole entity up front.
+     */
+    static byte[] toBytes(RestResponse response) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(BUFFER_SIZE);
+        try {
+            response.writeTo(outputStream);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to write " + response.getClass().getSimpleName() + "; " + e.getMessage(), e);
+        }
+        return outputStream.toByteArray();
+    }
+
+    static String toString(RestResponse response) {
+        return new String(toBytes(response), StandardCharsets.UTF_8);
+    }
+
+    private void digits(int value, int width) {
+        for (int i = count + width - 1; i >= count; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        count += width;
+    }
+
+    /**
+     * Encodes the character at the given index as UTF-8.
+     *
+     * @return the index of the last character consumed, being the low surrogate of a surrogate pair
+     */
+    private int encode(String text, int index) throws IOException {
+        ensureCapacity(4);
+        char c = text.charAt(index);
+        if (c < 0x80) {
+            buffer[count++] = (byte) c;
+        } else if (c < 0x800) {
+            buffer[count++] = (byte) (0xc0 | (c >> 6));
+            buffer[count++] = (byte) (0x80 | (c & 0x3f));
+        } else if (Character.isHighSurrogate(c) && index + 1 < text.length() && Character.isLowSurrogate(text.charAt(index + 1))) {
+            int codePoint = Character.toCodePoint(c, text.charAt(++index));
+            buffer[count++] = (byte) (0xf0 | (codePoint >> 18));
+            buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+            buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+            buffer[count++] = (byte) (0x80 | (codePoint & 0x3f));
+        } else if (Character.isSurrogate(c)) {
+            // Malformed, replaced as the UTF-8 encoder of the JDK does
+            buffer[count++] = '?';
+        } else {
+            buffer[count++] = (byte) (0xe0 | (c >> 12));
+            buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            buffer[count++] = (byte) (0x80 | (c & 0x3f));
+        }
+        return index;
+    }
+
+    private void ensureCapacity(int length) throws IOException {
+        if (buffer.length - count < length) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            outputStream.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+}
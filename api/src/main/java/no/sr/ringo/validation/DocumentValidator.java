@@ -0,0 +1,47 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package no.sr.ringo.validation;
+
+import no.difi.vefa.peppol.common.model.DocumentTypeIdentifier;
+
+import java.nio.file.Path;
+
+/**
+ * Validates business documents uploaded by the back end, prior to them being queued for transmission.
+ * <p>
+ * Implementations are required to be thread safe. A custom implementation may be supplied as a plugin.
+ *
+ * @see ValidationResult
+ */
+public interface DocumentValidator {
+
+    /**
+     * Validates the document held in the supplied file, which may be read as many times as required.
+     *
+     * @param documentTypeIdentifier the PEPPOL document type identifier supplied along with the document.
+     * @param document               the document exactly as uploaded.
+     * @return the outcome of the validation, never null.
+     * @throws IllegalStateException if the validation could not be performed at all.
+     */
+    ValidationResult validate(DocumentTypeIdentifier documentTypeIdentifier, Path document);
+}
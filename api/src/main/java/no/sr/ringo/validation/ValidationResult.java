@@ -0,0 +1,85 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package no.sr.ringo.validation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of validating a document.
+ */
+public class ValidationResult {
+
+    public enum Status {
+        /** The document is valid, although warnings may have been reported */
+        OK,
+        /** The document violates one or more rules */
+        ERROR,
+        /** The document is of an unknown type or could not be read */
+        FATAL
+    }
+
+    private final Status status;
+    private final List<String> messages;
+
+    public ValidationResult(Status status, List<String> messages) {
+        this.status = status;
+        this.messages = Collections.unmodifiableList(new ArrayList<>(messages));
+    }
+
+    public static ValidationResult ok() {
+        return new ValidationResult(Status.OK, Collections.emptyList());
+    }
+
+    public static ValidationResult fatal(String message) {
+        return new ValidationResult(Status.FATAL, Collections.singletonList(message));
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isValid() {
+        return status == Status.OK;
+    }
+
+    public List<String> getMessages() {
+        return messages;
+    }
+
+    /**
+     * @return the messages, one per line.
+     */
+    public String getDescription() {
+        return String.join("\n", messages);
+    }
+
+    @Override
+    public String toString() {
+        return "ValidationResult{" +
+                "status=" + status +
+                ", messages=" + messages +
+                '}';
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package no.sr.ringo.response;
+
+import no.difi.vefa.peppol.common.model.ParticipantIdentifier;
+import no.difi.vefa.peppol.common.model.ProcessIdentifier;
+import no.sr.ringo.message.*;
+import no.sr.ringo.peppol.PeppolChannelId;
+import no.sr.ringo.peppol.PeppolDocumentTypeId;
+import no.sr.ringo.peppol.RingoUtils;
+import no.sr.ringo.transport.TransferDirection;
+import org.joda.time.DateTimeZone;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Verifies the output of {@link XmlResponseWriter} is identical to the String based formatting it replaced.
+ */
+public class XmlResponseWriterTest {
+
+    private final DateTimeZone defaultZone = DateTimeZone.getDefault();
+
+    @AfterMethod
+    public void restoreDefaultZone() {
+        DateTimeZone.setDefault(defaultZone);
+    }
+
+    @Test
+    public void testEscaping() throws Exception {
+        for (String text : Arrays.asList("", "  plain  ", "A & B <c> \"d\" 'e'", "&amp;", "æøå € 😀", "lone \uD800 surrogate", "\t\n")) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            XmlResponseWriter xml = new XmlResponseWriter(outputStream);
+            xml.appendEscaped(text);
+            xml.flush();
+
+            assertEquals(outputStream.toByteArray(), RingoUtils.encodePredefinedXmlEntities(text).getBytes(StandardCharsets.UTF_8), text);
+        }
+    }
+
+    @Test
+    public void testDateTime() throws Exception {
+        long[] instants = {0L, 1325376000000L, 1332635759999L, 1351382400000L, System.currentTimeMillis(), -62135769600000L, 253402300799999L};
+
+        for (String zone : Arrays.asList("UTC", "Europe/Oslo", "America/St_Johns", "Asia/Kathmandu", "Pacific/Chatham")) {
+            DateTimeZone.setDefault(DateTimeZone.forID(zone));
+            for (long instant : instants) {
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                XmlResponseWriter xml = new XmlResponseWriter(outputStream);
+                xml.appendDateTime(new Date(instant));
+                xml.flush();
+
+                assertEquals(outputStream.toString("UTF-8"), RingoUtils.formatDateTimeAsISO8601String(new Date(instant)), zone + " " + instant);
+            }
+        }
+    }
+
+    @Test
+    public void testNumbers() throws Exception {
+        for (long number : new long[]{0, 1, -1, 4711, Long.MAX_VALUE, Long.MIN_VALUE}) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            XmlResponseWriter xml = new XmlResponseWriter(outputStream);
+            xml.appendNumber(number);
+            xml.flush();
+
+            assertEquals(outputStream.toString("UTF-8"), Long.toString(number));
+        }
+    }
+
+    @Test
+    public void testOutputLargerThanBuffer() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < XmlResponseWriter.BUFFER_SIZE; i++) {
+            text.append("<ø>");
+        }
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        XmlResponseWriter xml = new XmlResponseWriter(outputStream);
+        xml.appendEscaped(text.toString());
+        xml.flush();
+
+        assertEquals(outputStream.toString("UTF-8"), RingoUtils.encodePredefinedXmlEntities(text.toString()));
+    }
+
+    @Test
+    public void testSingleMessagesResponse() throws Exception {
+        MessageWithLocations message = sampleMessage();
+
+        assertEquals(new SingleMessagesResponse(message).asXml(),
+                "<messages-query-response version=\"1.0\">\n" + legacyMessageAsXml(message, null) + "</messages-query-response>");
+        assertEquals(new SingleOutboxResponse(message, "VALIDATION_FAILED", "<ID> missing").asXml(),
+                "<outbox-query-response version=\"1.0\">\n<navigation/>\n" + legacyMessageAsXml(message, "          <validation state=\"VALIDATION_FAILED\">&lt;ID&gt; missing</validation>\n") + "</outbox-query-response>");
+    }
+
+    @Test
+    public void testMessagesQueryResponse() throws Exception {
+        MessageWithLocations message = sampleMessage();
+        MessageWithLocations emptyMessage = new MessageWithLocationsImpl(emptyMessageMetaData(), null, null);
+
+        MessagesQueryResponse response = new MessagesQueryResponse(Arrays.asList(message, emptyMessage));
+        response.setNavigation(new Navigation(null, URI.create("https://ringo.domain.com/messages?index=2&sent=%3E2012")));
+
+        assertEquals(response.asXml(), "<messages-query-response version=\"1.0\">\n"
+                + "<navigation>\n<next>https://ringo.domain.com/messages?index=2&amp;sent=%3E2012</next>\n</navigation>\n"
+                + "<messages>\n" + legacyMessageAsXml(message, null) + legacyMessageAsXml(emptyMessage, null)
+                + "</messages>\n</messages-query-response>");
+
+        assertEquals(new InboxQueryResponse(Arrays.asList(message)).asXml(),
+                "<inbox-query-response version=\"1.0\">\n<messages>\n" + legacyMessageAsXml(message, null) + "</messages>\n</inbox-query-response>");
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        response.writeTo(outputStream);
+        assertEquals(outputStream.toString("UTF-8"), response.asXml());
+    }
+
+    private MessageWithLocations sampleMessage() {
+        MessageMetaDataImpl messageMetaData = emptyMessageMetaData();
+        messageMetaData.setDelivered(new Date(1332635759999L));
+        messageMetaData.setReceptionId(new ReceptionId("8bd1c5bc-4b63-4c4c-9d0e-2b4b6b6c3c3b"));
+        messageMetaData.getPeppolHeader().setSender(new ParticipantIdentifier("9908:976098897"));
+        messageMetaData.getPeppolHeader().setReceiver(new ParticipantIdentifier("9908:810017902"));
+        messageMetaData.getPeppolHeader().setPeppolChannelId(new PeppolChannelId("SREST & co"));
+        messageMetaData.getPeppolHeader().setDocumentTypeIdentifier(PeppolDocumentTypeId.EHF_INVOICE.toVefa());
+        messageMetaData.getPeppolHeader().setProcessIdentifier(ProcessIdentifier.of("urn:www.cenbii.eu:profile:bii04:ver1.0"));
+
+        return new MessageWithLocationsImpl(messageMetaData,
+                URI.create("https://ringo.domain.com/outbox/4711"), URI.create("https://ringo.domain.com/messages/4711/xml-document"));
+    }
+
+    private MessageMetaDataImpl emptyMessageMetaData() {
+        MessageMetaDataImpl messageMetaData = new MessageMetaDataImpl();
+        messageMetaData.setMsgNo(MessageNumber.of(4711));
+        messageMetaData.setTransferDirection(TransferDirection.OUT);
+        messageMetaData.setReceived(new Date(1325376000000L));
+        return messageMetaData;
+    }
+
+    /**
+     * The String concatenation previously used for each message.
+     */
+    private static String legacyMessageAsXml(MessageWithLocations current, String validation) {
+        return "<message>\n"
+                + "        <self>" + RingoUtils.toXml(current.getSelfURI()) + "</self>\n"
+                + "        <xml-document>" + RingoUtils.toXml(current.getXmlDocumentURI()) + "</xml-document>\n"
+                + "        <message-meta-data>\n"
+                + "          <msg-no>" + current.getMsgNo() + "</msg-no>\n"
+                + "          <direction>" + current.getTransferDirection().name() + "</direction>\n"
+                + "          <received>" + RingoUtils.formatDateTimeAsISO8601String(current.getReceived()) + "</received>\n"
+                + (current.getDelivered() == null ? "" : "          <delivered>" + RingoUtils.formatDateTimeAsISO8601String(current.getDelivered()) + "</delivered>\n")
+                + (current.getReceptionId() == null ? "" : "          <uuid>" + RingoUtils.encodePredefinedXmlEntities(current.getReceptionId().stringValue()) + "</uuid>\n")
+                + "          <peppol-header>\n"
+                + "            <sender>" + RingoUtils.toXml(current.getPeppolHeader().getSender()) + "</sender>\n"
+                + "            <receiver>" + RingoUtils.toXml(current.getPeppolHeader().getReceiver()) + "</receiver>\n"
+                + "            <channel>" + RingoUtils.toXml(current.getPeppolHeader().getPeppolChannelId()) + "</channel>\n"
+                + "            <document-id>" + RingoUtils.toXml(current.getPeppolHeader().getPeppolDocumentTypeId()) + "</document-id>\n"
+                + "            <process-id>" + RingoUtils.toXml(current.getPeppolHeader().getProcessIdentifier()) + "</process-id>\n"
+                + "          </peppol-header>\n"
+                + (validation == null ? "" : validation)
+                + "        </message-meta-data>\n"
+                + "</message>\n";
+    }
+}
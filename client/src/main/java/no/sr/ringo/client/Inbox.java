@@ -3,6 +3,8 @@ package no.sr.ringo.client;
 
 import no.sr.ringo.response.InboxRingoResponseHandler;
 
+import java.io.File;
+
 /**
  * Provides access to all incoming messages that have not yet been read.
  *
@@ -35,4 +37,16 @@ public class Inbox extends Messagebox {
     public Messages getMessages() {
         return ringoService.messages(this, new InboxRingoResponseHandler(ringoService));
     }
+
+    /**
+     * Downloads the payloads of up to max unread messages in a single request. The messages remain unread until
+     * {@link InboxBundle#markAsRead()} is invoked.
+     *
+     * @param max the maximum number of messages to download
+     * @param directory the directory to hold the payloads until moved to their final location
+     * @return the bundle, or null if the server does not provide inbox bundles
+     */
+    public InboxBundle downloadBundle(int max, File directory) {
+        return ringoService.downloadInboxBundle(max, directory);
+    }
 }
@@ -0,0 +1,123 @@
+package no.sr.ringo.client;
+
+import no.difi.vefa.peppol.common.model.ParticipantIdentifier;
+import no.sr.ringo.common.FileHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The payloads of a number of unread messages, retrieved from the inbox in a single request.
+ *
+ * The payloads have been verified against the digests of the manifest and are held in temporary files, until
+ * moved to their final location.
+ */
+public class InboxBundle {
+
+    /** Suffix of the temporary files holding the payloads until moved */
+    public static final String TEMPORARY_FILE_SUFFIX = ".bundle.tmp";
+
+    private final RingoService ringoService;
+    private final String ackToken;
+    private final List<Entry> entries;
+
+    public InboxBundle(RingoService ringoService, String ackToken, List<Entry> entries) {
+        this.ringoService = ringoService;
+        this.ackToken = ackToken;
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * @return the token used to mark all the messages of the bundle as read, null if the bundle is empty
+     */
+    public String getAckToken() {
+        return ackToken;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Marks all the messages of this bundle as read.
+     *
+     * @return true if the operation was successful, false otherwise
+     */
+    public boolean markAsRead() {
+        return ringoService.markAsRead(this);
+    }
+
+    /**
+     * Removes the temporary files of the payloads not moved.
+     */
+    public void discard() {
+        for (Entry entry : entries) {
+            entry.discard();
+        }
+    }
+
+    /**
+     * A message of the bundle.
+     */
+    public static class Entry {
+
+        private final Long msgNo;
+        private final String receptionId;
+        private final ParticipantIdentifier receiver;
+        private File file;
+
+        public Entry(Long msgNo, String receptionId, ParticipantIdentifier receiver, File file) {
+            this.msgNo = msgNo;
+            this.receptionId = receptionId;
+            this.receiver = receiver;
+            this.file = file;
+        }
+
+        public Long getMsgNo() {
+            return msgNo;
+        }
+
+        public String getReceptionId() {
+            return receptionId;
+        }
+
+        public ParticipantIdentifier getReceiver() {
+            return receiver;
+        }
+
+        /**
+         * @return the file holding the payload
+         */
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * Moves the payload to the given directory.
+         * The filename of the file will be &lt;UUID&gt;.xml or &lt;UUID&gt;_(d).xml if previous one existed,
+         * as when saving a {@link Message}.
+         *
+         * @return the moved file.
+         */
+        public File moveToDirectory(File directory) throws IOException {
+            String filename = FileHelper.checkFile(directory, FileHelper.formatForFileName(receptionId) + ".xml");
+            File target = new File(directory, filename);
+            Files.move(file.toPath(), target.toPath());
+            file = target;
+            return target;
+        }
+
+        void discard() {
+            if (file != null && file.getName().endsWith(TEMPORARY_FILE_SUFFIX)) {
+                file.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package no.sr.ringo.client;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The messages, inbound as well as outbound, which have been received, sent or read since a cursor, in the order
+ * of the changes.
+ *
+ * Supply {@link #getCursor()} when asking for the changes the next time, to synchronise incrementally.
+ */
+public class MessageChanges {
+
+    private final List<Message> messages;
+    private final long cursor;
+    private final boolean more;
+
+    public MessageChanges(List<Message> messages, long cursor, boolean more) {
+        this.messages = Collections.unmodifiableList(messages);
+        this.cursor = cursor;
+        this.more = more;
+    }
+
+    public List<Message> getMessages() {
+        return messages;
+    }
+
+    /**
+     * @return the cursor to supply when asking for the next changes
+     */
+    public long getCursor() {
+        return cursor;
+    }
+
+    /**
+     * @return true if there were more changes than provided, which are retrieved by asking once more using the cursor
+     */
+    public boolean isMore() {
+        return more;
+    }
+
+    public boolean isEmpty() {
+        return messages.isEmpty();
+    }
+}
@@ -34,6 +34,19 @@ public class Messagebox implements MessageContainer {
         return ringoService.messages(this, new MessageListRingoResponseHandler(ringoService));
     }
 
+    /**
+     * Fetches up to max messages, inbound as well as outbound, which have been received, sent or read since the
+     * cursor supplied by the previous changes, allowing the messages to be synchronised incrementally.
+     *
+     * A change being committed while a later change is fetched may be missed, hence the changes do not replace
+     * fetching the unread messages of the inbox now and then.
+     *
+     * @param since {@link MessageChanges#getCursor()} of the previous changes, 0 to start from the beginning
+     */
+    public MessageChanges getChanges(long since, int max) {
+        return ringoService.changes(since, max);
+    }
+
     public String getPath() {
         return "messages";
     }
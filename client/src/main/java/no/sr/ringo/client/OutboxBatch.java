@@ -0,0 +1,70 @@
+package no.sr.ringo.client;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of uploading a number of documents to the outbox in a single request, document by document.
+ */
+public class OutboxBatch {
+
+    private final List<Entry> entries;
+
+    public OutboxBatch(List<Entry> entries) {
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * A document of the batch.
+     */
+    public static class Entry {
+
+        /** Status of documents rejected by the server, or not sent at all */
+        public static final String REJECTED = "REJECTED";
+
+        private final String fileName;
+        private final String status;
+        private final Long msgNo;
+        private final String error;
+
+        public Entry(String fileName, String status, Long msgNo, String error) {
+            this.fileName = fileName;
+            this.status = status;
+            this.msgNo = msgNo;
+            this.error = error;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        /**
+         * @return CREATED, ACCEPTED when pending validation, or REJECTED
+         */
+        public String getStatus() {
+            return status;
+        }
+
+        /**
+         * @return the message number of documents uploaded, null if rejected
+         */
+        public Long getMsgNo() {
+            return msgNo;
+        }
+
+        /**
+         * @return the reason of documents being rejected
+         */
+        public String getError() {
+            return error;
+        }
+
+        public boolean isUploaded() {
+            return !REJECTED.equals(status);
+        }
+    }
+}
@@ -41,6 +41,15 @@ public interface RingoClient {
      */
     Message send(File file, PeppolChannelId peppolChannelId, ParticipantIdentifier senderIdPeppol, ParticipantIdentifier recipientIdPeppol, UploadMode uploadMode);
 
+    /**
+     * Sends the given files in a single request, as {@link #send(File, PeppolChannelId, ParticipantIdentifier, ParticipantIdentifier, UploadMode)}
+     * does for a single file. Files from which no header can be determined are rejected without being sent.
+     *
+     * @param files             The Xml files to upload, having distinct names
+     * @return the outcome of every file, or null if the server does not provide batch uploads
+     */
+    OutboxBatch send(List<File> files, PeppolChannelId peppolChannelId, ParticipantIdentifier senderIdPeppol, ParticipantIdentifier recipientIdPeppol, UploadMode uploadMode);
+
     /**
      * Sends the document provided by the inputStream using the peppol network. Using a Stream helps to reduce the memory footprint
      * required to send a document.
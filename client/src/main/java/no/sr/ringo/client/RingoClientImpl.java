@@ -12,6 +12,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -78,6 +79,36 @@ public class RingoClientImpl implements RingoClient {
         return ringoService.sendDocument(peppolDocument, peppolHeader, uploadMode);
     }
 
+    public OutboxBatch send(List<File> files, PeppolChannelId peppolChannelId, ParticipantIdentifier senderIdPeppol, ParticipantIdentifier recipientIdPeppol, UploadMode uploadMode) {
+
+        List<OutboxBatch.Entry> rejected = new ArrayList<OutboxBatch.Entry>();
+        List<ClientPeppolDocument> peppolDocuments = new ArrayList<ClientPeppolDocument>();
+        List<PeppolHeader> peppolHeaders = new ArrayList<PeppolHeader>();
+        for (File file : files) {
+            try {
+                ClientPeppolDocumentFactory clientPeppolDocumentFactory = new ClientPeppolDocumentFactory(file);
+                PeppolHeader peppolHeader = clientPeppolDocumentFactory.createPeppolHeader(peppolChannelId, senderIdPeppol, recipientIdPeppol);
+                peppolHeader.validate();
+                peppolDocuments.add(clientPeppolDocumentFactory.createDocument());
+                peppolHeaders.add(peppolHeader);
+            } catch (RuntimeException e) {
+                log.debug("Unable to determine header of " + file + "; " + e.getMessage());
+                rejected.add(new OutboxBatch.Entry(file.getName(), OutboxBatch.Entry.REJECTED, null, e.getMessage()));
+            }
+        }
+        if (peppolDocuments.isEmpty()) {
+            return new OutboxBatch(rejected);
+        }
+
+        OutboxBatch outboxBatch = ringoService.sendDocuments(peppolDocuments, peppolHeaders, uploadMode);
+        if (outboxBatch == null) {
+            return null;
+        }
+        List<OutboxBatch.Entry> entries = new ArrayList<OutboxBatch.Entry>(outboxBatch.getEntries());
+        entries.addAll(rejected);
+        return new OutboxBatch(entries);
+    }
+
     /**
      * Sends the document contained within the inputStream.
      * @param inputStream The stream containing the contents of the document.
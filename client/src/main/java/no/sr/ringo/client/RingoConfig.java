@@ -58,4 +58,22 @@ public interface RingoConfig {
      */
     ProxySettings getProxySettings();
 
+    /**
+     * Whether lists of messages should be requested as JSON rather than XML, being faster to parse.
+     *
+     * @return false unless overridden
+     */
+    default boolean isJsonPreferred() {
+        return false;
+    }
+
+    /**
+     * Whether documents should be uploaded compressed with gzip, which requires a server decompressing uploads.
+     *
+     * @return false unless overridden
+     */
+    default boolean isUploadCompressed() {
+        return false;
+    }
+
 }
\ No newline at end of file
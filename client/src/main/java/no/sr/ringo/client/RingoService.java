@@ -11,6 +11,7 @@ import no.sr.ringo.response.Navigation;
 import no.sr.ringo.response.RingoResponseHandler;
 import no.sr.ringo.smp.AcceptedDocumentTransfer;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.List;
@@ -56,6 +57,14 @@ public interface RingoService {
      */
     Messages messages(MessageContainer messageContainer, RingoResponseHandler<? extends Messages> messagesResponseHandler);
 
+    /**
+     * Fetches the messages received, sent or read since the cursor.
+     *
+     * @param since the cursor of the previous changes, 0 to start from the beginning
+     * @param max the maximum number of messages to fetch
+     */
+    MessageChanges changes(long since, int max);
+
     /**
      * Sends the document to Ringo server using the SRest protocol.
      *
@@ -66,6 +75,16 @@ public interface RingoService {
      */
     Message sendDocument(ClientPeppolDocument peppolDocument, PeppolHeader peppolHeader, UploadMode uploadMode);
 
+    /**
+     * Sends a number of documents to the Ringo server in a single request, each document having a header of its own.
+     *
+     * @param peppolDocuments The documents to send, having distinct file names
+     * @param peppolHeaders The peppol headers of the documents, in the same order
+     * @param uploadMode
+     * @return the outcome of every document, or null if not supported by the server
+     */
+    OutboxBatch sendDocuments(List<ClientPeppolDocument> peppolDocuments, List<PeppolHeader> peppolHeaders, UploadMode uploadMode);
+
     /**
      * When creating a Peppol document one needs to know the Document and process ids that the recipient supports.
      * So that the generated Peppol Document can use these values. Also The PeppolHeader needs to contain
@@ -84,6 +103,22 @@ public interface RingoService {
      */
     void downloadMessage(MessageWithLocations message, OutputStream outputStream) throws IOException;
 
+    /**
+     * Downloads the payloads of up to max unread messages of the inbox in a single request.
+     *
+     * @param max the maximum number of messages to download
+     * @param directory the directory to hold the payloads until moved to their final location
+     * @return the bundle, or null if not supported by the server
+     */
+    InboxBundle downloadInboxBundle(int max, File directory);
+
+    /**
+     * Marks all the messages of the inbox bundle as read on the ringo server.
+     * @param inboxBundle
+     * @return
+     */
+    boolean markAsRead(InboxBundle inboxBundle);
+
 
     Boolean sendErrorNotification(ErrorNotificationData errorNotificationData);
 }
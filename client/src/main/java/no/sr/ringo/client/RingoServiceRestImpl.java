@@ -14,11 +14,15 @@ import org.apache.http.*;
 import org.apache.http.auth.*;
 import org.apache.http.client.CredentialsProvider;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.entity.GzipCompressingEntity;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.client.protocol.ClientContext;
+import org.apache.http.client.protocol.RequestAcceptEncoding;
+import org.apache.http.client.protocol.ResponseContentEncoding;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
 import org.apache.http.entity.mime.HttpMultipartMode;
@@ -27,6 +31,7 @@ import org.apache.http.entity.mime.content.ContentBody;
 import org.apache.http.entity.mime.content.StringBody;
 import org.apache.http.impl.auth.BasicScheme;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.message.BasicHttpResponse;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
@@ -34,10 +39,12 @@ import org.apache.http.params.HttpProtocolParams;
 import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.ExecutionContext;
 import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
@@ -48,8 +55,12 @@ import java.nio.charset.Charset;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.UUID;
 
 /**
  * Exposes the SendRegning access point to the RingoClient.
@@ -72,6 +83,19 @@ public class RingoServiceRestImpl implements RingoService {
 
     protected HttpClient httpClient;
 
+    static final String ACCEPT_JSON = "application/json, application/xml;q=0.5";
+
+    /** Upper limit of responses held for conditional requests */
+    static final int MAX_CONDITIONAL_RESPONSES = 32;
+
+    /** Responses provided with an ETag, by request URI and Accept header, least recently used first */
+    private final Map<String, ConditionalResponse> conditionalResponses = Collections.synchronizedMap(new LinkedHashMap<String, ConditionalResponse>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ConditionalResponse> eldest) {
+            return size() > MAX_CONDITIONAL_RESPONSES;
+        }
+    });
+
     /**
      * Sets up the client service with the given configuration.
      *
@@ -155,22 +179,52 @@ public class RingoServiceRestImpl implements RingoService {
         return execute(httpPost, new MarkAsReadRingoResponseHandler());
     }
 
+    public InboxBundle downloadInboxBundle(int max, File directory) {
+        HttpGet httpGet = new HttpGet(createURI(String.format("%s/inbox/bundle?max=%d", baseUri, max)));
+        return execute(httpGet, new InboxBundleRingoResponseHandler(this, directory));
+    }
+
+    public boolean markAsRead(InboxBundle inboxBundle) {
+        if (inboxBundle.getAckToken() == null) {
+            return true;
+        }
+        HttpPost httpPost = createHttpPost("/inbox/bundle/" + inboxBundle.getAckToken() + "/read");
+        return execute(httpPost, new MarkAsReadRingoResponseHandler());
+    }
+
     public Messages next(Navigation navigation, RingoResponseHandler<? extends Messages> ringoResponseHandler) {
         HttpGet httpGet = new HttpGet(navigation.getNext());
-        return execute(httpGet, ringoResponseHandler);
+        acceptJsonIfPreferred(httpGet);
+        return executeConditionally(httpGet, ringoResponseHandler);
     }
 
     public Integer count(MessageContainer messageContainer) {
         String messageResource = String.format("%s/%s/count", baseUri, messageContainer.getPath());
         URI countMessagesUri = createURI(messageResource);
         HttpGet httpGet = new HttpGet(countMessagesUri);
-        return execute(httpGet, new CountRingoResponseHandler());
+        return executeConditionally(httpGet, new CountRingoResponseHandler());
     }
 
     public Messages messages(MessageContainer messageContainer, RingoResponseHandler<? extends Messages> messagesResponseHandler) {
         String messageResource = String.format("%s/%s", baseUri, messageContainer.getPath());
         HttpGet httpGet = new HttpGet(createURI(messageResource));
-        return execute(httpGet, messagesResponseHandler);
+        acceptJsonIfPreferred(httpGet);
+        return executeConditionally(httpGet, messagesResponseHandler);
+    }
+
+    public MessageChanges changes(long since, int max) {
+        HttpGet httpGet = new HttpGet(createURI(String.format("%s/messages/changes?since=%d&max=%d", baseUri, since, max)));
+        return execute(httpGet, new MessageChangesRingoResponseHandler(this));
+    }
+
+    /**
+     * Lists of messages are parsed faster from JSON, if the client is configured to prefer it.
+     * The XML representation is still accepted, as older servers do not provide JSON.
+     */
+    private void acceptJsonIfPreferred(HttpGet httpGet) {
+        if (config.isJsonPreferred()) {
+            httpGet.setHeader(HttpHeaders.ACCEPT, ACCEPT_JSON);
+        }
     }
 
     public Message sendDocument(ClientPeppolDocument peppolDocument, PeppolHeader peppolHeader, UploadMode uploadMode) {
@@ -178,6 +232,13 @@ public class RingoServiceRestImpl implements RingoService {
         return sendAsMimeMultipartHttpPost(peppolDocument, peppolHeader, uploadMode);
     }
 
+    public OutboxBatch sendDocuments(List<ClientPeppolDocument> peppolDocuments, List<PeppolHeader> peppolHeaders, UploadMode uploadMode) {
+        for (PeppolHeader peppolHeader : peppolHeaders) {
+            peppolHeader.validate();
+        }
+        return sendBatchAsMimeMultipartHttpPost(peppolDocuments, peppolHeaders, uploadMode);
+    }
+
     public List<AcceptedDocumentTransfer> fetchAcceptedDocumentTransfers(ParticipantIdentifier peppolParticipantId, LocalName localName) {
         try {
             HttpGet httpGet = createHttpGet("/directory/" + urlEncode(peppolParticipantId) + "/" + localName.toString());
@@ -231,6 +292,68 @@ public class RingoServiceRestImpl implements RingoService {
         }
     }
 
+    /**
+     * Executes the GET request conditionally, if the previous response to the same request was provided with an
+     * ETag. If the server replies 304 Not Modified, the previous response is processed by the response handler
+     * once more, sparing the server from querying the messages and the client from receiving them.
+     */
+    protected <T> T executeConditionally(HttpGet httpGet, final RingoResponseHandler<? extends T> responseHandler) {
+        Header accept = httpGet.getFirstHeader(HttpHeaders.ACCEPT);
+        final String key = accept == null ? httpGet.getURI().toString() : httpGet.getURI() + " " + accept.getValue();
+        final ConditionalResponse previous = conditionalResponses.get(key);
+        if (previous != null) {
+            httpGet.setHeader(HttpHeaders.IF_NONE_MATCH, previous.etag);
+        }
+
+        return execute(httpGet, new RingoResponseHandler<T>() {
+            public T handleResponse(HttpResponse response) throws IOException {
+                int statusCode = response.getStatusLine().getStatusCode();
+                if (statusCode == HttpStatus.SC_NOT_MODIFIED && previous != null) {
+                    EntityUtils.consume(response.getEntity());
+                    return responseHandler.handleResponse(previous.toHttpResponse());
+                }
+
+                Header etag = response.getFirstHeader(HttpHeaders.ETAG);
+                HttpEntity entity = response.getEntity();
+                if (statusCode == HttpStatus.SC_OK && etag != null && entity != null) {
+                    ByteArrayEntity copy = new ByteArrayEntity(EntityUtils.toByteArray(entity));
+                    copy.setContentType(entity.getContentType());
+                    copy.setContentEncoding(entity.getContentEncoding());
+                    response.setEntity(copy);
+                    conditionalResponses.put(key, new ConditionalResponse(etag.getValue(), response));
+                } else {
+                    conditionalResponses.remove(key);
+                }
+                return responseHandler.handleResponse(response);
+            }
+        });
+    }
+
+    /**
+     * A response held with its ETag, the entity of which may be read repeatedly.
+     */
+    private static class ConditionalResponse {
+
+        private final String etag;
+        private final StatusLine statusLine;
+        private final Header[] headers;
+        private final HttpEntity entity;
+
+        ConditionalResponse(String etag, HttpResponse response) {
+            this.etag = etag;
+            this.statusLine = response.getStatusLine();
+            this.headers = response.getAllHeaders();
+            this.entity = response.getEntity();
+        }
+
+        HttpResponse toHttpResponse() {
+            HttpResponse response = new BasicHttpResponse(statusLine);
+            response.setHeaders(headers);
+            response.setEntity(entity);
+            return response;
+        }
+    }
+
     public void setHttpClient(HttpClient httpClient) {
         this.httpClient = httpClient;
     }
@@ -262,6 +385,10 @@ public class RingoServiceRestImpl implements RingoService {
         AuthScope authScope = new AuthScope(targetHost.getHostName(), targetHost.getPort());
         defaultHttpClient.getCredentialsProvider().setCredentials(authScope, usernamePasswordCredentials);
 
+        // Asks for compressed responses, which are decompressed before being looked at by the other interceptors
+        defaultHttpClient.addRequestInterceptor(new RequestAcceptEncoding());
+        defaultHttpClient.addResponseInterceptor(new ResponseContentEncoding(), 0);
+
         // Interceptor the checks the response code for errors.
         defaultHttpClient.addResponseInterceptor(new ResponseCodeInterceptor());
         // Interceptor which checks that the client is up to date.
@@ -301,8 +428,13 @@ public class RingoServiceRestImpl implements RingoService {
 
     }
 
+    /**
+     * Posts the document along with a new Idempotency-Key, hence the server creates a single message even if the
+     * request is retried after the response has been lost, see {@link no.sr.ringo.request.RetryHandler}.
+     */
     private Message sendAsMimeMultipartHttpPost(ClientPeppolDocument peppolDocument, PeppolHeader peppolHeader, UploadMode uploadMode) {
         HttpPost httpPost = createHttpPost("/outbox");
+        httpPost.setHeader(RingoConstants.IDEMPOTENCY_KEY_HEADER, UUID.randomUUID().toString());
         ContentBody contentBody = peppolDocument.getContentBody();
         try {
             MultipartEntity multipartEntity = new MultipartEntity(HttpMultipartMode.BROWSER_COMPATIBLE, null, Charset.forName(RingoConstants.DEFAULT_CHARACTER_SET));
@@ -313,13 +445,59 @@ public class RingoServiceRestImpl implements RingoService {
             multipartEntity.addPart("ProcessID", new StringBody(peppolHeader.getProcessIdentifier().getIdentifier(), "text/plain", Charset.forName(RingoConstants.DEFAULT_CHARACTER_SET)));
             multipartEntity.addPart("DocumentID", new StringBody(peppolHeader.getPeppolDocumentTypeId().getIdentifier(), "text/plain", Charset.forName(RingoConstants.DEFAULT_CHARACTER_SET)));
             multipartEntity.addPart("UploadMode", new StringBody(uploadMode.name()));
-            httpPost.setEntity(multipartEntity);
+            httpPost.setEntity(compressIfConfigured(multipartEntity));
         } catch (UnsupportedEncodingException e) {
             throw new IllegalStateException("Unable to of mime multipart http entity", e);
         }
         return execute(httpPost, new UploadRingoResponseHandler(this));
     }
 
+    /**
+     * Posts the documents along with a manifest holding the header of every document, see OutboundBatchHeaders of
+     * the server.
+     */
+    private OutboxBatch sendBatchAsMimeMultipartHttpPost(List<ClientPeppolDocument> peppolDocuments, List<PeppolHeader> peppolHeaders, UploadMode uploadMode) {
+        HttpPost httpPost = createHttpPost("/outbox/batch");
+        Charset charset = Charset.forName(RingoConstants.DEFAULT_CHARACTER_SET);
+        try {
+            StringBuilder manifest = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<outbox-batch>\n");
+            for (int i = 0; i < peppolDocuments.size(); i++) {
+                PeppolHeader peppolHeader = peppolHeaders.get(i);
+                manifest.append("  <document file=\"").append(escape(peppolDocuments.get(i).getContentBody().getFilename()))
+                        .append("\" RecipientID=\"").append(escape(peppolHeader.getReceiver().getIdentifier()))
+                        .append("\" SenderID=\"").append(escape(peppolHeader.getSender().getIdentifier()))
+                        .append("\" ChannelID=\"").append(escape(peppolHeader.getPeppolChannelId().stringValue()))
+                        .append("\" ProcessID=\"").append(escape(peppolHeader.getProcessIdentifier().getIdentifier()))
+                        .append("\" DocumentID=\"").append(escape(peppolHeader.getPeppolDocumentTypeId().getIdentifier()))
+                        .append("\"/>\n");
+            }
+            manifest.append("</outbox-batch>\n");
+
+            MultipartEntity multipartEntity = new MultipartEntity(HttpMultipartMode.BROWSER_COMPATIBLE, null, charset);
+            multipartEntity.addPart("UploadMode", new StringBody(uploadMode.name()));
+            multipartEntity.addPart("manifest.xml", new StringBody(manifest.toString(), "application/xml", charset));
+            for (ClientPeppolDocument peppolDocument : peppolDocuments) {
+                multipartEntity.addPart("file", peppolDocument.getContentBody());
+            }
+            httpPost.setEntity(compressIfConfigured(multipartEntity));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("Unable to of mime multipart http entity", e);
+        }
+        return execute(httpPost, new OutboxBatchRingoResponseHandler());
+    }
+
+    /**
+     * Compresses uploads with gzip if so configured, sent with "Content-Encoding: gzip" and decompressed by the
+     * server before being parsed.
+     */
+    private HttpEntity compressIfConfigured(HttpEntity entity) {
+        return config.isUploadCompressed() ? new GzipCompressingEntity(entity) : entity;
+    }
+
+    private static String escape(String value) {
+        return value.replace("&", "&amp;").replace("\"", "&quot;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
     private HttpPost createHttpPost(String resource) {
         String postUrlString = baseUri.toString() + resource;
         return new HttpPost(createURI(postUrlString));
@@ -1,9 +1,8 @@
 package no.sr.ringo.common;
 
+import no.sr.ringo.xml.JdomXml;
 import org.jdom.Document;
 import org.jdom.Element;
-import org.jdom.JDOMException;
-import org.jdom.Namespace;
 import org.jdom.output.XMLOutputter;
 import org.jdom.xpath.XPath;
 import org.slf4j.Logger;
@@ -95,21 +94,14 @@ public class XmlHelper<T> {
      * XPath object knows nothing of namespaces so if the XMLSpecification object is
      * NamespaceAware we need to let the XPath object know about the namespaces in use.
      *
-     * @return a new instance of the XPath object for the XMLSpecification objects xpath expression.
-     * @throws JDOMException
+     * @return the compiled XPath object for the XMLSpecification objects xpath expression, cached per thread.
      */
-    private XPath setUpXPath() throws JDOMException {
-        final XPath xPath = XPath.newInstance(xmlSpec.getXPath());
-
+    private XPath setUpXPath() {
         //handle namespaces
         if (xmlSpec instanceof NamespaceAware) {
-            List<Namespace> namespaces = ((NamespaceAware) xmlSpec).getNamespaces();
-            for (Namespace namespace : namespaces) {
-                xPath.addNamespace(namespace);
-            }
+            return JdomXml.xPath(xmlSpec.getXPath(), ((NamespaceAware) xmlSpec).getNamespaces());
         }
-
-        return xPath;
+        return JdomXml.xPath(xmlSpec.getXPath());
     }
 
     public void rethrowException() {
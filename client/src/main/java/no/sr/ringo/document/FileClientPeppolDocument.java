@@ -7,10 +7,10 @@ import no.sr.ringo.common.XmlHelper;
 import no.sr.ringo.document.specification.*;
 import no.sr.ringo.peppol.LocalName;
 import no.sr.ringo.peppol.PeppolHeader;
+import no.sr.ringo.xml.JdomXml;
 import org.apache.http.entity.mime.content.ContentBody;
 import org.apache.http.entity.mime.content.FileBody;
 import org.jdom.Document;
-import org.jdom.input.SAXBuilder;
 
 import java.io.File;
 
@@ -22,7 +22,6 @@ import java.io.File;
  */
 public class FileClientPeppolDocument extends ClientPeppolDocument {
 
-    static final SAXBuilder saxBuilder = new SAXBuilder();
     private final File file;
     private Document document;
 
@@ -120,7 +119,7 @@ public class FileClientPeppolDocument extends ClientPeppolDocument {
     private Document getDocument() {
         if (this.document == null){
             try {
-                document = saxBuilder.build(file);
+                document = JdomXml.saxBuilder().build(file);
             } catch (Exception e) {
                 throw new IllegalArgumentException(String.format("Unable to parse file %s, make sure it is valid XML", file.getName()));
             }
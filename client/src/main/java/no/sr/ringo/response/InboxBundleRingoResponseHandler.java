@@ -0,0 +1,174 @@
+package no.sr.ringo.response;
+
+import no.difi.vefa.peppol.common.model.ParticipantIdentifier;
+import no.sr.ringo.client.InboxBundle;
+import no.sr.ringo.client.RingoService;
+import no.sr.ringo.xml.XmlFactories;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.util.EntityUtils;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Handles the response of a request for an inbox bundle, i.e. a ZIP archive holding the payloads of a number of
+ * messages followed by a manifest.
+ *
+ * The payloads are written to temporary files in the given directory as they are received, and verified against
+ * the digests of the manifest once it has been read.
+ *
+ * Returns null if the server does not provide inbox bundles.
+ */
+public class InboxBundleRingoResponseHandler implements RingoResponseHandler<InboxBundle> {
+
+    static final String APPLICATION_ZIP = "application/zip";
+
+    static final String MANIFEST = "manifest.xml";
+
+    static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final RingoService ringoService;
+    private final File directory;
+
+    public InboxBundleRingoResponseHandler(RingoService ringoService, File directory) {
+        this.ringoService = ringoService;
+        this.directory = directory;
+    }
+
+    public InboxBundle handleResponse(HttpResponse response) throws IOException {
+        HttpEntity entity = response.getEntity();
+        Header contentType = entity == null ? null : entity.getContentType();
+        if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK || contentType == null || !contentType.getValue().startsWith(APPLICATION_ZIP)) {
+            // Older servers do not know about bundles
+            EntityUtils.consume(entity);
+            return null;
+        }
+
+        Map<String, File> files = new HashMap<String, File>();
+        Map<String, String> digests = new HashMap<String, String>();
+        try {
+            InboxBundle inboxBundle = null;
+            try (ZipInputStream zip = new ZipInputStream(entity.getContent())) {
+                ZipEntry zipEntry;
+                while ((zipEntry = zip.getNextEntry()) != null) {
+                    if (MANIFEST.equals(zipEntry.getName())) {
+                        // The parser closes the stream once the manifest has been read
+                        inboxBundle = parseManifest(new FilterInputStream(zip) {
+                            @Override
+                            public void close() {
+                            }
+                        }, files, digests);
+                    } else {
+                        File file = Files.createTempFile(directory.toPath(), ".", InboxBundle.TEMPORARY_FILE_SUFFIX).toFile();
+                        files.put(zipEntry.getName(), file);
+                        digests.put(zipEntry.getName(), copy(zip, file));
+                    }
+                }
+            }
+            if (inboxBundle == null) {
+                throw new IOException("Inbox bundle has no " + MANIFEST);
+            }
+
+            // Entries not listed in the manifest are ignored
+            for (InboxBundle.Entry entry : inboxBundle.getEntries()) {
+                files.values().remove(entry.getFile());
+            }
+            for (File file : files.values()) {
+                file.delete();
+            }
+            return inboxBundle;
+        } catch (IOException | RuntimeException e) {
+            for (File file : files.values()) {
+                file.delete();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the payload to the file, providing its digest.
+     */
+    private static String copy(InputStream inputStream, File file) throws IOException {
+        MessageDigest messageDigest = createMessageDigest();
+        try (OutputStream outputStream = new DigestOutputStream(Files.newOutputStream(file.toPath()), messageDigest)) {
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, length);
+            }
+        }
+        return toHex(messageDigest.digest());
+    }
+
+    private InboxBundle parseManifest(InputStream inputStream, Map<String, File> files, Map<String, String> digests) throws IOException {
+        try {
+            XMLStreamReader reader = XmlFactories.xmlInputFactory().createXMLStreamReader(inputStream);
+            String ackToken = null;
+            List<InboxBundle.Entry> entries = new ArrayList<InboxBundle.Entry>();
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                if ("inbox-bundle".equals(reader.getLocalName())) {
+                    ackToken = reader.getAttributeValue(null, "ack-token");
+                } else if ("message".equals(reader.getLocalName())) {
+                    String name = reader.getAttributeValue(null, "file");
+                    File file = files.get(name);
+                    if (file == null) {
+                        throw new IOException("Inbox bundle has no entry " + name);
+                    }
+                    if (!digests.get(name).equals(reader.getAttributeValue(null, "digest"))) {
+                        throw new IOException("Digest of " + name + " in inbox bundle does not match the manifest");
+                    }
+                    entries.add(new InboxBundle.Entry(
+                            Long.valueOf(reader.getAttributeValue(null, "msg-no")),
+                            reader.getAttributeValue(null, "uuid"),
+                            ParticipantIdentifier.of(reader.getAttributeValue(null, "receiver")),
+                            file));
+                }
+            }
+            reader.close();
+            return new InboxBundle(ringoService, ackToken, entries);
+        } catch (XMLStreamException e) {
+            throw new IOException("Unable to parse manifest of inbox bundle; " + e.getMessage(), e);
+        }
+    }
+
+    private static MessageDigest createMessageDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Unable to create message digest " + DIGEST_ALGORITHM + "; " + e.getMessage(), e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0x0f];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0x0f];
+        }
+        return new String(chars);
+    }
+}
@@ -3,8 +3,11 @@ package no.sr.ringo.response;
 
 import no.sr.ringo.client.Messages;
 import no.sr.ringo.client.RingoService;
+import no.sr.ringo.message.MessageWithLocations;
 import no.sr.ringo.response.xml.XmlResponseParser;
 
+import java.util.List;
+
 /**
  * Handles fetching Messages from the Inbox response.
  *
@@ -22,7 +25,12 @@ public class InboxRingoResponseHandler extends MessageListRingoResponseHandler {
      * This method is overriden so we can of a response specific for the Inbox.
      */
     public Messages resolve(XmlResponseParser xmlResponseParser) {
-        InboxQueryResponse result = new InboxQueryResponse(getMessages(xmlResponseParser));
+        return resolve(getMessages(xmlResponseParser), null);
+    }
+
+    @Override
+    protected Messages resolve(List<MessageWithLocations> messages, Navigation navigation) {
+        InboxQueryResponse result = new InboxQueryResponse(messages);
         return new Messages(ringoService, result, this);
     }
 }
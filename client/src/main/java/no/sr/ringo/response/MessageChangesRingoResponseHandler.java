@@ -0,0 +1,58 @@
+package no.sr.ringo.response;
+
+import no.sr.ringo.client.Message;
+import no.sr.ringo.client.MessageChanges;
+import no.sr.ringo.client.RingoService;
+import no.sr.ringo.common.XmlHelper;
+import no.sr.ringo.common.XmlSpecification;
+import no.sr.ringo.message.MessageWithLocations;
+import no.sr.ringo.response.xml.MessageXmlSpec;
+import no.sr.ringo.response.xml.NavigationXmlSpec;
+import no.sr.ringo.response.xml.XmlResponseParser;
+import org.jdom.Element;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Handles parsing the response of a request for the messages changed since a cursor.
+ */
+public class MessageChangesRingoResponseHandler extends GenericXmlRingoResponseHandler<MessageChanges> {
+
+    public MessageChangesRingoResponseHandler(RingoService ringoService) {
+        super(ringoService);
+    }
+
+    public MessageChanges resolve(XmlResponseParser xmlResponseParser) {
+        List<Message> messages = new ArrayList<Message>();
+        for (MessageWithLocations messageWithLocations : xmlResponseParser.selectList(new XmlHelper<MessageWithLocations>(new MessageXmlSpec()))) {
+            messages.add(new Message(ringoService, messageWithLocations));
+        }
+
+        Long cursor = xmlResponseParser.selectEntity(new XmlHelper<Long>(new CursorXmlSpec()));
+        if (cursor == null) {
+            throw new IllegalStateException("Response holds no cursor");
+        }
+
+        // The server provides a link to the next changes, when there are more changes than provided
+        Navigation navigation = xmlResponseParser.selectEntity(new XmlHelper<Navigation>(new NavigationXmlSpec()));
+        boolean more = navigation != null && navigation.getNext() != null;
+
+        return new MessageChanges(messages, cursor, more);
+    }
+
+    static class CursorXmlSpec implements XmlSpecification<Long> {
+
+        public String getName() {
+            return "cursor";
+        }
+
+        public String getXPath() {
+            return "//cursor";
+        }
+
+        public Long extractEntity(Element element) throws Exception {
+            return Long.valueOf(element.getTextTrim());
+        }
+    }
+}
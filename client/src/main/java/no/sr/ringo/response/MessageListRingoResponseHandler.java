@@ -5,14 +5,20 @@ import no.sr.ringo.client.Messages;
 import no.sr.ringo.client.RingoService;
 import no.sr.ringo.common.XmlHelper;
 import no.sr.ringo.message.MessageWithLocations;
+import no.sr.ringo.response.exception.UnexpectedResponseCodeException;
+import no.sr.ringo.response.json.JsonMessagesParser;
 import no.sr.ringo.response.xml.MessageXmlSpec;
 import no.sr.ringo.response.xml.NavigationXmlSpec;
 import no.sr.ringo.response.xml.XmlResponseParser;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
 
+import java.io.InputStream;
 import java.util.List;
 
 /**
- * Handles parsing the response containing a message list.
+ * Handles parsing the response containing a message list, in XML or JSON if preferred by the client.
  *
  * @author Andy andy@sendregning.no
  */
@@ -23,14 +29,45 @@ public class MessageListRingoResponseHandler extends GenericXmlRingoResponseHand
         super(ringoService);
     }
 
+    @Override
+    public Messages handleResponse(HttpResponse response) throws UnexpectedResponseCodeException {
+        if (!isJson(response.getEntity())) {
+            return super.handleResponse(response);
+        }
+
+        this.response = response;
+        if (unexpectedStatusCode()) {
+            throw new UnexpectedResponseCodeException(response);
+        }
+
+        try (InputStream content = getResponseContent()) {
+            MessagesQueryResponse messagesQueryResponse = new JsonMessagesParser().parse(content);
+            return resolve(messagesQueryResponse.getMessageList(), messagesQueryResponse.getNavigation());
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to parse response.", e);
+        }
+    }
+
     public Messages resolve(XmlResponseParser xmlResponseParser) {
+        return resolve(getMessages(xmlResponseParser), getNavigation(xmlResponseParser));
+    }
 
-        MessagesQueryResponse response = new MessagesQueryResponse(getMessages(xmlResponseParser));
-        response.setNavigation(getNavigation(xmlResponseParser));
+    /**
+     * Creates the messages, once parsed from either XML or JSON.
+     */
+    protected Messages resolve(List<MessageWithLocations> messages, Navigation navigation) {
+
+        MessagesQueryResponse response = new MessagesQueryResponse(messages);
+        response.setNavigation(navigation);
 
         return new Messages(ringoService,response, this);
     }
 
+    private static boolean isJson(HttpEntity entity) {
+        Header contentType = entity == null ? null : entity.getContentType();
+        return contentType != null && contentType.getValue().startsWith("application/json");
+    }
+
     /**
      * gets the list of messages
      * @param xmlResponseParser
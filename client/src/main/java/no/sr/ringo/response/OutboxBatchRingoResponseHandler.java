@@ -0,0 +1,69 @@
+package no.sr.ringo.response;
+
+import no.sr.ringo.client.OutboxBatch;
+import no.sr.ringo.response.exception.UnexpectedResponseCodeException;
+import no.sr.ringo.xml.XmlFactories;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.util.EntityUtils;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses the response of uploading a batch of documents, i.e. the outcome of every document of the batch.
+ *
+ * Returns null if the server does not provide batch uploads.
+ */
+public class OutboxBatchRingoResponseHandler implements RingoResponseHandler<OutboxBatch> {
+
+    public OutboxBatch handleResponse(HttpResponse response) throws IOException {
+        HttpEntity entity = response.getEntity();
+        int statusCode = response.getStatusLine().getStatusCode();
+        if (statusCode == HttpStatus.SC_NOT_FOUND || statusCode == HttpStatus.SC_METHOD_NOT_ALLOWED) {
+            // Older servers do not know about batches
+            EntityUtils.consume(entity);
+            return null;
+        }
+        if (statusCode != HttpStatus.SC_OK || entity == null) {
+            EntityUtils.consumeQuietly(entity);
+            throw new UnexpectedResponseCodeException(response);
+        }
+
+        try (InputStream inputStream = entity.getContent()) {
+            XMLStreamReader reader = XmlFactories.xmlInputFactory().createXMLStreamReader(inputStream);
+            List<OutboxBatch.Entry> entries = new ArrayList<OutboxBatch.Entry>();
+            String fileName = null;
+            String status = null;
+            Long msgNo = null;
+            String error = null;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    if ("document".equals(reader.getLocalName())) {
+                        fileName = reader.getAttributeValue(null, "file");
+                        status = reader.getAttributeValue(null, "status");
+                        msgNo = null;
+                        error = null;
+                    } else if ("msg-no".equals(reader.getLocalName())) {
+                        msgNo = Long.valueOf(reader.getElementText().trim());
+                    } else if ("error".equals(reader.getLocalName())) {
+                        error = reader.getElementText();
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && "document".equals(reader.getLocalName())) {
+                    entries.add(new OutboxBatch.Entry(fileName, status, msgNo, error));
+                }
+            }
+            reader.close();
+            return new OutboxBatch(entries);
+        } catch (XMLStreamException | NumberFormatException e) {
+            throw new IOException("Unable to parse response of batch upload; " + e.getMessage(), e);
+        }
+    }
+}
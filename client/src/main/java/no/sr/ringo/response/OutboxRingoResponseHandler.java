@@ -27,7 +27,11 @@ public class OutboxRingoResponseHandler extends MessageListRingoResponseHandler
     public Messages resolve(XmlResponseParser xmlResponseParser) {
 
         // Parses the XML response into a list of MessageWithLocations objects
-        List<MessageWithLocations> messages = getMessages(xmlResponseParser);
+        return resolve(getMessages(xmlResponseParser), null);
+    }
+
+    @Override
+    protected Messages resolve(List<MessageWithLocations> messages, Navigation navigation) {
 
         // Wraps the message list into an object holding Outbox messages
         MessageQueryRestResponse response = new OutboxQueryResponse(messages);
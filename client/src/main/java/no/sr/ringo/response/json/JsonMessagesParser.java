@@ -0,0 +1,188 @@
+package no.sr.ringo.response.json;
+
+import no.difi.vefa.peppol.common.model.DocumentTypeIdentifier;
+import no.difi.vefa.peppol.common.model.ParticipantIdentifier;
+import no.difi.vefa.peppol.common.model.ProcessIdentifier;
+import no.sr.ringo.message.*;
+import no.sr.ringo.peppol.PeppolChannelId;
+import no.sr.ringo.peppol.PeppolHeader;
+import no.sr.ringo.peppol.RingoUtils;
+import no.sr.ringo.response.MessagesQueryResponse;
+import no.sr.ringo.response.Navigation;
+import no.sr.ringo.transport.TransferDirection;
+
+import javax.json.Json;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParserFactory;
+import javax.json.stream.JsonParsingException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses the JSON representation of a list of messages, as an alternative to
+ * {@link no.sr.ringo.response.xml.MessageXmlSpec} and {@link no.sr.ringo.response.xml.NavigationXmlSpec}.
+ *
+ * The response is read using a streaming parser, i.e. without building a document tree first. Unknown members are
+ * skipped.
+ */
+public class JsonMessagesParser {
+
+    private static final JsonParserFactory parserFactory = Json.createParserFactory(null);
+
+    /**
+     * @param content the response, encoded in UTF-8
+     * @return the messages and navigation of the response
+     */
+    public MessagesQueryResponse parse(InputStream content) {
+        List<MessageWithLocations> messages = new ArrayList<MessageWithLocations>();
+        Navigation navigation = null;
+
+        try (JsonParser parser = parserFactory.createParser(content, StandardCharsets.UTF_8)) {
+            expect(parser, JsonParser.Event.START_OBJECT);
+            while (parser.next() == JsonParser.Event.KEY_NAME) {
+                String name = parser.getString();
+                if ("navigation".equals(name)) {
+                    navigation = parseNavigation(parser);
+                } else if ("messages".equals(name)) {
+                    expect(parser, JsonParser.Event.START_ARRAY);
+                    while (parser.next() == JsonParser.Event.START_OBJECT) {
+                        messages.add(parseMessage(parser));
+                    }
+                } else {
+                    skipValue(parser);
+                }
+            }
+        }
+
+        MessagesQueryResponse response = new MessagesQueryResponse(messages);
+        response.setNavigation(navigation);
+        return response;
+    }
+
+    private Navigation parseNavigation(JsonParser parser) {
+        URI next = null;
+        URI previous = null;
+
+        expect(parser, JsonParser.Event.START_OBJECT);
+        while (parser.next() == JsonParser.Event.KEY_NAME) {
+            String name = parser.getString();
+            if ("next".equals(name)) {
+                next = URI.create(stringValue(parser));
+            } else if ("previous".equals(name)) {
+                previous = URI.create(stringValue(parser));
+            } else {
+                skipValue(parser);
+            }
+        }
+        return new Navigation(previous, next);
+    }
+
+    /**
+     * Parses the members of a message, the start of the object has been consumed.
+     */
+    private MessageWithLocations parseMessage(JsonParser parser) {
+        MessageMetaDataImpl messageMetaData = new MessageMetaDataImpl();
+        URI self = null;
+        URI xmlDocument = null;
+
+        while (parser.next() == JsonParser.Event.KEY_NAME) {
+            String name = parser.getString();
+            switch (name) {
+                case "self":
+                    self = URI.create(stringValue(parser));
+                    break;
+                case "xml-document":
+                    xmlDocument = URI.create(stringValue(parser));
+                    break;
+                case "msg-no":
+                    expect(parser, JsonParser.Event.VALUE_NUMBER);
+                    messageMetaData.setMsgNo(MessageNumber.of(parser.getLong()));
+                    break;
+                case "direction":
+                    messageMetaData.setTransferDirection(TransferDirection.valueOf(stringValue(parser)));
+                    break;
+                case "received":
+                    messageMetaData.setReceived(RingoUtils.getDateTimeFromISO8601String(stringValue(parser)));
+                    break;
+                case "delivered":
+                    messageMetaData.setDelivered(RingoUtils.getDateTimeFromISO8601String(stringValue(parser)));
+                    break;
+                case "uuid":
+                    messageMetaData.setReceptionId(new ReceptionId(stringValue(parser)));
+                    break;
+                case "peppol-header":
+                    messageMetaData.setPeppolHeader(parsePeppolHeader(parser));
+                    break;
+                default:
+                    skipValue(parser);
+            }
+        }
+
+        return new MessageWithLocationsImpl(messageMetaData, self, xmlDocument);
+    }
+
+    private PeppolHeader parsePeppolHeader(JsonParser parser) {
+        PeppolHeader peppolHeader = new PeppolHeader();
+
+        expect(parser, JsonParser.Event.START_OBJECT);
+        while (parser.next() == JsonParser.Event.KEY_NAME) {
+            String name = parser.getString();
+            switch (name) {
+                case "sender":
+                    peppolHeader.setSender(ParticipantIdentifier.of(stringValue(parser)));
+                    break;
+                case "receiver":
+                    peppolHeader.setReceiver(ParticipantIdentifier.of(stringValue(parser)));
+                    break;
+                case "channel":
+                    peppolHeader.setPeppolChannelId(new PeppolChannelId(stringValue(parser)));
+                    break;
+                case "document-id":
+                    peppolHeader.setDocumentTypeIdentifier(DocumentTypeIdentifier.of(stringValue(parser)));
+                    break;
+                case "process-id":
+                    peppolHeader.setProcessIdentifier(ProcessIdentifier.of(stringValue(parser)));
+                    break;
+                default:
+                    skipValue(parser);
+            }
+        }
+        return peppolHeader;
+    }
+
+    private static String stringValue(JsonParser parser) {
+        expect(parser, JsonParser.Event.VALUE_STRING);
+        return parser.getString();
+    }
+
+    private static void expect(JsonParser parser, JsonParser.Event expected) {
+        JsonParser.Event event = parser.next();
+        if (event != expected) {
+            throw new JsonParsingException("Expected " + expected + " but found " + event, parser.getLocation());
+        }
+    }
+
+    /**
+     * Skips the value of the current member, including nested objects and arrays.
+     */
+    private static void skipValue(JsonParser parser) {
+        int depth = 0;
+        do {
+            switch (parser.next()) {
+                case START_OBJECT:
+                case START_ARRAY:
+                    depth++;
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    depth--;
+                    break;
+                default:
+                    break;
+            }
+        } while (depth > 0);
+    }
+}
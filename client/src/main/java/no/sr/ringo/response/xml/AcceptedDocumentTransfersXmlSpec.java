@@ -4,6 +4,7 @@ import no.sr.ringo.cenbiimeta.ProfileId;
 import no.sr.ringo.common.XmlSpecification;
 import no.sr.ringo.peppol.PeppolDocumentTypeId;
 import no.sr.ringo.smp.AcceptedDocumentTransfer;
+import no.sr.ringo.xml.JdomXml;
 import org.jdom.Element;
 import org.jdom.JDOMException;
 import org.jdom.Parent;
@@ -36,7 +37,7 @@ public class AcceptedDocumentTransfersXmlSpec implements XmlSpecification<Accept
     }
 
     private String getXmlValue(Parent root, String xPathString) throws JDOMException {
-        XPath xPath = XPath.newInstance(xPathString);
+        XPath xPath = JdomXml.xPath(xPathString);
         Element node = (Element) xPath.selectSingleNode(root);
         if (node == null) {
             return null;
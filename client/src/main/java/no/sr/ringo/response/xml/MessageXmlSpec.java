@@ -15,6 +15,7 @@ import no.sr.ringo.peppol.PeppolChannelId;
 import no.sr.ringo.peppol.PeppolHeader;
 import no.sr.ringo.peppol.RingoUtils;
 import no.sr.ringo.transport.TransferDirection;
+import no.sr.ringo.xml.JdomXml;
 import org.jdom.Element;
 import org.jdom.JDOMException;
 import org.jdom.Parent;
@@ -116,7 +117,7 @@ public class MessageXmlSpec implements XmlSpecification<MessageWithLocations> {
     }
 
     private String getXmlValue(Parent root, String xPathString) throws JDOMException {
-        XPath xPath = XPath.newInstance(xPathString);
+        XPath xPath = JdomXml.xPath(xPathString);
         Element node = (Element) xPath.selectSingleNode(root);
         if (node == null) {
             return null;
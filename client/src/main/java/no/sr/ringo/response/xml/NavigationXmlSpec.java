@@ -8,6 +8,7 @@ package no.sr.ringo.response.xml;
 
 import no.sr.ringo.common.XmlSpecification;
 import no.sr.ringo.response.Navigation;
+import no.sr.ringo.xml.JdomXml;
 import org.jdom.Element;
 import org.jdom.JDOMException;
 import org.jdom.Parent;
@@ -74,7 +75,7 @@ public class NavigationXmlSpec implements XmlSpecification<Navigation> {
     }
 
     private String getXmlValue(Parent root, String xPathString) throws JDOMException {
-        XPath xPath = XPath.newInstance(xPathString);
+        XPath xPath = JdomXml.xPath(xPathString);
         Element node = (Element) xPath.selectSingleNode(root);
         if (node == null) {
             return null;
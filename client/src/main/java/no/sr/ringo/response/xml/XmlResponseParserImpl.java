@@ -1,6 +1,7 @@
 package no.sr.ringo.response.xml;
 
 import no.sr.ringo.common.XmlHelper;
+import no.sr.ringo.xml.JdomXml;
 import org.jdom.Document;
 import org.jdom.input.SAXBuilder;
 
@@ -19,20 +20,18 @@ import java.util.List;
  */
 public class XmlResponseParserImpl implements XmlResponseParser {
 
-
-    private final SAXBuilder sb;
     private final XmlRingoResponseHandler xmlResponseHandler;
     private Document document;
 
     public XmlResponseParserImpl(XmlRingoResponseHandler xmlResponseHandler) {
         this.xmlResponseHandler = xmlResponseHandler;
-        sb = getSaxBuilder();
     }
 
     public <T> T parse(InputStream content) {
 
         try {
-            document = sb.build(content);
+            // Looked up per call, as the builder is bound to the calling thread
+            document = getSaxBuilder().build(content);
             return (T) xmlResponseHandler.resolve(this);
         }
         catch (Exception e) {
@@ -49,10 +48,9 @@ public class XmlResponseParserImpl implements XmlResponseParser {
     }
 
     /**
-     * getter for a SaxBuilder
+     * getter for a SaxBuilder, pooled per thread
      */
     protected static SAXBuilder getSaxBuilder() {
-        SAXBuilder sb = new SAXBuilder();
-        return sb;
+        return JdomXml.saxBuilder();
     }
 }
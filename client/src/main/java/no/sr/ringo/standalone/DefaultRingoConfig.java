@@ -29,6 +29,9 @@ public class DefaultRingoConfig implements RingoConfig {
 
     private ProxySettings proxySettings;
 
+    private boolean jsonPreferred;
+    private boolean uploadCompressed;
+
     public DefaultRingoConfig(String baseUri, ProxySettings proxySettings) {
         this(baseUri, proxySettings, DEFAULT_SOCKET_TIMEOUT, DEFAULT_CONNECTION_TIMEOUT);
     }
@@ -105,6 +108,32 @@ public class DefaultRingoConfig implements RingoConfig {
         this.proxySettings = proxySettings;
     }
 
+    @Override
+    public boolean isJsonPreferred() {
+        return jsonPreferred;
+    }
+
+    /**
+     * Requests lists of messages as JSON rather than XML
+     * @param jsonPreferred
+     */
+    public void setJsonPreferred(boolean jsonPreferred) {
+        this.jsonPreferred = jsonPreferred;
+    }
+
+    @Override
+    public boolean isUploadCompressed() {
+        return uploadCompressed;
+    }
+
+    /**
+     * Uploads documents compressed with gzip
+     * @param uploadCompressed
+     */
+    public void setUploadCompressed(boolean uploadCompressed) {
+        this.uploadCompressed = uploadCompressed;
+    }
+
     /**
      * Sets the retry handler to use
      * @param retryHandler
@@ -2,7 +2,9 @@ package no.sr.ringo.standalone.executor;
 
 import no.difi.vefa.peppol.common.model.ParticipantIdentifier;
 import no.sr.ringo.client.Inbox;
+import no.sr.ringo.client.InboxBundle;
 import no.sr.ringo.client.Message;
+import no.sr.ringo.client.OutboxBatch;
 import no.sr.ringo.client.RingoClient;
 import no.sr.ringo.common.FileHelper;
 import no.sr.ringo.common.UploadMode;
@@ -12,7 +14,9 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static no.sr.ringo.exception.NotifyingException.NotificationType;
 
@@ -27,6 +31,11 @@ public class RingoClientCommandExecutor {
 
     private static Logger log = LoggerFactory.getLogger(RingoClientCommandExecutor.class);
 
+    /** Number of messages requested in each inbox bundle */
+    static final int BUNDLE_SIZE = 100;
+
+    /** Number of files uploaded in each batch */
+    static final int UPLOAD_BATCH_SIZE = 500;
 
     private final RingoClient client;
     private final RingoClientParams params;
@@ -50,7 +59,6 @@ public class RingoClientCommandExecutor {
             //Try to upload all files from given path
             case UPLOAD:
                 uploadMode = UploadMode.BATCH;
-                List<Message> uploadedFiles = new ArrayList<Message>();
 
                 File archiveDir = ExecutorPathHelper.getArchivePath(params.getArchivePath(), false);
                 File outboxPath = ExecutorPathHelper.getOutboxPath(params.getOutboxPath(), false);
@@ -59,19 +67,42 @@ public class RingoClientCommandExecutor {
                     throw new CommandLineExecutorException("Outbox path cannot be the same as archive path", NotificationType.BATCH_UPLOAD);
                 }
 
+                int uploaded = 0;
                 int skipped = 0;
+                List<File> files = new ArrayList<File>();
                 for (File file : outboxPath.listFiles()) {
-                    if (file.isFile()) {
-                        boolean result = handleFileUpload(file, uploadedFiles, archiveDir);
-                        if (!result) {
-                            skipped++;
-                        }
-                    } else {
+                    if (!file.isFile()) {
                         log.warn(String.format("Not uploading %s, because it's a directory".toString(), file));
+                    } else if (!isXmlFile(file)) {
+                        skipped++;
+                    } else {
+                        files.add(file);
                     }
                 }
 
-                printStream.println(String.format("Uploaded %d file(s).", uploadedFiles.size()));
+                // Uploads the files in batches, as long as the server provides them. Whatever is left is
+                // uploaded one by one below.
+                int batched = 0;
+                while (batched < files.size()) {
+                    List<File> batch = files.subList(batched, Math.min(batched + UPLOAD_BATCH_SIZE, files.size()));
+                    int result = handleBatchUpload(batch, archiveDir);
+                    if (result < 0) {
+                        break;
+                    }
+                    uploaded += result;
+                    skipped += batch.size() - result;
+                    batched += batch.size();
+                }
+
+                for (File file : files.subList(batched, files.size())) {
+                    if (handleFileUpload(file, archiveDir)) {
+                        uploaded++;
+                    } else {
+                        skipped++;
+                    }
+                }
+
+                printStream.println(String.format("Uploaded %d file(s).", uploaded));
                 if (skipped > 0) {
                     printStream.println(String.format("Skipped %d file(s). Information in .err files", skipped));
                 }
@@ -83,7 +114,6 @@ public class RingoClientCommandExecutor {
             case UPLOAD_SINGLE:
 
                 uploadMode = UploadMode.SINGLE;
-                uploadedFiles = new ArrayList<Message>();
                 archiveDir = ExecutorPathHelper.getArchivePath(params.getArchivePath(), true);
                 outboxPath = ExecutorPathHelper.getOutboxPath(params.getOutboxPath(), true);
 
@@ -91,7 +121,7 @@ public class RingoClientCommandExecutor {
                     throw new CommandLineExecutorException("Outbox path cannot be the same as archive path");
                 }
 
-                handleFileUpload(outboxPath, uploadedFiles, archiveDir);
+                handleFileUpload(outboxPath, archiveDir);
                 break;
 
 
@@ -107,6 +137,18 @@ public class RingoClientCommandExecutor {
                 int success = 0;
                 int failed = 0;
                 Inbox inbox = client.getInbox();
+
+                // Fetches the messages in bundles, as long as the server provides them. Whatever is left,
+                // e.g. payloads not held by the server itself, is fetched one by one below.
+                InboxBundle bundle;
+                while ((bundle = downloadBundle(inbox, inboxPath)) != null && !bundle.isEmpty()) {
+                    int saved = handleBundleDownload(bundle, inboxPath);
+                    if (saved == 0) {
+                        break;
+                    }
+                    success += saved;
+                }
+
                 //Fetch all messages in the inbox and save them to disk
                 // until there are no more messages in the inbox or the ones remaining have failed
                 // to be downloaded/marked as read
@@ -127,6 +169,51 @@ public class RingoClientCommandExecutor {
         }
     }
 
+    /**
+     * Downloads the next inbox bundle.
+     *
+     * @return the bundle or null if the server does not provide bundles or the download failed
+     */
+    private InboxBundle downloadBundle(Inbox inbox, File downloadPath) {
+        try {
+            return inbox.downloadBundle(BUNDLE_SIZE, downloadPath);
+        } catch (RuntimeException e) {
+            log.warn("Unable to download inbox bundle; " + e.getMessage(), e);
+            printStream.println("Unable to download inbox bundle, downloading messages one by one");
+            return null;
+        }
+    }
+
+    /**
+     * Moves the messages of the bundle into folders with the name of the recipients peppol participant id and marks
+     * them all as read.
+     *
+     * @return the number of messages downloaded, 0 if any of them could not be saved or marked as read
+     */
+    private int handleBundleDownload(InboxBundle bundle, File downloadPath) {
+        try {
+            for (InboxBundle.Entry entry : bundle.getEntries()) {
+                File participantDirectory = getReceiverDirectory(entry.getReceiver(), downloadPath);
+                if (participantDirectory == null) {
+                    return 0;
+                }
+                printStream.println(String.format("Downloading message with UUID: %s", entry.getReceptionId()));
+                entry.moveToDirectory(participantDirectory);
+            }
+        } catch (IOException e) {
+            printStream.println(String.format("Unable to save inbox bundle to directory %s", downloadPath));
+            return 0;
+        } finally {
+            bundle.discard();
+        }
+
+        if (!bundle.markAsRead()) {
+            printStream.println(String.format("Inbox bundle of %d messages successfully downloaded, but marking as read failed.", bundle.getEntries().size()));
+            return 0;
+        }
+        return bundle.getEntries().size();
+    }
+
     /**
      * Downloads the message into a folder with the name of the recipients peppol
      * participant id and marks it as read.
@@ -193,31 +280,67 @@ public class RingoClientCommandExecutor {
         return result;
     }
 
+    /**
+     * Uploads the files in a single request, moving the ones uploaded to the archive directory and creating error
+     * files for the others.
+     *
+     * @return the number of files uploaded, -1 if the server does not provide batch uploads or the upload failed
+     */
+    private int handleBatchUpload(List<File> files, File archiveDir) throws CommandLineExecutorException {
+        OutboxBatch outboxBatch;
+        try {
+            outboxBatch = client.send(files, params.getChannelId(), params.getSenderId(), params.getRecipientId(), uploadMode);
+        } catch (RuntimeException e) {
+            log.warn("Unable to upload batch of " + files.size() + " files; " + e.getMessage(), e);
+            printStream.println("Unable to upload batch, uploading files one by one");
+            return -1;
+        }
+        if (outboxBatch == null) {
+            return -1;
+        }
+
+        Map<String, File> filesByName = new HashMap<String, File>();
+        for (File file : files) {
+            filesByName.put(file.getName(), file);
+        }
+
+        int uploaded = 0;
+        for (OutboxBatch.Entry entry : outboxBatch.getEntries()) {
+            File file = filesByName.get(entry.getFileName());
+            if (file == null) {
+                continue;
+            }
+            if (entry.isUploaded()) {
+                archiveFile(archiveDir, file, uploadMode);
+                uploaded++;
+            } else {
+                printStream.println(String.format("Upload failed for file: %s. Creating corresponding error file", file.getName()));
+                createErrorFile(file, entry.getError(), null, printStream);
+            }
+        }
+        return uploaded;
+    }
+
     /**
      * Uploads file and moves it to archive directory
      *
      * @param file
      * @return true if succeeded
      */
-    private boolean handleFileUpload(File file, List<Message> uploadedFiles, File archiveDir) throws CommandLineExecutorException {
+    private boolean handleFileUpload(File file, File archiveDir) throws CommandLineExecutorException {
 
 
-        if (!file.getAbsoluteFile().getName().toLowerCase().endsWith(ExecutorPathHelper.FILE_EXTENSION)) {
-            printStream.println(String.format("Skipping file which is not an xml file: %s", file.toURI()));
+        if (!isXmlFile(file)) {
             return false;
         }
 
-        Message message = null;
-
         try {
-            message = client.send(file, params.getChannelId(), params.getSenderId(), params.getRecipientId(), uploadMode);
+            client.send(file, params.getChannelId(), params.getSenderId(), params.getRecipientId(), uploadMode);
 
             archiveFile(archiveDir, file, uploadMode);
-
-            uploadedFiles.add(message);
         } catch (Exception e) {
             printStream.println(String.format("Upload failed for file: %s. Creating corresponding error file", file.getName()));
-            createErrorFile(file, e, printStream);
+            createErrorFile(file, e.getMessage(), e, printStream);
             return false;
         }
 
@@ -225,6 +348,14 @@ public class RingoClientCommandExecutor {
 
     }
 
+    private boolean isXmlFile(File file) {
+        if (!file.getAbsoluteFile().getName().toLowerCase().endsWith(ExecutorPathHelper.FILE_EXTENSION)) {
+            printStream.println(String.format("Skipping file which is not an xml file: %s", file.toURI()));
+            return false;
+        }
+        return true;
+    }
+
     /**
      * Moves the file to archive path
      */
@@ -247,10 +378,10 @@ public class RingoClientCommandExecutor {
      * The file name will be the same but will end with .err
      *
      * @param file
+     * @param exception the cause of the failure, if any
      * @param printStream
      */
-    private void createErrorFile(File file, Exception exception, PrintStream printStream) throws CommandLineExecutorException {
-        String message = exception.getMessage();
+    private void createErrorFile(File file, String message, Exception exception, PrintStream printStream) throws CommandLineExecutorException {
         String originalName = file.getName();
         String parentPath = file.getParent();
         String errorFileName = originalName.replaceAll("(?i)"+ExecutorPathHelper.FILE_EXTENSION, ".err");
@@ -266,7 +397,7 @@ public class RingoClientCommandExecutor {
             PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(errorFile)));
             out.println(message);
             //print the stack trace if debug is enabled
-            if (log.isDebugEnabled()) {
+            if (log.isDebugEnabled() && exception != null) {
                 exception.printStackTrace(out);
             }
             out.close();
@@ -16,6 +16,7 @@ import org.easymock.EasyMock;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
@@ -80,6 +81,9 @@ public class InboxDownloadAllTest {
 
         //expectations for the service
 
+        //the server does not provide inbox bundles
+        expect(mockRingoService.downloadInboxBundle(anyInt(), isA(File.class))).andReturn(null);
+
         //first we see there are 35 messages
         //download the message and mark them as read
         expect(mockRingoService.count(isA(Inbox.class))).andReturn(35);
@@ -134,6 +138,9 @@ public class InboxDownloadAllTest {
 
         //expectations for the service
 
+        //the server does not provide inbox bundles
+        expect(mockRingoService.downloadInboxBundle(anyInt(), isA(File.class))).andReturn(null);
+
         //first we see there are 1 messages
         //download the message and mark them as read
         expect(mockRingoService.count(isA(Inbox.class))).andReturn(1);
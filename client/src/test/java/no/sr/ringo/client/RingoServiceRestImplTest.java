@@ -2,6 +2,7 @@ package no.sr.ringo.client;
 
 import no.difi.vefa.peppol.common.model.DocumentTypeIdentifier;
 import no.difi.vefa.peppol.common.model.ParticipantIdentifier;
+import no.sr.ringo.common.RingoConstants;
 import no.sr.ringo.common.UploadMode;
 import no.sr.ringo.document.ClientPeppolDocument;
 import no.sr.ringo.exception.NotifyingException;
@@ -9,16 +10,29 @@ import no.sr.ringo.peppol.*;
 import no.sr.ringo.response.AcceptedDocumentTransfersRingoResponseHandler;
 import no.sr.ringo.response.NotificationRingoResponseHandler;
 import no.sr.ringo.smp.AcceptedDocumentTransfer;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.entity.GzipDecompressingEntity;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.StringEntity;
 import org.apache.http.entity.mime.content.StringBody;
+import org.apache.http.message.BasicHttpResponse;
 import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.util.EntityUtils;
+import org.easymock.Capture;
+import org.easymock.CaptureType;
 import org.easymock.EasyMock;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -60,6 +74,37 @@ public class RingoServiceRestImplTest {
         verify(httpClient);
     }
 
+    @Test
+    public void testCountIsRequestedConditionally() throws Exception {
+        Capture<HttpGet> requests = newCapture(CaptureType.ALL);
+        expect(httpClient.execute(isA(HttpHost.class), capture(requests), isA(ResponseHandler.class), isA(BasicHttpContext.class)))
+                .andAnswer(() -> handle(response(HttpStatus.SC_OK, "3")))
+                .andAnswer(() -> handle(response(HttpStatus.SC_NOT_MODIFIED, null)));
+        replay(httpClient);
+
+        Inbox inbox = new Inbox(ringoService);
+        assertEquals(ringoService.count(inbox), Integer.valueOf(3));
+        // The count previously received is reused
+        assertEquals(ringoService.count(inbox), Integer.valueOf(3));
+
+        assertNull(requests.getValues().get(0).getFirstHeader("If-None-Match"));
+        assertEquals(requests.getValues().get(1).getFirstHeader("If-None-Match").getValue(), "\"7\"");
+        verify(httpClient);
+    }
+
+    private static HttpResponse response(int statusCode, String body) throws Exception {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, statusCode, null);
+        response.setHeader("ETag", "\"7\"");
+        if (body != null) {
+            response.setEntity(new StringEntity(body));
+        }
+        return response;
+    }
+
+    private static Object handle(HttpResponse response) throws Exception {
+        return ((ResponseHandler<?>) getCurrentArguments()[2]).handleResponse(response);
+    }
+
     @Test(expectedExceptions = InvalidPeppolHeaderException.class)
     public void testSendDocumentInvalidHeaders() throws Exception {
 
@@ -85,6 +130,51 @@ public class RingoServiceRestImplTest {
         ringoService.sendDocument(clientPeppolDocument, peppolHeader, uploadMode);
     }
 
+    @Test
+    public void testSendDocumentCarriesIdempotencyKey() throws Exception {
+        PeppolHeader peppolHeader = PeppolHeader.forDocumentType(PeppolDocumentTypeId.EHF_INVOICE.toVefa(), PeppolProcessIdAcronym.INVOICE_ONLY.toVefa(),
+                ParticipantIdentifier.of("0037:12345"), ParticipantIdentifier.of("0037:12345"));
+        expect(clientPeppolDocument.getContentBody()).andStubReturn(new StringBody("Hello"));
+        Capture<HttpPost> requests = newCapture(CaptureType.ALL);
+        expect(httpClient.execute(isA(HttpHost.class), capture(requests), isA(ResponseHandler.class), isA(BasicHttpContext.class))).andReturn(null).times(2);
+        replay(clientPeppolDocument, httpClient);
+
+        ringoService.sendDocument(clientPeppolDocument, peppolHeader, uploadMode);
+        ringoService.sendDocument(clientPeppolDocument, peppolHeader, uploadMode);
+
+        // Every upload has a key of its own
+        String key = requests.getValues().get(0).getFirstHeader(RingoConstants.IDEMPOTENCY_KEY_HEADER).getValue();
+        assertNotNull(key);
+        assertNotEquals(requests.getValues().get(1).getFirstHeader(RingoConstants.IDEMPOTENCY_KEY_HEADER).getValue(), key);
+        verify(httpClient);
+    }
+
+    @Test
+    public void testSendDocumentCompressedIfConfigured() throws Exception {
+        ringoService = new RingoServiceRestImpl(new DefaultTestRingoConfig() {
+            @Override
+            public boolean isUploadCompressed() {
+                return true;
+            }
+        }, "andy", "password");
+        ringoService.setHttpClient(httpClient);
+        PeppolHeader peppolHeader = PeppolHeader.forDocumentType(PeppolDocumentTypeId.EHF_INVOICE.toVefa(), PeppolProcessIdAcronym.INVOICE_ONLY.toVefa(),
+                ParticipantIdentifier.of("0037:12345"), ParticipantIdentifier.of("0037:12345"));
+        expect(clientPeppolDocument.getContentBody()).andStubReturn(new StringBody("Hello"));
+        Capture<HttpPost> request = newCapture();
+        expect(httpClient.execute(isA(HttpHost.class), capture(request), isA(ResponseHandler.class), isA(BasicHttpContext.class))).andReturn(null);
+        replay(clientPeppolDocument, httpClient);
+
+        ringoService.sendDocument(clientPeppolDocument, peppolHeader, uploadMode);
+
+        HttpEntity entity = request.getValue().getEntity();
+        assertEquals(entity.getContentEncoding().getValue(), "gzip");
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        entity.writeTo(compressed);
+        String body = EntityUtils.toString(new GzipDecompressingEntity(new ByteArrayEntity(compressed.toByteArray())), RingoConstants.DEFAULT_CHARACTER_SET);
+        assertTrue(body.contains("Hello"), body);
+        verify(httpClient);
+    }
 
     @Test
     public void testUrlEncodeSwedishOrgNum() throws Exception {
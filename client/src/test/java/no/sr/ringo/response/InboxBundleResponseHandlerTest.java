@@ -0,0 +1,122 @@
+package no.sr.ringo.response;
+
+import no.sr.ringo.client.InboxBundle;
+import org.apache.http.entity.ByteArrayEntity;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.easymock.EasyMock.*;
+import static org.testng.Assert.*;
+
+/**
+ * Tests the handler for inbox bundles.
+ */
+public class InboxBundleResponseHandlerTest extends AbstractResponseHandlerTest {
+
+    static final String PAYLOAD = "<Invoice>1</Invoice>";
+
+    private Path directory;
+
+    @BeforeMethod
+    public void createDirectory() throws Exception {
+        directory = Files.createTempDirectory("bundle");
+    }
+
+    @AfterMethod
+    public void removeDirectory() throws Exception {
+        for (File file : directory.toFile().listFiles()) {
+            file.delete();
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void testInboxBundle() throws Exception {
+        createZipResponse(zip(digest(PAYLOAD)));
+        replay(mockResponse, mockRingoService);
+
+        InboxBundle inboxBundle = new InboxBundleRingoResponseHandler(mockRingoService, directory.toFile()).handleResponse(mockResponse);
+
+        assertEquals(inboxBundle.getAckToken(), "0f0e7b2a-token");
+        assertEquals(inboxBundle.getEntries().size(), 1);
+        InboxBundle.Entry entry = inboxBundle.getEntries().get(0);
+        assertEquals(entry.getMsgNo(), Long.valueOf(8));
+        assertEquals(entry.getReceptionId(), "293b1111-cd3e-49b8-8e98-eb3a98df4cac");
+        assertEquals(entry.getReceiver().getIdentifier(), "9908:976098897");
+        assertEquals(new String(Files.readAllBytes(entry.getFile().toPath()), StandardCharsets.UTF_8), PAYLOAD);
+
+        // Unlisted entries are removed
+        assertEquals(directory.toFile().listFiles().length, 1);
+
+        File moved = entry.moveToDirectory(directory.toFile());
+        assertEquals(moved.getName(), "293b1111-cd3e-49b8-8e98-eb3a98df4cac.xml");
+        verify(mockResponse, mockRingoService);
+    }
+
+    @Test
+    public void testDigestMismatch() throws Exception {
+        createZipResponse(zip(digest("<Invoice>2</Invoice>")));
+        replay(mockResponse, mockRingoService);
+
+        try {
+            new InboxBundleRingoResponseHandler(mockRingoService, directory.toFile()).handleResponse(mockResponse);
+            fail("Digest mismatch not detected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("does not match"));
+        }
+        assertEquals(directory.toFile().listFiles().length, 0);
+    }
+
+    @Test
+    public void testBundlesNotSupported() throws Exception {
+        ByteArrayEntity entity = new ByteArrayEntity("Invalid message number 'bundle'".getBytes(StandardCharsets.UTF_8));
+        entity.setContentType("text/plain");
+        expect(mockResponse.getStatusLine()).andStubReturn(badRequestStatus);
+        expect(mockResponse.getEntity()).andStubReturn(entity);
+        replay(mockResponse, mockRingoService);
+
+        assertNull(new InboxBundleRingoResponseHandler(mockRingoService, directory.toFile()).handleResponse(mockResponse));
+    }
+
+    private void createZipResponse(byte[] zip) {
+        ByteArrayEntity entity = new ByteArrayEntity(zip);
+        entity.setContentType("application/zip");
+        expect(mockResponse.getStatusLine()).andStubReturn(okStatus);
+        expect(mockResponse.getEntity()).andStubReturn(entity);
+    }
+
+    private static byte[] zip(String digest) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            zip.putNextEntry(new ZipEntry("8.xml"));
+            zip.write(PAYLOAD.getBytes(StandardCharsets.UTF_8));
+            zip.putNextEntry(new ZipEntry("unlisted.xml"));
+            zip.write(PAYLOAD.getBytes(StandardCharsets.UTF_8));
+            zip.putNextEntry(new ZipEntry("manifest.xml"));
+            zip.write(("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                    "<inbox-bundle version=\"1.0\" digest-method=\"SHA-256\" ack-token=\"0f0e7b2a-token\">\n" +
+                    "  <message msg-no=\"8\" uuid=\"293b1111-cd3e-49b8-8e98-eb3a98df4cac\" receiver=\"9908:976098897\" file=\"8.xml\" size=\"20\" digest=\"" + digest + "\"/>\n" +
+                    "</inbox-bundle>\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String digest(String payload) throws Exception {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(payload.getBytes(StandardCharsets.UTF_8))) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
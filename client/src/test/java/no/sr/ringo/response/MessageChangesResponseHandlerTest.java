@@ -0,0 +1,67 @@
+package no.sr.ringo.response;
+
+import no.sr.ringo.client.MessageChanges;
+import no.sr.ringo.common.RingoConstants;
+import org.apache.http.entity.StringEntity;
+import org.testng.annotations.Test;
+
+import static org.easymock.EasyMock.*;
+import static org.testng.Assert.*;
+
+/**
+ * Tests the handler for changes since a cursor.
+ */
+public class MessageChangesResponseHandlerTest extends AbstractResponseHandlerTest {
+
+    static final String MESSAGE = "<message>\n" +
+            "        <self>https://ringo.example.com/messages/8</self>\n" +
+            "        <xml-document>https://ringo.example.com/messages/8/xml-document</xml-document>\n" +
+            "        <message-meta-data>\n" +
+            "          <msg-no>8</msg-no>\n" +
+            "          <direction>IN</direction>\n" +
+            "          <received>2017-01-02T10:11:12.000+01:00</received>\n" +
+            "          <delivered>2017-01-02T10:12:12.000+01:00</delivered>\n" +
+            "          <uuid>293b1111-cd3e-49b8-8e98-eb3a98df4cac</uuid>\n" +
+            "          <peppol-header>\n" +
+            "            <sender>9908:810017902</sender>\n" +
+            "            <receiver>9908:976098897</receiver>\n" +
+            "            <channel>SREST</channel>\n" +
+            "            <document-id>urn:oasis:names:specification:ubl:schema:xsd:Invoice-2::Invoice</document-id>\n" +
+            "            <process-id>urn:www.cenbii.eu:profile:bii04:ver1.0</process-id>\n" +
+            "          </peppol-header>\n" +
+            "        </message-meta-data>\n" +
+            "</message>\n";
+
+    @Test
+    public void testChangesWithMore() throws Exception {
+        createResponse("<messages-changes-response version=\"1.0\">\n<cursor>42</cursor>\n" +
+                "<navigation>\n<next>https://ringo.example.com/messages/changes?since=42&amp;max=1</next>\n</navigation>\n" +
+                "<messages>\n" + MESSAGE + "</messages>\n</messages-changes-response>");
+        replay(mockResponse, mockRingoService);
+
+        MessageChanges changes = new MessageChangesRingoResponseHandler(mockRingoService).handleResponse(mockResponse);
+
+        assertEquals(changes.getCursor(), 42L);
+        assertTrue(changes.isMore());
+        assertEquals(changes.getMessages().size(), 1);
+        assertEquals(changes.getMessages().get(0).getMessageSelfUri(), "https://ringo.example.com/messages/8");
+        verify(mockResponse, mockRingoService);
+    }
+
+    @Test
+    public void testNoChanges() throws Exception {
+        createResponse("<messages-changes-response version=\"1.0\">\n<cursor>42</cursor>\n<navigation/>\n<messages>\n</messages>\n</messages-changes-response>");
+        replay(mockResponse, mockRingoService);
+
+        MessageChanges changes = new MessageChangesRingoResponseHandler(mockRingoService).handleResponse(mockResponse);
+
+        assertEquals(changes.getCursor(), 42L);
+        assertFalse(changes.isMore());
+        assertTrue(changes.isEmpty());
+    }
+
+    private void createResponse(String xml) throws Exception {
+        expect(mockResponse.getStatusLine()).andStubReturn(okStatus);
+        expect(mockResponse.getEntity()).andStubReturn(new StringEntity(xml, RingoConstants.DEFAULT_CHARACTER_SET));
+    }
+}
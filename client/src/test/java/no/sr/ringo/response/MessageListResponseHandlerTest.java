@@ -48,6 +48,26 @@ public class MessageListResponseHandlerTest extends AbstractResponseHandlerTest{
         assertTrue(messages.iterator().hasNext());
     }
 
+    @Test
+    public void testMessageListResponseHandlerJson() throws Exception {
+
+        FileEntity entity = getTestFile("/messages.json");
+        entity.setContentType("application/json; charset=UTF-8");
+        MessageListRingoResponseHandler handler = new MessageListRingoResponseHandler(mockRingoServer);
+
+        expect(mockResponse.getStatusLine()).andStubReturn(okStatus);
+        expect(mockResponse.getEntity()).andStubReturn(entity);
+
+        replay(mockRequest, mockResponse);
+
+        final Messages messages = handler.handleResponse(mockResponse);
+
+        verify(mockRequest, mockResponse);
+
+        assertTrue(messages.iterator().hasNext());
+        assertEquals(messages.iterator().next().getMessageSelfUri(), "https://aksesspunkt.sendregning.no:9443/test/inbox/8");
+    }
+
     @Test
     public void testMessageListHandlerFailure() throws Exception {
 
@@ -0,0 +1,52 @@
+package no.sr.ringo.response;
+
+import no.sr.ringo.client.OutboxBatch;
+import no.sr.ringo.common.RingoConstants;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicStatusLine;
+import org.testng.annotations.Test;
+
+import static org.easymock.EasyMock.*;
+import static org.testng.Assert.*;
+
+/**
+ * Tests the handler for the response of uploading a batch of documents.
+ */
+public class OutboxBatchResponseHandlerTest extends AbstractResponseHandlerTest {
+
+    @Test
+    public void testEveryDocumentIsReported() throws Exception {
+        expect(mockResponse.getStatusLine()).andStubReturn(okStatus);
+        expect(mockResponse.getEntity()).andStubReturn(new StringEntity("<outbox-batch-response version=\"1.0\">\n" +
+                "<document file=\"invoice-1.xml\" status=\"CREATED\">\n" +
+                "<message>\n<self>https://ringo.example.com/outbox/42</self>\n" +
+                "<message-meta-data>\n<msg-no>42</msg-no>\n<direction>OUT</direction>\n</message-meta-data>\n</message>\n" +
+                "</document>\n" +
+                "<document file=\"invoice-2.xml\" status=\"REJECTED\">\n<error>Invalid document</error>\n</document>\n" +
+                "</outbox-batch-response>", RingoConstants.DEFAULT_CHARACTER_SET));
+        replay(mockResponse);
+
+        OutboxBatch outboxBatch = new OutboxBatchRingoResponseHandler().handleResponse(mockResponse);
+
+        assertEquals(outboxBatch.getEntries().size(), 2);
+        OutboxBatch.Entry created = outboxBatch.getEntries().get(0);
+        assertEquals(created.getFileName(), "invoice-1.xml");
+        assertEquals(created.getMsgNo(), Long.valueOf(42));
+        assertTrue(created.isUploaded());
+        OutboxBatch.Entry rejected = outboxBatch.getEntries().get(1);
+        assertEquals(rejected.getFileName(), "invoice-2.xml");
+        assertNull(rejected.getMsgNo());
+        assertEquals(rejected.getError(), "Invalid document");
+        assertFalse(rejected.isUploaded());
+    }
+
+    @Test
+    public void testBatchesNotProvided() throws Exception {
+        expect(mockResponse.getStatusLine()).andStubReturn(new BasicStatusLine(new ProtocolVersion("http", 1, 1), 405, "Method Not Allowed"));
+        expect(mockResponse.getEntity()).andStubReturn(null);
+        replay(mockResponse);
+
+        assertNull(new OutboxBatchRingoResponseHandler().handleResponse(mockResponse));
+    }
+}
@@ -0,0 +1,64 @@
+package no.sr.ringo.response.json;
+
+import no.sr.ringo.message.MessageNumber;
+import no.sr.ringo.message.MessageWithLocations;
+import no.sr.ringo.peppol.RingoUtils;
+import no.sr.ringo.response.MessagesQueryResponse;
+import no.sr.ringo.transport.TransferDirection;
+import org.testng.annotations.Test;
+
+import javax.json.stream.JsonParsingException;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+public class JsonMessagesParserTest {
+
+    @Test
+    public void testParse() throws Exception {
+        MessagesQueryResponse response;
+        try (InputStream inputStream = JsonMessagesParserTest.class.getResourceAsStream("/messages.json")) {
+            response = new JsonMessagesParser().parse(inputStream);
+        }
+
+        List<MessageWithLocations> messageList = response.getMessageList();
+        assertEquals(messageList.size(), 2);
+        assertEquals(response.getNavigation().getNext(), URI.create("https://aksesspunkt.sendregning.no:9443/test/messages?index=2"));
+        assertNull(response.getNavigation().getPrevious());
+
+        MessageWithLocations message = messageList.get(0);
+        assertEquals(message.getMsgNo(), MessageNumber.of(8L));
+        assertEquals(message.getSelfURI(), URI.create("https://aksesspunkt.sendregning.no:9443/test/inbox/8"));
+        assertEquals(message.getXmlDocumentURI(), URI.create("https://aksesspunkt.sendregning.no:9443/test/messages/8/xml-document"));
+        assertEquals(message.getTransferDirection(), TransferDirection.IN);
+        assertEquals(message.getReceived(), RingoUtils.getDateTimeFromISO8601String("2012-01-25T20:20:38+01:00"));
+        assertNull(message.getDelivered());
+        assertEquals(message.getReceptionId().stringValue(), "293b1111-cd3e-49b8-8e98-eb3a98df4cac");
+        assertEquals(message.getPeppolHeader().getSender().getIdentifier(), "9908:976098897");
+        assertEquals(message.getPeppolHeader().getPeppolChannelId().stringValue(), "AndyTest");
+        assertEquals(message.getPeppolHeader().getProcessIdentifier().getIdentifier(), "urn:www.cenbii.eu:profile:bii04:ver1.0");
+
+        // Unknown members are skipped
+        message = messageList.get(1);
+        assertEquals(message.getMsgNo(), MessageNumber.of(10L));
+        assertEquals(message.getDelivered(), RingoUtils.getDateTimeFromISO8601String("2012-01-25T20:22:12+01:00"));
+        assertEquals(message.getPeppolHeader().getReceiver().getIdentifier(), "9908:810017902");
+        assertEquals(message.getPeppolHeader().getProcessIdentifier().getIdentifier(), "urn:www.cenbii.eu:profile:bii04:ver1.0");
+    }
+
+    @Test
+    public void testParseWithoutNavigation() throws Exception {
+        MessagesQueryResponse response = new JsonMessagesParser().parse(new ByteArrayInputStream("{\"version\":\"1.0\",\"messages\":[]}".getBytes("UTF-8")));
+
+        assertTrue(response.getMessageList().isEmpty());
+        assertNull(response.getNavigation());
+    }
+
+    @Test(expectedExceptions = JsonParsingException.class)
+    public void testParseInvalid() throws Exception {
+        new JsonMessagesParser().parse(new ByteArrayInputStream("[]".getBytes("UTF-8")));
+    }
+}
@@ -5,6 +5,7 @@ import no.difi.vefa.peppol.common.model.Scheme;
 import no.sr.ringo.client.Inbox;
 import no.sr.ringo.client.Message;
 import no.sr.ringo.client.Messages;
+import no.sr.ringo.client.OutboxBatch;
 import no.sr.ringo.client.RingoClient;
 import no.sr.ringo.common.FileHelper;
 import no.sr.ringo.common.UploadMode;
@@ -17,6 +18,7 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import java.io.*;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.UUID;
 
@@ -103,6 +105,7 @@ public class RingoClientCommandExecutorTest  {
 
         RingoClientParams params = prepareParamsForOutbox();
 
+        expectBatchesNotProvided(params);
         expect(client.send(uploadFile, params.getChannelId(), params.getSenderId(), params.getRecipientId(), UploadMode.BATCH)).andReturn(mockUploadMessage);
         expect(mockUploadMessage.getReceptionId()).andReturn(receptionId);
 
@@ -159,6 +162,56 @@ public class RingoClientCommandExecutorTest  {
 
     }
 
+    @Test
+    public void testBatchUpload() throws IOException, CommandLineExecutorException {
+        prepareUploadFile(FILENAME);
+
+        RingoClientParams params = prepareParamsForOutbox();
+
+        OutboxBatch outboxBatch = new OutboxBatch(Collections.singletonList(new OutboxBatch.Entry(FILENAME, "CREATED", 42L, null)));
+        expect(client.send(Collections.singletonList(uploadFile), params.getChannelId(), params.getSenderId(), params.getRecipientId(), UploadMode.BATCH)).andReturn(outboxBatch);
+
+        expectedOutputMessage("testFile.xml", "testFile.xml");
+
+        replay(client, mockStream, mockUploadMessage);
+
+        RingoClientCommandExecutor executor = new RingoClientCommandExecutor(mockStream, params, client);
+        executor.execute();
+
+        verify(client, mockStream);
+        assertTrue(new File(ARCHIVE_DIR, FILENAME).exists());
+    }
+
+    @Test
+    public void testBatchUploadRejected() throws IOException, CommandLineExecutorException {
+        prepareUploadFile(FILENAME);
+
+        RingoClientParams params = prepareParamsForOutbox();
+
+        String errorMessage = "Invalid document";
+        OutboxBatch outboxBatch = new OutboxBatch(Collections.singletonList(new OutboxBatch.Entry(FILENAME, OutboxBatch.Entry.REJECTED, null, errorMessage)));
+        expect(client.send(Collections.singletonList(uploadFile), params.getChannelId(), params.getSenderId(), params.getRecipientId(), UploadMode.BATCH)).andReturn(outboxBatch);
+
+        mockStream.println("Upload failed for file: testFile.xml. Creating corresponding error file");
+        File errorFile = new File(params.getOutboxPath(), ERR_FILENAME);
+        mockStream.println("Created error file: " + errorFile.toURI());
+        mockStream.println("Uploaded 0 file(s).");
+        mockStream.println("Skipped 1 file(s). Information in .err files");
+        mockStream.close();
+
+        replay(client, mockStream, mockUploadMessage);
+
+        RingoClientCommandExecutor executor = new RingoClientCommandExecutor(mockStream, params, client);
+        executor.execute();
+
+        verify(client, mockStream);
+        assertFalse(new File(ARCHIVE_DIR, FILENAME).exists());
+        try (BufferedReader reader = new BufferedReader(new FileReader(errorFile))) {
+            assertEquals(reader.readLine(), errorMessage);
+        }
+        errorFile.delete();
+    }
+
     @Test
     public void testUploadSpecifyingSender() throws IOException, CommandLineExecutorException {
         prepareUploadFile(FILENAME);
@@ -167,6 +220,7 @@ public class RingoClientCommandExecutorTest  {
         params.setSenderId(ParticipantIdentifier.of("9908:976098897"));
 
         assertTrue(uploadFile.toString().endsWith(".xml"),"Ooops dow we have a threading problem?");
+        expectBatchesNotProvided(params);
         expect(client.send(uploadFile, params.getChannelId(), params.getSenderId(), params.getRecipientId(), UploadMode.BATCH)).andReturn(mockUploadMessage);
         expect(mockUploadMessage.getReceptionId()).andReturn(receptionId);
 
@@ -193,6 +247,7 @@ public class RingoClientCommandExecutorTest  {
         RingoClientParams params = prepareParamsForOutbox();
 
         String errorMessage = "Something went wrong";
+        expectBatchesNotProvided(params);
         expect(client.send(uploadFile, params.getChannelId(), params.getSenderId(), params.getRecipientId(), UploadMode.BATCH)).andThrow(new IllegalStateException(errorMessage));
         expect(mockUploadMessage.getReceptionId()).andReturn(receptionId);
 
@@ -241,6 +296,7 @@ public class RingoClientCommandExecutorTest  {
         RingoClientParams params = prepareParamsForInbox();
 
         expect(client.getInbox()).andReturn(mockInbox);
+        expect(mockInbox.downloadBundle(eq(RingoClientCommandExecutor.BUNDLE_SIZE), isA(File.class))).andReturn(null);
         expect(mockInbox.getCount()).andReturn(10);
         expect(mockInbox.getMessages()).andReturn(mockMessages);
         expect(mockInbox.getCount()).andReturn(0);
@@ -291,6 +347,7 @@ public class RingoClientCommandExecutorTest  {
         Iterator<Message> mockIterator = createStrictMock(Iterator.class);
 
         expect(client.getInbox()).andReturn(mockInbox);
+        expect(mockInbox.downloadBundle(eq(RingoClientCommandExecutor.BUNDLE_SIZE), isA(File.class))).andReturn(null);
         expect(mockInbox.getCount()).andReturn(10);
         expect(mockInbox.getMessages()).andReturn(mockMessages);
         expect(mockInbox.getCount()).andReturn(0);
@@ -324,6 +381,7 @@ public class RingoClientCommandExecutorTest  {
         RingoClientParams params = prepareParamsForInbox();
 
         expect(client.getInbox()).andReturn(mockInbox);
+        expect(mockInbox.downloadBundle(eq(RingoClientCommandExecutor.BUNDLE_SIZE), isA(File.class))).andReturn(null);
         expect(mockInbox.getCount()).andReturn(10);
         expect(mockInbox.getMessages()).andReturn(mockMessages);
         expect(mockInbox.getCount()).andReturn(0);
@@ -461,10 +519,16 @@ public class RingoClientCommandExecutorTest  {
     }
 
     private void expectationsForUpload(RingoClientParams params) {
+        expect(client.send(Collections.singletonList(uploadFile), params.getChannelId(), params.getSenderId(), params.getRecipientId(), UploadMode.BATCH)).andStubReturn(null);
         expect(client.send(uploadFile, params.getChannelId(), params.getSenderId(), params.getRecipientId(), UploadMode.BATCH)).andStubReturn(mockUploadMessage);
         expect(mockUploadMessage.getReceptionId()).andStubReturn(receptionId);
     }
 
+    /** The server does not provide batch uploads, hence the files are uploaded one by one */
+    private void expectBatchesNotProvided(RingoClientParams params) {
+        expect(client.send(Collections.singletonList(uploadFile), params.getChannelId(), params.getSenderId(), params.getRecipientId(), UploadMode.BATCH)).andReturn(null);
+    }
+
     private void expectedOutputMessage(final String fileToUpload, final String actualFileName) {
         mockStream.println("Uploaded " + fileToUpload + ". Archived to " + actualFileName);
         mockStream.println("Uploaded 1 file(s).");
@@ -25,6 +25,12 @@ public final class RingoConfigProperty {
     public static final String PAYLOAD_BASE_PATH = "ringo.payload.basedir";
     public static final String PLUGIN_PATH = "ringo.plugin.path";
     public static final String REMOVE_SBDH = "ringo.payload.removesbdh";
+    public static final String PAYLOAD_DEDUPLICATION = "ringo.payload.deduplication";
+    public static final String PAYLOAD_LAYOUT = "ringo.payload.layout";
+    public static final String PAYLOAD_COMPACTION_DAYS = "ringo.payload.compaction.days";
+    public static final String PAYLOAD_FSYNC = "ringo.payload.fsync";
+    public static final String PAYLOAD_CACHE_SIZE = "ringo.payload.cache.size";
+    public static final String PAYLOAD_CACHE_OFFHEAP = "ringo.payload.cache.offheap";
 
     public static final String JDBC_CONNECTION_URI= "jdbc.connection.uri";
     public static final String JDBC_DRIVER_CLASS = "jdbc.driver.class.name";
@@ -35,6 +41,47 @@ public final class RingoConfigProperty {
 
     public static final String BLOB_SERVICE_URI_REWRITER = "ringo.blob.uri.handler";
 
+    public static final String VALIDATION_ENGINE = "ringo.validation.engine";
+    public static final String VALIDATION_URL = "ringo.validation.url";
+    public static final String VALIDATION_TIMEOUT = "ringo.validation.timeout";
+    public static final String VALIDATION_RULES_PATH = "ringo.validation.rules";
+    public static final String VALIDATION_ASYNC = "ringo.validation.async";
+    public static final String VALIDATION_WORKERS = "ringo.validation.workers";
+    public static final String VALIDATION_QUEUE_SIZE = "ringo.validation.queue.size";
+
+    public static final String INBOX_EVENTS_POLL_INTERVAL = "ringo.inbox.events.poll.interval";
+
+    public static final String WEBHOOK_WORKERS = "ringo.webhook.workers";
+    public static final String WEBHOOK_CONCURRENCY = "ringo.webhook.concurrency";
+    public static final String WEBHOOK_TIMEOUT = "ringo.webhook.timeout";
+    public static final String WEBHOOK_MAX_ATTEMPTS = "ringo.webhook.max.attempts";
+
+    public static final String ASYNC_TIMEOUT = "ringo.async.timeout";
+    public static final String ASYNC_UPLOAD_WORKERS = "ringo.async.upload.workers";
+    public static final String ASYNC_UPLOAD_QUEUE_SIZE = "ringo.async.upload.queue.size";
+    public static final String ASYNC_STATISTICS_WORKERS = "ringo.async.statistics.workers";
+    public static final String ASYNC_STATISTICS_QUEUE_SIZE = "ringo.async.statistics.queue.size";
+    public static final String ASYNC_BUNDLE_WORKERS = "ringo.async.bundle.workers";
+    public static final String ASYNC_BUNDLE_QUEUE_SIZE = "ringo.async.bundle.queue.size";
+
+    public static final String IDEMPOTENCY_KEY_TTL = "ringo.idempotency.key.ttl";
+
+    public static final String OUTBOX_BATCH_MAX_ENTRIES = "ringo.outbox.batch.max.entries";
+
+    public static final String ADMISSION_CONCURRENCY = "ringo.admission.concurrency";
+    public static final String ADMISSION_POLL_RATE = "ringo.admission.poll.rate";
+    public static final String ADMISSION_POLL_BURST = "ringo.admission.poll.burst";
+    public static final String ADMISSION_DOWNLOAD_RATE = "ringo.admission.download.rate";
+    public static final String ADMISSION_DOWNLOAD_BURST = "ringo.admission.download.burst";
+    public static final String ADMISSION_UPLOAD_RATE = "ringo.admission.upload.rate";
+    public static final String ADMISSION_UPLOAD_BURST = "ringo.admission.upload.burst";
+
+    public static final String COMPRESSION_THRESHOLD = "ringo.compression.threshold";
+
+    public static final String SLOW_QUERY_THRESHOLD = "ringo.jdbc.slow.threshold";
+    public static final String SLOW_QUERY_LOG_INTERVAL = "ringo.jdbc.slow.log.interval";
+    public static final String SLOW_QUERY_MASKED_COLUMNS = "ringo.jdbc.slow.masked.columns";
+
     private RingoConfigProperty() { // restricts instantiation
     }
 
@@ -5,6 +5,8 @@ import java.net.URI;
 /**
  * Holds URIs for payload instances residing outside of our file system. I.e. they are not accessible via
  * any file based methods.
+ * <p>
+ * Payloads in our own file system are either plain files or entries packed into segment files, see {@link #isLocal(URI)}.
  *
  * @author steinar
  *         Date: 28.02.2017
@@ -18,12 +20,21 @@ public class PayloadReference implements FetchDocumentResult {
 
         assert payloadUri != null : "Missing required argument 'payloadUri'";
 
-        if (payloadUri.getScheme().equals("file")) {
-            throw new IllegalArgumentException("Payload URIs in the 'file' scheme are not allowed");
+        if (isLocal(payloadUri)) {
+            throw new IllegalArgumentException("Payload URIs in the '" + payloadUri.getScheme() + "' scheme are not allowed");
         }
         this.payloadUri = payloadUri;
     }
 
+    /**
+     * @return true if the payload is held in our own file system, i.e. the URI is in either the {@code file} or
+     * the {@code segment} scheme.
+     */
+    public static boolean isLocal(URI payloadUri) {
+        String scheme = payloadUri.getScheme();
+        return scheme != null && (scheme.startsWith("file") || scheme.equals("segment"));
+    }
+
     @Override
     public <T> T accept(FetchDocumentResultVisitor<T> fetchDocumentResultVisitor) {
         return fetchDocumentResultVisitor.visit(this);
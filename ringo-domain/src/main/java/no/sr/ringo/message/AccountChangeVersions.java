@@ -0,0 +1,94 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package no.sr.ringo.message;
+
+import com.google.inject.Singleton;
+import no.sr.ringo.account.AccountId;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Holds the change version of each account, i.e. the highest change sequence number of its messages, which
+ * changes whenever a message is added to the account, is read or is delivered.
+ *
+ * The versions are loaded from the database on demand and dropped once changes are committed within this JVM.
+ * Changes made by other nodes are noticed once the version has been held for {@link #TIME_TO_LIVE} milliseconds.
+ */
+@Singleton
+public class AccountChangeVersions {
+
+    static final long TIME_TO_LIVE = TimeUnit.SECONDS.toMillis(5);
+
+    private final Map<AccountId, Version> versions = new ConcurrentHashMap<>();
+
+    /** Incremented for every change, preventing versions loaded before the change from being held */
+    private final AtomicLong changes = new AtomicLong();
+
+    /**
+     * Provides the change version of the account, using the loader if the version is not held or has expired.
+     */
+    public long getVersion(AccountId accountId, LongSupplier loader) {
+        long now = System.currentTimeMillis();
+        Version version = versions.get(accountId);
+        if (version != null && !version.isExpired(now)) {
+            return version.value;
+        }
+
+        long changesBefore = changes.get();
+        version = new Version(loader.getAsLong(), now);
+        versions.put(accountId, version);
+        if (changes.get() != changesBefore) {
+            // The version loaded might predate the change
+            versions.remove(accountId, version);
+        }
+        return version.value;
+    }
+
+    /**
+     * Invoked once changes to the messages of the account have been committed.
+     */
+    public void changed(AccountId accountId) {
+        changes.incrementAndGet();
+        versions.remove(accountId);
+    }
+
+    private static class Version {
+
+        final long value;
+        final long loaded;
+
+        Version(long value, long loaded) {
+            this.value = value;
+            this.loaded = loaded;
+        }
+
+        boolean isExpired(long now) {
+            return now - loaded > TIME_TO_LIVE;
+        }
+    }
+}
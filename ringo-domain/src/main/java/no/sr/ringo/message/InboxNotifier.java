@@ -0,0 +1,78 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package no.sr.ringo.message;
+
+import com.google.inject.Singleton;
+import no.sr.ringo.account.AccountId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Signals, within this JVM, that inbound messages have been committed to the inbox of an account, allowing
+ * clients waiting for new messages to be answered at once rather than having to poll.
+ *
+ * Messages received by other nodes are not seen here, hence listeners must not rely on being notified of every
+ * message.
+ */
+@Singleton
+public class InboxNotifier {
+
+    static final Logger log = LoggerFactory.getLogger(InboxNotifier.class);
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Invoked once the inbound message has been committed. Listeners are invoked on the calling thread and must
+     * return quickly.
+     */
+    public void inboundMessageSaved(AccountId accountId, MessageNumber messageNumber) {
+        for (Listener listener : listeners) {
+            try {
+                listener.inboxChanged(accountId, messageNumber);
+            } catch (RuntimeException e) {
+                log.warn("Unable to notify " + listener + " of message " + messageNumber + "; " + e.getMessage(), e);
+            }
+        }
+    }
+
+    public interface Listener {
+
+        /**
+         * @param accountId     the account having received the message
+         * @param messageNumber the message received
+         */
+        void inboxChanged(AccountId accountId, MessageNumber messageNumber);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package no.sr.ringo.message;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The messages of an account which have been added or have changed delivery state since a cursor, in the order of
+ * the changes. A message changed more than once is included only once, at the position of its latest change.
+ */
+public class MessageChanges {
+
+    private final List<MessageMetaData> messages;
+    private final long cursor;
+    private final boolean more;
+
+    public MessageChanges(List<MessageMetaData> messages, long cursor, boolean more) {
+        this.messages = Collections.unmodifiableList(messages);
+        this.cursor = cursor;
+        this.more = more;
+    }
+
+    public List<MessageMetaData> getMessages() {
+        return messages;
+    }
+
+    /**
+     * @return the cursor to supply when asking for the next changes, being the change sequence number of the last
+     * message or the cursor supplied if there were no changes
+     */
+    public long getCursor() {
+        return cursor;
+    }
+
+    /**
+     * @return true if there are more changes following the cursor
+     */
+    public boolean isMore() {
+        return more;
+    }
+}
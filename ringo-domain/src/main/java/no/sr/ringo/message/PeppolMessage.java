@@ -4,6 +4,8 @@ package no.sr.ringo.message;
 import no.sr.ringo.peppol.PeppolHeader;
 import org.w3c.dom.Document;
 
+import java.nio.file.Path;
+
 /**
  * Represents a xmlMessage to be transferred between two parties in the PEPPOL network.
  *
@@ -15,6 +17,7 @@ public class PeppolMessage {
     private Integer msgNo;
     private PeppolHeader peppolHeader;
     private Document xmlMessage;
+    private Path payloadPath;
 
     public PeppolMessage() {
         peppolHeader = new PeppolHeader();
@@ -36,4 +39,16 @@ public class PeppolMessage {
     public void setXmlMessage(Document xmlMessage) {
         this.xmlMessage = xmlMessage;
     }
+
+    /**
+     * The file to which the payload, as received from the client, has been spooled. Takes precedence over
+     * {@link #getXmlMessage()} when the message is persisted.
+     */
+    public Path getPayloadPath() {
+        return payloadPath;
+    }
+
+    public void setPayloadPath(Path payloadPath) {
+        this.payloadPath = payloadPath;
+    }
 }
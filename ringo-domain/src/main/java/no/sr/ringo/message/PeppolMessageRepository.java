@@ -9,6 +9,7 @@ import no.sr.ringo.message.statistics.RingoStatistics;
 import java.net.URI;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author Steinar Overbeck Cook steinar@sendregning.no
@@ -28,6 +29,13 @@ public interface PeppolMessageRepository {
      */
     MessageWithLocations persistOutboundMessage(Account ringoAccountId, PeppolMessage peppolMessage);
 
+    /**
+     * Persists a number of PeppolMessages, the payloads of which have been spooled, within the current transaction.
+     *
+     * @return the messages persisted, in the order supplied
+     */
+    List<MessageWithLocations> persistOutboundMessages(Account account, List<PeppolMessage> peppolMessages);
+
     /**
      * Retrieves message by primary key
      * @param msgNo - primary key in message table
@@ -53,6 +61,47 @@ public interface PeppolMessageRepository {
      */
     Integer getInboxCount(AccountId accountId);
 
+    /**
+     * Gives the count of inbound messages not yet delivered to any of the accounts, i.e. the backlog of the inboxes.
+     */
+    int getUndeliveredInboundMessagesCount();
+
+    /**
+     * Gives the highest message number assigned so far, serving as a change counter of the message table.
+     *
+     * @return the highest message number, or null if there are no messages
+     */
+    MessageNumber getLatestMessageNumber();
+
+    /**
+     * Finds the accounts having received messages numbered above the supplied message number, allowing changes
+     * made by other nodes to be detected.
+     *
+     * @param after the highest message number seen previously
+     * @return the highest inbound message number of each account having received messages since
+     */
+    Map<AccountId, MessageNumber> findLatestInboundMessageNumbers(MessageNumber after);
+
+    /**
+     * Finds the messages of the account, inbound as well as outbound, which have been added or have changed
+     * delivery state since the supplied cursor, using the change sequence number maintained for each message.
+     *
+     * The change sequence number is drawn within the transaction changing the message and becomes visible when the
+     * transaction commits. A transaction committing after a later drawn number has been read leaves its change
+     * behind the cursor, where it is not found by subsequent invocations. The changes are hence not guaranteed to
+     * be complete: the unread messages of the inbox and outbox remain the authoritative state.
+     *
+     * @param since the cursor provided by the previous invocation, 0 to start from the beginning
+     * @param max the maximum number of messages to provide
+     */
+    MessageChanges findMessageChanges(AccountId accountId, long since, int max);
+
+    /**
+     * Provides the change version of the account, being the highest change sequence number of its messages,
+     * or 0 if the account has no messages.
+     */
+    long getChangeVersion(AccountId accountId);
+
     /**
      *
      * Retrieves messages from outbox where delivered is null
@@ -71,6 +120,16 @@ public interface PeppolMessageRepository {
      */
     List<MessageMetaData> findUndeliveredInboundMessagesByAccount(AccountId accountId);
 
+    /**
+     *
+     * Retrieves at most max messages from inbox where delivered is null, oldest first
+     *
+     * @param accountId
+     * @param max the maximum number of messages to retrieve
+     *
+     */
+    List<MessageMetaData> findUndeliveredInboundMessagesByAccount(AccountId accountId, int max);
+
     /**
      * Searches all messages within inbox and outbox for given account that meet criteria specified in searchParams
      * @param id
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package no.sr.ringo.metrics;
+
+import com.google.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+
+/**
+ * Registry of the metrics of Ringo: timers of the resource methods, repository methods and payload I/O, along with
+ * gauges and counters sampled from the components owning them.
+ *
+ * Timers are recorded as the work is done, at the cost of a few increments, whereas gauges and counters cost
+ * nothing until the metrics are scraped, in either the Prometheus text format or JSON.
+ */
+@Singleton
+public class MetricsRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(MetricsRegistry.class);
+
+    enum Type {
+        GAUGE, COUNTER
+    }
+
+    private final ConcurrentMap<String, TimerFamily> timers = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, Sampled> sampled = new ConcurrentSkipListMap<>();
+
+    /**
+     * Provides the timer of the given name and label value, created upon first use.
+     *
+     * @param name       name of the metric, e.g. ringo_resource_seconds
+     * @param help       description of the metric
+     * @param label      name of the label telling the timers of the metric apart, e.g. method
+     * @param labelValue value of the label, e.g. OutboxResource.post
+     */
+    public Timer timer(String name, String help, String label, String labelValue) {
+        TimerFamily family = timers.computeIfAbsent(name, n -> new TimerFamily(help, label));
+        return family.timers.computeIfAbsent(labelValue, v -> new Timer());
+    }
+
+    /**
+     * Registers a gauge sampled when scraped, replacing any gauge of the same name.
+     */
+    public void gauge(String name, String help, Supplier<? extends Number> value) {
+        sampled.put(name, new Sampled(Type.GAUGE, help, null, () -> Collections.singletonMap("", value.get())));
+    }
+
+    /**
+     * Registers a gauge having a value per label value, e.g. per state, sampled when scraped.
+     */
+    public void gauge(String name, String help, String label, Supplier<? extends Map<String, ? extends Number>> values) {
+        sampled.put(name, new Sampled(Type.GAUGE, help, label, values));
+    }
+
+    /**
+     * Registers a counter maintained by another component, sampled when scraped.
+     */
+    public void counter(String name, String help, Supplier<? extends Number> value) {
+        sampled.put(name, new Sampled(Type.COUNTER, help, null, () -> Collections.singletonMap("", value.get())));
+    }
+
+    /**
+     * Registers a counter maintained by another component, having a value per label value, sampled when scraped.
+     */
+    public void counter(String name, String help, String label, Supplier<? extends Map<String, ? extends Number>> values) {
+        sampled.put(name, new Sampled(Type.COUNTER, help, label, values));
+    }
+
+    /**
+     * Provides the metrics in the Prometheus text exposition format, version 0.0.4.
+     */
+    public String toPrometheus() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, TimerFamily> family : timers.entrySet()) {
+            String name = family.getKey();
+            String label = family.getValue().label;
+            appendHeader(sb, name, family.getValue().help, "histogram");
+            for (Map.Entry<String, Timer> timer : family.getValue().timers.entrySet()) {
+                String labels = label + "=\"" + escapePrometheus(timer.getKey()) + "\"";
+                long[] counts = timer.getValue().getCumulativeCounts();
+                for (int i = 0; i < counts.length; i++) {
+                    String le = i < Timer.BUCKETS.length ? Double.toString(Timer.BUCKETS[i]) : "+Inf";
+                    sb.append(name).append("_bucket{").append(labels).append(",le=\"").append(le).append("\"} ").append(counts[i]).append('\n');
+                }
+                sb.append(name).append("_sum{").append(labels).append("} ").append(timer.getValue().getSum()).append('\n');
+                sb.append(name).append("_count{").append(labels).append("} ").append(counts[counts.length - 1]).append('\n');
+            }
+        }
+        for (Map.Entry<String, Sampled> metric : sampled.entrySet()) {
+            String name = metric.getKey();
+            Sampled sampled = metric.getValue();
+            Map<String, ? extends Number> values = sampled.sample(name);
+            if (values == null) {
+                continue;
+            }
+            appendHeader(sb, name, sampled.help, sampled.type.name().toLowerCase());
+            for (Map.Entry<String, ? extends Number> value : values.entrySet()) {
+                if (value.getValue() == null) {
+                    continue;
+                }
+                sb.append(name);
+                if (sampled.label != null) {
+                    sb.append('{').append(sampled.label).append("=\"").append(escapePrometheus(value.getKey())).append("\"}");
+                }
+                sb.append(' ').append(value.getValue()).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Provides the metrics as a JSON object holding an object per metric, keyed by the name of the metric.
+     */
+    public String toJson() {
+        StringBuilder sb = new StringBuilder("{");
+        String separator = "";
+        for (Map.Entry<String, TimerFamily> family : timers.entrySet()) {
+            sb.append(separator).append(quote(family.getKey())).append(":{\"type\":\"histogram\",\"label\":")
+                    .append(quote(family.getValue().label)).append(",\"values\":{");
+            String timerSeparator = "";
+            for (Map.Entry<String, Timer> timer : family.getValue().timers.entrySet()) {
+                long[] counts = timer.getValue().getCumulativeCounts();
+                sb.append(timerSeparator).append(quote(timer.getKey()))
+                        .append(":{\"count\":").append(counts[counts.length - 1])
+                        .append(",\"sum\":").append(jsonNumber(timer.getValue().getSum()))
+                        .append(",\"buckets\":{");
+                for (int i = 0; i < Timer.BUCKETS.length; i++) {
+                    sb.append(i > 0 ? "," : "").append(quote(Double.toString(Timer.BUCKETS[i]))).append(':').append(counts[i]);
+                }
+                sb.append("}}");
+                timerSeparator = ",";
+            }
+            sb.append("}}");
+            separator = ",";
+        }
+        for (Map.Entry<String, Sampled> metric : sampled.entrySet()) {
+            Sampled sampled = metric.getValue();
+            Map<String, ? extends Number> values = sampled.sample(metric.getKey());
+            if (values == null) {
+                continue;
+            }
+            sb.append(separator).append(quote(metric.getKey())).append(":{\"type\":").append(quote(sampled.type.name().toLowerCase()));
+            if (sampled.label == null) {
+                sb.append(",\"value\":").append(jsonNumber(values.get("")));
+            } else {
+                sb.append(",\"label\":").append(quote(sampled.label)).append(",\"values\":{");
+                String valueSeparator = "";
+                for (Map.Entry<String, ? extends Number> value : values.entrySet()) {
+                    sb.append(valueSeparator).append(quote(value.getKey())).append(':').append(jsonNumber(value.getValue()));
+                    valueSeparator = ",";
+                }
+                sb.append('}');
+            }
+            sb.append('}');
+            separator = ",";
+        }
+        return sb.append('}').toString();
+    }
+
+    private static void appendHeader(StringBuilder sb, String name, String help, String type) {
+        sb.append("# HELP ").append(name).append(' ').append(help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static String escapePrometheus(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /** JSON has no notation for NaN nor infinity, e.g. the hit ratio of an unused cache */
+    private static String jsonNumber(Number number) {
+        if (number == null || Double.isNaN(number.doubleValue()) || Double.isInfinite(number.doubleValue())) {
+            return "null";
+        }
+        return number.toString();
+    }
+
+    private static class TimerFamily {
+
+        private final String help;
+        private final String label;
+        private final ConcurrentMap<String, Timer> timers = new ConcurrentSkipListMap<>();
+
+        TimerFamily(String help, String label) {
+            this.help = help;
+            this.label = label;
+        }
+    }
+
+    private static class Sampled {
+
+        private final Type type;
+        private final String help;
+        private final String label;
+        private final Supplier<? extends Map<String, ? extends Number>> values;
+
+        Sampled(Type type, String help, String label, Supplier<? extends Map<String, ? extends Number>> values) {
+            this.type = type;
+            this.help = help;
+            this.label = label;
+            this.values = values;
+        }
+
+        /**
+         * Samples the values, a metric failing to be sampled, e.g. as the database is unavailable, being left out
+         * rather than failing the scrape.
+         */
+        Map<String, ? extends Number> sample(String name) {
+            try {
+                return values.get();
+            } catch (RuntimeException e) {
+                log.warn("Unable to sample " + name + "; " + e.getMessage(), e);
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package no.sr.ringo.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations, with fixed buckets from a millisecond to ten seconds.
+ *
+ * Recording is a couple of uncontended increments, hence timers may be placed on hot paths.
+ */
+public class Timer {
+
+    /** Upper bounds of the buckets in seconds, the last bucket being unbounded */
+    static final double[] BUCKETS = {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    private static final long[] BOUNDS = new long[BUCKETS.length];
+
+    static {
+        for (int i = 0; i < BUCKETS.length; i++) {
+            BOUNDS[i] = (long) (BUCKETS[i] * TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS.length + 1];
+    private final LongAdder sum = new LongAdder();
+
+    Timer() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a duration, as measured by {@link System#nanoTime()}.
+     */
+    public void record(long nanos) {
+        int i = 0;
+        while (i < BOUNDS.length && nanos > BOUNDS[i]) {
+            i++;
+        }
+        counts[i].increment();
+        sum.add(nanos);
+    }
+
+    /**
+     * Records the time elapsed since the given start, as obtained from {@link System#nanoTime()}.
+     */
+    public void recordSince(long start) {
+        record(System.nanoTime() - start);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : counts) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * @return the total of the durations recorded, in seconds
+     */
+    public double getSum() {
+        return sum.sum() / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    /**
+     * @return the number of durations within each of the {@link #BUCKETS}, followed by the total
+     */
+    long[] getCumulativeCounts() {
+        long[] cumulative = new long[counts.length];
+        long count = 0;
+        for (int i = 0; i < counts.length; i++) {
+            count += counts[i].sum();
+            cumulative[i] = count;
+        }
+        return cumulative;
+    }
+}
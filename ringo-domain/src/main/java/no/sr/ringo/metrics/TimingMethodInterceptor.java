@@ -0,0 +1,91 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package no.sr.ringo.metrics;
+
+import com.google.inject.Inject;
+import com.google.inject.matcher.AbstractMatcher;
+import com.google.inject.matcher.Matcher;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Times the methods intercepted, with a timer per method labelled by the simple name of the declaring class and the
+ * name of the method, e.g. <code>OutboxResource.post</code>. Overloaded methods share their timer.
+ *
+ * The {@link MetricsRegistry} is injected by requestInjection() of the module binding the interceptor.
+ */
+public class TimingMethodInterceptor implements MethodInterceptor {
+
+    private final String name;
+    private final String help;
+    private final ConcurrentMap<Method, Timer> timers = new ConcurrentHashMap<>();
+
+    @Inject
+    MetricsRegistry metricsRegistry;
+
+    /**
+     * @param name name of the metric, e.g. ringo_repository_seconds
+     * @param help description of the metric
+     */
+    public TimingMethodInterceptor(String name, String help) {
+        this.name = name;
+        this.help = help;
+    }
+
+    /**
+     * Matches the public methods, other than those of {@link Object} and those generated by the compiler.
+     */
+    public static Matcher<Method> publicMethods() {
+        return new AbstractMatcher<Method>() {
+            @Override
+            public boolean matches(Method method) {
+                return Modifier.isPublic(method.getModifiers()) && !method.isSynthetic() && method.getDeclaringClass() != Object.class;
+            }
+        };
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        long start = System.nanoTime();
+        try {
+            return invocation.proceed();
+        } finally {
+            timerOf(invocation.getMethod()).recordSince(start);
+        }
+    }
+
+    private Timer timerOf(Method method) {
+        Timer timer = timers.get(method);
+        if (timer == null) {
+            timer = metricsRegistry.timer(name, help, "method", method.getDeclaringClass().getSimpleName() + "." + method.getName());
+            timers.putIfAbsent(method, timer);
+        }
+        return timer;
+    }
+}
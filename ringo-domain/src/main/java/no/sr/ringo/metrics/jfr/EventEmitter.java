@@ -0,0 +1,94 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package no.sr.ringo.metrics.jfr;
+
+/**
+ * Emits the events of Ringo. Every event is begun when obtained and recorded by its commit method, which does nothing
+ * unless the event lasted longer than its threshold and is enabled.
+ *
+ * The instrumented code only depends on these interfaces, hence runs on runtimes without the JDK Flight Recorder
+ * API, where {@link FlightRecorderSupport#emitter()} provides an emitter doing nothing at all.
+ */
+public interface EventEmitter {
+
+    RestRequest beginRestRequest();
+
+    Transaction beginTransaction();
+
+    RepositoryCall beginRepositoryCall();
+
+    PayloadIo beginPayloadIo();
+
+    XmlProcessing beginXmlProcessing();
+
+    Transmission beginTransmission();
+
+    interface TimedEvent {
+
+        /**
+         * @return true if the event will be recorded when committed, i.e. whether its values are worth computing
+         */
+        boolean shouldCommit();
+    }
+
+    /** See {@link RestRequestEvent} */
+    interface RestRequest extends TimedEvent {
+        void commit(String resource, String httpMethod, int status);
+    }
+
+    /** See {@link TransactionEvent} */
+    interface Transaction extends TimedEvent {
+        void commit(String method, boolean committed);
+    }
+
+    /** See {@link RepositoryCallEvent} */
+    interface RepositoryCall extends TimedEvent {
+        void commit(String sqlId, long rows);
+    }
+
+    /** See {@link PayloadIoEvent} */
+    interface PayloadIo extends TimedEvent {
+        String READ = "read";
+        String WRITE = "write";
+        String MOVE = "move";
+
+        String FILE = "file";
+        String SEGMENT = "segment";
+
+        void commit(String operation, String pathClass, long bytes);
+    }
+
+    /** See {@link XmlProcessingEvent} */
+    interface XmlProcessing extends TimedEvent {
+        String PARSE = "parse";
+        String VALIDATE = "validate";
+
+        void commit(String operation, long bytes, boolean valid);
+    }
+
+    /** See {@link TransmissionEvent} */
+    interface Transmission extends TimedEvent {
+        void commit(String endpoint, String transportProfile, String transmissionId, boolean succeeded);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package no.sr.ringo.metrics.jfr;
+
+/**
+ * Emits the events as JDK Flight Recorder events. Only loaded when the runtime provides the API.
+ */
+class FlightRecorderEventEmitter implements EventEmitter {
+
+    @Override
+    public RestRequest beginRestRequest() {
+        RestRequestEvent event = new RestRequestEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public Transaction beginTransaction() {
+        TransactionEvent event = new TransactionEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public RepositoryCall beginRepositoryCall() {
+        RepositoryCallEvent event = new RepositoryCallEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public PayloadIo beginPayloadIo() {
+        PayloadIoEvent event = new PayloadIoEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public XmlProcessing beginXmlProcessing() {
+        XmlProcessingEvent event = new XmlProcessingEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public Transmission beginTransmission() {
+        TransmissionEvent event = new TransmissionEvent();
+        event.begin();
+        return event;
+    }
+}
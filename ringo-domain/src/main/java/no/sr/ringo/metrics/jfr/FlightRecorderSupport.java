@@ -0,0 +1,54 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package no.sr.ringo.metrics.jfr;
+
+/**
+ * Provides the {@link EventEmitter} of the runtime: one emitting JDK Flight Recorder events if the runtime provides
+ * the API, which Java 8 does from update 262, or one doing nothing otherwise.
+ */
+public final class FlightRecorderSupport {
+
+    static final String EVENT_CLASS = "jdk.jfr.Event";
+
+    private static final EventEmitter EMITTER = isAvailable() ? new FlightRecorderEventEmitter() : NoOpEventEmitter.INSTANCE;
+
+    private FlightRecorderSupport() {
+    }
+
+    /**
+     * @return true if the runtime provides the JDK Flight Recorder API
+     */
+    public static boolean isAvailable() {
+        try {
+            Class.forName(EVENT_CLASS, false, FlightRecorderSupport.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    public static EventEmitter emitter() {
+        return EMITTER;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package no.sr.ringo.metrics.jfr;
+
+/**
+ * Emits nothing, used when the runtime does not provide the JDK Flight Recorder API. Every event is this very
+ * instance, hence beginning an event allocates nothing.
+ */
+final class NoOpEventEmitter implements EventEmitter, EventEmitter.RestRequest, EventEmitter.Transaction,
+        EventEmitter.RepositoryCall, EventEmitter.PayloadIo, EventEmitter.XmlProcessing, EventEmitter.Transmission {
+
+    static final NoOpEventEmitter INSTANCE = new NoOpEventEmitter();
+
+    private NoOpEventEmitter() {
+    }
+
+    @Override
+    public RestRequest beginRestRequest() {
+        return this;
+    }
+
+    @Override
+    public Transaction beginTransaction() {
+        return this;
+    }
+
+    @Override
+    public RepositoryCall beginRepositoryCall() {
+        return this;
+    }
+
+    @Override
+    public PayloadIo beginPayloadIo() {
+        return this;
+    }
+
+    @Override
+    public XmlProcessing beginXmlProcessing() {
+        return this;
+    }
+
+    @Override
+    public Transmission beginTransmission() {
+        return this;
+    }
+
+    @Override
+    public boolean shouldCommit() {
+        return false;
+    }
+
+    @Override
+    public void commit(String resource, String httpMethod, int status) {
+    }
+
+    @Override
+    public void commit(String method, boolean committed) {
+    }
+
+    @Override
+    public void commit(String sqlId, long rows) {
+    }
+
+    @Override
+    public void commit(String operation, String pathClass, long bytes) {
+    }
+
+    @Override
+    public void commit(String operation, long bytes, boolean valid) {
+    }
+
+    @Override
+    public void commit(String endpoint, String transportProfile, String transmissionId, boolean succeeded) {
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package no.sr.ringo.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Reading or writing of a payload or evidence in the payload store.
+ */
+@Name("no.sr.ringo.PayloadIo")
+@Label("Payload I/O")
+@Category({"Ringo", "Payload"})
+@StackTrace(false)
+@Threshold("10 ms")
+public class PayloadIoEvent extends Event implements EventEmitter.PayloadIo {
+
+    @Label("Operation")
+    @Description("read, write or move")
+    public String operation;
+
+    @Label("Path Class")
+    @Description("Where the artifact is held: file or segment")
+    public String pathClass;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+    @Override
+    public void commit(String operation, String pathClass, long bytes) {
+        if (shouldCommit()) {
+            this.operation = operation;
+            this.pathClass = pathClass;
+            this.bytes = bytes;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package no.sr.ringo.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Processing of a REST request by a method of a resource.
+ */
+@Name("no.sr.ringo.RestRequest")
+@Label("REST Request")
+@Category({"Ringo", "REST"})
+@StackTrace(false)
+public class RestRequestEvent extends Event implements EventEmitter.RestRequest {
+
+    @Label("Resource")
+    @Description("Resource method processing the request, e.g. OutboxResource.post")
+    public String resource;
+
+    @Label("HTTP Method")
+    public String httpMethod;
+
+    @Label("Status")
+    @Description("HTTP status of the response, as far as it is known to the resource")
+    public int status;
+
+    @Override
+    public void commit(String resource, String httpMethod, int status) {
+        if (shouldCommit()) {
+            this.resource = resource;
+            this.httpMethod = httpMethod;
+            this.status = status;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package no.sr.ringo.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Database transaction started by a method annotated with @Transactional, including its commit or rollback.
+ */
+@Name("no.sr.ringo.Transaction")
+@Label("Transaction")
+@Category({"Ringo", "Database"})
+@StackTrace(false)
+@Threshold("10 ms")
+public class TransactionEvent extends Event implements EventEmitter.Transaction {
+
+    @Label("Method")
+    @Description("Transactional method, e.g. SendQueuedMessagesUseCase.lockQueueRowAndSendMessage")
+    public String method;
+
+    @Label("Committed")
+    public boolean committed;
+
+    @Override
+    public void commit(String method, boolean committed) {
+        if (shouldCommit()) {
+            this.method = method;
+            this.committed = committed;
+            commit();
+        }
+    }
+}
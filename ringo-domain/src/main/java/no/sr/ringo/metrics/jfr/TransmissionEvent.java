@@ -0,0 +1,65 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package no.sr.ringo.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Transmission of an outbound message to the access point of the receiver, including the lookup of the endpoint.
+ */
+@Name("no.sr.ringo.Transmission")
+@Label("Outbound Transmission")
+@Category({"Ringo", "Transmission"})
+@StackTrace(false)
+public class TransmissionEvent extends Event implements EventEmitter.Transmission {
+
+    @Label("Endpoint")
+    @Description("Address of the receiving access point, empty if the lookup failed")
+    public String endpoint;
+
+    @Label("Transport Profile")
+    public String transportProfile;
+
+    @Label("Transmission Id")
+    public String transmissionId;
+
+    @Label("Succeeded")
+    public boolean succeeded;
+
+    @Override
+    public void commit(String endpoint, String transportProfile, String transmissionId, boolean succeeded) {
+        if (shouldCommit()) {
+            this.endpoint = endpoint;
+            this.transportProfile = transportProfile;
+            this.transmissionId = transmissionId;
+            this.succeeded = succeeded;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+/**
+ * JDK Flight Recorder events of Ringo, telling where the time of slow requests went: the REST request, its
+ * transactions and repository calls, payload I/O, XML processing and outbound transmissions.
+ *
+ * The events are emitted on the thread doing the work, hence the events of a slow request are those of the same
+ * thread within the duration of its {@link no.sr.ringo.metrics.jfr.RestRequestEvent}. Apart from the REST requests
+ * and transmissions, events shorter than their threshold are dropped, which keeps a continuous recording cheap,
+ * e.g. <code>-XX:StartFlightRecording=disk=true,maxage=1h</code>.
+ *
+ * The events are plain {@link jdk.jfr.Event}s, available from OpenJDK 8u262, and cost next to nothing unless a
+ * recording is running. They are emitted through the {@link no.sr.ringo.metrics.jfr.EventEmitter} of
+ * {@link no.sr.ringo.metrics.jfr.FlightRecorderSupport}, which does nothing on older runtimes.
+ */
+package no.sr.ringo.metrics.jfr;
@@ -0,0 +1,72 @@
+package no.sr.ringo.metrics;
+
+import org.testng.annotations.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+public class MetricsRegistryTest {
+
+    @Test
+    public void timerIsExposedAsHistogram() {
+        MetricsRegistry metricsRegistry = new MetricsRegistry();
+        Timer timer = metricsRegistry.timer("ringo_resource_seconds", "Time spent", "method", "OutboxResource.post");
+        timer.record(TimeUnit.MILLISECONDS.toNanos(3));
+        timer.record(TimeUnit.SECONDS.toNanos(20));
+
+        assertSame(metricsRegistry.timer("ringo_resource_seconds", "Time spent", "method", "OutboxResource.post"), timer);
+        assertEquals(timer.getCount(), 2);
+        assertEquals(timer.getSum(), 20.003, 0.0001);
+
+        String prometheus = metricsRegistry.toPrometheus();
+        assertTrue(prometheus.contains("# TYPE ringo_resource_seconds histogram\n"), prometheus);
+        assertTrue(prometheus.contains("ringo_resource_seconds_bucket{method=\"OutboxResource.post\",le=\"0.0025\"} 0\n"), prometheus);
+        assertTrue(prometheus.contains("ringo_resource_seconds_bucket{method=\"OutboxResource.post\",le=\"0.005\"} 1\n"), prometheus);
+        assertTrue(prometheus.contains("ringo_resource_seconds_bucket{method=\"OutboxResource.post\",le=\"10.0\"} 1\n"), prometheus);
+        assertTrue(prometheus.contains("ringo_resource_seconds_bucket{method=\"OutboxResource.post\",le=\"+Inf\"} 2\n"), prometheus);
+        assertTrue(prometheus.contains("ringo_resource_seconds_count{method=\"OutboxResource.post\"} 2\n"), prometheus);
+
+        String json = metricsRegistry.toJson();
+        assertTrue(json.startsWith("{\"ringo_resource_seconds\":{\"type\":\"histogram\",\"label\":\"method\",\"values\":{\"OutboxResource.post\":{\"count\":2,"), json);
+    }
+
+    @Test
+    public void gaugesAreSampledWhenScraped() {
+        MetricsRegistry metricsRegistry = new MetricsRegistry();
+        int[] samples = new int[1];
+        metricsRegistry.gauge("ringo_inbox_undelivered_messages", "Undelivered", () -> ++samples[0]);
+        metricsRegistry.gauge("ringo_outbound_queue_messages", "Queued", "state", () -> {
+            Map<String, Integer> values = new LinkedHashMap<>();
+            values.put("QUEUED", 3);
+            values.put("OK", 5);
+            return values;
+        });
+        metricsRegistry.counter("ringo_payload_cache_evictions_total", "Evictions", () -> Double.NaN);
+        assertEquals(samples[0], 0);
+
+        String prometheus = metricsRegistry.toPrometheus();
+        assertEquals(samples[0], 1);
+        assertTrue(prometheus.contains("# TYPE ringo_inbox_undelivered_messages gauge\nringo_inbox_undelivered_messages 1\n"), prometheus);
+        assertTrue(prometheus.contains("ringo_outbound_queue_messages{state=\"QUEUED\"} 3\nringo_outbound_queue_messages{state=\"OK\"} 5\n"), prometheus);
+        assertTrue(prometheus.contains("# TYPE ringo_payload_cache_evictions_total counter\nringo_payload_cache_evictions_total NaN\n"), prometheus);
+
+        assertEquals(metricsRegistry.toJson(), "{\"ringo_inbox_undelivered_messages\":{\"type\":\"gauge\",\"value\":2}," +
+                "\"ringo_outbound_queue_messages\":{\"type\":\"gauge\",\"label\":\"state\",\"values\":{\"QUEUED\":3,\"OK\":5}}," +
+                "\"ringo_payload_cache_evictions_total\":{\"type\":\"counter\",\"value\":null}}");
+    }
+
+    @Test
+    public void failingGaugeIsLeftOut() {
+        MetricsRegistry metricsRegistry = new MetricsRegistry();
+        metricsRegistry.gauge("ringo_inbox_undelivered_messages", "Undelivered", () -> {
+            throw new IllegalStateException("Database unavailable");
+        });
+        metricsRegistry.gauge("ringo_jdbc_connections_in_use", "Connections", () -> 4);
+
+        assertEquals(metricsRegistry.toPrometheus(), "# HELP ringo_jdbc_connections_in_use Connections\n" +
+                "# TYPE ringo_jdbc_connections_in_use gauge\nringo_jdbc_connections_in_use 4\n");
+    }
+}
@@ -0,0 +1,29 @@
+package no.sr.ringo.metrics.jfr;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class FlightRecorderSupportTest {
+
+    @Test
+    public void emitsFlightRecorderEventsWhenAvailable() {
+        // The runtime of the build provides the API
+        assertTrue(FlightRecorderSupport.isAvailable());
+        assertTrue(FlightRecorderSupport.emitter() instanceof FlightRecorderEventEmitter);
+
+        EventEmitter.RepositoryCall event = FlightRecorderSupport.emitter().beginRepositoryCall();
+        assertTrue(event instanceof RepositoryCallEvent);
+        event.commit("message.findByMsgNo", 1);
+    }
+
+    @Test
+    public void noOpEmitterAllocatesNothing() {
+        EventEmitter emitter = NoOpEventEmitter.INSTANCE;
+
+        EventEmitter.Transaction event = emitter.beginTransaction();
+        assertSame(event, emitter.beginTransaction());
+        assertFalse(event.shouldCommit());
+        event.commit("OutboxResource.post", true);
+    }
+}
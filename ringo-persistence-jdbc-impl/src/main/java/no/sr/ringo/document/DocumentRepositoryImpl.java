@@ -3,9 +3,14 @@ package no.sr.ringo.document;
 import no.sr.ringo.account.Account;
 import no.sr.ringo.message.MessageNumber;
 import no.sr.ringo.message.PeppolMessageNotFoundException;
+import no.sr.ringo.metrics.jfr.EventEmitter;
+import no.sr.ringo.metrics.jfr.FlightRecorderSupport;
 import no.sr.ringo.peppol.PeppolDocumentTypeId;
+import no.sr.ringo.persistence.file.ArtifactReader;
+import no.sr.ringo.persistence.file.SegmentStore;
 import no.sr.ringo.persistence.guice.jdbc.JdbcTxManager;
 import no.sr.ringo.persistence.guice.jdbc.Repository;
+import no.sr.ringo.transport.TransferDirection;
 import no.sr.ringo.utils.SbdhUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,12 +21,8 @@ import javax.inject.Named;
 import java.io.IOException;
 import java.net.URI;
 import java.nio.charset.Charset;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.sql.*;
-import java.util.stream.Stream;
 
-import static java.util.stream.Collectors.joining;
 import static no.sr.ringo.config.RingoConfigProperty.REMOVE_SBDH;
 
 /**
@@ -34,15 +35,17 @@ public class DocumentRepositoryImpl implements DocumentRepository {
     public static final Logger LOGGER = LoggerFactory.getLogger(DocumentRepositoryImpl.class);
     private final PeppolDocumentFactory documentFactory;
     private final JdbcTxManager jdbcTxManager;
+    private final ArtifactReader artifactReader;
 
     @Inject
     @Named(REMOVE_SBDH)
     private String removeSbdh;
     
     @Inject
-    public DocumentRepositoryImpl(PeppolDocumentFactory documentFactory,JdbcTxManager jdbcTxManager) {
+    public DocumentRepositoryImpl(PeppolDocumentFactory documentFactory, JdbcTxManager jdbcTxManager, ArtifactReader artifactReader) {
         this.documentFactory = documentFactory;
         this.jdbcTxManager = jdbcTxManager;
+        this.artifactReader = artifactReader;
     }
 
     @Override
@@ -60,8 +63,11 @@ public class DocumentRepositoryImpl implements DocumentRepository {
     //
 
     private PeppolDocument fetchPeppolDocument(Account account, MessageNumber msgNo) throws SQLException {
+        EventEmitter.RepositoryCall event = FlightRecorderSupport.emitter().beginRepositoryCall();
         ResultSet rs = fetchResultSet(account, msgNo);
-        if (documentFound(rs)) {
+        boolean found = documentFound(rs);
+        event.commit("message.findDocument", found ? 1 : 0);
+        if (found) {
             return extractPeppolDocumentFromResultSet(rs);
         } else {
             throw new PeppolMessageNotFoundException(msgNo);
@@ -82,13 +88,17 @@ public class DocumentRepositoryImpl implements DocumentRepository {
         String documentId = rs.getString("document_id");  // Document type id
 
         String payloadUrl = rs.getString("payload_url");
+        TransferDirection direction = TransferDirection.valueOf(rs.getString("direction"));
 
 
-        // Loads all the lines from the file and joins them with NL
+        // Loads all the lines from the file, or segment entry, and joins them with NL
         String xmlMessage = null;
-        try (
-            Stream<String> stringStream = Files.lines(Paths.get(URI.create(payloadUrl)), Charset.forName("UTF-8"))){
-            xmlMessage = stringStream.collect(joining(System.lineSeparator()));
+        try {
+            URI payloadUri = URI.create(payloadUrl);
+            EventEmitter.PayloadIo event = FlightRecorderSupport.emitter().beginPayloadIo();
+            xmlMessage = artifactReader.readPayloadLines(payloadUri, direction, Charset.forName("UTF-8"));
+            event.commit(EventEmitter.PayloadIo.READ, SegmentStore.isSegmentUri(payloadUri) ? EventEmitter.PayloadIo.SEGMENT : EventEmitter.PayloadIo.FILE,
+                    event.shouldCommit() ? artifactReader.size(payloadUri) : 0);
             // Removes the SBDH if there is one and configuration specifies this.
             if(Boolean.valueOf(removeSbdh)) {
             	xmlMessage = SbdhUtils.removeSbdhEnvelope(xmlMessage);
@@ -113,7 +123,7 @@ public class DocumentRepositoryImpl implements DocumentRepository {
     private PreparedStatement prepareSelect(Account account, MessageNumber msgNo, Connection con) throws SQLException {
         // dumpDbmsMetaData(con);
 
-        final String sql = "select document_id, payload_url from message where msg_no=? and account_id = ?";
+        final String sql = "select document_id, payload_url, direction from message where msg_no=? and account_id = ?";
         LOGGER.debug("Executing {} with params {} and {}" , sql, msgNo.toInt(), account.getAccountId().toInteger());
 
         PreparedStatement ps = con.prepareStatement(sql);
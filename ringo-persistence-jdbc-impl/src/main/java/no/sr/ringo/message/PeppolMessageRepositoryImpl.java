@@ -15,6 +15,8 @@ import no.sr.ringo.message.statistics.RingoStatistics;
 import no.sr.ringo.peppol.ChannelProtocol;
 import no.sr.ringo.peppol.PeppolChannelId;
 import no.sr.ringo.peppol.PeppolHeader;
+import no.sr.ringo.persistence.file.ArtifactReader;
+import no.sr.ringo.persistence.file.PayloadCache;
 import no.sr.ringo.persistence.guice.jdbc.JdbcTxManager;
 import no.sr.ringo.persistence.guice.jdbc.Repository;
 import no.sr.ringo.persistence.jdbc.platform.DbmsPlatform;
@@ -27,15 +29,14 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.charset.Charset;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.file.Path;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
-import java.util.stream.Stream;
+import java.util.Map;
 
-import static java.util.stream.Collectors.joining;
 import static no.sr.ringo.transport.TransferDirection.OUT;
 
 /**
@@ -56,10 +57,19 @@ public class PeppolMessageRepositoryImpl implements PeppolMessageRepository {
     // From oxalis-persistence
     private final MessageRepository oxalisMessageRepository;
 
+    private final ArtifactReader artifactReader;
+
+    private final PayloadCache payloadCache;
+
+    private final AccountChangeVersions accountChangeVersions;
+
     @Inject
-    public PeppolMessageRepositoryImpl(JdbcTxManager jdbcTxManager, MessageRepository oxalisMessageRepository) {
+    public PeppolMessageRepositoryImpl(JdbcTxManager jdbcTxManager, MessageRepository oxalisMessageRepository, ArtifactReader artifactReader, PayloadCache payloadCache, AccountChangeVersions accountChangeVersions) {
         this.jdbcTxManager = jdbcTxManager;
         this.oxalisMessageRepository = oxalisMessageRepository;
+        this.artifactReader = artifactReader;
+        this.payloadCache = payloadCache;
+        this.accountChangeVersions = accountChangeVersions;
     }
 
     /**
@@ -73,25 +83,61 @@ public class PeppolMessageRepositoryImpl implements PeppolMessageRepository {
             throw new IllegalStateException("SrAccountId property of message is required");
         }
 
-        PeppolHeader peppolHeader = peppolMessage.getPeppolHeader();
-
-
-        final MessageMetaDataImpl mmd = new MessageMetaDataImpl();
-        mmd.setPeppolHeader(peppolHeader);
-        mmd.setTransferDirection(OUT);
-        mmd.getPeppolHeader().setPeppolChannelId(new PeppolChannelId(ChannelProtocol.SREST.name()));
-        mmd.setAccountId(account.getAccountId());
+        final MessageMetaDataImpl mmd = outboundMessageMetaData(account, peppolMessage);
 
 
         // Delegates to the injected message repository
         Long msgNo = null;
-        msgNo = oxalisMessageRepository.saveOutboundMessage(mmd, peppolMessage.getXmlMessage());
+        if (peppolMessage.getPayloadPath() != null) {
+            msgNo = oxalisMessageRepository.saveOutboundMessage(mmd, peppolMessage.getPayloadPath());
+        } else {
+            msgNo = oxalisMessageRepository.saveOutboundMessage(mmd, peppolMessage.getXmlMessage());
+        }
 
         mmd.setMsgNo(MessageNumber.of(msgNo));
 
         return new MessageWithLocationsImpl(mmd);
     }
 
+    @Override
+    public List<MessageWithLocations> persistOutboundMessages(Account account, List<PeppolMessage> peppolMessages) {
+
+        if (account == null) {
+            throw new IllegalStateException("SrAccountId property of message is required");
+        }
+
+        List<MessageMetaDataImpl> metaData = new ArrayList<>(peppolMessages.size());
+        List<Path> payloadPaths = new ArrayList<>(peppolMessages.size());
+        for (PeppolMessage peppolMessage : peppolMessages) {
+            if (peppolMessage.getPayloadPath() == null) {
+                throw new IllegalStateException("Payload of message has not been spooled");
+            }
+            metaData.add(outboundMessageMetaData(account, peppolMessage));
+            payloadPaths.add(peppolMessage.getPayloadPath());
+        }
+
+        // Delegates to the injected message repository
+        List<Long> msgNos = oxalisMessageRepository.saveOutboundMessages(metaData, payloadPaths);
+
+        List<MessageWithLocations> result = new ArrayList<>(metaData.size());
+        for (int i = 0; i < metaData.size(); i++) {
+            metaData.get(i).setMsgNo(MessageNumber.of(msgNos.get(i)));
+            result.add(new MessageWithLocationsImpl(metaData.get(i)));
+        }
+        return result;
+    }
+
+    private static MessageMetaDataImpl outboundMessageMetaData(Account account, PeppolMessage peppolMessage) {
+        PeppolHeader peppolHeader = peppolMessage.getPeppolHeader();
+
+        final MessageMetaDataImpl mmd = new MessageMetaDataImpl();
+        mmd.setPeppolHeader(peppolHeader);
+        mmd.setTransferDirection(OUT);
+        mmd.getPeppolHeader().setPeppolChannelId(new PeppolChannelId(ChannelProtocol.SREST.name()));
+        mmd.setAccountId(account.getAccountId());
+        return mmd;
+    }
+
 
     DbmsPlatform getDbmsPlatform() {
         return DbmsPlatformFactory.platformFor(jdbcTxManager.getConnection());
@@ -156,21 +202,115 @@ public class PeppolMessageRepositoryImpl implements PeppolMessageRepository {
         return result;
     }
 
+    @Override
+    public int getUndeliveredInboundMessagesCount() {
+        try {
+            Connection connection = jdbcTxManager.getConnection();
+            PreparedStatement ps = connection.prepareStatement("select count(*) from message where account_id is not null and direction = ? and delivered is null");
+            ps.setString(1, no.sr.ringo.transport.TransferDirection.IN.name());
+            ResultSet rs = ps.executeQuery();
+            return rs.next() ? rs.getInt(1) : 0;
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to count undelivered inbound messages; " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public MessageNumber getLatestMessageNumber() {
+        try {
+            Connection connection = jdbcTxManager.getConnection();
+            PreparedStatement ps = connection.prepareStatement("select max(msg_no) from message");
+            ResultSet rs = ps.executeQuery();
+            if (rs.next()) {
+                long msgNo = rs.getLong(1);
+                return rs.wasNull() ? null : MessageNumber.of(msgNo);
+            }
+            return null;
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to get latest message number; " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public Map<AccountId, MessageNumber> findLatestInboundMessageNumbers(MessageNumber after) {
+        Map<AccountId, MessageNumber> result = new HashMap<AccountId, MessageNumber>();
+        // Only the rows added since the last call are visited, using the primary key
+        String sql = "select account_id, max(msg_no) from message where msg_no > ? and direction = ? and account_id is not null group by account_id";
+        try {
+            Connection connection = jdbcTxManager.getConnection();
+            PreparedStatement ps = connection.prepareStatement(sql);
+            ps.setLong(1, after == null ? 0 : after.toLong());
+            ps.setString(2, no.sr.ringo.transport.TransferDirection.IN.name());
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                result.put(new AccountId(rs.getInt(1)), MessageNumber.of(rs.getLong(2)));
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to find latest inbound messages; " + e.getMessage(), e);
+        }
+        return result;
+    }
+
+    @Override
+    public MessageChanges findMessageChanges(AccountId accountId, long since, int max) {
+        // Fetches one more than requested to tell whether there are more changes
+        final SqlHelper sql = SqlHelper.create(getDbmsPlatform()).messageChanges(max + 1);
+        try {
+            PreparedStatement ps = sql.prepareStatement(jdbcTxManager.getConnection());
+            ps.setInt(1, accountId.toInteger());
+            ps.setLong(2, since);
+            ResultSet rs = ps.executeQuery();
+
+            List<MessageMetaData> messages = new ArrayList<MessageMetaData>();
+            long cursor = since;
+            boolean more = false;
+            while (rs.next()) {
+                if (messages.size() == max) {
+                    more = true;
+                    break;
+                }
+                messages.add(extractMessageFromResultSet(rs));
+                cursor = rs.getLong("change_seq");
+            }
+            return new MessageChanges(messages, cursor, more);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to find changes of account " + accountId + " since " + since + "; " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public long getChangeVersion(AccountId accountId) {
+        try {
+            // Resolved using the (account_id, change_seq) index
+            PreparedStatement ps = jdbcTxManager.getConnection().prepareStatement("select max(change_seq) from message where account_id = ?");
+            ps.setInt(1, accountId.toInteger());
+            ResultSet rs = ps.executeQuery();
+            return rs.next() ? rs.getLong(1) : 0;
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to get change version of account " + accountId + "; " + e.getMessage(), e);
+        }
+    }
+
     @Override
     public List<MessageMetaData> findUndeliveredOutboundMessagesByAccount(AccountId accountId) {
-        return findUndeliveredMessagesByAccount(accountId, OUT);
+        return findUndeliveredMessagesByAccount(accountId, OUT, DEFAULT_PAGE_SIZE);
     }
 
     @Override
     public List<MessageMetaData> findUndeliveredInboundMessagesByAccount(AccountId accountId) {
-        return findUndeliveredMessagesByAccount(accountId, no.sr.ringo.transport.TransferDirection.IN);
+        return findUndeliveredMessagesByAccount(accountId, no.sr.ringo.transport.TransferDirection.IN, DEFAULT_PAGE_SIZE);
+    }
+
+    @Override
+    public List<MessageMetaData> findUndeliveredInboundMessagesByAccount(AccountId accountId, int max) {
+        return findUndeliveredMessagesByAccount(accountId, no.sr.ringo.transport.TransferDirection.IN, max);
     }
 
     /**
      * Helper method for finding undelivered messages, which are either outbound or inbound.
      */
-    List<MessageMetaData> findUndeliveredMessagesByAccount(AccountId accountId, no.sr.ringo.transport.TransferDirection transferDirection) {
-        final SqlHelper sql = SqlHelper.create(getDbmsPlatform()).undeliveredMessagesSql(transferDirection);
+    List<MessageMetaData> findUndeliveredMessagesByAccount(AccountId accountId, no.sr.ringo.transport.TransferDirection transferDirection, int max) {
+        final SqlHelper sql = SqlHelper.create(getDbmsPlatform()).undeliveredMessagesSql(transferDirection, max);
         try {
             PreparedStatement ps = sql.prepareStatement(jdbcTxManager.getConnection());
             ps.setInt(1, accountId.toInteger());
@@ -233,13 +373,24 @@ public class PeppolMessageRepositoryImpl implements PeppolMessageRepository {
     @Override
     public void markMessageAsRead(Long messageNo) {
         Connection con;
-        String sql = "update message set delivered = ? where msg_no = ?";
+        String sql = "update message set delivered = ?, change_seq = next value for message_change_seq where msg_no = ?";
         try {
             con = jdbcTxManager.getConnection();
             PreparedStatement ps = con.prepareStatement(sql);
             ps.setTimestamp(1, new Timestamp(new Date().getTime()));
             ps.setLong(2, messageNo);
             ps.executeUpdate();
+            changed(con, messageNo);
+
+            // The payload of a message which has been read is not likely to be requested again
+            if (payloadCache.isEnabled()) {
+                PreparedStatement urlStatement = con.prepareStatement("select payload_url from message where msg_no = ?");
+                urlStatement.setLong(1, messageNo);
+                ResultSet rs = urlStatement.executeQuery();
+                if (rs.next() && rs.getString(1) != null) {
+                    payloadCache.invalidate(URI.create(rs.getString(1)));
+                }
+            }
         } catch (SQLException e) {
             throw new IllegalStateException("Marking message as read failed", e);
         }
@@ -271,7 +422,7 @@ public class PeppolMessageRepositoryImpl implements PeppolMessageRepository {
         persistOutboundEvidence(receptionId, delivered, receipt);
 
         Connection con;
-        String sql = "update message set delivered = ?, remote_host = ?, transmission_id = ? where msg_no = ?";
+        String sql = "update message set delivered = ?, remote_host = ?, transmission_id = ?, change_seq = next value for message_change_seq where msg_no = ?";
         try {
             con = jdbcTxManager.getConnection();
             PreparedStatement ps = con.prepareStatement(sql);
@@ -280,22 +431,43 @@ public class PeppolMessageRepositoryImpl implements PeppolMessageRepository {
             ps.setString(3, transmissionIdentifier.getValue());
             ps.setLong(4, msgNo.toLong());
             ps.executeUpdate();
+            changed(con, msgNo.toLong());
         } catch (SQLException e) {
             throw new IllegalStateException(sql + " failed " + e, e);
         }
     }
 
+    /**
+     * Drops the change version held for the account of the message, once the change has been committed.
+     */
+    private void changed(Connection con, Long messageNo) throws SQLException {
+        PreparedStatement ps = con.prepareStatement("select account_id from message where msg_no = ?");
+        ps.setLong(1, messageNo);
+        ResultSet rs = ps.executeQuery();
+        if (rs.next()) {
+            int accountId = rs.getInt(1);
+            if (!rs.wasNull()) {
+                jdbcTxManager.afterCommit(() -> accountChangeVersions.changed(new AccountId(accountId)));
+            }
+        }
+    }
+
     void persistOutboundEvidence(final ReceptionId receptionId, final Date delivered, final Receipt receipt) {
 
         oxalisMessageRepository.saveOutboundTransportReceipt(receipt, receptionId);
     }
 
+    /**
+     * Creates an inbound copy of an outbound message. The payload file, and its digest if held in the content addressed
+     * store, is shared between the two entries.
+     */
     @Override
     public Long copyOutboundMessageToInbound(Long outMsgNo, ReceptionId re) {
         Connection con;
-        String sql = "insert into message (account_id, direction, received, sender, receiver, channel, message_uuid, transmission_id, instance_id, document_id, process_id, remote_host, ap_name, payload_url, evidence_url) " +
+        // The change sequence number is drawn explicitly, as H2 would otherwise provide it as the generated key
+        String sql = "insert into message (account_id, direction, received, sender, receiver, channel, message_uuid, transmission_id, instance_id, document_id, process_id, remote_host, ap_name, payload_url, evidence_url, payload_digest, change_seq) " +
                 //                                                               1                                                                   2
-                " (select account_id, 'IN', received, sender, receiver, channel, ?, transmission_id, instance_id, document_id, process_id, remote_host, ap_name, payload_url, evidence_url from message where msg_no = ?);";
+                " (select account_id, 'IN', received, sender, receiver, channel, ?, transmission_id, instance_id, document_id, process_id, remote_host, ap_name, payload_url, evidence_url, payload_digest, next value for message_change_seq from message where msg_no = ?);";
         try {
             con = jdbcTxManager.getConnection();
             PreparedStatement ps = con.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
@@ -305,6 +477,7 @@ public class PeppolMessageRepositoryImpl implements PeppolMessageRepository {
             ResultSet rs = ps.getGeneratedKeys();
             if (rs.next()) {
                 Long msgNo = rs.getLong(1);
+                changed(con, msgNo);
                 return msgNo;
             } else {
                 throw new IllegalStateException("Unable to obtain generated key after insert.");
@@ -326,9 +499,7 @@ public class PeppolMessageRepositoryImpl implements PeppolMessageRepository {
             if (rs.next()) {
                 String payloadUrl = SbdhUtils.removeSbdhEnvelope(rs.getString("payload_url"));
 
-                try (Stream<String> lines = Files.lines(Paths.get(URI.create(payloadUrl)), Charset.forName("UTF-8"))) {
-                    xmlMessage = lines.collect(joining(System.lineSeparator()));
-                }
+                xmlMessage = artifactReader.readLines(URI.create(payloadUrl), Charset.forName("UTF-8"));
             } else
                 throw new PeppolMessageNotFoundException(MessageNumber.of(messageNo));
             return SbdhUtils.removeSbdhEnvelope(xmlMessage);
@@ -577,9 +748,9 @@ public class PeppolMessageRepositoryImpl implements PeppolMessageRepository {
             return this;
         }
 
-        private SqlHelper undeliveredMessagesSql(no.sr.ringo.transport.TransferDirection transferDirection) {
+        private SqlHelper undeliveredMessagesSql(no.sr.ringo.transport.TransferDirection transferDirection, int max) {
 
-            String limitCondition = dbmsPlatform.getLimitClause(0, DEFAULT_PAGE_SIZE);
+            String limitCondition = dbmsPlatform.getLimitClause(0, max);
 
 
             if (no.sr.ringo.transport.TransferDirection.IN.equals(transferDirection)) {
@@ -597,6 +768,16 @@ public class PeppolMessageRepositoryImpl implements PeppolMessageRepository {
             return this;
         }
 
+        /**
+         * Selects the messages of an account changed after a given change sequence number, using the index on
+         * (account_id, change_seq)
+         */
+        public SqlHelper messageChanges(int max) {
+            sql = "select account_id, msg_no, direction, received, delivered, sender, receiver, channel, document_id, process_id, message_uuid, transmission_id, payload_url, change_seq from message " +
+                    "where account_id=? and change_seq > ? order by change_seq " + dbmsPlatform.getLimitClause(0, max);
+            return this;
+        }
+
         public SqlHelper findMessageByMessageNoAndAccountId() {
             sql = selectMessage() + " where msg_no=? and account_id=?";
             return this;
@@ -31,6 +31,7 @@ import javax.inject.Inject;
 import javax.inject.Named;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
@@ -40,6 +41,8 @@ import java.util.Date;
  *   Computes the path for the various artifacts stored in the file system based upon the supplied {@link FileRepoKey}, which holdes
  *   the metadata used in the key.
  *
+ *   The directory structure is determined by the configured {@link PayloadLayout}.
+ *
  * @author steinar
  *         Date: 17.10.2016
  *         Time: 11.02
@@ -48,12 +51,26 @@ public class ArtifactPathComputer {
 
     private final Path basePath;
 
+    private final PayloadLayout payloadLayout;
+
     private DateTimeFormatter isoDateFormat = DateTimeFormatter.ISO_LOCAL_DATE;
 
+    public ArtifactPathComputer(Path basePath) {
+        this(basePath, PayloadLayout.LEGACY);
+    }
+
     @Inject
-    public ArtifactPathComputer(@Named(RingoConfigProperty.PAYLOAD_BASE_PATH) Path basePath) {
+    public ArtifactPathComputer(@Named(RingoConfigProperty.PAYLOAD_BASE_PATH) Path basePath, @Named(RingoConfigProperty.PAYLOAD_LAYOUT) String payloadLayout) {
+        this(basePath, PayloadLayout.of(payloadLayout));
+    }
 
+    public ArtifactPathComputer(Path basePath, PayloadLayout payloadLayout) {
         this.basePath = basePath;
+        this.payloadLayout = payloadLayout;
+    }
+
+    public PayloadLayout getPayloadLayout() {
+        return payloadLayout;
     }
 
     public Path createPayloadPathFrom(FileRepoKey fileRepoKey) {
@@ -97,13 +114,54 @@ public class ArtifactPathComputer {
             throw new IllegalArgumentException("receivedTimeStamp is required property on fileRepoKey");
         }
 
-        Path basePath = createBasePath(fileRepoKey.direction);
         final Date date = fileRepoKey.getDate();
         LocalDateTime ldt = LocalDateTime.ofInstant(date.toInstant(), ZoneId.systemDefault());
+
+        if (payloadLayout == PayloadLayout.SHARDED) {
+            return createShardedPath(fileRepoKey.direction, ldt.toLocalDate(), filename);
+        }
+
+        Path basePath = createBasePath(fileRepoKey.direction);
         Path path = Paths.get(basePath.toString(),normalizeFilename(fileRepoKey.getReceiver().getIdentifier()), normalizeFilename(fileRepoKey.getSender().getIdentifier()), isoDateFormat.format(ldt));
         return path.resolve(filename);
     }
 
+    /**
+     * Computes the path of a file in the {@link PayloadLayout#SHARDED} layout, i.e.
+     * {@code basedir/DIRECTION/yyyy-mm-dd/xx/yy/filename}.
+     * <p>
+     * The shard directories are computed from the file name without the suffix, which is the reception id, hence the
+     * payload and the evidence of a given message will be located in the same directory.
+     * </p>
+     */
+    public Path createShardedPath(TransferDirection transferDirection, LocalDate date, String filename) {
+        int hash = shardHash(stripSuffix(filename));
+        String level1 = String.format("%02x", (hash >>> 8) & 0xff);
+        String level2 = String.format("%02x", hash & 0xff);
+        return createBasePath(transferDirection).resolve(isoDateFormat.format(date)).resolve(level1).resolve(level2).resolve(filename);
+    }
+
+    static String stripSuffix(String filename) {
+        for (ArtifactType artifactType : ArtifactType.values()) {
+            if (filename.endsWith(artifactType.getFileNameSuffix())) {
+                return filename.substring(0, filename.length() - artifactType.getFileNameSuffix().length());
+            }
+        }
+        return filename;
+    }
+
+    /**
+     * String.hashCode() is specified by the JLS and hence stable across JVMs; the bits are mixed in order to spread
+     * similar names, like the UUIDs used for reception ids, evenly across the shards.
+     */
+    static int shardHash(String s) {
+        int h = s.hashCode();
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return h;
+    }
+
     public Path createBasePath(TransferDirection transferDirection) {
         return Paths.get(basePath.toString(), transferDirection.name());
     }
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package no.sr.ringo.persistence.file;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import no.sr.ringo.transport.TransferDirection;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static java.util.stream.Collectors.joining;
+
+/**
+ * Reads artifacts, i.e. payloads and evidence, held in the local file system, regardless of whether they are held in
+ * plain files or have been packed into segments by the {@link SegmentCompactor}.
+ *
+ * Payloads of inbound messages are served through the {@link PayloadCache}, other artifacts are always read from disk.
+ */
+@Singleton
+public class ArtifactReader {
+
+    private final SegmentStore segmentStore;
+    private final PayloadCache payloadCache;
+
+    public ArtifactReader(SegmentStore segmentStore) {
+        this(segmentStore, PayloadCache.disabled());
+    }
+
+    @Inject
+    public ArtifactReader(SegmentStore segmentStore, PayloadCache payloadCache) {
+        this.segmentStore = segmentStore;
+        this.payloadCache = payloadCache;
+    }
+
+    public InputStream openStream(URI artifactUri) throws IOException {
+        if (SegmentStore.isSegmentUri(artifactUri)) {
+            return segmentStore.openStream(artifactUri);
+        }
+        return Files.newInputStream(Paths.get(artifactUri));
+    }
+
+    /**
+     * Opens the payload of a message. Inbound payloads are served from the cache when present, and are added to it
+     * when read to the end otherwise.
+     */
+    public InputStream openPayload(URI payloadUri, TransferDirection direction) throws IOException {
+        if (direction != TransferDirection.IN || !payloadCache.isEnabled()) {
+            return openStream(payloadUri);
+        }
+        byte[] cached = payloadCache.get(payloadUri);
+        if (cached != null) {
+            return new ByteArrayInputStream(cached);
+        }
+        return payloadCache.readThrough(payloadUri, openStream(payloadUri));
+    }
+
+    /**
+     * Provides the number of bytes of the artifact as stored, without reading it.
+     */
+    public long size(URI artifactUri) throws IOException {
+        if (SegmentStore.isSegmentUri(artifactUri)) {
+            return SegmentStore.SegmentEntry.of(artifactUri).length;
+        }
+        return Files.size(Paths.get(artifactUri));
+    }
+
+    /**
+     * Loads all the lines of the artifact and joins them with the platform line separator.
+     */
+    public String readLines(URI artifactUri, Charset charset) throws IOException {
+        return readLines(openStream(artifactUri), charset);
+    }
+
+    /**
+     * Loads all the lines of the payload of a message, see {@link #openPayload(URI, TransferDirection)}.
+     */
+    public String readPayloadLines(URI payloadUri, TransferDirection direction, Charset charset) throws IOException {
+        return readLines(openPayload(payloadUri, direction), charset);
+    }
+
+    private String readLines(InputStream inputStream, Charset charset) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, charset))) {
+            return reader.lines().collect(joining(System.lineSeparator()));
+        }
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package no.sr.ringo.persistence.file;
+
+import no.sr.ringo.config.RingoConfigProperty;
+import no.sr.ringo.xml.XmlPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Content addressed storage of payloads, i.e. every unique payload is written once and only once, in a file
+ * named by the SHA-256 digest of its content.
+ * <p>
+ * The digest is computed while the payload is being streamed to a temporary file, which is subsequently
+ * moved into {@code basedir/cas/ab/cd/abcd....doc.xml} unless a file with identical content already exists.
+ * Hence the storage and write I/O will grow with the number of unique payloads rather than the number of messages.
+ * Payloads already spooled to a file, see {@link #store(Path)}, are digested where they are and moved into place, or
+ * discarded if already present, without being copied.
+ * </p>
+ * <p>The messages referencing the stored payloads are tracked in the DBMS by the repositories, not here.</p>
+ */
+@Singleton
+public class ContentAddressedPayloadStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ContentAddressedPayloadStore.class);
+
+    public static final String DIGEST_ALGORITHM = "SHA-256";
+
+    /** Name of directory, below the payload base directory, holding the content addressed payloads */
+    public static final String CAS_DIRECTORY = "cas";
+
+    static final String TMP_DIRECTORY = "tmp";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Path casBasePath;
+
+    private final DirectoryCache directoryCache;
+
+    private final PayloadWriter payloadWriter;
+
+
+    public ContentAddressedPayloadStore(Path basePath) {
+        this(basePath, new DirectoryCache(), new PayloadWriter(FsyncPolicy.NONE));
+    }
+
+    @Inject
+    public ContentAddressedPayloadStore(@Named(RingoConfigProperty.PAYLOAD_BASE_PATH) Path basePath, DirectoryCache directoryCache, PayloadWriter payloadWriter) {
+        this.casBasePath = basePath.resolve(CAS_DIRECTORY);
+        this.directoryCache = directoryCache;
+        this.payloadWriter = payloadWriter;
+    }
+
+    /**
+     * Streams the supplied payload into the store.
+     *
+     * @param inputStream the payload, which is read until EOF, but not closed.
+     * @return a description of the stored payload.
+     */
+    public StoredPayload store(InputStream inputStream) {
+        return spoolAndLink(outputStream -> {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, n);
+            }
+        });
+    }
+
+    /**
+     * Moves a payload spooled to a file into the store, unless identical content is already present, in which case the
+     * spooled file is removed. The file should reside within the same file system as the store.
+     */
+    public StoredPayload store(Path spooledPayload) {
+        long start = System.nanoTime();
+        MessageDigest messageDigest = createMessageDigest();
+        try {
+            long size = 0;
+            try (InputStream inputStream = Files.newInputStream(spooledPayload)) {
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = inputStream.read(buffer)) != -1) {
+                    messageDigest.update(buffer, 0, n);
+                    size += n;
+                }
+            }
+            StoredPayload storedPayload = link(spooledPayload, toHex(messageDigest.digest()), size);
+            log.debug("Spooled payload {} {} in {}µs", storedPayload.getDigest(), storedPayload.isCreated() ? "stored" : "already present", (System.nanoTime() - start) / 1000);
+            return storedPayload;
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to store spooled payload " + spooledPayload + " in " + casBasePath + "; " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Serializes the supplied W3C Document into the store.
+     */
+    public StoredPayload store(Document document) {
+        return spoolAndLink(outputStream -> {
+            try {
+                XmlPool.transform(new DOMSource(document), new StreamResult(outputStream));
+            } catch (TransformerException e) {
+                throw new IOException("Unable to serialize xml document: " + e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * Computes the path of the payload having the given hex encoded digest. The two first levels of
+     * directories are made from the first four characters of the digest in order to keep the number of
+     * entries per directory within reasonable limits.
+     */
+    public Path pathFor(String digest) {
+        if (digest == null || digest.length() < 4) {
+            throw new IllegalArgumentException("Invalid digest '" + digest + "'");
+        }
+        return casBasePath.resolve(digest.substring(0, 2)).resolve(digest.substring(2, 4)).resolve(digest + ArtifactType.PAYLOAD.getFileNameSuffix());
+    }
+
+    public Path getCasBasePath() {
+        return casBasePath;
+    }
+
+    StoredPayload spoolAndLink(PayloadSource payloadSource) {
+
+        long start = System.nanoTime();
+        MessageDigest messageDigest = createMessageDigest();
+        Path tmpFile = null;
+        try {
+            Path tmpDir = casBasePath.resolve(TMP_DIRECTORY);
+            directoryCache.createDirectories(tmpDir);
+            tmpFile = Files.createTempFile(tmpDir, "payload-", ".tmp");
+
+            long size;
+            try (CountingOutputStream counting = new CountingOutputStream(Files.newOutputStream(tmpFile));
+                 OutputStream outputStream = new DigestOutputStream(new BufferedOutputStream(counting), messageDigest)) {
+                payloadSource.writeTo(outputStream);
+                outputStream.flush();
+                size = counting.count;
+            }
+
+            StoredPayload storedPayload = link(tmpFile, toHex(messageDigest.digest()), size);
+            tmpFile = null;
+
+            log.debug("Payload {} {} in {}µs", storedPayload.getDigest(), storedPayload.isCreated() ? "stored" : "already present", (System.nanoTime() - start) / 1000);
+            return storedPayload;
+
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to store payload in " + casBasePath + "; " + e.getMessage(), e);
+        } finally {
+            if (tmpFile != null) {
+                try {
+                    Files.deleteIfExists(tmpFile);
+                } catch (IOException e) {
+                    log.warn("Unable to remove temporary file " + tmpFile + "; " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves the file holding the payload into place, or removes it if identical content is already present.
+     */
+    private StoredPayload link(Path file, String digest, long size) throws IOException {
+        Path target = pathFor(digest);
+
+        boolean created;
+        if (Files.exists(target)) {
+            // Identical content is already stored, discards our copy
+            Files.delete(file);
+            created = false;
+        } else {
+            directoryCache.createDirectories(target.getParent());
+            // Should a concurrent writer have won the race, the content is identical and may safely be replaced
+            try {
+                Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                // Spooled within another file system
+                Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            created = true;
+        }
+        // Content stored by another writer, which may still be about to force it, is forced before being referenced
+        payloadWriter.makeDurable(target);
+        return new StoredPayload(digest, target, size, created);
+    }
+
+    static MessageDigest createMessageDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Message digest algorithm " + DIGEST_ALGORITHM + " not available; " + e.getMessage(), e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0x0f];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0x0f];
+        }
+        return new String(chars);
+    }
+
+    @FunctionalInterface
+    interface PayloadSource {
+        void writeTo(OutputStream outputStream) throws IOException;
+    }
+
+    private static class CountingOutputStream extends java.io.FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * Describes a payload held in the content addressed store.
+     */
+    public static class StoredPayload {
+        private final String digest;
+        private final Path path;
+        private final long size;
+        private final boolean created;
+
+        public StoredPayload(String digest, Path path, long size, boolean created) {
+            this.digest = digest;
+            this.path = path;
+            this.size = size;
+            this.created = created;
+        }
+
+        /** Hex encoded SHA-256 digest of the payload */
+        public String getDigest() {
+            return digest;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /** True if the payload was written by this invocation, false if identical content was already present */
+        public boolean isCreated() {
+            return created;
+        }
+    }
+}
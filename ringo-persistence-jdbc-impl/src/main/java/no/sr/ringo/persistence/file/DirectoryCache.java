@@ -0,0 +1,86 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package no.sr.ringo.persistence.file;
+
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of the directories known to exist, in order to avoid hitting the file system with
+ * {@code stat()} and {@code mkdir()} calls for every artifact being written.
+ *
+ * The cache is bounded; once the limit is reached it is simply cleared, as directories for the current date
+ * will quickly be re-learned.
+ */
+@Singleton
+public class DirectoryCache {
+
+    static final int DEFAULT_MAX_ENTRIES = 100_000;
+
+    private final Set<Path> knownDirectories = ConcurrentHashMap.newKeySet();
+    private final int maxEntries;
+
+    public DirectoryCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    DirectoryCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Ensures that the supplied directory, including any parent directories, exists.
+     *
+     * @param directory the directory to be created unless already known to exist.
+     * @throws IllegalStateException if the directory could not be created.
+     */
+    public void createDirectories(Path directory) {
+        if (knownDirectories.contains(directory)) {
+            return;
+        }
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to create directories for path " + directory + "; " + e.getMessage(), e);
+        }
+        if (knownDirectories.size() >= maxEntries) {
+            knownDirectories.clear();
+        }
+        knownDirectories.add(directory);
+    }
+
+    /**
+     * Removes the directory from the cache, should it have been removed from the file system.
+     */
+    public void forget(Path directory) {
+        knownDirectories.remove(directory);
+    }
+
+    int size() {
+        return knownDirectories.size();
+    }
+}
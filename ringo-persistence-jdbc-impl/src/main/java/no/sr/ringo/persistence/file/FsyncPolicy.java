@@ -0,0 +1,53 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package no.sr.ringo.persistence.file;
+
+/**
+ * Determines how payloads and evidence written to the file system are made durable before the
+ * corresponding entry in the MESSAGE table is created.
+ */
+public enum FsyncPolicy {
+
+    /** Leaves it to the operating system to flush the files, a crash may lose payloads already referenced by committed entries */
+    NONE,
+
+    /** Every file, and its directory, is forced to disk by the writing thread */
+    FILE,
+
+    /**
+     * Files are copied into a {@link PayloadJournal} shared by all writers, which is forced once for all the files
+     * written concurrently. The files themselves are forced in the background.
+     */
+    GROUP;
+
+    public static FsyncPolicy of(String name) {
+        if (name == null || name.trim().isEmpty()) {
+            return NONE;
+        }
+        try {
+            return valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown fsync policy '" + name + "', must be one of none, file or group", e);
+        }
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package no.sr.ringo.persistence.file;
+
+import no.sr.ringo.config.RingoConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Byte weighted LRU cache of recently received payloads, keyed by the payload URL.
+ *
+ * Inbound payloads are typically downloaded by the receiving account shortly after they have been received and are
+ * never read again once the message has been marked as read. The cache is therefore populated when the message
+ * holding a payload has been committed, or when a payload not held is read, and the entries are dropped when the
+ * message is marked as read.
+ *
+ * Entries are held either as byte arrays on the heap or, if so configured, in direct buffers outside of the heap in
+ * order to keep large amounts of cached payload from adding to the GC pressure.
+ */
+@Singleton
+public class PayloadCache {
+
+    private static final Logger log = LoggerFactory.getLogger(PayloadCache.class);
+
+    /** No single payload may occupy more than this fraction of the cache */
+    static final int MAX_ENTRY_FRACTION = 16;
+
+    private final long capacity;
+    private final int maxEntrySize;
+    private final boolean offHeap;
+
+    // Guarded by "this"
+    private final LinkedHashMap<URI, ByteBuffer> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long size = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bytesServed = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    @Inject
+    public PayloadCache(@Named(RingoConfigProperty.PAYLOAD_CACHE_SIZE) String capacity,
+                        @Named(RingoConfigProperty.PAYLOAD_CACHE_OFFHEAP) String offHeap) {
+        this(Long.parseLong(capacity.trim()), Boolean.valueOf(offHeap));
+    }
+
+    public PayloadCache(long capacity, boolean offHeap) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Payload cache size can not be negative: " + capacity);
+        }
+        this.capacity = capacity;
+        this.maxEntrySize = (int) Math.min(Integer.MAX_VALUE, capacity / MAX_ENTRY_FRACTION);
+        this.offHeap = offHeap;
+        log.info("Payload cache of " + capacity + " bytes, " + (offHeap ? "off heap" : "on heap"));
+    }
+
+    /**
+     * Creates a cache which holds nothing.
+     */
+    public static PayloadCache disabled() {
+        return new PayloadCache(0, false);
+    }
+
+    public boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    /**
+     * Wraps the supplied stream, keeping a copy of the bytes read for later insertion by {@link #put(URI, CapturingInputStream)}.
+     * The copy is abandoned as soon as the payload turns out to be too large to be cached.
+     */
+    public CapturingInputStream capture(InputStream inputStream) {
+        return new CapturingInputStream(inputStream, isEnabled() ? maxEntrySize : -1);
+    }
+
+    /**
+     * Wraps the stream of a payload which was not found in the cache, adding the payload to the cache once it has
+     * been read to the end and the stream is closed.
+     */
+    public InputStream readThrough(URI payloadUrl, InputStream inputStream) {
+        if (!isEnabled()) {
+            return inputStream;
+        }
+        return new CapturingInputStream(inputStream, maxEntrySize) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    put(payloadUrl, this);
+                }
+            }
+        };
+    }
+
+    /**
+     * Adds the payload captured while being written to the supplied URL, provided it was read completely and
+     * is small enough to be cached.
+     */
+    public void put(URI payloadUrl, CapturingInputStream captured) {
+        byte[] bytes = captured.getCapturedBytes();
+        if (bytes != null) {
+            put(payloadUrl, bytes);
+        }
+    }
+
+    public void put(URI payloadUrl, byte[] payload) {
+        if (!isEnabled() || payload.length > maxEntrySize) {
+            return;
+        }
+        ByteBuffer buffer;
+        if (offHeap) {
+            buffer = ByteBuffer.allocateDirect(payload.length);
+            buffer.put(payload);
+            buffer.flip();
+        } else {
+            buffer = ByteBuffer.wrap(payload);
+        }
+        synchronized (this) {
+            ByteBuffer previous = entries.put(payloadUrl, buffer);
+            if (previous != null) {
+                size -= previous.capacity();
+            }
+            size += buffer.capacity();
+            evictEldest();
+        }
+    }
+
+    /**
+     * Provides a copy of the cached payload.
+     *
+     * @return the payload or null if not cached.
+     */
+    public byte[] get(URI payloadUrl) {
+        if (!isEnabled()) {
+            return null;
+        }
+        ByteBuffer buffer;
+        synchronized (this) {
+            buffer = entries.get(payloadUrl);
+        }
+        if (buffer == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        // Cached buffers are never modified, a duplicate gives us a private position
+        byte[] result = new byte[buffer.capacity()];
+        buffer.duplicate().get(result);
+        hits.incrementAndGet();
+        bytesServed.addAndGet(result.length);
+        return result;
+    }
+
+    public void invalidate(URI payloadUrl) {
+        if (!isEnabled()) {
+            return;
+        }
+        synchronized (this) {
+            ByteBuffer removed = entries.remove(payloadUrl);
+            if (removed != null) {
+                size -= removed.capacity();
+            }
+        }
+    }
+
+    private void evictEldest() {
+        Iterator<Map.Entry<URI, ByteBuffer>> iterator = entries.entrySet().iterator();
+        while (size > capacity && iterator.hasNext()) {
+            size -= iterator.next().getValue().capacity();
+            iterator.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    public Statistics getStatistics() {
+        synchronized (this) {
+            return new Statistics(hits.get(), misses.get(), bytesServed.get(), evictions.get(), entries.size(), size, capacity);
+        }
+    }
+
+    public static class Statistics {
+        private final long hits;
+        private final long misses;
+        private final long bytesServed;
+        private final long evictions;
+        private final int entries;
+        private final long size;
+        private final long capacity;
+
+        Statistics(long hits, long misses, long bytesServed, long evictions, int entries, long size, long capacity) {
+            this.hits = hits;
+            this.misses = misses;
+            this.bytesServed = bytesServed;
+            this.evictions = evictions;
+            this.entries = entries;
+            this.size = size;
+            this.capacity = capacity;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public double getHitRatio() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0d : (double) hits / lookups;
+        }
+
+        public long getBytesServed() {
+            return bytesServed;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        public int getEntries() {
+            return entries;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getCapacity() {
+            return capacity;
+        }
+
+        @Override
+        public String toString() {
+            return "PayloadCache.Statistics{" +
+                    "hits=" + hits +
+                    ", misses=" + misses +
+                    ", hitRatio=" + getHitRatio() +
+                    ", bytesServed=" + bytesServed +
+                    ", evictions=" + evictions +
+                    ", entries=" + entries +
+                    ", size=" + size +
+                    ", capacity=" + capacity +
+                    '}';
+        }
+    }
+
+    /**
+     * Input stream keeping a copy of everything read through it, up to a given limit.
+     */
+    public static class CapturingInputStream extends FilterInputStream {
+
+        private final int limit;
+        private ByteArrayOutputStream copy;
+        private boolean complete = false;
+
+        CapturingInputStream(InputStream in, int limit) {
+            super(in);
+            this.limit = limit;
+            this.copy = limit > 0 ? new ByteArrayOutputStream(Math.min(limit, 8192)) : null;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b < 0) {
+                complete = true;
+            } else if (copy != null) {
+                copy.write(b);
+                checkLimit();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+            if (count < 0) {
+                complete = true;
+            } else if (copy != null) {
+                copy.write(b, off, count);
+                checkLimit();
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes are not captured
+            copy = null;
+            return super.skip(n);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void checkLimit() {
+            if (copy.size() > limit) {
+                copy = null;
+            }
+        }
+
+        /**
+         * @return the bytes read, or null if the stream was not read to the end or exceeded the limit.
+         */
+        byte[] getCapturedBytes() {
+            return complete && copy != null ? copy.toByteArray() : null;
+        }
+    }
+}
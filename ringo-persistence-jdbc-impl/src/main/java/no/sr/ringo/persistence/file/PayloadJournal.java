@@ -0,0 +1,444 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package no.sr.ringo.persistence.file;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Write ahead journal shared by the writers of payloads under {@link FsyncPolicy#GROUP}, making the payloads of any
+ * number of concurrent writers durable by a single force of the journal.
+ * <p>
+ * Every payload is appended to the current journal file as a record {@code magic, path, length, bytes, crc32}, after
+ * which the writer waits for the journal to be forced. The first writer to wait forces the journal on behalf of every
+ * writer having appended so far, writers appending while the force is in progress are taken care of by the next force.
+ * The payload files themselves are written back by the operating system at its own pace.
+ * </p>
+ * <p>
+ * Journal files are preallocated in the background. Once a journal file exceeds its preallocated size, the next one is
+ * taken into use. The files referenced by the old journal are then forced in the background, after which the old
+ * journal is removed. On start up, the payloads of journals left
+ * behind by a crash are compared with the files, which are restored if missing or incomplete. Files removed after
+ * having been journaled, e.g. payloads moved into place by a transaction which was rolled back, may thus be restored
+ * without any message referring to them.
+ * </p>
+ */
+public class PayloadJournal {
+
+    private static final Logger log = LoggerFactory.getLogger(PayloadJournal.class);
+
+    public static final String JOURNAL_DIRECTORY = "journal";
+
+    static final String JOURNAL_PREFIX = "payloads-";
+    static final String JOURNAL_SUFFIX = ".journal";
+
+    /** Size to which journal files are preallocated, a new one is taken into use once it is filled */
+    public static final long DEFAULT_ROTATE_AFTER_BYTES = 64L * 1024 * 1024;
+
+    private static final int RECORD_MAGIC = 0x524a4e4c;
+
+    private final Path directory;
+    private final long rotateAfterBytes;
+    private final ExecutorService checkpointExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "payload-journal-checkpoint");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Guarded by "this", i.e. held while appending
+    private FileChannel channel;
+    private Path journalFile;
+    private long journalStart = 0;
+    private long journalSequence = 0;
+    private Set<Path> journaledPaths = new LinkedHashSet<>();
+    private Future<Path> preparedJournal;
+
+    private final AtomicLong records = new AtomicLong();
+    private final AtomicLong forces = new AtomicLong();
+
+    // Guarded by flushLock, the offsets are logical offsets across all journal files
+    private final Object flushLock = new Object();
+    private long durableOffset = 0;
+    private boolean flushing = false;
+
+    public PayloadJournal(Path directory, long rotateAfterBytes) {
+        this.directory = directory;
+        this.rotateAfterBytes = rotateAfterBytes;
+        try {
+            Files.createDirectories(directory);
+            recover();
+            synchronized (this) {
+                openJournal();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to open payload journal in " + directory + "; " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Appends a copy of the supplied file, which has been completely written, to the journal.
+     *
+     * @return the offset to be passed to {@link #awaitDurable(long)}
+     */
+    public long append(Path path) throws IOException {
+        long length = Files.size(path);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        try (DataOutputStream dataOutputStream = new DataOutputStream(header)) {
+            dataOutputStream.writeInt(RECORD_MAGIC);
+            dataOutputStream.writeUTF(path.toAbsolutePath().toString());
+            dataOutputStream.writeLong(length);
+        }
+
+        synchronized (this) {
+            long start = channel.position();
+            try {
+                writeFully(ByteBuffer.wrap(header.toByteArray()));
+                CRC32 crc32 = new CRC32();
+                long copied = 0;
+                try (InputStream inputStream = Files.newInputStream(path)) {
+                    byte[] buffer = new byte[64 * 1024];
+                    int count;
+                    while (copied < length && (count = inputStream.read(buffer, 0, (int) Math.min(buffer.length, length - copied))) != -1) {
+                        crc32.update(buffer, 0, count);
+                        writeFully(ByteBuffer.wrap(buffer, 0, count));
+                        copied += count;
+                    }
+                }
+                if (copied != length) {
+                    throw new IOException(path + " was truncated while being journaled");
+                }
+                ByteBuffer trailer = ByteBuffer.allocate(Long.BYTES);
+                trailer.putLong(crc32.getValue()).flip();
+                writeFully(trailer);
+            } catch (IOException e) {
+                // Erases the partial record, keeping the journal readable by those appending next
+                ByteBuffer zeros = ByteBuffer.allocate((int) Math.min(channel.position() - start, 64 * 1024));
+                for (long position = start; position < channel.position(); position += zeros.capacity()) {
+                    zeros.clear();
+                    zeros.limit((int) Math.min(zeros.capacity(), channel.position() - position));
+                    channel.write(zeros, position);
+                }
+                channel.position(start);
+                throw e;
+            }
+            records.incrementAndGet();
+            journaledPaths.add(path.toAbsolutePath());
+            return journalStart + channel.position();
+        }
+    }
+
+    /**
+     * Waits for the journal to be durable up to the supplied offset, forcing it if no other writer does.
+     */
+    public void awaitDurable(long offset) throws IOException {
+        while (true) {
+            synchronized (flushLock) {
+                while (durableOffset < offset && flushing) {
+                    try {
+                        flushLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while waiting for the payload journal to be forced", e);
+                    }
+                }
+                if (durableOffset >= offset) {
+                    return;
+                }
+                flushing = true;
+            }
+            try {
+                flush();
+            } finally {
+                synchronized (flushLock) {
+                    flushing = false;
+                    flushLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Forces the journal on behalf of everybody having appended so far, invoked by a single thread at a time.
+     */
+    private void flush() throws IOException {
+        FileChannel flushed;
+        long end;
+        synchronized (this) {
+            flushed = channel;
+            end = journalStart + channel.position();
+        }
+        flushed.force(false);
+        forces.incrementAndGet();
+        synchronized (flushLock) {
+            durableOffset = Math.max(durableOffset, end);
+        }
+
+        synchronized (this) {
+            if (channel.position() >= rotateAfterBytes) {
+                rotate();
+            }
+        }
+    }
+
+    /**
+     * Starts a new journal file, the files of the old one are forced in the background before it is removed.
+     */
+    private void rotate() throws IOException {
+        channel.force(false);
+        long end = journalStart + channel.position();
+        synchronized (flushLock) {
+            durableOffset = Math.max(durableOffset, end);
+        }
+        channel.close();
+
+        Path rotatedFile = journalFile;
+        Set<Path> rotatedPaths = journaledPaths;
+        journalStart = end;
+        journaledPaths = new LinkedHashSet<>();
+        openJournal();
+
+        checkpointExecutor.execute(() -> checkpoint(rotatedFile, rotatedPaths));
+    }
+
+    /**
+     * Switches to the journal prepared in the background, preparing the one to follow it.
+     */
+    private void openJournal() throws IOException {
+        if (preparedJournal == null) {
+            journalFile = preallocate(journalPath(++journalSequence));
+        } else {
+            try {
+                journalFile = preparedJournal.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the next payload journal", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Unable to prepare the next payload journal; " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+        channel = FileChannel.open(journalFile, StandardOpenOption.WRITE);
+        Path next = journalPath(++journalSequence);
+        preparedJournal = checkpointExecutor.submit(() -> preallocate(next));
+    }
+
+    private Path journalPath(long sequence) {
+        return directory.resolve(String.format("%s%016d%s", JOURNAL_PREFIX, sequence, JOURNAL_SUFFIX));
+    }
+
+    /**
+     * Creates a journal file filled with zeros, as forcing data written into blocks already allocated does not
+     * require the file system to commit meta data like the size of the file as well.
+     */
+    Path preallocate(Path path) throws IOException {
+        try (FileChannel preallocated = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            ByteBuffer zeros = ByteBuffer.allocate((int) Math.min(rotateAfterBytes, 1024 * 1024));
+            for (long written = 0; written < rotateAfterBytes; written += zeros.capacity()) {
+                zeros.clear();
+                while (zeros.hasRemaining()) {
+                    preallocated.write(zeros);
+                }
+            }
+            preallocated.force(true);
+        }
+        PayloadWriter.forceDirectory(directory);
+        return path;
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    static void checkpoint(Path rotatedFile, Set<Path> paths) {
+        try {
+            Set<Path> directories = new LinkedHashSet<>();
+            for (Path path : paths) {
+                // Payloads removed since, e.g. by a rollback or the compaction, need no forcing
+                if (Files.exists(path)) {
+                    PayloadWriter.force(path);
+                    directories.add(path.getParent());
+                }
+            }
+            for (Path directory : directories) {
+                PayloadWriter.forceDirectory(directory);
+            }
+            Files.delete(rotatedFile);
+            log.debug("Checkpointed {} payloads of {}", paths.size(), rotatedFile);
+        } catch (IOException e) {
+            log.error("Unable to checkpoint payload journal " + rotatedFile + ", it will be recovered on start up; " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Restores the payloads of journals left behind, which are removed once the payloads are durable.
+     */
+    void recover() throws IOException {
+        List<Path> journals = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, JOURNAL_PREFIX + "*" + JOURNAL_SUFFIX)) {
+            for (Path file : files) {
+                journals.add(file);
+            }
+        }
+        // The names are zero padded, later journals hold later copies of a file
+        Collections.sort(journals);
+        for (Path journal : journals) {
+            // New journals are numbered beyond those recovered, should any of them fail to be removed
+            String name = journal.getFileName().toString();
+            journalSequence = Math.max(journalSequence, Long.parseLong(name.substring(JOURNAL_PREFIX.length(), name.length() - JOURNAL_SUFFIX.length())));
+            int restored = replay(journal);
+            log.info("Recovered payload journal {}, {} payloads restored", journal, restored);
+            Files.delete(journal);
+        }
+        if (!journals.isEmpty()) {
+            PayloadWriter.forceDirectory(directory);
+        }
+    }
+
+    static int replay(Path journal) throws IOException {
+        int restored = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(journal)))) {
+            while (true) {
+                Path copy = null;
+                try {
+                    int magic = in.readInt();
+                    if (magic == 0) {
+                        // The preallocated part of the journal, nothing was appended beyond the last record
+                        return restored;
+                    }
+                    if (magic != RECORD_MAGIC) {
+                        log.warn("Payload journal {} holds an invalid record, ignoring the remainder", journal);
+                        return restored;
+                    }
+                    Path path = Paths.get(in.readUTF());
+                    long length = in.readLong();
+
+                    Files.createDirectories(path.getParent());
+                    copy = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".recovered");
+                    CRC32 crc32 = new CRC32();
+                    try (OutputStream outputStream = Files.newOutputStream(copy)) {
+                        byte[] buffer = new byte[64 * 1024];
+                        long remaining = length;
+                        while (remaining > 0) {
+                            int count = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                            if (count < 0) {
+                                throw new EOFException();
+                            }
+                            crc32.update(buffer, 0, count);
+                            outputStream.write(buffer, 0, count);
+                            remaining -= count;
+                        }
+                    }
+                    if (in.readLong() != crc32.getValue()) {
+                        // A record which was never forced completely, hence its writer was never released
+                        log.warn("Payload journal {} ends with an incomplete record of {}", journal, path);
+                        return restored;
+                    }
+
+                    if (Files.exists(path) && Files.size(path) == length && crc32(path) == crc32.getValue()) {
+                        Files.delete(copy);
+                    } else {
+                        PayloadWriter.force(copy);
+                        Files.move(copy, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                        PayloadWriter.forceDirectory(path.getParent());
+                        restored++;
+                    }
+                    copy = null;
+                } catch (EOFException e) {
+                    // Nothing was appended beyond the last complete record
+                    return restored;
+                } finally {
+                    if (copy != null) {
+                        Files.deleteIfExists(copy);
+                    }
+                }
+            }
+        }
+    }
+
+    static long crc32(Path path) throws IOException {
+        CRC32 crc32 = new CRC32();
+        try (InputStream inputStream = Files.newInputStream(path)) {
+            byte[] buffer = new byte[64 * 1024];
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                crc32.update(buffer, 0, count);
+            }
+        }
+        return crc32.getValue();
+    }
+
+    /**
+     * @return number of payloads appended to the journal
+     */
+    public long getRecordCount() {
+        return records.get();
+    }
+
+    /**
+     * @return number of times the journal was forced on behalf of the writers, i.e. excluding rotations
+     */
+    public long getForceCount() {
+        return forces.get();
+    }
+
+    /**
+     * Waits for the checkpoints of the journals rotated so far to complete.
+     */
+    public void awaitCheckpoints() throws InterruptedException {
+        try {
+            // Checkpoints are run in order by a single thread
+            checkpointExecutor.submit(() -> { }).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Unable to await payload journal checkpoints; " + e.getMessage(), e);
+        }
+    }
+}
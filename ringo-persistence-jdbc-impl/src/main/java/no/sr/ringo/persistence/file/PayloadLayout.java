@@ -0,0 +1,58 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package no.sr.ringo.persistence.file;
+
+/**
+ * The directory layouts available for storing payloads and evidence in the file system.
+ *
+ * Files written with any of the layouts may be read regardless of the layout currently configured, as the complete
+ * URL of every artifact is held in the MESSAGE table.
+ */
+public enum PayloadLayout {
+
+    /**
+     * {@code basedir/DIRECTION/receiver/sender/yyyy-mm-dd/uuid.suffix}, which will produce huge directories for
+     * receivers and senders having a large volume of messages.
+     */
+    LEGACY,
+
+    /**
+     * {@code basedir/DIRECTION/yyyy-mm-dd/xx/yy/uuid.suffix}, where {@code xx/yy} is computed from a hash of the file name,
+     * which bounds the number of entries in every directory to roughly 1/65536 of the daily message volume.
+     */
+    SHARDED;
+
+    /**
+     * Parses the configured layout name, ignoring case.
+     */
+    public static PayloadLayout of(String name) {
+        if (name == null || name.trim().isEmpty()) {
+            return LEGACY;
+        }
+        try {
+            return valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown payload layout '" + name + "', must be one of legacy or sharded", e);
+        }
+    }
+}
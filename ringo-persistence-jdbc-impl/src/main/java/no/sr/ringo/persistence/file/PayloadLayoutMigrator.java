@@ -0,0 +1,328 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package no.sr.ringo.persistence.file;
+
+import no.sr.ringo.config.RingoConfigProperty;
+import no.sr.ringo.transport.TransferDirection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Offline migration of payload and evidence files from the {@link PayloadLayout#LEGACY} layout into the
+ * {@link PayloadLayout#SHARDED} layout.
+ * <p>
+ * The MESSAGE table is traversed in batches ordered by msg_no. The files referenced by each batch are moved in parallel,
+ * after which {@code payload_url} and {@code evidence_url} are updated using a JDBC batch and committed.
+ * </p>
+ * <p>
+ * The target path is computed from the current path of the file only, hence payloads shared between several messages
+ * are moved once and every referring entry is updated to the same location. The migration may be restarted after
+ * a failure, files already moved are detected and the corresponding entries updated.
+ * </p>
+ * <p>Should not be run while Ringo is receiving messages.</p>
+ */
+public class PayloadLayoutMigrator {
+
+    private static final Logger log = LoggerFactory.getLogger(PayloadLayoutMigrator.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    private final DataSource dataSource;
+    private final Path basePath;
+    private final ArtifactPathComputer shardedPathComputer;
+    private final DirectoryCache directoryCache;
+
+    private final AtomicLong filesMoved = new AtomicLong();
+    private final AtomicLong filesAlreadyMoved = new AtomicLong();
+    private final AtomicLong filesMissing = new AtomicLong();
+    private final AtomicLong filesSkipped = new AtomicLong();
+
+    @Inject
+    public PayloadLayoutMigrator(DataSource dataSource, @Named(RingoConfigProperty.PAYLOAD_BASE_PATH) Path basePath, DirectoryCache directoryCache) {
+        this.dataSource = dataSource;
+        this.basePath = basePath.toAbsolutePath().normalize();
+        this.shardedPathComputer = new ArtifactPathComputer(this.basePath, PayloadLayout.SHARDED);
+        this.directoryCache = directoryCache;
+    }
+
+    public MigrationResult migrate() {
+        return migrate(DEFAULT_BATCH_SIZE, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Migrates all the files referenced from the MESSAGE table.
+     *
+     * @param batchSize number of MESSAGE entries to process per transaction
+     * @param threads   number of threads moving files concurrently
+     */
+    public MigrationResult migrate(int batchSize, int threads) {
+
+        long start = System.currentTimeMillis();
+        long entriesUpdated = 0;
+        filesMoved.set(0);
+        filesAlreadyMoved.set(0);
+        filesMissing.set(0);
+        filesSkipped.set(0);
+
+        long lastMsgNo = 0;
+
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+
+            List<MessageFiles> batch;
+            while (!(batch = nextBatch(connection, lastMsgNo, batchSize)).isEmpty()) {
+                lastMsgNo = batch.get(batch.size() - 1).msgNo;
+
+                List<Callable<MessageFiles>> tasks = new ArrayList<>(batch.size());
+                for (MessageFiles messageFiles : batch) {
+                    tasks.add(() -> relocate(messageFiles));
+                }
+
+                List<MessageFiles> relocated = new ArrayList<>();
+                for (Future<MessageFiles> future : executorService.invokeAll(tasks)) {
+                    MessageFiles result = future.get();
+                    if (result != null) {
+                        relocated.add(result);
+                    }
+                }
+
+                entriesUpdated += updateUrls(connection, relocated);
+                connection.commit();
+
+                log.info("Migrated up to msg_no {}, {} entries updated so far", lastMsgNo, entriesUpdated);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Migration of payload layout failed after msg_no " + lastMsgNo + "; " + e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Migration of payload layout interrupted after msg_no " + lastMsgNo, e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Migration of payload layout failed after msg_no " + lastMsgNo + "; " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            executorService.shutdown();
+        }
+
+        return new MigrationResult(entriesUpdated, filesMoved.get(), filesAlreadyMoved.get(), filesMissing.get(), filesSkipped.get(), System.currentTimeMillis() - start);
+    }
+
+    List<MessageFiles> nextBatch(Connection connection, long afterMsgNo, int batchSize) throws SQLException {
+        List<MessageFiles> result = new ArrayList<>(batchSize);
+        try (PreparedStatement ps = connection.prepareStatement("select msg_no, payload_url, evidence_url, payload_digest from message where msg_no > ? order by msg_no")) {
+            ps.setMaxRows(batchSize);
+            ps.setLong(1, afterMsgNo);
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                result.add(new MessageFiles(rs.getLong("msg_no"), rs.getString("payload_url"), rs.getString("evidence_url"), rs.getString("payload_digest")));
+            }
+        }
+        return result;
+    }
+
+    private int updateUrls(Connection connection, List<MessageFiles> relocated) throws SQLException {
+        if (relocated.isEmpty()) {
+            return 0;
+        }
+        try (PreparedStatement ps = connection.prepareStatement("update message set payload_url = ?, evidence_url = ? where msg_no = ?")) {
+            for (MessageFiles messageFiles : relocated) {
+                ps.setString(1, messageFiles.payloadUrl);
+                ps.setString(2, messageFiles.evidenceUrl);
+                ps.setLong(3, messageFiles.msgNo);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+        return relocated.size();
+    }
+
+    /**
+     * Moves the files of the given message entry.
+     *
+     * @return the entry holding the new URLs, or null if nothing was changed.
+     */
+    MessageFiles relocate(MessageFiles messageFiles) throws IOException {
+        // Payloads in the content addressed store are never moved
+        String payloadUrl = messageFiles.payloadDigest == null ? relocateFile(messageFiles.payloadUrl) : null;
+        String evidenceUrl = relocateFile(messageFiles.evidenceUrl);
+
+        if (payloadUrl == null && evidenceUrl == null) {
+            return null;
+        }
+        return new MessageFiles(messageFiles.msgNo,
+                payloadUrl != null ? payloadUrl : messageFiles.payloadUrl,
+                evidenceUrl != null ? evidenceUrl : messageFiles.evidenceUrl,
+                messageFiles.payloadDigest);
+    }
+
+    /**
+     * @return the URL of the relocated file, or null if the file was not relocated.
+     */
+    private String relocateFile(String url) throws IOException {
+        if (url == null) {
+            return null;
+        }
+        URI uri = URI.create(url);
+        if (!"file".equals(uri.getScheme())) {
+            filesSkipped.incrementAndGet();
+            return null;
+        }
+
+        Path source = Paths.get(uri);
+        Path target = shardedPathFor(source);
+        if (target == null || target.equals(source)) {
+            filesSkipped.incrementAndGet();
+            return null;
+        }
+
+        directoryCache.createDirectories(target.getParent());
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+            filesMoved.incrementAndGet();
+        } catch (NoSuchFileException e) {
+            // Shared with another entry, or moved by a previous run which was interrupted before the update was committed
+            if (Files.exists(target)) {
+                filesAlreadyMoved.incrementAndGet();
+            } else {
+                log.warn("Neither {} nor {} exists, leaving URL as is", source, target);
+                filesMissing.incrementAndGet();
+                return null;
+            }
+        }
+        return target.toUri().toString();
+    }
+
+    /**
+     * Computes the sharded path of a file held in the legacy layout, i.e. {@code basedir/DIRECTION/receiver/sender/yyyy-mm-dd/filename}
+     *
+     * @return the new path or null if the supplied path does not adhere to the legacy layout.
+     */
+    Path shardedPathFor(Path legacyPath) {
+        if (!legacyPath.startsWith(basePath)) {
+            return null;
+        }
+        Path relative = basePath.relativize(legacyPath);
+        if (relative.getNameCount() != 5) {
+            return null;
+        }
+        try {
+            TransferDirection direction = TransferDirection.valueOf(relative.getName(0).toString());
+            LocalDate date = LocalDate.parse(relative.getName(3).toString());
+            return shardedPathComputer.createShardedPath(direction, date, relative.getName(4).toString());
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    static class MessageFiles {
+        final long msgNo;
+        final String payloadUrl;
+        final String evidenceUrl;
+        final String payloadDigest;
+
+        MessageFiles(long msgNo, String payloadUrl, String evidenceUrl, String payloadDigest) {
+            this.msgNo = msgNo;
+            this.payloadUrl = payloadUrl;
+            this.evidenceUrl = evidenceUrl;
+            this.payloadDigest = payloadDigest;
+        }
+    }
+
+    public static class MigrationResult {
+        private final long entriesUpdated;
+        private final long filesMoved;
+        private final long filesAlreadyMoved;
+        private final long filesMissing;
+        private final long filesSkipped;
+        private final long elapsedMillis;
+
+        MigrationResult(long entriesUpdated, long filesMoved, long filesAlreadyMoved, long filesMissing, long filesSkipped, long elapsedMillis) {
+            this.entriesUpdated = entriesUpdated;
+            this.filesMoved = filesMoved;
+            this.filesAlreadyMoved = filesAlreadyMoved;
+            this.filesMissing = filesMissing;
+            this.filesSkipped = filesSkipped;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public long getEntriesUpdated() {
+            return entriesUpdated;
+        }
+
+        public long getFilesMoved() {
+            return filesMoved;
+        }
+
+        public long getFilesAlreadyMoved() {
+            return filesAlreadyMoved;
+        }
+
+        public long getFilesMissing() {
+            return filesMissing;
+        }
+
+        public long getFilesSkipped() {
+            return filesSkipped;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder("MigrationResult{");
+            sb.append("entriesUpdated=").append(entriesUpdated);
+            sb.append(", filesMoved=").append(filesMoved);
+            sb.append(", filesAlreadyMoved=").append(filesAlreadyMoved);
+            sb.append(", filesMissing=").append(filesMissing);
+            sb.append(", filesSkipped=").append(filesSkipped);
+            sb.append(", elapsedMillis=").append(elapsedMillis);
+            sb.append('}');
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package no.sr.ringo.persistence.file;
+
+import no.sr.ringo.config.RingoConfigProperty;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes artifacts to the file system and makes them durable according to the configured {@link FsyncPolicy}.
+ * <p>The methods return only after the artifact is durable, i.e. callers may safely commit the meta data afterwards.</p>
+ * <p>Under {@link FsyncPolicy#GROUP} the artifacts are made durable by the {@link PayloadJournal} kept in
+ * {@code basedir/journal}, which is recovered when the writer is created.</p>
+ */
+@Singleton
+public class PayloadWriter {
+
+    private final FsyncPolicy fsyncPolicy;
+    private final PayloadJournal payloadJournal;
+
+    @Inject
+    public PayloadWriter(@Named(RingoConfigProperty.PAYLOAD_FSYNC) String fsyncPolicy,
+                         @Named(RingoConfigProperty.PAYLOAD_BASE_PATH) Path basePath) {
+        this(FsyncPolicy.of(fsyncPolicy), basePath);
+    }
+
+    public PayloadWriter(FsyncPolicy fsyncPolicy, Path basePath) {
+        this(fsyncPolicy, fsyncPolicy == FsyncPolicy.GROUP
+                ? new PayloadJournal(basePath.toAbsolutePath().normalize().resolve(PayloadJournal.JOURNAL_DIRECTORY), PayloadJournal.DEFAULT_ROTATE_AFTER_BYTES)
+                : null);
+    }
+
+    /**
+     * Creates a writer not needing a journal, i.e. for any policy but {@link FsyncPolicy#GROUP}.
+     */
+    public PayloadWriter(FsyncPolicy fsyncPolicy) {
+        this(fsyncPolicy, (PayloadJournal) null);
+    }
+
+    public PayloadWriter(FsyncPolicy fsyncPolicy, PayloadJournal payloadJournal) {
+        if (fsyncPolicy == FsyncPolicy.GROUP && payloadJournal == null) {
+            throw new IllegalArgumentException("Fsync policy " + fsyncPolicy + " requires a payload journal");
+        }
+        this.fsyncPolicy = fsyncPolicy;
+        this.payloadJournal = payloadJournal;
+    }
+
+    public FsyncPolicy getFsyncPolicy() {
+        return fsyncPolicy;
+    }
+
+    /**
+     * Copies the input stream into a new file and makes it durable.
+     *
+     * @return number of bytes written
+     */
+    public long write(InputStream inputStream, Path path) throws IOException {
+        long size = Files.copy(inputStream, path);
+        makeDurable(path);
+        return size;
+    }
+
+    /**
+     * Forces the supplied file, which has been completely written and closed, and its directory to disk according to the policy.
+     */
+    public void makeDurable(Path path) throws IOException {
+        switch (fsyncPolicy) {
+            case NONE:
+                break;
+            case FILE:
+                force(path);
+                forceDirectory(path.getParent());
+                break;
+            case GROUP:
+                payloadJournal.awaitDurable(payloadJournal.append(path));
+                break;
+            default:
+                throw new IllegalStateException("No implementation for fsync policy " + fsyncPolicy);
+        }
+    }
+
+    static void force(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Syncs the directory entry of newly created files. Not supported on all platforms, in which case it is silently ignored.
+     */
+    static void forceDirectory(Path directory) throws IOException {
+        if (directory == null) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            if (Files.isDirectory(directory) && isWindows()) {
+                return; // Directories can not be opened on Windows
+            }
+            throw e;
+        }
+    }
+
+    private static boolean isWindows() {
+        return System.getProperty("os.name", "").toLowerCase().startsWith("windows");
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package no.sr.ringo.persistence.file;
+
+import no.sr.ringo.config.RingoConfigProperty;
+import no.sr.ringo.transport.TransferDirection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Offline compaction of payload and evidence files older than a given number of days into the append-only
+ * segments of the {@link SegmentStore}.
+ * <p>
+ * Messages are processed one day at a time. For every day, the files are appended to the segment of the
+ * message direction, the segments are forced to disk, the MESSAGE table is updated with the {@code segment:} URIs
+ * and committed, after which the original files are removed.
+ * </p>
+ * <p>
+ * Payloads held in the content addressed store are left as is, as they are shared with messages of other days.
+ * Should the compaction be interrupted, it may simply be restarted; entries appended but not committed are never
+ * referenced and remain as unused bytes in the segment.
+ * </p>
+ */
+public class SegmentCompactor {
+
+    private static final Logger log = LoggerFactory.getLogger(SegmentCompactor.class);
+
+    private final DataSource dataSource;
+    private final SegmentStore segmentStore;
+    private final int compactAfterDays;
+
+    @Inject
+    public SegmentCompactor(DataSource dataSource, SegmentStore segmentStore, @Named(RingoConfigProperty.PAYLOAD_COMPACTION_DAYS) String compactAfterDays) {
+        this(dataSource, segmentStore, Integer.parseInt(compactAfterDays.trim()));
+    }
+
+    public SegmentCompactor(DataSource dataSource, SegmentStore segmentStore, int compactAfterDays) {
+        this.dataSource = dataSource;
+        this.segmentStore = segmentStore;
+        this.compactAfterDays = compactAfterDays;
+    }
+
+    /**
+     * Compacts the files of all messages received more than the configured number of days ago.
+     *
+     * @return number of files packed into segments
+     */
+    public long compact() {
+        LocalDate cutOff = LocalDate.now().minusDays(compactAfterDays);
+        log.info("Compacting payloads and evidence of messages received before {}", cutOff);
+
+        long filesCompacted = 0;
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            for (LocalDate day : daysToCompact(connection, cutOff)) {
+                filesCompacted += compactDay(connection, day);
+            }
+        } catch (SQLException | IOException e) {
+            throw new IllegalStateException("Compaction of payloads failed; " + e.getMessage(), e);
+        }
+        log.info("{} files compacted", filesCompacted);
+        return filesCompacted;
+    }
+
+    /**
+     * @return the days prior to the cut off holding files which are to be packed into segments
+     */
+    public List<LocalDate> daysToCompact(Connection connection, LocalDate cutOff) throws SQLException {
+        List<LocalDate> days = new ArrayList<>();
+        // Payloads held in the content addressed store, i.e. having a digest, are never packed
+        String sql = "select distinct cast(received as date) as received_date from message where received < ? " +
+                " and ((payload_url like 'file:%' and payload_digest is null) or evidence_url like 'file:%') order by received_date";
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            ps.setTimestamp(1, Timestamp.valueOf(cutOff.atStartOfDay()));
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                days.add(rs.getDate(1).toLocalDate());
+            }
+        }
+        connection.commit();
+        return days;
+    }
+
+    long compactDay(Connection connection, LocalDate day) throws SQLException, IOException {
+
+        List<MessageFiles> messages = new ArrayList<>();
+        String sql = "select msg_no, direction, payload_url, evidence_url, payload_digest from message where received >= ? and received < ? order by msg_no";
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            ps.setTimestamp(1, Timestamp.valueOf(day.atStartOfDay()));
+            ps.setTimestamp(2, Timestamp.valueOf(day.plusDays(1).atStartOfDay()));
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                messages.add(new MessageFiles(rs.getLong("msg_no"), TransferDirection.valueOf(rs.getString("direction")),
+                        rs.getString("payload_url"), rs.getString("evidence_url"), rs.getString("payload_digest")));
+            }
+        }
+
+        // A payload may be shared by an outbound message and its inbound copy, which is packed once and referenced by both
+        Map<String, String> packed = new HashMap<>();
+        Map<TransferDirection, SegmentStore.Appender> appenders = new EnumMap<>(TransferDirection.class);
+        List<MessageFiles> updated = new ArrayList<>();
+        try {
+            for (MessageFiles message : messages) {
+                String payloadUrl = message.payloadDigest == null ? pack(message.payloadUrl, message.direction, day, packed, appenders) : message.payloadUrl;
+                String evidenceUrl = pack(message.evidenceUrl, message.direction, day, packed, appenders);
+                if (!equals(payloadUrl, message.payloadUrl) || !equals(evidenceUrl, message.evidenceUrl)) {
+                    updated.add(new MessageFiles(message.msgNo, message.direction, payloadUrl, evidenceUrl, message.payloadDigest));
+                }
+            }
+            for (SegmentStore.Appender appender : appenders.values()) {
+                appender.sync();
+            }
+        } finally {
+            for (SegmentStore.Appender appender : appenders.values()) {
+                appender.close();
+            }
+        }
+
+        try (PreparedStatement ps = connection.prepareStatement("update message set payload_url = ?, evidence_url = ? where msg_no = ?")) {
+            for (MessageFiles message : updated) {
+                ps.setString(1, message.payloadUrl);
+                ps.setString(2, message.evidenceUrl);
+                ps.setLong(3, message.msgNo);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+        connection.commit();
+
+        // The files are no longer referenced
+        for (String fileUrl : packed.keySet()) {
+            Files.deleteIfExists(Paths.get(URI.create(fileUrl)));
+        }
+
+        log.info("Compacted {} files of {} messages received {}", packed.size(), updated.size(), day);
+        return packed.size();
+    }
+
+    private String pack(String url, TransferDirection direction, LocalDate day, Map<String, String> packed, Map<TransferDirection, SegmentStore.Appender> appenders) throws IOException {
+        if (url == null || !url.startsWith("file:")) {
+            return url;
+        }
+        String segmentUrl = packed.get(url);
+        if (segmentUrl != null) {
+            return segmentUrl;
+        }
+
+        Path path = Paths.get(URI.create(url));
+        if (!Files.exists(path)) {
+            log.warn("{} does not exist, leaving URL as is", path);
+            return url;
+        }
+
+        SegmentStore.Appender appender = appenders.get(direction);
+        if (appender == null) {
+            appender = segmentStore.openAppender(direction, day);
+            appenders.put(direction, appender);
+        }
+        segmentUrl = appender.append(path.getFileName().toString(), Files.readAllBytes(path)).toString();
+        packed.put(url, segmentUrl);
+        return segmentUrl;
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    static class MessageFiles {
+        final long msgNo;
+        final TransferDirection direction;
+        final String payloadUrl;
+        final String evidenceUrl;
+        final String payloadDigest;
+
+        MessageFiles(long msgNo, TransferDirection direction, String payloadUrl, String evidenceUrl, String payloadDigest) {
+            this.msgNo = msgNo;
+            this.direction = direction;
+            this.payloadUrl = payloadUrl;
+            this.evidenceUrl = evidenceUrl;
+            this.payloadDigest = payloadDigest;
+        }
+    }
+}
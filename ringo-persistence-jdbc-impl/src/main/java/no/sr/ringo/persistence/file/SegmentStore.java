@@ -0,0 +1,337 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package no.sr.ringo.persistence.file;
+
+import no.sr.ringo.config.RingoConfigProperty;
+import no.sr.ringo.transport.TransferDirection;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only segment files holding payloads and evidence, which have been packed together in order to reduce the
+ * number of files in the file system.
+ * <p>
+ * There is one segment per date and direction, i.e. {@code basedir/segments/DIRECTION/yyyy/yyyy-mm-dd.seg}, accompanied
+ * by an index file {@code yyyy-mm-dd.idx} holding a line per entry: {@code offset<TAB>length<TAB>crc32<TAB>original file name}.
+ * </p>
+ * <p>
+ * Entries are referenced by URIs in the {@value #SCHEME} scheme, like {@code segment:/var/peppol/segments/IN/2017/2017-03-01.seg?offset=1024&length=512&crc=1c291ca3},
+ * and are streamed using positional {@link FileChannel} reads.
+ * </p>
+ * <p>
+ * The CRC32 of an entry is verified once it has been read completely, an entry which is corrupt or has been
+ * truncated fails with an {@link IOException} rather than being served. URIs created prior to the CRC being
+ * part of the URI are verified against the CRC recorded in the index.
+ * </p>
+ */
+@Singleton
+public class SegmentStore {
+
+    public static final String SCHEME = "segment";
+
+    public static final String SEGMENT_DIRECTORY = "segments";
+
+    static final String SEGMENT_SUFFIX = ".seg";
+    static final String INDEX_SUFFIX = ".idx";
+
+    private final Path segmentBasePath;
+
+    private final DirectoryCache directoryCache;
+
+    @Inject
+    public SegmentStore(@Named(RingoConfigProperty.PAYLOAD_BASE_PATH) Path basePath, DirectoryCache directoryCache) {
+        this.segmentBasePath = basePath.toAbsolutePath().normalize().resolve(SEGMENT_DIRECTORY);
+        this.directoryCache = directoryCache;
+    }
+
+    public static boolean isSegmentUri(URI uri) {
+        return uri != null && SCHEME.equals(uri.getScheme());
+    }
+
+    /**
+     * Reads the entry referenced by the supplied segment URI into memory.
+     */
+    public byte[] read(URI segmentUri) {
+        SegmentEntry entry = SegmentEntry.of(segmentUri);
+        if (entry.length > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Segment entry " + segmentUri + " is too large to be read into memory");
+        }
+
+        byte[] bytes = new byte[(int) entry.length];
+        try (InputStream inputStream = openStream(segmentUri)) {
+            int count = 0;
+            while (count < bytes.length) {
+                count += inputStream.read(bytes, count, bytes.length - count);
+            }
+            // Verifies the CRC, should the entry be empty
+            inputStream.read();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read " + segmentUri + "; " + e.getMessage(), e);
+        }
+        return bytes;
+    }
+
+    /**
+     * Opens a stream holding the entry referenced by the supplied segment URI, which reads directly from the segment.
+     */
+    public InputStream openStream(URI segmentUri) throws IOException {
+        SegmentEntry entry = SegmentEntry.of(segmentUri);
+        Long crc32 = entry.crc32 != null ? entry.crc32 : indexedCrc32(entry);
+        return new EntryInputStream(segmentUri, FileChannel.open(entry.segment, StandardOpenOption.READ), entry.offset, entry.length, crc32);
+    }
+
+    /**
+     * Looks up the CRC32 recorded in the index of the segment.
+     *
+     * @return the CRC32 or null if the entry is not indexed.
+     */
+    static Long indexedCrc32(SegmentEntry entry) throws IOException {
+        String fileName = entry.segment.getFileName().toString();
+        if (!fileName.endsWith(SEGMENT_SUFFIX)) {
+            return null;
+        }
+        Path indexFile = entry.segment.resolveSibling(fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length()) + INDEX_SUFFIX);
+        if (!Files.exists(indexFile)) {
+            return null;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 4);
+                if (fields.length >= 3 && fields[0].equals(String.valueOf(entry.offset)) && fields[1].equals(String.valueOf(entry.length))) {
+                    return Long.parseLong(fields[2], 16);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Opens the segment for the given direction and date for appending entries. Only a single writer
+     * should append to a given segment at any time.
+     */
+    public Appender openAppender(TransferDirection direction, LocalDate date) {
+        Path directory = segmentBasePath.resolve(direction.name()).resolve(String.valueOf(date.getYear()));
+        directoryCache.createDirectories(directory);
+        String baseName = DateTimeFormatter.ISO_LOCAL_DATE.format(date);
+        try {
+            return new Appender(directory.resolve(baseName + SEGMENT_SUFFIX), directory.resolve(baseName + INDEX_SUFFIX));
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to open segment " + directory.resolve(baseName + SEGMENT_SUFFIX) + "; " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Appends entries to a segment and its index.
+     */
+    public static class Appender implements AutoCloseable {
+
+        private final Path segment;
+        private final FileChannel channel;
+        private final Writer index;
+
+        Appender(Path segment, Path indexFile) throws IOException {
+            this.segment = segment;
+            this.channel = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            // Anything beyond the last indexed entry is garbage from an interrupted run, which is simply left in place
+            this.channel.position(channel.size());
+            this.index = Files.newBufferedWriter(indexFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+
+        /**
+         * Appends the supplied bytes.
+         *
+         * @param name the name of the original file, recorded in the index.
+         * @return the URI referencing the new entry.
+         */
+        public URI append(String name, byte[] bytes) throws IOException {
+            long offset = channel.position();
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+
+            CRC32 crc32 = new CRC32();
+            crc32.update(bytes);
+            index.write(offset + "\t" + bytes.length + "\t" + Long.toHexString(crc32.getValue()) + "\t" + name + "\n");
+
+            return SegmentEntry.toUri(segment, offset, bytes.length, crc32.getValue());
+        }
+
+        /**
+         * Forces all entries appended so far to disk, must be invoked before the URIs are made visible to others.
+         */
+        public void sync() throws IOException {
+            index.flush();
+            channel.force(false);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                sync();
+            } finally {
+                index.close();
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Reads a single entry of a segment, verifying its CRC32 as the last byte is read.
+     */
+    static class EntryInputStream extends InputStream {
+
+        private final URI segmentUri;
+        private final FileChannel channel;
+        private final Long expectedCrc32;
+        private final CRC32 crc32 = new CRC32();
+        private long position;
+        private long remaining;
+        private boolean verified = false;
+
+        EntryInputStream(URI segmentUri, FileChannel channel, long offset, long length, Long expectedCrc32) {
+            this.segmentUri = segmentUri;
+            this.channel = channel;
+            this.position = offset;
+            this.remaining = length;
+            this.expectedCrc32 = expectedCrc32;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int count = read(b, 0, 1);
+            return count < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (remaining == 0) {
+                verify();
+                return -1;
+            }
+            int count = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, remaining)), position);
+            if (count < 0) {
+                throw new IOException("Premature end of segment while reading " + segmentUri + ", " + remaining + " bytes missing");
+            }
+            crc32.update(b, off, count);
+            position += count;
+            remaining -= count;
+            if (remaining == 0) {
+                // Fails before the consumer sees the end of a corrupt entry
+                verify();
+            }
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(remaining, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private void verify() throws IOException {
+            if (!verified && expectedCrc32 != null && crc32.getValue() != expectedCrc32) {
+                throw new IOException("CRC32 of " + segmentUri + " is " + Long.toHexString(crc32.getValue()) + ", expected " + Long.toHexString(expectedCrc32));
+            }
+            verified = true;
+        }
+    }
+
+    /**
+     * The components of a segment URI.
+     */
+    static class SegmentEntry {
+        final Path segment;
+        final long offset;
+        final long length;
+        final Long crc32;
+
+        private SegmentEntry(Path segment, long offset, long length, Long crc32) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.crc32 = crc32;
+        }
+
+        static URI toUri(Path segment, long offset, long length, long crc32) {
+            try {
+                return new URI(SCHEME, null, segment.toUri().getPath(), "offset=" + offset + "&length=" + length + "&crc=" + Long.toHexString(crc32), null);
+            } catch (URISyntaxException e) {
+                throw new IllegalStateException("Unable to create segment URI for " + segment + "; " + e.getMessage(), e);
+            }
+        }
+
+        static SegmentEntry of(URI uri) {
+            if (!isSegmentUri(uri) || uri.getPath() == null || uri.getQuery() == null) {
+                throw new IllegalArgumentException("Not a valid segment URI: " + uri);
+            }
+            Long offset = null;
+            Long length = null;
+            Long crc32 = null;
+            for (String parameter : uri.getQuery().split("&")) {
+                String[] nameAndValue = parameter.split("=", 2);
+                if (nameAndValue.length != 2) {
+                    continue;
+                }
+                if ("offset".equals(nameAndValue[0])) {
+                    offset = Long.valueOf(nameAndValue[1]);
+                } else if ("length".equals(nameAndValue[0])) {
+                    length = Long.valueOf(nameAndValue[1]);
+                } else if ("crc".equals(nameAndValue[0])) {
+                    crc32 = Long.parseLong(nameAndValue[1], 16);
+                }
+            }
+            if (offset == null || length == null) {
+                throw new IllegalArgumentException("Segment URI requires both offset and length: " + uri);
+            }
+            return new SegmentEntry(Paths.get(uri.getPath()), offset, length, crc32);
+        }
+    }
+}
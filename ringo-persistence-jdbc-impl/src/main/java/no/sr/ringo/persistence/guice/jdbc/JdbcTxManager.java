@@ -88,6 +88,32 @@ public interface JdbcTxManager {
      */
     void setRollbackOnly();
 
+    /**
+     * Runs the task once the current transaction has been committed, or at once if there is no transaction,
+     * i.e. when the connection automatically commits. The task is discarded if the transaction is rolled back.
+     */
+    void afterCommit(Runnable task);
+
+    /**
+     * Runs the task once the current transaction has been rolled back, typically to remove files referred to by
+     * rows which were never committed. The task is discarded if the transaction is committed, or if there is no
+     * transaction.
+     */
+    void afterRollback(Runnable task);
+
+    /**
+     * Wraps a task to be handed off to another thread, typically a pooled worker thread. The connection of the
+     * calling thread is bound to that thread only, hence the task must not be handed off within a transaction,
+     * as its work would silently take place outside it.
+     *
+     * The task obtains connections of its own on the worker thread. Any connection found bound to the worker
+     * thread before or after the task, e.g. left behind by a task which failed, is rolled back and released,
+     * so that connections neither leak nor carry over between tasks.
+     *
+     * @throws IllegalStateException if the calling thread holds a transaction
+     */
+    Runnable handOff(Runnable task);
+
 
     void trace(String message);
 }
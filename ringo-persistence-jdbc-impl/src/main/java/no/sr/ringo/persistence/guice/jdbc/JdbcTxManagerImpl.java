@@ -24,12 +24,16 @@ package no.sr.ringo.persistence.guice.jdbc;
 
 
 import com.google.inject.Inject;
+import no.sr.ringo.persistence.jdbc.profiling.StatementProfiler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Implementation of a transaction manager, which is responsible
@@ -40,6 +44,8 @@ import java.sql.SQLException;
  *
  * It also can be used to rollback programatically an existing transaction.
  *
+ * The statements executed on the connections are timed when profiling is enabled, see {@link StatementProfiler}.
+ *
  */
 public class JdbcTxManagerImpl implements JdbcTxManager {
 
@@ -58,14 +64,17 @@ public class JdbcTxManagerImpl implements JdbcTxManager {
     private final ThreadLocal<JdbcTransaction> threadLocalJdbcTransaction = new ThreadLocal<JdbcTransaction>();
     private final DataSource dataSource;
 
+    /** Number of connections obtained from the data source and not yet closed, i.e. the usage of the pool */
+    private final AtomicInteger connectionsInUse = new AtomicInteger();
+
     @Inject
-    public JdbcTxManagerImpl(DataSource dataSource) {
+    public JdbcTxManagerImpl(DataSource dataSource, StatementProfiler statementProfiler) {
         if (dataSource == null) {
             throw new IllegalArgumentException("DataSource not supplied in constructor");
         }
         this.id = instances;
         instances++;
-        this.dataSource = dataSource;
+        this.dataSource = statementProfiler.profile(dataSource);
     }
 
     @Override
@@ -97,6 +106,7 @@ public class JdbcTxManagerImpl implements JdbcTxManager {
 
             //fetches the connection from the datasource.
             final Connection connection = dataSource.getConnection();
+            connectionsInUse.incrementAndGet();
 
             //sets whether or not the connection should autocommit.
             connection.setAutoCommit(autoCommit);
@@ -128,6 +138,7 @@ public class JdbcTxManagerImpl implements JdbcTxManager {
             else {
                 //Commits the transaction... connection cannot be null as the isTransaction method tests for that
                 jdbcTransaction.getConnection().commit();
+                jdbcTransaction.runAfterCommit();
             }
 
         } catch (SQLException e) {
@@ -147,6 +158,12 @@ public class JdbcTxManagerImpl implements JdbcTxManager {
         } catch (SQLException e) {
             final String message = "Unable to rollback the transaction";
             throw new IllegalStateException(message, e);
+        } finally {
+            // The changes are discarded regardless, as the connection is closed without being committed
+            final JdbcTransaction jdbcTransaction = threadLocalJdbcTransaction.get();
+            if (jdbcTransaction != null) {
+                jdbcTransaction.runAfterRollback();
+            }
         }
     }
 
@@ -156,6 +173,7 @@ public class JdbcTxManagerImpl implements JdbcTxManager {
             //closes the connection
             final Connection connection = getThreadLocalConnection();
             if (connection != null) {
+                connectionsInUse.decrementAndGet();
                 connection.close();
             }
         } catch (SQLException e) {
@@ -190,6 +208,13 @@ public class JdbcTxManagerImpl implements JdbcTxManager {
         return connection;
     }
 
+    /**
+     * Provides the number of connections currently obtained through this transaction manager.
+     */
+    public int getConnectionsInUse() {
+        return connectionsInUse.get();
+    }
+
     /**
      * marks the transaction to be rollbacked
      */
@@ -203,6 +228,53 @@ public class JdbcTxManagerImpl implements JdbcTxManager {
         jdbcTransaction.setRollback(true);
     }
 
+    @Override
+    public void afterCommit(Runnable task) {
+        if (isTransaction()) {
+            threadLocalJdbcTransaction.get().addAfterCommit(task);
+        } else {
+            task.run();
+        }
+    }
+
+    @Override
+    public void afterRollback(Runnable task) {
+        if (isTransaction()) {
+            threadLocalJdbcTransaction.get().addAfterRollback(task);
+        }
+    }
+
+    @Override
+    public Runnable handOff(Runnable task) {
+        if (isTransaction()) {
+            throw new IllegalStateException("Unable to hand off task to another thread within a transaction");
+        }
+        return () -> {
+            releaseStaleConnection();
+            try {
+                task.run();
+            } finally {
+                releaseStaleConnection();
+            }
+        };
+    }
+
+    private void releaseStaleConnection() {
+        if (!isConnection()) {
+            return;
+        }
+        log.warn("Releasing connection left bound to thread " + Thread.currentThread().getName());
+        try {
+            if (isTransaction()) {
+                rollback();
+            }
+        } catch (IllegalStateException e) {
+            log.warn("Unable to roll back connection left bound to thread; " + e.getMessage(), e);
+        } finally {
+            cleanUp();
+        }
+    }
+
     /**
      * Helper method for null safe fetching of the JDBC Connection.
      * @return
@@ -231,6 +303,8 @@ public class JdbcTxManagerImpl implements JdbcTxManager {
     private class JdbcTransaction {
         private final Connection connection;
         private boolean rollback = false;
+        private final List<Runnable> afterCommit = new ArrayList<Runnable>();
+        private final List<Runnable> afterRollback = new ArrayList<Runnable>();
 
         private JdbcTransaction(Connection connection) {
             this.connection = connection;
@@ -247,5 +321,43 @@ public class JdbcTxManagerImpl implements JdbcTxManager {
         public boolean isRollback() {
             return rollback;
         }
+
+        public void addAfterCommit(Runnable task) {
+            afterCommit.add(task);
+        }
+
+        public void addAfterRollback(Runnable task) {
+            afterRollback.add(task);
+        }
+
+        /**
+         * Runs the tasks registered for the committed transaction, which must not fail the commit.
+         */
+        public void runAfterCommit() {
+            for (Runnable task : afterCommit) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    log.warn("Task run after commit failed; " + e.getMessage(), e);
+                }
+            }
+            afterCommit.clear();
+            afterRollback.clear();
+        }
+
+        /**
+         * Runs the tasks registered for the rolled back transaction, which must not hide the cause of the rollback.
+         */
+        public void runAfterRollback() {
+            for (Runnable task : afterRollback) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    log.warn("Task run after rollback failed; " + e.getMessage(), e);
+                }
+            }
+            afterRollback.clear();
+            afterCommit.clear();
+        }
     }
 }
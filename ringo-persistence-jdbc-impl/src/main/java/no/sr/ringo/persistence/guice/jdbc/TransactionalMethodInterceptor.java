@@ -23,6 +23,8 @@
 package no.sr.ringo.persistence.guice.jdbc;
 
 import com.google.inject.Inject;
+import no.sr.ringo.metrics.jfr.EventEmitter;
+import no.sr.ringo.metrics.jfr.FlightRecorderSupport;
 import org.aopalliance.intercept.MethodInterceptor;
 import org.aopalliance.intercept.MethodInvocation;
 import org.slf4j.Logger;
@@ -76,6 +78,8 @@ public class TransactionalMethodInterceptor implements MethodInterceptor {
             throw new IllegalStateException("Unable to start a transaction, there already exists a connection which is not transactional" + invocation.getMethod().getName());
         }
 
+        EventEmitter.Transaction event = FlightRecorderSupport.emitter().beginTransaction();
+        boolean committed = false;
         try {
             // Starts the transaction by setting the autocommit value to be false on the connection.
             jdbcTxManager.newConnection(false);
@@ -87,6 +91,7 @@ public class TransactionalMethodInterceptor implements MethodInterceptor {
             // it is still possible that the TxManager will rollback the transaction,
             // but as far as we are concerned our code worked as expected
             jdbcTxManager.commit();
+            committed = true;
 
             //returns the result of the wrapped method call
             return returnValue;
@@ -100,6 +105,9 @@ public class TransactionalMethodInterceptor implements MethodInterceptor {
         } finally {
             //Essential that we clean up as we are placing connections on thread local
             jdbcTxManager.cleanUp();
+            if (event.shouldCommit()) {
+                event.commit(invocation.getMethod().getDeclaringClass().getSimpleName() + "." + invocation.getMethod().getName(), committed);
+            }
         }
     }
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package no.sr.ringo.persistence.idempotency;
+
+import no.sr.ringo.account.AccountId;
+import no.sr.ringo.message.MessageNumber;
+
+import java.util.Date;
+
+/**
+ * The Idempotency-Key of an upload to the outbox, and the message created by the upload, if it has completed.
+ */
+public class IdempotencyKey {
+
+    private final AccountId accountId;
+    private final String key;
+    private final MessageNumber messageNumber;
+    private final String requestDigest;
+    private final Date created;
+
+    public IdempotencyKey(AccountId accountId, String key, MessageNumber messageNumber, String requestDigest, Date created) {
+        this.accountId = accountId;
+        this.key = key;
+        this.messageNumber = messageNumber;
+        this.requestDigest = requestDigest;
+        this.created = created;
+    }
+
+    public AccountId getAccountId() {
+        return accountId;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return the message created by the upload, or null while the upload is in progress
+     */
+    public MessageNumber getMessageNumber() {
+        return messageNumber;
+    }
+
+    /**
+     * @return the digest of the upload which created the message, or null while the upload is in progress
+     */
+    public String getRequestDigest() {
+        return requestDigest;
+    }
+
+    public Date getCreated() {
+        return created;
+    }
+
+    public boolean isInProgress() {
+        return messageNumber == null;
+    }
+
+    @Override
+    public String toString() {
+        return "IdempotencyKey{" +
+                "accountId=" + accountId +
+                ", key='" + key + '\'' +
+                ", messageNumber=" + messageNumber +
+                '}';
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package no.sr.ringo.persistence.idempotency;
+
+import no.sr.ringo.account.AccountId;
+import no.sr.ringo.message.MessageNumber;
+
+import java.util.Date;
+
+/**
+ * Holds the Idempotency-Key of the uploads to the outbox, allowing uploads retried by the clients to be answered
+ * with the message created by the first attempt rather than creating another one.
+ *
+ * Keys are unique per account.
+ */
+public interface IdempotencyKeyRepository {
+
+    /**
+     * Reserves the key for an upload about to be processed. Keys created before {@code expiredBefore}, and keys of
+     * uploads still in progress created before {@code abandonedBefore}, are replaced.
+     *
+     * @return null if the key was reserved, otherwise the key as previously reserved or completed
+     */
+    IdempotencyKey reserve(AccountId accountId, String key, Date now, Date expiredBefore, Date abandonedBefore);
+
+    /**
+     * Associates the reserved key with the message created by the upload, and the digest of the upload. Should be
+     * invoked within the transaction persisting the message.
+     *
+     * @return false if the key is no longer reserved, e.g. having been abandoned and reserved by another upload
+     */
+    boolean complete(AccountId accountId, String key, MessageNumber messageNumber, String requestDigest);
+
+    /**
+     * Removes the reservation of an upload which failed, allowing the client to try again using the same key.
+     */
+    void release(AccountId accountId, String key);
+
+    /**
+     * @return the key, or null if there is no such key
+     */
+    IdempotencyKey find(AccountId accountId, String key);
+
+    /**
+     * Removes the keys created before the given time.
+     *
+     * @return the number of keys removed
+     */
+    int purge(Date expiredBefore);
+}
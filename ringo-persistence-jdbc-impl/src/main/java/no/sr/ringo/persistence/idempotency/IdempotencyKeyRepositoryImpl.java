@@ -0,0 +1,143 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package no.sr.ringo.persistence.idempotency;
+
+import com.google.inject.Inject;
+import no.sr.ringo.account.AccountId;
+import no.sr.ringo.message.MessageNumber;
+import no.sr.ringo.persistence.guice.jdbc.JdbcTxManager;
+import no.sr.ringo.persistence.guice.jdbc.Repository;
+
+import java.sql.*;
+import java.util.Date;
+
+/**
+ * Repository of the Idempotency-Key of uploads to the outbox.
+ */
+@Repository
+public class IdempotencyKeyRepositoryImpl implements IdempotencyKeyRepository {
+
+    final JdbcTxManager jdbcTxManager;
+
+    @Inject
+    public IdempotencyKeyRepositoryImpl(JdbcTxManager jdbcTxManager) {
+        this.jdbcTxManager = jdbcTxManager;
+    }
+
+    @Override
+    public IdempotencyKey reserve(AccountId accountId, String key, Date now, Date expiredBefore, Date abandonedBefore) {
+        try {
+            Connection con = jdbcTxManager.getConnection();
+            PreparedStatement delete = con.prepareStatement("delete from outbox_idempotency_key where account_id = ? and idempotency_key = ? " +
+                    "and (created_ts < ? or (msg_no is null and created_ts < ?))");
+            delete.setInt(1, accountId.toInteger());
+            delete.setString(2, key);
+            delete.setTimestamp(3, new Timestamp(expiredBefore.getTime()));
+            delete.setTimestamp(4, new Timestamp(abandonedBefore.getTime()));
+            delete.executeUpdate();
+
+            // The primary key prevents concurrent uploads from reserving the same key
+            PreparedStatement insert = con.prepareStatement("insert into outbox_idempotency_key (account_id, idempotency_key, created_ts) values (?, ?, ?)");
+            insert.setInt(1, accountId.toInteger());
+            insert.setString(2, key);
+            insert.setTimestamp(3, new Timestamp(now.getTime()));
+            insert.executeUpdate();
+            return null;
+        } catch (SQLException e) {
+            if (isIntegrityConstraintViolation(e)) {
+                IdempotencyKey existing = find(accountId, key);
+                if (existing != null) {
+                    return existing;
+                }
+            }
+            throw new IllegalStateException("Unable to reserve idempotency key '" + key + "' of account " + accountId + "; " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean complete(AccountId accountId, String key, MessageNumber messageNumber, String requestDigest) {
+        String sql = "update outbox_idempotency_key set msg_no = ?, request_digest = ? where account_id = ? and idempotency_key = ? and msg_no is null";
+        try {
+            PreparedStatement ps = jdbcTxManager.getConnection().prepareStatement(sql);
+            ps.setLong(1, messageNumber.toLong());
+            ps.setString(2, requestDigest);
+            ps.setInt(3, accountId.toInteger());
+            ps.setString(4, key);
+            return ps.executeUpdate() == 1;
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to complete idempotency key '" + key + "' of account " + accountId + "; " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void release(AccountId accountId, String key) {
+        String sql = "delete from outbox_idempotency_key where account_id = ? and idempotency_key = ? and msg_no is null";
+        try {
+            PreparedStatement ps = jdbcTxManager.getConnection().prepareStatement(sql);
+            ps.setInt(1, accountId.toInteger());
+            ps.setString(2, key);
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to release idempotency key '" + key + "' of account " + accountId + "; " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public IdempotencyKey find(AccountId accountId, String key) {
+        String sql = "select msg_no, request_digest, created_ts from outbox_idempotency_key where account_id = ? and idempotency_key = ?";
+        try {
+            PreparedStatement ps = jdbcTxManager.getConnection().prepareStatement(sql);
+            ps.setInt(1, accountId.toInteger());
+            ps.setString(2, key);
+            ResultSet rs = ps.executeQuery();
+            if (!rs.next()) {
+                return null;
+            }
+            long msgNo = rs.getLong("msg_no");
+            MessageNumber messageNumber = rs.wasNull() ? null : MessageNumber.of(msgNo);
+            return new IdempotencyKey(accountId, key, messageNumber, rs.getString("request_digest"), new Date(rs.getTimestamp("created_ts").getTime()));
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to find idempotency key '" + key + "' of account " + accountId + "; " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public int purge(Date expiredBefore) {
+        String sql = "delete from outbox_idempotency_key where created_ts < ?";
+        try {
+            PreparedStatement ps = jdbcTxManager.getConnection().prepareStatement(sql);
+            ps.setTimestamp(1, new Timestamp(expiredBefore.getTime()));
+            return ps.executeUpdate();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to purge idempotency keys created before " + expiredBefore + "; " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * SQL state class 23 denotes integrity constraint violations, e.g. duplicate primary keys.
+     */
+    static boolean isIntegrityConstraintViolation(SQLException e) {
+        return e instanceof SQLIntegrityConstraintViolationException || (e.getSQLState() != null && e.getSQLState().startsWith("23"));
+    }
+}
@@ -25,38 +25,54 @@ package no.sr.ringo.persistence.jdbc;
 import no.difi.oxalis.api.model.TransmissionIdentifier;
 import no.difi.vefa.peppol.common.model.*;
 import no.sr.ringo.account.AccountId;
+import no.sr.ringo.config.RingoConfigProperty;
 import no.sr.ringo.message.*;
+import no.sr.ringo.metrics.jfr.EventEmitter;
+import no.sr.ringo.metrics.jfr.FlightRecorderSupport;
 import no.sr.ringo.peppol.PeppolChannelId;
 import no.sr.ringo.peppol.PeppolHeader;
 import no.sr.ringo.persistence.file.ArtifactPathComputer;
 import no.sr.ringo.persistence.file.ArtifactType;
+import no.sr.ringo.persistence.file.ContentAddressedPayloadStore;
+import no.sr.ringo.persistence.file.DirectoryCache;
+import no.sr.ringo.persistence.file.PayloadCache;
+import no.sr.ringo.persistence.file.PayloadWriter;
 import no.sr.ringo.persistence.guice.jdbc.JdbcTxManager;
 import no.sr.ringo.persistence.guice.jdbc.Repository;
+import no.sr.ringo.persistence.jdbc.platform.DbmsPlatformFactory;
+import no.sr.ringo.persistence.webhook.WebhookRepository;
 import no.sr.ringo.transport.TransferDirection;
+import no.sr.ringo.xml.XmlPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
 
 import javax.inject.Inject;
-import javax.xml.transform.Transformer;
+import javax.inject.Named;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Writer;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.sql.*;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
@@ -71,17 +87,46 @@ public class MessageRepositoryH2Impl implements MessageRepository {
 
     private static final Logger log = LoggerFactory.getLogger(MessageRepositoryH2Impl.class);
 
+    // The change sequence number is drawn explicitly, before the msg_no, as H2 provides the value last drawn
+    // from any sequence as the generated key
+    //                                                                          1           2           3       4       5            6               7           8           9           10          11          12               13
+    private static final String INSERT_INTO_MESSAGE_SQL = "insert into message (account_id, direction, sender, receiver, channel, message_uuid, document_id, process_id, payload_url, received, delivered, transmission_id, payload_digest, change_seq ) "
+            + " values(?,?,?,?,?,?,?,?,?,?,?,?,?, next value for message_change_seq)";
+
+    /** Maximum number of messages inserted by a single JDBC batch */
+    static final int INSERT_BATCH_SIZE = 100;
+
     private final JdbcTxManager jdbcTxManager;
     private final ArtifactPathComputer artifactPathComputer;
+    private final ContentAddressedPayloadStore contentAddressedPayloadStore;
+    private final DirectoryCache directoryCache;
+    private final PayloadWriter payloadWriter;
+    private final PayloadCache payloadCache;
+    private final InboxNotifier inboxNotifier;
+    private final WebhookRepository webhookRepository;
+    private final AccountChangeVersions accountChangeVersions;
+    private final boolean deduplicatePayloads;
 
 
     /**
      * This constructor is required for the META-INF/services idiom
      */
     @Inject
-    public MessageRepositoryH2Impl(JdbcTxManager jdbcTxManager, ArtifactPathComputer artifactPathComputer) {
+    public MessageRepositoryH2Impl(JdbcTxManager jdbcTxManager, ArtifactPathComputer artifactPathComputer,
+                                   ContentAddressedPayloadStore contentAddressedPayloadStore, DirectoryCache directoryCache,
+                                   PayloadWriter payloadWriter, PayloadCache payloadCache, InboxNotifier inboxNotifier,
+                                   WebhookRepository webhookRepository, AccountChangeVersions accountChangeVersions,
+                                   @Named(RingoConfigProperty.PAYLOAD_DEDUPLICATION) String deduplicatePayloads) {
         this.jdbcTxManager = jdbcTxManager;
         this.artifactPathComputer = artifactPathComputer;
+        this.contentAddressedPayloadStore = contentAddressedPayloadStore;
+        this.directoryCache = directoryCache;
+        this.payloadWriter = payloadWriter;
+        this.payloadCache = payloadCache;
+        this.inboxNotifier = inboxNotifier;
+        this.webhookRepository = webhookRepository;
+        this.accountChangeVersions = accountChangeVersions;
+        this.deduplicatePayloads = Boolean.valueOf(deduplicatePayloads);
     }
 
 
@@ -98,11 +143,16 @@ public class MessageRepositoryH2Impl implements MessageRepository {
             throw new IllegalArgumentException("Outbound messages from back-end must have account id");
         }
 
+        if (deduplicatePayloads) {
+            ContentAddressedPayloadStore.StoredPayload storedPayload = contentAddressedPayloadStore.store(payloadInputStream);
+            return createMetaDataEntry(transmissionMetaData, storedPayload);
+        }
+
         ArtifactPathComputer.FileRepoKey fileRepoKey = fileRepoKeyFrom(transmissionMetaData);
 
         Path documentPath = persistArtifact(ArtifactType.PAYLOAD, payloadInputStream, fileRepoKey);
 
-        return createMetaDataEntry(transmissionMetaData, documentPath.toUri());
+        return createMetaDataEntry(transmissionMetaData, documentPath.toUri(), null);
     }
 
     @Override
@@ -111,11 +161,137 @@ public class MessageRepositoryH2Impl implements MessageRepository {
         if (transmissionMetaData.getAccountId() == null) {
             throw new IllegalArgumentException("Outbound messages from back-end must have account id");
         }
+
+        if (deduplicatePayloads) {
+            ContentAddressedPayloadStore.StoredPayload storedPayload = contentAddressedPayloadStore.store(payloadDocument);
+            return createMetaDataEntry(transmissionMetaData, storedPayload);
+        }
+
         ArtifactPathComputer.FileRepoKey fileRepoKey = fileRepoKeyFrom(transmissionMetaData);
 
         Path documentPath = persistArtifactFromDocument(ArtifactType.PAYLOAD, payloadDocument, fileRepoKey);
 
-        return createMetaDataEntry(transmissionMetaData, documentPath.toUri());
+        return createMetaDataEntry(transmissionMetaData, documentPath.toUri(), null);
+    }
+
+
+    @Override
+    public Long saveOutboundMessage(TransmissionMetaData transmissionMetaData, Path spooledPayload) {
+
+        if (transmissionMetaData.getAccountId() == null) {
+            throw new IllegalArgumentException("Outbound messages from back-end must have account id");
+        }
+
+        if (deduplicatePayloads) {
+            return createMetaDataEntry(transmissionMetaData, storeSpooledPayload(spooledPayload));
+        }
+
+        ArtifactPathComputer.FileRepoKey fileRepoKey = fileRepoKeyFrom(transmissionMetaData);
+
+        Path documentPath = moveArtifact(ArtifactType.PAYLOAD, spooledPayload, fileRepoKey);
+
+        return createMetaDataEntry(transmissionMetaData, documentPath.toUri(), null);
+    }
+
+    @Override
+    public List<Long> saveOutboundMessages(List<? extends TransmissionMetaData> transmissionMetaData, List<Path> spooledPayloads) {
+
+        if (transmissionMetaData.size() != spooledPayloads.size()) {
+            throw new IllegalArgumentException("Every outbound message requires a spooled payload");
+        }
+        for (TransmissionMetaData tmd : transmissionMetaData) {
+            if (tmd.getAccountId() == null) {
+                throw new IllegalArgumentException("Outbound messages from back-end must have account id");
+            }
+        }
+
+        List<Long> messageNumbers = new ArrayList<>(transmissionMetaData.size());
+        for (int start = 0; start < transmissionMetaData.size(); start += INSERT_BATCH_SIZE) {
+            int end = Math.min(start + INSERT_BATCH_SIZE, transmissionMetaData.size());
+            messageNumbers.addAll(createMetaDataEntries(transmissionMetaData.subList(start, end), spooledPayloads.subList(start, end)));
+        }
+        return messageNumbers;
+    }
+
+    /**
+     * Moves the payloads into place and inserts the meta data of the messages in a single JDBC batch.
+     * <p>
+     * The message numbers are looked up by the reception ids afterwards, as the keys generated by a batch are not
+     * reliably provided by every driver.
+     */
+    private List<Long> createMetaDataEntries(List<? extends TransmissionMetaData> transmissionMetaData, List<Path> spooledPayloads) {
+        List<URI> payloadUrls = new ArrayList<>(transmissionMetaData.size());
+        List<String> payloadDigests = new ArrayList<>(transmissionMetaData.size());
+        for (int i = 0; i < transmissionMetaData.size(); i++) {
+            if (deduplicatePayloads) {
+                ContentAddressedPayloadStore.StoredPayload storedPayload = storeSpooledPayload(spooledPayloads.get(i));
+                URI payloadUrl = storedPayload.getPath().toUri();
+                registerPayload(storedPayload.getDigest(), payloadUrl, storedPayload.getSize());
+                payloadUrls.add(payloadUrl);
+                payloadDigests.add(storedPayload.getDigest());
+            } else {
+                Path documentPath = moveArtifact(ArtifactType.PAYLOAD, spooledPayloads.get(i), fileRepoKeyFrom(transmissionMetaData.get(i)));
+                payloadUrls.add(documentPath.toUri());
+                payloadDigests.add(null);
+            }
+        }
+
+        long start = System.nanoTime();
+        Connection connection = jdbcTxManager.getConnection();
+        try {
+            EventEmitter.RepositoryCall insertEvent = FlightRecorderSupport.emitter().beginRepositoryCall();
+            try (PreparedStatement insertStatement = connection.prepareStatement(INSERT_INTO_MESSAGE_SQL)) {
+                for (int i = 0; i < transmissionMetaData.size(); i++) {
+                    bindMetaData(insertStatement, transmissionMetaData.get(i), payloadUrls.get(i), payloadDigests.get(i));
+                    insertStatement.addBatch();
+                }
+                insertStatement.executeBatch();
+            }
+            insertEvent.commit("message.insertBatch", transmissionMetaData.size());
+
+            StringBuilder sql = new StringBuilder("select msg_no, message_uuid from message where direction = ? and message_uuid in (");
+            for (int i = 0; i < transmissionMetaData.size(); i++) {
+                sql.append(i == 0 ? "?" : ",?");
+            }
+            sql.append(")");
+
+            Map<String, Long> messageNumbers = new HashMap<>();
+            EventEmitter.RepositoryCall selectEvent = FlightRecorderSupport.emitter().beginRepositoryCall();
+            try (PreparedStatement selectStatement = connection.prepareStatement(sql.toString())) {
+                selectStatement.setString(1, TransferDirection.OUT.name());
+                for (int i = 0; i < transmissionMetaData.size(); i++) {
+                    selectStatement.setString(i + 2, transmissionMetaData.get(i).getReceptionId().stringValue());
+                }
+                try (ResultSet rs = selectStatement.executeQuery()) {
+                    while (rs.next()) {
+                        messageNumbers.put(rs.getString("message_uuid"), rs.getLong("msg_no"));
+                    }
+                }
+            }
+            selectEvent.commit("message.findMsgNoByReceptionIds", messageNumbers.size());
+
+            List<Long> result = new ArrayList<>(transmissionMetaData.size());
+            Set<AccountId> accountIds = new HashSet<>();
+            for (TransmissionMetaData tmd : transmissionMetaData) {
+                result.add(messageNumbers.get(tmd.getReceptionId().stringValue()));
+                accountIds.add(tmd.getAccountId());
+            }
+            for (AccountId accountId : accountIds) {
+                jdbcTxManager.afterCommit(() -> accountChangeVersions.changed(accountId));
+            }
+
+            log.debug("Creating " + transmissionMetaData.size() + " meta data entries took " + TimeUnit.MILLISECONDS.convert(System.nanoTime() - start, TimeUnit.NANOSECONDS) + "ms");
+            return result;
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to insert " + transmissionMetaData.size() + " entries into MESSAGE; " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Stores a spooled payload in the content addressed store, moving it into place unless already present.
+     */
+    private ContentAddressedPayloadStore.StoredPayload storeSpooledPayload(Path spooledPayload) {
+        return contentAddressedPayloadStore.store(spooledPayload);
     }
 
 
@@ -135,9 +311,19 @@ public class MessageRepositoryH2Impl implements MessageRepository {
         }
         ArtifactPathComputer.FileRepoKey fileRepositoryMetaData = fileRepoKeyFrom(mmd.getReceptionId(), no.sr.ringo.transport.TransferDirection.IN, mmd.getPeppolHeader().getSender(), mmd.getPeppolHeader().getReceiver(), mmd.getReceived());
 
-        // Saves the payload to the file store
-        Path documentPath = persistArtifact(ArtifactType.PAYLOAD, payloadInputStream, fileRepositoryMetaData);
-        URI payloadUrl = documentPath.toUri();
+        // Saves the payload to the file store, capturing a copy for the cache as it is likely to be downloaded shortly
+        PayloadCache.CapturingInputStream capturingInputStream = payloadCache.capture(payloadInputStream);
+        ContentAddressedPayloadStore.StoredPayload storedPayload = null;
+        URI payloadUrl;
+        if (deduplicatePayloads) {
+            storedPayload = contentAddressedPayloadStore.store(capturingInputStream);
+            payloadUrl = storedPayload.getPath().toUri();
+        } else {
+            Path documentPath = persistArtifact(ArtifactType.PAYLOAD, capturingInputStream, fileRepositoryMetaData);
+            payloadUrl = documentPath.toUri();
+        }
+        // Only payloads of committed messages are cached, a rolled back message will never be downloaded
+        jdbcTxManager.afterCommit(() -> payloadCache.put(payloadUrl, capturingInputStream));
 
         // Locates the account for which the received message should be attached to.
         AccountId account = srAccountIdForReceiver(mmd.getPeppolHeader().getReceiver());
@@ -152,7 +338,15 @@ public class MessageRepositoryH2Impl implements MessageRepository {
             messageMetaData.setAccountId(account);
         }
 
-        return createMetaDataEntry(mmd, payloadUrl);
+        Long msgNo = storedPayload != null ? createMetaDataEntry(mmd, storedPayload) : createMetaDataEntry(mmd, payloadUrl, null);
+
+        if (account != null) {
+            // Schedules a push to the webhook of the account, if any
+            webhookRepository.enqueueDelivery(account, MessageNumber.of(msgNo));
+            // Wakes up clients of the account waiting for new messages, once the message is visible to them
+            jdbcTxManager.afterCommit(() -> inboxNotifier.inboundMessageSaved(account, MessageNumber.of(msgNo)));
+        }
+        return msgNo;
     }
 
 
@@ -183,6 +377,7 @@ public class MessageRepositoryH2Impl implements MessageRepository {
         Connection connection = jdbcTxManager.getConnection();
 
         try {
+            EventEmitter.RepositoryCall event = FlightRecorderSupport.emitter().beginRepositoryCall();
             PreparedStatement preparedStatement = connection.prepareStatement(sql);
             preparedStatement.setLong(1, msgNo);
 
@@ -190,6 +385,7 @@ public class MessageRepositoryH2Impl implements MessageRepository {
             ResultSet rs = preparedStatement.executeQuery();
 
             List<TransmissionMetaData> MessageMetaDataList = messageMetaDataFrom(rs);
+            event.commit("message.findByMsgNo", MessageMetaDataList.size());
 
             if (MessageMetaDataList.size() == 1) {
                 result = MessageMetaDataList.get(0);
@@ -228,11 +424,13 @@ public class MessageRepositoryH2Impl implements MessageRepository {
         String sql = "select * from message where message_uuid=?";
         Connection con = jdbcTxManager.getConnection();
         try {
+            EventEmitter.RepositoryCall event = FlightRecorderSupport.emitter().beginRepositoryCall();
             PreparedStatement ps = con.prepareStatement(sql);
             ps.setString(1, receptionId.stringValue());
             ResultSet rs = ps.executeQuery();
 
             final List<TransmissionMetaData> transmissionMetaDataList = messageMetaDataFrom(rs);
+            event.commit("message.findByReceptionId", transmissionMetaDataList.size());
 
 
             return transmissionMetaDataList;
@@ -295,6 +493,7 @@ public class MessageRepositoryH2Impl implements MessageRepository {
             final URI payload_url = URI.create(rs.getString("payload_url"));
 
             String native_evidence_url = rs.getString("evidence_url");
+            final String payload_digest = rs.getString("payload_digest");
 
 
             final MessageMetaDataImpl mmd = new MessageMetaDataImpl();
@@ -322,6 +521,7 @@ public class MessageRepositoryH2Impl implements MessageRepository {
             }
 
             mmd.setPayloadUri(payload_url);
+            mmd.setPayloadDigest(payload_digest);
             if (native_evidence_url != null) {
                 try {
                     mmd.setEvidenceUri(new URI(native_evidence_url));
@@ -342,16 +542,39 @@ public class MessageRepositoryH2Impl implements MessageRepository {
     }
 */
 
-    private Long createMetaDataEntry(TransmissionMetaData tmd, URI payloadUrl) {
+    /**
+     * Creates the meta data entry for a payload held in the content addressed store, registering the stored payload
+     * within the same transaction.
+     */
+    private Long createMetaDataEntry(TransmissionMetaData tmd, ContentAddressedPayloadStore.StoredPayload storedPayload) {
+        URI payloadUrl = storedPayload.getPath().toUri();
+        registerPayload(storedPayload.getDigest(), payloadUrl, storedPayload.getSize());
+        return createMetaDataEntry(tmd, payloadUrl, storedPayload.getDigest());
+    }
+
+    /**
+     * Registers the given content addressed payload, unless already registered. The payload is referenced by the
+     * messages having its digest as payload_digest.
+     */
+    void registerPayload(String digest, URI payloadUrl, long size) {
+        Connection connection = jdbcTxManager.getConnection();
+        String sql = DbmsPlatformFactory.platformFor(connection).getInsertIfAbsentStatement("payload_blob", "digest", "payload_url", "size");
+        EventEmitter.RepositoryCall event = FlightRecorderSupport.emitter().beginRepositoryCall();
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            ps.setString(1, digest);
+            ps.setString(2, payloadUrl.toString());
+            ps.setLong(3, size);
+            event.commit("payloadBlob.insertIfAbsent", ps.executeUpdate());
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to register payload " + digest + "; " + e.getMessage(), e);
+        }
+    }
+
+    private Long createMetaDataEntry(TransmissionMetaData tmd, URI payloadUrl, String payloadDigest) {
         if (tmd == null) {
             throw new IllegalArgumentException("MessageMetaData required argument");
         }
 
-        //
-        //                                                            1           2           3       4       5            6               7           8           9           10          11          12
-        final String INSERT_INTO_MESSAGE_SQL = "insert into message (account_id, direction, sender, receiver, channel, message_uuid, document_id, process_id, payload_url, received, delivered, transmission_id ) "
-                + " values(?,?,?,?,?,?,?,?,?,?,?,?)";
-
         Connection connection = null;
         try {
             long start = System.nanoTime();
@@ -361,38 +584,11 @@ public class MessageRepositoryH2Impl implements MessageRepository {
 
             log.debug("Using JDBC URL:" + connection.getMetaData().getURL());
 
+            EventEmitter.RepositoryCall event = FlightRecorderSupport.emitter().beginRepositoryCall();
             PreparedStatement insertStatement = connection.prepareStatement(INSERT_INTO_MESSAGE_SQL, Statement.RETURN_GENERATED_KEYS);
-            if (tmd.getAccountId() == null)
-                insertStatement.setNull(1, Types.INTEGER);
-            else
-                insertStatement.setInt(1, tmd.getAccountId().toInteger());
-
-            insertStatement.setString(2, tmd.getTransferDirection().name());
-            insertStatement.setString(3, tmd.getPeppolHeader().getSender() != null ? tmd.getPeppolHeader().getSender().getIdentifier() : null);
-            insertStatement.setString(4, tmd.getPeppolHeader().getReceiver() != null ? tmd.getPeppolHeader().getReceiver().getIdentifier() : null);
-            if (tmd.getPeppolHeader().getPeppolChannelId() != null)
-                insertStatement.setString(5, tmd.getPeppolHeader().getPeppolChannelId().stringValue());
-            else
-                insertStatement.setString(5, null);
-
-            insertStatement.setString(6, tmd.getReceptionId().stringValue());     // Unique id of message not to be mixed up with transmission id
-            insertStatement.setString(7, tmd.getPeppolHeader().getPeppolDocumentTypeId().getIdentifier());
-            insertStatement.setString(8, tmd.getPeppolHeader().getProcessIdentifier() != null ? tmd.getPeppolHeader().getProcessIdentifier().getIdentifier() : (null));   // Optional
-            insertStatement.setString(9, payloadUrl.toString());
-
-            insertStatement.setTimestamp(10, Timestamp.valueOf(LocalDateTime.ofInstant(tmd.getReceived().toInstant(), ZoneId.systemDefault())));
-
-            if (tmd.getDelivered() != null) {
-                insertStatement.setTimestamp(11, Timestamp.valueOf(LocalDateTime.ofInstant(tmd.getDelivered().toInstant(), ZoneId.systemDefault())));
-            } else
-                insertStatement.setTimestamp(11, null);
-
-            if (tmd.getTransmissionId() != null) {
-                insertStatement.setString(12, tmd.getTransmissionId().toString());
-            } else
-                insertStatement.setString(12, null);
-
-            insertStatement.executeUpdate();
+            bindMetaData(insertStatement, tmd, payloadUrl, payloadDigest);
+
+            event.commit("message.insert", insertStatement.executeUpdate());
 
             long generatedKey = 0;
 
@@ -413,6 +609,10 @@ public class MessageRepositoryH2Impl implements MessageRepository {
             }
 
             insertStatement.close();
+            if (tmd.getAccountId() != null) {
+                AccountId accountId = tmd.getAccountId();
+                jdbcTxManager.afterCommit(() -> accountChangeVersions.changed(accountId));
+            }
             long elapsed = System.nanoTime() - start;
 
             log.debug("Creating meta data entry took " + TimeUnit.MILLISECONDS.convert(elapsed, TimeUnit.NANOSECONDS) + "ms");
@@ -426,6 +626,40 @@ public class MessageRepositoryH2Impl implements MessageRepository {
         }
     }
 
+    private static void bindMetaData(PreparedStatement insertStatement, TransmissionMetaData tmd, URI payloadUrl, String payloadDigest) throws SQLException {
+        if (tmd.getAccountId() == null)
+            insertStatement.setNull(1, Types.INTEGER);
+        else
+            insertStatement.setInt(1, tmd.getAccountId().toInteger());
+
+        insertStatement.setString(2, tmd.getTransferDirection().name());
+        insertStatement.setString(3, tmd.getPeppolHeader().getSender() != null ? tmd.getPeppolHeader().getSender().getIdentifier() : null);
+        insertStatement.setString(4, tmd.getPeppolHeader().getReceiver() != null ? tmd.getPeppolHeader().getReceiver().getIdentifier() : null);
+        if (tmd.getPeppolHeader().getPeppolChannelId() != null)
+            insertStatement.setString(5, tmd.getPeppolHeader().getPeppolChannelId().stringValue());
+        else
+            insertStatement.setString(5, null);
+
+        insertStatement.setString(6, tmd.getReceptionId().stringValue());     // Unique id of message not to be mixed up with transmission id
+        insertStatement.setString(7, tmd.getPeppolHeader().getPeppolDocumentTypeId().getIdentifier());
+        insertStatement.setString(8, tmd.getPeppolHeader().getProcessIdentifier() != null ? tmd.getPeppolHeader().getProcessIdentifier().getIdentifier() : (null));   // Optional
+        insertStatement.setString(9, payloadUrl.toString());
+
+        insertStatement.setTimestamp(10, Timestamp.valueOf(LocalDateTime.ofInstant(tmd.getReceived().toInstant(), ZoneId.systemDefault())));
+
+        if (tmd.getDelivered() != null) {
+            insertStatement.setTimestamp(11, Timestamp.valueOf(LocalDateTime.ofInstant(tmd.getDelivered().toInstant(), ZoneId.systemDefault())));
+        } else
+            insertStatement.setTimestamp(11, null);
+
+        if (tmd.getTransmissionId() != null) {
+            insertStatement.setString(12, tmd.getTransmissionId().toString());
+        } else
+            insertStatement.setString(12, null);
+
+        insertStatement.setString(13, payloadDigest);
+    }
+
 
     /**
      * Persists a payload represented as a W3C Document to the file system based upon the meta data
@@ -442,12 +676,13 @@ public class MessageRepositoryH2Impl implements MessageRepository {
 
         DOMSource domSource = new DOMSource(payloadDocument);
 
-        TransformerFactory transformerFactory = TransformerFactory.newInstance();
-        Transformer transformer = null;
+        EventEmitter.PayloadIo event = FlightRecorderSupport.emitter().beginPayloadIo();
         try {
-            transformer = transformerFactory.newTransformer();
-            StreamResult streamResult = new StreamResult(Files.newBufferedWriter(path, Charset.forName("UTF-8")));
-            transformer.transform(domSource, streamResult);
+            try (Writer writer = Files.newBufferedWriter(path, Charset.forName("UTF-8"))) {
+                XmlPool.transform(domSource, new StreamResult(writer));
+            }
+            payloadWriter.makeDurable(path);
+            event.commit(EventEmitter.PayloadIo.WRITE, EventEmitter.PayloadIo.FILE, event.shouldCommit() ? Files.size(path) : 0);
         } catch (TransformerException | IOException e) {
             throw new IllegalStateException("Unable to write xml document to " + path + ". " + e.getMessage(), e);
         }
@@ -458,8 +693,11 @@ public class MessageRepositoryH2Impl implements MessageRepository {
 
         long start = System.nanoTime();
         Path documentPath = createDirectoryForArtifact(artifactType, fileRepoKey);
+        EventEmitter.PayloadIo event = FlightRecorderSupport.emitter().beginPayloadIo();
         try {
-            Files.copy(inputStream, documentPath);
+            // Returns once the artifact is durable according to the configured fsync policy
+            long bytes = payloadWriter.write(inputStream, documentPath);
+            event.commit(EventEmitter.PayloadIo.WRITE, EventEmitter.PayloadIo.FILE, bytes);
             long elapsed = System.nanoTime() - start;
             log.debug(artifactType.getDescription() + " copied to " + documentPath + ", took " + TimeUnit.MILLISECONDS.convert(elapsed, TimeUnit.NANOSECONDS) + "ms");
         } catch (Exception e) {
@@ -468,6 +706,38 @@ public class MessageRepositoryH2Impl implements MessageRepository {
         return documentPath;
     }
 
+    /**
+     * Moves an artifact already written to the file system into the location computed from the meta data.
+     */
+    Path moveArtifact(ArtifactType artifactType, Path source, ArtifactPathComputer.FileRepoKey fileRepoKey) {
+        Path documentPath = createDirectoryForArtifact(artifactType, fileRepoKey);
+        EventEmitter.PayloadIo event = FlightRecorderSupport.emitter().beginPayloadIo();
+        try {
+            try {
+                Files.move(source, documentPath, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                // Source and target reside in different file systems
+                Files.move(source, documentPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+            // No message refers to the payload unless the transaction inserting it commits
+            jdbcTxManager.afterRollback(() -> deleteQuietly(documentPath));
+            payloadWriter.makeDurable(documentPath);
+            event.commit(EventEmitter.PayloadIo.MOVE, EventEmitter.PayloadIo.FILE, event.shouldCommit() ? Files.size(documentPath) : 0);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to move " + source + " to " + documentPath + "; " + e.getMessage(), e);
+        }
+        log.debug(artifactType.getDescription() + " moved to " + documentPath);
+        return documentPath;
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Unable to remove " + path + "; " + e.getMessage(), e);
+        }
+    }
+
     Path createDirectoryForArtifact(ArtifactType artifactType, ArtifactPathComputer.FileRepoKey fileRepoKey) {
         Function<ArtifactPathComputer.FileRepoKey, Path> function = getFileRepoMetaDataPathFunction(artifactType);
         Path path = function.apply(fileRepoKey);
@@ -504,24 +774,35 @@ public class MessageRepositoryH2Impl implements MessageRepository {
 
         String sql = "update message set "
                 + ArtifactType.EVIDENCE.getColumnName() + "=?, " // p1
-                + dateColumnName + "=? " // p2
+                + dateColumnName + "=?, " // p2
+                + "change_seq = next value for message_change_seq"
                 + " where message_uuid = ? and direction=?"; // p3 & p4
 
         log.debug("Updating meta data: " + sql);
         Connection con = null;
         try {
             con = jdbcTxManager.getConnection();
+            EventEmitter.RepositoryCall event = FlightRecorderSupport.emitter().beginRepositoryCall();
             PreparedStatement ps = con.prepareStatement(sql);
             ps.setString(1, nativeEvidencePath.toUri().toString());
             ps.setTimestamp(2, new Timestamp(new java.util.Date().getTime()));
             ps.setString(3, receptionId.stringValue());
             ps.setString(4, transferDirection.name());
             int i = ps.executeUpdate();
+            event.commit("message.updateEvidence", i);
             if (i != 1) {
                 throw new IllegalStateException("Unable to update message table for message_uuid=" + receptionId);
             }
             con.commit();
 
+            PreparedStatement accountStatement = con.prepareStatement("select account_id from message where message_uuid = ? and direction = ?");
+            accountStatement.setString(1, receptionId.stringValue());
+            accountStatement.setString(2, transferDirection.name());
+            ResultSet rs = accountStatement.executeQuery();
+            if (rs.next() && rs.getObject(1) != null) {
+                accountChangeVersions.changed(new AccountId(rs.getInt(1)));
+            }
+
         } catch (SQLException e) {
             log.error("Unable to update message table." + e.getMessage(), e);
             throw new IllegalStateException("Unable to update database for storing genric and native evidene for message " + receptionId, e);
@@ -544,14 +825,7 @@ public class MessageRepositoryH2Impl implements MessageRepository {
     }
 
     private void verifyAndCreateDirectories(Path documentPath) {
-        Path directory = documentPath.getParent();
-        if (Files.notExists(directory) || Files.isDirectory(directory)) {
-            try {
-                Files.createDirectories(directory);
-            } catch (IOException e) {
-                throw new IllegalStateException("Unable to of directories for path " + directory);
-            }
-        }
+        directoryCache.createDirectories(documentPath.getParent());
     }
 
     // Package private to ease testing
@@ -570,10 +844,13 @@ public class MessageRepositoryH2Impl implements MessageRepository {
         String sql = "select account_id from account_receiver where participant_id=?";
         try {
             con = jdbcTxManager.getConnection();
+            EventEmitter.RepositoryCall event = FlightRecorderSupport.emitter().beginRepositoryCall();
             PreparedStatement ps = con.prepareStatement(sql);
             ps.setString(1, participantId.getIdentifier());
             ResultSet rs = ps.executeQuery();
-            if (rs.next()) {
+            boolean found = rs.next();
+            event.commit("accountReceiver.findByParticipantId", found ? 1 : 0);
+            if (found) {
                 accountId = rs.getInt(1);
             } else {
                 return null;
@@ -2,12 +2,22 @@ package no.sr.ringo.persistence.jdbc;
 
 import com.google.inject.AbstractModule;
 import com.google.inject.Singleton;
+import com.google.inject.matcher.Matchers;
 import no.sr.ringo.account.AccountRepository;
 import no.sr.ringo.message.MessageRepository;
+import no.sr.ringo.metrics.TimingMethodInterceptor;
 import no.sr.ringo.persistence.file.ArtifactPathComputer;
+import no.sr.ringo.persistence.file.ArtifactReader;
+import no.sr.ringo.persistence.file.ContentAddressedPayloadStore;
+import no.sr.ringo.persistence.file.PayloadWriter;
 import no.sr.ringo.persistence.guice.AopJdbcTxManagerModule;
+import no.sr.ringo.persistence.guice.jdbc.Repository;
+import no.sr.ringo.persistence.idempotency.IdempotencyKeyRepository;
+import no.sr.ringo.persistence.idempotency.IdempotencyKeyRepositoryImpl;
 import no.sr.ringo.persistence.queue.QueueRepository;
 import no.sr.ringo.persistence.queue.QueueRepositoryImpl;
+import no.sr.ringo.persistence.webhook.WebhookRepository;
+import no.sr.ringo.persistence.webhook.WebhookRepositoryImpl;
 
 /**
  * Provides the classes needed for persistence.
@@ -20,14 +30,31 @@ import no.sr.ringo.persistence.queue.QueueRepositoryImpl;
  *         Time: 15.17
  */
 public class RingoRepositoryModule extends AbstractModule {
+
+    public static final String REPOSITORY_SECONDS = "ringo_repository_seconds";
+    public static final String PAYLOAD_IO_SECONDS = "ringo_payload_io_seconds";
+
     @Override
     protected void configure() {
 
+        // Times the repository methods, including the wait for a connection, hence bound ahead of the JDBC Tx stuff
+        TimingMethodInterceptor repositoryTimingInterceptor = new TimingMethodInterceptor(REPOSITORY_SECONDS, "Time spent in the methods of the repositories");
+        requestInjection(repositoryTimingInterceptor);
+        bindInterceptor(Matchers.annotatedWith(Repository.class), TimingMethodInterceptor.publicMethods(), repositoryTimingInterceptor);
+
+        // Times reading and writing of payloads
+        TimingMethodInterceptor payloadTimingInterceptor = new TimingMethodInterceptor(PAYLOAD_IO_SECONDS, "Time spent reading and writing payloads");
+        requestInjection(payloadTimingInterceptor);
+        bindInterceptor(Matchers.subclassesOf(ArtifactReader.class).or(Matchers.subclassesOf(PayloadWriter.class)).or(Matchers.subclassesOf(ContentAddressedPayloadStore.class)),
+                TimingMethodInterceptor.publicMethods(), payloadTimingInterceptor);
+
         // Binds the Guice JDBC Tx stuff
         binder().install(new AopJdbcTxManagerModule());
         bind(ArtifactPathComputer.class);
         bind(MessageRepository.class).to(MessageRepositoryH2Impl.class);
         bind(AccountRepository.class).to(AccountRepositoryImpl.class);
         bind(QueueRepository.class).to(QueueRepositoryImpl.class).in(Singleton.class);
+        bind(WebhookRepository.class).to(WebhookRepositoryImpl.class).in(Singleton.class);
+        bind(IdempotencyKeyRepository.class).to(IdempotencyKeyRepositoryImpl.class).in(Singleton.class);
     }
 }
@@ -18,6 +18,12 @@
 
 package no.sr.ringo.persistence.jdbc.platform;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
 /**
  * @author steinar
  *         Date: 06.11.2016
@@ -36,4 +42,50 @@ abstract class AbstractDbmsPlatform implements DbmsPlatform {
         return databaseProductName;
     }
 
+    /**
+     * Provides the SQL:2003 MERGE inserting the row unless the key is present, optionally with a table hint.
+     */
+    static String mergeIfAbsent(String table, String hint, String... columns) {
+        StringBuilder names = new StringBuilder();
+        StringBuilder parameters = new StringBuilder();
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            names.append(i > 0 ? ", " : "").append(columns[i]);
+            parameters.append(i > 0 ? ", ?" : "?");
+            values.append(i > 0 ? ", s." : "s.").append(columns[i]);
+        }
+        return "MERGE INTO " + table + (hint == null ? "" : " WITH (" + hint + ")") + " t USING (VALUES (" + parameters + ")) AS s (" + names + ")" +
+                " ON t." + columns[0] + " = s." + columns[0] +
+                " WHEN NOT MATCHED THEN INSERT (" + names + ") VALUES (" + values + ")";
+    }
+
+    /**
+     * Executes the statement providing the plan, e.g. EXPLAIN, and concatenates the rows of every result set, the
+     * columns separated by " | ".
+     */
+    static String queryPlan(Connection connection, String sql, List<Object> parameters) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            for (int i = 0; i < parameters.size(); i++) {
+                ps.setObject(i + 1, parameters.get(i));
+            }
+            StringBuilder plan = new StringBuilder();
+            boolean isResultSet = ps.execute();
+            while (isResultSet || ps.getUpdateCount() != -1) {
+                if (isResultSet) {
+                    try (ResultSet rs = ps.getResultSet()) {
+                        int columns = rs.getMetaData().getColumnCount();
+                        while (rs.next()) {
+                            for (int i = 1; i <= columns; i++) {
+                                plan.append(i > 1 ? " | " : "").append(rs.getString(i));
+                            }
+                            plan.append('\n');
+                        }
+                    }
+                }
+                isResultSet = ps.getMoreResults();
+            }
+            return plan.toString().trim();
+        }
+    }
+
 }
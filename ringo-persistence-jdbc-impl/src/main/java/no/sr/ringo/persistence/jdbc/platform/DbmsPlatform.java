@@ -18,6 +18,10 @@
 
 package no.sr.ringo.persistence.jdbc.platform;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
 /**
  * @author steinar
  *         Date: 06.11.2016
@@ -28,4 +32,25 @@ public interface DbmsPlatform {
     String getDatabaseProductName();
 
     String getLimitClause(int offset, int rowCount);
+
+    /**
+     * Provides a statement inserting a row unless the table already holds a row having the same key, which is left as
+     * is. Unlike a plain insert, whose duplicate key error aborts the transaction on some databases, the statement
+     * succeeds should a concurrent transaction have inserted the key.
+     *
+     * @param table the table
+     * @param columns the columns whose values are given as parameters, in order, the first being the primary key
+     */
+    String getInsertIfAbsentStatement(String table, String... columns);
+
+    /**
+     * Provides the execution plan of a query as chosen by the database, without executing the query.
+     *
+     * @param connection a connection of its own, not used by a transaction, as explaining changes the state of the
+     *                   session on some databases
+     * @param sql the query
+     * @param parameters the values of the parameters of the query, in order
+     * @return the plan as text, or null if the database provides no plan
+     */
+    String explain(Connection connection, String sql, List<Object> parameters) throws SQLException;
 }
@@ -18,6 +18,9 @@
 
 package no.sr.ringo.persistence.jdbc.platform;
 
+import java.sql.Connection;
+import java.util.List;
+
 /**
  * @author steinar
  *         Date: 06.11.2016
@@ -33,4 +36,14 @@ class GenericDbmsPlatform extends AbstractDbmsPlatform implements DbmsPlatform {
     public String getLimitClause(int offset, int rowCount) {
         return "";
     }
+
+    @Override
+    public String getInsertIfAbsentStatement(String table, String... columns) {
+        return mergeIfAbsent(table, null, columns);
+    }
+
+    @Override
+    public String explain(Connection connection, String sql, List<Object> parameters) {
+        return null;
+    }
 }
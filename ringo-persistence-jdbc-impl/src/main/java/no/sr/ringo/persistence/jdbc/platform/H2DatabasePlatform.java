@@ -18,6 +18,11 @@
 
 package no.sr.ringo.persistence.jdbc.platform;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * @author steinar
  *         Date: 06.11.2016
@@ -34,4 +39,17 @@ class H2DatabasePlatform extends AbstractDbmsPlatform implements DbmsPlatform {
     public String getLimitClause(int offset, int rowCount) {
         return "LIMIT " + rowCount + " OFFSET " + offset;
     }
+
+    /**
+     * H2 1.4 lacks the WHEN NOT MATCHED clause of MERGE, its own MERGE replaces the row having the key given.
+     */
+    @Override
+    public String getInsertIfAbsentStatement(String table, String... columns) {
+        return "MERGE INTO " + table + " (" + String.join(", ", columns) + ") KEY (" + columns[0] + ") VALUES (" + String.join(", ", Collections.nCopies(columns.length, "?")) + ")";
+    }
+
+    @Override
+    public String explain(Connection connection, String sql, List<Object> parameters) throws SQLException {
+        return queryPlan(connection, "EXPLAIN " + sql, parameters);
+    }
 }
@@ -18,6 +18,11 @@
 
 package no.sr.ringo.persistence.jdbc.platform;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
 /**
  * @author steinar
  *         Date: 06.11.2016
@@ -34,4 +39,34 @@ class MsSqlServerPlatform extends AbstractDbmsPlatform implements DbmsPlatform {
     public String getLimitClause(int offset, int rowCount) {
         return "OFFSET " + offset + " ROWS FETCH NEXT " + rowCount + " ROWS ONLY";
     }
+
+    /**
+     * The key range is held until the end of the transaction, preventing concurrent merges from both inserting.
+     */
+    @Override
+    public String getInsertIfAbsentStatement(String table, String... columns) {
+        return mergeIfAbsent(table, "HOLDLOCK", columns) + ";";
+    }
+
+    /**
+     * SQL Server has no EXPLAIN, the statements of the session provide their plans instead of being executed while
+     * SHOWPLAN_TEXT is on. Should switching it off fail, the connection is aborted rather than returned to the pool
+     * in that state.
+     */
+    @Override
+    public String explain(Connection connection, String sql, List<Object> parameters) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SET SHOWPLAN_TEXT ON");
+            try {
+                return queryPlan(connection, sql, parameters);
+            } finally {
+                try {
+                    statement.execute("SET SHOWPLAN_TEXT OFF");
+                } catch (SQLException e) {
+                    connection.abort(Runnable::run);
+                    throw e;
+                }
+            }
+        }
+    }
 }
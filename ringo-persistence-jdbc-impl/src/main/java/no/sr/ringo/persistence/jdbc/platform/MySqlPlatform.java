@@ -18,6 +18,11 @@
 
 package no.sr.ringo.persistence.jdbc.platform;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * @author steinar
  *         Date: 06.11.2016
@@ -33,4 +38,14 @@ package no.sr.ringo.persistence.jdbc.platform;
     public String getLimitClause(int offset, int rowCount) {
         return "LIMIT " + rowCount + " OFFSET " + offset;
     }
+
+    @Override
+    public String getInsertIfAbsentStatement(String table, String... columns) {
+        return "INSERT IGNORE INTO " + table + " (" + String.join(", ", columns) + ") VALUES (" + String.join(", ", Collections.nCopies(columns.length, "?")) + ")";
+    }
+
+    @Override
+    public String explain(Connection connection, String sql, List<Object> parameters) throws SQLException {
+        return queryPlan(connection, "EXPLAIN " + sql, parameters);
+    }
 }
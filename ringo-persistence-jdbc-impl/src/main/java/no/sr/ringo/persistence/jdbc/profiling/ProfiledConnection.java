@@ -0,0 +1,94 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package no.sr.ringo.persistence.jdbc.profiling;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Connection handing out statements timed by the {@link StatementProfiler}.
+ *
+ * Executions whose rows have not been read to the end are completed when the statement or the connection is closed.
+ */
+class ProfiledConnection implements InvocationHandler {
+
+    private final Connection connection;
+    private final StatementProfiler profiler;
+    /** The data source of the connection, not profiled */
+    private final DataSource dataSource;
+    private final List<ProfiledStatement> statements = new ArrayList<>();
+
+    private ProfiledConnection(Connection connection, StatementProfiler profiler, DataSource dataSource) {
+        this.connection = connection;
+        this.profiler = profiler;
+        this.dataSource = dataSource;
+    }
+
+    static Connection wrap(Connection connection, StatementProfiler profiler, DataSource dataSource) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                new ProfiledConnection(connection, profiler, dataSource));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if ("equals".equals(name) && args != null && args.length == 1) {
+            return proxy == args[0];
+        }
+        if ("close".equals(name)) {
+            for (ProfiledStatement statement : statements) {
+                statement.complete();
+            }
+            statements.clear();
+        }
+
+        Object result = StatementProfiler.invoke(connection, method, args);
+
+        if (result instanceof Statement && (name.startsWith("prepare") || "createStatement".equals(name))) {
+            String sql = name.startsWith("prepare") ? (String) args[0] : null;
+            ProfiledStatement statement = new ProfiledStatement((Statement) result, sql, this);
+            statements.add(statement);
+            return Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{method.getReturnType()}, statement);
+        }
+        return result;
+    }
+
+    StatementProfiler getProfiler() {
+        return profiler;
+    }
+
+    void completed(StatementProfiler.Execution execution) {
+        profiler.completed(execution, dataSource);
+    }
+
+    void closed(ProfiledStatement statement) {
+        statements.remove(statement);
+    }
+}
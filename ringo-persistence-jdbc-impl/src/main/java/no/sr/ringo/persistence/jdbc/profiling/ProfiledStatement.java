@@ -0,0 +1,180 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package no.sr.ringo.persistence.jdbc.profiling;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Statement timing its executions and capturing the parameters set, the rows of queries being counted as they are
+ * read from the result set.
+ */
+class ProfiledStatement implements InvocationHandler {
+
+    private final Statement statement;
+    private final ProfiledConnection connection;
+
+    /** SQL of prepared statements, null for plain statements */
+    private final String sql;
+    private final String normalizedSql;
+    private final String id;
+
+    private final TreeMap<Integer, Object> parameters = new TreeMap<>();
+    private StatementProfiler.Execution pending;
+
+    ProfiledStatement(Statement statement, String sql, ProfiledConnection connection) {
+        this.statement = statement;
+        this.connection = connection;
+        this.sql = sql;
+        this.normalizedSql = sql == null ? null : StatementProfiler.normalize(sql);
+        this.id = sql == null ? null : connection.getProfiler().statementId(normalizedSql);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if ("equals".equals(name) && args != null && args.length == 1) {
+            return proxy == args[0];
+        }
+        if (name.startsWith("execute")) {
+            return execute(method, args);
+        }
+        if (sql != null && name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+            parameters.put((Integer) args[0], "setNull".equals(name) ? null : args[1]);
+        } else if ("clearParameters".equals(name)) {
+            parameters.clear();
+        } else if ("close".equals(name)) {
+            complete();
+            connection.closed(this);
+        }
+
+        Object result = StatementProfiler.invoke(statement, method, args);
+
+        if ("getResultSet".equals(name) && result != null && pending != null) {
+            return profile((ResultSet) result, pending);
+        }
+        return result;
+    }
+
+    private Object execute(Method method, Object[] args) throws Throwable {
+        complete();
+        boolean prepared = args == null || args.length == 0 || !(args[0] instanceof String);
+        if (prepared && sql == null) {
+            // Batch of plain statements, having no single SQL
+            return StatementProfiler.invoke(statement, method, args);
+        }
+
+        long start = System.nanoTime();
+        Object result = StatementProfiler.invoke(statement, method, args);
+        long elapsedNanos = System.nanoTime() - start;
+
+        StatementProfiler.Execution execution;
+        if (prepared) {
+            execution = new StatementProfiler.Execution(id, sql, normalizedSql, parameterValues(), elapsedNanos);
+        } else {
+            String executedSql = (String) args[0];
+            String normalized = StatementProfiler.normalize(executedSql);
+            execution = new StatementProfiler.Execution(connection.getProfiler().statementId(normalized), executedSql,
+                    normalized, Collections.emptyList(), elapsedNanos);
+        }
+
+        if (result instanceof ResultSet) {
+            pending = execution;
+            return profile((ResultSet) result, execution);
+        }
+        if (Boolean.TRUE.equals(result)) {
+            // The result set is provided by getResultSet()
+            pending = execution;
+            return result;
+        }
+        execution.rows = rowsOf(result);
+        connection.completed(execution);
+        return result;
+    }
+
+    /**
+     * Completes the pending execution, if any.
+     */
+    void complete() {
+        if (pending != null) {
+            StatementProfiler.Execution execution = pending;
+            pending = null;
+            connection.completed(execution);
+        }
+    }
+
+    private ResultSet profile(ResultSet resultSet, StatementProfiler.Execution execution) {
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class}, (proxy, method, args) -> {
+            Object result = StatementProfiler.invoke(resultSet, method, args);
+            if ("next".equals(method.getName()) || "close".equals(method.getName())) {
+                if (Boolean.TRUE.equals(result)) {
+                    execution.rows++;
+                } else if (pending == execution) {
+                    complete();
+                }
+            }
+            return result;
+        });
+    }
+
+    private List<Object> parameterValues() {
+        List<Object> values = new ArrayList<>();
+        if (!parameters.isEmpty()) {
+            int last = parameters.lastKey();
+            for (int i = 1; i <= last; i++) {
+                values.add(parameters.get(i));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return the number of rows changed by an update or batch of updates
+     */
+    private long rowsOf(Object result) throws SQLException {
+        long rows = 0;
+        if (result instanceof Number) {
+            rows = ((Number) result).longValue();
+        } else if (result instanceof int[]) {
+            for (int count : (int[]) result) {
+                rows += Math.max(count, 0);
+            }
+        } else if (result instanceof long[]) {
+            for (long count : (long[]) result) {
+                rows += Math.max(count, 0);
+            }
+        } else if (Boolean.FALSE.equals(result)) {
+            rows = statement.getUpdateCount();
+        }
+        return Math.max(rows, 0);
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package no.sr.ringo.persistence.jdbc.profiling;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Formats the parameters of a statement for the log, masking the parameters of sensitive columns.
+ *
+ * The column of a parameter is told by the SQL, either by its position in the value list of an insert or by the
+ * column it is compared to, e.g. <code>password = ?</code>. As long as any columns are to be masked, parameters of
+ * unknown columns are masked as well, e.g. those passed to functions, as they might hold the values of masked columns.
+ */
+class SqlParameters {
+
+    static final String MASK = "***";
+
+    static final int MAX_LENGTH = 64;
+
+    private static final Pattern INSERT = Pattern.compile("(?is)\\s*insert\\s+into\\s+\\S+\\s*\\(([^)]*)\\)\\s*values\\s*\\((.*)\\)\\s*");
+
+    private static final Pattern COMPARED_COLUMN = Pattern.compile("(?i)([\\w.\"`\\[\\]]+)\\s*(?:=|<>|!=|<=|>=|<|>|\\s+like|\\s+in\\s*\\([?,\\s]*)\\s*$");
+
+    private SqlParameters() {
+    }
+
+    /**
+     * @return the parameters as e.g. <code>[1=42, 2='ringo', 3=***]</code>, or an empty string if there are none
+     */
+    static String format(String sql, List<Object> parameters, List<String> maskedColumns) {
+        if (parameters.isEmpty()) {
+            return "";
+        }
+        List<String> columns = columnsOf(sql);
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < parameters.size(); i++) {
+            String column = i < columns.size() ? columns.get(i) : null;
+            sb.append(i > 0 ? ", " : "").append(i + 1).append('=')
+                    .append(isMasked(column, maskedColumns) ? MASK : format(parameters.get(i)));
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * @return the column of every parameter of the statement, in order, null where the column is unknown
+     */
+    static List<String> columnsOf(String sql) {
+        List<String> columns = new ArrayList<>();
+        Matcher insert = INSERT.matcher(sql);
+        if (insert.matches()) {
+            String[] names = insert.group(1).split(",");
+            List<String> values = splitValues(insert.group(2));
+            for (int i = 0; i < values.size(); i++) {
+                int parameters = parameterIndexes(values.get(i)).size();
+                for (int j = 0; j < parameters; j++) {
+                    columns.add(i < names.length ? names[i].trim() : null);
+                }
+            }
+            return columns;
+        }
+        for (int index : parameterIndexes(sql)) {
+            Matcher compared = COMPARED_COLUMN.matcher(sql.substring(Math.max(0, index - 200), index));
+            columns.add(compared.find() ? compared.group(1) : null);
+        }
+        return columns;
+    }
+
+    static boolean isMasked(String column, List<String> maskedColumns) {
+        if (column == null) {
+            return !maskedColumns.isEmpty();
+        }
+        String name = column.toLowerCase(Locale.ROOT);
+        for (String masked : maskedColumns) {
+            if (name.contains(masked)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static String format(Object value) {
+        if (value == null) {
+            return "NULL";
+        }
+        if (value instanceof byte[]) {
+            return "<" + ((byte[]) value).length + " bytes>";
+        }
+        if (value instanceof InputStream || value instanceof Reader || value instanceof Blob || value instanceof Clob) {
+            return "<stream>";
+        }
+        if (value instanceof Number || value instanceof Boolean) {
+            return value.toString();
+        }
+        String s = value.toString();
+        return "'" + (s.length() > MAX_LENGTH ? s.substring(0, MAX_LENGTH) + "..." : s) + "'";
+    }
+
+    /**
+     * @return the indexes of the parameters, i.e. the question marks outside of string literals
+     */
+    private static List<Integer> parameterIndexes(String sql) {
+        List<Integer> indexes = new ArrayList<>();
+        boolean literal = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                literal = !literal;
+            } else if (c == '?' && !literal) {
+                indexes.add(i);
+            }
+        }
+        return indexes;
+    }
+
+    /**
+     * Splits the value list of an insert at the commas outside of parentheses and string literals.
+     */
+    private static List<String> splitValues(String values) {
+        List<String> result = new ArrayList<>();
+        int depth = 0;
+        boolean literal = false;
+        int start = 0;
+        for (int i = 0; i < values.length(); i++) {
+            char c = values.charAt(i);
+            if (c == '\'') {
+                literal = !literal;
+            } else if (!literal && c == '(') {
+                depth++;
+            } else if (!literal && c == ')') {
+                depth--;
+            } else if (!literal && depth == 0 && c == ',') {
+                result.add(values.substring(start, i));
+                start = i + 1;
+            }
+        }
+        result.add(values.substring(start));
+        return result;
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package no.sr.ringo.persistence.jdbc.profiling;
+
+import no.sr.ringo.config.RingoConfigProperty;
+import no.sr.ringo.persistence.jdbc.platform.DbmsPlatformFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Times the JDBC statements executed on the connections of a profiled {@link DataSource}, aggregating the executions
+ * per statement and logging the slow ones along with their parameters and execution plan.
+ *
+ * A statement is identified by the repository method preparing it and a hash of its SQL, literals and lists of
+ * parameters left out, e.g. <code>AccountRepositoryImpl.findAccountByUsername:3e1a90c2</code>, as the SQL is
+ * scattered across the repositories rather than kept in a catalog.
+ *
+ * The profiling is opt-in: the statements are timed only when {@link RingoConfigProperty#SLOW_QUERY_THRESHOLD} is
+ * zero or more, as finding the repository method walks the stack whenever a statement is prepared. Slow statements
+ * are logged at most once per {@link RingoConfigProperty#SLOW_QUERY_LOG_INTERVAL} each, parameters of the columns
+ * named by {@link RingoConfigProperty#SLOW_QUERY_MASKED_COLUMNS} masked.
+ */
+@Singleton
+public class StatementProfiler {
+
+    private static final Logger log = LoggerFactory.getLogger(StatementProfiler.class);
+
+    private static final String PACKAGE = StatementProfiler.class.getPackage().getName() + ".";
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("(?<![\\w.])\\d+(?![\\w.])");
+    private static final Pattern PARAMETER_LIST = Pattern.compile("(?i)\\bin\\s*\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+    private static final Pattern QUERY = Pattern.compile("(?is)\\s*\\(*\\s*(select|with)\\b.*");
+
+    private final long thresholdNanos;
+    private final long logIntervalMillis;
+    private final List<String> maskedColumns = new ArrayList<>();
+    private final ConcurrentMap<String, StatementStatistics> statistics = new ConcurrentHashMap<>();
+
+    @Inject
+    public StatementProfiler(@Named(RingoConfigProperty.SLOW_QUERY_THRESHOLD) String threshold,
+                             @Named(RingoConfigProperty.SLOW_QUERY_LOG_INTERVAL) String logInterval,
+                             @Named(RingoConfigProperty.SLOW_QUERY_MASKED_COLUMNS) String maskedColumns) {
+        long thresholdMillis = Long.parseLong(threshold.trim());
+        this.thresholdNanos = thresholdMillis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.logIntervalMillis = Long.parseLong(logInterval.trim());
+        for (String column : maskedColumns.split(",")) {
+            if (!column.trim().isEmpty()) {
+                this.maskedColumns.add(column.trim().toLowerCase(Locale.ROOT));
+            }
+        }
+        if (isEnabled()) {
+            log.info("Profiling JDBC statements, logging those slower than {} ms", thresholdMillis);
+        }
+    }
+
+    public boolean isEnabled() {
+        return thresholdNanos >= 0;
+    }
+
+    /**
+     * Provides the data source whose connections time their statements, or the data source itself if the profiling
+     * is disabled.
+     */
+    public DataSource profile(DataSource dataSource) {
+        if (!isEnabled()) {
+            return dataSource;
+        }
+        return (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(), new Class<?>[]{DataSource.class}, (proxy, method, args) -> {
+            Object result = invoke(dataSource, method, args);
+            return result instanceof Connection ? ProfiledConnection.wrap((Connection) result, this, dataSource) : result;
+        });
+    }
+
+    /**
+     * @return the statistics of every statement executed since start up, the statement having spent the most time
+     * executing first
+     */
+    public List<StatementStatistics> getStatistics() {
+        List<StatementStatistics> result = new ArrayList<>(statistics.values());
+        result.sort(Comparator.comparingLong(StatementStatistics::getTotalNanos).reversed());
+        return result;
+    }
+
+    public String toJson() {
+        StringBuilder sb = new StringBuilder("{\"enabled\":").append(isEnabled())
+                .append(",\"thresholdMillis\":").append(isEnabled() ? TimeUnit.NANOSECONDS.toMillis(thresholdNanos) : -1)
+                .append(",\"statements\":[");
+        String separator = "";
+        for (StatementStatistics statement : getStatistics()) {
+            sb.append(separator).append("{\"id\":").append(quote(statement.getId()))
+                    .append(",\"sql\":").append(quote(statement.getSql()))
+                    .append(",\"count\":").append(statement.getCount())
+                    .append(",\"totalMillis\":").append(TimeUnit.NANOSECONDS.toMillis(statement.getTotalNanos()))
+                    .append(",\"meanMillis\":").append(statement.getMeanNanos() / 1e6)
+                    .append(",\"maxMillis\":").append(statement.getMaxNanos() / 1e6)
+                    .append(",\"rows\":").append(statement.getRows())
+                    .append(",\"slow\":").append(statement.getSlowCount())
+                    .append('}');
+            separator = ",";
+        }
+        return sb.append("]}").toString();
+    }
+
+    /**
+     * Identifies the statement by the first method of Ringo up the stack, i.e. the repository method, skipping
+     * the profiling, the transaction manager, the classes enhanced by Guice along with their interceptors and
+     * helpers preparing statements on behalf of the repositories.
+     */
+    String statementId(String normalizedSql) {
+        String caller = "unknown";
+        for (StackTraceElement frame : new Throwable().getStackTrace()) {
+            String className = frame.getClassName();
+            if (className.startsWith("no.sr.ringo.") && !isProfiling(className)
+                    && !className.startsWith("no.sr.ringo.persistence.guice.") && !className.contains("$$")
+                    && !className.endsWith("Helper") && !className.endsWith("Interceptor")) {
+                caller = className.substring(className.lastIndexOf('.') + 1) + "." + frame.getMethodName();
+                break;
+            }
+        }
+        return caller + ":" + String.format("%08x", normalizedSql.hashCode());
+    }
+
+    private static boolean isProfiling(String className) {
+        return className.equals(StatementProfiler.class.getName()) || className.startsWith(PACKAGE + "Profiled");
+    }
+
+    /**
+     * Completes the execution of a statement, once its rows have been read.
+     *
+     * @param dataSource the data source of the statement, not profiled, providing a connection for the plan
+     */
+    void completed(Execution execution, DataSource dataSource) {
+        boolean slow = execution.elapsedNanos >= thresholdNanos;
+        StatementStatistics statement = statistics.computeIfAbsent(execution.id, id -> new StatementStatistics(id, execution.normalizedSql));
+        statement.record(execution.elapsedNanos, execution.rows, slow);
+        if (slow && statement.isLogDue(System.currentTimeMillis(), logIntervalMillis)) {
+            log.warn("Slow statement {} took {} ms, {} rows; {} {}{}", execution.id,
+                    TimeUnit.NANOSECONDS.toMillis(execution.elapsedNanos), execution.rows, execution.normalizedSql,
+                    SqlParameters.format(execution.sql, execution.parameters, maskedColumns), plan(dataSource, execution));
+        }
+    }
+
+    /**
+     * Provides the execution plan of queries only, as explaining updates executes them on some databases. The plan is
+     * obtained on a connection of its own, as explaining changes the state of the session on some databases, which
+     * must not affect the transaction of the statement.
+     */
+    private static String plan(DataSource dataSource, Execution execution) {
+        if (!QUERY.matcher(execution.sql).matches()) {
+            return "";
+        }
+        try (Connection connection = dataSource.getConnection()) {
+            String plan = DbmsPlatformFactory.platformFor(connection).explain(connection, execution.sql, execution.parameters);
+            return plan == null ? "" : "\n" + plan;
+        } catch (Exception e) {
+            return "\nPlan unavailable; " + e.getMessage();
+        }
+    }
+
+    static String normalize(String sql) {
+        String normalized = WHITESPACE.matcher(sql.trim()).replaceAll(" ");
+        normalized = STRING_LITERAL.matcher(normalized).replaceAll("?");
+        normalized = NUMBER_LITERAL.matcher(normalized).replaceAll("?");
+        return PARAMETER_LIST.matcher(normalized).replaceAll("in (?...)");
+    }
+
+    /**
+     * Invokes the method of the JDBC object, throwing the exception thrown by the method itself.
+     */
+    static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * An execution of a statement, of which the rows are counted as they are read.
+     */
+    static class Execution {
+
+        final String id;
+        final String sql;
+        final String normalizedSql;
+        final List<Object> parameters;
+        final long elapsedNanos;
+        long rows;
+
+        Execution(String id, String sql, String normalizedSql, List<Object> parameters, long elapsedNanos) {
+            this.id = id;
+            this.sql = sql;
+            this.normalizedSql = normalizedSql;
+            this.parameters = parameters;
+            this.elapsedNanos = elapsedNanos;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package no.sr.ringo.persistence.jdbc.profiling;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregated executions of a statement since start up.
+ */
+public class StatementStatistics {
+
+    private final String id;
+    private final String sql;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder slowCount = new LongAdder();
+    private final AtomicLong lastLogged = new AtomicLong();
+
+    StatementStatistics(String id, String sql) {
+        this.id = id;
+        this.sql = sql;
+    }
+
+    void record(long elapsedNanos, long rows, boolean slow) {
+        count.increment();
+        totalNanos.add(elapsedNanos);
+        maxNanos.accumulateAndGet(elapsedNanos, Math::max);
+        this.rows.add(rows);
+        if (slow) {
+            slowCount.increment();
+        }
+    }
+
+    /**
+     * Tells whether a slow execution is to be logged, i.e. whether the interval has elapsed since the statement was
+     * last logged, in which case the execution is the one logged.
+     */
+    boolean isLogDue(long now, long intervalMillis) {
+        long last = lastLogged.get();
+        return (last == 0 || now - last >= intervalMillis) && lastLogged.compareAndSet(last, now);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the SQL of the statement, literals and lists of parameters left out
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    public long getMeanNanos() {
+        long executions = getCount();
+        return executions == 0 ? 0 : getTotalNanos() / executions;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * @return the number of rows read by queries and changed by updates
+     */
+    public long getRows() {
+        return rows.sum();
+    }
+
+    /**
+     * @return the number of executions slower than the threshold
+     */
+    public long getSlowCount() {
+        return slowCount.sum();
+    }
+}
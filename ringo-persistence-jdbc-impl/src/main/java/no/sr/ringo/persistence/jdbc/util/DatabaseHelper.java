@@ -156,8 +156,8 @@ public class DatabaseHelper {
                 //     1           2           3        4         5       6        7           8
                 + "(account_id, direction, received, delivered, sender, receiver, channel, message_uuid," +
                 //    9              10            11           12           13            14
-                " transmission_id, instance_id, document_id, process_id, payload_url, evidence_url) " +
-                " values(?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+                " transmission_id, instance_id, document_id, process_id, payload_url, evidence_url, change_seq) " +
+                " values(?,?,?,?,?,?,?,?,?,?,?,?,?,?, next value for message_change_seq)";
         try (Connection con = jdbcTxManager.getConnection()) {
 
             final PreparedStatement ps = con.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
@@ -23,10 +23,12 @@
 package no.sr.ringo.persistence.queue;
 
 /**
- *
- *
+ * States of an entry in the outbound message queue. Uploads validated asynchronously start out as
+ * {@link #PENDING_VALIDATION} and are promoted to {@link #QUEUED} or marked {@link #VALIDATION_FAILED}.
  */
 public enum OutboundMessageQueueState {
+    PENDING_VALIDATION,
+    VALIDATION_FAILED,
     QUEUED,
     IN_PROGRESS,
     EXTERNAL,
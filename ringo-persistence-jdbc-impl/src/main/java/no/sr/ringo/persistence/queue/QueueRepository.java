@@ -22,7 +22,10 @@
 
 package no.sr.ringo.persistence.queue;
 
+import no.sr.ringo.message.MessageNumber;
+
 import java.util.List;
+import java.util.Map;
 
 public interface QueueRepository {
 
@@ -43,6 +46,20 @@ public interface QueueRepository {
      */
     OutboundMessageQueueId putMessageOnQueue(Long msgNo);
 
+    /**
+     * Creates an entry in outbound_message_queue having the supplied initial state
+     *
+     * @return primary_key
+     */
+    OutboundMessageQueueId putMessageOnQueue(Long msgNo, OutboundMessageQueueState state);
+
+    /**
+     * Creates entries in outbound_message_queue having the supplied initial state, in a single batch
+     *
+     * @return primary keys, in the order of the message numbers supplied
+     */
+    List<OutboundMessageQueueId> putMessagesOnQueue(List<Long> msgNos, OutboundMessageQueueState state);
+
     /**
      * Grabs the next bulk of messages waiting in the oubound queue.
      * Max bulk size can be specified using the returnLimit
@@ -52,10 +69,45 @@ public interface QueueRepository {
      */
     List<QueuedOutboundMessage> getQueuedMessages(long returnLimit);
 
+    /**
+     * Grabs the next bulk of messages in the given state, oldest first.
+     *
+     * @param returnLimit specify max number of messages to return (0 for no limit)
+     */
+    List<QueuedOutboundMessage> getQueuedMessages(OutboundMessageQueueState state, long returnLimit);
+
     QueuedOutboundMessage getQueuedMessageById(OutboundMessageQueueId outboundQueueID);
 
+    /**
+     * Retrieves the queue entry of the given message, regardless of state.
+     *
+     * @return the queue entry or null if the message has never been queued
+     */
+    QueuedOutboundMessage getQueuedMessageByMessageNo(MessageNumber messageNumber);
+
     void changeQueuedMessageState(OutboundMessageQueueId outboundQueueID, OutboundMessageQueueState state);
 
+    /**
+     * Changes the state of the queue entry, provided it is still in the expected state.
+     *
+     * @return true if the state was changed
+     */
+    boolean changeQueuedMessageState(OutboundMessageQueueId outboundQueueID, OutboundMessageQueueState expectedState, OutboundMessageQueueState state);
+
     OutboundMessageQueueErrorId logOutboundError(QueuedOutboundMessageError error);
 
+    /**
+     * Retrieves the most recent error logged for the queue entry.
+     *
+     * @return the error or null if none have been logged
+     */
+    QueuedOutboundMessageError getLastOutboundError(OutboundMessageQueueId outboundQueueID);
+
+    /**
+     * Counts the entries of the queue by state, i.e. the depth of the queue.
+     *
+     * @return the number of entries of every state, zero for states without entries
+     */
+    Map<OutboundMessageQueueState, Integer> countByState();
+
 }
@@ -24,6 +24,8 @@
 package no.sr.ringo.persistence.queue;
 
 import com.google.inject.Inject;
+import no.sr.ringo.account.AccountId;
+import no.sr.ringo.message.AccountChangeVersions;
 import no.sr.ringo.message.MessageNumber;
 import no.sr.ringo.persistence.guice.jdbc.JdbcTxManager;
 import no.sr.ringo.persistence.guice.jdbc.Repository;
@@ -34,7 +36,10 @@ import org.slf4j.LoggerFactory;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Repository responsible for handling actions related to outbound message queue
@@ -47,13 +52,24 @@ public class QueueRepositoryImpl implements QueueRepository {
 
     final JdbcTxManager jdbcTxManager;
 
+    private final AccountChangeVersions accountChangeVersions;
+
+    /** Maximum number of entries inserted by a single JDBC batch */
+    static final int INSERT_BATCH_SIZE = 100;
+
     @Inject
-    public QueueRepositoryImpl(JdbcTxManager jdbcTxManager) {
+    public QueueRepositoryImpl(JdbcTxManager jdbcTxManager, AccountChangeVersions accountChangeVersions) {
         this.jdbcTxManager = jdbcTxManager;
+        this.accountChangeVersions = accountChangeVersions;
     }
 
     @Override
     public OutboundMessageQueueId putMessageOnQueue(Long msgNo) {
+        return putMessageOnQueue(msgNo, OutboundMessageQueueState.QUEUED);
+    }
+
+    @Override
+    public OutboundMessageQueueId putMessageOnQueue(Long msgNo, OutboundMessageQueueState state) {
         Connection con = null;
         if (msgNo == null) {
             throw new IllegalStateException("Msg_no required for message to be queued");
@@ -65,7 +81,7 @@ public class QueueRepositoryImpl implements QueueRepository {
                     " values (?,?) ", Statement.RETURN_GENERATED_KEYS);
 
             ps.setLong(1, msgNo);
-            ps.setString(2, OutboundMessageQueueState.QUEUED.name());
+            ps.setString(2, state.name());
 
             ps.execute();
             ResultSet rs = ps.getGeneratedKeys();
@@ -82,8 +98,82 @@ public class QueueRepositoryImpl implements QueueRepository {
 
     }
 
+    @Override
+    public List<OutboundMessageQueueId> putMessagesOnQueue(List<Long> msgNos, OutboundMessageQueueState state) {
+        List<OutboundMessageQueueId> result = new ArrayList<OutboundMessageQueueId>(msgNos.size());
+        for (int start = 0; start < msgNos.size(); start += INSERT_BATCH_SIZE) {
+            result.addAll(insertQueueEntries(msgNos.subList(start, Math.min(start + INSERT_BATCH_SIZE, msgNos.size())), state));
+        }
+        return result;
+    }
+
+    private List<OutboundMessageQueueId> insertQueueEntries(List<Long> msgNos, OutboundMessageQueueState state) {
+        StringBuilder sql = new StringBuilder("select id, msg_no from outbound_message_queue where msg_no in (");
+        try {
+            Connection con = jdbcTxManager.getConnection();
+            try (PreparedStatement ps = con.prepareStatement("insert into outbound_message_queue (msg_no, state) values (?,?)")) {
+                for (Long msgNo : msgNos) {
+                    if (msgNo == null) {
+                        throw new IllegalStateException("Msg_no required for message to be queued");
+                    }
+                    ps.setLong(1, msgNo);
+                    ps.setString(2, state.name());
+                    ps.addBatch();
+                    sql.append(sql.charAt(sql.length() - 1) == '(' ? "?" : ",?");
+                }
+                ps.executeBatch();
+            }
+            sql.append(")");
+
+            // The keys generated by a batch are not reliably provided by every driver
+            Map<Long, OutboundMessageQueueId> ids = new HashMap<Long, OutboundMessageQueueId>();
+            try (PreparedStatement ps = con.prepareStatement(sql.toString())) {
+                for (int i = 0; i < msgNos.size(); i++) {
+                    ps.setLong(i + 1, msgNos.get(i));
+                }
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        ids.put(rs.getLong("msg_no"), new OutboundMessageQueueId(rs.getInt("id")));
+                    }
+                }
+            }
+
+            List<OutboundMessageQueueId> result = new ArrayList<OutboundMessageQueueId>(msgNos.size());
+            for (Long msgNo : msgNos) {
+                result.add(ids.get(msgNo));
+            }
+            return result;
+        } catch (SQLException e) {
+            throw new IllegalStateException(String.format("Unable to put %d messages on the queue; %s", msgNos.size(), e.getMessage()), e);
+        }
+    }
+
     @Override
     public List<QueuedOutboundMessage> getQueuedMessages(long returnLimit) {
+        return getQueuedMessages(OutboundMessageQueueState.QUEUED, returnLimit);
+    }
+
+    @Override
+    public Map<OutboundMessageQueueState, Integer> countByState() {
+        Map<OutboundMessageQueueState, Integer> result = new EnumMap<>(OutboundMessageQueueState.class);
+        for (OutboundMessageQueueState state : OutboundMessageQueueState.values()) {
+            result.put(state, 0);
+        }
+        try {
+            Connection con = jdbcTxManager.getConnection();
+            PreparedStatement ps = con.prepareStatement("select state, count(*) from outbound_message_queue group by state");
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                result.put(OutboundMessageQueueState.valueOf(rs.getString(1)), rs.getInt(2));
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to count queued messages by state; " + e.getMessage(), e);
+        }
+        return result;
+    }
+
+    @Override
+    public List<QueuedOutboundMessage> getQueuedMessages(OutboundMessageQueueState state, long returnLimit) {
 
         List<QueuedOutboundMessage> result = new ArrayList<QueuedOutboundMessage>();
 
@@ -97,15 +187,15 @@ public class QueueRepositoryImpl implements QueueRepository {
         try {
             Connection con = jdbcTxManager.getConnection();
             PreparedStatement ps = con.prepareStatement(sql);
-            ps.setString(1, OutboundMessageQueueState.QUEUED.name());
+            ps.setString(1, state.name());
             ResultSet rs = ps.executeQuery();
 
             while (rs.next()) {
                 OutboundMessageQueueId id = new OutboundMessageQueueId(rs.getInt("id"));
                 MessageNumber messageNumber = MessageNumber.of(rs.getInt("msg_no"));
-                OutboundMessageQueueState state = OutboundMessageQueueState.valueOf(rs.getString("state"));
+                OutboundMessageQueueState queueState = OutboundMessageQueueState.valueOf(rs.getString("state"));
 
-                result.add(new QueuedOutboundMessage(id, messageNumber, state));
+                result.add(new QueuedOutboundMessage(id, messageNumber, queueState));
             }
         } catch (SQLException e) {
             throw new IllegalStateException("Unable to get queued messages", e);
@@ -139,6 +229,29 @@ public class QueueRepositoryImpl implements QueueRepository {
         return null;
     }
 
+    @Override
+    public QueuedOutboundMessage getQueuedMessageByMessageNo(MessageNumber messageNumber) {
+
+        String sql = "select id, msg_no, state from outbound_message_queue where msg_no = ? order by id desc";
+        try {
+            Connection con = jdbcTxManager.getConnection();
+            PreparedStatement ps = con.prepareStatement(sql);
+            ps.setInt(1, messageNumber.toInt());
+            ResultSet rs = ps.executeQuery();
+
+            if (rs.next()) {
+                OutboundMessageQueueId id = new OutboundMessageQueueId(rs.getInt("id"));
+                OutboundMessageQueueState state = OutboundMessageQueueState.valueOf(rs.getString("state"));
+
+                return new QueuedOutboundMessage(id, messageNumber, state);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to get queue entry for message " + messageNumber, e);
+        }
+
+        return null;
+    }
+
     @Override
     public void changeQueuedMessageState(OutboundMessageQueueId outboundQueueID, OutboundMessageQueueState state) {
         Connection con = null;
@@ -153,6 +266,11 @@ public class QueueRepositoryImpl implements QueueRepository {
             ps.setInt(2, outboundQueueID.toInt());
 
             ps.executeUpdate();
+
+            if (state == OutboundMessageQueueState.AOD) {
+                // Messages aborted are no longer listed in the outbox, which changes the version of the account
+                messageAborted(con, outboundQueueID);
+            }
         } catch (SQLException e) {
             throw new IllegalStateException(sql + " failed " + e, e);
         }
@@ -160,6 +278,39 @@ public class QueueRepositoryImpl implements QueueRepository {
 
     }
 
+    private void messageAborted(Connection con, OutboundMessageQueueId outboundQueueID) throws SQLException {
+        PreparedStatement ps = con.prepareStatement("update message set change_seq = next value for message_change_seq where msg_no = (select msg_no from outbound_message_queue where id = ?)");
+        ps.setInt(1, outboundQueueID.toInt());
+        ps.executeUpdate();
+
+        ps = con.prepareStatement("select m.account_id from message m, outbound_message_queue q where q.id = ? and m.msg_no = q.msg_no");
+        ps.setInt(1, outboundQueueID.toInt());
+        ResultSet rs = ps.executeQuery();
+        if (rs.next() && rs.getObject(1) != null) {
+            AccountId accountId = new AccountId(rs.getInt(1));
+            jdbcTxManager.afterCommit(() -> accountChangeVersions.changed(accountId));
+        }
+    }
+
+    @Override
+    public boolean changeQueuedMessageState(OutboundMessageQueueId outboundQueueID, OutboundMessageQueueState expectedState, OutboundMessageQueueState state) {
+
+        String sql = "update outbound_message_queue set state = ? where id = ? and state = ?";
+
+        try {
+            Connection con = jdbcTxManager.getConnection();
+
+            PreparedStatement ps = con.prepareStatement(sql);
+            ps.setString(1, state.name());
+            ps.setInt(2, outboundQueueID.toInt());
+            ps.setString(3, expectedState.name());
+
+            return ps.executeUpdate() == 1;
+        } catch (SQLException e) {
+            throw new IllegalStateException(sql + " failed " + e, e);
+        }
+    }
+
     @Override
     public OutboundMessageQueueErrorId logOutboundError(QueuedOutboundMessageError error) {
         Connection con = null;
@@ -186,6 +337,31 @@ public class QueueRepositoryImpl implements QueueRepository {
         }
     }
 
+    @Override
+    public QueuedOutboundMessageError getLastOutboundError(OutboundMessageQueueId outboundQueueID) {
+
+        String sql = "select e.id, e.queue_id, q.msg_no, e.message, e.details, e.stacktrace, e.create_dt from outbound_message_queue_error e " +
+                "join outbound_message_queue q on (e.queue_id = q.id) where e.queue_id = ? order by e.id desc";
+
+        try {
+            Connection con = jdbcTxManager.getConnection();
+
+            PreparedStatement ps = con.prepareStatement(sql);
+            ps.setInt(1, outboundQueueID.toInt());
+            ResultSet rs = ps.executeQuery();
+
+            if (rs.next()) {
+                return new QueuedOutboundMessageError(new OutboundMessageQueueErrorId(rs.getInt("id")), outboundQueueID,
+                        MessageNumber.of(rs.getInt("msg_no")), rs.getString("message"), rs.getString("details"),
+                        rs.getString("stacktrace"), rs.getTimestamp("create_dt"), null);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException(sql + " failed " + e, e);
+        }
+
+        return null;
+    }
+
     @Override
     public boolean lockQueueItemForDelivery(OutboundMessageQueueId outboundMessageQueueID) {
         Connection con = null;
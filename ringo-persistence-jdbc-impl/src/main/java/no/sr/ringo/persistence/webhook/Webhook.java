@@ -0,0 +1,77 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package no.sr.ringo.persistence.webhook;
+
+import no.sr.ringo.account.AccountId;
+
+import java.net.URI;
+
+/**
+ * The endpoint of an account, to which inbound messages are pushed as they are received.
+ */
+public class Webhook {
+
+    private final AccountId accountId;
+    private final URI url;
+    private final String secret;
+    private final boolean includePayload;
+
+    public Webhook(AccountId accountId, URI url, String secret, boolean includePayload) {
+        this.accountId = accountId;
+        this.url = url;
+        this.secret = secret;
+        this.includePayload = includePayload;
+    }
+
+    public AccountId getAccountId() {
+        return accountId;
+    }
+
+    public URI getUrl() {
+        return url;
+    }
+
+    /**
+     * @return the key of the HMAC signature of every request, shared with the owner of the endpoint
+     */
+    public String getSecret() {
+        return secret;
+    }
+
+    /**
+     * @return true if the payload should be pushed along with the meta data of the message
+     */
+    public boolean isIncludePayload() {
+        return includePayload;
+    }
+
+    @Override
+    public String toString() {
+        return "Webhook{" +
+                "accountId=" + accountId +
+                ", url=" + url +
+                ", includePayload=" + includePayload +
+                '}';
+    }
+}
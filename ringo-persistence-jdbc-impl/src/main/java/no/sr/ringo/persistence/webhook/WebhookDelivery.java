@@ -0,0 +1,77 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package no.sr.ringo.persistence.webhook;
+
+import no.sr.ringo.account.AccountId;
+import no.sr.ringo.message.MessageNumber;
+
+/**
+ * A push of an inbound message to the webhook of the account, which is due.
+ */
+public class WebhookDelivery {
+
+    private final Integer id;
+    private final MessageNumber messageNumber;
+    private final int attempts;
+    private final Webhook webhook;
+
+    public WebhookDelivery(Integer id, MessageNumber messageNumber, int attempts, Webhook webhook) {
+        this.id = id;
+        this.messageNumber = messageNumber;
+        this.attempts = attempts;
+        this.webhook = webhook;
+    }
+
+    public Integer getId() {
+        return id;
+    }
+
+    public MessageNumber getMessageNumber() {
+        return messageNumber;
+    }
+
+    public AccountId getAccountId() {
+        return webhook.getAccountId();
+    }
+
+    /**
+     * @return the number of failed attempts so far
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public Webhook getWebhook() {
+        return webhook;
+    }
+
+    @Override
+    public String toString() {
+        return "WebhookDelivery{" +
+                "id=" + id +
+                ", messageNumber=" + messageNumber +
+                ", attempts=" + attempts +
+                '}';
+    }
+}
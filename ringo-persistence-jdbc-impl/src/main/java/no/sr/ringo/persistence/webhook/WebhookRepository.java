@@ -0,0 +1,98 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package no.sr.ringo.persistence.webhook;
+
+import no.sr.ringo.account.AccountId;
+import no.sr.ringo.message.MessageNumber;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Holds the webhooks of the accounts and the state of every push of an inbound message to them, allowing pushes to
+ * survive restarts.
+ */
+public interface WebhookRepository {
+
+    /**
+     * @return the webhook of the account, or null if none is registered
+     */
+    Webhook getWebhook(AccountId accountId);
+
+    /**
+     * Registers the webhook, replacing any webhook previously registered by the account.
+     */
+    void saveWebhook(Webhook webhook);
+
+    /**
+     * Removes the webhook of the account, abandoning pushes not yet delivered.
+     */
+    void deleteWebhook(AccountId accountId);
+
+    /**
+     * Schedules a push of the inbound message, provided the account has registered a webhook.
+     *
+     * @return true if a push was scheduled
+     */
+    boolean enqueueDelivery(AccountId accountId, MessageNumber messageNumber);
+
+    /**
+     * Finds the pushes due at the given time, including those whose lease has expired, oldest first.
+     */
+    List<WebhookDelivery> findDueDeliveries(Date now, int max);
+
+    /**
+     * Changes the state of a due push to {@link WebhookDeliveryState#IN_PROGRESS}, leased until the given time by the
+     * holder of the claim token. This is used as an optimistic lock between nodes.
+     *
+     * @return true if the push was claimed
+     */
+    boolean claimDelivery(Integer deliveryId, String claimToken, Date now, Date leaseUntil);
+
+    /**
+     * Records the push as delivered, provided it is still claimed by the token.
+     *
+     * @return false if the claim has been taken over by another node, leaving the push unchanged
+     */
+    boolean markDelivered(Integer deliveryId, String claimToken, Date delivered);
+
+    /**
+     * Records a failed attempt and schedules the next one, provided the push is still claimed by the token.
+     *
+     * @return false if the claim has been taken over by another node, leaving the push unchanged
+     */
+    boolean retryDelivery(Integer deliveryId, String claimToken, Date nextAttempt, String error);
+
+    /**
+     * Records the last failed attempt, giving up the push, provided it is still claimed by the token.
+     *
+     * @return false if the claim has been taken over by another node, leaving the push unchanged
+     */
+    boolean markFailed(Integer deliveryId, String claimToken, String error);
+
+    /**
+     * @return the state of the push of the message, or null if no push has been scheduled
+     */
+    WebhookDeliveryState getDeliveryState(MessageNumber messageNumber);
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package no.sr.ringo.persistence.webhook;
+
+import com.google.inject.Inject;
+import no.sr.ringo.account.AccountId;
+import no.sr.ringo.message.MessageNumber;
+import no.sr.ringo.persistence.guice.jdbc.JdbcTxManager;
+import no.sr.ringo.persistence.guice.jdbc.Repository;
+import no.sr.ringo.persistence.jdbc.platform.DbmsPlatform;
+import no.sr.ringo.persistence.jdbc.platform.DbmsPlatformFactory;
+
+import java.net.URI;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Repository of webhooks, and of the pushes of inbound messages to them.
+ */
+@Repository
+public class WebhookRepositoryImpl implements WebhookRepository {
+
+    /** Longest error message kept */
+    static final int MAX_ERROR_LENGTH = 256;
+
+    final JdbcTxManager jdbcTxManager;
+
+    @Inject
+    public WebhookRepositoryImpl(JdbcTxManager jdbcTxManager) {
+        this.jdbcTxManager = jdbcTxManager;
+    }
+
+    @Override
+    public Webhook getWebhook(AccountId accountId) {
+        String sql = "select account_id, url, secret, include_payload from account_webhook where account_id = ?";
+        try {
+            PreparedStatement ps = jdbcTxManager.getConnection().prepareStatement(sql);
+            ps.setInt(1, accountId.toInteger());
+            ResultSet rs = ps.executeQuery();
+            return rs.next() ? webhookFrom(rs) : null;
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to get webhook of account " + accountId + "; " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void saveWebhook(Webhook webhook) {
+        try {
+            Connection con = jdbcTxManager.getConnection();
+            PreparedStatement update = con.prepareStatement("update account_webhook set url = ?, secret = ?, include_payload = ? where account_id = ?");
+            update.setString(1, webhook.getUrl().toString());
+            update.setString(2, webhook.getSecret());
+            update.setBoolean(3, webhook.isIncludePayload());
+            update.setInt(4, webhook.getAccountId().toInteger());
+            if (update.executeUpdate() == 0) {
+                PreparedStatement insert = con.prepareStatement("insert into account_webhook (account_id, url, secret, include_payload) values (?, ?, ?, ?)");
+                insert.setInt(1, webhook.getAccountId().toInteger());
+                insert.setString(2, webhook.getUrl().toString());
+                insert.setString(3, webhook.getSecret());
+                insert.setBoolean(4, webhook.isIncludePayload());
+                insert.executeUpdate();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to save " + webhook + "; " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void deleteWebhook(AccountId accountId) {
+        try {
+            Connection con = jdbcTxManager.getConnection();
+            PreparedStatement deliveries = con.prepareStatement("delete from webhook_delivery where account_id = ? and state in (?, ?)");
+            deliveries.setInt(1, accountId.toInteger());
+            deliveries.setString(2, WebhookDeliveryState.PENDING.name());
+            deliveries.setString(3, WebhookDeliveryState.IN_PROGRESS.name());
+            deliveries.executeUpdate();
+
+            PreparedStatement ps = con.prepareStatement("delete from account_webhook where account_id = ?");
+            ps.setInt(1, accountId.toInteger());
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to delete webhook of account " + accountId + "; " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean enqueueDelivery(AccountId accountId, MessageNumber messageNumber) {
+        // Nothing is inserted unless the account has a webhook
+        String sql = "insert into webhook_delivery (msg_no, account_id, state, attempts, next_attempt) " +
+                "select ?, account_id, ?, 0, ? from account_webhook where account_id = ?";
+        try {
+            PreparedStatement ps = jdbcTxManager.getConnection().prepareStatement(sql);
+            ps.setLong(1, messageNumber.toLong());
+            ps.setString(2, WebhookDeliveryState.PENDING.name());
+            ps.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+            ps.setInt(4, accountId.toInteger());
+            return ps.executeUpdate() > 0;
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to schedule push of message " + messageNumber + "; " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public List<WebhookDelivery> findDueDeliveries(Date now, int max) {
+        DbmsPlatform dbmsPlatform = DbmsPlatformFactory.platformFor(jdbcTxManager.getConnection());
+        String sql = "select d.id, d.msg_no, d.attempts, w.account_id, w.url, w.secret, w.include_payload " +
+                "from webhook_delivery d join account_webhook w on (d.account_id = w.account_id) " +
+                "where d.state in (?, ?) and d.next_attempt <= ? order by d.next_attempt, d.id " + dbmsPlatform.getLimitClause(0, max);
+
+        List<WebhookDelivery> result = new ArrayList<WebhookDelivery>();
+        try {
+            PreparedStatement ps = jdbcTxManager.getConnection().prepareStatement(sql);
+            ps.setString(1, WebhookDeliveryState.PENDING.name());
+            ps.setString(2, WebhookDeliveryState.IN_PROGRESS.name());
+            ps.setTimestamp(3, new Timestamp(now.getTime()));
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                result.add(new WebhookDelivery(rs.getInt("id"), MessageNumber.of(rs.getLong("msg_no")), rs.getInt("attempts"), webhookFrom(rs)));
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to find due webhook deliveries; " + e.getMessage(), e);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean claimDelivery(Integer deliveryId, String claimToken, Date now, Date leaseUntil) {
+        String sql = "update webhook_delivery set state = ?, next_attempt = ?, claim_token = ? where id = ? and state in (?, ?) and next_attempt <= ?";
+        try {
+            PreparedStatement ps = jdbcTxManager.getConnection().prepareStatement(sql);
+            ps.setString(1, WebhookDeliveryState.IN_PROGRESS.name());
+            ps.setTimestamp(2, new Timestamp(leaseUntil.getTime()));
+            ps.setString(3, claimToken);
+            ps.setInt(4, deliveryId);
+            ps.setString(5, WebhookDeliveryState.PENDING.name());
+            ps.setString(6, WebhookDeliveryState.IN_PROGRESS.name());
+            ps.setTimestamp(7, new Timestamp(now.getTime()));
+            return ps.executeUpdate() == 1;
+        } catch (SQLException e) {
+            throw new IllegalStateException(sql + " failed; " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean markDelivered(Integer deliveryId, String claimToken, Date delivered) {
+        String sql = "update webhook_delivery set state = ?, delivered = ?, last_error = null, claim_token = null where id = ? and state = ? and claim_token = ?";
+        try {
+            PreparedStatement ps = jdbcTxManager.getConnection().prepareStatement(sql);
+            ps.setString(1, WebhookDeliveryState.DELIVERED.name());
+            ps.setTimestamp(2, new Timestamp(delivered.getTime()));
+            ps.setInt(3, deliveryId);
+            ps.setString(4, WebhookDeliveryState.IN_PROGRESS.name());
+            ps.setString(5, claimToken);
+            return ps.executeUpdate() == 1;
+        } catch (SQLException e) {
+            throw new IllegalStateException(sql + " failed; " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean retryDelivery(Integer deliveryId, String claimToken, Date nextAttempt, String error) {
+        String sql = "update webhook_delivery set state = ?, attempts = attempts + 1, next_attempt = ?, last_error = ?, claim_token = null where id = ? and state = ? and claim_token = ?";
+        try {
+            PreparedStatement ps = jdbcTxManager.getConnection().prepareStatement(sql);
+            ps.setString(1, WebhookDeliveryState.PENDING.name());
+            ps.setTimestamp(2, new Timestamp(nextAttempt.getTime()));
+            ps.setString(3, truncate(error));
+            ps.setInt(4, deliveryId);
+            ps.setString(5, WebhookDeliveryState.IN_PROGRESS.name());
+            ps.setString(6, claimToken);
+            return ps.executeUpdate() == 1;
+        } catch (SQLException e) {
+            throw new IllegalStateException(sql + " failed; " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean markFailed(Integer deliveryId, String claimToken, String error) {
+        String sql = "update webhook_delivery set state = ?, attempts = attempts + 1, last_error = ?, claim_token = null where id = ? and state = ? and claim_token = ?";
+        try {
+            PreparedStatement ps = jdbcTxManager.getConnection().prepareStatement(sql);
+            ps.setString(1, WebhookDeliveryState.FAILED.name());
+            ps.setString(2, truncate(error));
+            ps.setInt(3, deliveryId);
+            ps.setString(4, WebhookDeliveryState.IN_PROGRESS.name());
+            ps.setString(5, claimToken);
+            return ps.executeUpdate() == 1;
+        } catch (SQLException e) {
+            throw new IllegalStateException(sql + " failed; " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public WebhookDeliveryState getDeliveryState(MessageNumber messageNumber) {
+        String sql = "select state from webhook_delivery where msg_no = ?";
+        try {
+            PreparedStatement ps = jdbcTxManager.getConnection().prepareStatement(sql);
+            ps.setLong(1, messageNumber.toLong());
+            ResultSet rs = ps.executeQuery();
+            return rs.next() ? WebhookDeliveryState.valueOf(rs.getString("state")) : null;
+        } catch (SQLException e) {
+            throw new IllegalStateException(sql + " failed; " + e.getMessage(), e);
+        }
+    }
+
+    private static Webhook webhookFrom(ResultSet rs) throws SQLException {
+        return new Webhook(new AccountId(rs.getInt("account_id")), URI.create(rs.getString("url")), rs.getString("secret"), rs.getBoolean("include_payload"));
+    }
+
+    private static String truncate(String error) {
+        return error == null || error.length() <= MAX_ERROR_LENGTH ? error : error.substring(0, MAX_ERROR_LENGTH);
+    }
+}
@@ -1,11 +1,16 @@
 
+drop table if exists outbox_idempotency_key;
+drop table if exists webhook_delivery;
+drop table if exists account_webhook;
 drop table if exists outbound_message_queue_error;
 drop table if exists outbound_message_queue;
 drop table if exists message;
+drop table if exists payload_blob;
 drop table if exists account_receiver;
 drop table if exists account_role;
 drop table if exists account;
 drop table if exists customer;
+drop sequence if exists message_change_seq;
 
 drop user if exists skrue;
 
@@ -64,6 +69,9 @@ CREATE TABLE `account_receiver` (
   CONSTRAINT `account_receiver_ibfk_1` FOREIGN KEY (`account_id`) REFERENCES `account` (`id`) ON DELETE CASCADE
 ) ;
 
+/** Change counter of the message table, incremented whenever a message is inserted or its delivery state changes */
+CREATE SEQUENCE message_change_seq;
+
 /** Holds the message metadata and references to the payload and associated evidence files */
 CREATE TABLE `message` (
   `msg_no` int(11) NOT NULL AUTO_INCREMENT,
@@ -83,6 +91,8 @@ CREATE TABLE `message` (
   `ap_name` varchar(128) DEFAULT NULL comment 'CN of certificate of sending access point' ,
   `payload_url` varchar(256) not null comment 'The URL of the message payload, the xml document',
   `evidence_url` varchar(256) default null comment 'URL of the native receipt i.e. AS2 MDN',
+  `payload_digest` varchar(64) default null comment 'SHA-256 of payload if held in the content addressed store',
+  `change_seq` bigint NOT NULL DEFAULT NEXT VALUE FOR message_change_seq COMMENT 'Value of message_change_seq at the latest change',
   PRIMARY KEY (`msg_no`),
   /* A message sent and received at the same access point, will have two entries having different transfer direction */
   constraint unique_message_uuid UNIQUE (direction, `message_uuid`),
@@ -90,13 +100,25 @@ CREATE TABLE `message` (
   CONSTRAINT `message_ibfk_1` FOREIGN KEY (`account_id`) REFERENCES `account` (`id`)
 ) ;
 
+CREATE INDEX message_payload_digest_idx ON message (payload_digest);
+CREATE INDEX message_change_idx ON message (account_id, change_seq);
+
+/** Unique payloads held in the content addressed store, referenced by the messages having the digest as payload_digest */
+CREATE TABLE `payload_blob` (
+  `digest` varchar(64) NOT NULL COMMENT 'Hex encoded SHA-256 digest of the payload',
+  `payload_url` varchar(256) NOT NULL COMMENT 'The URL of the stored payload',
+  `size` bigint NOT NULL COMMENT 'Number of bytes in payload',
+  `created_ts` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (`digest`)
+) ;
+
 /** The oubound queue implementation */
 CREATE TABLE `outbound_message_queue` (
   `id` int(11) NOT NULL AUTO_INCREMENT COMMENT 'Primary Key',
   `msg_no` int(11) DEFAULT NULL COMMENT 'FK to message table',
-  `state` varchar(16) DEFAULT NULL,
+  `state` varchar(20) DEFAULT NULL,
   PRIMARY KEY (`id`),
-  CONSTRAINT unique_state check(state in ('QUEUED','IN_PROGRESS','EXTERNAL','OK','AOD','CBU','CBO')),
+  CONSTRAINT unique_state check(state in ('PENDING_VALIDATION','VALIDATION_FAILED','QUEUED','IN_PROGRESS','EXTERNAL','OK','AOD','CBU','CBO')),
   CONSTRAINT `outbound_message_queue_ibfk_1` FOREIGN KEY (`msg_no`) REFERENCES `message` (`msg_no`) ON DELETE CASCADE
 ) ;
 
@@ -112,12 +134,57 @@ CREATE TABLE `outbound_message_queue_error` (
   CONSTRAINT `outbound_message_queue_error_ibfk_1` FOREIGN KEY (`queue_id`) REFERENCES `outbound_message_queue` (`id`) ON DELETE CASCADE
 ) ;
 
+/** The endpoint of each account, to which inbound messages are pushed */
+CREATE TABLE `account_webhook` (
+  `account_id` int(11) NOT NULL COMMENT 'FK to account',
+  `url` varchar(256) NOT NULL COMMENT 'URL receiving a POST for every inbound message',
+  `secret` varchar(128) NOT NULL COMMENT 'Key of the HMAC-SHA256 signature of every POST',
+  `include_payload` tinyint(1) NOT NULL DEFAULT '0' COMMENT 'Should the payload be pushed along with the meta data',
+  `created_ts` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (`account_id`),
+  CONSTRAINT `account_webhook_ibfk_1` FOREIGN KEY (`account_id`) REFERENCES `account` (`id`) ON DELETE CASCADE
+) ;
+
+/** The pushes of inbound messages to the webhooks */
+CREATE TABLE `webhook_delivery` (
+  `id` int(11) NOT NULL AUTO_INCREMENT COMMENT 'Primary Key',
+  `msg_no` int(11) NOT NULL COMMENT 'FK to message table',
+  `account_id` int(11) NOT NULL COMMENT 'FK to account',
+  `state` varchar(20) NOT NULL,
+  `attempts` int(11) NOT NULL DEFAULT 0 COMMENT 'Number of failed attempts',
+  `next_attempt` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT 'Next attempt, or end of lease when IN_PROGRESS',
+  `claim_token` varchar(36) DEFAULT NULL COMMENT 'Identifies the claim of the node pushing, when IN_PROGRESS',
+  `last_error` varchar(256) DEFAULT NULL,
+  `delivered` datetime DEFAULT NULL,
+  PRIMARY KEY (`id`),
+  constraint unique_webhook_delivery_msg_no UNIQUE (`msg_no`),
+  CONSTRAINT webhook_delivery_state check(state in ('PENDING','IN_PROGRESS','DELIVERED','FAILED')),
+  CONSTRAINT `webhook_delivery_ibfk_1` FOREIGN KEY (`msg_no`) REFERENCES `message` (`msg_no`) ON DELETE CASCADE,
+  CONSTRAINT `webhook_delivery_ibfk_2` FOREIGN KEY (`account_id`) REFERENCES `account` (`id`) ON DELETE CASCADE
+) ;
+
+CREATE INDEX webhook_delivery_due_idx ON webhook_delivery (state, next_attempt);
+
+/** The Idempotency-Key of uploads to the outbox, remembered for a limited time */
+CREATE TABLE `outbox_idempotency_key` (
+  `account_id` int(11) NOT NULL COMMENT 'FK to account',
+  `idempotency_key` varchar(128) NOT NULL COMMENT 'Key supplied by the client',
+  `msg_no` int(11) DEFAULT NULL COMMENT 'FK to message table, null while the upload is in progress',
+  `request_digest` varchar(64) DEFAULT NULL COMMENT 'Hex encoded SHA-256 of the header fields and document uploaded',
+  `created_ts` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (`account_id`, `idempotency_key`),
+  CONSTRAINT `outbox_idempotency_key_ibfk_1` FOREIGN KEY (`account_id`) REFERENCES `account` (`id`) ON DELETE CASCADE,
+  CONSTRAINT `outbox_idempotency_key_ibfk_2` FOREIGN KEY (`msg_no`) REFERENCES `message` (`msg_no`) ON DELETE CASCADE
+) ;
+
+CREATE INDEX outbox_idempotency_key_created_idx ON outbox_idempotency_key (created_ts);
+
 
 /* ============= INSERT ONE DEFAULT CUSTOMER WITH A SINGE ACCOUNT AND CLIENT ROLE =============== */
 
 /* Creates the user for the application itself, not meant to be used for login by customers etc. */
 create user skrue PASSWORD 'vable';
-grant all on outbound_message_queue_error, outbound_message_queue, message,
+grant all on outbox_idempotency_key, webhook_delivery, account_webhook, outbound_message_queue_error, outbound_message_queue, message, payload_blob,
   account_receiver, account_role, account,customer to skrue;
 
 insert into customer (id, name, external_ref, org_no) values (1, 'SendRegning AS', 279, '976098897');
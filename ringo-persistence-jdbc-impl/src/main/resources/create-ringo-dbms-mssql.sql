@@ -2,13 +2,18 @@
 /** To of TEST database : Create a new database called oxalis_test and run this script */
 /** To of PROD database : Create a new database called oxalis and run this script */
 
+drop table if exists outbox_idempotency_key;
+drop table if exists webhook_delivery;
+drop table if exists account_webhook;
 drop table if exists outbound_message_queue_error;
 drop table if exists outbound_message_queue;
 drop table if exists message;
+drop table if exists payload_blob;
 drop table if exists account_receiver;
 drop table if exists account_role;
 drop table if exists account;
 drop table if exists customer;
+drop sequence if exists message_change_seq;
 
 /** Customer paying for the connection */
 CREATE TABLE customer (
@@ -62,6 +67,9 @@ CREATE TABLE account_receiver (
   CONSTRAINT account_receiver_ibfk_1 FOREIGN KEY (account_id) REFERENCES account (id) ON DELETE CASCADE
 ) ;
 
+/** Change counter of the message table, incremented whenever a message is inserted or its delivery state changes */
+CREATE SEQUENCE message_change_seq AS bigint START WITH 1;
+
 /** Holds the message metadata and references to the payload and associated evidence files */
 CREATE TABLE message (
   msg_no int NOT NULL IDENTITY,
@@ -82,20 +90,33 @@ CREATE TABLE message (
   ap_name varchar(128) DEFAULT NULL ,
   payload_url varchar(256) not null ,
   evidence_url varchar(256) default null ,
+  payload_digest varchar(64) default null ,
+  change_seq bigint NOT NULL CONSTRAINT message_change_seq_default DEFAULT (NEXT VALUE FOR message_change_seq),
   PRIMARY KEY (msg_no),
   constraint unique_message_uuid UNIQUE (direction, message_uuid),
   CONSTRAINT direction_enum check(direction in ('IN','OUT')),
   CONSTRAINT message_ibfk_1 FOREIGN KEY (account_id) REFERENCES account (id)
 ) ;
 
+CREATE INDEX message_payload_digest_idx ON message (payload_digest);
+CREATE INDEX message_change_idx ON message (account_id, change_seq);
+
+/** Unique payloads held in the content addressed store, referenced by the messages having the digest as payload_digest */
+CREATE TABLE payload_blob (
+  digest varchar(64) NOT NULL ,
+  payload_url varchar(256) NOT NULL ,
+  size bigint NOT NULL ,
+  created_ts DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (digest)
+) ;
 
 /** The oubound queue implementation */
 CREATE TABLE outbound_message_queue (
   id int NOT NULL IDENTITY ,
   msg_no int DEFAULT NULL ,
-  state varchar(16) DEFAULT NULL,
+  state varchar(20) DEFAULT NULL,
   PRIMARY KEY (id),
-  CONSTRAINT unique_state check(state in ('QUEUED','IN_PROGRESS','EXTERNAL','OK','AOD','CBU','CBO')),
+  CONSTRAINT unique_state check(state in ('PENDING_VALIDATION','VALIDATION_FAILED','QUEUED','IN_PROGRESS','EXTERNAL','OK','AOD','CBU','CBO')),
   CONSTRAINT outbound_message_queue_ibfk_1 FOREIGN KEY (msg_no) REFERENCES message (msg_no) ON DELETE CASCADE
 ) ;
 
@@ -111,6 +132,51 @@ CREATE TABLE outbound_message_queue_error (
   CONSTRAINT outbound_message_queue_error_ibfk_1 FOREIGN KEY (queue_id) REFERENCES outbound_message_queue (id) ON DELETE CASCADE
 ) ;
 
+/** The endpoint of each account, to which inbound messages are pushed */
+CREATE TABLE account_webhook (
+  account_id int NOT NULL ,
+  url varchar(256) NOT NULL ,
+  secret varchar(128) NOT NULL ,
+  include_payload tinyint NOT NULL DEFAULT '0' ,
+  created_ts DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (account_id),
+  CONSTRAINT account_webhook_ibfk_1 FOREIGN KEY (account_id) REFERENCES account (id) ON DELETE CASCADE
+) ;
+
+/** The pushes of inbound messages to the webhooks */
+CREATE TABLE webhook_delivery (
+  id int NOT NULL IDENTITY ,
+  msg_no int NOT NULL ,
+  account_id int NOT NULL ,
+  state varchar(20) NOT NULL,
+  attempts int NOT NULL DEFAULT 0 ,
+  next_attempt DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ,
+  claim_token varchar(36) DEFAULT NULL ,
+  last_error varchar(256) DEFAULT NULL ,
+  delivered DATETIME DEFAULT NULL ,
+  PRIMARY KEY (id),
+  constraint unique_webhook_delivery_msg_no UNIQUE (msg_no),
+  CONSTRAINT webhook_delivery_state check(state in ('PENDING','IN_PROGRESS','DELIVERED','FAILED')),
+  CONSTRAINT webhook_delivery_ibfk_1 FOREIGN KEY (msg_no) REFERENCES message (msg_no) ON DELETE CASCADE,
+  CONSTRAINT webhook_delivery_ibfk_2 FOREIGN KEY (account_id) REFERENCES account (id)
+) ;
+
+CREATE INDEX webhook_delivery_due_idx ON webhook_delivery (state, next_attempt);
+
+/** The Idempotency-Key of uploads to the outbox, remembered for a limited time */
+CREATE TABLE outbox_idempotency_key (
+  account_id int NOT NULL ,
+  idempotency_key varchar(128) NOT NULL ,
+  msg_no int DEFAULT NULL ,
+  request_digest varchar(64) DEFAULT NULL ,
+  created_ts DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (account_id, idempotency_key),
+  CONSTRAINT outbox_idempotency_key_ibfk_1 FOREIGN KEY (account_id) REFERENCES account (id),
+  CONSTRAINT outbox_idempotency_key_ibfk_2 FOREIGN KEY (msg_no) REFERENCES message (msg_no) ON DELETE CASCADE
+) ;
+
+CREATE INDEX outbox_idempotency_key_created_idx ON outbox_idempotency_key (created_ts);
+
 
 
 /* ============= INSERT ONE DEFAULT CUSTOMER WITH A SINGE ACCOUNT AND CLIENT ROLE =============== */
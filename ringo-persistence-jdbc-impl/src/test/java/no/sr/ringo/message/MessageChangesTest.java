@@ -0,0 +1,160 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package no.sr.ringo.message;
+
+import no.difi.vefa.peppol.common.model.ParticipantIdentifier;
+import no.sr.ringo.account.AccountId;
+import no.sr.ringo.peppol.ChannelProtocol;
+import no.sr.ringo.peppol.PeppolChannelId;
+import no.sr.ringo.peppol.PeppolDocumentTypeId;
+import no.sr.ringo.persistence.guice.PersistenceTestModuleFactory;
+import no.sr.ringo.transport.TransferDirection;
+import org.testng.annotations.Guice;
+import org.testng.annotations.Test;
+
+import javax.inject.Inject;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import static org.testng.Assert.*;
+
+@Guice(moduleFactory = PersistenceTestModuleFactory.class)
+public class MessageChangesTest {
+
+    static final AccountId ACCOUNT = new AccountId(1);
+
+    @Inject
+    private PeppolMessageRepositoryImpl peppolMessageRepository;
+
+    @Inject
+    private MessageRepository messageRepository;
+
+    @Inject
+    private AccountChangeVersions accountChangeVersions;
+
+    @Test
+    public void testChangesSinceCursor() {
+        long cursor = latestCursor();
+
+        Long first = saveInboundMessage();
+        Long second = saveInboundMessage();
+
+        MessageChanges changes = peppolMessageRepository.findMessageChanges(ACCOUNT, cursor, 100);
+        assertEquals(changes.getMessages().size(), 2);
+        assertEquals(changes.getMessages().get(0).getMsgNo(), MessageNumber.of(first));
+        assertEquals(changes.getMessages().get(1).getMsgNo(), MessageNumber.of(second));
+        assertFalse(changes.isMore());
+        assertTrue(changes.getCursor() > cursor);
+
+        // Reading a message moves it past the cursor
+        peppolMessageRepository.markMessageAsRead(first);
+        MessageChanges read = peppolMessageRepository.findMessageChanges(ACCOUNT, changes.getCursor(), 100);
+        assertEquals(read.getMessages().size(), 1);
+        assertEquals(read.getMessages().get(0).getMsgNo(), MessageNumber.of(first));
+        assertNotNull(read.getMessages().get(0).getDelivered());
+
+        // No changes leaves the cursor as is
+        MessageChanges none = peppolMessageRepository.findMessageChanges(ACCOUNT, read.getCursor(), 100);
+        assertTrue(none.getMessages().isEmpty());
+        assertEquals(none.getCursor(), read.getCursor());
+    }
+
+    @Test
+    public void testChangesArePaged() {
+        long cursor = latestCursor();
+        Long first = saveInboundMessage();
+        Long second = saveInboundMessage();
+
+        MessageChanges page = peppolMessageRepository.findMessageChanges(ACCOUNT, cursor, 1);
+        assertEquals(page.getMessages().get(0).getMsgNo(), MessageNumber.of(first));
+        assertTrue(page.isMore());
+
+        page = peppolMessageRepository.findMessageChanges(ACCOUNT, page.getCursor(), 1);
+        assertEquals(page.getMessages().get(0).getMsgNo(), MessageNumber.of(second));
+        assertFalse(page.isMore());
+    }
+
+    @Test
+    public void testMessageNumberIsReturnedWhenSequencesDiverge() throws Exception {
+        Long msgNo = saveInboundMessage();
+        // Marking as read draws from the change sequence only, leaving the sequence of msg_no behind
+        for (int i = 0; i < 5; i++) {
+            peppolMessageRepository.markMessageAsRead(msgNo);
+        }
+
+        ReceptionId receptionId = new ReceptionId();
+        Long saved = saveInboundMessage(receptionId);
+        assertEquals(peppolMessageRepository.findMessageByMessageNo(MessageNumber.of(saved)).getReceptionId(), receptionId);
+
+        ReceptionId copyReceptionId = new ReceptionId();
+        Long copy = peppolMessageRepository.copyOutboundMessageToInbound(saved, copyReceptionId);
+        assertEquals(peppolMessageRepository.findMessageByMessageNo(MessageNumber.of(copy)).getReceptionId(), copyReceptionId);
+    }
+
+    @Test
+    public void testChangeVersion() {
+        long version = changeVersion();
+        assertEquals(version, latestCursor());
+        assertEquals(changeVersion(), version);
+
+        // The version held is dropped as messages are added and read
+        Long msgNo = saveInboundMessage();
+        long saved = changeVersion();
+        assertTrue(saved > version);
+
+        peppolMessageRepository.markMessageAsRead(msgNo);
+        assertTrue(changeVersion() > saved);
+    }
+
+    private long changeVersion() {
+        return accountChangeVersions.getVersion(ACCOUNT, () -> peppolMessageRepository.getChangeVersion(ACCOUNT));
+    }
+
+    private long latestCursor() {
+        MessageChanges changes;
+        long cursor = 0;
+        do {
+            changes = peppolMessageRepository.findMessageChanges(ACCOUNT, cursor, 1000);
+            cursor = changes.getCursor();
+        } while (changes.isMore());
+        return cursor;
+    }
+
+    private Long saveInboundMessage() {
+        return saveInboundMessage(new ReceptionId());
+    }
+
+    private Long saveInboundMessage(ReceptionId receptionId) {
+        MessageMetaDataImpl mmd = new MessageMetaDataImpl();
+        mmd.setTransferDirection(TransferDirection.IN);
+        mmd.getPeppolHeader().setSender(ParticipantIdentifier.of("9908:810017902"));
+        mmd.getPeppolHeader().setReceiver(ParticipantIdentifier.of("9908:976098897"));
+        mmd.getPeppolHeader().setDocumentTypeIdentifier(PeppolDocumentTypeId.EHF_INVOICE.toVefa());
+        mmd.getPeppolHeader().setPeppolChannelId(new PeppolChannelId(ChannelProtocol.SREST.name()));
+        mmd.setReceptionId(receptionId);
+        mmd.setReceived(new Date());
+        return messageRepository.saveInboundMessage(mmd, new ByteArrayInputStream("<Invoice/>".getBytes(StandardCharsets.UTF_8)));
+    }
+}
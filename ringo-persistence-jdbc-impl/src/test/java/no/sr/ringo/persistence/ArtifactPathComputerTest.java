@@ -25,6 +25,7 @@ package no.sr.ringo.persistence;
 import no.difi.vefa.peppol.common.model.ParticipantIdentifier;
 import no.sr.ringo.message.ReceptionId;
 import no.sr.ringo.persistence.file.ArtifactPathComputer;
+import no.sr.ringo.persistence.file.PayloadLayout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.testng.annotations.Test;
@@ -35,6 +36,9 @@ import java.security.Principal;
 import java.util.Date;
 import java.util.UUID;
 
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
 /**
  * @author steinar
  *         Date: 17.10.2016
@@ -58,6 +62,25 @@ public class ArtifactPathComputerTest {
 
     }
 
+    @Test
+    public void testShardedLayout() throws Exception {
+        ArtifactPathComputer a = new ArtifactPathComputer(Paths.get("/tmp"), PayloadLayout.SHARDED);
+        ArtifactPathComputer.FileRepoKey fileRepoKey = sampleMetadata();
+
+        Path payloadPath = a.createPayloadPathFrom(fileRepoKey);
+        Path evidencePath = a.createNativeEvidencePathFrom(fileRepoKey);
+
+        // basedir/IN/yyyy-mm-dd/xx/yy/uuid.doc.xml
+        Path relative = Paths.get("/tmp").relativize(payloadPath);
+        assertEquals(relative.getNameCount(), 5);
+        assertEquals(relative.getName(0).toString(), "IN");
+        assertTrue(relative.getName(2).toString().matches("[0-9a-f]{2}"));
+        assertTrue(relative.getName(3).toString().matches("[0-9a-f]{2}"));
+
+        // Payload and evidence of a message share the same directory
+        assertEquals(evidencePath.getParent(), payloadPath.getParent());
+    }
+
     @Test
     public void testNormalizeFilename() throws Exception {
 
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package no.sr.ringo.persistence;
+
+import no.sr.ringo.persistence.file.ContentAddressedPayloadStore;
+import no.sr.ringo.persistence.file.DirectoryCache;
+import no.sr.ringo.persistence.file.FsyncPolicy;
+import no.sr.ringo.persistence.file.PayloadWriter;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.testng.Assert.*;
+
+public class ContentAddressedPayloadStoreTest {
+
+    private Path baseDir;
+    private ContentAddressedPayloadStore store;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        baseDir = Files.createTempDirectory("ringo-cas");
+        store = new ContentAddressedPayloadStore(baseDir);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(baseDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void identicalPayloadsAreStoredOnce() throws Exception {
+        byte[] payload = "<Invoice>42</Invoice>".getBytes(Charset.forName("UTF-8"));
+
+        ContentAddressedPayloadStore.StoredPayload first = store.store(new ByteArrayInputStream(payload));
+        ContentAddressedPayloadStore.StoredPayload second = store.store(new ByteArrayInputStream(payload));
+
+        assertTrue(first.isCreated());
+        assertFalse(second.isCreated());
+        assertEquals(second.getDigest(), first.getDigest());
+        assertEquals(second.getPath(), first.getPath());
+        assertEquals(first.getSize(), payload.length);
+        assertEquals(Files.readAllBytes(first.getPath()), payload);
+
+        assertEquals(first.getPath(), store.pathFor(first.getDigest()));
+
+        // Nothing should be left in the temporary area
+        try (Stream<Path> tmp = Files.list(store.getCasBasePath().resolve("tmp"))) {
+            assertEquals(tmp.count(), 0);
+        }
+    }
+
+    @Test
+    public void differentPayloadsGetDifferentDigests() throws Exception {
+        ContentAddressedPayloadStore.StoredPayload a = store.store(new ByteArrayInputStream("a".getBytes("UTF-8")));
+        ContentAddressedPayloadStore.StoredPayload b = store.store(new ByteArrayInputStream("b".getBytes("UTF-8")));
+
+        assertNotEquals(a.getDigest(), b.getDigest());
+        assertEquals(a.getDigest(), "ca978112ca1bbdcafac231b39a23dc4da786eff8147c4e72b9807785afee48bb");
+    }
+
+    @Test
+    public void payloadAlreadyPresentIsMadeDurable() throws Exception {
+        List<Path> durable = new ArrayList<>();
+        store = new ContentAddressedPayloadStore(baseDir, new DirectoryCache(), new PayloadWriter(FsyncPolicy.FILE) {
+            @Override
+            public void makeDurable(Path path) throws IOException {
+                super.makeDurable(path);
+                durable.add(path);
+            }
+        });
+
+        ContentAddressedPayloadStore.StoredPayload first = store.store(new ByteArrayInputStream("a".getBytes("UTF-8")));
+        ContentAddressedPayloadStore.StoredPayload second = store.store(new ByteArrayInputStream("a".getBytes("UTF-8")));
+
+        assertFalse(second.isCreated());
+        assertEquals(durable.size(), 2);
+        assertEquals(durable.get(1), first.getPath());
+    }
+
+    @Test
+    public void spooledPayloadIsMovedUnlessPresent() throws Exception {
+        Path spooled = Files.write(baseDir.resolve("upload-1.xml"), "<Invoice>42</Invoice>".getBytes("UTF-8"));
+        ContentAddressedPayloadStore.StoredPayload first = store.store(spooled);
+
+        assertTrue(first.isCreated());
+        assertFalse(Files.exists(spooled));
+        assertEquals(new String(Files.readAllBytes(first.getPath()), "UTF-8"), "<Invoice>42</Invoice>");
+        assertEquals(first.getSize(), 21);
+
+        spooled = Files.write(baseDir.resolve("upload-2.xml"), "<Invoice>42</Invoice>".getBytes("UTF-8"));
+        ContentAddressedPayloadStore.StoredPayload second = store.store(spooled);
+
+        assertFalse(second.isCreated());
+        assertFalse(Files.exists(spooled));
+        assertEquals(second.getPath(), first.getPath());
+    }
+}
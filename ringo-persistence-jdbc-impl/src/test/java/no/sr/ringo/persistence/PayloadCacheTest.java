@@ -0,0 +1,135 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package no.sr.ringo.persistence;
+
+import no.sr.ringo.persistence.file.ArtifactReader;
+import no.sr.ringo.persistence.file.DirectoryCache;
+import no.sr.ringo.persistence.file.PayloadCache;
+import no.sr.ringo.persistence.file.SegmentStore;
+import no.sr.ringo.transport.TransferDirection;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.testng.Assert.*;
+
+public class PayloadCacheTest {
+
+    @Test
+    public void evictsLeastRecentlyUsedByWeight() throws Exception {
+        for (boolean offHeap : new boolean[]{false, true}) {
+            PayloadCache payloadCache = new PayloadCache(16 * 100, offHeap);
+            URI a = URI.create("file:///a.xml"), b = URI.create("file:///b.xml"), c = URI.create("file:///c.xml");
+
+            payloadCache.put(a, new byte[100]);
+            payloadCache.put(b, new byte[100]);
+            assertNotNull(payloadCache.get(a));     // a is now more recently used than b
+
+            for (int i = 0; i < 14; i++) {
+                payloadCache.put(URI.create("file:///" + i + ".xml"), new byte[100]);
+            }
+            assertNotNull(payloadCache.get(a));
+            payloadCache.put(c, new byte[100]);
+
+            assertNull(payloadCache.get(b), "b should have been evicted");
+            PayloadCache.Statistics statistics = payloadCache.getStatistics();
+            assertEquals(statistics.getSize(), 1600);
+            assertEquals(statistics.getEvictions(), 1);
+            assertEquals(statistics.getHits(), 2);
+            assertEquals(statistics.getMisses(), 1);
+            assertEquals(statistics.getBytesServed(), 200);
+        }
+    }
+
+    @Test
+    public void capturesPayloadWhileWritten() throws Exception {
+        PayloadCache payloadCache = new PayloadCache(1024 * 1024, true);
+        Path file = Files.createTempFile("ringo-cache", ".xml");
+        Files.delete(file);
+
+        PayloadCache.CapturingInputStream inputStream = payloadCache.capture(new ByteArrayInputStream("<Invoice/>".getBytes("UTF-8")));
+        Files.copy(inputStream, file);
+        payloadCache.put(file.toUri(), inputStream);
+
+        assertEquals(new String(payloadCache.get(file.toUri()), "UTF-8"), "<Invoice/>");
+
+        payloadCache.invalidate(file.toUri());
+        assertNull(payloadCache.get(file.toUri()));
+    }
+
+    @Test
+    public void readsInboundPayloadsThroughTheCache() throws Exception {
+        PayloadCache payloadCache = new PayloadCache(1024 * 1024, false);
+        Path directory = Files.createTempDirectory("ringo-cache");
+        ArtifactReader artifactReader = new ArtifactReader(new SegmentStore(directory, new DirectoryCache()), payloadCache);
+        Path inbound = Files.write(directory.resolve("inbound.xml"), "<Invoice/>".getBytes(StandardCharsets.UTF_8));
+        Path outbound = Files.write(directory.resolve("outbound.xml"), "<Order/>".getBytes(StandardCharsets.UTF_8));
+
+        // Outbound payloads and other artifacts bypass the cache altogether
+        assertEquals(artifactReader.readPayloadLines(outbound.toUri(), TransferDirection.OUT, StandardCharsets.UTF_8), "<Order/>");
+        assertEquals(artifactReader.readLines(inbound.toUri(), StandardCharsets.UTF_8), "<Invoice/>");
+        assertEquals(payloadCache.getStatistics().getMisses(), 0);
+        assertEquals(payloadCache.getStatistics().getEntries(), 0);
+
+        // A partially read payload is not cached
+        try (InputStream inputStream = artifactReader.openPayload(inbound.toUri(), TransferDirection.IN)) {
+            inputStream.read();
+        }
+        assertEquals(payloadCache.getStatistics().getEntries(), 0);
+
+        assertEquals(artifactReader.readPayloadLines(inbound.toUri(), TransferDirection.IN, StandardCharsets.UTF_8), "<Invoice/>");
+        Files.delete(inbound);
+        assertEquals(artifactReader.readPayloadLines(inbound.toUri(), TransferDirection.IN, StandardCharsets.UTF_8), "<Invoice/>");
+
+        PayloadCache.Statistics statistics = payloadCache.getStatistics();
+        assertEquals(statistics.getMisses(), 2);
+        assertEquals(statistics.getHits(), 1);
+        assertEquals(statistics.getEntries(), 1);
+    }
+
+    @Test
+    public void doesNotCacheLargePayloads() throws Exception {
+        PayloadCache payloadCache = new PayloadCache(16 * 10, false);
+
+        PayloadCache.CapturingInputStream inputStream = payloadCache.capture(new ByteArrayInputStream(new byte[11]));
+        Files.copy(inputStream, Files.createTempDirectory("ringo-cache").resolve("large.xml"));
+        payloadCache.put(URI.create("file:///large.xml"), inputStream);
+
+        assertNull(payloadCache.get(URI.create("file:///large.xml")));
+        assertEquals(payloadCache.getStatistics().getEntries(), 0);
+    }
+
+    @Test
+    public void disabledCacheHoldsNothing() {
+        PayloadCache payloadCache = PayloadCache.disabled();
+        payloadCache.put(URI.create("file:///a.xml"), new byte[1]);
+
+        assertFalse(payloadCache.isEnabled());
+        assertNull(payloadCache.get(URI.create("file:///a.xml")));
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package no.sr.ringo.persistence;
+
+import no.sr.ringo.persistence.file.DirectoryCache;
+import no.sr.ringo.persistence.file.PayloadLayoutMigrator;
+import no.sr.ringo.persistence.guice.PersistenceTestModuleFactory;
+import org.testng.annotations.Guice;
+import org.testng.annotations.Test;
+
+import javax.inject.Inject;
+import javax.sql.DataSource;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.UUID;
+
+import static org.testng.Assert.*;
+
+@Guice(moduleFactory = PersistenceTestModuleFactory.class)
+public class PayloadLayoutMigratorTest {
+
+    @Inject
+    DataSource dataSource;
+
+    @Test
+    public void migratesLegacyFilesAndUpdatesUrls() throws Exception {
+        Path baseDir = Files.createTempDirectory("ringo-layout");
+        String uuid = UUID.randomUUID().toString();
+
+        Path legacyDir = Files.createDirectories(baseDir.resolve("OUT").resolve("9908_976098897").resolve("9908_810017902").resolve("2017-03-01"));
+        Path payload = Files.write(legacyDir.resolve(uuid + ".doc.xml"), "<Invoice/>".getBytes("UTF-8"));
+        Path evidence = Files.write(legacyDir.resolve(uuid + ".receipt.smime"), "mdn".getBytes("UTF-8"));
+
+        long msgNo;
+        try (Connection con = dataSource.getConnection()) {
+            PreparedStatement ps = con.prepareStatement("insert into message (account_id, direction, sender, receiver, channel, message_uuid, document_id, payload_url, evidence_url, change_seq) values(1, 'OUT', '9908:810017902', '9908:976098897', 'SREST', ?, 'doc', ?, ?, next value for message_change_seq)", Statement.RETURN_GENERATED_KEYS);
+            ps.setString(1, uuid);
+            ps.setString(2, payload.toUri().toString());
+            ps.setString(3, evidence.toUri().toString());
+            ps.executeUpdate();
+            ResultSet keys = ps.getGeneratedKeys();
+            assertTrue(keys.next());
+            msgNo = keys.getLong(1);
+        }
+
+        PayloadLayoutMigrator migrator = new PayloadLayoutMigrator(dataSource, baseDir, new DirectoryCache());
+        PayloadLayoutMigrator.MigrationResult result = migrator.migrate(2, 2);
+
+        assertTrue(result.getFilesMoved() >= 2);
+        assertFalse(Files.exists(payload));
+        assertFalse(Files.exists(evidence));
+
+        try (Connection con = dataSource.getConnection()) {
+            PreparedStatement ps = con.prepareStatement("select payload_url, evidence_url from message where msg_no=?");
+            ps.setLong(1, msgNo);
+            ResultSet rs = ps.executeQuery();
+            assertTrue(rs.next());
+            Path newPayload = Paths.get(java.net.URI.create(rs.getString("payload_url")));
+            Path newEvidence = Paths.get(java.net.URI.create(rs.getString("evidence_url")));
+
+            assertEquals(new String(Files.readAllBytes(newPayload), "UTF-8"), "<Invoice/>");
+            assertTrue(Files.exists(newEvidence));
+            assertEquals(baseDir.relativize(newPayload).getName(1).toString(), "2017-03-01");
+            assertEquals(newEvidence.getParent(), newPayload.getParent());
+        }
+
+        // Running once more is harmless
+        PayloadLayoutMigrator.MigrationResult second = migrator.migrate(2, 2);
+        assertEquals(second.getFilesMoved(), 0);
+    }
+}
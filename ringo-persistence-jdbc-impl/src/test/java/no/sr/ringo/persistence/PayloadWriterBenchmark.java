@@ -0,0 +1,113 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package no.sr.ringo.persistence;
+
+import no.sr.ringo.persistence.file.FsyncPolicy;
+import no.sr.ringo.persistence.file.PayloadJournal;
+import no.sr.ringo.persistence.file.PayloadWriter;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures messages per second and the p99 latency of {@link PayloadWriter} for every {@link FsyncPolicy}, using
+ * concurrent writers as when Oxalis and the REST interface receive messages.
+ * <p>
+ * Not a unit test, run it manually against the file system to be used in production:
+ * <pre>
+ *   java -cp ... no.sr.ringo.persistence.PayloadWriterBenchmark [directory] [threads] [messages per thread] [payload size] [policy]
+ * </pre>
+ * Files left dirty by one policy are written back while the next one runs, hence the policies are best measured one
+ * at a time, running {@code sync} in between.
+ */
+public class PayloadWriterBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Path baseDir = args.length > 0 ? Paths.get(args[0]) : Files.createTempDirectory("ringo-benchmark");
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int messagesPerThread = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+        int payloadSize = args.length > 3 ? Integer.parseInt(args[3]) : 20_000;
+
+        byte[] payload = new byte[payloadSize];
+        Arrays.fill(payload, (byte) 'x');
+
+        System.out.format("%d threads writing %d messages of %d bytes each into %s%n", threads, messagesPerThread, payloadSize, baseDir);
+        FsyncPolicy[] fsyncPolicies = args.length > 4 ? new FsyncPolicy[]{FsyncPolicy.of(args[4])} : FsyncPolicy.values();
+        for (FsyncPolicy fsyncPolicy : fsyncPolicies) {
+            run(fsyncPolicy, Files.createDirectories(baseDir.resolve(fsyncPolicy.name())), threads, messagesPerThread, payload);
+        }
+    }
+
+    static void run(FsyncPolicy fsyncPolicy, Path dir, int threads, int messagesPerThread, byte[] payload) throws Exception {
+        PayloadJournal payloadJournal = fsyncPolicy == FsyncPolicy.GROUP
+                ? new PayloadJournal(dir.resolve(PayloadJournal.JOURNAL_DIRECTORY), PayloadJournal.DEFAULT_ROTATE_AFTER_BYTES)
+                : null;
+        PayloadWriter payloadWriter = new PayloadWriter(fsyncPolicy, payloadJournal);
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+
+        long start = System.nanoTime();
+        List<Future<long[]>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int threadNo = t;
+            futures.add(executorService.submit(() -> {
+                long[] latencies = new long[messagesPerThread];
+                for (int i = 0; i < messagesPerThread; i++) {
+                    long begin = System.nanoTime();
+                    payloadWriter.write(new ByteArrayInputStream(payload), dir.resolve(threadNo + "-" + i + ".doc.xml"));
+                    latencies[i] = System.nanoTime() - begin;
+                }
+                return latencies;
+            }));
+        }
+
+        long[] all = new long[threads * messagesPerThread];
+        int n = 0;
+        for (Future<long[]> future : futures) {
+            for (long latency : future.get()) {
+                all[n++] = latency;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        executorService.shutdown();
+
+        Arrays.sort(all);
+        double messagesPerSecond = all.length / (elapsed / 1e9);
+        long p50 = all[(int) (all.length * 0.50)];
+        long p99 = all[Math.min(all.length - 1, (int) (all.length * 0.99))];
+
+        // Forces on behalf of the writers, i.e. the file and its directory, or the journal shared by the writers
+        double forcesPerMessage = fsyncPolicy == FsyncPolicy.NONE ? 0 : fsyncPolicy == FsyncPolicy.FILE ? 2
+                : payloadJournal.getForceCount() / (double) payloadJournal.getRecordCount();
+        System.out.format("%-6s %10.0f msg/s   p50 %8.2f ms   p99 %8.2f ms   %5.2f fsync/msg%n", fsyncPolicy, messagesPerSecond,
+                p50 / (double) TimeUnit.MILLISECONDS.toNanos(1), p99 / (double) TimeUnit.MILLISECONDS.toNanos(1), forcesPerMessage);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package no.sr.ringo.persistence;
+
+import no.sr.ringo.persistence.file.FsyncPolicy;
+import no.sr.ringo.persistence.file.PayloadJournal;
+import no.sr.ringo.persistence.file.PayloadWriter;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class PayloadWriterTest {
+
+    @Test
+    public void writesWithEveryPolicy() throws Exception {
+        for (FsyncPolicy fsyncPolicy : FsyncPolicy.values()) {
+            Path dir = Files.createTempDirectory("ringo-fsync");
+            PayloadWriter payloadWriter = new PayloadWriter(fsyncPolicy, dir);
+
+            long size = payloadWriter.write(new ByteArrayInputStream("<a/>".getBytes("UTF-8")), dir.resolve("a.doc.xml"));
+
+            assertEquals(size, 4);
+            assertEquals(new String(Files.readAllBytes(dir.resolve("a.doc.xml")), "UTF-8"), "<a/>", fsyncPolicy.name());
+        }
+    }
+
+    @Test
+    public void concurrentWritersShareTheJournal() throws Exception {
+        Path dir = Files.createTempDirectory("ringo-fsync");
+        Path journalDirectory = dir.resolve(PayloadJournal.JOURNAL_DIRECTORY);
+        // Small enough for the journal to be rotated and checkpointed repeatedly
+        PayloadJournal payloadJournal = new PayloadJournal(journalDirectory, 1024);
+        PayloadWriter payloadWriter = new PayloadWriter(FsyncPolicy.GROUP, payloadJournal);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int threadNo = t;
+            futures.add(executorService.submit(() -> {
+                for (int i = 0; i < 25; i++) {
+                    payloadWriter.write(new ByteArrayInputStream(("<a>" + threadNo + "-" + i + "</a>").getBytes("UTF-8")), dir.resolve(threadNo + "-" + i + ".doc.xml"));
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executorService.shutdown();
+        payloadJournal.awaitCheckpoints();
+
+        assertEquals(new String(Files.readAllBytes(dir.resolve("7-24.doc.xml")), "UTF-8"), "<a>7-24</a>");
+        // Rotated journals are removed once checkpointed, leaving the current one and the one prepared to follow it
+        assertEquals(journals(journalDirectory).size(), 2);
+        assertEquals(payloadJournal.getRecordCount(), 200);
+        assertTrue(payloadJournal.getForceCount() <= 200, "Forced " + payloadJournal.getForceCount() + " times");
+    }
+
+    @Test
+    public void payloadsAreRecoveredFromTheJournal() throws Exception {
+        Path dir = Files.createTempDirectory("ringo-fsync");
+        Path journalDirectory = dir.resolve(PayloadJournal.JOURNAL_DIRECTORY);
+        PayloadWriter payloadWriter = new PayloadWriter(FsyncPolicy.GROUP, new PayloadJournal(journalDirectory, PayloadJournal.DEFAULT_ROTATE_AFTER_BYTES));
+
+        Path lost = dir.resolve("sub").resolve("lost.doc.xml");
+        Files.createDirectories(lost.getParent());
+        payloadWriter.write(new ByteArrayInputStream("<lost/>".getBytes("UTF-8")), lost);
+        Path truncated = dir.resolve("truncated.doc.xml");
+        payloadWriter.write(new ByteArrayInputStream("<truncated/>".getBytes("UTF-8")), truncated);
+        Path intact = dir.resolve("intact.doc.xml");
+        payloadWriter.write(new ByteArrayInputStream("<intact/>".getBytes("UTF-8")), intact);
+
+        // A crash prior to the files being written back
+        Files.delete(lost);
+        Files.write(truncated, "<trun".getBytes("UTF-8"));
+        List<Path> journals = journals(journalDirectory);
+
+        new PayloadJournal(journalDirectory, PayloadJournal.DEFAULT_ROTATE_AFTER_BYTES);
+
+        assertEquals(new String(Files.readAllBytes(lost), "UTF-8"), "<lost/>");
+        assertEquals(new String(Files.readAllBytes(truncated), "UTF-8"), "<truncated/>");
+        assertEquals(new String(Files.readAllBytes(intact), "UTF-8"), "<intact/>");
+        for (Path journal : journals) {
+            assertFalse(Files.exists(journal), journal + " should have been removed once recovered");
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void unknownPolicy() {
+        FsyncPolicy.of("sometimes");
+    }
+
+    private static List<Path> journals(Path journalDirectory) throws Exception {
+        List<Path> journals = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(journalDirectory, "*.journal")) {
+            files.forEach(journals::add);
+        }
+        return journals;
+    }
+}
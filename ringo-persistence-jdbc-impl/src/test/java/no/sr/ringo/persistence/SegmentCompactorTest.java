@@ -0,0 +1,188 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package no.sr.ringo.persistence;
+
+import no.sr.ringo.persistence.file.ArtifactReader;
+import no.sr.ringo.persistence.file.DirectoryCache;
+import no.sr.ringo.persistence.file.SegmentCompactor;
+import no.sr.ringo.persistence.file.SegmentStore;
+import no.sr.ringo.persistence.guice.PersistenceTestModuleFactory;
+import no.sr.ringo.transport.TransferDirection;
+import org.testng.annotations.Guice;
+import org.testng.annotations.Test;
+
+import javax.inject.Inject;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+import static org.testng.Assert.*;
+
+@Guice(moduleFactory = PersistenceTestModuleFactory.class)
+public class SegmentCompactorTest {
+
+    @Inject
+    DataSource dataSource;
+
+    @Test
+    public void appendAndReadSegmentEntries() throws Exception {
+        Path baseDir = Files.createTempDirectory("ringo-segment");
+        SegmentStore segmentStore = new SegmentStore(baseDir, new DirectoryCache());
+
+        URI first;
+        URI second;
+        try (SegmentStore.Appender appender = segmentStore.openAppender(TransferDirection.IN, LocalDate.of(2017, 3, 1))) {
+            first = appender.append("a.doc.xml", "<a/>".getBytes("UTF-8"));
+            second = appender.append("b.doc.xml", "<bb/>".getBytes("UTF-8"));
+        }
+
+        assertEquals(first.getScheme(), SegmentStore.SCHEME);
+        assertEquals(new String(segmentStore.read(second), "UTF-8"), "<bb/>");
+        assertEquals(new String(segmentStore.read(first), "UTF-8"), "<a/>");
+
+        // Appending to an existing segment
+        URI third;
+        try (SegmentStore.Appender appender = segmentStore.openAppender(TransferDirection.IN, LocalDate.of(2017, 3, 1))) {
+            third = appender.append("c.doc.xml", "<c/>".getBytes("UTF-8"));
+        }
+        assertEquals(new String(segmentStore.read(third), "UTF-8"), "<c/>");
+        assertEquals(new String(segmentStore.read(first), "UTF-8"), "<a/>");
+    }
+
+    @Test
+    public void corruptAndTruncatedEntriesAreNotServed() throws Exception {
+        Path baseDir = Files.createTempDirectory("ringo-segment");
+        SegmentStore segmentStore = new SegmentStore(baseDir, new DirectoryCache());
+
+        URI first;
+        URI second;
+        try (SegmentStore.Appender appender = segmentStore.openAppender(TransferDirection.IN, LocalDate.of(2017, 3, 2))) {
+            first = appender.append("a.doc.xml", "<a/>".getBytes("UTF-8"));
+            second = appender.append("b.doc.xml", "<bb/>".getBytes("UTF-8"));
+        }
+        Path segment = Paths.get(first.getPath());
+
+        // Flips a byte of the first entry
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap("b".getBytes("UTF-8")), 1);
+        }
+        assertUnreadable(segmentStore, first);
+        // The CRC of URIs lacking one is looked up in the index
+        assertUnreadable(segmentStore, URI.create(first.toString().replaceAll("&crc=[0-9a-f]+", "")));
+        assertEquals(new String(segmentStore.read(second), "UTF-8"), "<bb/>");
+
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+        assertUnreadable(segmentStore, second);
+    }
+
+    private static void assertUnreadable(SegmentStore segmentStore, URI segmentUri) throws Exception {
+        try (InputStream inputStream = segmentStore.openStream(segmentUri)) {
+            byte[] buffer = new byte[2];
+            while (inputStream.read(buffer) != -1) {
+                // Reads until the entry has been verified
+            }
+            fail(segmentUri + " should have been rejected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void daysHoldingOnlyContentAddressedPayloadsAreNotCompacted() throws Exception {
+        Path baseDir = Files.createTempDirectory("ringo-compaction");
+        SegmentStore segmentStore = new SegmentStore(baseDir, new DirectoryCache());
+        SegmentCompactor segmentCompactor = new SegmentCompactor(dataSource, segmentStore, 365);
+        LocalDateTime received = LocalDateTime.now().minusDays(500);
+
+        try (Connection con = dataSource.getConnection()) {
+            PreparedStatement ps = con.prepareStatement("insert into message (account_id, direction, received, sender, receiver, channel, message_uuid, document_id, payload_url, evidence_url, payload_digest, change_seq) values(1, 'IN', ?, '9908:810017902', '9908:976098897', 'SREST', ?, 'doc', ?, ?, ?, next value for message_change_seq)");
+            ps.setTimestamp(1, Timestamp.valueOf(received));
+            ps.setString(2, UUID.randomUUID().toString());
+            ps.setString(3, baseDir.resolve("cas").resolve("ab").resolve("abcdef.xml").toUri().toString());
+            ps.setString(4, "segment:/var/peppol/segments/IN/2016/2016-01-01.seg?offset=0&length=3");
+            ps.setString(5, "abcdef");
+            ps.executeUpdate();
+
+            assertFalse(segmentCompactor.daysToCompact(con, LocalDate.now().minusDays(365)).contains(received.toLocalDate()));
+        }
+    }
+
+    @Test
+    public void compactsOldFilesIntoSegments() throws Exception {
+        Path baseDir = Files.createTempDirectory("ringo-compaction");
+        SegmentStore segmentStore = new SegmentStore(baseDir, new DirectoryCache());
+
+        String uuid = UUID.randomUUID().toString();
+        Path payload = Files.write(baseDir.resolve(uuid + ".doc.xml"), "<Invoice>\n<ID>1</ID>\n</Invoice>".getBytes("UTF-8"));
+        Path evidence = Files.write(baseDir.resolve(uuid + ".receipt.smime"), "mdn".getBytes("UTF-8"));
+
+        long msgNo;
+        try (Connection con = dataSource.getConnection()) {
+            PreparedStatement ps = con.prepareStatement("insert into message (account_id, direction, received, sender, receiver, channel, message_uuid, document_id, payload_url, evidence_url, change_seq) values(1, 'IN', ?, '9908:810017902', '9908:976098897', 'SREST', ?, 'doc', ?, ?, next value for message_change_seq)", Statement.RETURN_GENERATED_KEYS);
+            ps.setTimestamp(1, Timestamp.valueOf(LocalDateTime.now().minusDays(400)));
+            ps.setString(2, uuid);
+            ps.setString(3, payload.toUri().toString());
+            ps.setString(4, evidence.toUri().toString());
+            ps.executeUpdate();
+            ResultSet keys = ps.getGeneratedKeys();
+            assertTrue(keys.next());
+            msgNo = keys.getLong(1);
+        }
+
+        long compacted = new SegmentCompactor(dataSource, segmentStore, 365).compact();
+        assertTrue(compacted >= 2);
+        assertFalse(Files.exists(payload));
+        assertFalse(Files.exists(evidence));
+
+        try (Connection con = dataSource.getConnection()) {
+            PreparedStatement ps = con.prepareStatement("select payload_url, evidence_url from message where msg_no=?");
+            ps.setLong(1, msgNo);
+            ResultSet rs = ps.executeQuery();
+            assertTrue(rs.next());
+            URI payloadUri = URI.create(rs.getString("payload_url"));
+            assertTrue(SegmentStore.isSegmentUri(payloadUri));
+
+            String xml = new ArtifactReader(segmentStore).readLines(payloadUri, Charset.forName("UTF-8"));
+            assertEquals(xml, String.join(System.lineSeparator(), "<Invoice>", "<ID>1</ID>", "</Invoice>"));
+            assertEquals(new String(segmentStore.read(URI.create(rs.getString("evidence_url"))), "UTF-8"), "mdn");
+        }
+    }
+}
@@ -71,6 +71,15 @@ public class PersistenceTestModuleFactory implements IModuleFactory {
         protected void configure() {
 
             bind(Path.class).annotatedWith(Names.named(RingoConfigProperty.PAYLOAD_BASE_PATH)).toInstance(Paths.get("/var/peppol"));
+            bind(String.class).annotatedWith(Names.named(RingoConfigProperty.PAYLOAD_DEDUPLICATION)).toInstance("false");
+            bind(String.class).annotatedWith(Names.named(RingoConfigProperty.PAYLOAD_LAYOUT)).toInstance("legacy");
+            bind(String.class).annotatedWith(Names.named(RingoConfigProperty.PAYLOAD_FSYNC)).toInstance("none");
+            bind(String.class).annotatedWith(Names.named(RingoConfigProperty.PAYLOAD_CACHE_SIZE)).toInstance("1048576");
+            bind(String.class).annotatedWith(Names.named(RingoConfigProperty.PAYLOAD_CACHE_OFFHEAP)).toInstance("false");
+            // Profiles the statements of the repositories under test, without logging them
+            bind(String.class).annotatedWith(Names.named(RingoConfigProperty.SLOW_QUERY_THRESHOLD)).toInstance("60000");
+            bind(String.class).annotatedWith(Names.named(RingoConfigProperty.SLOW_QUERY_LOG_INTERVAL)).toInstance("60000");
+            bind(String.class).annotatedWith(Names.named(RingoConfigProperty.SLOW_QUERY_MASKED_COLUMNS)).toInstance("password");
             binder().install(new RingoRepositoryModule());
 
             binder().install(new InMemoryTestDatabaseModule());
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package no.sr.ringo.persistence.guice.jdbc;
+
+import com.google.inject.Inject;
+import no.sr.ringo.persistence.guice.PersistenceTestModuleFactory;
+import org.testng.annotations.Guice;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+@Guice(moduleFactory = PersistenceTestModuleFactory.class)
+public class JdbcTxManagerImplTest {
+
+    @Inject
+    JdbcTxManager jdbcTxManager;
+
+    @Test
+    public void connectionLeftBoundIsReleased() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // Fails halfway through a transaction, leaving the connection bound to the worker thread
+            executor.submit(jdbcTxManager.handOff(() -> {
+                jdbcTxManager.newConnection(false);
+                throw new IllegalStateException("Failed within transaction");
+            }));
+
+            boolean[] bound = new boolean[1];
+            executor.submit(jdbcTxManager.handOff(() -> bound[0] = jdbcTxManager.isConnection())).get(10, TimeUnit.SECONDS);
+            assertFalse(bound[0], "Connection carried over to the next task");
+
+            assertFalse(executor.submit(jdbcTxManager::isConnection).get(10, TimeUnit.SECONDS), "Connection left bound after the task");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void handOffWithinTransactionIsRejected() {
+        jdbcTxManager.newConnection(false);
+        try {
+            jdbcTxManager.handOff(() -> {
+            });
+        } finally {
+            jdbcTxManager.rollback();
+            jdbcTxManager.cleanUp();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package no.sr.ringo.persistence.idempotency;
+
+import no.difi.vefa.peppol.common.model.ParticipantIdentifier;
+import no.sr.ringo.account.AccountId;
+import no.sr.ringo.message.MessageMetaDataImpl;
+import no.sr.ringo.message.MessageNumber;
+import no.sr.ringo.message.MessageRepository;
+import no.sr.ringo.message.ReceptionId;
+import no.sr.ringo.peppol.ChannelProtocol;
+import no.sr.ringo.peppol.PeppolChannelId;
+import no.sr.ringo.peppol.PeppolDocumentTypeId;
+import no.sr.ringo.persistence.guice.PersistenceTestModuleFactory;
+import no.sr.ringo.transport.TransferDirection;
+import org.testng.annotations.Guice;
+import org.testng.annotations.Test;
+
+import javax.inject.Inject;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+@Guice(moduleFactory = PersistenceTestModuleFactory.class)
+public class IdempotencyKeyRepositoryImplTest {
+
+    static final AccountId ACCOUNT = new AccountId(1);
+
+    @Inject
+    private IdempotencyKeyRepository idempotencyKeyRepository;
+
+    @Inject
+    private MessageRepository messageRepository;
+
+    @Test
+    public void testKeyIsReservedOnce() {
+        String key = UUID.randomUUID().toString();
+        Date now = new Date();
+        Date expiredBefore = new Date(now.getTime() - TimeUnit.HOURS.toMillis(24));
+        Date abandonedBefore = new Date(now.getTime() - TimeUnit.MINUTES.toMillis(5));
+
+        assertNull(idempotencyKeyRepository.reserve(ACCOUNT, key, now, expiredBefore, abandonedBefore));
+
+        // Concurrent upload using the same key
+        IdempotencyKey inProgress = idempotencyKeyRepository.reserve(ACCOUNT, key, now, expiredBefore, abandonedBefore);
+        assertNotNull(inProgress);
+        assertTrue(inProgress.isInProgress());
+
+        MessageNumber messageNumber = MessageNumber.of(saveMessage());
+        assertTrue(idempotencyKeyRepository.complete(ACCOUNT, key, messageNumber, "digest"));
+        assertFalse(idempotencyKeyRepository.complete(ACCOUNT, key, MessageNumber.of(saveMessage()), "another digest"), "Completed twice");
+
+        // Retried upload, the completed key is kept even if released
+        idempotencyKeyRepository.release(ACCOUNT, key);
+        IdempotencyKey completed = idempotencyKeyRepository.reserve(ACCOUNT, key, now, expiredBefore, abandonedBefore);
+        assertFalse(completed.isInProgress());
+        assertEquals(completed.getMessageNumber(), messageNumber);
+        assertEquals(completed.getRequestDigest(), "digest");
+
+        // The key is scoped by account
+        assertNull(idempotencyKeyRepository.find(new AccountId(2), key));
+    }
+
+    @Test
+    public void testReleasedAbandonedAndExpiredKeysAreReplaced() {
+        String key = UUID.randomUUID().toString();
+        Date now = new Date();
+        Date later = new Date(now.getTime() + TimeUnit.MINUTES.toMillis(10));
+
+        assertNull(idempotencyKeyRepository.reserve(ACCOUNT, key, now, now, now));
+        idempotencyKeyRepository.release(ACCOUNT, key);
+        assertNull(idempotencyKeyRepository.find(ACCOUNT, key));
+
+        // Abandoned by an upload which never completed
+        assertNull(idempotencyKeyRepository.reserve(ACCOUNT, key, now, now, now));
+        assertNotNull(idempotencyKeyRepository.reserve(ACCOUNT, key, later, now, now));
+        assertNull(idempotencyKeyRepository.reserve(ACCOUNT, key, later, now, later));
+
+        // Expired
+        assertTrue(idempotencyKeyRepository.complete(ACCOUNT, key, MessageNumber.of(saveMessage()), "digest"));
+        Date muchLater = new Date(later.getTime() + TimeUnit.MINUTES.toMillis(10));
+        assertNotNull(idempotencyKeyRepository.reserve(ACCOUNT, key, muchLater, later, muchLater));
+        assertTrue(idempotencyKeyRepository.purge(muchLater) >= 1);
+        assertNull(idempotencyKeyRepository.find(ACCOUNT, key));
+    }
+
+    private Long saveMessage() {
+        MessageMetaDataImpl mmd = new MessageMetaDataImpl();
+        mmd.setTransferDirection(TransferDirection.IN);
+        mmd.getPeppolHeader().setSender(ParticipantIdentifier.of("9908:810017902"));
+        mmd.getPeppolHeader().setReceiver(ParticipantIdentifier.of("9908:976098897"));
+        mmd.getPeppolHeader().setDocumentTypeIdentifier(PeppolDocumentTypeId.EHF_INVOICE.toVefa());
+        mmd.getPeppolHeader().setPeppolChannelId(new PeppolChannelId(ChannelProtocol.SREST.name()));
+        mmd.setReceptionId(new ReceptionId());
+        mmd.setReceived(new Date());
+        return messageRepository.saveInboundMessage(mmd, new ByteArrayInputStream("<Invoice/>".getBytes(StandardCharsets.UTF_8)));
+    }
+}
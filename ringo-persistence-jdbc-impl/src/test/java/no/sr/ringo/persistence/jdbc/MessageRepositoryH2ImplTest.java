@@ -25,14 +25,26 @@ package no.sr.ringo.persistence.jdbc;
 import no.difi.oxalis.test.identifier.WellKnownParticipant;
 import no.difi.vefa.peppol.common.model.ParticipantIdentifier;
 import no.sr.ringo.account.AccountId;
+import no.sr.ringo.message.InboxNotifier;
 import no.sr.ringo.message.MessageMetaDataImpl;
+import no.sr.ringo.message.MessageNumber;
 import no.sr.ringo.message.MessageRepository;
+import no.sr.ringo.message.ReceptionId;
 import no.sr.ringo.message.TransmissionMetaData;
+import no.sr.ringo.metrics.jfr.PayloadIoEvent;
+import no.sr.ringo.metrics.jfr.RepositoryCallEvent;
 import no.sr.ringo.peppol.ChannelProtocol;
 import no.sr.ringo.peppol.PeppolChannelId;
 import no.sr.ringo.peppol.PeppolDocumentTypeId;
 import no.sr.ringo.persistence.guice.PersistenceTestModuleFactory;
+import no.sr.ringo.persistence.guice.jdbc.JdbcTxManager;
+import no.sr.ringo.persistence.queue.OutboundMessageQueueId;
+import no.sr.ringo.persistence.queue.OutboundMessageQueueState;
+import no.sr.ringo.persistence.queue.QueueRepository;
 import no.sr.ringo.transport.TransferDirection;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import org.testng.annotations.Guice;
 import org.testng.annotations.Test;
 import org.w3c.dom.Comment;
@@ -54,8 +66,16 @@ import java.io.InputStream;
 import java.net.URI;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.*;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 import static org.testng.Assert.*;
 
@@ -74,6 +94,15 @@ public class MessageRepositoryH2ImplTest {
     @Inject
     private DataSource dataSource;
 
+    @Inject
+    private QueueRepository queueRepository;
+
+    @Inject
+    private InboxNotifier inboxNotifier;
+
+    @Inject
+    private JdbcTxManager jdbcTxManager;
+
     @Test
     public void findAccountByParticipantId() {
         MessageRepositoryH2Impl repo = (MessageRepositoryH2Impl) messageDbmsRepository;
@@ -146,6 +175,175 @@ public class MessageRepositoryH2ImplTest {
         // dumpRow(resultSet);
     }
 
+    @Test
+    public void testSaveOutboundMessageFromSpooledPayload() throws Exception {
+
+        byte[] payload = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<Invoice>  <!-- " + MESSAGE_COMMENT + " --></Invoice>\n").getBytes("UTF-8");
+        Path spooledPayload = Files.createTempFile("upload-", ".xml");
+        Files.write(spooledPayload, payload);
+
+        Long messageNo = messageDbmsRepository.saveOutboundMessage(sampleMessageMetaData(), spooledPayload);
+
+        try (Connection con = dataSource.getConnection()) {
+            PreparedStatement ps = con.prepareStatement("select payload_url from message where msg_no=?");
+            ps.setLong(1, messageNo);
+            ResultSet resultSet = ps.executeQuery();
+            assertTrue(resultSet.next());
+
+            // Moved into place, byte by byte as spooled
+            assertFalse(Files.exists(spooledPayload));
+            assertEquals(Files.readAllBytes(Paths.get(URI.create(resultSet.getString("payload_url")))), payload);
+        }
+    }
+
+    @Test
+    public void testSaveOutboundMessagesInBatch() throws Exception {
+
+        List<TransmissionMetaData> metaData = new ArrayList<>();
+        List<Path> spooledPayloads = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            metaData.add(sampleMessageMetaData());
+            Path spooledPayload = Files.createTempFile("upload-", ".xml");
+            Files.write(spooledPayload, ("<Invoice>" + i + "</Invoice>").getBytes("UTF-8"));
+            spooledPayloads.add(spooledPayload);
+        }
+
+        List<Long> messageNumbers = messageDbmsRepository.saveOutboundMessages(metaData, spooledPayloads);
+        List<OutboundMessageQueueId> queueIds = queueRepository.putMessagesOnQueue(messageNumbers, OutboundMessageQueueState.QUEUED);
+
+        assertEquals(messageNumbers.size(), 3);
+        assertEquals(queueIds.size(), 3);
+        try (Connection con = dataSource.getConnection()) {
+            for (int i = 0; i < 3; i++) {
+                PreparedStatement ps = con.prepareStatement("select m.message_uuid, m.payload_url, q.id from message m join outbound_message_queue q on (q.msg_no = m.msg_no) where m.msg_no=?");
+                ps.setLong(1, messageNumbers.get(i));
+                ResultSet resultSet = ps.executeQuery();
+                assertTrue(resultSet.next());
+
+                // In the order supplied
+                assertEquals(resultSet.getString("message_uuid"), metaData.get(i).getReceptionId().stringValue());
+                assertEquals(new String(Files.readAllBytes(Paths.get(URI.create(resultSet.getString("payload_url")))), "UTF-8"), "<Invoice>" + i + "</Invoice>");
+                assertEquals(resultSet.getInt("id"), queueIds.get(i).toInt());
+                assertFalse(Files.exists(spooledPayloads.get(i)));
+            }
+        }
+    }
+
+    @Test
+    public void testPayloadsMovedAreRemovedOnRollback() throws Exception {
+
+        Path spooledPayload = Files.createTempFile("upload-", ".xml");
+        Files.write(spooledPayload, "<Invoice/>".getBytes("UTF-8"));
+
+        Path payloadPath;
+        jdbcTxManager.newConnection(false);
+        try {
+            Long messageNo = messageDbmsRepository.saveOutboundMessages(Collections.singletonList(sampleMessageMetaData()), Collections.singletonList(spooledPayload)).get(0);
+            PreparedStatement ps = jdbcTxManager.getConnection().prepareStatement("select payload_url from message where msg_no=?");
+            ps.setLong(1, messageNo);
+            ResultSet resultSet = ps.executeQuery();
+            assertTrue(resultSet.next());
+            payloadPath = Paths.get(URI.create(resultSet.getString("payload_url")));
+            assertTrue(Files.exists(payloadPath));
+
+            jdbcTxManager.rollback();
+        } finally {
+            jdbcTxManager.cleanUp();
+        }
+
+        // No message refers to the payload
+        assertFalse(Files.exists(payloadPath));
+    }
+
+    @Test
+    public void testQueueIsCountedByState() throws Exception {
+        Map<OutboundMessageQueueState, Integer> before = queueRepository.countByState();
+        assertEquals(before.size(), OutboundMessageQueueState.values().length);
+
+        Long messageNo = messageDbmsRepository.saveOutboundMessage(sampleMessageMetaData(), new ByteArrayInputStream("<Invoice/>".getBytes("UTF-8")));
+        queueRepository.putMessageOnQueue(messageNo, OutboundMessageQueueState.PENDING_VALIDATION);
+
+        Map<OutboundMessageQueueState, Integer> after = queueRepository.countByState();
+        assertEquals(after.get(OutboundMessageQueueState.PENDING_VALIDATION).intValue(), before.get(OutboundMessageQueueState.PENDING_VALIDATION) + 1);
+        assertEquals(after.get(OutboundMessageQueueState.QUEUED), before.get(OutboundMessageQueueState.QUEUED));
+    }
+
+    @Test
+    public void testSaveInboundMessageNotifiesInbox() throws Exception {
+        List<MessageNumber> notified = new ArrayList<>();
+        InboxNotifier.Listener listener = (accountId, messageNumber) -> {
+            assertEquals(accountId, new AccountId(1));
+            notified.add(messageNumber);
+        };
+        inboxNotifier.addListener(listener);
+        try {
+            MessageMetaDataImpl mmd = (MessageMetaDataImpl) sampleMessageMetaData();
+            mmd.setTransferDirection(TransferDirection.IN);
+            mmd.setAccountId(null);
+            mmd.getPeppolHeader().setReceiver(ParticipantIdentifier.of("9908:976098897"));
+            mmd.setReceptionId(new ReceptionId());
+            mmd.setReceived(new Date());
+
+            Long messageNo = messageDbmsRepository.saveInboundMessage(mmd, sampeXmlDocumentAsInputStream());
+
+            assertEquals(notified, Collections.singletonList(MessageNumber.of(messageNo)));
+        } finally {
+            inboxNotifier.removeListener(listener);
+        }
+    }
+
+    @Test
+    public void testPayloadIsRegisteredOnce() throws Exception {
+        MessageRepositoryH2Impl repo = (MessageRepositoryH2Impl) messageDbmsRepository;
+        String digest = "ca978112ca1bbdcafac231b39a23dc4da786eff8147c4e72b9807785afee48bb";
+        URI payloadUrl = URI.create("file:///var/peppol/cas/ca/97/" + digest + ".doc.xml");
+
+        repo.registerPayload(digest, payloadUrl, 1);
+        repo.registerPayload(digest, payloadUrl, 1);
+
+        try (Connection con = dataSource.getConnection()) {
+            PreparedStatement ps = con.prepareStatement("select count(*), max(payload_url) from payload_blob where digest=?");
+            ps.setString(1, digest);
+            ResultSet rs = ps.executeQuery();
+            assertTrue(rs.next());
+            assertEquals(rs.getInt(1), 1);
+            assertEquals(rs.getString(2), payloadUrl.toString());
+        }
+    }
+
+    @Test
+    public void testRepositoryCallsAndPayloadIoAreRecorded() throws Exception {
+        Path recordingFile = Files.createTempFile("ringo-", ".jfr");
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            recording.enable(RepositoryCallEvent.class).withThreshold(Duration.ZERO);
+            recording.enable(PayloadIoEvent.class).withThreshold(Duration.ZERO);
+            recording.start();
+
+            Long messageNo = messageDbmsRepository.saveOutboundMessage(sampleMessageMetaData(), sampeXmlDocumentAsInputStream());
+            messageDbmsRepository.findByMessageNo(messageNo);
+
+            recording.stop();
+            recording.dump(recordingFile);
+            events = RecordingFile.readAllEvents(recordingFile);
+        } finally {
+            Files.deleteIfExists(recordingFile);
+        }
+
+        List<String> sqlIds = events.stream()
+                .filter(e -> e.getEventType().getName().equals("no.sr.ringo.RepositoryCall"))
+                .map(e -> e.getString("sqlId") + ":" + e.getLong("rows"))
+                .collect(Collectors.toList());
+        assertTrue(sqlIds.contains("message.insert:1"), sqlIds.toString());
+        assertTrue(sqlIds.contains("message.findByMsgNo:1"), sqlIds.toString());
+
+        RecordedEvent write = events.stream()
+                .filter(e -> e.getEventType().getName().equals("no.sr.ringo.PayloadIo"))
+                .findFirst().orElseThrow(() -> new AssertionError("No payload I/O recorded"));
+        assertEquals(write.getString("operation"), PayloadIoEvent.WRITE);
+        assertTrue(write.getLong("bytes") > 0);
+    }
+
     private TransmissionMetaData sampleMessageMetaData() {
 
         final MessageMetaDataImpl mmd = new MessageMetaDataImpl();
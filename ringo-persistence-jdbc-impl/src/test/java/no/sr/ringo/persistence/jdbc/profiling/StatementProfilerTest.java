@@ -0,0 +1,170 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package no.sr.ringo.persistence.jdbc.profiling;
+
+import no.sr.ringo.persistence.jdbc.platform.DbmsPlatformFactory;
+import org.h2.jdbcx.JdbcDataSource;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+public class StatementProfilerTest {
+
+    private DataSource h2;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        JdbcDataSource ds = new JdbcDataSource();
+        ds.setUrl("jdbc:h2:mem:profiling;DB_CLOSE_DELAY=-1");
+        ds.setUser("sa");
+        ds.setPassword("");
+        h2 = ds;
+        try (Connection connection = h2.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("drop table if exists login");
+            statement.execute("create table login (name varchar(32) primary key, password varchar(32))");
+        }
+    }
+
+    @Test
+    public void executionsAreAggregatedPerStatement() throws Exception {
+        StatementProfiler profiler = new StatementProfiler("0", "60000", "password");
+        DataSource dataSource = profiler.profile(h2);
+
+        try (Connection connection = dataSource.getConnection()) {
+            PreparedStatement insert = connection.prepareStatement("insert into login (name, password) values (?, ?)");
+            for (String name : Arrays.asList("adam", "steinar", "thore")) {
+                insert.setString(1, name);
+                insert.setString(2, "secret");
+                assertEquals(insert.executeUpdate(), 1);
+            }
+            insert.close();
+
+            PreparedStatement select = connection.prepareStatement("select name from login where name like ?");
+            select.setString(1, "%");
+            ResultSet rs = select.executeQuery();
+            int rows = 0;
+            while (rs.next()) {
+                rows++;
+            }
+            assertEquals(rows, 3);
+        }
+
+        List<StatementStatistics> statistics = profiler.getStatistics();
+        assertEquals(statistics.size(), 2);
+        StatementStatistics inserts = find(statistics, "insert");
+        assertEquals(inserts.getCount(), 3);
+        assertEquals(inserts.getRows(), 3);
+        assertEquals(inserts.getSlowCount(), 3);
+        assertTrue(inserts.getId().startsWith("StatementProfilerTest.executionsAreAggregatedPerStatement:"), inserts.getId());
+        StatementStatistics selects = find(statistics, "select");
+        assertEquals(selects.getCount(), 1);
+        assertEquals(selects.getRows(), 3);
+        assertTrue(profiler.toJson().contains("\"id\":\"" + selects.getId() + "\""));
+    }
+
+    @Test
+    public void rowsNotReadToTheEndAreCountedWhenConnectionIsClosed() throws Exception {
+        StatementProfiler profiler = new StatementProfiler("0", "60000", "password");
+        DataSource dataSource = profiler.profile(h2);
+
+        try (Connection connection = dataSource.getConnection()) {
+            connection.createStatement().executeUpdate("insert into login (name, password) values ('adam', 'secret'), ('thore', 'secret')");
+            ResultSet rs = connection.prepareStatement("select name from login").executeQuery();
+            assertTrue(rs.next());
+            assertEquals(profiler.getStatistics().size(), 1);
+        }
+
+        StatementStatistics selects = find(profiler.getStatistics(), "select");
+        assertEquals(selects.getCount(), 1);
+        assertEquals(selects.getRows(), 1);
+        // Literals are left out of the statement
+        assertEquals(find(profiler.getStatistics(), "insert").getSql(), "insert into login (name, password) values (?, ?), (?, ?)");
+    }
+
+    @Test
+    public void disabledProfilerProvidesDataSourceAsIs() {
+        StatementProfiler profiler = new StatementProfiler("-1", "60000", "password");
+
+        assertFalse(profiler.isEnabled());
+        assertSame(profiler.profile(h2), h2);
+        assertTrue(profiler.toJson().startsWith("{\"enabled\":false"));
+    }
+
+    @Test
+    public void sensitiveParametersAreMasked() {
+        List<String> masked = Arrays.asList("password", "secret");
+
+        assertEquals(SqlParameters.format("insert into login (name, password) values (?, ?)", Arrays.asList("adam", "pw"), masked),
+                "[1='adam', 2=***]");
+        assertEquals(SqlParameters.format("update account set password = ? where username = ? and id in (?, ?)", Arrays.asList("pw", "sr", 1, 2), masked),
+                "[1=***, 2='sr', 3=1, 4=2]");
+        assertEquals(SqlParameters.format("insert into webhook (id, url, secret, created) values (next value for seq, ?, ?, ?)",
+                Arrays.asList("https://example.com", "s3cr3t", new byte[42]), masked), "[1='https://example.com', 2=***, 3=<42 bytes>]");
+        assertEquals(SqlParameters.format("select 1", Collections.emptyList(), masked), "");
+
+        // Parameters of unknown columns are masked, unless no column is
+        assertEquals(SqlParameters.format("select id from login where lower(name) = lower(?) and id > ?", Arrays.asList("Adam", 7), masked),
+                "[1=***, 2=7]");
+        assertEquals(SqlParameters.format("select id from login where lower(name) = lower(?) and id > ?", Arrays.asList("Adam", 7), Collections.emptyList()),
+                "[1='Adam', 2=7]");
+    }
+
+    @Test
+    public void slowStatementIsLoggedOncePerInterval() {
+        StatementStatistics statistics = new StatementStatistics("AccountRepositoryImpl.findAccountByUsername:00000000", "select");
+
+        assertTrue(statistics.isLogDue(1000, 60000));
+        assertFalse(statistics.isLogDue(2000, 60000));
+        assertTrue(statistics.isLogDue(61000, 60000));
+    }
+
+    @Test
+    public void queryIsExplained() throws Exception {
+        try (Connection connection = h2.getConnection()) {
+            String plan = DbmsPlatformFactory.platformFor(connection).explain(connection,
+                    "select name from login where name = ?", Collections.singletonList("adam"));
+
+            assertTrue(plan.toUpperCase().contains("LOGIN"), plan);
+        }
+    }
+
+    private static StatementStatistics find(List<StatementStatistics> statistics, String prefix) {
+        for (StatementStatistics statement : statistics) {
+            if (statement.getSql().startsWith(prefix)) {
+                return statement;
+            }
+        }
+        throw new AssertionError("No " + prefix + " among " + statistics.size() + " statements");
+    }
+}
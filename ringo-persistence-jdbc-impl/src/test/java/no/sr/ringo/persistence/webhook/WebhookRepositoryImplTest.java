@@ -0,0 +1,140 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package no.sr.ringo.persistence.webhook;
+
+import no.difi.vefa.peppol.common.model.ParticipantIdentifier;
+import no.sr.ringo.account.AccountId;
+import no.sr.ringo.message.MessageMetaDataImpl;
+import no.sr.ringo.message.MessageNumber;
+import no.sr.ringo.message.MessageRepository;
+import no.sr.ringo.message.ReceptionId;
+import no.sr.ringo.peppol.ChannelProtocol;
+import no.sr.ringo.peppol.PeppolChannelId;
+import no.sr.ringo.peppol.PeppolDocumentTypeId;
+import no.sr.ringo.persistence.guice.PersistenceTestModuleFactory;
+import no.sr.ringo.transport.TransferDirection;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Guice;
+import org.testng.annotations.Test;
+
+import javax.inject.Inject;
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+@Guice(moduleFactory = PersistenceTestModuleFactory.class)
+public class WebhookRepositoryImplTest {
+
+    static final AccountId ACCOUNT = new AccountId(1);
+
+    @Inject
+    private WebhookRepository webhookRepository;
+
+    @Inject
+    private MessageRepository messageRepository;
+
+    @AfterMethod
+    public void removeWebhook() {
+        webhookRepository.deleteWebhook(ACCOUNT);
+    }
+
+    @Test
+    public void testSaveWebhook() {
+        webhookRepository.saveWebhook(new Webhook(ACCOUNT, URI.create("https://backend.example.com/ringo"), "secret", false));
+        webhookRepository.saveWebhook(new Webhook(ACCOUNT, URI.create("https://backend.example.com/inbox"), "other secret", true));
+
+        Webhook webhook = webhookRepository.getWebhook(ACCOUNT);
+        assertEquals(webhook.getUrl(), URI.create("https://backend.example.com/inbox"));
+        assertEquals(webhook.getSecret(), "other secret");
+        assertTrue(webhook.isIncludePayload());
+
+        webhookRepository.deleteWebhook(ACCOUNT);
+        assertNull(webhookRepository.getWebhook(ACCOUNT));
+    }
+
+    @Test
+    public void testInboundMessagesArePushedOnlyWithWebhook() {
+        Long withoutWebhook = saveInboundMessage();
+        assertNull(webhookRepository.getDeliveryState(MessageNumber.of(withoutWebhook)));
+
+        webhookRepository.saveWebhook(new Webhook(ACCOUNT, URI.create("https://backend.example.com/ringo"), "secret", false));
+        MessageNumber messageNumber = MessageNumber.of(saveInboundMessage());
+        assertEquals(webhookRepository.getDeliveryState(messageNumber), WebhookDeliveryState.PENDING);
+
+        Date now = new Date();
+        WebhookDelivery delivery = findDelivery(webhookRepository.findDueDeliveries(now, 100), messageNumber);
+        assertNotNull(delivery);
+        assertEquals(delivery.getAttempts(), 0);
+        assertEquals(delivery.getWebhook().getSecret(), "secret");
+
+        // Claimed by a single node only
+        Date leaseUntil = new Date(now.getTime() + TimeUnit.MINUTES.toMillis(5));
+        assertTrue(webhookRepository.claimDelivery(delivery.getId(), "first", now, leaseUntil));
+        assertFalse(webhookRepository.claimDelivery(delivery.getId(), "second", now, leaseUntil));
+        assertNull(findDelivery(webhookRepository.findDueDeliveries(now, 100), messageNumber));
+
+        // Taken up again once the lease expires, after which the expired claim records nothing
+        assertNotNull(findDelivery(webhookRepository.findDueDeliveries(leaseUntil, 100), messageNumber));
+        assertTrue(webhookRepository.claimDelivery(delivery.getId(), "second", leaseUntil, new Date(leaseUntil.getTime() + 1000)));
+        assertFalse(webhookRepository.markDelivered(delivery.getId(), "first", new Date()));
+        assertFalse(webhookRepository.markFailed(delivery.getId(), "first", "410 Gone"));
+        assertEquals(webhookRepository.getDeliveryState(messageNumber), WebhookDeliveryState.IN_PROGRESS);
+
+        assertTrue(webhookRepository.retryDelivery(delivery.getId(), "second", leaseUntil, "503 Service Unavailable"));
+        assertFalse(webhookRepository.retryDelivery(delivery.getId(), "second", leaseUntil, "503 Service Unavailable"));
+        delivery = findDelivery(webhookRepository.findDueDeliveries(leaseUntil, 100), messageNumber);
+        assertEquals(delivery.getAttempts(), 1);
+
+        assertTrue(webhookRepository.claimDelivery(delivery.getId(), "third", leaseUntil, new Date(leaseUntil.getTime() + 1000)));
+        assertTrue(webhookRepository.markDelivered(delivery.getId(), "third", new Date()));
+        assertEquals(webhookRepository.getDeliveryState(messageNumber), WebhookDeliveryState.DELIVERED);
+        assertNull(findDelivery(webhookRepository.findDueDeliveries(leaseUntil, 100), messageNumber));
+    }
+
+    private static WebhookDelivery findDelivery(List<WebhookDelivery> deliveries, MessageNumber messageNumber) {
+        for (WebhookDelivery delivery : deliveries) {
+            if (delivery.getMessageNumber().equals(messageNumber)) {
+                return delivery;
+            }
+        }
+        return null;
+    }
+
+    private Long saveInboundMessage() {
+        MessageMetaDataImpl mmd = new MessageMetaDataImpl();
+        mmd.setTransferDirection(TransferDirection.IN);
+        mmd.getPeppolHeader().setSender(ParticipantIdentifier.of("9908:810017902"));
+        mmd.getPeppolHeader().setReceiver(ParticipantIdentifier.of("9908:976098897"));
+        mmd.getPeppolHeader().setDocumentTypeIdentifier(PeppolDocumentTypeId.EHF_INVOICE.toVefa());
+        mmd.getPeppolHeader().setPeppolChannelId(new PeppolChannelId(ChannelProtocol.SREST.name()));
+        mmd.setReceptionId(new ReceptionId());
+        mmd.setReceived(new Date());
+        return messageRepository.saveInboundMessage(mmd, new ByteArrayInputStream("<Invoice/>".getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -5,16 +5,26 @@ import com.google.inject.Injector;
 import no.sr.ringo.config.RingoConfigModule;
 import no.sr.ringo.guice.OxalisOutboundModule;
 import no.sr.ringo.guice.RingoServiceModule;
+import no.sr.ringo.oxalis.OutboundTransmissionStatistics;
 import no.sr.ringo.parser.CommandLineParser;
 import no.sr.ringo.parser.ParserResult;
+import no.sr.ringo.persistence.file.PayloadLayoutMigrator;
+import no.sr.ringo.persistence.file.SegmentCompactor;
 import no.sr.ringo.persistence.jdbc.RingoDataSourceModule;
 import no.sr.ringo.persistence.jdbc.RingoRepositoryModule;
 import no.sr.ringo.persistence.queue.OutboundMessageQueueId;
+import no.sr.ringo.status.StatusServer;
 import no.sr.ringo.usecase.QueuedMessageSenderResult;
+import no.sr.ringo.usecase.QueuedMessageSenderStatistics;
 import no.sr.ringo.usecase.SendQueuedMessagesUseCase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
 /**
  * Standalone app for processing queued outbound messages
  */
@@ -26,6 +36,9 @@ public class Main {
      * Example usage:
      *  -t single -q 45678
      *  -t all
+     *  -t all -p 8099
+     *  -t migrate
+     *  -t compact
      */
     public static void main(String[] args) throws Exception {
 
@@ -39,6 +52,24 @@ public class Main {
 
         Injector injector = getInjector();
 
+        if (params.getProcessingType() == ParserResult.PROCESSING_TYPE.MIGRATE) {
+            log.info("Migrating payloads and evidence into the sharded layout");
+            PayloadLayoutMigrator.MigrationResult migrationResult = injector.getInstance(PayloadLayoutMigrator.class).migrate();
+            log.info(migrationResult.toString());
+            System.exit(0);
+        }
+
+        if (params.getProcessingType() == ParserResult.PROCESSING_TYPE.COMPACT) {
+            log.info("Packing old payloads and evidence into segments");
+            injector.getInstance(SegmentCompactor.class).compact();
+            System.exit(0);
+        }
+
+        registerMBeans(injector);
+        if (params.getStatusPort() != null) {
+            injector.getInstance(StatusServer.class).start(params.getStatusPort());
+        }
+
         SendQueuedMessagesUseCase useCase = injector.getInstance(SendQueuedMessagesUseCase.class);
         QueuedMessageSenderResult result = null;
 
@@ -75,4 +106,17 @@ public class Main {
 
                 );
     }
+
+    /**
+     * Registers the statistics of the sender with the platform MBean server, for operators to watch the sender by JMX.
+     */
+    static void registerMBeans(Injector injector) {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        try {
+            mBeanServer.registerMBean(injector.getInstance(QueuedMessageSenderStatistics.class), new ObjectName(QueuedMessageSenderStatistics.OBJECT_NAME));
+            mBeanServer.registerMBean(injector.getInstance(OutboundTransmissionStatistics.class), new ObjectName(OutboundTransmissionStatistics.OBJECT_NAME));
+        } catch (JMException e) {
+            log.warn("Unable to register the MBeans of the sender; " + e.getMessage(), e);
+        }
+    }
 }
@@ -0,0 +1,24 @@
+package no.sr.ringo.oxalis;
+
+import java.util.Map;
+
+/**
+ * Management interface of the transmissions made by {@link OxalisDocumentSender}, registered as
+ * <code>no.sr.ringo:type=OutboundTransmission</code>.
+ *
+ * Transmissions are keyed by the address of the receiving access point, transmissions failing before the
+ * endpoint is known, i.e. failed lookups, are keyed by {@link OutboundTransmissionStatistics#UNRESOLVED}.
+ */
+public interface OutboundTransmissionMXBean {
+
+    /**
+     * @return the number of transmissions being made right now
+     */
+    int getInFlight();
+
+    Map<String, Long> getTransmissions();
+
+    Map<String, Long> getFailures();
+
+    Map<String, Double> getMeanLatencySeconds();
+}
@@ -0,0 +1,94 @@
+package no.sr.ringo.oxalis;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import no.sr.ringo.metrics.MetricsRegistry;
+import no.sr.ringo.metrics.Timer;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps track of the latency and failures of outbound transmissions per receiving access point, exposed by JMX,
+ * see {@link OutboundTransmissionMXBean}, as well as by the {@link MetricsRegistry}.
+ */
+@Singleton
+public class OutboundTransmissionStatistics implements OutboundTransmissionMXBean {
+
+    public static final String OBJECT_NAME = "no.sr.ringo:type=OutboundTransmission";
+
+    public static final String TRANSMISSION_SECONDS = "ringo_transmission_seconds";
+
+    /** Endpoint of transmissions failing before the receiving access point was looked up */
+    public static final String UNRESOLVED = "unresolved";
+
+    private final MetricsRegistry metricsRegistry;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, LongAdder> failures = new ConcurrentSkipListMap<>();
+
+    @Inject
+    public OutboundTransmissionStatistics(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+        metricsRegistry.gauge("ringo_transmissions_in_flight", "Outbound transmissions being made", inFlight::get);
+        metricsRegistry.counter("ringo_transmission_failures_total", "Outbound transmissions failed, by endpoint", "endpoint", this::getFailures);
+    }
+
+    /**
+     * Records the start of a transmission.
+     *
+     * @return the start, to be passed on to {@link #succeeded(String, long)} or {@link #failed(String, long)}
+     */
+    long started() {
+        inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    void succeeded(String endpoint, long start) {
+        inFlight.decrementAndGet();
+        timer(endpoint).recordSince(start);
+    }
+
+    void failed(String endpoint, long start) {
+        inFlight.decrementAndGet();
+        timer(endpoint).recordSince(start);
+        failures.computeIfAbsent(endpoint, e -> new LongAdder()).increment();
+    }
+
+    private Timer timer(String endpoint) {
+        return timers.computeIfAbsent(endpoint, e -> metricsRegistry.timer(TRANSMISSION_SECONDS, "Duration of outbound transmissions, by endpoint", "endpoint", e));
+    }
+
+    @Override
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    @Override
+    public Map<String, Long> getTransmissions() {
+        Map<String, Long> result = new TreeMap<>();
+        timers.forEach((endpoint, timer) -> result.put(endpoint, timer.getCount()));
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getFailures() {
+        Map<String, Long> result = new TreeMap<>();
+        failures.forEach((endpoint, count) -> result.put(endpoint, count.sum()));
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getMeanLatencySeconds() {
+        Map<String, Double> result = new TreeMap<>();
+        timers.forEach((endpoint, timer) -> {
+            long count = timer.getCount();
+            result.put(endpoint, count == 0 ? 0 : timer.getSum() / count);
+        });
+        return result;
+    }
+}
@@ -7,6 +7,8 @@ import no.difi.oxalis.outbound.OxalisOutboundComponent;
 import no.difi.oxalis.outbound.transmission.TransmissionRequestBuilder;
 import no.sr.ringo.common.RingoConstants;
 import no.sr.ringo.message.MessageMetaData;
+import no.sr.ringo.metrics.jfr.EventEmitter;
+import no.sr.ringo.metrics.jfr.FlightRecorderSupport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -20,10 +22,12 @@ public class OxalisDocumentSender implements PeppolDocumentSender {
     public static final Logger LOGGER = LoggerFactory.getLogger(OxalisDocumentSender.class);
 
     private final OxalisOutboundComponent oxalisOutboundModule;
+    private final OutboundTransmissionStatistics statistics;
 
     @javax.inject.Inject
-    public OxalisDocumentSender(OxalisOutboundComponent oxalisOutboundComponent) {
+    public OxalisDocumentSender(OxalisOutboundComponent oxalisOutboundComponent, OutboundTransmissionStatistics statistics) {
         this.oxalisOutboundModule = oxalisOutboundComponent;
+        this.statistics = statistics;
     }
 
     @Override
@@ -39,9 +43,26 @@ public class OxalisDocumentSender implements PeppolDocumentSender {
                 .payLoad(getXmlDocumentAsStream(xmlMessage));
 
 
-        TransmissionRequest transmissionRequest = requestBuilder.build();
-        Transmitter transmitter = oxalisOutboundModule.getTransmitter();
-        TransmissionResponse transmissionResponse = transmitter.transmit(transmissionRequest);
+        EventEmitter.Transmission event = FlightRecorderSupport.emitter().beginTransmission();
+        long start = statistics.started();
+        String endpoint = OutboundTransmissionStatistics.UNRESOLVED;
+        TransmissionRequest transmissionRequest = null;
+        TransmissionResponse transmissionResponse = null;
+        try {
+            // Looks up the endpoint of the receiver
+            transmissionRequest = requestBuilder.build();
+            endpoint = transmissionRequest.getEndpoint().getAddress().toString();
+
+            Transmitter transmitter = oxalisOutboundModule.getTransmitter();
+            transmissionResponse = transmitter.transmit(transmissionRequest);
+        } finally {
+            if (transmissionResponse != null) {
+                statistics.succeeded(endpoint, start);
+            } else {
+                statistics.failed(endpoint, start);
+            }
+            commit(event, transmissionRequest, transmissionResponse);
+        }
 
         // Write the transmission id and where the message was delivered
         final String msg = String.format("Message sent to %s using %s was assigned transmissionId : %s\n",
@@ -62,6 +83,19 @@ public class OxalisDocumentSender implements PeppolDocumentSender {
         );
     }
 
+    private static void commit(EventEmitter.Transmission event, TransmissionRequest transmissionRequest, TransmissionResponse transmissionResponse) {
+        if (event.shouldCommit()) {
+            String endpoint = null;
+            String transportProfile = null;
+            if (transmissionRequest != null) {
+                endpoint = transmissionRequest.getEndpoint().getAddress().toString();
+                transportProfile = transmissionRequest.getEndpoint().getTransportProfile().getValue();
+            }
+            String transmissionId = transmissionResponse != null ? transmissionResponse.getTransmissionIdentifier().getValue() : null;
+            event.commit(endpoint, transportProfile, transmissionId, transmissionResponse != null);
+        }
+    }
+
     private InputStream getXmlDocumentAsStream(String xmlMessage) {
         try {
             return new ByteArrayInputStream(xmlMessage.getBytes(RingoConstants.DEFAULT_CHARACTER_SET));
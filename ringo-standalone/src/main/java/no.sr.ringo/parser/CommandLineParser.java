@@ -19,6 +19,7 @@ public class CommandLineParser {
 
     private static OptionSpec<String> processingType;
     private static OptionSpec<Integer> queueId;
+    private static OptionSpec<Integer> statusPort;
 
     private static OptionSpec<Boolean> production;
 
@@ -56,13 +57,16 @@ public class CommandLineParser {
             }
         }
 
-        return new ParserResult(type, queueId);
+        Integer statusPort = CommandLineParser.statusPort.value(optionSet);
+
+        return new ParserResult(type, queueId, statusPort);
     }
 
     private static OptionParser getOptionParser() {
         OptionParser optionParser = new OptionParser();
         queueId = optionParser.accepts("q", "queueId to process").withRequiredArg().ofType(Integer.class);
-        processingType = optionParser.accepts("t", "Processing type: ALL or SINGLE").withRequiredArg().ofType(String.class).required();
+        processingType = optionParser.accepts("t", "Processing type: ALL, SINGLE, MIGRATE (moves payloads into the sharded layout) or COMPACT (packs old payloads into segments)").withRequiredArg().ofType(String.class).required();
+        statusPort = optionParser.accepts("p", "port serving /status and /metrics while processing").withRequiredArg().ofType(Integer.class);
 
         return optionParser;
     }
@@ -7,14 +7,20 @@ package no.sr.ringo.parser;
  */
 public class ParserResult {
 
-    public enum PROCESSING_TYPE {ALL, SINGLE}
+    public enum PROCESSING_TYPE {ALL, SINGLE, MIGRATE, COMPACT}
 
     private final PROCESSING_TYPE processingType;
     private final Integer msgNo;
+    private final Integer statusPort;
 
     public ParserResult(PROCESSING_TYPE processing_type,  Integer msgNo) {
+        this(processing_type, msgNo, null);
+    }
+
+    public ParserResult(PROCESSING_TYPE processing_type, Integer msgNo, Integer statusPort) {
         this.processingType = processing_type;
         this.msgNo = msgNo;
+        this.statusPort = statusPort;
     }
 
     public PROCESSING_TYPE getProcessingType() {
@@ -26,6 +32,13 @@ public class ParserResult {
         return msgNo;
     }
 
+    /**
+     * @return the port serving the status of the sender, null if not to be served
+     */
+    public Integer getStatusPort() {
+        return statusPort;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -34,13 +47,15 @@ public class ParserResult {
         ParserResult that = (ParserResult) o;
 
         if (processingType != that.processingType) return false;
-        return msgNo != null ? msgNo.equals(that.msgNo) : that.msgNo == null;
+        if (msgNo != null ? !msgNo.equals(that.msgNo) : that.msgNo != null) return false;
+        return statusPort != null ? statusPort.equals(that.statusPort) : that.statusPort == null;
     }
 
     @Override
     public int hashCode() {
         int result = processingType.hashCode();
         result = 31 * result + (msgNo != null ? msgNo.hashCode() : 0);
+        result = 31 * result + (statusPort != null ? statusPort.hashCode() : 0);
         return result;
     }
 
@@ -49,6 +64,7 @@ public class ParserResult {
         final StringBuilder sb = new StringBuilder("ParserResult{");
         sb.append("processingType=").append(processingType);
         sb.append(", msgNo=").append(msgNo);
+        sb.append(", statusPort=").append(statusPort);
         sb.append('}');
         return sb.toString();
     }
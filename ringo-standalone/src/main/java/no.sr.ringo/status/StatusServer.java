@@ -0,0 +1,85 @@
+package no.sr.ringo.status;
+
+import com.google.inject.Inject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import no.sr.ringo.metrics.MetricsRegistry;
+import no.sr.ringo.usecase.QueuedMessageSenderStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+/**
+ * Tiny HTTP server letting operators watch the standalone sender while it runs, enabled by the <code>-p</code>
+ * option:
+ * <ul>
+ *     <li><code>/status</code> - the statistics of the sender as JSON, see {@link QueuedMessageSenderStatistics}</li>
+ *     <li><code>/metrics</code> - all the metrics in the Prometheus text format, see {@link MetricsRegistry}</li>
+ * </ul>
+ *
+ * Based on the HTTP server of the JDK, as the sender has no servlet container.
+ */
+public class StatusServer {
+
+    static final Logger log = LoggerFactory.getLogger(StatusServer.class);
+
+    static final String JSON = "application/json;charset=UTF-8";
+    static final String PROMETHEUS_TEXT = "text/plain;version=0.0.4;charset=UTF-8";
+
+    private final MetricsRegistry metricsRegistry;
+    private final QueuedMessageSenderStatistics statistics;
+    private HttpServer server;
+
+    @Inject
+    public StatusServer(MetricsRegistry metricsRegistry, QueuedMessageSenderStatistics statistics) {
+        this.metricsRegistry = metricsRegistry;
+        this.statistics = statistics;
+    }
+
+    /**
+     * Starts serving on the given port of all interfaces, 0 meaning any free port.
+     */
+    public void start(int port) {
+        try {
+            server = HttpServer.create(new InetSocketAddress(port), 0);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to listen for status requests on port " + port + "; " + e.getMessage(), e);
+        }
+        server.createContext("/status", exchange -> respond(exchange, JSON, statistics::toJson));
+        server.createContext("/metrics", exchange -> respond(exchange, PROMETHEUS_TEXT, metricsRegistry::toPrometheus));
+        server.start();
+        log.info("Serving status and metrics on port {}", getPort());
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, String contentType, Supplier<String> body) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] bytes = body.get().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
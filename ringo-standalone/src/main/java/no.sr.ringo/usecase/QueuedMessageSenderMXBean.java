@@ -0,0 +1,37 @@
+package no.sr.ringo.usecase;
+
+/**
+ * Management interface of the sending of queued outbound messages, registered as
+ * <code>no.sr.ringo:type=QueuedMessageSender</code>.
+ *
+ * A sender having messages in progress for long, or no successful sends for long while messages are queued,
+ * has most likely stalled.
+ */
+public interface QueuedMessageSenderMXBean {
+
+    long getSucceeded();
+
+    long getFailed();
+
+    long getSkipped();
+
+    /**
+     * @return the number of messages being sent right now
+     */
+    int getInProgress();
+
+    /**
+     * @return seconds since the oldest message in progress was picked from the queue, 0 if none are in progress
+     */
+    long getOldestInProgressSeconds();
+
+    /**
+     * @return seconds since a message was last sent successfully, -1 if none has been sent yet
+     */
+    long getSecondsSinceLastSucceeded();
+
+    /**
+     * @return messages sent successfully per minute, since the sender was started
+     */
+    double getSucceededPerMinute();
+}
@@ -0,0 +1,124 @@
+package no.sr.ringo.usecase;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import no.sr.ringo.metrics.MetricsRegistry;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps track of the queued messages sent by {@link SendQueuedMessagesUseCase}, exposed by JMX, see
+ * {@link QueuedMessageSenderMXBean}, as well as by the {@link MetricsRegistry}.
+ *
+ * A message is sent by a single thread from start to end, hence messages in progress are kept per thread.
+ */
+@Singleton
+public class QueuedMessageSenderStatistics implements QueuedMessageSenderMXBean {
+
+    public static final String OBJECT_NAME = "no.sr.ringo:type=QueuedMessageSender";
+
+    public enum Outcome {
+        SUCCEEDED, FAILED, SKIPPED
+    }
+
+    private final long startedAt = System.currentTimeMillis();
+    private final Map<Outcome, LongAdder> outcomes = new LinkedHashMap<>();
+    private final ConcurrentMap<Thread, Long> inProgress = new ConcurrentHashMap<>();
+    private volatile long lastSucceeded = -1;
+
+    @Inject
+    public QueuedMessageSenderStatistics(MetricsRegistry metricsRegistry) {
+        for (Outcome outcome : Outcome.values()) {
+            outcomes.put(outcome, new LongAdder());
+        }
+        metricsRegistry.counter("ringo_sender_messages_total", "Queued messages processed by the sender, by outcome", "outcome", () -> {
+            Map<String, Long> values = new LinkedHashMap<>();
+            for (Map.Entry<Outcome, LongAdder> outcome : outcomes.entrySet()) {
+                values.put(outcome.getKey().name().toLowerCase(), outcome.getValue().sum());
+            }
+            return values;
+        });
+        metricsRegistry.gauge("ringo_sender_in_progress", "Queued messages being sent", this::getInProgress);
+        metricsRegistry.gauge("ringo_sender_oldest_in_progress_seconds", "Seconds since the oldest message in progress was picked from the queue", this::getOldestInProgressSeconds);
+        metricsRegistry.gauge("ringo_sender_last_success_timestamp_seconds", "Time of the last message sent successfully, in seconds since the epoch", () -> lastSucceeded < 0 ? Double.NaN : lastSucceeded / 1000.0);
+    }
+
+    /**
+     * Records that the current thread has picked a message from the queue.
+     */
+    void started() {
+        inProgress.put(Thread.currentThread(), System.currentTimeMillis());
+    }
+
+    /**
+     * Records the outcome of the message picked by the current thread.
+     */
+    void completed(Outcome outcome) {
+        inProgress.remove(Thread.currentThread());
+        outcomes.get(outcome).increment();
+        if (outcome == Outcome.SUCCEEDED) {
+            lastSucceeded = System.currentTimeMillis();
+        }
+    }
+
+    @Override
+    public long getSucceeded() {
+        return outcomes.get(Outcome.SUCCEEDED).sum();
+    }
+
+    @Override
+    public long getFailed() {
+        return outcomes.get(Outcome.FAILED).sum();
+    }
+
+    @Override
+    public long getSkipped() {
+        return outcomes.get(Outcome.SKIPPED).sum();
+    }
+
+    @Override
+    public int getInProgress() {
+        return inProgress.size();
+    }
+
+    @Override
+    public long getOldestInProgressSeconds() {
+        long oldest = System.currentTimeMillis();
+        for (Long started : inProgress.values()) {
+            oldest = Math.min(oldest, started);
+        }
+        return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - oldest);
+    }
+
+    @Override
+    public long getSecondsSinceLastSucceeded() {
+        long last = lastSucceeded;
+        return last < 0 ? -1 : TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - last);
+    }
+
+    @Override
+    public double getSucceededPerMinute() {
+        long elapsed = Math.max(System.currentTimeMillis() - startedAt, 1);
+        return getSucceeded() * (double) TimeUnit.MINUTES.toMillis(1) / elapsed;
+    }
+
+    /**
+     * Provides the statistics as a JSON object, as served by the status port of the standalone sender.
+     */
+    public String toJson() {
+        return "{\"succeeded\":" + getSucceeded() +
+                ",\"failed\":" + getFailed() +
+                ",\"skipped\":" + getSkipped() +
+                ",\"inProgress\":" + getInProgress() +
+                ",\"oldestInProgressSeconds\":" + getOldestInProgressSeconds() +
+                ",\"secondsSinceLastSucceeded\":" + getSecondsSinceLastSucceeded() +
+                ",\"succeededPerMinute\":" + String.format(Locale.ROOT, "%.3f", getSucceededPerMinute()) +
+                "}";
+    }
+}
@@ -33,16 +33,18 @@ public class SendQueuedMessagesUseCase {
     private final QueueRepository queueRepository;
     private final EmailService emailService;
     private final AccountRepository accountRepository;
+    private final QueuedMessageSenderStatistics statistics;
 
     private static Logger logger = LoggerFactory.getLogger(SendQueuedMessagesUseCase.class);
 
     @Inject
-    public SendQueuedMessagesUseCase(PeppolDocumentSender documentSender, PeppolMessageRepository messageRepository, QueueRepository queueRepository, EmailService emailService, AccountRepository accountRepository) {
+    public SendQueuedMessagesUseCase(PeppolDocumentSender documentSender, PeppolMessageRepository messageRepository, QueueRepository queueRepository, EmailService emailService, AccountRepository accountRepository, QueuedMessageSenderStatistics statistics) {
         this.documentSender = documentSender;
         this.messageRepository = messageRepository;
         this.queueRepository = queueRepository;
         this.emailService = emailService;
         this.accountRepository = accountRepository;
+        this.statistics = statistics;
     }
 
     /**
@@ -113,12 +115,31 @@ public class SendQueuedMessagesUseCase {
         return new QueuedMessageSenderResult(failed, succeeded, skipped);
     }
     /**
-     * Handles specific queued item.
+     * Handles specific queued item, keeping the statistics of the sender.
+     */
+    private SingleProcessingResult handleSingleQueuedMessage(QueuedOutboundMessage queuedOutboundMessage) {
+        statistics.started();
+        QueuedMessageSenderStatistics.Outcome outcome = QueuedMessageSenderStatistics.Outcome.FAILED;
+        try {
+            SingleProcessingResult singleProcessingResult = processQueuedMessage(queuedOutboundMessage);
+            if (singleProcessingResult.isSkipped()) {
+                outcome = QueuedMessageSenderStatistics.Outcome.SKIPPED;
+            } else if (singleProcessingResult.isSucceeded()) {
+                outcome = QueuedMessageSenderStatistics.Outcome.SUCCEEDED;
+            }
+            return singleProcessingResult;
+        } finally {
+            statistics.completed(outcome);
+        }
+    }
+
+    /**
+     * Processes specific queued item.
      * If successful: message is updated with delivered and uuid and queue item is updated with OK state
      * If failure: queued item is updated with status AOD, error notification is sent
      */
     @Transactional
-    private SingleProcessingResult handleSingleQueuedMessage(QueuedOutboundMessage queuedOutboundMessage) {
+    private SingleProcessingResult processQueuedMessage(QueuedOutboundMessage queuedOutboundMessage) {
 
         boolean skipped = false;
         boolean succeeded = false;
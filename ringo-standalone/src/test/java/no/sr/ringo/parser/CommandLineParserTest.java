@@ -18,5 +18,8 @@ public class CommandLineParserTest {
         params = CommandLineParser.parse(new String [] { "-t", "all"});
         Assert.assertEquals(new ParserResult(ParserResult.PROCESSING_TYPE.ALL,  null), params);
 
+        params = CommandLineParser.parse(new String [] { "-t", "all", "-p", "8099"});
+        Assert.assertEquals(new ParserResult(ParserResult.PROCESSING_TYPE.ALL,  null, 8099), params);
+
     }
 }
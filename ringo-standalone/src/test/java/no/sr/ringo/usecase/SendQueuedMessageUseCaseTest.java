@@ -9,6 +9,7 @@ import no.sr.ringo.message.MessageMetaData;
 import no.sr.ringo.message.MessageNumber;
 import no.sr.ringo.message.PeppolMessageRepository;
 import no.sr.ringo.message.ReceptionId;
+import no.sr.ringo.metrics.MetricsRegistry;
 import no.sr.ringo.oxalis.PeppolDocumentSender;
 import no.sr.ringo.peppol.PeppolChannelId;
 import no.sr.ringo.peppol.PeppolHeader;
@@ -37,6 +38,7 @@ public class SendQueuedMessageUseCaseTest {
     private PeppolDocumentSender mockDocumentSender;
     private EmailService mockEmailService;
     private AccountRepository mockAccountRepository;
+    private QueuedMessageSenderStatistics statistics;
 
     @BeforeMethod
     public void setUp() throws Exception {
@@ -45,6 +47,7 @@ public class SendQueuedMessageUseCaseTest {
         mockDocumentSender = EasyMock.createMock(PeppolDocumentSender.class);
         mockEmailService = EasyMock.createMock(EmailService.class);
         mockAccountRepository = EasyMock.createMock(AccountRepository.class);
+        statistics = new QueuedMessageSenderStatistics(new MetricsRegistry());
     }
 
     @AfterMethod
@@ -65,7 +68,7 @@ public class SendQueuedMessageUseCaseTest {
         PeppolDocumentSender.TransmissionReceipt receipt = new PeppolDocumentSender.TransmissionReceipt(new ReceptionId(),  TransmissionIdentifier.of("rubbish"), null, new Date(),
                 receipt1);
 
-        SendQueuedMessagesUseCase useCase = new SendQueuedMessagesUseCase(mockDocumentSender, mockMessageRepository, mockQueueRepository, mockEmailService, mockAccountRepository);
+        SendQueuedMessagesUseCase useCase = new SendQueuedMessagesUseCase(mockDocumentSender, mockMessageRepository, mockQueueRepository, mockEmailService, mockAccountRepository, statistics);
         //creates a mock message so that we can check the correct data is being inspected
         MessageMetaData mockMessage = EasyMock.createMock(MessageMetaData.class);
 
@@ -110,7 +113,7 @@ public class SendQueuedMessageUseCaseTest {
         final MessageNumber msgNo = MessageNumber.of(1L);
         final OutboundMessageQueueId queueId = new OutboundMessageQueueId(10);
 
-        SendQueuedMessagesUseCase useCase = new SendQueuedMessagesUseCase(mockDocumentSender, mockMessageRepository, mockQueueRepository, mockEmailService, mockAccountRepository);
+        SendQueuedMessagesUseCase useCase = new SendQueuedMessagesUseCase(mockDocumentSender, mockMessageRepository, mockQueueRepository, mockEmailService, mockAccountRepository, statistics);
         //creates a mock message so that we can check the correct data is being inspected
         MessageMetaData mockMessage = EasyMock.createMock(MessageMetaData.class);
 
@@ -145,7 +148,7 @@ public class SendQueuedMessageUseCaseTest {
         MessageMetaData mockMessage = EasyMock.createMock(MessageMetaData.class);
 
 
-        SendQueuedMessagesUseCase useCase = new SendQueuedMessagesUseCase(mockDocumentSender, mockMessageRepository, mockQueueRepository, mockEmailService, mockAccountRepository);
+        SendQueuedMessagesUseCase useCase = new SendQueuedMessagesUseCase(mockDocumentSender, mockMessageRepository, mockQueueRepository, mockEmailService, mockAccountRepository, statistics);
 
         expectationsForQueueAndMessage(msgNo, queueId, mockQueue, mockMessage);
 
@@ -179,6 +182,9 @@ public class SendQueuedMessageUseCaseTest {
                           "    <succeededCount>1</succeededCount>\n" +
                           "</queued-messages-send-result>";
         assertEquals(okResult, result.asXml());
+        assertEquals(statistics.getSucceeded(), 1);
+        assertEquals(statistics.getInProgress(), 0);
+        assertTrue(statistics.getSecondsSinceLastSucceeded() >= 0);
 
 
         //checks that all went well
@@ -199,7 +205,7 @@ public class SendQueuedMessageUseCaseTest {
         QueuedOutboundMessage mockQueue = createMock("QueuedOutboundMessage", QueuedOutboundMessage.class);
         MessageMetaData mockMessage = EasyMock.createMock(MessageMetaData.class);
 
-        SendQueuedMessagesUseCase useCase = new SendQueuedMessagesUseCase(mockDocumentSender, mockMessageRepository, mockQueueRepository, mockEmailService, mockAccountRepository);
+        SendQueuedMessagesUseCase useCase = new SendQueuedMessagesUseCase(mockDocumentSender, mockMessageRepository, mockQueueRepository, mockEmailService, mockAccountRepository, statistics);
 
         expectationsForQueueAndMessage(msgNo, queueId, mockQueue, mockMessage);
 
@@ -238,6 +244,9 @@ public class SendQueuedMessageUseCaseTest {
                 "    </failed>\n" +
                 "</queued-messages-send-result>";
         assertEquals(failedResult, result.asXml());
+        assertEquals(statistics.getFailed(), 1);
+        assertEquals(statistics.getInProgress(), 0);
+        assertEquals(statistics.getSecondsSinceLastSucceeded(), -1);
 
 
         //checks that all went well
@@ -68,6 +68,44 @@ public class UnitTestConfigModule extends AbstractModule {
     protected void configure() {
 
         bind(Path.class).annotatedWith(Names.named(PAYLOAD_BASE_PATH)).toInstance(getPathToPayloadDirectory());
+        bind(String.class).annotatedWith(Names.named(PAYLOAD_DEDUPLICATION)).toInstance("false");
+        bind(String.class).annotatedWith(Names.named(PAYLOAD_LAYOUT)).toInstance("legacy");
+        bind(String.class).annotatedWith(Names.named(PAYLOAD_FSYNC)).toInstance("none");
+        bind(String.class).annotatedWith(Names.named(PAYLOAD_CACHE_SIZE)).toInstance("1048576");
+        bind(String.class).annotatedWith(Names.named(PAYLOAD_CACHE_OFFHEAP)).toInstance("false");
+
+        bind(String.class).annotatedWith(Names.named(VALIDATION_ENGINE)).toInstance("http");
+        bind(String.class).annotatedWith(Names.named(VALIDATION_URL)).toInstance("http://127.0.0.1:9090/validate");
+        bind(String.class).annotatedWith(Names.named(VALIDATION_TIMEOUT)).toInstance("30000");
+        bind(String.class).annotatedWith(Names.named(VALIDATION_RULES_PATH)).toInstance(System.getProperty("java.io.tmpdir"));
+        bind(String.class).annotatedWith(Names.named(VALIDATION_ASYNC)).toInstance("false");
+        bind(String.class).annotatedWith(Names.named(VALIDATION_WORKERS)).toInstance("2");
+        bind(String.class).annotatedWith(Names.named(VALIDATION_QUEUE_SIZE)).toInstance("100");
+        bind(String.class).annotatedWith(Names.named(INBOX_EVENTS_POLL_INTERVAL)).toInstance("1");
+        bind(String.class).annotatedWith(Names.named(WEBHOOK_WORKERS)).toInstance("2");
+        bind(String.class).annotatedWith(Names.named(WEBHOOK_CONCURRENCY)).toInstance("2");
+        bind(String.class).annotatedWith(Names.named(WEBHOOK_TIMEOUT)).toInstance("5000");
+        bind(String.class).annotatedWith(Names.named(WEBHOOK_MAX_ATTEMPTS)).toInstance("3");
+        bind(String.class).annotatedWith(Names.named(ASYNC_TIMEOUT)).toInstance("30000");
+        bind(String.class).annotatedWith(Names.named(ASYNC_UPLOAD_WORKERS)).toInstance("2");
+        bind(String.class).annotatedWith(Names.named(ASYNC_UPLOAD_QUEUE_SIZE)).toInstance("10");
+        bind(String.class).annotatedWith(Names.named(ASYNC_STATISTICS_WORKERS)).toInstance("1");
+        bind(String.class).annotatedWith(Names.named(ASYNC_STATISTICS_QUEUE_SIZE)).toInstance("10");
+        bind(String.class).annotatedWith(Names.named(ASYNC_BUNDLE_WORKERS)).toInstance("1");
+        bind(String.class).annotatedWith(Names.named(ASYNC_BUNDLE_QUEUE_SIZE)).toInstance("10");
+        bind(String.class).annotatedWith(Names.named(IDEMPOTENCY_KEY_TTL)).toInstance("24");
+        bind(String.class).annotatedWith(Names.named(OUTBOX_BATCH_MAX_ENTRIES)).toInstance("1000");
+        bind(String.class).annotatedWith(Names.named(ADMISSION_CONCURRENCY)).toInstance("80");
+        bind(String.class).annotatedWith(Names.named(ADMISSION_POLL_RATE)).toInstance("0");
+        bind(String.class).annotatedWith(Names.named(ADMISSION_POLL_BURST)).toInstance("20");
+        bind(String.class).annotatedWith(Names.named(ADMISSION_DOWNLOAD_RATE)).toInstance("0");
+        bind(String.class).annotatedWith(Names.named(ADMISSION_DOWNLOAD_BURST)).toInstance("50");
+        bind(String.class).annotatedWith(Names.named(ADMISSION_UPLOAD_RATE)).toInstance("0");
+        bind(String.class).annotatedWith(Names.named(ADMISSION_UPLOAD_BURST)).toInstance("100");
+        bind(String.class).annotatedWith(Names.named(COMPRESSION_THRESHOLD)).toInstance("1024");
+        bind(String.class).annotatedWith(Names.named(SLOW_QUERY_THRESHOLD)).toInstance("-1");
+        bind(String.class).annotatedWith(Names.named(SLOW_QUERY_LOG_INTERVAL)).toInstance("60000");
+        bind(String.class).annotatedWith(Names.named(SLOW_QUERY_MASKED_COLUMNS)).toInstance("password,secret,token");
 
         bind(String.class).annotatedWith(Names.named(JDBC_CONNECTION_URI)).toInstance("jdbc:h2:mem:test;DB_CLOSE_DELAY=-1");
 
@@ -30,7 +30,7 @@ public class FetchDocumentUseCase {
      * in the form of a {@link FetchDocumentResult}, which may hold either a) the text of the payload or b) the
      * URI of the payload.
      * <p>
-     * If the URI scheme is {@code file} a {@link PeppolDocument}, which implements {@link FetchDocumentResult} is returned
+     * If the URI scheme is {@code file} or {@code segment} a {@link PeppolDocument}, which implements {@link FetchDocumentResult} is returned
      * otherwise a {@link PayloadReference} is returned.
      *
      * @param account the account owning the message
@@ -45,7 +45,7 @@ public class FetchDocumentUseCase {
 
         // If the payload resides within the file system, simply return the contents represented by
         // an instance of PeppolDocument
-        if (messageMetaData.getPayloadUri().getScheme().startsWith("file")) {
+        if (PayloadReference.isLocal(messageMetaData.getPayloadUri())) {
             return documentRepository.getPeppolDocument(account, msgNo);
         } else {
 
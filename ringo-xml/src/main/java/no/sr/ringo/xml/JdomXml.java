@@ -0,0 +1,75 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package no.sr.ringo.xml;
+
+import org.jdom.Namespace;
+import org.jdom.input.SAXBuilder;
+import org.jdom.xpath.XPath;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pooled JDOM {@link SAXBuilder}s and compiled JDOM {@link XPath} expressions.
+ * <p>
+ * Requires JDOM and Jaxen on the class path, which are optional dependencies of this module.
+ */
+public final class JdomXml {
+
+    private static final ThreadLocal<SAXBuilder> saxBuilders = ThreadLocal.withInitial(SAXBuilder::new);
+
+    private static final XPathCache<XPath> xPathCache = new XPathCache<>((expression, namespaces) -> {
+        XPath xPath = XPath.newInstance(expression);
+        for (Map.Entry<String, String> namespace : namespaces.entrySet()) {
+            xPath.addNamespace(namespace.getKey(), namespace.getValue());
+        }
+        return xPath;
+    });
+
+    private JdomXml() {
+    }
+
+    /**
+     * @return builder for use by the current thread only, which re-uses the underlying SAX parser between builds.
+     */
+    public static SAXBuilder saxBuilder() {
+        return saxBuilders.get();
+    }
+
+    public static XPath xPath(String expression) {
+        return xPathCache.get(expression);
+    }
+
+    public static XPath xPath(String expression, List<Namespace> namespaces) {
+        if (namespaces.isEmpty()) {
+            return xPathCache.get(expression);
+        }
+        Map<String, String> bindings = new LinkedHashMap<>();
+        for (Namespace namespace : namespaces) {
+            bindings.put(namespace.getPrefix(), namespace.getURI());
+        }
+        return xPathCache.get(expression, Collections.unmodifiableMap(bindings));
+    }
+}
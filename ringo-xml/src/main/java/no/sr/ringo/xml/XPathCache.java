@@ -0,0 +1,165 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package no.sr.ringo.xml;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathFactory;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Cache of compiled XPath expressions, keyed by the expression and the namespace bindings used when compiling it.
+ * <p>
+ * Compiled expressions of neither JAXP nor JDOM are thread safe, hence every thread holds its own, bounded, set of
+ * compiled expressions. Once the bound is reached, the cache of the thread is simply cleared.
+ *
+ * @param <T> type of compiled expression
+ */
+public class XPathCache<T> {
+
+    static final int DEFAULT_MAX_ENTRIES_PER_THREAD = 256;
+
+    /**
+     * Compiles an XPath expression using the supplied prefix to namespace URI bindings.
+     */
+    @FunctionalInterface
+    public interface Compiler<T> {
+        T compile(String expression, Map<String, String> namespaces) throws Exception;
+    }
+
+    private final Compiler<T> compiler;
+    private final int maxEntriesPerThread;
+    private final ThreadLocal<Map<Key, T>> compiled = ThreadLocal.withInitial(HashMap::new);
+
+    public XPathCache(Compiler<T> compiler) {
+        this(compiler, DEFAULT_MAX_ENTRIES_PER_THREAD);
+    }
+
+    public XPathCache(Compiler<T> compiler, int maxEntriesPerThread) {
+        this.compiler = compiler;
+        this.maxEntriesPerThread = maxEntriesPerThread;
+    }
+
+    /**
+     * Creates a cache of JAXP {@link XPathExpression}s.
+     */
+    public static XPathCache<XPathExpression> jaxp() {
+        ThreadLocal<XPathFactory> xPathFactories = ThreadLocal.withInitial(XPathFactory::newInstance);
+        return new XPathCache<>((expression, namespaces) -> {
+            XPath xPath = xPathFactories.get().newXPath();
+            if (!namespaces.isEmpty()) {
+                xPath.setNamespaceContext(new MapNamespaceContext(namespaces));
+            }
+            return xPath.compile(expression);
+        });
+    }
+
+    public T get(String expression) {
+        return get(expression, Collections.emptyMap());
+    }
+
+    /**
+     * Provides the compiled expression, compiling it unless already done by the current thread.
+     *
+     * @throws IllegalStateException if the expression could not be compiled.
+     */
+    public T get(String expression, Map<String, String> namespaces) {
+        Map<Key, T> cache = compiled.get();
+        Key key = new Key(expression, namespaces);
+        T result = cache.get(key);
+        if (result == null) {
+            try {
+                result = compiler.compile(expression, namespaces);
+            } catch (Exception e) {
+                throw new IllegalStateException("Unable to compile XPath expression " + expression + "; " + e.getMessage(), e);
+            }
+            if (cache.size() >= maxEntriesPerThread) {
+                cache.clear();
+            }
+            cache.put(key, result);
+        }
+        return result;
+    }
+
+    static final class Key {
+        private final String expression;
+        private final Map<String, String> namespaces;
+        private final int hashCode;
+
+        Key(String expression, Map<String, String> namespaces) {
+            this.expression = expression;
+            // Order of the bindings is irrelevant
+            this.namespaces = namespaces.isEmpty() ? Collections.emptyMap() : new TreeMap<>(namespaces);
+            this.hashCode = Objects.hash(expression, this.namespaces);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return expression.equals(key.expression) && namespaces.equals(key.namespaces);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    static class MapNamespaceContext implements NamespaceContext {
+        private final Map<String, String> namespaces;
+
+        MapNamespaceContext(Map<String, String> namespaces) {
+            this.namespaces = namespaces;
+        }
+
+        @Override
+        public String getNamespaceURI(String prefix) {
+            return namespaces.getOrDefault(prefix, XMLConstants.NULL_NS_URI);
+        }
+
+        @Override
+        public String getPrefix(String namespaceURI) {
+            for (Map.Entry<String, String> entry : namespaces.entrySet()) {
+                if (entry.getValue().equals(namespaceURI)) {
+                    return entry.getKey();
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Iterator getPrefixes(String namespaceURI) {
+            String prefix = getPrefix(namespaceURI);
+            return prefix == null ? Collections.emptyIterator() : Collections.singletonList(prefix).iterator();
+        }
+    }
+}
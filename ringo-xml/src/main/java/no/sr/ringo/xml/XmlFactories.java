@@ -0,0 +1,110 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package no.sr.ringo.xml;
+
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.transform.TransformerFactory;
+
+/**
+ * Configured XML factories, looked up once.
+ *
+ * Every invocation of {@code XxxFactory.newInstance()} goes through the JAXP lookup procedure, which scans the class
+ * path for service declarations. The factories held here must not be re-configured by the callers.
+ * <p>
+ * {@link DocumentBuilderFactory}, {@link SAXParserFactory} and {@link TransformerFactory} are not guaranteed to be
+ * thread safe, hence they are only used while holding their monitor; use {@link XmlPool} to obtain builders and transformers.
+ * {@link XMLInputFactory} is thread safe once configured.
+ *
+ * @see XmlPool
+ */
+public final class XmlFactories {
+
+    private static final DocumentBuilderFactory documentBuilderFactory = createDocumentBuilderFactory();
+    private static final TransformerFactory transformerFactory = TransformerFactory.newInstance();
+    private static final XMLInputFactory xmlInputFactory = createXmlInputFactory();
+    private static final SAXParserFactory saxParserFactory = createSaxParserFactory();
+
+    private XmlFactories() {
+    }
+
+    /**
+     * @return namespace aware factory of {@link javax.xml.parsers.DocumentBuilder}s
+     */
+    public static DocumentBuilderFactory documentBuilderFactory() {
+        return documentBuilderFactory;
+    }
+
+    public static TransformerFactory transformerFactory() {
+        return transformerFactory;
+    }
+
+    /**
+     * @return namespace aware, non coalescing factory of StAX readers with DTDs and external entities disabled.
+     */
+    public static XMLInputFactory xmlInputFactory() {
+        return xmlInputFactory;
+    }
+
+    /**
+     * @return namespace aware factory of SAX parsers rejecting documents holding a DTD, for parsing documents received
+     * from the outside.
+     */
+    public static SAXParserFactory saxParserFactory() {
+        return saxParserFactory;
+    }
+
+    private static DocumentBuilderFactory createDocumentBuilderFactory() {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory;
+    }
+
+    private static XMLInputFactory createXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    private static SAXParserFactory createSaxParserFactory() {
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        try {
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+            factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IllegalStateException("Unable to disable DTDs of " + factory.getClass().getName() + "; " + e.getMessage(), e);
+        }
+        return factory;
+    }
+}
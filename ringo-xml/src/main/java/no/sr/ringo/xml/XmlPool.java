@@ -0,0 +1,122 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package no.sr.ringo.xml;
+
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Per thread pool of {@link DocumentBuilder}s and identity {@link Transformer}s, which are expensive to create and
+ * not thread safe. Every instance is reset before being handed out, or replaced if the implementation does not
+ * support being reset.
+ * <p>
+ * The instances must not be retained beyond the current invocation, nor be handed over to other threads.
+ */
+public final class XmlPool {
+
+    private static final ThreadLocal<DocumentBuilder> documentBuilders = ThreadLocal.withInitial(XmlPool::createDocumentBuilder);
+    private static final ThreadLocal<Transformer> transformers = ThreadLocal.withInitial(XmlPool::createTransformer);
+
+    private XmlPool() {
+    }
+
+    /**
+     * @return namespace aware builder, reset and ready for use by the current thread.
+     */
+    public static DocumentBuilder documentBuilder() {
+        DocumentBuilder documentBuilder = documentBuilders.get();
+        try {
+            documentBuilder.reset();
+        } catch (UnsupportedOperationException e) {
+            documentBuilder = createDocumentBuilder();
+            documentBuilders.set(documentBuilder);
+        }
+        return documentBuilder;
+    }
+
+    /**
+     * @return identity transformer, reset and ready for use by the current thread.
+     */
+    public static Transformer transformer() {
+        Transformer transformer = transformers.get();
+        try {
+            transformer.reset();
+        } catch (UnsupportedOperationException e) {
+            // Older implementations, like Xalan 2.6, do not implement reset(). The cached factory still saves the lookup.
+            transformer = createTransformer();
+            transformers.set(transformer);
+        }
+        return transformer;
+    }
+
+    public static Document parse(InputStream inputStream) throws SAXException, IOException {
+        return documentBuilder().parse(inputStream);
+    }
+
+    public static Document parse(InputSource inputSource) throws SAXException, IOException {
+        return documentBuilder().parse(inputSource);
+    }
+
+    public static Document newDocument() {
+        return documentBuilder().newDocument();
+    }
+
+    public static void transform(Source source, Result result) throws TransformerException {
+        transformer().transform(source, result);
+    }
+
+    private static DocumentBuilder createDocumentBuilder() {
+        DocumentBuilderFactory factory = XmlFactories.documentBuilderFactory();
+        try {
+            synchronized (factory) {
+                return factory.newDocumentBuilder();
+            }
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException("Unable to create document builder; " + e.getMessage(), e);
+        }
+    }
+
+    private static Transformer createTransformer() {
+        TransformerFactory factory = XmlFactories.transformerFactory();
+        try {
+            synchronized (factory) {
+                return factory.newTransformer();
+            }
+        } catch (TransformerConfigurationException e) {
+            throw new IllegalStateException("Unable to create transformer; " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package no.sr.ringo.xml;
+
+import org.jdom.Document;
+import org.jdom.Element;
+import org.jdom.Namespace;
+import org.jdom.xpath.XPath;
+import org.testng.annotations.Test;
+
+import javax.xml.xpath.XPathExpression;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.*;
+
+public class XPathCacheTest {
+
+    @Test
+    public void compilesOncePerExpressionAndNamespaces() {
+        AtomicInteger compilations = new AtomicInteger();
+        XPathCache<String> cache = new XPathCache<>((expression, namespaces) -> {
+            compilations.incrementAndGet();
+            return expression + namespaces;
+        });
+
+        cache.get("/a");
+        cache.get("/a");
+        cache.get("/a", Collections.singletonMap("p", "urn:p"));
+        cache.get("/a", Collections.singletonMap("p", "urn:p"));
+        cache.get("/a", Collections.singletonMap("p", "urn:other"));
+
+        assertEquals(compilations.get(), 3);
+    }
+
+    @Test
+    public void isBounded() {
+        AtomicInteger compilations = new AtomicInteger();
+        XPathCache<String> cache = new XPathCache<>((expression, namespaces) -> {
+            compilations.incrementAndGet();
+            return expression;
+        }, 2);
+
+        cache.get("/a");
+        cache.get("/b");
+        cache.get("/c");    // clears the cache
+        cache.get("/a");
+
+        assertEquals(compilations.get(), 4);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void invalidExpression() {
+        XPathCache.jaxp().get("/a[");
+    }
+
+    @Test
+    public void jaxpWithNamespaces() throws Exception {
+        XPathExpression expression = XPathCache.jaxp().get("/inv:Invoice/inv:ID", Collections.singletonMap("inv", "urn:oasis:names:specification:ubl:schema:xsd:Invoice-2"));
+
+        org.w3c.dom.Document document = XmlPool.parse(new org.xml.sax.InputSource(new StringReader(XmlPoolTest.INVOICE)));
+
+        assertEquals(expression.evaluate(document), "42");
+    }
+
+    @Test
+    public void jdom() throws Exception {
+        Document document = JdomXml.saxBuilder().build(new StringReader(XmlPoolTest.INVOICE));
+        Namespace namespace = Namespace.getNamespace("inv", "urn:oasis:names:specification:ubl:schema:xsd:Invoice-2");
+
+        XPath xPath = JdomXml.xPath("/inv:Invoice/inv:ID", Collections.singletonList(namespace));
+
+        assertSame(JdomXml.xPath("/inv:Invoice/inv:ID", Collections.singletonList(namespace)), xPath);
+        assertEquals(((Element) xPath.selectSingleNode(document)).getText(), "42");
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package no.sr.ringo.xml;
+
+import org.jdom.Namespace;
+import org.jdom.xpath.XPath;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Compares the time spent per document when creating factories, builders, transformers and XPath expressions for
+ * every document, as Ringo used to, with the cached and pooled instances of this module.
+ * <p>
+ * Not a unit test, run it manually:
+ * <pre>
+ *   java -cp ... no.sr.ringo.xml.XmlBenchmark [iterations]
+ * </pre>
+ */
+public class XmlBenchmark {
+
+    static final String NS = "urn:oasis:names:specification:ubl:schema:xsd:Invoice-2";
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+
+        byte[] document = sampleDocument();
+        org.w3c.dom.Document dom = XmlPool.parse(new ByteArrayInputStream(document));
+        org.jdom.Document jdom = JdomXml.saxBuilder().build(new ByteArrayInputStream(document));
+        List<Namespace> namespaces = Collections.singletonList(Namespace.getNamespace("inv", NS));
+
+        System.out.format("%d iterations, document of %d bytes%n", iterations, document.length);
+
+        compare("DOM parse", iterations, () -> {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            return factory.newDocumentBuilder().parse(new ByteArrayInputStream(document));
+        }, () -> XmlPool.parse(new ByteArrayInputStream(document)));
+
+        compare("DOM serialize", iterations, () -> {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            TransformerFactory.newInstance().newTransformer().transform(new DOMSource(dom), new StreamResult(out));
+            return out;
+        }, () -> {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            XmlPool.transform(new DOMSource(dom), new StreamResult(out));
+            return out;
+        });
+
+        compare("JDOM parse", iterations,
+                () -> new org.jdom.input.SAXBuilder().build(new StringReader(new String(document, "UTF-8"))),
+                () -> JdomXml.saxBuilder().build(new StringReader(new String(document, "UTF-8"))));
+
+        compare("JDOM XPath", iterations, () -> {
+            XPath xPath = XPath.newInstance("/inv:Invoice/inv:ID");
+            xPath.addNamespace(namespaces.get(0));
+            return xPath.selectSingleNode(jdom);
+        }, () -> JdomXml.xPath("/inv:Invoice/inv:ID", namespaces).selectSingleNode(jdom));
+    }
+
+    static void compare(String name, int iterations, Callable<Object> uncached, Callable<Object> cached) throws Exception {
+        // Warm up both variants before measuring
+        measure(iterations / 4, uncached);
+        measure(iterations / 4, cached);
+
+        double before = measure(iterations, uncached);
+        double after = measure(iterations, cached);
+        System.out.format("%-14s %10.2f us/doc uncached %10.2f us/doc cached  (%.1fx)%n", name, before, after, before / after);
+    }
+
+    static double measure(int iterations, Callable<Object> callable) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            if (callable.call() == null) {
+                throw new IllegalStateException("Nothing produced");
+            }
+        }
+        return (System.nanoTime() - start) / 1000.0 / iterations;
+    }
+
+    static byte[] sampleDocument() throws Exception {
+        StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<Invoice xmlns=\"" + NS + "\"><ID>42</ID>");
+        for (int i = 0; i < 50; i++) {
+            sb.append("<InvoiceLine><ID>").append(i).append("</ID><Note>Line number ").append(i).append("</Note></InvoiceLine>");
+        }
+        return sb.append("</Invoice>").toString().getBytes("UTF-8");
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2010-2017 Norwegian Agency for Public Management and eGovernment (Difi)
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they
+ * will be approved by the European Commission - subsequent
+ * versions of the EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ *
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/community/eupl/og_page/eupl
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the Licence is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package no.sr.ringo.xml;
+
+import org.testng.annotations.Test;
+import org.w3c.dom.Document;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.testng.Assert.*;
+
+public class XmlPoolTest {
+
+    static final String INVOICE = "<Invoice xmlns=\"urn:oasis:names:specification:ubl:schema:xsd:Invoice-2\"><ID>42</ID></Invoice>";
+
+    @Test
+    public void instancesAreReusedWithinThread() throws Exception {
+        DocumentBuilder documentBuilder = XmlPool.documentBuilder();
+
+        assertSame(XmlPool.documentBuilder(), documentBuilder);
+        assertTrue(documentBuilder.isNamespaceAware());
+    }
+
+    @Test
+    public void instancesAreNotSharedBetweenThreads() throws Exception {
+        DocumentBuilder documentBuilder = XmlPool.documentBuilder();
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            Future<DocumentBuilder> other = executorService.submit(XmlPool::documentBuilder);
+            assertNotSame(other.get(), documentBuilder);
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    public void parseAndTransform() throws Exception {
+        Document document = XmlPool.parse(new ByteArrayInputStream(INVOICE.getBytes("UTF-8")));
+        assertEquals(document.getDocumentElement().getNamespaceURI(), "urn:oasis:names:specification:ubl:schema:xsd:Invoice-2");
+
+        // Output properties set by a previous user must not leak
+        XmlPool.transformer().setOutputProperty("omit-xml-declaration", "yes");
+        StringWriter writer = new StringWriter();
+        XmlPool.transform(new DOMSource(document), new StreamResult(writer));
+
+        assertTrue(writer.toString().startsWith("<?xml"), writer.toString());
+        assertTrue(writer.toString().contains("<ID>42</ID>"));
+    }
+}
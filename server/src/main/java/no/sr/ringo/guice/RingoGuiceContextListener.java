@@ -59,7 +59,9 @@ public class RingoGuiceContextListener extends GuiceServletContextListener {
                 new RingoConfigModule() ,
 
                 new PluginModule(),     // Support for plugins
-                new BlobStoreModule()   // Provides the PayloadUriRewriter instance to be used
+                new BlobStoreModule(),  // Provides the PayloadUriRewriter instance to be used
+                new ValidationModule(), // Provides the DocumentValidator instance to be used
+                new WebhookModule()     // Pushes inbound messages to the webhooks of the accounts
         );
     }
 
@@ -1,6 +1,9 @@
 package no.sr.ringo.guice;
 
+import com.google.inject.Singleton;
 import com.google.inject.TypeLiteral;
+import com.google.inject.matcher.AbstractMatcher;
+import com.google.inject.matcher.Matchers;
 import com.google.inject.servlet.RequestScoped;
 import com.sun.jersey.api.core.ResourceConfig;
 import com.sun.jersey.guice.JerseyServletModule;
@@ -9,12 +12,19 @@ import no.sr.ringo.document.FetchDocumentResultVisitor;
 import no.sr.ringo.document.FetchDocumentResultVisitorImpl;
 import no.sr.ringo.document.FetchDocumentUseCase;
 import no.sr.ringo.message.FetchMessagesUseCase;
+import no.sr.ringo.metrics.ServerMetrics;
+import no.sr.ringo.metrics.RestRequestEventInterceptor;
+import no.sr.ringo.metrics.TimingMethodInterceptor;
 import no.sr.ringo.peppol.DummySender;
 import no.sr.ringo.peppol.PeppolDocumentSender;
 import no.sr.ringo.resource.*;
+import no.sr.ringo.servlet.GzipFilter;
 import no.sr.ringo.usecase.ReceiveMessageFromClientUseCase;
 
+import javax.ws.rs.HttpMethod;
 import javax.ws.rs.core.Response;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -28,6 +38,11 @@ import java.util.Map;
  */
 public class RingoRestModule extends JerseyServletModule {
 
+    /** Everything under inbox, outbox, messages, events etc */
+    public static final String RESOURCE_SECONDS = "ringo_resource_seconds";
+
+    private static final String REST_PATHS = "(^\\/(?:register|inbox|outbox|messages|admin|statistics|notify)(?!.*\\.ico.*).*$)";
+
     private final String versionNumber;
     private final boolean enableTracingDebug;
     private final Map<String, String> initalisationParams = new HashMap<String, String>();
@@ -47,9 +62,14 @@ public class RingoRestModule extends JerseyServletModule {
         bindUseCases();
         bindDocumentSendingDependencies();
         bindExceptionHandlers();
+        bindEntityProviders();
+        bindResourceTiming();
+
+        // Compresses the responses and decompresses the uploads of the REST resources
+        filterRegex(REST_PATHS).through(GzipFilter.class);
 
         // Serves everything under inbox, outbox, messages, events etc using (JAX-RS)
-        serveRegex("(^\\/(?:register|inbox|outbox|messages|admin|statistics|notify)(?!.*\\.ico.*).*$)").with(GuiceContainer.class, initalisationParams);
+        serveRegex(REST_PATHS).with(GuiceContainer.class, initalisationParams);
 
     }
 
@@ -64,6 +84,32 @@ public class RingoRestModule extends JerseyServletModule {
         bind(MessageNotFoundExceptionMapper.class);
     }
 
+    private void bindEntityProviders() {
+        // Selected according to the "Accept" header of the request
+        bind(XmlResponseProvider.class);
+        bind(JsonResponseProvider.class);
+    }
+
+    /**
+     * Times the resource methods, i.e. the methods annotated with @GET, @POST etc, see {@link ServerMetrics}, and
+     * emits a Flight Recorder event for every call, see {@link RestRequestEventInterceptor}.
+     */
+    private void bindResourceTiming() {
+        TimingMethodInterceptor resourceTimingInterceptor = new TimingMethodInterceptor(RESOURCE_SECONDS, "Time spent in the methods of the REST resources");
+        requestInjection(resourceTimingInterceptor);
+        bindInterceptor(Matchers.inSubpackage("no.sr.ringo.resource"), new AbstractMatcher<Method>() {
+            @Override
+            public boolean matches(Method method) {
+                for (Annotation annotation : method.getAnnotations()) {
+                    if (annotation.annotationType().isAnnotationPresent(HttpMethod.class)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        }, resourceTimingInterceptor, new RestRequestEventInterceptor());
+    }
+
     private void configureLogging() {
         //sets up logging of requests and responses
         if (enableTracingDebug) {
@@ -75,7 +121,7 @@ public class RingoRestModule extends JerseyServletModule {
 
     private void bindJerseyResources() {
 //        bind(PayloadUriRewriter.class).to(DefaultPayloadUriRewriter.class);     // Rewrites the payload URI
-        bind(UriLocationTool.class).to(UriLocationToolImpl.class);
+        bind(UriLocationTool.class).to(UriLocationToolImpl.class).in(Singleton.class);    // Caches the URI templates
 
         bind(new TypeLiteral<FetchDocumentResultVisitor<Response>>(){}).to(FetchDocumentResultVisitorImpl.class);
         
@@ -88,7 +134,8 @@ public class RingoRestModule extends JerseyServletModule {
         bind(RegisterResource.class);
         bind(StatisticsResource.class);
         bind(NotificationResource.class);
-        // remember to add new paths to regexp in configureServlets()
+        bind(WebhookResource.class);
+        // remember to add new paths to REST_PATHS
     }
 
     private void bindDocumentSendingDependencies() {
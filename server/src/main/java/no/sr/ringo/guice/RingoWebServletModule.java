@@ -1,6 +1,11 @@
 package no.sr.ringo.guice;
 
 import com.google.inject.servlet.ServletModule;
+import no.sr.ringo.servlet.AdmissionControlFilter;
+import no.sr.ringo.servlet.AsyncRequestFilter;
+import no.sr.ringo.servlet.ConditionalGetFilter;
+import no.sr.ringo.servlet.InboxEventsServlet;
+import no.sr.ringo.servlet.InboxLongPollFilter;
 import no.sr.ringo.servlet.UploadServlet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,7 +24,21 @@ public class RingoWebServletModule extends ServletModule {
 
     @Override
     protected void configureServlets() {
+        // Rejects requests exceeding the rate of their account, or the number of requests processed at once, ahead of everything else
+        filter("/*").through(AdmissionControlFilter.class);
+
         serve("/upload/upload.do").with(UploadServlet.class);
+
+        // Asynchronous servlet and filter, waiting for new messages without holding a thread.
+        // Must be configured ahead of the REST API serving everything below /inbox
+        serve("/inbox/events").with(InboxEventsServlet.class);
+        filter("/inbox", "/inbox/").through(InboxLongPollFilter.class);
+
+        // Answers requests for unchanged message lists and counts with 304, before the REST API queries the messages
+        filter("/inbox", "/inbox/", "/inbox/count", "/outbox", "/outbox/", "/messages/count").through(ConditionalGetFilter.class);
+
+        // Uploads, statistics and inbox bundles are processed by bounded pools of workers, releasing the container threads
+        filter("/outbox", "/outbox/", "/outbox/batch", "/statistics", "/statistics/", "/admin/statistics", "/inbox/bundle").through(AsyncRequestFilter.class);
     }
 
 }
@@ -0,0 +1,48 @@
+package no.sr.ringo.guice;
+
+import com.google.inject.*;
+import com.google.inject.name.Named;
+import com.google.inject.name.Names;
+import no.sr.ringo.config.RingoConfigProperty;
+import no.sr.ringo.plugin.PluginFactory;
+import no.sr.ringo.validation.AsyncValidationService;
+import no.sr.ringo.validation.DocumentValidator;
+import no.sr.ringo.validation.HttpDocumentValidator;
+import no.sr.ringo.validation.InProcessDocumentValidator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Binds the {@link DocumentValidator} used to validate documents uploaded by accounts having validation enabled.
+ *
+ * The implementation is selected by {@link RingoConfigProperty#VALIDATION_ENGINE}, being one of "http", "in-process"
+ * or "plugin".
+ *
+ * The {@link AsyncValidationService} is created eagerly, allowing uploads left pending validation to be resumed
+ * upon start up.
+ */
+public class ValidationModule extends AbstractModule {
+
+    public static final Logger LOGGER = LoggerFactory.getLogger(ValidationModule.class);
+
+    @Override
+    protected void configure() {
+        bind(DocumentValidator.class).annotatedWith(Names.named("http")).to(HttpDocumentValidator.class);
+        bind(DocumentValidator.class).annotatedWith(Names.named("in-process")).to(InProcessDocumentValidator.class);
+        bind(AsyncValidationService.class).asEagerSingleton();
+    }
+
+    @Provides
+    @Singleton
+    @Named("plugin")
+    protected DocumentValidator provideDocumentValidatorPlugin(PluginFactory pluginFactory) {
+        return pluginFactory.newInstance(DocumentValidator.class);
+    }
+
+    @Provides
+    @Singleton
+    protected DocumentValidator provideDocumentValidator(Injector injector, @Named(RingoConfigProperty.VALIDATION_ENGINE) String engine) {
+        LOGGER.info("Using document validator '{}'", engine);
+        return injector.getInstance(Key.get(DocumentValidator.class, Names.named(engine)));
+    }
+}
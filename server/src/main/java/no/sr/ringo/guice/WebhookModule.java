@@ -0,0 +1,17 @@
+package no.sr.ringo.guice;
+
+import com.google.inject.AbstractModule;
+import no.sr.ringo.webhook.WebhookDispatcher;
+
+/**
+ * Binds the {@link WebhookDispatcher} pushing inbound messages to the webhooks of the accounts.
+ *
+ * The dispatcher is created eagerly, allowing pushes left undelivered by a restart to be resumed upon start up.
+ */
+public class WebhookModule extends AbstractModule {
+
+    @Override
+    protected void configure() {
+        bind(WebhookDispatcher.class).asEagerSingleton();
+    }
+}
@@ -0,0 +1,88 @@
+package no.sr.ringo.message;
+
+import com.google.inject.Singleton;
+import no.sr.ringo.account.AccountId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the messages of inbox bundles which have been written completely, until the client acknowledges them
+ * using the token supplied in the manifest of the bundle.
+ *
+ * Tokens not acknowledged within {@link #TIME_TO_LIVE} milliseconds are discarded, leaving the messages unread.
+ */
+@Singleton
+public class InboxBundleAcknowledgements {
+
+    static final long TIME_TO_LIVE = TimeUnit.HOURS.toMillis(1);
+
+    /** Upper limit of tokens awaiting acknowledgement */
+    static final int MAX_PENDING = 10000;
+
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a token, which is valid once the messages have been registered.
+     */
+    public String newToken() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * Registers the messages written to the bundle identified by the token.
+     */
+    public void register(String token, AccountId accountId, List<MessageNumber> messageNumbers) {
+        if (pending.size() >= MAX_PENDING) {
+            purgeExpired();
+            if (pending.size() >= MAX_PENDING) {
+                throw new IllegalStateException("Too many inbox bundles awaiting acknowledgement");
+            }
+        }
+        pending.put(token, new Pending(accountId, new ArrayList<>(messageNumbers), System.currentTimeMillis()));
+    }
+
+    /**
+     * Removes the messages registered with the token.
+     *
+     * @return the messages of the bundle or an empty list if the token is unknown, has expired or is owned by
+     * another account
+     */
+    public List<MessageNumber> acknowledge(String token, AccountId accountId) {
+        Pending bundle = pending.get(token);
+        if (bundle == null || !bundle.accountId.equals(accountId) || !pending.remove(token, bundle)) {
+            return Collections.emptyList();
+        }
+        if (bundle.isExpired(System.currentTimeMillis())) {
+            return Collections.emptyList();
+        }
+        return bundle.messageNumbers;
+    }
+
+    void purgeExpired() {
+        long now = System.currentTimeMillis();
+        pending.values().removeIf(bundle -> bundle.isExpired(now));
+    }
+
+    private static class Pending {
+
+        final AccountId accountId;
+        final List<MessageNumber> messageNumbers;
+        final long created;
+
+        Pending(AccountId accountId, List<MessageNumber> messageNumbers, long created) {
+            this.accountId = accountId;
+            this.messageNumbers = messageNumbers;
+            this.created = created;
+        }
+
+        boolean isExpired(long now) {
+            return now - created > TIME_TO_LIVE;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package no.sr.ringo.message;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import no.sr.ringo.account.AccountId;
+import no.sr.ringo.config.RingoConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps track of the clients waiting for new messages in the inbox of their account, and wakes them up as soon as
+ * a message has been received.
+ *
+ * Messages saved by this node are signalled by the {@link InboxNotifier}. Messages saved by other nodes are detected
+ * by checking the database for new inbound messages every {@link RingoConfigProperty#INBOX_EVENTS_POLL_INTERVAL}
+ * seconds, using the message number as a change counter. The database is only checked while there are subscribers.
+ *
+ * Subscribers are invoked on the threads of the hub, never on the thread saving the message.
+ */
+@Singleton
+public class InboxEventHub implements InboxNotifier.Listener {
+
+    static final Logger log = LoggerFactory.getLogger(InboxEventHub.class);
+
+    /** Number of threads signalling subscribers, writing events and heart beats */
+    static final int THREADS = 2;
+
+    private final PeppolMessageRepository peppolMessageRepository;
+
+    private final Map<AccountId, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+
+    /** The latest inbound message signalled in-process, per account, to avoid signalling it once more when polling */
+    private final Map<AccountId, MessageNumber> signalled = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService executor;
+
+    /** The highest message number seen by the last check of the database, null until checked */
+    private volatile MessageNumber latest;
+
+    @Inject
+    public InboxEventHub(InboxNotifier inboxNotifier, PeppolMessageRepository peppolMessageRepository,
+                         @Named(RingoConfigProperty.INBOX_EVENTS_POLL_INTERVAL) String pollInterval) {
+        this.peppolMessageRepository = peppolMessageRepository;
+
+        executor = Executors.newScheduledThreadPool(THREADS, daemonThreadFactory("ringo-inbox-events"));
+        long interval = Long.parseLong(pollInterval);
+        if (interval > 0) {
+            executor.scheduleWithFixedDelay(this::poll, interval, interval, TimeUnit.SECONDS);
+        }
+
+        inboxNotifier.addListener(this);
+    }
+
+    /**
+     * Registers the subscriber to be invoked whenever a message has been received by the account.
+     */
+    public void subscribe(AccountId accountId, Subscriber subscriber) {
+        subscribers.computeIfAbsent(accountId, id -> ConcurrentHashMap.newKeySet()).add(subscriber);
+    }
+
+    public void unsubscribe(AccountId accountId, Subscriber subscriber) {
+        subscribers.computeIfPresent(accountId, (id, accountSubscribers) -> {
+            accountSubscribers.remove(subscriber);
+            return accountSubscribers.isEmpty() ? null : accountSubscribers;
+        });
+    }
+
+    /**
+     * Runs the task periodically on the threads of the hub, e.g. to write heart beats to subscribers.
+     */
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long period, TimeUnit unit) {
+        return executor.scheduleAtFixedRate(task, period, period, unit);
+    }
+
+    @Override
+    public void inboxChanged(AccountId accountId, MessageNumber messageNumber) {
+        signalled.merge(accountId, messageNumber, (previous, current) -> previous.compareTo(current) >= 0 ? previous : current);
+        try {
+            executor.execute(() -> signal(accountId));
+        } catch (RejectedExecutionException e) {
+            log.debug("Inbox event hub is shut down, message {} not signalled", messageNumber);
+        }
+    }
+
+    /**
+     * Checks the database for inbound messages saved since the previous check.
+     */
+    void poll() {
+        try {
+            if (subscribers.isEmpty()) {
+                // Starts afresh when needed, rather than scanning the messages received in the mean time
+                latest = null;
+                signalled.clear();
+                return;
+            }
+            if (latest == null) {
+                latest = peppolMessageRepository.getLatestMessageNumber();
+                if (latest == null) {
+                    latest = MessageNumber.of(0L);
+                }
+                return;
+            }
+
+            Map<AccountId, MessageNumber> received = peppolMessageRepository.findLatestInboundMessageNumbers(latest);
+            for (Map.Entry<AccountId, MessageNumber> entry : received.entrySet()) {
+                MessageNumber seen = signalled.get(entry.getKey());
+                if (seen == null || seen.compareTo(entry.getValue()) < 0) {
+                    signal(entry.getKey());
+                }
+                if (latest.compareTo(entry.getValue()) < 0) {
+                    latest = entry.getValue();
+                }
+            }
+            MessageNumber checked = latest;
+            signalled.values().removeIf(messageNumber -> messageNumber.compareTo(checked) <= 0);
+        } catch (Exception e) {
+            log.error("Unable to check for new inbound messages; " + e.getMessage(), e);
+        }
+    }
+
+    void signal(AccountId accountId) {
+        Set<Subscriber> accountSubscribers = subscribers.get(accountId);
+        if (accountSubscribers == null) {
+            return;
+        }
+        for (Subscriber subscriber : accountSubscribers) {
+            try {
+                subscriber.inboxChanged();
+            } catch (RuntimeException e) {
+                log.warn("Unable to signal subscriber of account " + accountId + "; " + e.getMessage(), e);
+            }
+        }
+    }
+
+    int getSubscriberCount() {
+        int count = 0;
+        for (Set<Subscriber> accountSubscribers : subscribers.values()) {
+            count += accountSubscribers.size();
+        }
+        return count;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * A client waiting for new messages.
+     */
+    public interface Subscriber {
+
+        /**
+         * Invoked when a message has been received by the account subscribed to.
+         */
+        void inboxChanged();
+    }
+
+    private static ThreadFactory daemonThreadFactory(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
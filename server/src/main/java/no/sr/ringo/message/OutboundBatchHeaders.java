@@ -0,0 +1,115 @@
+package no.sr.ringo.message;
+
+import no.sr.ringo.xml.XmlFactories;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The headers of the documents of a batch upload. The header fields shared by every document of the batch are
+ * overridden by the fields of the individual documents listed in the manifest, if any.
+ * <p/>
+ * The manifest lists the documents by file name, holding the header fields as attributes named as the form fields
+ * of a single upload:
+ * <pre>
+ * &lt;outbox-batch&gt;
+ *   &lt;document file="invoice-1.xml" RecipientID="9908:976098897" DocumentID="..." ProcessID="..."/&gt;
+ * &lt;/outbox-batch&gt;
+ * </pre>
+ * The manifest applies to the documents following it, hence it should precede the documents of the batch.
+ */
+public class OutboundBatchHeaders {
+
+    /** Name of the manifest, as ZIP entry or multipart field */
+    public static final String MANIFEST = "manifest.xml";
+
+    public static final String CHANNEL_ID = "ChannelID";
+    public static final String RECIPIENT_ID = "RecipientID";
+    public static final String SENDER_ID = "SenderID";
+    public static final String PROCESS_ID = "ProcessID";
+    public static final String DOCUMENT_ID = "DocumentID";
+    public static final String UPLOAD_MODE = "UploadMode";
+
+    static final List<String> FIELDS = Arrays.asList(CHANNEL_ID, RECIPIENT_ID, SENDER_ID, PROCESS_ID, DOCUMENT_ID, UPLOAD_MODE);
+
+    private final Map<String, String> shared = new HashMap<String, String>();
+    private final Map<String, Map<String, String>> documents = new HashMap<String, Map<String, String>>();
+
+    /**
+     * @return true if the name is a header field
+     */
+    public static boolean isField(String name) {
+        return FIELDS.contains(name);
+    }
+
+    /**
+     * Sets a header field shared by every document of the batch. Blank values are ignored.
+     */
+    public void setShared(String name, String value) {
+        if (isField(name) && value != null && !value.trim().isEmpty()) {
+            shared.put(name, value.trim());
+        }
+    }
+
+    /**
+     * Reads the header fields of the individual documents from the manifest.
+     */
+    public void readManifest(InputStream inputStream) throws IOException {
+        try {
+            XMLStreamReader reader = XmlFactories.xmlInputFactory().createXMLStreamReader(inputStream);
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() != XMLStreamConstants.START_ELEMENT || !"document".equals(reader.getLocalName())) {
+                        continue;
+                    }
+                    String fileName = reader.getAttributeValue(null, "file");
+                    if (fileName == null) {
+                        throw new IOException("Document of " + MANIFEST + " has no file name");
+                    }
+                    Map<String, String> fields = new HashMap<String, String>();
+                    for (int i = 0; i < reader.getAttributeCount(); i++) {
+                        if (isField(reader.getAttributeLocalName(i))) {
+                            fields.put(reader.getAttributeLocalName(i), reader.getAttributeValue(i).trim());
+                        }
+                    }
+                    documents.put(fileName, fields);
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Unable to parse " + MANIFEST + "; " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Provides the parameters of a document of the batch.
+     */
+    public OutboundPostParams postParams(String fileName, InputStream inputStream) {
+        return new OutboundPostParams.Builder()
+                .channelId(field(fileName, CHANNEL_ID))
+                .recipientId(field(fileName, RECIPIENT_ID))
+                .senderId(field(fileName, SENDER_ID))
+                .processId(field(fileName, PROCESS_ID))
+                .documentId(field(fileName, DOCUMENT_ID))
+                .uploadMode(shared.get(UPLOAD_MODE))
+                .inputStream(inputStream)
+                .fileName(fileName)
+                .build();
+    }
+
+    private String field(String fileName, String name) {
+        Map<String, String> fields = documents.get(fileName);
+        if (fields != null && fields.containsKey(name)) {
+            return fields.get(name);
+        }
+        return shared.get(name);
+    }
+}
@@ -15,6 +15,8 @@ public class OutboundPostParams {
     private InputStream inputStream;
     private String uploadMode;
     private String filename;
+    private String idempotencyKey;
+    private OutboxRequestDigest requestDigest;
 
     private OutboundPostParams() {
     }
@@ -51,6 +53,20 @@ public class OutboundPostParams {
         return filename;
     }
 
+    /**
+     * @return the Idempotency-Key of the upload, or null if none was given
+     */
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    /**
+     * @return the digest of the upload, computed as the document is read, if the upload has an Idempotency-Key
+     */
+    public OutboxRequestDigest getRequestDigest() {
+        return requestDigest;
+    }
+
     public static class Builder {
         private OutboundPostParams params;
 
@@ -95,6 +111,16 @@ public class OutboundPostParams {
             return this;
         }
 
+        /**
+         * The Idempotency-Key reserved for the upload, completed as the message is persisted, and the digest of the
+         * upload, which should be computed from the input stream given.
+         */
+        public Builder idempotencyKey(String idempotencyKey, OutboxRequestDigest requestDigest) {
+            params.idempotencyKey = idempotencyKey;
+            params.requestDigest = requestDigest;
+            return this;
+        }
+
         public OutboundPostParams build() {
             return params;
         }
@@ -0,0 +1,123 @@
+package no.sr.ringo.message;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import no.sr.ringo.account.AccountId;
+import no.sr.ringo.config.RingoConfigProperty;
+import no.sr.ringo.persistence.idempotency.IdempotencyKey;
+import no.sr.ringo.persistence.idempotency.IdempotencyKeyRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the Idempotency-Key of uploads to the outbox for {@link RingoConfigProperty#IDEMPOTENCY_KEY_TTL} hours,
+ * allowing clients to retry uploads whose response was lost without creating another message, and hence another
+ * transmission.
+ *
+ * An upload reserves its key before the document is read, and completes the key with the message created and the
+ * {@link OutboxRequestDigest} of the upload, within the transaction persisting the message. Keys of uploads which never
+ * completed, e.g. due to a restart, are abandoned after {@link #ABANDONED_AFTER} minutes. A completed key reused by an
+ * upload having another digest is rejected rather than replayed.
+ * Expired keys are purged as uploads arrive, at most every {@link #PURGE_INTERVAL} minutes.
+ */
+@Singleton
+public class OutboxIdempotencyKeys {
+
+    static final Logger log = LoggerFactory.getLogger(OutboxIdempotencyKeys.class);
+
+    /** Longest key accepted, as held by the database */
+    public static final int MAX_KEY_LENGTH = 128;
+
+    /** Minutes after which the reservation of an upload still in progress is abandoned */
+    static final long ABANDONED_AFTER = 10;
+
+    /** Minutes between purges of expired keys */
+    static final long PURGE_INTERVAL = 10;
+
+    private final IdempotencyKeyRepository idempotencyKeyRepository;
+    private final long ttl;
+    private final AtomicLong nextPurge = new AtomicLong();
+
+    @Inject
+    public OutboxIdempotencyKeys(IdempotencyKeyRepository idempotencyKeyRepository,
+                                 @Named(RingoConfigProperty.IDEMPOTENCY_KEY_TTL) String ttl) {
+        this.idempotencyKeyRepository = idempotencyKeyRepository;
+        this.ttl = TimeUnit.HOURS.toMillis(Long.parseLong(ttl));
+    }
+
+    /**
+     * @return true if the key is at most {@link #MAX_KEY_LENGTH} printable ASCII characters
+     */
+    public static boolean isValid(String key) {
+        if (key.isEmpty() || key.length() > MAX_KEY_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            if (key.charAt(i) < 0x21 || key.charAt(i) > 0x7e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reserves the key for an upload about to be processed.
+     *
+     * @return null if the upload should be processed, otherwise the key of the previous upload, either completed or
+     * still in progress
+     */
+    public IdempotencyKey reserve(AccountId accountId, String key) {
+        long now = System.currentTimeMillis();
+        purgeIfDue(now);
+        return idempotencyKeyRepository.reserve(accountId, key, new Date(now), new Date(now - ttl),
+                new Date(now - TimeUnit.MINUTES.toMillis(ABANDONED_AFTER)));
+    }
+
+    /**
+     * Completes the key reserved by the upload, to be invoked within the transaction persisting the message.
+     *
+     * @throws IllegalStateException if the key is no longer reserved by the upload, rolling back the transaction
+     */
+    public void complete(AccountId accountId, String key, MessageNumber messageNumber, String requestDigest) {
+        if (!idempotencyKeyRepository.complete(accountId, key, messageNumber, requestDigest)) {
+            throw new IllegalStateException("Idempotency key '" + key + "' of account " + accountId + " is no longer reserved by the upload");
+        }
+    }
+
+    /**
+     * @return true if the completed key was created by an upload having the given digest
+     */
+    public static boolean isReplayOf(IdempotencyKey previous, String requestDigest) {
+        return previous.getRequestDigest() == null || previous.getRequestDigest().equals(requestDigest);
+    }
+
+    /**
+     * Releases the key of an upload which failed, allowing the client to correct the upload and try again.
+     */
+    public void release(AccountId accountId, String key) {
+        try {
+            idempotencyKeyRepository.release(accountId, key);
+        } catch (RuntimeException e) {
+            // Abandoned in due time
+            log.warn("Unable to release idempotency key; " + e.getMessage(), e);
+        }
+    }
+
+    private void purgeIfDue(long now) {
+        long due = nextPurge.get();
+        if (now < due || !nextPurge.compareAndSet(due, now + TimeUnit.MINUTES.toMillis(PURGE_INTERVAL))) {
+            return;
+        }
+        try {
+            int purged = idempotencyKeyRepository.purge(new Date(now - ttl));
+            log.debug("Purged {} expired idempotency keys", purged);
+        } catch (RuntimeException e) {
+            log.warn("Unable to purge expired idempotency keys; " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package no.sr.ringo.message;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 digest of an upload to the outbox, i.e. of its header fields and of the document read through
+ * {@link #digest(InputStream)}, telling an upload retried by the client from another upload reusing the same
+ * Idempotency-Key.
+ */
+public class OutboxRequestDigest {
+
+    static final String ALGORITHM = "SHA-256";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final MessageDigest messageDigest;
+    private String value;
+
+    public OutboxRequestDigest(String... fields) {
+        try {
+            messageDigest = MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Unable to create message digest " + ALGORITHM + "; " + e.getMessage(), e);
+        }
+        for (String field : fields) {
+            messageDigest.update(String.valueOf(field).getBytes(StandardCharsets.UTF_8));
+            messageDigest.update((byte) 0);
+        }
+    }
+
+    /**
+     * @return the stream, adding the bytes read to the digest
+     */
+    public InputStream digest(InputStream inputStream) {
+        return new DigestInputStream(inputStream, messageDigest);
+    }
+
+    /**
+     * Reads the remainder of the stream, of an upload which is not to be processed.
+     *
+     * @return the hex encoded digest
+     */
+    public String drain(InputStream inputStream) throws IOException {
+        try (InputStream digestInputStream = digest(inputStream)) {
+            byte[] buffer = new byte[8192];
+            while (digestInputStream.read(buffer) != -1) {
+                // Added to the digest
+            }
+        }
+        return getValue();
+    }
+
+    /**
+     * @return the hex encoded digest, to be invoked once the document has been read
+     */
+    public String getValue() {
+        if (value == null) {
+            byte[] bytes = messageDigest.digest();
+            char[] chars = new char[bytes.length * 2];
+            for (int i = 0; i < bytes.length; i++) {
+                chars[i * 2] = HEX[(bytes[i] >> 4) & 0x0f];
+                chars[i * 2 + 1] = HEX[bytes[i] & 0x0f];
+            }
+            value = new String(chars);
+        }
+        return value;
+    }
+}
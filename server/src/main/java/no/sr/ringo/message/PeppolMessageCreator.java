@@ -6,18 +6,21 @@ import no.difi.vefa.peppol.common.model.ProcessIdentifier;
 import no.sr.ringo.account.Account;
 import no.sr.ringo.common.ProfileIdResolver;
 import no.sr.ringo.common.RingoConstants;
+import no.sr.ringo.metrics.jfr.EventEmitter;
+import no.sr.ringo.metrics.jfr.FlightRecorderSupport;
 import no.sr.ringo.peppol.PeppolChannelId;
 import no.sr.ringo.resource.InvalidUserInputWebException;
+import no.sr.ringo.xml.XmlFactories;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
 
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 /**
  * @author Adam
@@ -30,11 +33,21 @@ public class PeppolMessageCreator {
     Account account;
     PeppolMessage peppolMessage;
     OutboundPostParams postParams;
+    private final Path spoolDirectory;
 
     public PeppolMessageCreator(Account account, OutboundPostParams postParams) {
+        this(account, postParams, Paths.get(System.getProperty("java.io.tmpdir")));
+    }
+
+    /**
+     * @param spoolDirectory directory into which the uploaded payload is spooled, should reside in the same file system
+     *                       as the payload store in order for the payload to be moved rather than copied into place.
+     */
+    public PeppolMessageCreator(Account account, OutboundPostParams postParams, Path spoolDirectory) {
         this.account = account;
         this.peppolMessage = new PeppolMessage();
         this.postParams = postParams;
+        this.spoolDirectory = spoolDirectory;
     }
 
     public PeppolMessage extractHeader() {
@@ -46,12 +59,33 @@ public class PeppolMessageCreator {
         return peppolMessage;
     }
 
+    /**
+     * Spools the uploaded payload to disk while verifying that it is well formed XML, in a single pass and without
+     * holding the document in memory. The bytes spooled are the bytes uploaded, less any leading UTF-8 BOM.
+     * <p>
+     * Uploads are read as {@link RingoConstants#DEFAULT_CHARACTER_SET} whatever encoding they declare, as they were
+     * prior to spooling, hence documents which are not UTF-8 are rejected rather than stored as uploaded.
+     */
     public PeppolMessage extractDocument() {
+        Path payloadPath = null;
+        EventEmitter.XmlProcessing event = FlightRecorderSupport.emitter().beginXmlProcessing();
+        boolean valid = false;
         try {
-            Document document = parseInputStream(postParams.getInputStream());
-            peppolMessage.setXmlMessage(document);
+            Files.createDirectories(spoolDirectory);
+            payloadPath = Files.createTempFile(spoolDirectory, "upload-", ".xml");
+            try (OutputStream spool = new BufferedOutputStream(Files.newOutputStream(payloadPath))) {
+                InputStream inputStream = new TeeInputStream(checkForUtf8BOM(postParams.getInputStream()), spool);
+                parseInputStream(inputStream);
+                // Whatever trails the root element must be preserved as well
+                drain(inputStream);
+            }
+            peppolMessage.setPayloadPath(payloadPath);
+            valid = true;
         } catch (Exception e) {
+            deleteQuietly(payloadPath);
             throw new InvalidUserInputWebException("Unable to parse the XML document", e);
+        } finally {
+            commit(event, valid ? payloadPath : null);
         }
         return peppolMessage;
     }
@@ -93,11 +127,59 @@ public class PeppolMessageCreator {
         peppolMessage.getPeppolHeader().setPeppolChannelId(new PeppolChannelId(postParams.getChannelIdString()));
     }
 
-    private Document parseInputStream(InputStream inputStream) throws SAXException, IOException, ParserConfigurationException {
-        DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
-        documentBuilderFactory.setNamespaceAware(true);
-        InputSource source = new InputSource(new InputStreamReader(checkForUtf8BOM(inputStream), RingoConstants.DEFAULT_CHARACTER_SET));
-        return documentBuilderFactory.newDocumentBuilder().parse(source);
+    /**
+     * Reads every event of the document, which is how StAX verifies that it is well formed.
+     */
+    private void parseInputStream(InputStream inputStream) throws XMLStreamException {
+        // The parser closes the stream once the end of the document is reached, prior to any trailing bytes being read
+        XMLStreamReader reader = XmlFactories.xmlInputFactory().createXMLStreamReader(new FilterInputStream(inputStream) {
+            @Override
+            public void close() {
+            }
+        }, RingoConstants.DEFAULT_CHARACTER_SET);
+        try {
+            while (reader.hasNext()) {
+                reader.next();
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @param payloadPath the spooled payload, or null if it is not well formed
+     */
+    private static void commit(EventEmitter.XmlProcessing event, Path payloadPath) {
+        if (event.shouldCommit()) {
+            long bytes = 0;
+            try {
+                bytes = payloadPath != null ? Files.size(payloadPath) : 0;
+            } catch (IOException e) {
+                // The size is merely informative
+            }
+            event.commit(EventEmitter.XmlProcessing.PARSE, bytes, payloadPath != null);
+        }
+    }
+
+    private static void drain(InputStream inputStream) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (inputStream.read(buffer) != -1) {
+            // Written to the spool file by the tee
+        }
+    }
+
+    /**
+     * Removes a spooled payload, which has not been handed over to the message repository.
+     */
+    public static void deleteQuietly(Path payloadPath) {
+        if (payloadPath == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(payloadPath);
+        } catch (IOException e) {
+            log.warn("Unable to delete spooled payload " + payloadPath + "; " + e.getMessage());
+        }
     }
 
     /**
@@ -114,12 +196,56 @@ public class PeppolMessageCreator {
     private static InputStream removeUtf8Bom(InputStream inputStream) throws IOException {
         PushbackInputStream pushbackInputStream = new PushbackInputStream(new BufferedInputStream(inputStream), 3);
         byte[] bom = new byte[3];
-        if (pushbackInputStream.read(bom) != -1) {
-            if (!(bom[0] == (byte) 0xEF && bom[1] == (byte) 0xBB && bom[2] == (byte) 0xBF)) {
-                pushbackInputStream.unread(bom);
+        int count = pushbackInputStream.read(bom);
+        if (count != -1) {
+            if (!(count == 3 && bom[0] == (byte) 0xEF && bom[1] == (byte) 0xBB && bom[2] == (byte) 0xBF)) {
+                pushbackInputStream.unread(bom, 0, count);
             }
         }
         return pushbackInputStream;
     }
 
+    /**
+     * Copies every byte read from the underlying stream to the supplied output stream.
+     */
+    static class TeeInputStream extends FilterInputStream {
+
+        private final OutputStream copy;
+
+        TeeInputStream(InputStream in, OutputStream copy) {
+            super(in);
+            this.copy = copy;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                copy.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+            if (count > 0) {
+                copy.write(b, off, count);
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes must be copied as well
+            byte[] buffer = new byte[(int) Math.min(n, 8192)];
+            int count = read(buffer, 0, buffer.length);
+            return count < 0 ? 0 : count;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
 }
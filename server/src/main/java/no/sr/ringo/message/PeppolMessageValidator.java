@@ -2,20 +2,10 @@ package no.sr.ringo.message;
 
 import no.difi.vefa.peppol.common.model.ParticipantIdentifier;
 import no.sr.ringo.resource.InvalidUserInputWebException;
+import no.sr.ringo.validation.DocumentValidator;
+import no.sr.ringo.validation.ValidationResult;
 import org.apache.commons.lang.StringUtils;
 
-import javax.xml.transform.Result;
-import javax.xml.transform.Source;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
-
 /**
  * Validator used to validateHeader outbound post parameters.
  * This includes performing smpLookup to check if recipient is registered and whether documentType is supported
@@ -28,11 +18,16 @@ public class PeppolMessageValidator {
 
     private final PeppolMessage peppolMessage;
     private final OutboundPostParams postParams;
-    private final String LOCAL_VALIDATOR = "http://127.0.0.1:9090/validate";
+    private final DocumentValidator documentValidator;
 
     public PeppolMessageValidator(PeppolMessage peppolMessage, OutboundPostParams postParams) {
+        this(peppolMessage, postParams, null);
+    }
+
+    public PeppolMessageValidator(PeppolMessage peppolMessage, OutboundPostParams postParams, DocumentValidator documentValidator) {
         this.peppolMessage = peppolMessage;
         this.postParams = postParams;
+        this.documentValidator = documentValidator;
     }
 
     /**
@@ -46,59 +41,39 @@ public class PeppolMessageValidator {
         return peppolMessage;
     }
 
+    /**
+     * Validates the spooled document using the {@link DocumentValidator} supplied.
+     */
     public void validateDocument() {
 
-        String result = null;
-
+        ValidationResult result;
         try {
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            Source xmlSource = new DOMSource(peppolMessage.getXmlMessage());
-            Result outputTarget = new StreamResult(outputStream);
-            TransformerFactory.newInstance().newTransformer().transform(xmlSource, outputTarget);
-            result = httpPostXmlToUrl(LOCAL_VALIDATOR, outputStream.toString());
+            if (documentValidator == null) {
+                throw new IllegalStateException("No document validator available");
+            }
+            if (peppolMessage.getPayloadPath() == null) {
+                throw new IllegalStateException("Document has not been spooled");
+            }
+            result = documentValidator.validate(peppolMessage.getPeppolHeader().getPeppolDocumentTypeId(), peppolMessage.getPayloadPath());
         } catch (Exception e) {
             throw new InvalidUserInputWebException("Unable to validate the XML document", e);
         }
 
-        if (result == null)
-            throw new InvalidUserInputWebException("XmlDocument was not validated - got null response\n");
-        if (result.contains("<status>error</status>"))
-            throw new InvalidUserInputWebException(getErrorMessage("XmlDocument contains error", result));
-        if (result.contains("<status>fatal</status>"))
-            throw new InvalidUserInputWebException(getErrorMessage("XmlDocument was unknown or corrupt", result));
+        if (!result.isValid())
+            throw new InvalidUserInputWebException(getErrorMessage(result));
 
     }
 
-    private String httpPostXmlToUrl(String url, String xml) throws Exception {
-
-        HttpURLConnection con = (HttpURLConnection) new URL(url).openConnection();
-        con.setRequestMethod("POST");
-        con.setRequestProperty("User-Agent", "Ringo Server");
-        con.setDoOutput(true);
-        // con.setRequestProperty("Accept-Language", "en-US,en;q=0.5");
-
-        DataOutputStream wr = new DataOutputStream(con.getOutputStream());
-        wr.writeBytes(xml);
-        wr.flush();
-        wr.close();
-
-        int responseCode = con.getResponseCode();
-        System.out.println("\nSending 'POST' request to URL : " + url);
-        System.out.println("Response Code : " + responseCode);
-
-        BufferedReader in = new BufferedReader(new InputStreamReader(con.getInputStream()));
-        String inputLine;
-        StringBuffer response = new StringBuffer();
-        while ((inputLine = in.readLine()) != null) {
-            response.append(inputLine);
-        }
-        in.close();
-
-        return response.toString();
-
+    /**
+     * Provides the error message reported to the client for a document failing validation.
+     */
+    public static String getErrorMessage(ValidationResult result) {
+        if (result.getStatus() == ValidationResult.Status.FATAL)
+            return getErrorMessage("XmlDocument was unknown or corrupt", result.getDescription());
+        return getErrorMessage("XmlDocument contains error", result.getDescription());
     }
 
-    private String getErrorMessage(String message, String result) {
+    private static String getErrorMessage(String message, String result) {
         return message + "\n" + result;
     }
 
@@ -0,0 +1,56 @@
+package no.sr.ringo.metrics;
+
+import no.sr.ringo.metrics.jfr.EventEmitter;
+import no.sr.ringo.metrics.jfr.FlightRecorderSupport;
+import no.sr.ringo.metrics.jfr.RestRequestEvent;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+
+/**
+ * Emits a {@link RestRequestEvent} for every call of a resource method, on the thread processing the request, i.e.
+ * the very thread emitting the events of the transactions, repository calls and payload I/O of the request.
+ */
+public class RestRequestEventInterceptor implements MethodInterceptor {
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        EventEmitter.RestRequest event = FlightRecorderSupport.emitter().beginRestRequest();
+        int status = Response.Status.OK.getStatusCode();
+        try {
+            Object result = invocation.proceed();
+            if (result instanceof Response) {
+                status = ((Response) result).getStatus();
+            } else if (result == null) {
+                status = Response.Status.NO_CONTENT.getStatusCode();
+            }
+            return result;
+        } catch (WebApplicationException e) {
+            status = e.getResponse() != null ? e.getResponse().getStatus() : Response.Status.INTERNAL_SERVER_ERROR.getStatusCode();
+            throw e;
+        } catch (Throwable t) {
+            status = Response.Status.INTERNAL_SERVER_ERROR.getStatusCode();
+            throw t;
+        } finally {
+            if (event.shouldCommit()) {
+                Method method = invocation.getMethod();
+                event.commit(method.getDeclaringClass().getSimpleName() + "." + method.getName(), httpMethodOf(method), status);
+            }
+        }
+    }
+
+    private static String httpMethodOf(Method method) {
+        for (Annotation annotation : method.getAnnotations()) {
+            HttpMethod httpMethod = annotation.annotationType().getAnnotation(HttpMethod.class);
+            if (httpMethod != null) {
+                return httpMethod.value();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,74 @@
+package no.sr.ringo.metrics;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import no.sr.ringo.message.PeppolMessageRepository;
+import no.sr.ringo.persistence.file.PayloadCache;
+import no.sr.ringo.persistence.guice.jdbc.JdbcTxManagerImpl;
+import no.sr.ringo.persistence.queue.OutboundMessageQueueState;
+import no.sr.ringo.persistence.queue.QueueRepository;
+import no.sr.ringo.servlet.AdmissionControl;
+import no.sr.ringo.servlet.AsyncRequestFilter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Registers the gauges and counters of the server with the {@link MetricsRegistry}, which already holds the timers
+ * of the resources, repositories and payload I/O, and renders the metrics when scraped at /admin/metrics.
+ *
+ * The gauges are sampled when scraped only; the outbound queue and the inbox backlog are counted in the database.
+ */
+@Singleton
+public class ServerMetrics {
+
+    private final MetricsRegistry metricsRegistry;
+
+    @Inject
+    public ServerMetrics(MetricsRegistry metricsRegistry, AdmissionControl admissionControl, AsyncRequestFilter asyncRequestFilter,
+                         JdbcTxManagerImpl jdbcTxManager, PayloadCache payloadCache,
+                         QueueRepository queueRepository, PeppolMessageRepository peppolMessageRepository) {
+        this.metricsRegistry = metricsRegistry;
+
+        metricsRegistry.gauge("ringo_requests_in_progress", "Requests being processed, long polls excepted", admissionControl::getInProgress);
+        metricsRegistry.counter("ringo_requests_rejected_total", "Requests rejected by admission control", "reason", admissionControl::getRejections);
+        metricsRegistry.gauge("ringo_async_workers_active", "Requests being processed by the workers", "operation", asyncRequestFilter::getActiveWorkers);
+        metricsRegistry.gauge("ringo_async_queue_depth", "Requests waiting for a worker", "operation", asyncRequestFilter::getQueued);
+        metricsRegistry.gauge("ringo_jdbc_connections_in_use", "Connections obtained from the pool", jdbcTxManager::getConnectionsInUse);
+
+        metricsRegistry.counter("ringo_payload_cache_requests_total", "Payloads looked up in the cache", "outcome", () -> {
+            PayloadCache.Statistics statistics = payloadCache.getStatistics();
+            Map<String, Long> result = new LinkedHashMap<>();
+            result.put("hit", statistics.getHits());
+            result.put("miss", statistics.getMisses());
+            return result;
+        });
+        metricsRegistry.counter("ringo_payload_cache_served_bytes_total", "Bytes of payload served from the cache", () -> payloadCache.getStatistics().getBytesServed());
+        metricsRegistry.counter("ringo_payload_cache_evictions_total", "Payloads evicted from the cache", () -> payloadCache.getStatistics().getEvictions());
+        metricsRegistry.gauge("ringo_payload_cache_entries", "Payloads held by the cache", () -> payloadCache.getStatistics().getEntries());
+        metricsRegistry.gauge("ringo_payload_cache_bytes", "Bytes of payload held by the cache", () -> payloadCache.getStatistics().getSize());
+
+        metricsRegistry.gauge("ringo_outbound_queue_messages", "Entries of the outbound message queue", "state", () -> {
+            Map<String, Integer> result = new LinkedHashMap<>();
+            for (Map.Entry<OutboundMessageQueueState, Integer> entry : queueRepository.countByState().entrySet()) {
+                result.put(entry.getKey().name(), entry.getValue());
+            }
+            return result;
+        });
+        metricsRegistry.gauge("ringo_inbox_undelivered_messages", "Inbound messages not yet delivered to their accounts", peppolMessageRepository::getUndeliveredInboundMessagesCount);
+    }
+
+    /**
+     * @see MetricsRegistry#toPrometheus()
+     */
+    public String toPrometheus() {
+        return metricsRegistry.toPrometheus();
+    }
+
+    /**
+     * @see MetricsRegistry#toJson()
+     */
+    public String toJson() {
+        return metricsRegistry.toJson();
+    }
+}
@@ -5,6 +5,7 @@ import no.sr.ringo.message.MessageMetaData;
 import no.sr.ringo.message.MessageNumber;
 import no.sr.ringo.message.MessageWithLocations;
 import no.sr.ringo.response.SingleMessagesResponse;
+import no.sr.ringo.validation.ValidationStatus;
 
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
@@ -33,18 +34,25 @@ public abstract class AbstractResource  {
      * @return a JAX-RS response holding the status code, 200 OK, and the peppol message as a xml entity.
      */
     protected Response createSingleMessageResponse(UriInfo uriInfo, MessageMetaData messageMetaData,Class<? extends AbstractResource> resourceClass) {
+        return createSingleMessageResponse(uriInfo, messageMetaData, resourceClass, null);
+    }
+
+    /**
+     * As {@link #createSingleMessageResponse(UriInfo, MessageMetaData, Class)}, including the status of messages
+     * being validated asynchronously.
+     */
+    protected Response createSingleMessageResponse(UriInfo uriInfo, MessageMetaData messageMetaData, Class<? extends AbstractResource> resourceClass, ValidationStatus validationStatus) {
 
         // Messages with locators.
         MessageWithLocations messageWithLocations = uriLocationTool.decorateWithLocators(messageMetaData,uriInfo, resourceClass);
 
         // Creates the response
-        SingleMessagesResponse messageResponse = new SingleMessagesResponse(messageWithLocations);
-
-        // format the response as an XML String
-        String entity = messageResponse.asXml();
+        SingleMessagesResponse messageResponse = validationStatus == null
+                ? new SingleMessagesResponse(messageWithLocations)
+                : new SingleMessagesResponse(messageWithLocations, validationStatus.getState().name(), validationStatus.getError());
 
         // Shoves the URI of this message into the HTTP header "Location" and supplies the XML response as the entity
-        return SrResponse.ok().entity(entity).build();
+        return SrResponse.ok().entity(messageResponse).build();
     }
 
     /**
@@ -3,12 +3,16 @@ package no.sr.ringo.resource;
 import com.google.inject.Inject;
 import com.google.inject.servlet.RequestScoped;
 import no.sr.ringo.account.Account;
+import no.sr.ringo.common.RingoConstants;
 import no.sr.ringo.message.FetchMessagesUseCase;
 import no.sr.ringo.message.PeppolMessageRepository;
 import no.sr.ringo.message.statistics.RingoStatistics;
+import no.sr.ringo.metrics.ServerMetrics;
+import no.sr.ringo.persistence.jdbc.profiling.StatementProfiler;
 import no.sr.ringo.report.RingoReportUtils;
 import no.sr.ringo.report.SendReportUseCase;
 import no.sr.ringo.response.MessagesQueryResponse;
+import no.sr.ringo.servlet.AdmissionControl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -20,6 +24,7 @@ import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
+import java.util.Map;
 
 /**
  * Represents the "admin" resource, which allows to look up various statuses
@@ -33,21 +38,33 @@ public class AdminResource extends AbstractResource {
 
     private static Logger logger = LoggerFactory.getLogger(AdminResource.class);
 
+    /** Version 0.0.4 of the text format of Prometheus */
+    static final String PROMETHEUS_TEXT = "text/plain;version=0.0.4;charset=" + RingoConstants.DEFAULT_CHARACTER_SET;
+
     private final Account account;
     private final FetchMessagesUseCase fetchMessagesUseCase;
     private final PeppolMessageRepository peppolMessageRepository;
     private final SendReportUseCase sendReportUseCase;
+    private final AdmissionControl admissionControl;
+    private final ServerMetrics serverMetrics;
+    private final StatementProfiler statementProfiler;
 
     @Inject
     public AdminResource(FetchMessagesUseCase fetchMessagesUseCase, Account account,
                          PeppolMessageRepository peppolMessageRepository,
                          SendReportUseCase sendReportUseCase,
-                         UriLocationTool uriLocationTool) {
+                         UriLocationTool uriLocationTool,
+                         AdmissionControl admissionControl,
+                         ServerMetrics serverMetrics,
+                         StatementProfiler statementProfiler) {
         super(uriLocationTool);
         this.fetchMessagesUseCase = fetchMessagesUseCase;
         this.account = account;
         this.peppolMessageRepository = peppolMessageRepository;
         this.sendReportUseCase = sendReportUseCase;
+        this.admissionControl = admissionControl;
+        this.serverMetrics = serverMetrics;
+        this.statementProfiler = statementProfiler;
     }
 
     /**
@@ -99,10 +116,63 @@ public class AdminResource extends AbstractResource {
 
     @GET
     @Path("/statistics")
-    @Produces(RingoMediaType.APPLICATION_XML)
+    @Produces({RingoMediaType.APPLICATION_XML, RingoMediaType.APPLICATION_JSON, RingoMediaType.APPLICATION_NDJSON})
     public Response adminStatistics() {
         final RingoStatistics ringoStatistics = peppolMessageRepository.getAdminStatistics();
-        return SrResponse.ok().entity(ringoStatistics.asXml()).build();
+        return SrResponse.ok().entity(ringoStatistics).build();
+    }
+
+    /**
+     * Provides the number of requests rejected by admission control since start up, one counter per line.
+     * <p>
+     * curl -u username:password https://ringo.domain.com/admin/admission
+     */
+    @GET
+    @Path("/admission")
+    @Produces(RingoMediaType.TEXT_PLAIN)
+    public Response admission() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> rejections : admissionControl.getRejections().entrySet()) {
+            sb.append("rejected.").append(rejections.getKey()).append(' ').append(rejections.getValue()).append('\n');
+        }
+        return SrResponse.ok().entity(sb.toString()).build();
+    }
+
+    /**
+     * Provides the metrics in the Prometheus text format, to be scraped by Prometheus.
+     * <p>
+     * curl -u username:password https://ringo.domain.com/admin/metrics
+     */
+    @GET
+    @Path("/metrics")
+    @Produces(PROMETHEUS_TEXT)
+    public Response metrics() {
+        return SrResponse.ok().entity(serverMetrics.toPrometheus()).build();
+    }
+
+    /**
+     * Provides the metrics as JSON.
+     * <p>
+     * curl -u username:password -H "Accept: application/json" https://ringo.domain.com/admin/metrics
+     */
+    @GET
+    @Path("/metrics")
+    @Produces(RingoMediaType.APPLICATION_JSON)
+    public Response metricsAsJson() {
+        return SrResponse.ok().entity(serverMetrics.toJson()).build();
+    }
+
+    /**
+     * Provides the executions of every JDBC statement since start up, aggregated per statement, the statement having
+     * spent the most time executing first. Empty unless ringo.jdbc.slow.threshold is zero or more.
+     * <p>
+     * curl -u username:password https://ringo.domain.com/admin/statements
+     */
+    @GET
+    @Path("/statements")
+    @Produces(RingoMediaType.APPLICATION_JSON)
+    public Response statements() {
+        return SrResponse.ok().entity(statementProfiler.toJson()).build();
     }
 
 }
@@ -0,0 +1,184 @@
+package no.sr.ringo.resource;
+
+import no.sr.ringo.account.Account;
+import no.sr.ringo.document.PayloadReference;
+import no.sr.ringo.message.InboxBundleAcknowledgements;
+import no.sr.ringo.message.MessageMetaData;
+import no.sr.ringo.message.MessageNumber;
+import no.sr.ringo.persistence.file.ArtifactReader;
+import no.sr.ringo.response.XmlResponseWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static no.sr.ringo.response.XmlResponseWriter.constant;
+
+/**
+ * Streams the payloads of undelivered inbound messages as a ZIP archive, one entry named {@code <msg-no>.xml} per
+ * message, followed by the entry {@link #MANIFEST} listing the message number, reception id, receiver and SHA-256
+ * digest of every payload.
+ *
+ * Payloads are streamed from the payload store one at a time, as the entries are written, and the digest is computed
+ * over the bytes streamed. The entries are hence byte for byte the payloads as stored. Payloads not held in our own
+ * file system are left out of the bundle, to be retrieved one by one.
+ *
+ * The manifest holds a token, which the client may use to mark all the messages of the bundle as read once it has
+ * been received completely.
+ */
+class InboxBundleWriter implements StreamingOutput {
+
+    static final Logger LOGGER = LoggerFactory.getLogger(InboxBundleWriter.class);
+
+    static final String MANIFEST = "manifest.xml";
+
+    static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private static final byte[] START = constant("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<inbox-bundle version=\"1.0\" digest-method=\"" + DIGEST_ALGORITHM + "\"");
+    private static final byte[] ACK_TOKEN = constant(" ack-token=\"");
+    private static final byte[] START_END = constant(">\n");
+    private static final byte[] MSG_NO = constant("  <message msg-no=\"");
+    private static final byte[] UUID = constant("\" uuid=\"");
+    private static final byte[] RECEIVER = constant("\" receiver=\"");
+    private static final byte[] FILE = constant("\" file=\"");
+    private static final byte[] SIZE = constant("\" size=\"");
+    private static final byte[] DIGEST = constant("\" digest=\"");
+    private static final byte[] MESSAGE_END = constant("\"/>\n");
+    private static final byte[] END = constant("</inbox-bundle>\n");
+    private static final byte[] QUOTE = constant("\"");
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Account account;
+    private final List<MessageMetaData> messages;
+    private final ArtifactReader artifactReader;
+    private final InboxBundleAcknowledgements acknowledgements;
+
+    /**
+     * @param messages the messages of the account, holding the location of their payloads
+     */
+    InboxBundleWriter(Account account, List<MessageMetaData> messages, ArtifactReader artifactReader, InboxBundleAcknowledgements acknowledgements) {
+        this.account = account;
+        this.messages = messages;
+        this.artifactReader = artifactReader;
+        this.acknowledgements = acknowledgements;
+    }
+
+    @Override
+    public void write(OutputStream outputStream) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(outputStream, StandardCharsets.UTF_8);
+        MessageDigest messageDigest = createMessageDigest();
+
+        List<BundleEntry> entries = new ArrayList<>();
+        for (MessageMetaData message : messages) {
+            if (message.getPayloadUri() == null || !PayloadReference.isLocal(message.getPayloadUri())) {
+                continue;
+            }
+
+            InputStream payload;
+            try {
+                payload = artifactReader.openPayload(message.getPayloadUri(), message.getTransferDirection());
+            } catch (IOException | RuntimeException e) {
+                // Left unread, to be retrieved one by one
+                LOGGER.warn("Unable to add message " + message.getMsgNo() + " to inbox bundle; " + e.getMessage(), e);
+                continue;
+            }
+
+            String file = message.getMsgNo() + ".xml";
+            long size = 0;
+            messageDigest.reset();
+            try (InputStream inputStream = new DigestInputStream(payload, messageDigest)) {
+                zip.putNextEntry(new ZipEntry(file));
+                byte[] buffer = new byte[8192];
+                int length;
+                while ((length = inputStream.read(buffer)) != -1) {
+                    zip.write(buffer, 0, length);
+                    size += length;
+                }
+                zip.closeEntry();
+            }
+
+            BundleEntry entry = new BundleEntry(message, file, size, toHex(messageDigest.digest()));
+            entries.add(entry);
+        }
+
+        String token = null;
+        if (!entries.isEmpty()) {
+            List<MessageNumber> messageNumbers = new ArrayList<>(entries.size());
+            for (BundleEntry entry : entries) {
+                messageNumbers.add(entry.message.getMsgNo());
+            }
+            token = acknowledgements.newToken();
+            acknowledgements.register(token, account.getAccountId(), messageNumbers);
+        }
+
+        zip.putNextEntry(new ZipEntry(MANIFEST));
+        writeManifest(new XmlResponseWriter(zip), token, entries);
+        zip.closeEntry();
+        zip.finish();
+        zip.flush();
+    }
+
+    private static void writeManifest(XmlResponseWriter xml, String token, List<BundleEntry> entries) throws IOException {
+        xml.append(START);
+        if (token != null) {
+            xml.append(ACK_TOKEN).appendEscaped(token).append(QUOTE);
+        }
+        xml.append(START_END);
+        for (BundleEntry entry : entries) {
+            MessageMetaData message = entry.message;
+            xml.append(MSG_NO).appendNumber(message.getMsgNo().toLong());
+            xml.append(UUID).appendEscaped(message.getReceptionId() == null ? null : message.getReceptionId().stringValue());
+            xml.append(RECEIVER).appendEscaped(message.getPeppolHeader().getReceiver() == null ? null : message.getPeppolHeader().getReceiver().getIdentifier());
+            xml.append(FILE).appendEscaped(entry.file);
+            xml.append(SIZE).appendNumber(entry.size);
+            xml.append(DIGEST).appendText(entry.digest);
+            xml.append(MESSAGE_END);
+        }
+        xml.append(END);
+        xml.flush();
+    }
+
+    private static MessageDigest createMessageDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Unable to create message digest " + DIGEST_ALGORITHM + "; " + e.getMessage(), e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0x0f];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0x0f];
+        }
+        return new String(chars);
+    }
+
+    private static class BundleEntry {
+
+        final MessageMetaData message;
+        final String file;
+        final long size;
+        final String digest;
+
+        BundleEntry(MessageMetaData message, String file, long size, String digest) {
+            this.message = message;
+            this.file = file;
+            this.size = size;
+            this.digest = digest;
+        }
+    }
+}
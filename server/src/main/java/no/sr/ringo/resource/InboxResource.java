@@ -6,6 +6,7 @@ import com.sun.jersey.spi.container.ResourceFilters;
 import no.sr.ringo.account.Account;
 import no.sr.ringo.document.FetchDocumentUseCase;
 import no.sr.ringo.message.*;
+import no.sr.ringo.persistence.file.ArtifactReader;
 import no.sr.ringo.response.InboxQueryResponse;
 import no.sr.ringo.response.SingleInboxResponse;
 import no.sr.ringo.transport.TransferDirection;
@@ -14,6 +15,7 @@ import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
+import java.util.List;
 
 /**
  * Represents the "inbox" resource, which allows clients to GET messages
@@ -25,11 +27,19 @@ import javax.ws.rs.core.UriInfo;
 @RequestScoped
 public class InboxResource extends AbstractResource {
 
+    /** Number of messages in an inbox bundle, unless specified otherwise */
+    static final int DEFAULT_BUNDLE_SIZE = 100;
+
+    /** Upper limit of the number of messages in an inbox bundle */
+    static final int MAX_BUNDLE_SIZE = 1000;
+
     private final Account account;
     private final PeppolMessageRepository peppolMessageRepository;
     private final FetchMessagesUseCase fetchMessagesUseCase;
     private final FetchDocumentUseCase fetchDocumentUseCase;
     private final PayloadResponseHelper payloadResponseHelper;
+    private final ArtifactReader artifactReader;
+    private final InboxBundleAcknowledgements inboxBundleAcknowledgements;
 
     @Inject
     public InboxResource(PeppolMessageRepository peppolMessageRepository,
@@ -37,20 +47,24 @@ public class InboxResource extends AbstractResource {
                          FetchMessagesUseCase fetchMessagesUseCase,
                          FetchDocumentUseCase fetchDocumentUseCase,
                          UriLocationTool uriLocationTool,
-                         PayloadResponseHelper payloadResponseHelper) {
+                         PayloadResponseHelper payloadResponseHelper,
+                         ArtifactReader artifactReader,
+                         InboxBundleAcknowledgements inboxBundleAcknowledgements) {
         super(uriLocationTool);
         this.peppolMessageRepository = peppolMessageRepository;
         this.account = account;
         this.fetchMessagesUseCase = fetchMessagesUseCase;
         this.fetchDocumentUseCase = fetchDocumentUseCase;
         this.payloadResponseHelper = payloadResponseHelper;
+        this.artifactReader = artifactReader;
+        this.inboxBundleAcknowledgements = inboxBundleAcknowledgements;
     }
 
     /**
      * Retrieves the unread messages from the /inbox
      */
     @GET
-    @Produces(RingoMediaType.APPLICATION_XML)
+    @Produces({RingoMediaType.APPLICATION_XML, RingoMediaType.APPLICATION_JSON, RingoMediaType.APPLICATION_NDJSON})
     @Path("/")
     public Response getMessages(@Context UriInfo uriInfo) {
 
@@ -58,8 +72,7 @@ public class InboxResource extends AbstractResource {
                 .messagesFor(account.getAccountId())
                 .getInbox();
 
-        String entity = inboxQueryResponse.asXml();
-        return SrResponse.ok().entity(entity).build();
+        return SrResponse.ok().entity(inboxQueryResponse).build();
 
     }
 
@@ -73,7 +86,7 @@ public class InboxResource extends AbstractResource {
      *         in the database.
      */
     @GET
-    @Produces(RingoMediaType.APPLICATION_XML)
+    @Produces({RingoMediaType.APPLICATION_XML, RingoMediaType.APPLICATION_JSON, RingoMediaType.APPLICATION_NDJSON})
     @Path("/{message_no}/")
     public Response getMessage(@PathParam("message_no") String msgNoString, @Context UriInfo uriInfo) {
 
@@ -103,6 +116,64 @@ public class InboxResource extends AbstractResource {
 
     }
 
+    /**
+     * Retrieves the payloads of up to max unread messages in a single ZIP archive, sparing the client a request per
+     * message. The messages are not marked as read, until the token of the manifest is posted to
+     * {@link #markBundleAsRead(String)}.
+     *
+     * @param maxString the maximum number of messages, defaults to {@link #DEFAULT_BUNDLE_SIZE}
+     * @see InboxBundleWriter
+     */
+    @GET
+    @Produces(RingoMediaType.APPLICATION_ZIP)
+    @Path("/bundle")
+    public Response getBundle(@QueryParam("max") String maxString) {
+
+        int max = DEFAULT_BUNDLE_SIZE;
+        if (maxString != null && maxString.trim().length() > 0) {
+            try {
+                max = Integer.parseInt(maxString.trim());
+            } catch (NumberFormatException e) {
+                throw new InvalidUserInputWebException(String.format("Invalid max '%s'", maxString));
+            }
+            if (max < 1) {
+                throw new InvalidUserInputWebException(String.format("Invalid max '%s'", maxString));
+            }
+        }
+        max = Math.min(max, MAX_BUNDLE_SIZE);
+
+        List<MessageMetaData> messages = peppolMessageRepository.findUndeliveredInboundMessagesByAccount(account.getAccountId(), max);
+        if (messages.size() > max) {
+            messages = messages.subList(0, max);
+        }
+
+        InboxBundleWriter inboxBundleWriter = new InboxBundleWriter(account, messages, artifactReader, inboxBundleAcknowledgements);
+        return SrResponse.ok().entity(inboxBundleWriter).build();
+    }
+
+    /**
+     * Marks all the messages of an inbox bundle as read.
+     *
+     * @param token the acknowledgement token given in the manifest of the bundle
+     * @return the number of messages marked as read, or 404 if the token is unknown or has expired
+     */
+    @POST
+    @Produces(RingoMediaType.TEXT_PLAIN)
+    @Path("/bundle/{token}/read")
+    public Response markBundleAsRead(@PathParam("token") String token) {
+
+        List<MessageNumber> messageNumbers = inboxBundleAcknowledgements.acknowledge(token, account.getAccountId());
+        if (messageNumbers.isEmpty()) {
+            return SrResponse.status(Response.Status.NOT_FOUND, "Inbox bundle " + token + " not found");
+        }
+
+        for (MessageNumber messageNumber : messageNumbers) {
+            peppolMessageRepository.markMessageAsRead(messageNumber.toLong());
+        }
+
+        return SrResponse.ok().entity(Integer.toString(messageNumbers.size())).build();
+    }
+
     /**
      * Retrieves the PEPPOL XML Document in XML format, without the header stuff.
      *
@@ -126,7 +197,7 @@ public class InboxResource extends AbstractResource {
     
     @POST
     @Path("/{message_no}/read")
-    @Produces(RingoMediaType.APPLICATION_XML)
+    @Produces({RingoMediaType.APPLICATION_XML, RingoMediaType.APPLICATION_JSON, RingoMediaType.APPLICATION_NDJSON})
     public Response markAsRead(@PathParam("message_no") String msgNoString, @Context UriInfo uriInfo) {
 
         MessageNumber msgNo;
@@ -164,11 +235,8 @@ public class InboxResource extends AbstractResource {
         //Creates the response
         SingleInboxResponse messageResponse = new SingleInboxResponse(messageWithLocations);
 
-        //format the response as an XML String
-        String entity = messageResponse.asXml();
-
         // Shoves the URI of this message into the HTTP header "Location" and supplies the XML response as the entity
-        return SrResponse.ok().entity(entity).build();
+        return SrResponse.ok().entity(messageResponse).build();
 
     }
 }
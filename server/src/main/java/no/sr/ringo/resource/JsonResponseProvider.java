@@ -0,0 +1,258 @@
+package no.sr.ringo.resource;
+
+import com.google.inject.Singleton;
+import no.sr.ringo.message.MessageWithLocations;
+import no.sr.ringo.message.statistics.InboxStatistics;
+import no.sr.ringo.message.statistics.OutboxStatistics;
+import no.sr.ringo.message.statistics.RingoAccountStatistics;
+import no.sr.ringo.message.statistics.RingoStatistics;
+import no.sr.ringo.peppol.PeppolHeader;
+import no.sr.ringo.peppol.RingoUtils;
+import no.sr.ringo.response.MessageQueryRestResponse;
+import no.sr.ringo.response.Navigation;
+import no.sr.ringo.response.SingleMessagesResponse;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.util.Collections;
+import java.util.Date;
+
+/**
+ * Writes the JSON representation of responses and statistics, using a streaming generator.
+ *
+ * The members are named after the elements and attributes of the XML representation. Members without a value
+ * are left out.
+ *
+ * Requesting {@link RingoMediaType#APPLICATION_NDJSON} writes lists as newline delimited JSON, i.e. one message or
+ * account per line. The navigation links of such lists are supplied as "Link" headers.
+ *
+ * @see XmlResponseProvider
+ */
+@Provider
+@Singleton
+@Produces({MediaType.APPLICATION_JSON, RingoMediaType.NDJSON})
+public class JsonResponseProvider implements MessageBodyWriter<Object> {
+
+    private static final JsonGeneratorFactory generatorFactory = Json.createGeneratorFactory(Collections.<String, Object>emptyMap());
+
+    private static final MediaType NDJSON_TYPE = MediaType.valueOf(RingoMediaType.NDJSON);
+
+    private static final byte[] NEWLINE = {'\n'};
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        // Only the types handled by writeTo, other responses are left to the XML provider
+        return MessageQueryRestResponse.class.isAssignableFrom(type)
+                || SingleMessagesResponse.class.isAssignableFrom(type)
+                || RingoStatistics.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public long getSize(Object entity, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(Object entity, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                        MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException {
+        boolean ndjson = isNdjson(mediaType);
+
+        if (entity instanceof MessageQueryRestResponse) {
+            MessageQueryRestResponse response = (MessageQueryRestResponse) entity;
+            if (ndjson) {
+                addLinkHeaders(httpHeaders, response.getNavigation());
+                for (MessageWithLocations message : response.getMessageList()) {
+                    JsonGenerator generator = createGenerator(entityStream);
+                    writeMessage(generator, message, null, null);
+                    endLine(generator, entityStream);
+                }
+            } else {
+                JsonGenerator generator = createGenerator(entityStream);
+                writeMessages(generator, response);
+                generator.close();
+            }
+        } else if (entity instanceof SingleMessagesResponse) {
+            SingleMessagesResponse response = (SingleMessagesResponse) entity;
+            JsonGenerator generator = createGenerator(entityStream);
+            writeMessage(generator, response.getMessage(), response.getValidationState(), response.getValidationError());
+            endLine(generator, ndjson ? entityStream : null);
+        } else if (entity instanceof RingoStatistics) {
+            RingoStatistics statistics = (RingoStatistics) entity;
+            if (ndjson) {
+                for (RingoAccountStatistics accountStatistics : statistics.getAccountStatistics()) {
+                    JsonGenerator generator = createGenerator(entityStream);
+                    writeAccountStatistics(generator, accountStatistics);
+                    endLine(generator, entityStream);
+                }
+            } else {
+                JsonGenerator generator = createGenerator(entityStream);
+                generator.writeStartObject().writeStartArray("statistics");
+                for (RingoAccountStatistics accountStatistics : statistics.getAccountStatistics()) {
+                    writeAccountStatistics(generator, accountStatistics);
+                }
+                generator.writeEnd().writeEnd();
+                generator.close();
+            }
+        } else {
+            throw new IllegalArgumentException("Unable to write " + type.getName() + " as JSON");
+        }
+    }
+
+    static boolean isNdjson(MediaType mediaType) {
+        return mediaType != null && mediaType.isCompatible(NDJSON_TYPE);
+    }
+
+    /**
+     * Each generator writes a single JSON text and closes the stream when done, hence the stream is shielded
+     * in order to write several of them.
+     */
+    private static JsonGenerator createGenerator(OutputStream entityStream) {
+        return generatorFactory.createGenerator(new CloseShieldOutputStream(entityStream));
+    }
+
+    /**
+     * Completes the JSON text and terminates the line, if writing newline delimited JSON.
+     */
+    private static void endLine(JsonGenerator generator, OutputStream entityStream) throws IOException {
+        generator.close();
+        if (entityStream != null) {
+            entityStream.write(NEWLINE);
+        }
+    }
+
+    private static void addLinkHeaders(MultivaluedMap<String, Object> httpHeaders, Navigation navigation) {
+        if (navigation == null) {
+            return;
+        }
+        if (navigation.getNext() != null) {
+            httpHeaders.add("Link", "<" + navigation.getNext().toASCIIString() + ">; rel=\"next\"");
+        }
+        if (navigation.getPrevious() != null) {
+            httpHeaders.add("Link", "<" + navigation.getPrevious().toASCIIString() + ">; rel=\"prev\"");
+        }
+    }
+
+    static void writeMessages(JsonGenerator generator, MessageQueryRestResponse response) {
+        generator.writeStartObject();
+        generator.write("version", response.getVersion());
+
+        Navigation navigation = response.getNavigation();
+        if (navigation != null) {
+            generator.writeStartObject("navigation");
+            write(generator, "next", navigation.getNext());
+            write(generator, "previous", navigation.getPrevious());
+            generator.writeEnd();
+        }
+
+        generator.writeStartArray("messages");
+        for (MessageWithLocations message : response.getMessageList()) {
+            writeMessage(generator, message, null, null);
+        }
+        generator.writeEnd();
+
+        generator.writeEnd();
+    }
+
+    static void writeMessage(JsonGenerator generator, MessageWithLocations message, String validationState, String validationError) {
+        generator.writeStartObject();
+        write(generator, "self", message.getSelfURI());
+        write(generator, "xml-document", message.getXmlDocumentURI());
+        if (message.getMsgNo() != null) {
+            generator.write("msg-no", message.getMsgNo().toLong());
+        }
+        if (message.getTransferDirection() != null) {
+            generator.write("direction", message.getTransferDirection().name());
+        }
+        write(generator, "received", message.getReceived());
+        write(generator, "delivered", message.getDelivered());
+        if (message.getReceptionId() != null) {
+            write(generator, "uuid", message.getReceptionId().stringValue());
+        }
+
+        PeppolHeader peppolHeader = message.getPeppolHeader();
+        generator.writeStartObject("peppol-header");
+        if (peppolHeader.getSender() != null) {
+            write(generator, "sender", peppolHeader.getSender().getIdentifier());
+        }
+        if (peppolHeader.getReceiver() != null) {
+            write(generator, "receiver", peppolHeader.getReceiver().getIdentifier());
+        }
+        if (peppolHeader.getPeppolChannelId() != null) {
+            write(generator, "channel", peppolHeader.getPeppolChannelId().stringValue());
+        }
+        if (peppolHeader.getPeppolDocumentTypeId() != null) {
+            write(generator, "document-id", peppolHeader.getPeppolDocumentTypeId().getIdentifier());
+        }
+        if (peppolHeader.getProcessIdentifier() != null) {
+            write(generator, "process-id", peppolHeader.getProcessIdentifier().getIdentifier());
+        }
+        generator.writeEnd();
+
+        if (validationState != null) {
+            generator.writeStartObject("validation");
+            generator.write("state", validationState);
+            write(generator, "error", validationError);
+            generator.writeEnd();
+        }
+        generator.writeEnd();
+    }
+
+    static void writeAccountStatistics(JsonGenerator generator, RingoAccountStatistics accountStatistics) {
+        generator.writeStartObject();
+        write(generator, "name", accountStatistics.getAccountName());
+        write(generator, "contact_email", accountStatistics.getContactEmail());
+
+        generator.writeStartObject("messages");
+        generator.write("total", accountStatistics.getTotal());
+
+        InboxStatistics inboxStatistics = accountStatistics.getInboxStatistics();
+        generator.writeStartObject("in");
+        generator.write("total", inboxStatistics.getTotal());
+        generator.write("undelivered", inboxStatistics.getUndelivered());
+        write(generator, "oldest_undelivered", inboxStatistics.getOldestUndelivered());
+        write(generator, "last_downloaded", inboxStatistics.getDelivered());
+        write(generator, "last_received", inboxStatistics.getReceived());
+        generator.writeEnd();
+
+        OutboxStatistics outboxStatistics = accountStatistics.getOutboxStatistics();
+        generator.writeStartObject("out");
+        generator.write("total", outboxStatistics.getTotal());
+        generator.write("undelivered", outboxStatistics.getUndelivered());
+        write(generator, "last_sent", outboxStatistics.getDelivered());
+        write(generator, "last_received", outboxStatistics.getReceived());
+        generator.writeEnd();
+
+        generator.writeEnd();
+        generator.writeEnd();
+    }
+
+    private static void write(JsonGenerator generator, String name, String value) {
+        if (value != null) {
+            generator.write(name, value);
+        }
+    }
+
+    private static void write(JsonGenerator generator, String name, URI value) {
+        if (value != null) {
+            generator.write(name, value.toASCIIString());
+        }
+    }
+
+    private static void write(JsonGenerator generator, String name, Date value) {
+        if (value != null) {
+            generator.write(name, RingoUtils.formatDateTimeAsISO8601String(value));
+        }
+    }
+}
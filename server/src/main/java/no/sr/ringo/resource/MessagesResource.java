@@ -6,8 +6,11 @@ import com.sun.jersey.spi.container.ResourceFilters;
 import no.sr.ringo.account.Account;
 import no.sr.ringo.document.FetchDocumentUseCase;
 import no.sr.ringo.message.*;
+import no.sr.ringo.response.MessageChangesResponse;
 import no.sr.ringo.response.MessagesQueryResponse;
+import no.sr.ringo.response.Navigation;
 import no.sr.ringo.usecase.ReceiveMessageFromClientUseCase;
+import no.sr.ringo.validation.AsyncValidationService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,6 +18,9 @@ import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Represents the "messages" resource, which allows clients to GET MessageMetaDataEntity from both inbox and outbox
@@ -29,12 +35,19 @@ public class MessagesResource extends AbstractResource {
 
     public static final Logger LOGGER = LoggerFactory.getLogger(MessagesResource.class);
 
+    /** Number of changed messages in a response, unless specified otherwise */
+    static final int DEFAULT_CHANGES_SIZE = 100;
+
+    /** Upper limit of the number of changed messages in a response */
+    static final int MAX_CHANGES_SIZE = 1000;
+
     final PeppolMessageRepository peppolMessageRepository;
     private final FetchDocumentUseCase fetchDocumentUseCase;
     final Account account;
     private final PayloadResponseHelper payloadResponseHelper;
     final ReceiveMessageFromClientUseCase receiveMessageFromClientUseCase;
     final FetchMessagesUseCase fetchMessagesUseCase;
+    private final AsyncValidationService asyncValidationService;
 
     @Inject
     public MessagesResource(ReceiveMessageFromClientUseCase receiveMessageFromClientUseCase,
@@ -43,7 +56,8 @@ public class MessagesResource extends AbstractResource {
                             FetchDocumentUseCase fetchDocumentUseCase,
                             Account account,
                             UriLocationTool uriLocationTool,
-                            PayloadResponseHelper payloadResponseHelper) {
+                            PayloadResponseHelper payloadResponseHelper,
+                            AsyncValidationService asyncValidationService) {
         super(uriLocationTool);
         this.receiveMessageFromClientUseCase = receiveMessageFromClientUseCase;
         this.fetchMessagesUseCase = fetchMessagesUseCase;
@@ -51,21 +65,21 @@ public class MessagesResource extends AbstractResource {
         this.fetchDocumentUseCase = fetchDocumentUseCase;
         this.account = account;
         this.payloadResponseHelper = payloadResponseHelper;
+        this.asyncValidationService = asyncValidationService;
     }
 
     /**
      * Retrieves all messaged from /inbox and /outbox
      */
     @GET
-    @Produces(RingoMediaType.APPLICATION_XML)
+    @Produces({RingoMediaType.APPLICATION_XML, RingoMediaType.APPLICATION_JSON, RingoMediaType.APPLICATION_NDJSON})
     @Path("/")
     public Response getMessages(@Context UriInfo uriInfo, @QueryParam("sent") String sent, @QueryParam("sender") String sender, @QueryParam("receiver") String receiver, @QueryParam("direction") String direction, @QueryParam("index") String index) {
 
             MessagesQueryResponse messagesQueryResponse = fetchMessagesUseCase.init(MessagesResource.class, uriInfo)
                     .messagesFor(account.getAccountId())
                     .getMessages(new SearchParams(direction, sender, receiver, sent, index));
-            String entity = messagesQueryResponse.asXml();
-            return SrResponse.ok().entity(entity).build();
+            return SrResponse.ok().entity(messagesQueryResponse).build();
 
     }
 
@@ -79,7 +93,7 @@ public class MessagesResource extends AbstractResource {
      *         in the database.
      */
     @GET
-    @Produces(RingoMediaType.APPLICATION_XML)
+    @Produces({RingoMediaType.APPLICATION_XML, RingoMediaType.APPLICATION_JSON, RingoMediaType.APPLICATION_NDJSON})
     @Path("/{message_no}/")
     public Response getMessage(@PathParam("message_no") String msgNoString, @Context UriInfo uriInfo) {
 
@@ -92,7 +106,7 @@ public class MessagesResource extends AbstractResource {
 
         MessageMetaData messageMetaDataWithLocator = peppolMessageRepository.findMessageByMessageNo(account, msgNo);
 
-        return createSingleMessageResponse(uriInfo, messageMetaDataWithLocator,this.getClass());
+        return createSingleMessageResponse(uriInfo, messageMetaDataWithLocator, this.getClass(), asyncValidationService.getValidationStatus(msgNo));
 
     }
 
@@ -122,6 +136,63 @@ public class MessagesResource extends AbstractResource {
     }
 
 
+    /**
+     * Retrieves the messages, inbound as well as outbound, which have been received, sent or read since the cursor
+     * provided by the previous request, in the order of the changes. Allows clients to synchronise incrementally
+     * rather than listing and counting all messages.
+     *
+     * A change committed after a later change has been provided may be missed, see
+     * {@link PeppolMessageRepository#findMessageChanges(no.sr.ringo.account.AccountId, long, int)}; clients must not
+     * rely on the changes alone to find the unread messages.
+     *
+     * @param sinceString the cursor of the previous response, 0 or none to start from the beginning
+     * @param maxString the maximum number of messages, defaults to {@link #DEFAULT_CHANGES_SIZE}
+     */
+    @GET
+    @Produces(RingoMediaType.APPLICATION_XML)
+    @Path("/changes")
+    public Response getChanges(@Context UriInfo uriInfo, @QueryParam("since") String sinceString, @QueryParam("max") String maxString) {
+
+        long since = 0;
+        if (sinceString != null && sinceString.trim().length() > 0) {
+            try {
+                since = Long.parseLong(sinceString.trim());
+            } catch (NumberFormatException e) {
+                throw new InvalidUserInputWebException(String.format("Invalid cursor '%s'", sinceString));
+            }
+        }
+
+        int max = DEFAULT_CHANGES_SIZE;
+        if (maxString != null && maxString.trim().length() > 0) {
+            try {
+                max = Integer.parseInt(maxString.trim());
+            } catch (NumberFormatException e) {
+                throw new InvalidUserInputWebException(String.format("Invalid max '%s'", maxString));
+            }
+            if (max < 1) {
+                throw new InvalidUserInputWebException(String.format("Invalid max '%s'", maxString));
+            }
+        }
+        max = Math.min(max, MAX_CHANGES_SIZE);
+
+        MessageChanges changes = peppolMessageRepository.findMessageChanges(account.getAccountId(), since, max);
+
+        List<MessageWithLocations> messages = new ArrayList<>(changes.getMessages().size());
+        for (MessageMetaData messageMetaData : changes.getMessages()) {
+            messages.add(uriLocationTool.decorateWithLocators(messageMetaData, uriInfo, MessagesResource.class));
+        }
+
+        MessageChangesResponse response = new MessageChangesResponse(messages, changes.getCursor());
+        if (changes.isMore()) {
+            URI next = uriInfo.getBaseUriBuilder().path(MessagesResource.class).path("changes")
+                    .queryParam("since", changes.getCursor())
+                    .queryParam("max", max)
+                    .build();
+            response.setNavigation(new Navigation(null, next));
+        }
+        return SrResponse.ok().entity(response).build();
+    }
+
     @GET
     @Produces(RingoMediaType.TEXT_PLAIN)
     @Path("/count")
@@ -3,22 +3,40 @@ package no.sr.ringo.resource;
 import com.google.inject.Inject;
 import com.google.inject.servlet.RequestScoped;
 import com.sun.jersey.core.header.FormDataContentDisposition;
+import com.sun.jersey.multipart.BodyPart;
+import com.sun.jersey.multipart.BodyPartEntity;
+import com.sun.jersey.multipart.FormDataBodyPart;
+import com.sun.jersey.multipart.FormDataMultiPart;
 import com.sun.jersey.multipart.FormDataParam;
 import com.sun.jersey.spi.container.ResourceFilters;
 import no.sr.ringo.account.Account;
+import no.sr.ringo.common.RingoConstants;
 import no.sr.ringo.document.FetchDocumentUseCase;
 import no.sr.ringo.message.*;
+import no.sr.ringo.response.OutboxBatchResponse;
 import no.sr.ringo.response.OutboxPostResponse;
 import no.sr.ringo.response.OutboxQueryResponse;
 import no.sr.ringo.response.SingleOutboxResponse;
+import no.sr.ringo.persistence.idempotency.IdempotencyKey;
+import no.sr.ringo.persistence.queue.OutboundMessageQueueState;
+import no.sr.ringo.usecase.ReceiveBatchFromClientUseCase;
 import no.sr.ringo.usecase.ReceiveMessageFromClientUseCase;
+import no.sr.ringo.validation.AsyncValidationService;
+import no.sr.ringo.validation.ValidationStatus;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.*;
 import javax.ws.rs.core.*;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 /**
  * Represents the "outbox" resource, which allows clients to POST outboundMesssageMetaData messages destined for a recipient in the
@@ -37,26 +55,38 @@ public class OutboxResource extends AbstractResource {
 
     private static Logger logger = LoggerFactory.getLogger(OutboxResource.class);
 
+    /** Seconds for clients to wait before retrying an upload whose Idempotency-Key is in use by another upload */
+    static final String RETRY_AFTER = "5";
+
     private final Account account;
     private final ReceiveMessageFromClientUseCase receiveMessageFromClientUseCase;
+    private final ReceiveBatchFromClientUseCase receiveBatchFromClientUseCase;
     private final FetchMessagesUseCase fetchMessagesUseCase;
     private final FetchDocumentUseCase fetchDocumentUseCase;
     private final PayloadResponseHelper payloadResponseHelper;
+    private final AsyncValidationService asyncValidationService;
+    private final OutboxIdempotencyKeys outboxIdempotencyKeys;
 
     @Inject
     OutboxResource(ReceiveMessageFromClientUseCase receiveMessageFromClientUseCase,
+                   ReceiveBatchFromClientUseCase receiveBatchFromClientUseCase,
                    Account account,
                    FetchMessagesUseCase fetchMessagesUseCase,
                    FetchDocumentUseCase fetchDocumentUseCase,
                    UriLocationTool uriLocationTool,
-                   PayloadResponseHelper payloadResponseHelper) {
+                   PayloadResponseHelper payloadResponseHelper,
+                   AsyncValidationService asyncValidationService,
+                   OutboxIdempotencyKeys outboxIdempotencyKeys) {
         super(uriLocationTool);
         
         this.receiveMessageFromClientUseCase = receiveMessageFromClientUseCase;
+        this.receiveBatchFromClientUseCase = receiveBatchFromClientUseCase;
         this.account = account;
         this.fetchMessagesUseCase = fetchMessagesUseCase;
         this.fetchDocumentUseCase = fetchDocumentUseCase;
         this.payloadResponseHelper = payloadResponseHelper;
+        this.asyncValidationService = asyncValidationService;
+        this.outboxIdempotencyKeys = outboxIdempotencyKeys;
     }
 
 
@@ -64,17 +94,17 @@ public class OutboxResource extends AbstractResource {
      * Retrieves the unread messages from the /outbox
      */
     @GET
-    @Produces(RingoMediaType.APPLICATION_XML)
+    @Produces({RingoMediaType.APPLICATION_XML, RingoMediaType.APPLICATION_JSON, RingoMediaType.APPLICATION_NDJSON})
     @Path("/")
     public Response getMessages(@Context UriInfo uriInfo) {
 
         OutboxQueryResponse outboxQueryResponse = fetchMessagesUseCase.init(this.getClass(), uriInfo)
                 .messagesFor(account.getAccountId())
                 .getOutbox();
-        String entity = outboxQueryResponse.asXml();
-
-        logger.debug("Returning:\n" + entity);
-        return SrResponse.ok().entity(entity).build();
+        if (logger.isDebugEnabled()) {
+            logger.debug("Returning:\n" + outboxQueryResponse.asXml());
+        }
+        return SrResponse.ok().entity(outboxQueryResponse).build();
 
     }
 
@@ -88,7 +118,7 @@ public class OutboxResource extends AbstractResource {
      *         in the database.
      */
     @GET
-    @Produces(RingoMediaType.APPLICATION_XML)
+    @Produces({RingoMediaType.APPLICATION_XML, RingoMediaType.APPLICATION_JSON, RingoMediaType.APPLICATION_NDJSON})
     @Path("/{message_no}/")
     public Response getMessage(@PathParam("message_no") String msgNoString, @Context UriInfo uriInfo) {
 
@@ -101,7 +131,7 @@ public class OutboxResource extends AbstractResource {
         }
 
         MessageMetaData messageMetaData = fetchMessagesUseCase.findOutBoundMessageByMessageNo(account, msgNo.toLong());
-        return createSingleOutboxResponse(uriInfo, messageMetaData);
+        return createSingleOutboxResponse(uriInfo, messageMetaData, asyncValidationService.getValidationStatus(msgNo));
     }
 
     /**
@@ -131,6 +161,9 @@ public class OutboxResource extends AbstractResource {
      * persisted to the database along with a timestamp, specifying that the transfer direction is outboundMesssageMetaData TransferDirection#OUT.
      * <p/>
      * The sender of the message must be associated with the SR account specified during HTTP Basic Authentication.
+     * <p/>
+     * Uploads carrying an Idempotency-Key header may be retried safely: a repeated upload with the same key is
+     * answered with the message created by the first one, see {@link OutboxIdempotencyKeys}.
      *
      * @param channelIdString              the textual representation of the channel to which message should be associated.
      * @param recipientIdString            the PEPPOL participant identification of the recipient of the message.
@@ -140,11 +173,11 @@ public class OutboxResource extends AbstractResource {
      * @param inputStream            input stream of the http entity (the contents), i.e. the XML document
      * @param dataContentDisposition content disposition for the XML document
      * @param uriInfo                information about this URI
-     * @return
+     * @return 201 (Created), or 202 (Accepted) if the document is yet to be validated
      */
     @POST
     @Consumes(MediaType.MULTIPART_FORM_DATA)
-    @Produces(RingoMediaType.APPLICATION_XML)
+    @Produces({RingoMediaType.APPLICATION_XML, RingoMediaType.APPLICATION_JSON, RingoMediaType.APPLICATION_NDJSON})
     public Response post(
             @FormDataParam("ChannelID") final String channelIdString,
             @FormDataParam("RecipientID") final String recipientIdString,
@@ -161,6 +194,20 @@ public class OutboxResource extends AbstractResource {
             logger.debug(String.format("Handling outbox upload '%s' '%s' '%s' '%s' '%s' '%s'", recipientIdString, senderIdString, processIdString, documentIdString, channelIdString, uploadMode));
         }
 
+        String idempotencyKey = headers.getRequestHeaders().getFirst(RingoConstants.IDEMPOTENCY_KEY_HEADER);
+        OutboxRequestDigest requestDigest = null;
+        if (idempotencyKey != null) {
+            if (!OutboxIdempotencyKeys.isValid(idempotencyKey)) {
+                return SrResponse.status(Response.Status.BAD_REQUEST, "Invalid " + RingoConstants.IDEMPOTENCY_KEY_HEADER + ", expected at most " + OutboxIdempotencyKeys.MAX_KEY_LENGTH + " printable ASCII characters");
+            }
+            requestDigest = new OutboxRequestDigest(channelIdString, recipientIdString, senderIdString, processIdString, documentIdString, uploadMode);
+            IdempotencyKey previous = outboxIdempotencyKeys.reserve(account.getAccountId(), idempotencyKey);
+            if (previous != null) {
+                return createOutboxPostReplayedResponse(uriInfo, previous, requestDigest, inputStream);
+            }
+            inputStream = requestDigest.digest(inputStream);
+        }
+
         OutboundPostParams postParams = new OutboundPostParams.Builder()
                 .senderId(senderIdString)
                 .recipientId(recipientIdString)
@@ -170,22 +217,142 @@ public class OutboxResource extends AbstractResource {
                 .inputStream(inputStream)
                 .uploadMode(uploadMode)
                 .fileName(dataContentDisposition.getFileName())
+                .idempotencyKey(idempotencyKey, requestDigest)
                 .build();
 
         //perform params validation as well as smp lookup; of message when validation successful
         MessageWithLocations messageWithLocations = null;
         try {
+            // Completes the Idempotency-Key along with the message
             messageWithLocations = receiveMessageFromClientUseCase.handleMessage(postParams);
         } catch (Exception e) {
+            if (idempotencyKey != null) {
+                outboxIdempotencyKeys.release(account.getAccountId(), idempotencyKey);
+            }
             return SrResponse.status(Response.Status.BAD_REQUEST, e.getMessage());
 
         }
 
         // Provides a nice response
+        if (receiveMessageFromClientUseCase.isPendingValidation()) {
+            return createOutboxPostAcceptedResponse(uriInfo, messageWithLocations);
+        }
         return createOutboxPostMessageResponse(uriInfo, messageWithLocations);
 
     }
 
+    /**
+     * Receives a batch of documents as multipart/form-data, i.e. the header fields shared by the documents as form
+     * fields, an optional manifest holding the header fields of the individual documents, and the documents, each as
+     * a "file" field. See {@link OutboundBatchHeaders}.
+     *
+     * @return 200 (OK) and the outcome of every document, or 400 (Bad Request) if the batch as such is unreadable or
+     *         holds too many documents
+     */
+    @POST
+    @Path("/batch")
+    @Consumes(MediaType.MULTIPART_FORM_DATA)
+    @Produces(RingoMediaType.APPLICATION_XML)
+    public Response postBatch(FormDataMultiPart multiPart, @Context UriInfo uriInfo) {
+        try {
+            // The header fields apply to every document, regardless of the order of the fields
+            OutboundBatchHeaders headers = new OutboundBatchHeaders();
+            for (BodyPart bodyPart : multiPart.getBodyParts()) {
+                FormDataBodyPart part = (FormDataBodyPart) bodyPart;
+                if (OutboundBatchHeaders.MANIFEST.equals(part.getName())) {
+                    try (InputStream inputStream = ((BodyPartEntity) part.getEntity()).getInputStream()) {
+                        headers.readManifest(inputStream);
+                    }
+                } else if (OutboundBatchHeaders.isField(part.getName())) {
+                    headers.setShared(part.getName(), part.getValue());
+                }
+            }
+
+            for (BodyPart bodyPart : multiPart.getBodyParts()) {
+                FormDataBodyPart part = (FormDataBodyPart) bodyPart;
+                if ("file".equals(part.getName())) {
+                    BodyPartEntity entity = (BodyPartEntity) part.getEntity();
+                    receiveBatchFromClientUseCase.receive(headers.postParams(part.getFormDataContentDisposition().getFileName(), entity.getInputStream()));
+                    entity.cleanup();
+                }
+            }
+        } catch (IOException e) {
+            receiveBatchFromClientUseCase.discard();
+            return SrResponse.status(Response.Status.BAD_REQUEST, "Unable to read batch; " + e.getMessage());
+        } catch (RuntimeException e) {
+            // Failures of the server rather than of the batch, as well as batches which are too large, are left to
+            // the exception mappers
+            receiveBatchFromClientUseCase.discard();
+            throw e;
+        } finally {
+            multiPart.cleanup();
+        }
+
+        return completeBatch(uriInfo);
+    }
+
+    /**
+     * Receives a batch of documents as a ZIP archive, which is read as it is received. The header fields shared by
+     * the documents are supplied as query parameters, whereas the header fields of the individual documents are held
+     * by the manifest, which must be the first entry of the archive. See {@link OutboundBatchHeaders}.
+     *
+     * @return 200 (OK) and the outcome of every document, or 400 (Bad Request) if the batch as such is unreadable or
+     *         holds too many documents
+     */
+    @POST
+    @Path("/batch")
+    @Consumes(RingoMediaType.APPLICATION_ZIP)
+    @Produces(RingoMediaType.APPLICATION_XML)
+    public Response postBatchArchive(InputStream inputStream, @Context UriInfo uriInfo) {
+        OutboundBatchHeaders headers = new OutboundBatchHeaders();
+        for (Map.Entry<String, List<String>> parameter : uriInfo.getQueryParameters().entrySet()) {
+            headers.setShared(parameter.getKey(), parameter.getValue().get(0));
+        }
+
+        try (ZipInputStream zip = new ZipInputStream(inputStream)) {
+            // Neither the parser of the manifest nor the use case should close the archive
+            InputStream entryInputStream = new FilterInputStream(zip) {
+                @Override
+                public void close() {
+                }
+            };
+            ZipEntry zipEntry;
+            while ((zipEntry = zip.getNextEntry()) != null) {
+                if (zipEntry.isDirectory()) {
+                    continue;
+                }
+                if (OutboundBatchHeaders.MANIFEST.equals(zipEntry.getName())) {
+                    headers.readManifest(entryInputStream);
+                } else {
+                    receiveBatchFromClientUseCase.receive(headers.postParams(zipEntry.getName(), entryInputStream));
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // The archive is corrupt, or the names of its entries are not encoded in UTF-8
+            receiveBatchFromClientUseCase.discard();
+            return SrResponse.status(Response.Status.BAD_REQUEST, "Unable to read batch; " + e.getMessage());
+        } catch (RuntimeException e) {
+            receiveBatchFromClientUseCase.discard();
+            throw e;
+        }
+
+        return completeBatch(uriInfo);
+    }
+
+    /**
+     * Persists the documents accepted. Failing to do so is a failure of the server, answered with 500 by the
+     * exception mappers.
+     */
+    private Response completeBatch(UriInfo uriInfo) {
+        List<OutboxBatchResponse.Entry> entries = receiveBatchFromClientUseCase.complete();
+
+        List<OutboxBatchResponse.Entry> result = new ArrayList<>(entries.size());
+        for (OutboxBatchResponse.Entry entry : entries) {
+            result.add(entry.getMessage() == null ? entry : entry.withMessage(uriLocationTool.decorateWithLocators(entry.getMessage(), uriInfo, this.getClass())));
+        }
+        return SrResponse.ok().entity(new OutboxBatchResponse(result)).build();
+    }
+
     /**
      * Creates the XML response to POST holding the data from the message, including a link to the attached xml message document and a link pointing back to "self".
      * The actual PEPPOL XML message, is not included due to it's size.
@@ -202,28 +369,76 @@ public class OutboxResource extends AbstractResource {
         OutboxPostResponse messageResponse = new OutboxPostResponse(messageMetaDataWithLocations);
 
         // Shoves the URI of this message into the HTTP header "Location" and supplies the XML response as the entity
-        return SrResponse.created(messageMetaDataWithLocations.getSelfURI()).entity(messageResponse.asEntity()).build();
+        return SrResponse.created(messageMetaDataWithLocations.getSelfURI()).entity(messageResponse).build();
+    }
+
+    /**
+     * As {@link #createOutboxPostMessageResponse(UriInfo, MessageMetaData)}, for messages accepted but pending validation.
+     * The outcome of the validation is available from the resource identified by the "Location" header.
+     *
+     * @return a JAX-RS response holding the status code, 202 Accepted, and the peppol message as a xml entity.
+     */
+    Response createOutboxPostAcceptedResponse(UriInfo uriInfo, MessageMetaData messageMetaData) {
+
+        final MessageWithLocations messageMetaDataWithLocations = uriLocationTool.decorateWithLocators(messageMetaData, uriInfo, this.getClass());
+
+        OutboxPostResponse messageResponse = new OutboxPostResponse(messageMetaDataWithLocations, OutboundMessageQueueState.PENDING_VALIDATION.name());
+
+        return SrResponse.accepted(messageMetaDataWithLocations.getSelfURI()).entity(messageResponse).build();
+    }
+
+    /**
+     * Answers an upload repeating the Idempotency-Key of a previous upload, with the message created by the previous
+     * upload as if it had just been created. While the previous upload is still in progress, the client is asked to
+     * retry later. An upload whose header fields or document differ from the previous upload is rejected.
+     *
+     * @return a JAX-RS response as by {@link #createOutboxPostMessageResponse(UriInfo, MessageMetaData)} or
+     * {@link #createOutboxPostAcceptedResponse(UriInfo, MessageMetaData)}, 409 Conflict if the upload differs, or
+     * 503 Service Unavailable
+     */
+    Response createOutboxPostReplayedResponse(UriInfo uriInfo, IdempotencyKey previous, OutboxRequestDigest requestDigest, InputStream inputStream) {
+        if (previous.isInProgress()) {
+            return Response.fromResponse(SrResponse.status(Response.Status.SERVICE_UNAVAILABLE, "Upload using the same " + RingoConstants.IDEMPOTENCY_KEY_HEADER + " is in progress"))
+                    .header("Retry-After", RETRY_AFTER)
+                    .build();
+        }
+
+        try {
+            if (!OutboxIdempotencyKeys.isReplayOf(previous, requestDigest.drain(inputStream))) {
+                return SrResponse.status(Response.Status.CONFLICT, RingoConstants.IDEMPOTENCY_KEY_HEADER + " has been used by another upload");
+            }
+        } catch (IOException e) {
+            return SrResponse.exception(e);
+        }
+
+        MessageNumber msgNo = previous.getMessageNumber();
+        MessageMetaData messageMetaData = fetchMessagesUseCase.findOutBoundMessageByMessageNo(account, msgNo.toLong());
+        ValidationStatus validationStatus = asyncValidationService.getValidationStatus(msgNo);
+        Response response = validationStatus != null && validationStatus.getState() == OutboundMessageQueueState.PENDING_VALIDATION
+                ? createOutboxPostAcceptedResponse(uriInfo, messageMetaData)
+                : createOutboxPostMessageResponse(uriInfo, messageMetaData);
+        return Response.fromResponse(response).header(RingoConstants.IDEMPOTENT_REPLAYED_HEADER, "true").build();
     }
 
     /**
      * Creates the XML response holding the data from the message, including a link to the attached xml message document and a link pointing back to "self".
      * The actual PEPPOL XML message, is not included due to it's size.
      *
-     * @param uriInfo         the UriInfo object provided by the JAX-RS container upon invocation.
-     * @param messageMetaData the message containing the header and the xml document message.
+     * @param uriInfo          the UriInfo object provided by the JAX-RS container upon invocation.
+     * @param messageMetaData  the message containing the header and the xml document message.
+     * @param validationStatus status of messages being validated asynchronously, or null
      * @return a JAX-RS response holding the status code, 200 OK, and the peppol message as a xml entity.
      */
-    Response createSingleOutboxResponse(UriInfo uriInfo, MessageMetaData messageMetaData) {
+    Response createSingleOutboxResponse(UriInfo uriInfo, MessageMetaData messageMetaData, ValidationStatus validationStatus) {
 
         MessageWithLocations messageWithLocations = uriLocationTool.decorateWithLocators(messageMetaData,uriInfo, this.getClass());
 
         //Creates the response
-        SingleOutboxResponse messageResponse = new SingleOutboxResponse(messageWithLocations);
-
-        //format the response as an XML String
-        String entity = messageResponse.asXml();
+        SingleOutboxResponse messageResponse = validationStatus == null
+                ? new SingleOutboxResponse(messageWithLocations)
+                : new SingleOutboxResponse(messageWithLocations, validationStatus.getState().name(), validationStatus.getError());
 
         // Shoves the URI of this message into the HTTP header "Location" and supplies the XML response as the entity
-        return SrResponse.ok().entity(entity).build();
+        return SrResponse.ok().entity(messageResponse).build();
     }
 }
@@ -14,5 +14,14 @@ public class RingoMediaType {
 
     public static final String APPLICATION_XML = MediaType.APPLICATION_XML + ";charset=" + RingoConstants.DEFAULT_CHARACTER_SET;
 
+    public static final String APPLICATION_JSON = MediaType.APPLICATION_JSON + ";charset=" + RingoConstants.DEFAULT_CHARACTER_SET;
+
+    /** Newline delimited JSON, i.e. one JSON text per line */
+    static final String NDJSON = "application/x-ndjson";
+
+    public static final String APPLICATION_NDJSON = NDJSON + ";charset=" + RingoConstants.DEFAULT_CHARACTER_SET;
+
+    public static final String APPLICATION_ZIP = "application/zip";
+
     public static final String TEXT_PLAIN = MediaType.TEXT_PLAIN + ";charset=" + RingoConstants.DEFAULT_CHARACTER_SET;
 }
@@ -28,6 +28,10 @@ public class SrResponse {
         return Response.created(uri);
     }
 
+    public static Response.ResponseBuilder accepted(URI uri) {
+        return Response.status(Response.Status.ACCEPTED).location(uri);
+    }
+
     /**
      * Creates a response with a message with the given status code.
      * @param message
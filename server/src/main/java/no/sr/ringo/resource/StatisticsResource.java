@@ -38,11 +38,11 @@ public class StatisticsResource extends AbstractResource {
      * Retrieves messages without account_id
      */
     @GET
-    @Produces(RingoMediaType.APPLICATION_XML)
+    @Produces({RingoMediaType.APPLICATION_XML, RingoMediaType.APPLICATION_JSON, RingoMediaType.APPLICATION_NDJSON})
     @Path("/")
     public Response getOverview() {
 
         final RingoStatistics ringoStatisticsForAccount = peppolMessageRepository.getAccountStatistics(account.getAccountId());
-        return SrResponse.ok().entity(ringoStatisticsForAccount.asXml()).build();
+        return SrResponse.ok().entity(ringoStatisticsForAccount).build();
     }
 }
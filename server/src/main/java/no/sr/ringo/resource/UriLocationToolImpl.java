@@ -5,6 +5,8 @@ import no.sr.ringo.message.*;
 import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriInfo;
 import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * @author steinar
@@ -13,26 +15,44 @@ import java.net.URI;
  */
 public class UriLocationToolImpl implements UriLocationTool {
 
-    static protected URI computeXmlDocumentUri(UriInfo uriInfo, MessageNumber msgNo) {
-        // https....../messages
-        UriBuilder uriBuilder = getUriBuilderForResource(uriInfo, MessagesResource.class);
+    /** Upper bound of cached templates, as the base URI is derived from the Host header of each request */
+    static final int MAX_CACHED_TEMPLATES = 64;
 
-        // https....../messages/{msgno}/xml-document
-        URI documentUri = uriBuilder.clone().path("/{msgno}/xml-document").build(msgNo.toString());
-
-        return documentUri;
-    }
+    /** Message number used when building the template, to be located and replaced later on */
+    static final String PLACEHOLDER = "RingoMsgNo";
 
-    static protected URI computeUriForSelf(UriInfo uriInfo, MessageNumber msgNo, Class<? extends AbstractResource> resourceClass) {
+    /** Prefix and suffix surrounding {msgno} of templates, keyed by base URI, resource and path */
+    private final ConcurrentMap<String, String[]> templates = new ConcurrentHashMap<>();
 
-        // https....../outbox
-        UriBuilder uriBuilder = getUriBuilderForResource(uriInfo, resourceClass);
+    protected URI computeXmlDocumentUri(UriInfo uriInfo, MessageNumber msgNo) {
+        // https....../messages/{msgno}/xml-document
+        return expand(uriInfo, MessagesResource.class, "/{msgno}/xml-document", msgNo);
+    }
 
+    protected URI computeUriForSelf(UriInfo uriInfo, MessageNumber msgNo, Class<? extends AbstractResource> resourceClass) {
         // https....../outbox/{msgno}
-        String messageNumberAsString = msgNo.toString();
-        URI self = uriBuilder.clone().path("/{msgno}").build(messageNumberAsString);
+        return expand(uriInfo, resourceClass, "/{msgno}", msgNo);
+    }
+
+    /**
+     * Expands the template of the resource path with the message number. The template is built once per base URI
+     * using a UriBuilder, after which locating a message is plain string concatenation.
+     */
+    private URI expand(UriInfo uriInfo, Class<? extends AbstractResource> resource, String path, MessageNumber msgNo) {
+        URI baseUri = uriInfo.getBaseUri();
+        String key = baseUri + "|" + resource.getName() + "|" + path;
+
+        String[] template = templates.get(key);
+        if (template == null) {
+            String uri = UriBuilder.fromUri(baseUri).path(resource).scheme("https").path(path).build(PLACEHOLDER).toString();
+            int index = uri.lastIndexOf(PLACEHOLDER);
+            template = new String[]{uri.substring(0, index), uri.substring(index + PLACEHOLDER.length())};
+            if (templates.size() < MAX_CACHED_TEMPLATES) {
+                templates.putIfAbsent(key, template);
+            }
+        }
 
-        return self;
+        return URI.create(template[0] + msgNo.toString() + template[1]);
     }
 
     /**
@@ -0,0 +1,93 @@
+package no.sr.ringo.resource;
+
+import com.google.inject.Inject;
+import com.google.inject.servlet.RequestScoped;
+import com.sun.jersey.spi.container.ResourceFilters;
+import no.sr.ringo.account.Account;
+import no.sr.ringo.persistence.webhook.Webhook;
+import no.sr.ringo.persistence.webhook.WebhookRepository;
+import no.sr.ringo.webhook.WebhookResponse;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.net.URI;
+import java.net.URISyntaxException;
+
+/**
+ * Represents the webhook of the account, to which inbound messages are pushed as they are received.
+ *
+ * @see no.sr.ringo.webhook.WebhookDispatcher
+ */
+@Path("/inbox/webhook")
+@ResourceFilters(ClientVersionNumberResponseFilter.class)
+@RequestScoped
+public class WebhookResource {
+
+    /** Minimum length of the secret used to sign the requests */
+    static final int MIN_SECRET_LENGTH = 16;
+    static final int MAX_SECRET_LENGTH = 128;
+
+    private final Account account;
+    private final WebhookRepository webhookRepository;
+
+    @Inject
+    public WebhookResource(Account account, WebhookRepository webhookRepository) {
+        this.account = account;
+        this.webhookRepository = webhookRepository;
+    }
+
+    @GET
+    @Produces(RingoMediaType.APPLICATION_XML)
+    public Response getWebhook() {
+        Webhook webhook = webhookRepository.getWebhook(account.getAccountId());
+        if (webhook == null) {
+            return SrResponse.status(Response.Status.NOT_FOUND, "No webhook registered");
+        }
+        return SrResponse.ok().entity(new WebhookResponse(webhook)).build();
+    }
+
+    /**
+     * Registers the webhook, replacing any webhook registered earlier.
+     */
+    @PUT
+    @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
+    @Produces(RingoMediaType.APPLICATION_XML)
+    public Response putWebhook(@FormParam("url") String url, @FormParam("secret") String secret, @FormParam("includePayload") String includePayload) {
+        URI uri = parseUrl(url);
+        if (secret == null || secret.trim().length() < MIN_SECRET_LENGTH || secret.trim().length() > MAX_SECRET_LENGTH) {
+            throw new InvalidUserInputWebException("The secret must be between " + MIN_SECRET_LENGTH + " and " + MAX_SECRET_LENGTH + " characters");
+        }
+
+        Webhook webhook = new Webhook(account.getAccountId(), uri, secret.trim(), Boolean.parseBoolean(includePayload));
+        webhookRepository.saveWebhook(webhook);
+        return SrResponse.ok().entity(new WebhookResponse(webhook)).build();
+    }
+
+    /**
+     * Removes the webhook, leaving messages not yet pushed in the inbox.
+     */
+    @DELETE
+    public Response deleteWebhook() {
+        webhookRepository.deleteWebhook(account.getAccountId());
+        return Response.noContent().build();
+    }
+
+    static URI parseUrl(String url) {
+        if (url == null || url.trim().isEmpty()) {
+            throw new InvalidUserInputWebException("Missing url of webhook");
+        }
+        try {
+            URI uri = new URI(url.trim());
+            if (!"http".equalsIgnoreCase(uri.getScheme()) && !"https".equalsIgnoreCase(uri.getScheme()) || uri.getHost() == null) {
+                throw new InvalidUserInputWebException("The url of the webhook must be an absolute http or https URL: " + url);
+            }
+            if (uri.toString().length() > 256) {
+                throw new InvalidUserInputWebException("The url of the webhook must not exceed 256 characters");
+            }
+            return uri;
+        } catch (URISyntaxException e) {
+            throw new InvalidUserInputWebException("Invalid url of webhook: " + url, e);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package no.sr.ringo.resource;
+
+import com.google.inject.Singleton;
+import no.sr.ringo.common.RingoConstants;
+import no.sr.ringo.message.statistics.RingoStatistics;
+import no.sr.ringo.response.RestResponse;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+/**
+ * Writes the XML representation of responses and statistics, straight to the output stream of the container.
+ *
+ * @see JsonResponseProvider
+ */
+@Provider
+@Singleton
+@Produces(MediaType.APPLICATION_XML)
+public class XmlResponseProvider implements MessageBodyWriter<Object> {
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return RestResponse.class.isAssignableFrom(type) || RingoStatistics.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public long getSize(Object entity, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(Object entity, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                        MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException {
+        if (entity instanceof RestResponse) {
+            ((RestResponse) entity).writeTo(entityStream);
+        } else {
+            entityStream.write(((RingoStatistics) entity).asXml().getBytes(RingoConstants.DEFAULT_CHARACTER_SET));
+        }
+    }
+}
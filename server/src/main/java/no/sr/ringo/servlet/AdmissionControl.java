@@ -0,0 +1,143 @@
+package no.sr.ringo.servlet;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import no.sr.ringo.config.RingoConfigProperty;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the rate of requests of every account, per class of operation, using a {@link TokenBucket} per account and
+ * class, and limits the number of requests processed at once, which would otherwise exhaust the JDBC connection pool.
+ * The number of requests rejected by either limit is counted.
+ *
+ * @see AdmissionControlFilter
+ */
+@Singleton
+public class AdmissionControl {
+
+    enum OperationClass {
+        POLL, DOWNLOAD, UPLOAD
+    }
+
+    private final int maxConcurrency;
+    private final Semaphore concurrency;
+    private final Map<OperationClass, Limit> limits = new EnumMap<>(OperationClass.class);
+    private final ConcurrentMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final Map<OperationClass, AtomicLong> rateRejections = new EnumMap<>(OperationClass.class);
+    private final AtomicLong concurrencyRejections = new AtomicLong();
+
+    @Inject
+    public AdmissionControl(@Named(RingoConfigProperty.ADMISSION_CONCURRENCY) String concurrency,
+                            @Named(RingoConfigProperty.ADMISSION_POLL_RATE) String pollRate,
+                            @Named(RingoConfigProperty.ADMISSION_POLL_BURST) String pollBurst,
+                            @Named(RingoConfigProperty.ADMISSION_DOWNLOAD_RATE) String downloadRate,
+                            @Named(RingoConfigProperty.ADMISSION_DOWNLOAD_BURST) String downloadBurst,
+                            @Named(RingoConfigProperty.ADMISSION_UPLOAD_RATE) String uploadRate,
+                            @Named(RingoConfigProperty.ADMISSION_UPLOAD_BURST) String uploadBurst) {
+        this.maxConcurrency = Integer.parseInt(concurrency);
+        this.concurrency = new Semaphore(maxConcurrency);
+        limits.put(OperationClass.POLL, new Limit(pollRate, pollBurst));
+        limits.put(OperationClass.DOWNLOAD, new Limit(downloadRate, downloadBurst));
+        limits.put(OperationClass.UPLOAD, new Limit(uploadRate, uploadBurst));
+        for (OperationClass operationClass : OperationClass.values()) {
+            rateRejections.put(operationClass, new AtomicLong());
+        }
+    }
+
+    /**
+     * Provides the class of requests limited by rate, null for the others.
+     *
+     * @param path the path of the request within the context
+     */
+    static OperationClass operationClassOf(String method, String path) {
+        if ("POST".equals(method) && (path.startsWith("/outbox") || path.startsWith("/upload"))) {
+            return OperationClass.UPLOAD;
+        }
+        if ("GET".equals(method)) {
+            if (path.endsWith("/xml-document") || path.startsWith("/inbox/bundle")) {
+                return OperationClass.DOWNLOAD;
+            }
+            if (path.startsWith("/inbox") || path.startsWith("/outbox") || path.startsWith("/messages")) {
+                return OperationClass.POLL;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Admits a request of the account, provided the account has not exceeded the rate of the class of operation.
+     *
+     * @param now the current value of {@link System#nanoTime()}
+     * @return 0 if the request is admitted, otherwise the seconds until it would be admitted
+     */
+    long admit(String userName, OperationClass operationClass, long now) {
+        Limit limit = limits.get(operationClass);
+        if (limit.rate <= 0) {
+            return 0;
+        }
+        TokenBucket bucket = buckets.computeIfAbsent(operationClass + ":" + userName, key -> new TokenBucket(limit.rate, limit.burst, now));
+        long wait = bucket.take(now);
+        if (wait == 0) {
+            return 0;
+        }
+        rateRejections.get(operationClass).incrementAndGet();
+        return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(wait + TimeUnit.SECONDS.toNanos(1) - 1));
+    }
+
+    /**
+     * Enters a request to be processed, unless the maximum number of requests are being processed already.
+     * Requests entered must {@link #exit()}.
+     *
+     * @return true if the request was entered
+     */
+    boolean enter() {
+        if (concurrency.tryAcquire()) {
+            return true;
+        }
+        concurrencyRejections.incrementAndGet();
+        return false;
+    }
+
+    void exit() {
+        concurrency.release();
+    }
+
+    /**
+     * @return the number of requests being processed, long polls excepted
+     */
+    public int getInProgress() {
+        return maxConcurrency - concurrency.availablePermits();
+    }
+
+    /**
+     * @return the number of requests rejected by rate per class of operation, and by concurrency, since start up
+     */
+    public Map<String, Long> getRejections() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Map.Entry<OperationClass, AtomicLong> entry : rateRejections.entrySet()) {
+            result.put("rate." + entry.getKey().name().toLowerCase(), entry.getValue().get());
+        }
+        result.put("concurrency", concurrencyRejections.get());
+        return result;
+    }
+
+    private static class Limit {
+
+        final double rate;
+        final int burst;
+
+        Limit(String rate, String burst) {
+            this.rate = Double.parseDouble(rate);
+            this.burst = Integer.parseInt(burst);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package no.sr.ringo.servlet;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.security.Principal;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Rejects requests exceeding the rate of their account, or the number of requests processed at once, with
+ * 503 Service Unavailable and Retry-After, before any resources are spent on them. See {@link AdmissionControl}.
+ *
+ * Requests processed asynchronously count against the number of requests processed at once until completed,
+ * except for long polling, which holds no JDBC connection while waiting.
+ */
+@Singleton      // Required by Google Guice
+public class AdmissionControlFilter implements Filter {
+
+    public static final Logger log = LoggerFactory.getLogger(AdmissionControlFilter.class);
+
+    /** Seconds for clients to wait before retrying requests rejected as too many are processed */
+    static final String RETRY_AFTER = "1";
+
+    private final AdmissionControl admissionControl;
+
+    @Inject
+    public AdmissionControlFilter(AdmissionControl admissionControl) {
+        this.admissionControl = admissionControl;
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain) throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) servletRequest;
+        HttpServletResponse response = (HttpServletResponse) servletResponse;
+
+        if (request.getDispatcherType() != DispatcherType.REQUEST) {
+            chain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        AdmissionControl.OperationClass operationClass = AdmissionControl.operationClassOf(request.getMethod(), path);
+        Principal principal = request.getUserPrincipal();
+        if (operationClass != null && principal != null) {
+            long retryAfter = admissionControl.admit(principal.getName(), operationClass, System.nanoTime());
+            if (retryAfter > 0) {
+                log.debug("Rate of {} requests exceeded by {}, rejecting {} {}", operationClass, principal.getName(), request.getMethod(), request.getRequestURI());
+                reject(response, Long.toString(retryAfter));
+                return;
+            }
+        }
+
+        if (isLongPoll(request, path)) {
+            chain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+
+        if (!admissionControl.enter()) {
+            log.debug("Too many requests in progress, rejecting {} {}", request.getMethod(), request.getRequestURI());
+            reject(response, RETRY_AFTER);
+            return;
+        }
+        Exit exit = new Exit();
+        try {
+            chain.doFilter(servletRequest, servletResponse);
+        } finally {
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(exit);
+            } else {
+                exit.run();
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    /**
+     * Only the paths at which the {@link InboxLongPollFilter} and the {@link InboxEventsServlet} are mapped, see
+     * RingoWebServletModule, wait without holding a JDBC connection; any other request supplying a wait parameter
+     * is counted like the rest.
+     */
+    private static boolean isLongPoll(HttpServletRequest request, String path) {
+        // The parameters of other methods are not looked at, as doing so could consume a form posted
+        if (!"GET".equals(request.getMethod())) {
+            return false;
+        }
+        if ("/inbox/events".equals(path)) {
+            return true;
+        }
+        return ("/inbox".equals(path) || "/inbox/".equals(path)) && request.getParameter(InboxLongPollFilter.WAIT_PARAMETER) != null;
+    }
+
+    private static void reject(HttpServletResponse response, String retryAfter) throws IOException {
+        response.setHeader("Retry-After", retryAfter);
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    }
+
+    /**
+     * Exits the request exactly once, either when processed, or when completed if processed asynchronously.
+     */
+    class Exit implements AsyncListener, Runnable {
+
+        private final AtomicBoolean exited = new AtomicBoolean();
+
+        @Override
+        public void run() {
+            if (exited.compareAndSet(false, true)) {
+                admissionControl.exit();
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) throws IOException {
+            run();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException {
+            run();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) throws IOException {
+            run();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) throws IOException {
+        }
+    }
+}
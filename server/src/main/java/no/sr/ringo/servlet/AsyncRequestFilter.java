@@ -0,0 +1,555 @@
+package no.sr.ringo.servlet;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.google.inject.servlet.ServletScopes;
+import no.sr.ringo.config.RingoConfigProperty;
+import no.sr.ringo.persistence.guice.jdbc.JdbcTxManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.*;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Processes long running requests asynchronously, i.e. uploads, statistics and inbox bundles, releasing the
+ * container thread while the request is processed by the REST resource on a worker thread.
+ *
+ * Every operation has a bounded pool of workers with a bounded queue of its own, hence a burst of one kind of
+ * request neither exhausts the container threads nor delays the other operations. Requests not fitting in the
+ * queue are rejected with 503 Service Unavailable.
+ *
+ * The request scope is transferred to the worker, whereas JDBC connections are not: the resources obtain their
+ * connections on the worker thread, see {@link JdbcTxManager#handOff(Runnable)}.
+ *
+ * Requests timing out are answered with 503 while the worker may still be running, as interrupting the worker is
+ * best effort. The worker is hence handed wrappers of the request and response, which fail reading and writing and
+ * drop the headers set once the request has timed out, since the container may recycle them by then.
+ *
+ * Long polling of the inbox is asynchronous already, see {@link InboxLongPollFilter}.
+ */
+@Singleton      // Required by Google Guice
+public class AsyncRequestFilter implements Filter {
+
+    public static final Logger log = LoggerFactory.getLogger(AsyncRequestFilter.class);
+
+    /** Seconds for clients to wait before retrying requests rejected by a full queue */
+    static final String RETRY_AFTER = "5";
+
+    /**
+     * Attribute of requests processed by a worker, telling the filters further down the chain that the response is
+     * complete once the chain returns, even though the request is asynchronous.
+     */
+    public static final String PROCESSED_BY_WORKER = AsyncRequestFilter.class.getName() + ".worker";
+
+    enum Operation {
+        UPLOAD, STATISTICS, BUNDLE
+    }
+
+    private final JdbcTxManager jdbcTxManager;
+    private final long timeout;
+    private final Map<Operation, ThreadPoolExecutor> executors = new EnumMap<>(Operation.class);
+
+    @Inject
+    public AsyncRequestFilter(JdbcTxManager jdbcTxManager,
+                              @Named(RingoConfigProperty.ASYNC_TIMEOUT) String timeout,
+                              @Named(RingoConfigProperty.ASYNC_UPLOAD_WORKERS) String uploadWorkers,
+                              @Named(RingoConfigProperty.ASYNC_UPLOAD_QUEUE_SIZE) String uploadQueueSize,
+                              @Named(RingoConfigProperty.ASYNC_STATISTICS_WORKERS) String statisticsWorkers,
+                              @Named(RingoConfigProperty.ASYNC_STATISTICS_QUEUE_SIZE) String statisticsQueueSize,
+                              @Named(RingoConfigProperty.ASYNC_BUNDLE_WORKERS) String bundleWorkers,
+                              @Named(RingoConfigProperty.ASYNC_BUNDLE_QUEUE_SIZE) String bundleQueueSize) {
+        this.jdbcTxManager = jdbcTxManager;
+        this.timeout = Long.parseLong(timeout);
+        executors.put(Operation.UPLOAD, createExecutor("ringo-upload", uploadWorkers, uploadQueueSize));
+        executors.put(Operation.STATISTICS, createExecutor("ringo-statistics", statisticsWorkers, statisticsQueueSize));
+        executors.put(Operation.BUNDLE, createExecutor("ringo-bundle", bundleWorkers, bundleQueueSize));
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain) throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) servletRequest;
+        Operation operation = operationOf(request.getMethod(), request.getRequestURI().substring(request.getContextPath().length()));
+
+        if (operation == null || request.getDispatcherType() != DispatcherType.REQUEST || !request.isAsyncSupported()) {
+            chain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+
+        AsyncContext asyncContext = request.startAsync();
+        asyncContext.setTimeout(timeout);
+        Completion completion = new Completion(asyncContext);
+        asyncContext.addListener(completion);
+
+        request.setAttribute(PROCESSED_BY_WORKER, Boolean.TRUE);
+        Callable<Void> work = ServletScopes.transferRequest(() -> {
+            chain.doFilter(completion.request, completion.response);
+            return null;
+        });
+        try {
+            completion.future = executors.get(operation).submit(jdbcTxManager.handOff(() -> {
+                try {
+                    work.call();
+                    completion.complete();
+                } catch (Exception e) {
+                    if (completion.isTimedOut()) {
+                        log.debug("Processing of {} {} ended after timing out; {}", request.getMethod(), request.getRequestURI(), e.getMessage());
+                    } else {
+                        log.error("Unable to process " + request.getMethod() + " " + request.getRequestURI() + "; " + e.getMessage(), e);
+                    }
+                    completion.fail(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            log.warn("Queue of {} requests is full, rejecting {} {}", operation, request.getMethod(), request.getRequestURI());
+            ((HttpServletResponse) asyncContext.getResponse()).setHeader("Retry-After", RETRY_AFTER);
+            completion.fail(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        shutdown();
+    }
+
+    public void shutdown() {
+        for (ThreadPoolExecutor executor : executors.values()) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the number of requests being processed by the workers, per operation
+     */
+    public Map<String, Integer> getActiveWorkers() {
+        Map<String, Integer> result = new LinkedHashMap<>();
+        for (Map.Entry<Operation, ThreadPoolExecutor> executor : executors.entrySet()) {
+            result.put(executor.getKey().name().toLowerCase(), executor.getValue().getActiveCount());
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of requests waiting for a worker, per operation
+     */
+    public Map<String, Integer> getQueued() {
+        Map<String, Integer> result = new LinkedHashMap<>();
+        for (Map.Entry<Operation, ThreadPoolExecutor> executor : executors.entrySet()) {
+            result.put(executor.getKey().name().toLowerCase(), executor.getValue().getQueue().size());
+        }
+        return result;
+    }
+
+    /**
+     * Provides the operation of requests to be processed asynchronously, null for the others.
+     *
+     * @param path the path of the request within the context
+     */
+    static Operation operationOf(String method, String path) {
+        if ("POST".equals(method) && ("/outbox".equals(path) || "/outbox/".equals(path) || "/outbox/batch".equals(path))) {
+            return Operation.UPLOAD;
+        }
+        if ("GET".equals(method)) {
+            if ("/statistics".equals(path) || "/statistics/".equals(path) || "/admin/statistics".equals(path)) {
+                return Operation.STATISTICS;
+            }
+            if ("/inbox/bundle".equals(path)) {
+                return Operation.BUNDLE;
+            }
+        }
+        return null;
+    }
+
+    private static ThreadPoolExecutor createExecutor(String name, String workers, String queueSize) {
+        int threads = Integer.parseInt(workers);
+        AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(Integer.parseInt(queueSize)), runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Completes the request exactly once, either when processed or when timed out, in which case the worker is
+     * interrupted and cut off from the request and response.
+     */
+    static class Completion implements AsyncListener {
+
+        private final AsyncContext asyncContext;
+        private final AtomicBoolean completed = new AtomicBoolean();
+        /** Held while the worker writes the response, and while cutting the worker off */
+        private final Object lock = new Object();
+        private volatile boolean timedOut;
+        volatile Future<?> future;
+
+        /** The request and response handed to the worker */
+        final WorkerRequest request;
+        final WorkerResponse response;
+
+        Completion(AsyncContext asyncContext) {
+            this.asyncContext = asyncContext;
+            this.request = new WorkerRequest((HttpServletRequest) asyncContext.getRequest(), this);
+            this.response = new WorkerResponse((HttpServletResponse) asyncContext.getResponse(), this);
+        }
+
+        boolean isTimedOut() {
+            return timedOut;
+        }
+
+        void complete() {
+            if (completed.compareAndSet(false, true)) {
+                asyncContext.complete();
+            }
+        }
+
+        void fail(int statusCode) {
+            if (completed.compareAndSet(false, true)) {
+                try {
+                    HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+                    if (!response.isCommitted()) {
+                        response.sendError(statusCode);
+                    }
+                } catch (IOException e) {
+                    log.debug("Unable to send error {}; {}", statusCode, e.getMessage());
+                } finally {
+                    asyncContext.complete();
+                }
+            }
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException {
+            log.warn("Request timed out, interrupting the worker");
+            Future<?> processing = future;
+            if (processing != null) {
+                processing.cancel(true);
+            }
+            // Waits for a write in progress, after which the worker no longer touches the response
+            synchronized (lock) {
+                timedOut = true;
+            }
+            fail(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) throws IOException {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) throws IOException {
+            complete();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) throws IOException {
+        }
+    }
+
+    /**
+     * Request handed to the worker, failing to read the body once the request has timed out. Reads are not
+     * awaited by the timeout, as reading a slow upload may block for long.
+     */
+    static class WorkerRequest extends HttpServletRequestWrapper {
+
+        private final Completion completion;
+        private ServletInputStream inputStream;
+        private BufferedReader reader;
+
+        WorkerRequest(HttpServletRequest request, Completion completion) {
+            super(request);
+            this.completion = completion;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            if (inputStream == null) {
+                ServletInputStream in = super.getInputStream();
+                inputStream = new ServletInputStream() {
+                    @Override
+                    public int read() throws IOException {
+                        checkTimedOut(completion);
+                        return in.read();
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        checkTimedOut(completion);
+                        return in.read(b, off, len);
+                    }
+
+                    @Override
+                    public boolean isFinished() {
+                        return in.isFinished();
+                    }
+
+                    @Override
+                    public boolean isReady() {
+                        return in.isReady();
+                    }
+
+                    @Override
+                    public void setReadListener(ReadListener readListener) {
+                        throw new UnsupportedOperationException("Non-blocking reading is not supported by workers");
+                    }
+                };
+            }
+            return inputStream;
+        }
+
+        @Override
+        public BufferedReader getReader() throws IOException {
+            if (reader == null) {
+                String characterEncoding = getCharacterEncoding();
+                reader = new BufferedReader(new InputStreamReader(getInputStream(), characterEncoding != null ? characterEncoding : "ISO-8859-1"));
+            }
+            return reader;
+        }
+    }
+
+    /**
+     * Response handed to the worker, failing to write and dropping the headers once the request has timed out.
+     */
+    static class WorkerResponse extends HttpServletResponseWrapper {
+
+        private final Completion completion;
+        private ServletOutputStream outputStream;
+        private PrintWriter writer;
+
+        WorkerResponse(HttpServletResponse response, Completion completion) {
+            super(response);
+            this.completion = completion;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (writer != null) {
+                throw new IllegalStateException("getWriter() has already been called");
+            }
+            return stream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                if (outputStream != null) {
+                    throw new IllegalStateException("getOutputStream() has already been called");
+                }
+                writer = new PrintWriter(new OutputStreamWriter(stream(), getCharacterEncoding()));
+            }
+            return writer;
+        }
+
+        private ServletOutputStream stream() throws IOException {
+            if (outputStream == null) {
+                ServletOutputStream out = super.getOutputStream();
+                outputStream = new ServletOutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        synchronized (completion.lock) {
+                            checkTimedOut(completion);
+                            out.write(b);
+                        }
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        synchronized (completion.lock) {
+                            checkTimedOut(completion);
+                            out.write(b, off, len);
+                        }
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        synchronized (completion.lock) {
+                            checkTimedOut(completion);
+                            out.flush();
+                        }
+                    }
+
+                    @Override
+                    public boolean isReady() {
+                        return out.isReady();
+                    }
+
+                    @Override
+                    public void setWriteListener(WriteListener writeListener) {
+                        throw new UnsupportedOperationException("Non-blocking writing is not supported by workers");
+                    }
+                };
+            }
+            return outputStream;
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            synchronized (completion.lock) {
+                checkTimedOut(completion);
+                super.flushBuffer();
+            }
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            synchronized (completion.lock) {
+                checkTimedOut(completion);
+                super.sendError(sc, msg);
+            }
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            synchronized (completion.lock) {
+                checkTimedOut(completion);
+                super.sendError(sc);
+            }
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            synchronized (completion.lock) {
+                checkTimedOut(completion);
+                super.sendRedirect(location);
+            }
+        }
+
+        @Override
+        public void setStatus(int sc) {
+            synchronized (completion.lock) {
+                if (!completion.timedOut) {
+                    super.setStatus(sc);
+                }
+            }
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            synchronized (completion.lock) {
+                if (!completion.timedOut) {
+                    super.setHeader(name, value);
+                }
+            }
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            synchronized (completion.lock) {
+                if (!completion.timedOut) {
+                    super.addHeader(name, value);
+                }
+            }
+        }
+
+        @Override
+        public void setIntHeader(String name, int value) {
+            synchronized (completion.lock) {
+                if (!completion.timedOut) {
+                    super.setIntHeader(name, value);
+                }
+            }
+        }
+
+        @Override
+        public void addIntHeader(String name, int value) {
+            synchronized (completion.lock) {
+                if (!completion.timedOut) {
+                    super.addIntHeader(name, value);
+                }
+            }
+        }
+
+        @Override
+        public void setDateHeader(String name, long date) {
+            synchronized (completion.lock) {
+                if (!completion.timedOut) {
+                    super.setDateHeader(name, date);
+                }
+            }
+        }
+
+        @Override
+        public void addDateHeader(String name, long date) {
+            synchronized (completion.lock) {
+                if (!completion.timedOut) {
+                    super.addDateHeader(name, date);
+                }
+            }
+        }
+
+        @Override
+        public void setContentType(String type) {
+            synchronized (completion.lock) {
+                if (!completion.timedOut) {
+                    super.setContentType(type);
+                }
+            }
+        }
+
+        @Override
+        public void setCharacterEncoding(String charset) {
+            synchronized (completion.lock) {
+                if (!completion.timedOut) {
+                    super.setCharacterEncoding(charset);
+                }
+            }
+        }
+
+        @Override
+        public void setContentLength(int len) {
+            synchronized (completion.lock) {
+                if (!completion.timedOut) {
+                    super.setContentLength(len);
+                }
+            }
+        }
+
+        @Override
+        public void setContentLengthLong(long len) {
+            synchronized (completion.lock) {
+                if (!completion.timedOut) {
+                    super.setContentLengthLong(len);
+                }
+            }
+        }
+
+        @Override
+        public void reset() {
+            synchronized (completion.lock) {
+                if (!completion.timedOut) {
+                    super.reset();
+                }
+            }
+        }
+
+        @Override
+        public void resetBuffer() {
+            synchronized (completion.lock) {
+                if (!completion.timedOut) {
+                    super.resetBuffer();
+                }
+            }
+        }
+    }
+
+    private static void checkTimedOut(Completion completion) throws IOException {
+        if (completion.timedOut) {
+            throw new IOException("Request has timed out");
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package no.sr.ringo.servlet;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import no.sr.ringo.account.AccountId;
+import no.sr.ringo.account.RingoAccountProvider;
+import no.sr.ringo.account.SrAccountNotFoundException;
+import no.sr.ringo.message.AccountChangeVersions;
+import no.sr.ringo.message.PeppolMessageRepository;
+
+import javax.servlet.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Implements conditional GET of the message lists and counts, which change only when the change version of the
+ * account changes, i.e. when messages are added, read or delivered.
+ *
+ * The version is provided as the ETag of the response. A request holding the current version in If-None-Match is
+ * answered with 304 Not Modified, without the messages being queried.
+ *
+ * Long polling requests are passed on untouched, as they are meant to wait for changes.
+ */
+@Singleton      // Required by Google Guice
+public class ConditionalGetFilter implements Filter {
+
+    static final String ETAG = "ETag";
+    static final String IF_NONE_MATCH = "If-None-Match";
+
+    private final RingoAccountProvider ringoAccountProvider;
+    private final PeppolMessageRepository peppolMessageRepository;
+    private final AccountChangeVersions accountChangeVersions;
+
+    @Inject
+    public ConditionalGetFilter(RingoAccountProvider ringoAccountProvider, PeppolMessageRepository peppolMessageRepository, AccountChangeVersions accountChangeVersions) {
+        this.ringoAccountProvider = ringoAccountProvider;
+        this.peppolMessageRepository = peppolMessageRepository;
+        this.accountChangeVersions = accountChangeVersions;
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain) throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) servletRequest;
+        HttpServletResponse response = (HttpServletResponse) servletResponse;
+
+        if (!"GET".equals(request.getMethod()) || request.getDispatcherType() != DispatcherType.REQUEST
+                || request.getUserPrincipal() == null || request.getParameter(InboxLongPollFilter.WAIT_PARAMETER) != null) {
+            chain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+
+        AccountId accountId;
+        try {
+            accountId = ringoAccountProvider.getAccount(request.getUserPrincipal()).getAccountId();
+        } catch (SrAccountNotFoundException e) {
+            // Left to the REST resource to deal with
+            chain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+
+        long version = accountChangeVersions.getVersion(accountId, () -> peppolMessageRepository.getChangeVersion(accountId));
+        String etag = etag(version, request.getHeader("Accept"));
+        response.setHeader(ETAG, etag);
+        response.setHeader("Vary", "Accept");
+
+        if (matches(request.getHeader(IF_NONE_MATCH), etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        chain.doFilter(servletRequest, servletResponse);
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    /**
+     * The representation depends on the Accept header as well as on the version, hence both are part of the tag.
+     */
+    static String etag(long version, String accept) {
+        return accept == null ? "\"" + version + "\"" : "\"" + version + "-" + Integer.toHexString(accept.hashCode()) + "\"";
+    }
+
+    static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,483 @@
+package no.sr.ringo.servlet;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import no.sr.ringo.config.RingoConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.*;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses the responses of the REST resources with gzip when negotiated by the "Accept-Encoding" header of the
+ * request, and decompresses request bodies, e.g. uploads to the outbox, sent with "Content-Encoding: gzip".
+ *
+ * Responses are buffered until they exceed the threshold, hence small responses are sent as is, with their
+ * Content-Length. Only textual content is compressed, neither the zipped inbox bundles nor the event stream of
+ * the inbox, and the entity tag of a compressed response is made weak, see {@link ConditionalGetFilter}.
+ *
+ * Being installed along with the REST resources, the filter runs on the worker thread of requests processed
+ * asynchronously, see {@link AsyncRequestFilter}, whose responses are complete once the chain returns. Responses of
+ * other asynchronous requests, i.e. the event stream of the inbox, are written after the chain has returned and are
+ * hence left open.
+ */
+@Singleton      // Required by Google Guice
+public class GzipFilter implements Filter {
+
+    public static final Logger log = LoggerFactory.getLogger(GzipFilter.class);
+
+    static final String GZIP = "gzip";
+    static final String ACCEPT_ENCODING = "Accept-Encoding";
+    static final String CONTENT_ENCODING = "Content-Encoding";
+    static final String CONTENT_LENGTH = "Content-Length";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final int threshold;
+
+    @Inject
+    public GzipFilter(@Named(RingoConfigProperty.COMPRESSION_THRESHOLD) String threshold) {
+        this.threshold = Integer.parseInt(threshold);
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain) throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) servletRequest;
+        HttpServletResponse response = (HttpServletResponse) servletResponse;
+
+        String contentEncoding = request.getHeader(CONTENT_ENCODING);
+        if (contentEncoding != null && !"identity".equalsIgnoreCase(contentEncoding.trim())) {
+            if (!isGzip(contentEncoding)) {
+                log.debug("Unsupported Content-Encoding '{}' of {} {}", contentEncoding, request.getMethod(), request.getRequestURI());
+                response.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+                return;
+            }
+            request = new GzipRequest(request);
+        }
+
+        if (threshold < 0 || "HEAD".equals(request.getMethod())) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        response.addHeader("Vary", ACCEPT_ENCODING);
+        if (!acceptsGzip(request.getHeader(ACCEPT_ENCODING))) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        GzipResponse gzipResponse = new GzipResponse(response, threshold);
+        chain.doFilter(request, gzipResponse);
+        if (!request.isAsyncStarted() || request.getAttribute(AsyncRequestFilter.PROCESSED_BY_WORKER) != null) {
+            gzipResponse.finish();
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    static boolean isGzip(String contentEncoding) {
+        String coding = contentEncoding.trim().toLowerCase(Locale.ROOT);
+        return GZIP.equals(coding) || "x-gzip".equals(coding);
+    }
+
+    /**
+     * Whether the value of the "Accept-Encoding" header allows gzip, either explicitly or by a wildcard, with a
+     * quality other than zero.
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        Float gzip = null;
+        Float any = null;
+        for (String element : acceptEncoding.split(",")) {
+            String[] parameters = element.split(";");
+            String coding = parameters[0].trim();
+            if (isGzip(coding)) {
+                gzip = qualityOf(parameters);
+            } else if ("*".equals(coding)) {
+                any = qualityOf(parameters);
+            }
+        }
+        return gzip != null ? gzip > 0 : any != null && any > 0;
+    }
+
+    private static float qualityOf(String[] parameters) {
+        for (int i = 1; i < parameters.length; i++) {
+            String parameter = parameters[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Float.parseFloat(parameter.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    static boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String mediaType = contentType.split(";")[0].trim().toLowerCase(Locale.ROOT);
+        if ("text/event-stream".equals(mediaType)) {
+            return false;
+        }
+        return mediaType.startsWith("text/")
+                || "application/xml".equals(mediaType) || "application/json".equals(mediaType)
+                || mediaType.endsWith("+xml") || mediaType.endsWith("+json");
+    }
+
+    /**
+     * Provides the decompressed body of a request, hiding the headers describing the compressed body.
+     */
+    static class GzipRequest extends HttpServletRequestWrapper {
+
+        private ServletInputStream inputStream;
+
+        GzipRequest(HttpServletRequest request) {
+            super(request);
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            if (inputStream == null) {
+                inputStream = new GzipInputStream(new GZIPInputStream(super.getInputStream(), BUFFER_SIZE));
+            }
+            return inputStream;
+        }
+
+        @Override
+        public BufferedReader getReader() throws IOException {
+            String characterEncoding = getCharacterEncoding();
+            return new BufferedReader(new InputStreamReader(getInputStream(), characterEncoding != null ? characterEncoding : "ISO-8859-1"));
+        }
+
+        @Override
+        public int getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return -1;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return isHidden(name) ? null : super.getHeader(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+            return isHidden(name) ? Collections.emptyEnumeration() : super.getHeaders(name);
+        }
+
+        @Override
+        public int getIntHeader(String name) {
+            return isHidden(name) ? -1 : super.getIntHeader(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaderNames() {
+            List<String> names = Collections.list(super.getHeaderNames());
+            names.removeIf(GzipRequest::isHidden);
+            return Collections.enumeration(names);
+        }
+
+        private static boolean isHidden(String name) {
+            return CONTENT_ENCODING.equalsIgnoreCase(name) || CONTENT_LENGTH.equalsIgnoreCase(name);
+        }
+    }
+
+    static class GzipInputStream extends ServletInputStream {
+
+        private final InputStream in;
+        private boolean finished;
+
+        GzipInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            finished = b < 0;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = in.read(b, off, len);
+            finished = count < 0;
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        @Override
+        public boolean isFinished() {
+            return finished;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener) {
+            throw new UnsupportedOperationException("Non-blocking reading of compressed requests is not supported");
+        }
+    }
+
+    /**
+     * Buffers the response until either the threshold is exceeded, in which case the response is compressed if
+     * textual, or until flushed or finished, in which case it is sent as is.
+     */
+    static class GzipResponse extends HttpServletResponseWrapper {
+
+        private final int threshold;
+        private long contentLength = -1;
+        private GzipOutputStream outputStream;
+        private PrintWriter writer;
+
+        GzipResponse(HttpServletResponse response, int threshold) {
+            super(response);
+            this.threshold = threshold;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (writer != null) {
+                throw new IllegalStateException("getWriter() has already been called");
+            }
+            return stream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                if (outputStream != null) {
+                    throw new IllegalStateException("getOutputStream() has already been called");
+                }
+                writer = new PrintWriter(new OutputStreamWriter(stream(), getCharacterEncoding()));
+            }
+            return writer;
+        }
+
+        @Override
+        public void setContentLength(int len) {
+            contentLength = len;
+        }
+
+        @Override
+        public void setContentLengthLong(long len) {
+            contentLength = len;
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            if (CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                contentLength = value != null ? Long.parseLong(value) : -1;
+            } else {
+                super.setHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            if (CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                contentLength = Long.parseLong(value);
+            } else {
+                super.addHeader(name, value);
+            }
+        }
+
+        @Override
+        public void setIntHeader(String name, int value) {
+            if (CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                contentLength = value;
+            } else {
+                super.setIntHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addIntHeader(String name, int value) {
+            if (CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                contentLength = value;
+            } else {
+                super.addIntHeader(name, value);
+            }
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+            if (outputStream != null) {
+                outputStream.flush();
+            }
+            super.flushBuffer();
+        }
+
+        @Override
+        public void resetBuffer() {
+            super.resetBuffer();
+            if (outputStream != null) {
+                outputStream.resetBuffer();
+            }
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            contentLength = -1;
+            if (outputStream != null) {
+                outputStream.resetBuffer();
+            }
+        }
+
+        /**
+         * Writes what remains of the response, completing the compressed stream if compressing.
+         */
+        void finish() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+            if (outputStream != null) {
+                outputStream.finish();
+            }
+        }
+
+        private GzipOutputStream stream() {
+            if (outputStream == null) {
+                outputStream = new GzipOutputStream();
+            }
+            return outputStream;
+        }
+
+        private HttpServletResponse response() {
+            return (HttpServletResponse) getResponse();
+        }
+
+        class GzipOutputStream extends ServletOutputStream {
+
+            private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            private OutputStream out;
+            private GZIPOutputStream gzip;
+            private boolean finished;
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (finished) {
+                    throw new IOException("Response has been written");
+                }
+                if (out == null) {
+                    if (buffer.size() + len <= threshold) {
+                        buffer.write(b, off, len);
+                        return;
+                    }
+                    commit(true);
+                }
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                if (out == null) {
+                    commit(false);
+                }
+                out.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                finish();
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                throw new UnsupportedOperationException("Non-blocking writing of compressed responses is not supported");
+            }
+
+            void resetBuffer() {
+                if (out == null) {
+                    buffer.reset();
+                }
+            }
+
+            void finish() throws IOException {
+                if (finished) {
+                    return;
+                }
+                if (out == null) {
+                    // The whole of the response is known
+                    if (!response().isCommitted()) {
+                        contentLength = buffer.size();
+                    }
+                    commit(false);
+                }
+                finished = true;
+                if (gzip != null) {
+                    gzip.finish();
+                }
+                out.flush();
+            }
+
+            private void commit(boolean exceeded) throws IOException {
+                HttpServletResponse response = response();
+                if (exceeded && isCompressible(response.getContentType()) && response.getHeader(CONTENT_ENCODING) == null) {
+                    response.setHeader(CONTENT_ENCODING, GZIP);
+                    String etag = response.getHeader(ConditionalGetFilter.ETAG);
+                    if (etag != null && !etag.startsWith("W/")) {
+                        response.setHeader(ConditionalGetFilter.ETAG, "W/" + etag);
+                    }
+                    gzip = new GZIPOutputStream(response.getOutputStream(), BUFFER_SIZE);
+                    out = gzip;
+                } else {
+                    if (contentLength >= 0) {
+                        response.setContentLengthLong(contentLength);
+                    }
+                    out = response.getOutputStream();
+                }
+                buffer.writeTo(out);
+                buffer = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package no.sr.ringo.servlet;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import no.sr.ringo.account.AccountId;
+import no.sr.ringo.account.RingoAccountProvider;
+import no.sr.ringo.account.SrAccountNotFoundException;
+import no.sr.ringo.message.InboxEventHub;
+import no.sr.ringo.message.PeppolMessageRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams the number of unread messages in the inbox as Server-Sent Events, sparing the back-end from polling
+ * /inbox/count. An event is sent when the stream is opened and whenever a message has been received:
+ *
+ * <pre>
+ * event: inbox
+ * data: 3
+ * </pre>
+ *
+ * The request is handled asynchronously, hence no thread is held while waiting. The stream is closed after
+ * {@link #STREAM_LIFETIME} milliseconds, upon which the client is expected to reconnect.
+ */
+@Singleton      // Required by Google Guice
+public class InboxEventsServlet extends HttpServlet {
+
+    public static final Logger log = LoggerFactory.getLogger(InboxEventsServlet.class);
+
+    static final String TEXT_EVENT_STREAM = "text/event-stream";
+
+    /** Milliseconds after which the stream is closed */
+    static final long STREAM_LIFETIME = TimeUnit.MINUTES.toMillis(5);
+
+    /** Seconds between comments sent to keep proxies from closing idle streams */
+    static final long HEARTBEAT_INTERVAL = 20;
+
+    /** Milliseconds the client should wait before reconnecting */
+    static final long RECONNECT_DELAY = 5000;
+
+    private final RingoAccountProvider ringoAccountProvider;
+    private final PeppolMessageRepository peppolMessageRepository;
+    private final InboxEventHub inboxEventHub;
+
+    @Inject
+    public InboxEventsServlet(RingoAccountProvider ringoAccountProvider, PeppolMessageRepository peppolMessageRepository, InboxEventHub inboxEventHub) {
+        this.ringoAccountProvider = ringoAccountProvider;
+        this.peppolMessageRepository = peppolMessageRepository;
+        this.inboxEventHub = inboxEventHub;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+
+        AccountId accountId;
+        try {
+            accountId = ringoAccountProvider.getAccount(request.getUserPrincipal()).getAccountId();
+        } catch (SrAccountNotFoundException e) {
+            throw new IllegalStateException("No account for user " + request.getUserPrincipal());
+        }
+
+        if (!request.isAsyncSupported()) {
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Event streams are not supported by this server");
+            return;
+        }
+
+        response.setContentType(TEXT_EVENT_STREAM);
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+
+        AsyncContext asyncContext = request.startAsync();
+        asyncContext.setTimeout(STREAM_LIFETIME);
+
+        EventStream eventStream = new EventStream(asyncContext, accountId, response.getWriter());
+        asyncContext.addListener(eventStream);
+        eventStream.open();
+    }
+
+    /**
+     * The stream of events to a single client.
+     */
+    class EventStream implements InboxEventHub.Subscriber, AsyncListener {
+
+        private final AsyncContext asyncContext;
+        private final AccountId accountId;
+        private final PrintWriter writer;
+        private ScheduledFuture<?> heartbeat;
+        private boolean closed;
+
+        EventStream(AsyncContext asyncContext, AccountId accountId, PrintWriter writer) {
+            this.asyncContext = asyncContext;
+            this.accountId = accountId;
+            this.writer = writer;
+        }
+
+        void open() {
+            // Subscribes before counting, not to miss messages received in between
+            inboxEventHub.subscribe(accountId, this);
+            heartbeat = inboxEventHub.scheduleAtFixedRate(() -> write(": heartbeat\n\n"), HEARTBEAT_INTERVAL, TimeUnit.SECONDS);
+            write("retry: " + RECONNECT_DELAY + "\n\n");
+            inboxChanged();
+        }
+
+        @Override
+        public void inboxChanged() {
+            write("event: inbox\ndata: " + peppolMessageRepository.getInboxCount(accountId) + "\n\n");
+        }
+
+        private synchronized void write(String event) {
+            if (closed) {
+                return;
+            }
+            writer.write(event);
+            writer.flush();
+            if (writer.checkError()) {
+                log.debug("Event stream of account {} closed by the client", accountId);
+                close();
+                asyncContext.complete();
+            }
+        }
+
+        private synchronized void close() {
+            if (!closed) {
+                closed = true;
+                inboxEventHub.unsubscribe(accountId, this);
+                if (heartbeat != null) {
+                    heartbeat.cancel(false);
+                }
+            }
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException {
+            close();
+            asyncContext.complete();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) throws IOException {
+            close();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) throws IOException {
+            close();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) throws IOException {
+        }
+    }
+}
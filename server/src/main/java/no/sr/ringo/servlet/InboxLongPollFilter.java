@@ -0,0 +1,172 @@
+package no.sr.ringo.servlet;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import no.sr.ringo.account.AccountId;
+import no.sr.ringo.account.RingoAccountProvider;
+import no.sr.ringo.account.SrAccountNotFoundException;
+import no.sr.ringo.message.InboxEventHub;
+import no.sr.ringo.message.PeppolMessageRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Implements long polling of the inbox, i.e. GET /inbox?wait=30s. If the inbox is empty, the request is suspended
+ * until a message has been received or the time given has elapsed, before being handed over to the REST resource.
+ *
+ * The request is suspended asynchronously, hence no thread is held while waiting. Requests without the "wait"
+ * parameter are passed on untouched.
+ */
+@Singleton      // Required by Google Guice
+public class InboxLongPollFilter implements Filter {
+
+    public static final Logger log = LoggerFactory.getLogger(InboxLongPollFilter.class);
+
+    static final String WAIT_PARAMETER = "wait";
+
+    /** Upper limit of the time to wait, in milliseconds */
+    static final long MAX_WAIT = TimeUnit.SECONDS.toMillis(60);
+
+    private static final Pattern WAIT_PATTERN = Pattern.compile("(\\d{1,9})(ms|s)?");
+
+    private final RingoAccountProvider ringoAccountProvider;
+    private final PeppolMessageRepository peppolMessageRepository;
+    private final InboxEventHub inboxEventHub;
+
+    @Inject
+    public InboxLongPollFilter(RingoAccountProvider ringoAccountProvider, PeppolMessageRepository peppolMessageRepository, InboxEventHub inboxEventHub) {
+        this.ringoAccountProvider = ringoAccountProvider;
+        this.peppolMessageRepository = peppolMessageRepository;
+        this.inboxEventHub = inboxEventHub;
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain) throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) servletRequest;
+        String wait = request.getParameter(WAIT_PARAMETER);
+
+        // Resumed requests, having waited already, are dispatched as ASYNC
+        if (wait == null || !"GET".equals(request.getMethod()) || request.getDispatcherType() != DispatcherType.REQUEST
+                || !request.isAsyncSupported() || request.getUserPrincipal() == null) {
+            chain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+
+        long waitMillis = parseWait(wait);
+        if (waitMillis < 0) {
+            ((HttpServletResponse) servletResponse).sendError(HttpServletResponse.SC_BAD_REQUEST, String.format("Invalid wait '%s'", wait));
+            return;
+        }
+
+        AccountId accountId;
+        try {
+            accountId = ringoAccountProvider.getAccount(request.getUserPrincipal()).getAccountId();
+        } catch (SrAccountNotFoundException e) {
+            // Left to the REST resource to deal with
+            chain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+
+        // Subscribes before counting, not to miss messages received in between
+        Waiter waiter = new Waiter(accountId);
+        inboxEventHub.subscribe(accountId, waiter);
+        if (waitMillis == 0 || peppolMessageRepository.getInboxCount(accountId) > 0) {
+            inboxEventHub.unsubscribe(accountId, waiter);
+            chain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+
+        AsyncContext asyncContext = request.startAsync();
+        asyncContext.setTimeout(waitMillis);
+        asyncContext.addListener(waiter);
+        waiter.suspend(asyncContext);
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    /**
+     * Parses the time to wait given in seconds, optionally suffixed by "s", or in milliseconds suffixed by "ms".
+     *
+     * @return the number of milliseconds, at most {@link #MAX_WAIT}, or -1 if invalid
+     */
+    static long parseWait(String wait) {
+        Matcher matcher = WAIT_PATTERN.matcher(wait.trim());
+        if (!matcher.matches()) {
+            return -1;
+        }
+        long value = Long.parseLong(matcher.group(1));
+        long millis = "ms".equals(matcher.group(2)) ? value : TimeUnit.SECONDS.toMillis(value);
+        return Math.min(millis, MAX_WAIT);
+    }
+
+    /**
+     * A suspended request, dispatched once more when a message has been received or the time has elapsed.
+     */
+    class Waiter implements InboxEventHub.Subscriber, AsyncListener {
+
+        private final AccountId accountId;
+        private AsyncContext asyncContext;
+        private boolean signalled;
+        private boolean resumed;
+
+        Waiter(AccountId accountId) {
+            this.accountId = accountId;
+        }
+
+        synchronized void suspend(AsyncContext asyncContext) {
+            this.asyncContext = asyncContext;
+            if (signalled) {
+                resume();
+            }
+        }
+
+        @Override
+        public synchronized void inboxChanged() {
+            signalled = true;
+            if (asyncContext != null) {
+                resume();
+            }
+        }
+
+        private synchronized void resume() {
+            if (!resumed) {
+                resumed = true;
+                inboxEventHub.unsubscribe(accountId, this);
+                asyncContext.dispatch();
+            }
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException {
+            resume();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) throws IOException {
+            inboxEventHub.unsubscribe(accountId, this);
+        }
+
+        @Override
+        public void onError(AsyncEvent event) throws IOException {
+            inboxEventHub.unsubscribe(accountId, this);
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) throws IOException {
+        }
+    }
+}
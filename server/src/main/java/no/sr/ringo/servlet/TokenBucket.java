@@ -0,0 +1,36 @@
+package no.sr.ringo.servlet;
+
+/**
+ * Admits requests at a steady rate, allowing bursts of up to the capacity of the bucket. The bucket is refilled
+ * continuously, hence an idle client regains its full burst after capacity / rate seconds.
+ */
+class TokenBucket {
+
+    private final double capacity;
+    private final double tokensPerNano;
+    private double tokens;
+    private long refilled;
+
+    TokenBucket(double tokensPerSecond, int capacity, long now) {
+        this.capacity = capacity;
+        this.tokensPerNano = tokensPerSecond / 1e9;
+        this.tokens = capacity;
+        this.refilled = now;
+    }
+
+    /**
+     * Takes a token, if available.
+     *
+     * @param now the current value of {@link System#nanoTime()}
+     * @return 0 if a token was taken, otherwise the nanoseconds until a token is available
+     */
+    synchronized long take(long now) {
+        tokens = Math.min(capacity, tokens + (now - refilled) * tokensPerNano);
+        refilled = now;
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+}
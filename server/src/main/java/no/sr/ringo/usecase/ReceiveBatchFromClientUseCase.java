@@ -0,0 +1,171 @@
+package no.sr.ringo.usecase;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import com.google.inject.servlet.RequestScoped;
+import no.sr.ringo.account.Account;
+import no.sr.ringo.common.UploadMode;
+import no.sr.ringo.config.RingoConfigProperty;
+import no.sr.ringo.email.EmailService;
+import no.sr.ringo.message.*;
+import no.sr.ringo.persistence.guice.jdbc.Transactional;
+import no.sr.ringo.persistence.queue.OutboundMessageQueueId;
+import no.sr.ringo.persistence.queue.OutboundMessageQueueState;
+import no.sr.ringo.persistence.queue.QueueRepository;
+import no.sr.ringo.resource.InvalidUserInputWebException;
+import no.sr.ringo.response.OutboxBatchResponse;
+import no.sr.ringo.validation.AsyncValidationService;
+import no.sr.ringo.validation.DocumentValidator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Receives the documents of a batch upload, see {@link ReceiveMessageFromClientUseCase} for a single document.
+ * <p/>
+ * Every document is spooled and validated as it is received, documents failing being rejected individually.
+ * Once every document has been received, the documents accepted are persisted and placed on the queue in a single
+ * transaction, inserting the rows in JDBC batches. Batches holding more than
+ * {@link RingoConfigProperty#OUTBOX_BATCH_MAX_ENTRIES} documents are rejected as a whole.
+ * This object is stateful in request scope
+ */
+@RequestScoped
+public class ReceiveBatchFromClientUseCase {
+
+    static final Logger log = LoggerFactory.getLogger(ReceiveBatchFromClientUseCase.class);
+
+    private final Account account;
+    private final PeppolMessageRepository messageRepository;
+    private final QueueRepository queueRepository;
+    private final EmailService emailService;
+    private final Path spoolDirectory;
+    private final DocumentValidator documentValidator;
+    private final AsyncValidationService asyncValidationService;
+    private final int maxEntries;
+
+    /** The outcome of every document received, null for documents accepted until persisted */
+    private final List<OutboxBatchResponse.Entry> entries = new ArrayList<>();
+    /** The documents accepted, along with their file names and index in the entries */
+    private final List<PeppolMessage> accepted = new ArrayList<>();
+    private final List<String> acceptedFileNames = new ArrayList<>();
+    private final List<Integer> acceptedIndexes = new ArrayList<>();
+    private List<MessageWithLocations> persisted;
+
+    @Inject
+    ReceiveBatchFromClientUseCase(Account account, PeppolMessageRepository messageRepository, QueueRepository queueRepository, EmailService emailService,
+                                  @Named(RingoConfigProperty.PAYLOAD_BASE_PATH) Path payloadBasePath, DocumentValidator documentValidator,
+                                  AsyncValidationService asyncValidationService,
+                                  @Named(RingoConfigProperty.OUTBOX_BATCH_MAX_ENTRIES) String maxEntries) {
+        this.account = account;
+        this.messageRepository = messageRepository;
+        this.queueRepository = queueRepository;
+        this.emailService = emailService;
+        this.documentValidator = documentValidator;
+        this.asyncValidationService = asyncValidationService;
+        this.maxEntries = Integer.parseInt(maxEntries.trim());
+        // Uploads are spooled within the payload store, allowing them to be moved rather than copied into place
+        this.spoolDirectory = payloadBasePath.resolve("spool");
+    }
+
+    /**
+     * Extracts and validates the header and the document, which is spooled to disk. Documents failing are rejected,
+     * in BATCH upload mode with an email notification, whereas the others are persisted by {@link #complete()}.
+     *
+     * @throws InvalidUserInputWebException if the batch holds too many documents
+     */
+    public void receive(OutboundPostParams postParams) {
+        if (entries.size() >= maxEntries) {
+            throw new InvalidUserInputWebException("Batch holds more than " + maxEntries + " documents");
+        }
+
+        PeppolMessage peppolMessage = null;
+        try {
+            PeppolMessageCreator peppolMessageCreator = new PeppolMessageCreator(account, postParams, spoolDirectory);
+            peppolMessage = peppolMessageCreator.extractHeader();
+
+            PeppolMessageValidator peppolMessageValidator = new PeppolMessageValidator(peppolMessage, postParams, documentValidator);
+            peppolMessageValidator.validateHeader();
+
+            peppolMessageCreator.extractDocument();
+
+            if (account.isValidateUpload() && !isValidatedAsynchronously()) {
+                peppolMessageValidator.validateDocument();
+            }
+        } catch (RuntimeException e) {
+            if (peppolMessage != null) {
+                PeppolMessageCreator.deleteQuietly(peppolMessage.getPayloadPath());
+            }
+            String error = e.getMessage() != null ? e.getMessage() : "Invalid document: " + e;
+            log.debug("Rejecting {} of batch; {}", postParams.getFilename(), error);
+            entries.add(OutboxBatchResponse.Entry.rejected(postParams.getFilename(), error));
+            if (e instanceof InvalidUserInputWebException && UploadMode.BATCH.name().equals(postParams.getUploadMode())) {
+                emailService.sendUploadErrorNotification(account, error, postParams.getFilename());
+            }
+            return;
+        }
+
+        acceptedIndexes.add(entries.size());
+        acceptedFileNames.add(postParams.getFilename());
+        accepted.add(peppolMessage);
+        entries.add(null);
+    }
+
+    /**
+     * Persists the documents accepted and places them on the queue, documents pending validation being handed over
+     * to the validation workers once committed.
+     *
+     * @return the outcome of every document received, in the order received
+     */
+    public List<OutboxBatchResponse.Entry> complete() {
+        if (accepted.isEmpty()) {
+            return entries;
+        }
+
+        boolean pendingValidation = account.isValidateUpload() && isValidatedAsynchronously();
+        List<OutboundMessageQueueId> queueIds;
+        try {
+            queueIds = persistAndQueue(pendingValidation ? OutboundMessageQueueState.PENDING_VALIDATION : OutboundMessageQueueState.QUEUED);
+        } finally {
+            // Once persisted, the spooled payloads have been moved into the payload store
+            discard();
+        }
+
+        for (int i = 0; i < persisted.size(); i++) {
+            MessageWithLocations message = persisted.get(i);
+            if (pendingValidation) {
+                asyncValidationService.submit(queueIds.get(i), message.getMsgNo());
+                entries.set(acceptedIndexes.get(i), OutboxBatchResponse.Entry.accepted(acceptedFileNames.get(i), message, OutboundMessageQueueState.PENDING_VALIDATION.name()));
+            } else {
+                entries.set(acceptedIndexes.get(i), OutboxBatchResponse.Entry.created(acceptedFileNames.get(i), message));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Removes the spooled payloads of the documents accepted, which have not been handed over to the message repository.
+     */
+    public void discard() {
+        for (PeppolMessage peppolMessage : accepted) {
+            PeppolMessageCreator.deleteQuietly(peppolMessage.getPayloadPath());
+        }
+    }
+
+    @Transactional
+    List<OutboundMessageQueueId> persistAndQueue(OutboundMessageQueueState state) {
+        persisted = messageRepository.persistOutboundMessages(account, accepted);
+
+        List<Long> msgNos = new ArrayList<>(persisted.size());
+        for (MessageWithLocations message : persisted) {
+            msgNos.add(message.getMsgNo().toLong());
+        }
+        return queueRepository.putMessagesOnQueue(msgNos, state);
+    }
+
+    private boolean isValidatedAsynchronously() {
+        return asyncValidationService != null && asyncValidationService.isEnabled();
+    }
+}
@@ -2,21 +2,25 @@
 package no.sr.ringo.usecase;
 
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 import com.google.inject.servlet.RequestScoped;
 import no.sr.ringo.account.Account;
 import no.sr.ringo.common.UploadMode;
+import no.sr.ringo.config.RingoConfigProperty;
 import no.sr.ringo.email.EmailService;
 import no.sr.ringo.message.*;
+import no.sr.ringo.persistence.guice.jdbc.Transactional;
 import no.sr.ringo.persistence.queue.OutboundMessageQueueId;
+import no.sr.ringo.persistence.queue.OutboundMessageQueueState;
 import no.sr.ringo.persistence.queue.QueueRepository;
 import no.sr.ringo.resource.InvalidUserInputWebException;
-import no.sr.ringo.xml.EhfEntityExtractor;
+import no.sr.ringo.validation.AsyncValidationService;
+import no.sr.ringo.validation.DocumentValidator;
 import org.apache.commons.lang.StringUtils;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
 
 import javax.ws.rs.WebApplicationException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 /**
  * Complete use case which will verify the supplied parameters and persistOutboundMessage the message.
@@ -27,8 +31,6 @@ import javax.ws.rs.WebApplicationException;
 @RequestScoped
 public class ReceiveMessageFromClientUseCase {
 
-    static final Logger log = LoggerFactory.getLogger(ReceiveMessageFromClientUseCase.class);
-
     private final Account account;
     private final PeppolMessageRepository messageRepository;
     private final QueueRepository queueRepository;
@@ -38,26 +40,49 @@ public class ReceiveMessageFromClientUseCase {
     private final EmailService emailService;
     private PeppolMessageCreator peppolMessageCreator;
     private PeppolMessageValidator peppolMessageValidator;
+    private final Path spoolDirectory;
+    private final DocumentValidator documentValidator;
+    private final AsyncValidationService asyncValidationService;
+    private final OutboxIdempotencyKeys outboxIdempotencyKeys;
+    private boolean pendingValidation;
+    private OutboundMessageQueueId queueId;
 
 
-    @Inject
     ReceiveMessageFromClientUseCase(Account account, PeppolMessageRepository messageRepository, QueueRepository queueRepository, EmailService emailService) {
+        this(account, messageRepository, queueRepository, emailService, Paths.get(System.getProperty("java.io.tmpdir")), null, null, null);
+    }
+
+    @Inject
+    ReceiveMessageFromClientUseCase(Account account, PeppolMessageRepository messageRepository, QueueRepository queueRepository, EmailService emailService,
+                                    @Named(RingoConfigProperty.PAYLOAD_BASE_PATH) Path payloadBasePath, DocumentValidator documentValidator,
+                                    AsyncValidationService asyncValidationService, OutboxIdempotencyKeys outboxIdempotencyKeys) {
         this.account = account;
         this.messageRepository = messageRepository;
         this.queueRepository = queueRepository;
         this.emailService = emailService;
+        this.documentValidator = documentValidator;
+        this.asyncValidationService = asyncValidationService;
+        this.outboxIdempotencyKeys = outboxIdempotencyKeys;
+        // Uploads are spooled within the payload store, allowing them to be moved rather than copied into place
+        this.spoolDirectory = payloadBasePath.resolve("spool");
     }
 
     /**
      * Creates PeppolMessage and validates it, extracts invoiceNo  and persists message + the queue.
      * If anything goes wrong in case of batch upload, message notification is sent and InvalidUserInputWebException is rethrown
      * setting 400 in response.
+     *
+     * With asynchronous validation enabled, the document is validated after the message has been persisted and
+     * placed on the queue, pending validation. See {@link #isPendingValidation()}.
+     *
+     * The Idempotency-Key of the upload, if any, is completed within the transaction persisting the message.
      */
     public MessageWithLocations handleMessage(OutboundPostParams postParams) {
         this.postParams = postParams;
 
         extractUploadMode();
 
+        MessageWithLocations messageWithLocations;
         try {
 
             //it's important to fail fast, that's why extraction and validation is split into 2 parts.
@@ -71,38 +96,55 @@ public class ReceiveMessageFromClientUseCase {
 
             validateDocument();
 
+            messageWithLocations = persistAndQueue();
+
         } catch (InvalidUserInputWebException webException) {
             if (UploadMode.BATCH.equals(uploadMode)) {
                 handleInvalidInputException(webException);
             }
             throw webException;
+        } finally {
+            // Once persisted, the spooled payload has been moved into the payload store
+            if (peppolMessage != null) {
+                PeppolMessageCreator.deleteQuietly(peppolMessage.getPayloadPath());
+            }
         }
 
-        MessageWithLocations messageWithLocations = persistOutboundMessage(account);
-
-        // Places the message number into the outbound queue
-        queueMessage(messageWithLocations);
+        if (pendingValidation) {
+            asyncValidationService.submit(queueId, messageWithLocations.getMsgNo());
+        }
 
         return messageWithLocations;
     }
 
     private void validateDocument() {
         if (account.isValidateUpload()) {
-            peppolMessageValidator.validateDocument();
+            if (asyncValidationService != null && asyncValidationService.isEnabled()) {
+                pendingValidation = true;
+            } else {
+                peppolMessageValidator.validateDocument();
+            }
         }
     }
 
+    /**
+     * @return true if the message handled has been accepted, but is yet to be validated
+     */
+    public boolean isPendingValidation() {
+        return pendingValidation;
+    }
+
     private void extractDocument() {
         peppolMessage = peppolMessageCreator.extractDocument();
     }
 
     private void validateHeader(OutboundPostParams postParams) {
-        peppolMessageValidator = new PeppolMessageValidator(peppolMessage, postParams);
+        peppolMessageValidator = new PeppolMessageValidator(peppolMessage, postParams, documentValidator);
         peppolMessageValidator.validateHeader();
     }
 
     private void extractHeader(OutboundPostParams postParams) {
-        peppolMessageCreator = new PeppolMessageCreator(account, postParams);
+        peppolMessageCreator = new PeppolMessageCreator(account, postParams, spoolDirectory);
         try {
             peppolMessage = peppolMessageCreator.extractHeader();
         } catch (Exception e) {
@@ -111,6 +153,24 @@ public class ReceiveMessageFromClientUseCase {
     }
 
 
+    /**
+     * Persists the message and places it on the queue, completing the Idempotency-Key of the upload, if any, within
+     * the same transaction. A retried upload hence either finds the message, or is free to create it.
+     */
+    @Transactional
+    MessageWithLocations persistAndQueue() {
+        MessageWithLocations messageWithLocations = persistOutboundMessage(account);
+
+        // Places the message number into the outbound queue
+        queueId = queueMessage(messageWithLocations);
+
+        if (postParams.getIdempotencyKey() != null) {
+            outboxIdempotencyKeys.complete(account.getAccountId(), postParams.getIdempotencyKey(), messageWithLocations.getMsgNo(),
+                    postParams.getRequestDigest().getValue());
+        }
+        return messageWithLocations;
+    }
+
     /**
      * Store message in db, even though it might not be valid
      */
@@ -125,26 +185,14 @@ public class ReceiveMessageFromClientUseCase {
     }
 
     /**
-     * As message is valid, we put it on the queue
+     * As message is valid, we put it on the queue. Messages pending validation are handed over to the validation
+     * workers once queued.
      */
     protected OutboundMessageQueueId queueMessage(MessageWithLocations message) {
-        return queueRepository.putMessageOnQueue(message.getMsgNo().toLong());
-    }
-
-    protected String extractInvoiceNoFromDocument(Document document) {
-        EhfEntityExtractor ehfEntityExtractor = new EhfEntityExtractor(document);
-        String result = null;
-        try {
-            result = ehfEntityExtractor.extractInvoiceNo();
-        } catch (Exception e) {
-            log.error("Unable to retrieve InvoiceNo, continue processing", e);
-        }
-
-        if (result == null) {
-            log.warn(String.format("InvoiceNo not extracted from xml document with msg_no = %d", peppolMessage.getMsgNo()));
+        if (!pendingValidation) {
+            return queueRepository.putMessageOnQueue(message.getMsgNo().toLong());
         }
-
-        return result;
+        return queueRepository.putMessageOnQueue(message.getMsgNo().toLong(), OutboundMessageQueueState.PENDING_VALIDATION);
     }
 
     /**
@@ -0,0 +1,226 @@
+package no.sr.ringo.validation;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import no.sr.ringo.account.Account;
+import no.sr.ringo.account.AccountRepository;
+import no.sr.ringo.config.RingoConfigProperty;
+import no.sr.ringo.email.EmailService;
+import no.sr.ringo.message.MessageMetaData;
+import no.sr.ringo.message.MessageNumber;
+import no.sr.ringo.message.PeppolMessageRepository;
+import no.sr.ringo.message.PeppolMessageValidator;
+import no.sr.ringo.persistence.file.ArtifactReader;
+import no.sr.ringo.persistence.queue.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Validates uploads off the request thread. Uploads are persisted in state
+ * {@link OutboundMessageQueueState#PENDING_VALIDATION} and handed over to a bounded pool of workers, which promote
+ * them to {@link OutboundMessageQueueState#QUEUED} or mark them {@link OutboundMessageQueueState#VALIDATION_FAILED},
+ * notifying the owner of the message by email.
+ *
+ * Uploads not fitting into the work queue, or left pending by a restart, are picked up by a periodic sweep of the
+ * outbound queue.
+ *
+ * @see RingoConfigProperty#VALIDATION_ASYNC
+ */
+@Singleton
+public class AsyncValidationService {
+
+    static final Logger log = LoggerFactory.getLogger(AsyncValidationService.class);
+
+    /** Interval, in seconds, between sweeps for pending uploads */
+    static final long SWEEP_INTERVAL = 60;
+
+    private final QueueRepository queueRepository;
+    private final PeppolMessageRepository peppolMessageRepository;
+    private final AccountRepository accountRepository;
+    private final EmailService emailService;
+    private final DocumentValidator documentValidator;
+    private final ArtifactReader artifactReader;
+
+    private final boolean enabled;
+    private final int queueSize;
+    private final Set<OutboundMessageQueueId> inProgress = ConcurrentHashMap.newKeySet();
+
+    private ThreadPoolExecutor executor;
+    private ScheduledExecutorService sweeper;
+
+    @Inject
+    public AsyncValidationService(QueueRepository queueRepository, PeppolMessageRepository peppolMessageRepository,
+                                  AccountRepository accountRepository, EmailService emailService,
+                                  DocumentValidator documentValidator, ArtifactReader artifactReader,
+                                  @Named(RingoConfigProperty.VALIDATION_ASYNC) String enabled,
+                                  @Named(RingoConfigProperty.VALIDATION_WORKERS) String workers,
+                                  @Named(RingoConfigProperty.VALIDATION_QUEUE_SIZE) String queueSize) {
+        this.queueRepository = queueRepository;
+        this.peppolMessageRepository = peppolMessageRepository;
+        this.accountRepository = accountRepository;
+        this.emailService = emailService;
+        this.documentValidator = documentValidator;
+        this.artifactReader = artifactReader;
+        this.enabled = Boolean.parseBoolean(enabled);
+        this.queueSize = Integer.parseInt(queueSize);
+
+        if (this.enabled) {
+            start(Integer.parseInt(workers));
+        }
+    }
+
+    private void start(int workers) {
+        executor = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), daemonThreadFactory("ringo-validation"), new ThreadPoolExecutor.AbortPolicy());
+
+        sweeper = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("ringo-validation-sweeper"));
+        sweeper.scheduleWithFixedDelay(this::sweep, 0, SWEEP_INTERVAL, TimeUnit.SECONDS);
+
+        log.info("Asynchronous validation enabled using {} workers", workers);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Schedules validation of the message queued in state {@link OutboundMessageQueueState#PENDING_VALIDATION}.
+     * If all workers are busy and the work queue is full, the message is left pending for the next sweep.
+     */
+    public void submit(OutboundMessageQueueId queueId, MessageNumber messageNumber) {
+        if (!enabled || !inProgress.add(queueId)) {
+            return;
+        }
+        try {
+            executor.execute(() -> validate(queueId, messageNumber));
+        } catch (RejectedExecutionException e) {
+            inProgress.remove(queueId);
+            log.debug("Validation queue is full, message {} is left pending", messageNumber);
+        }
+    }
+
+    /**
+     * Submits the messages still pending validation, oldest first.
+     */
+    void sweep() {
+        try {
+            List<QueuedOutboundMessage> pending = queueRepository.getQueuedMessages(OutboundMessageQueueState.PENDING_VALIDATION, queueSize);
+            for (QueuedOutboundMessage queuedMessage : pending) {
+                submit(queuedMessage.getOutboundQueueId(), queuedMessage.getMessageNumber());
+            }
+        } catch (Exception e) {
+            log.error("Unable to retrieve messages pending validation; " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Validates the payload of the message and promotes or fails the queue entry accordingly. Messages which could
+     * not be validated at all, are left pending and retried by the next sweep.
+     */
+    void validate(OutboundMessageQueueId queueId, MessageNumber messageNumber) {
+        try {
+            MessageMetaData messageMetaData = peppolMessageRepository.findMessageByMessageNo(messageNumber);
+            ValidationResult result = validatePayload(messageMetaData);
+
+            if (result.isValid()) {
+                if (queueRepository.changeQueuedMessageState(queueId, OutboundMessageQueueState.PENDING_VALIDATION, OutboundMessageQueueState.QUEUED)) {
+                    log.debug("Message {} validated and queued", messageNumber);
+                }
+            } else {
+                fail(queueId, messageNumber, result);
+            }
+        } catch (Exception e) {
+            log.error("Unable to validate message " + messageNumber + ", will be retried; " + e.getMessage(), e);
+        } finally {
+            inProgress.remove(queueId);
+        }
+    }
+
+    private ValidationResult validatePayload(MessageMetaData messageMetaData) throws IOException {
+        URI payloadUri = messageMetaData.getPayloadUri();
+        if ("file".equals(payloadUri.getScheme())) {
+            return documentValidator.validate(messageMetaData.getPeppolHeader().getPeppolDocumentTypeId(), Paths.get(payloadUri));
+        }
+
+        // Payloads not held in plain files are copied into one, as required by the validator
+        Path copy = Files.createTempFile("validate-", ".xml");
+        try {
+            try (InputStream inputStream = artifactReader.openStream(payloadUri)) {
+                Files.copy(inputStream, copy, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return documentValidator.validate(messageMetaData.getPeppolHeader().getPeppolDocumentTypeId(), copy);
+        } finally {
+            Files.deleteIfExists(copy);
+        }
+    }
+
+    private void fail(OutboundMessageQueueId queueId, MessageNumber messageNumber, ValidationResult result) {
+        if (!queueRepository.changeQueuedMessageState(queueId, OutboundMessageQueueState.PENDING_VALIDATION, OutboundMessageQueueState.VALIDATION_FAILED)) {
+            return;
+        }
+
+        String errorMessage = PeppolMessageValidator.getErrorMessage(result);
+        queueRepository.logOutboundError(new QueuedOutboundMessageError(queueId, errorMessage, errorMessage, null));
+        log.info("Message {} failed validation", messageNumber);
+
+        Account account = accountRepository.findAccountAsOwnerOfMessage(messageNumber);
+        if (account != null) {
+            emailService.sendProcessingErrorNotification(account, errorMessage, messageNumber);
+        }
+    }
+
+    /**
+     * Provides the validation status of the message, if it was validated asynchronously and has not
+     * been promoted to the outbound queue.
+     *
+     * @return the status or null if the message is not pending nor has failed validation
+     */
+    public ValidationStatus getValidationStatus(MessageNumber messageNumber) {
+        QueuedOutboundMessage queuedMessage = queueRepository.getQueuedMessageByMessageNo(messageNumber);
+        if (queuedMessage == null) {
+            return null;
+        }
+
+        switch (queuedMessage.getState()) {
+            case PENDING_VALIDATION:
+                return new ValidationStatus(queuedMessage.getState(), null);
+            case VALIDATION_FAILED:
+                QueuedOutboundMessageError error = queueRepository.getLastOutboundError(queuedMessage.getOutboundQueueId());
+                return new ValidationStatus(queuedMessage.getState(), error == null ? null : error.getDetails());
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Stops the workers, leaving messages not yet validated pending.
+     */
+    public void shutdown() {
+        if (enabled) {
+            sweeper.shutdownNow();
+            executor.shutdownNow();
+        }
+    }
+
+    private static ThreadFactory daemonThreadFactory(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,129 @@
+package no.sr.ringo.validation;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import no.difi.vefa.peppol.common.model.DocumentTypeIdentifier;
+import no.sr.ringo.config.RingoConfigProperty;
+import no.sr.ringo.xml.XmlFactories;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.FileEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Collections;
+
+/**
+ * Validates documents by posting them to an external validation service, which responds with an XML document
+ * holding a {@code <status>} element of either {@code ok}, {@code error} or {@code fatal}.
+ * <p>
+ * Responses other than 2xx are failures of the service rather than verdicts on the document, and are reported by
+ * throwing {@link IllegalStateException}.
+ * <p>
+ * Connections to the service are pooled and kept alive between requests.
+ */
+@Singleton
+public class HttpDocumentValidator implements DocumentValidator {
+
+    private static final Logger log = LoggerFactory.getLogger(HttpDocumentValidator.class);
+
+    static final int MAX_CONNECTIONS = 20;
+
+    private final String url;
+    private final CloseableHttpClient httpClient;
+
+    @Inject
+    public HttpDocumentValidator(@Named(RingoConfigProperty.VALIDATION_URL) String url,
+                                 @Named(RingoConfigProperty.VALIDATION_TIMEOUT) String timeoutInMillis) {
+        this.url = url;
+
+        int timeout = Integer.parseInt(timeoutInMillis.trim());
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(timeout)
+                .setConnectionRequestTimeout(timeout)
+                .setSocketTimeout(timeout)
+                .build();
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(MAX_CONNECTIONS);
+        connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS);
+
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setUserAgent("Ringo Server")
+                .build();
+    }
+
+    @Override
+    public ValidationResult validate(DocumentTypeIdentifier documentTypeIdentifier, Path document) {
+        HttpPost httpPost = new HttpPost(url);
+        httpPost.setEntity(new FileEntity(document.toFile(), ContentType.APPLICATION_XML));
+
+        String result;
+        int statusCode;
+        try (CloseableHttpResponse response = httpClient.execute(httpPost)) {
+            // Consuming the entity completely releases the connection back to the pool
+            result = response.getEntity() == null ? null : EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+            statusCode = response.getStatusLine().getStatusCode();
+            log.debug("Validation service at {} responded with {}", url, response.getStatusLine());
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to validate document using " + url + "; " + e.getMessage(), e);
+        }
+
+        if (statusCode < 200 || statusCode >= 300) {
+            throw new IllegalStateException("Unable to validate document using " + url + "; responded with " + statusCode + " " + result);
+        }
+        return parseResponse(result);
+    }
+
+    /**
+     * Reads the first {@code <status>} element of the response, in any namespace.
+     */
+    static ValidationResult parseResponse(String result) {
+        if (result == null) {
+            return ValidationResult.fatal("XmlDocument was not validated - got null response");
+        }
+
+        String status = null;
+        try {
+            XMLStreamReader reader = XmlFactories.xmlInputFactory().createXMLStreamReader(new StringReader(result));
+            try {
+                while (status == null && reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT && "status".equals(reader.getLocalName())) {
+                        status = reader.getElementText().trim();
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            return ValidationResult.fatal("XmlDocument was not validated - unable to parse response; " + e.getMessage() + "\n" + result);
+        }
+
+        if ("ok".equalsIgnoreCase(status)) {
+            return ValidationResult.ok();
+        }
+        if ("error".equalsIgnoreCase(status)) {
+            return new ValidationResult(ValidationResult.Status.ERROR, Collections.singletonList(result));
+        }
+        if ("fatal".equalsIgnoreCase(status)) {
+            return ValidationResult.fatal(result);
+        }
+        return ValidationResult.fatal("XmlDocument was not validated - unexpected status " + status + " in response\n" + result);
+    }
+}
@@ -0,0 +1,384 @@
+package no.sr.ringo.validation;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import no.difi.vefa.peppol.common.model.DocumentTypeIdentifier;
+import no.sr.ringo.config.RingoConfigProperty;
+import no.sr.ringo.metrics.jfr.EventEmitter;
+import no.sr.ringo.metrics.jfr.FlightRecorderSupport;
+import no.sr.ringo.xml.XmlFactories;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Validates documents within the JVM, using XML schemas and schematron rules which have been compiled into XSLT.
+ * <p>
+ * Every sub directory of the rules directory holding a {@code ruleset.properties} file describes the rules for a
+ * document type and customization ID:
+ * <pre>
+ *     documentType=urn:oasis:names:specification:ubl:schema:xsd:Invoice-2::Invoice
+ *     customizationId=urn:www.cenbii.eu:transaction:biitrns010:ver2.0:extended:...
+ *     schema=xsd/maindoc/UBL-Invoice-2.1.xsd
+ *     schematron=EHF-UBL-T10.xsl,BIIRULES-UBL-T10.xsl
+ * </pre>
+ * The compiled {@link Schema} and {@link Templates} are thread safe and are cached once compiled, the document is
+ * read once for the schema and once for every schematron.
+ * <p>
+ * Documents are parsed with DTDs disallowed, hence documents declaring a DTD or external entities are rejected as
+ * not well formed.
+ * <p>
+ * Schematron rules compiled for XSLT 2.0 require an XSLT 2.0 processor like Saxon on the class path.
+ */
+@Singleton
+public class InProcessDocumentValidator implements DocumentValidator {
+
+    private static final Logger log = LoggerFactory.getLogger(InProcessDocumentValidator.class);
+
+    static final String RULESET_PROPERTIES = "ruleset.properties";
+
+    /** Schema validation is abandoned after this number of errors */
+    static final int MAX_SCHEMA_ERRORS = 50;
+
+    private final Path rulesDirectory;
+
+    private volatile Map<RuleSetKey, Path> ruleSets;
+
+    private final ConcurrentHashMap<RuleSetKey, CompiledRuleSet> compiledRuleSets = new ConcurrentHashMap<>();
+
+    @Inject
+    public InProcessDocumentValidator(@Named(RingoConfigProperty.VALIDATION_RULES_PATH) String rulesDirectory) {
+        this(Paths.get(rulesDirectory));
+    }
+
+    public InProcessDocumentValidator(Path rulesDirectory) {
+        this.rulesDirectory = rulesDirectory;
+    }
+
+    @Override
+    public ValidationResult validate(DocumentTypeIdentifier documentTypeIdentifier, Path document) {
+        RuleSetKey key = RuleSetKey.of(documentTypeIdentifier.getIdentifier());
+        if (key == null || !findRuleSets().containsKey(key)) {
+            return ValidationResult.fatal("No validation rules for document type " + documentTypeIdentifier.getIdentifier());
+        }
+
+        CompiledRuleSet compiledRuleSet = compiledRuleSets.computeIfAbsent(key, k -> compile(findRuleSets().get(k)));
+
+        EventEmitter.XmlProcessing event = FlightRecorderSupport.emitter().beginXmlProcessing();
+        ValidationResult result = validate(compiledRuleSet, document);
+        if (event.shouldCommit()) {
+            event.commit(EventEmitter.XmlProcessing.VALIDATE, document.toFile().length(), result.getStatus() == ValidationResult.Status.OK);
+        }
+        return result;
+    }
+
+    private ValidationResult validate(CompiledRuleSet compiledRuleSet, Path document) {
+        List<String> errors = new ArrayList<>();
+        List<String> warnings = new ArrayList<>();
+        try {
+            if (compiledRuleSet.schema != null) {
+                validateSchema(compiledRuleSet.schema, document, errors);
+            }
+            // Business rules are only meaningful for documents conforming to the schema
+            if (errors.isEmpty()) {
+                for (Templates schematron : compiledRuleSet.schematrons) {
+                    validateSchematron(schematron, document, errors, warnings);
+                }
+            }
+        } catch (SAXParseException e) {
+            return ValidationResult.fatal("Document is not well formed: " + e.getMessage());
+        } catch (SAXException | TransformerException | IOException e) {
+            throw new IllegalStateException("Unable to validate " + document + "; " + e.getMessage(), e);
+        }
+
+        if (!errors.isEmpty()) {
+            return new ValidationResult(ValidationResult.Status.ERROR, errors);
+        }
+        return new ValidationResult(ValidationResult.Status.OK, warnings);
+    }
+
+    void validateSchema(Schema schema, Path document, List<String> errors) throws SAXException, IOException {
+        Validator validator = schema.newValidator();
+        validator.setErrorHandler(new ErrorHandler() {
+            @Override
+            public void warning(SAXParseException e) {
+            }
+
+            @Override
+            public void error(SAXParseException e) throws SAXException {
+                errors.add(format(e));
+                if (errors.size() >= MAX_SCHEMA_ERRORS) {
+                    throw e;
+                }
+            }
+
+            @Override
+            public void fatalError(SAXParseException e) throws SAXException {
+                throw e;
+            }
+        });
+
+        try (InputStream inputStream = Files.newInputStream(document)) {
+            validator.validate(documentSource(inputStream, document));
+        } catch (SAXParseException e) {
+            if (errors.size() < MAX_SCHEMA_ERRORS) {
+                throw e;    // not well formed
+            }
+        }
+    }
+
+    void validateSchematron(Templates schematron, Path document, List<String> errors, List<String> warnings) throws SAXException, TransformerException, IOException {
+        SvrlHandler svrlHandler = new SvrlHandler(errors, warnings);
+        try (InputStream inputStream = Files.newInputStream(document)) {
+            schematron.newTransformer().transform(documentSource(inputStream, document), new SAXResult(svrlHandler));
+        } catch (TransformerException e) {
+            if (e.getException() instanceof SAXParseException) {
+                throw (SAXParseException) e.getException();    // not well formed
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return the document to be read by a parser rejecting DTDs and external entities
+     */
+    static SAXSource documentSource(InputStream inputStream, Path document) throws SAXException {
+        SAXParserFactory saxParserFactory = XmlFactories.saxParserFactory();
+        XMLReader xmlReader;
+        try {
+            synchronized (saxParserFactory) {
+                xmlReader = saxParserFactory.newSAXParser().getXMLReader();
+            }
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException("Unable to create XML parser; " + e.getMessage(), e);
+        }
+        InputSource inputSource = new InputSource(inputStream);
+        inputSource.setSystemId(document.toUri().toString());
+        return new SAXSource(xmlReader, inputSource);
+    }
+
+    /**
+     * Locates the rule sets available, once.
+     */
+    Map<RuleSetKey, Path> findRuleSets() {
+        if (ruleSets == null) {
+            synchronized (this) {
+                if (ruleSets == null) {
+                    ruleSets = scanRulesDirectory();
+                }
+            }
+        }
+        return ruleSets;
+    }
+
+    private Map<RuleSetKey, Path> scanRulesDirectory() {
+        Map<RuleSetKey, Path> result = new HashMap<>();
+        if (!Files.isDirectory(rulesDirectory)) {
+            log.warn("Validation rules directory " + rulesDirectory + " does not exist");
+            return result;
+        }
+        try (DirectoryStream<Path> directories = Files.newDirectoryStream(rulesDirectory, Files::isDirectory)) {
+            for (Path directory : directories) {
+                Path propertiesFile = directory.resolve(RULESET_PROPERTIES);
+                if (Files.exists(propertiesFile)) {
+                    Properties properties = loadProperties(propertiesFile);
+                    RuleSetKey key = new RuleSetKey(properties.getProperty("documentType"), properties.getProperty("customizationId"));
+                    result.put(key, propertiesFile);
+                    log.info("Found validation rules " + key + " in " + directory);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to scan validation rules in " + rulesDirectory + "; " + e.getMessage(), e);
+        }
+        return result;
+    }
+
+    CompiledRuleSet compile(Path propertiesFile) {
+        Properties properties = loadProperties(propertiesFile);
+        Path directory = propertiesFile.getParent();
+        long start = System.currentTimeMillis();
+
+        Schema schema = null;
+        String schemaName = properties.getProperty("schema", "").trim();
+        if (!schemaName.isEmpty()) {
+            try {
+                // Schema factories are neither thread safe nor re-entrant, compilation is rare however
+                SchemaFactory schemaFactory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+                schema = schemaFactory.newSchema(directory.resolve(schemaName).toFile());
+            } catch (SAXException e) {
+                throw new IllegalStateException("Unable to compile schema " + schemaName + " in " + directory + "; " + e.getMessage(), e);
+            }
+        }
+
+        List<Templates> schematrons = new ArrayList<>();
+        TransformerFactory transformerFactory = XmlFactories.transformerFactory();
+        for (String schematronName : properties.getProperty("schematron", "").split(",")) {
+            if (schematronName.trim().isEmpty()) {
+                continue;
+            }
+            Path xslt = directory.resolve(schematronName.trim());
+            try {
+                synchronized (transformerFactory) {
+                    schematrons.add(transformerFactory.newTemplates(new StreamSource(xslt.toFile())));
+                }
+            } catch (TransformerConfigurationException e) {
+                throw new IllegalStateException("Unable to compile schematron " + xslt + "; " + e.getMessage(), e);
+            }
+        }
+
+        log.info("Compiled validation rules in " + directory + " in " + (System.currentTimeMillis() - start) + "ms");
+        return new CompiledRuleSet(schema, schematrons);
+    }
+
+    private static Properties loadProperties(Path propertiesFile) {
+        Properties properties = new Properties();
+        try (InputStream inputStream = Files.newInputStream(propertiesFile)) {
+            properties.load(inputStream);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to load " + propertiesFile + "; " + e.getMessage(), e);
+        }
+        return properties;
+    }
+
+    private static String format(SAXParseException e) {
+        return "[" + e.getLineNumber() + ":" + e.getColumnNumber() + "] " + e.getMessage();
+    }
+
+    static class CompiledRuleSet {
+        final Schema schema;
+        final List<Templates> schematrons;
+
+        CompiledRuleSet(Schema schema, List<Templates> schematrons) {
+            this.schema = schema;
+            this.schematrons = schematrons;
+        }
+    }
+
+    /**
+     * Identifies a rule set by the document type, i.e. root element namespace and local name, and the customization ID.
+     */
+    static class RuleSetKey {
+        private final String documentType;
+        private final String customizationId;
+
+        RuleSetKey(String documentType, String customizationId) {
+            this.documentType = documentType == null ? "" : documentType.trim();
+            this.customizationId = customizationId == null ? "" : customizationId.trim();
+        }
+
+        /**
+         * Parses a PEPPOL document type identifier like {@code rootNamespace::localName##customizationId::version}
+         *
+         * @return the key or null if the identifier could not be parsed.
+         */
+        static RuleSetKey of(String documentTypeIdentifier) {
+            int hashes = documentTypeIdentifier.indexOf("##");
+            if (hashes < 0) {
+                return null;
+            }
+            String customizationAndVersion = documentTypeIdentifier.substring(hashes + 2);
+            int versionSeparator = customizationAndVersion.lastIndexOf("::");
+            String customizationId = versionSeparator < 0 ? customizationAndVersion : customizationAndVersion.substring(0, versionSeparator);
+            return new RuleSetKey(documentTypeIdentifier.substring(0, hashes), customizationId);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            RuleSetKey that = (RuleSetKey) o;
+            return documentType.equals(that.documentType) && customizationId.equals(that.customizationId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(documentType, customizationId);
+        }
+
+        @Override
+        public String toString() {
+            return documentType + "##" + customizationId;
+        }
+    }
+
+    /**
+     * Collects the failed assertions of a Schematron Validation Report Language (SVRL) document as it is produced.
+     */
+    static class SvrlHandler extends DefaultHandler {
+        static final String SVRL_NS = "http://purl.oclc.org/dsdl/svrl";
+
+        private final List<String> errors;
+        private final List<String> warnings;
+        private String flag;
+        private String location;
+        private StringBuilder text;
+
+        SvrlHandler(List<String> errors, List<String> warnings) {
+            this.errors = errors;
+            this.warnings = warnings;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            if (SVRL_NS.equals(uri) && "failed-assert".equals(localName)) {
+                // The flag is optional, assertions without one are treated as errors
+                flag = attributes.getValue("flag") == null ? "error" : attributes.getValue("flag");
+                location = attributes.getValue("location");
+            } else if (SVRL_NS.equals(uri) && "text".equals(localName) && flag != null) {
+                text = new StringBuilder();
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (text != null) {
+                text.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            if (SVRL_NS.equals(uri) && "text".equals(localName) && text != null) {
+                String message = "[" + flag + "] " + text.toString().trim() + (location == null ? "" : " (" + location + ")");
+                if ("warning".equalsIgnoreCase(flag)) {
+                    warnings.add(message);
+                } else {
+                    errors.add(message);
+                }
+                text = null;
+            } else if (SVRL_NS.equals(uri) && "failed-assert".equals(localName)) {
+                flag = null;
+                location = null;
+            }
+        }
+    }
+}
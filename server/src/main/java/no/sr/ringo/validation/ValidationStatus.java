@@ -0,0 +1,33 @@
+package no.sr.ringo.validation;
+
+import no.sr.ringo.persistence.queue.OutboundMessageQueueState;
+
+/**
+ * Validation status of a message validated asynchronously.
+ */
+public class ValidationStatus {
+
+    private final OutboundMessageQueueState state;
+    private final String error;
+
+    public ValidationStatus(OutboundMessageQueueState state, String error) {
+        this.state = state;
+        this.error = error;
+    }
+
+    public OutboundMessageQueueState getState() {
+        return state;
+    }
+
+    /**
+     * @return the error reported by the validator or null if still pending
+     */
+    public String getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return state + (error == null ? "" : ": " + error);
+    }
+}
@@ -0,0 +1,353 @@
+package no.sr.ringo.webhook;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import no.sr.ringo.account.AccountId;
+import no.sr.ringo.config.RingoConfigProperty;
+import no.sr.ringo.message.*;
+import no.sr.ringo.persistence.file.ArtifactReader;
+import no.sr.ringo.persistence.webhook.Webhook;
+import no.sr.ringo.persistence.webhook.WebhookDelivery;
+import no.sr.ringo.persistence.webhook.WebhookRepository;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes inbound messages to the webhooks registered by the receiving accounts, marking the messages as read once
+ * the webhook has accepted them with a 2xx response.
+ *
+ * The pushes are scheduled in the database by the repository saving the message, and picked up by sweeps of the
+ * due deliveries, run whenever a message has been saved by this node and every {@link #SWEEP_INTERVAL} seconds.
+ * A delivery is claimed for a limited period, and only once a worker is free to push it, hence pushes interrupted by
+ * a restart are resumed by any node once the claim has expired. The outcome is recorded only as long as the claim has
+ * not been taken over by another node. Failed pushes are retried with an exponential back-off, until
+ * {@link RingoConfigProperty#WEBHOOK_MAX_ATTEMPTS} attempts have been made.
+ *
+ * Each request is signed using the secret of the webhook, by a header {@value #SIGNATURE_HEADER} holding
+ * "sha256=" followed by the hex encoded HMAC-SHA256 of the value of {@value #TIMESTAMP_HEADER}, a period and the body.
+ * Messages are pushed at least once; receivers should use {@value #DELIVERY_HEADER} or the UUID of the message to
+ * discard duplicates.
+ */
+@Singleton
+public class WebhookDispatcher implements InboxNotifier.Listener {
+
+    static final Logger log = LoggerFactory.getLogger(WebhookDispatcher.class);
+
+    static final String DELIVERY_HEADER = "X-Ringo-Delivery";
+    static final String MESSAGE_NO_HEADER = "X-Ringo-Message-No";
+    static final String TIMESTAMP_HEADER = "X-Ringo-Timestamp";
+    static final String SIGNATURE_HEADER = "X-Ringo-Signature";
+
+    static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    /** Interval, in seconds, between sweeps for due deliveries */
+    static final long SWEEP_INTERVAL = 10;
+
+    /** Maximum number of deliveries picked up by a single sweep */
+    static final int SWEEP_SIZE = 100;
+
+    /** Delay of the first retry, doubled for each failed attempt, up to {@link #MAX_RETRY_DELAY} */
+    static final long RETRY_DELAY = TimeUnit.SECONDS.toMillis(30);
+    static final long MAX_RETRY_DELAY = TimeUnit.HOURS.toMillis(1);
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final WebhookRepository webhookRepository;
+    private final PeppolMessageRepository peppolMessageRepository;
+    private final ArtifactReader artifactReader;
+
+    private final int concurrency;
+    private final int maxAttempts;
+    private final long lease;
+
+    private final CloseableHttpClient httpClient;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService sweeper;
+
+    /** Permits limiting the number of deliveries claimed to the number of workers, so none waits for one */
+    private final Semaphore freeWorkers;
+
+    /** Permits limiting the number of requests in progress, per webhook URL */
+    private final Map<URI, Semaphore> permits = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean sweepRequested = new AtomicBoolean();
+
+    /** Set when due deliveries were left behind by a sweep, as all workers or permits were taken */
+    private volatile boolean backlog;
+
+    @Inject
+    public WebhookDispatcher(WebhookRepository webhookRepository, PeppolMessageRepository peppolMessageRepository,
+                             ArtifactReader artifactReader, InboxNotifier inboxNotifier,
+                             @Named(RingoConfigProperty.WEBHOOK_WORKERS) String workers,
+                             @Named(RingoConfigProperty.WEBHOOK_CONCURRENCY) String concurrency,
+                             @Named(RingoConfigProperty.WEBHOOK_TIMEOUT) String timeoutInMillis,
+                             @Named(RingoConfigProperty.WEBHOOK_MAX_ATTEMPTS) String maxAttempts) {
+        this.webhookRepository = webhookRepository;
+        this.peppolMessageRepository = peppolMessageRepository;
+        this.artifactReader = artifactReader;
+        this.concurrency = Integer.parseInt(concurrency.trim());
+        this.maxAttempts = Integer.parseInt(maxAttempts.trim());
+
+        int timeout = Integer.parseInt(timeoutInMillis.trim());
+        // The claim outlives a request timing out while connecting, as well as while reading the response
+        this.lease = 3L * timeout;
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(timeout)
+                .setConnectionRequestTimeout(timeout)
+                .setSocketTimeout(timeout)
+                .build();
+
+        int threads = Integer.parseInt(workers.trim());
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(threads);
+        connectionManager.setDefaultMaxPerRoute(this.concurrency);
+
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setUserAgent("Ringo Server")
+                .disableRedirectHandling()
+                .build();
+
+        freeWorkers = new Semaphore(threads);
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), daemonThreadFactory("ringo-webhook"), new ThreadPoolExecutor.AbortPolicy());
+
+        sweeper = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("ringo-webhook-sweeper"));
+        sweeper.scheduleWithFixedDelay(this::sweep, 0, SWEEP_INTERVAL, TimeUnit.SECONDS);
+
+        inboxNotifier.addListener(this);
+    }
+
+    @Override
+    public void inboxChanged(AccountId accountId, MessageNumber messageNumber) {
+        requestSweep();
+    }
+
+    /**
+     * Schedules a sweep, unless one is already pending.
+     */
+    void requestSweep() {
+        if (sweepRequested.compareAndSet(false, true)) {
+            try {
+                sweeper.execute(this::sweep);
+            } catch (RejectedExecutionException e) {
+                log.debug("Webhook dispatcher is shut down");
+            }
+        }
+    }
+
+    /**
+     * Claims and submits the due deliveries, as long as there are free workers and permits for their webhooks.
+     */
+    void sweep() {
+        sweepRequested.set(false);
+        backlog = false;
+        try {
+            List<WebhookDelivery> deliveries = webhookRepository.findDueDeliveries(new Date(), SWEEP_SIZE);
+            for (WebhookDelivery delivery : deliveries) {
+                if (!freeWorkers.tryAcquire()) {
+                    backlog = true;
+                    break;
+                }
+                Semaphore semaphore = permits.computeIfAbsent(delivery.getWebhook().getUrl(), url -> new Semaphore(concurrency));
+                if (!semaphore.tryAcquire()) {
+                    freeWorkers.release();
+                    backlog = true;
+                    continue;
+                }
+
+                Date now = new Date();
+                String claimToken = UUID.randomUUID().toString();
+                if (!webhookRepository.claimDelivery(delivery.getId(), claimToken, now, new Date(now.getTime() + lease))) {
+                    // Claimed by another node
+                    semaphore.release();
+                    freeWorkers.release();
+                    continue;
+                }
+
+                try {
+                    executor.execute(() -> {
+                        try {
+                            deliver(delivery, claimToken);
+                        } finally {
+                            semaphore.release();
+                            freeWorkers.release();
+                            if (backlog) {
+                                requestSweep();
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // The claim expires, making the delivery due once more
+                    semaphore.release();
+                    freeWorkers.release();
+                    log.debug("Webhook dispatcher is shut down, {} is left for later", delivery);
+                }
+            }
+        } catch (Exception e) {
+            log.error("Unable to retrieve due webhook deliveries; " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Pushes the message of the delivery claimed by the token to the webhook, recording the outcome.
+     */
+    void deliver(WebhookDelivery delivery, String claimToken) {
+        try {
+            MessageMetaData messageMetaData;
+            try {
+                messageMetaData = peppolMessageRepository.findMessageByMessageNo(delivery.getMessageNumber());
+            } catch (PeppolMessageNotFoundException e) {
+                recorded(delivery, webhookRepository.markFailed(delivery.getId(), claimToken, e.getMessage()));
+                return;
+            }
+
+            if (messageMetaData.getDelivered() != null) {
+                // Already read from the inbox, no need to push it
+                recorded(delivery, webhookRepository.markDelivered(delivery.getId(), claimToken, messageMetaData.getDelivered()));
+                return;
+            }
+
+            String error = post(delivery, messageMetaData);
+            if (error == null) {
+                peppolMessageRepository.markMessageAsRead(delivery.getMessageNumber().toLong());
+                recorded(delivery, webhookRepository.markDelivered(delivery.getId(), claimToken, new Date()));
+                log.debug("Message {} pushed to {}", delivery.getMessageNumber(), delivery.getWebhook().getUrl());
+            } else if (delivery.getAttempts() + 1 >= maxAttempts) {
+                recorded(delivery, webhookRepository.markFailed(delivery.getId(), claimToken, error));
+                log.warn("Giving up pushing message {} to {} after {} attempts; {}", delivery.getMessageNumber(), delivery.getWebhook().getUrl(), maxAttempts, error);
+            } else {
+                recorded(delivery, webhookRepository.retryDelivery(delivery.getId(), claimToken, new Date(System.currentTimeMillis() + retryDelay(delivery.getAttempts())), error));
+                log.info("Unable to push message {} to {}, will be retried; {}", delivery.getMessageNumber(), delivery.getWebhook().getUrl(), error);
+            }
+        } catch (Exception e) {
+            // The claim expires, making the delivery due once more
+            log.error("Unable to push message " + delivery.getMessageNumber() + "; " + e.getMessage(), e);
+        }
+    }
+
+    private static void recorded(WebhookDelivery delivery, boolean recorded) {
+        if (!recorded) {
+            log.warn("Claim of {} expired while pushing, the outcome is left to the node which took it over", delivery);
+        }
+    }
+
+    /**
+     * Posts the message to the webhook.
+     *
+     * @return null if the webhook accepted the message, the reason otherwise
+     */
+    private String post(WebhookDelivery delivery, MessageMetaData messageMetaData) throws IOException {
+        Webhook webhook = delivery.getWebhook();
+        byte[] body = createBody(delivery, messageMetaData);
+        String timestamp = Long.toString(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+
+        HttpPost httpPost = new HttpPost(webhook.getUrl());
+        httpPost.setHeader(DELIVERY_HEADER, delivery.getId().toString());
+        httpPost.setHeader(MESSAGE_NO_HEADER, delivery.getMessageNumber().toString());
+        httpPost.setHeader(TIMESTAMP_HEADER, timestamp);
+        httpPost.setHeader(SIGNATURE_HEADER, "sha256=" + sign(webhook.getSecret(), timestamp, body));
+        httpPost.setEntity(new ByteArrayEntity(body, ContentType.APPLICATION_XML.withCharset(StandardCharsets.UTF_8)));
+
+        try (CloseableHttpResponse response = httpClient.execute(httpPost)) {
+            // Consuming the entity releases the connection back to the pool
+            EntityUtils.consume(response.getEntity());
+            int status = response.getStatusLine().getStatusCode();
+            return status >= 200 && status < 300 ? null : "Webhook responded with " + response.getStatusLine();
+        } catch (IOException e) {
+            return e.getClass().getSimpleName() + ": " + e.getMessage();
+        }
+    }
+
+    /**
+     * Creates the body, which is signed hence held in memory. The locations of the message are relative to the
+     * base URI of the server.
+     */
+    private byte[] createBody(WebhookDelivery delivery, MessageMetaData messageMetaData) throws IOException {
+        String self = "inbox/" + messageMetaData.getMsgNo().toString();
+        MessageWithLocations message = new MessageWithLocationsImpl(messageMetaData, URI.create(self), URI.create(self + "/xml-document"));
+        InputStream payload = delivery.getWebhook().isIncludePayload() ? artifactReader.openPayload(messageMetaData.getPayloadUri(), messageMetaData.getTransferDirection()) : null;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new WebhookMessage(delivery.getId(), message, payload).writeTo(bytes);
+        return bytes.toByteArray();
+    }
+
+    static long retryDelay(int attempts) {
+        return attempts >= 20 ? MAX_RETRY_DELAY : Math.min(RETRY_DELAY << attempts, MAX_RETRY_DELAY);
+    }
+
+    /**
+     * Provides the hex encoded HMAC-SHA256 of the timestamp, a period and the body, keyed by the secret.
+     */
+    static String sign(String secret, String timestamp, byte[] body) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), HMAC_ALGORITHM));
+            mac.update(timestamp.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) '.');
+            return toHex(mac.doFinal(body));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to sign using " + HMAC_ALGORITHM + "; " + e.getMessage(), e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0x0f];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0x0f];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Stops the workers. Deliveries in progress are resumed once their claims have expired.
+     */
+    public void shutdown() {
+        sweeper.shutdownNow();
+        executor.shutdownNow();
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            log.warn("Unable to close HTTP client; " + e.getMessage(), e);
+        }
+    }
+
+    private static ThreadFactory daemonThreadFactory(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,57 @@
+package no.sr.ringo.webhook;
+
+import no.sr.ringo.message.MessageWithLocations;
+import no.sr.ringo.response.SingleMessagesResponse;
+import no.sr.ringo.response.XmlResponseWriter;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Base64;
+
+import static no.sr.ringo.response.XmlResponseWriter.constant;
+
+/**
+ * The body of a request pushing an inbound message to a webhook, holding the meta data of the message as
+ * provided by /inbox/{msg_no} and optionally the payload, base64 encoded.
+ */
+public class WebhookMessage extends SingleMessagesResponse {
+
+    private static final byte[] START = constant("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<webhook-delivery version=\"" + version + "\" delivery-id=\"");
+    private static final byte[] START_END = constant("\">\n");
+    private static final byte[] PAYLOAD = constant("<payload encoding=\"base64\">");
+    private static final byte[] PAYLOAD_END = constant("</payload>\n");
+    private static final byte[] END = constant("</webhook-delivery>\n");
+
+    private final Integer deliveryId;
+    private final InputStream payload;
+
+    /**
+     * @param payload the payload to include, which is read and closed when written, or null
+     */
+    public WebhookMessage(Integer deliveryId, MessageWithLocations message, InputStream payload) {
+        super(message);
+        this.deliveryId = deliveryId;
+        this.payload = payload;
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        XmlResponseWriter xml = new XmlResponseWriter(outputStream);
+        xml.append(START).appendNumber(deliveryId).append(START_END);
+        singleMessageAsXml(xml, message);
+        if (payload != null) {
+            xml.append(PAYLOAD).flush();
+            // Closing the encoder writes the final padding, but must leave the stream open
+            try (InputStream inputStream = payload;
+                 OutputStream base64 = Base64.getEncoder().wrap(new CloseShieldOutputStream(outputStream))) {
+                IOUtils.copy(inputStream, base64);
+            }
+            xml.append(PAYLOAD_END);
+        }
+        xml.append(END);
+        xml.flush();
+    }
+}
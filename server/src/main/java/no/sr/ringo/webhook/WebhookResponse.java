@@ -0,0 +1,42 @@
+package no.sr.ringo.webhook;
+
+import no.sr.ringo.persistence.webhook.Webhook;
+import no.sr.ringo.response.RestResponse;
+import no.sr.ringo.response.XmlResponseWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static no.sr.ringo.response.XmlResponseWriter.constant;
+
+/**
+ * The webhook registered by an account, as provided by GET /inbox/webhook. The secret is never disclosed.
+ */
+public class WebhookResponse implements RestResponse {
+
+    private static final String VERSION = "1.0";
+
+    private static final byte[] START = constant("<webhook version=\"" + VERSION + "\">\n  <url>");
+    private static final byte[] INCLUDE_PAYLOAD = constant("</url>\n  <include-payload>");
+    private static final byte[] END = constant("</include-payload>\n</webhook>");
+
+    private final Webhook webhook;
+
+    public WebhookResponse(Webhook webhook) {
+        this.webhook = webhook;
+    }
+
+    @Override
+    public String getVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        XmlResponseWriter xml = new XmlResponseWriter(outputStream);
+        xml.append(START).appendUri(webhook.getUrl())
+                .append(INCLUDE_PAYLOAD).appendText(Boolean.toString(webhook.isIncludePayload()))
+                .append(END);
+        xml.flush();
+    }
+}
@@ -63,6 +63,8 @@ public class ServerTestModuleFactory implements IModuleFactory {
 
             binder.install(new BlobStoreModule());
 
+            binder.install(new ValidationModule());
+
             binder.install(new PluginModule());
         }
 
@@ -0,0 +1,106 @@
+package no.sr.ringo.message;
+
+import no.sr.ringo.account.AccountId;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.easymock.EasyMock.*;
+import static org.testng.Assert.*;
+
+public class InboxEventHubTest {
+
+    static final AccountId ACCOUNT = new AccountId(1);
+    static final AccountId OTHER_ACCOUNT = new AccountId(2);
+
+    PeppolMessageRepository mockPeppolMessageRepository;
+    InboxNotifier inboxNotifier;
+    InboxEventHub inboxEventHub;
+
+    @BeforeMethod
+    public void setUp() {
+        mockPeppolMessageRepository = createStrictMock(PeppolMessageRepository.class);
+        inboxNotifier = new InboxNotifier();
+        // Polling is driven by the tests
+        inboxEventHub = new InboxEventHub(inboxNotifier, mockPeppolMessageRepository, "0");
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        inboxEventHub.shutdown();
+    }
+
+    @Test
+    public void signalsMessagesSavedInProcess() throws Exception {
+        replay(mockPeppolMessageRepository);
+
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicInteger otherSignals = new AtomicInteger();
+        inboxEventHub.subscribe(ACCOUNT, latch::countDown);
+        inboxEventHub.subscribe(OTHER_ACCOUNT, otherSignals::incrementAndGet);
+
+        inboxNotifier.inboundMessageSaved(ACCOUNT, MessageNumber.of(10L));
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS), "Subscriber not signalled");
+        assertEquals(otherSignals.get(), 0);
+        verify(mockPeppolMessageRepository);
+    }
+
+    @Test
+    public void pollsDatabaseForMessagesSavedByOtherNodes() throws Exception {
+        Map<AccountId, MessageNumber> received = new HashMap<>();
+        received.put(ACCOUNT, MessageNumber.of(12L));
+        received.put(OTHER_ACCOUNT, MessageNumber.of(11L));
+
+        expect(mockPeppolMessageRepository.getLatestMessageNumber()).andReturn(MessageNumber.of(10L));
+        expect(mockPeppolMessageRepository.findLatestInboundMessageNumbers(MessageNumber.of(10L))).andReturn(received);
+        expect(mockPeppolMessageRepository.findLatestInboundMessageNumbers(MessageNumber.of(12L))).andReturn(Collections.<AccountId, MessageNumber>emptyMap());
+        replay(mockPeppolMessageRepository);
+
+        AtomicInteger signals = new AtomicInteger();
+        InboxEventHub.Subscriber subscriber = signals::incrementAndGet;
+        inboxEventHub.subscribe(ACCOUNT, subscriber);
+
+        inboxEventHub.poll();   // Finds the starting point
+        assertEquals(signals.get(), 0);
+        inboxEventHub.poll();
+        assertEquals(signals.get(), 1);
+        inboxEventHub.poll();
+        assertEquals(signals.get(), 1);
+
+        // Nobody is waiting, hence the database is left alone
+        inboxEventHub.unsubscribe(ACCOUNT, subscriber);
+        assertEquals(inboxEventHub.getSubscriberCount(), 0);
+        inboxEventHub.poll();
+        verify(mockPeppolMessageRepository);
+    }
+
+    @Test
+    public void messagesSignalledInProcessAreNotSignalledAgain() throws Exception {
+        expect(mockPeppolMessageRepository.getLatestMessageNumber()).andReturn(MessageNumber.of(10L));
+        expect(mockPeppolMessageRepository.findLatestInboundMessageNumbers(MessageNumber.of(10L))).andReturn(Collections.singletonMap(ACCOUNT, MessageNumber.of(11L)));
+        replay(mockPeppolMessageRepository);
+
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicInteger signals = new AtomicInteger();
+        inboxEventHub.subscribe(ACCOUNT, () -> {
+            signals.incrementAndGet();
+            latch.countDown();
+        });
+
+        inboxEventHub.poll();
+        inboxNotifier.inboundMessageSaved(ACCOUNT, MessageNumber.of(11L));
+        assertTrue(latch.await(5, TimeUnit.SECONDS), "Subscriber not signalled");
+
+        inboxEventHub.poll();
+        assertEquals(signals.get(), 1);
+        verify(mockPeppolMessageRepository);
+    }
+}
@@ -8,19 +8,26 @@ import no.sr.ringo.account.AccountId;
 import no.sr.ringo.document.DefaultPeppolDocument;
 import no.sr.ringo.document.FetchDocumentResultVisitorImpl;
 import no.sr.ringo.document.FetchDocumentUseCase;
+import no.sr.ringo.resource.InvalidUserInputWebException;
 import no.sr.ringo.resource.MessagesResource;
 import no.sr.ringo.resource.PayloadResponseHelper;
 import no.sr.ringo.resource.UriLocationToolImpl;
+import no.sr.ringo.response.MessageChangesResponse;
+import no.sr.ringo.transport.TransferDirection;
 import no.sr.ringo.usecase.ReceiveMessageFromClientUseCase;
+import no.sr.ringo.validation.AsyncValidationService;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
+import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collections;
 
 import static org.easymock.EasyMock.*;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
 
 /**
  * User: Adam
@@ -55,7 +62,8 @@ public class MessagesResourceMockTest {
                 mockFetchDocumentUseCase,
                 account,
                 new UriLocationToolImpl(),
-                new PayloadResponseHelper(new FetchDocumentResultVisitorImpl(new DefaultPayloadUriRewriter())));
+                new PayloadResponseHelper(new FetchDocumentResultVisitorImpl(new DefaultPayloadUriRewriter())),
+                createNiceMock(AsyncValidationService.class));
     }
 
 
@@ -83,6 +91,38 @@ public class MessagesResourceMockTest {
         verifyAllMocks();
     }
 
+    @Test
+    public void testGetChanges() throws Exception {
+
+        MessageMetaDataImpl messageMetaData = new MessageMetaDataImpl();
+        messageMetaData.setMsgNo(MessageNumber.of(8L));
+        messageMetaData.setTransferDirection(TransferDirection.IN);
+
+        expect(mockPeppolMessageRepository.findMessageChanges(new AccountId(1), 41L, 1)).andReturn(new MessageChanges(Collections.<MessageMetaData>singletonList(messageMetaData), 42L, true));
+        expect(mockUriInfo.getBaseUri()).andStubReturn(URI.create("https://ringo.example.com/"));
+        expect(mockUriInfo.getBaseUriBuilder()).andStubAnswer(() -> new UriBuilderImpl().uri(URI.create("https://ringo.example.com/")));
+        replayAllMocks();
+
+        Response response = messagesResource.getChanges(mockUriInfo, "41", "1");
+        assertEquals(response.getStatus(), 200);
+        verifyAllMocks();
+
+        MessageChangesResponse changes = (MessageChangesResponse) response.getEntity();
+        assertEquals(changes.getCursor(), 42L);
+        assertEquals(changes.getMessageList().size(), 1);
+        assertEquals(changes.getNavigation().getNext(), URI.create("https://ringo.example.com/messages/changes?since=42&max=1"));
+
+        String xml = changes.asXml();
+        assertTrue(xml.contains("<cursor>42</cursor>"), xml);
+        assertTrue(xml.contains("<self>https://ringo.example.com/messages/8</self>"), xml);
+    }
+
+    @Test(expectedExceptions = InvalidUserInputWebException.class)
+    public void testGetChangesWithInvalidCursor() throws Exception {
+        replayAllMocks();
+        messagesResource.getChanges(mockUriInfo, "yesterday", null);
+    }
+
     /**
      * Attempts to retrieve the payload for a given message.
      * @throws Exception
@@ -4,14 +4,19 @@ import no.difi.vefa.peppol.common.model.ParticipantIdentifier;
 import no.sr.ringo.account.Account;
 import no.sr.ringo.cenbiimeta.ProfileId;
 import no.sr.ringo.peppol.PeppolDocumentTypeId;
+import no.sr.ringo.resource.InvalidUserInputWebException;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 import static org.easymock.EasyMock.*;
-import static org.testng.Assert.assertEquals;
-import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.*;
 
 /**
  * User: Adam
@@ -51,10 +56,56 @@ public class PeppolMessageCreatorTest {
         assertEquals(ProfileId.Predefined.BII04_INVOICE_ONLY.toVefa(), message.getPeppolHeader().getProcessIdentifier());
         assertEquals(participantId, message.getPeppolHeader().getSender());
         assertEquals(participantId, message.getPeppolHeader().getReceiver());
-        assertNotNull(message.getXmlMessage());
+        assertNotNull(message.getPayloadPath());
+
+        // The payload is spooled byte by byte as uploaded
+        byte[] expected = Files.readAllBytes(Paths.get(PeppolMessageCreatorTest.class.getClassLoader().getResource("ehf-test-SendRegning-HelseVest2.xml").toURI()));
+        assertEquals(Files.readAllBytes(message.getPayloadPath()), expected);
+        Files.delete(message.getPayloadPath());
 
         verify(mockRingoAccount);
 
     }
 
+    @Test
+    public void malformedDocumentIsRejectedAndNotSpooled() throws Exception {
+
+        Path spoolDirectory = Files.createTempDirectory("ringo-spool");
+        InputStream is = new ByteArrayInputStream("<Invoice><ID>1</Invoice>".getBytes("UTF-8"));
+        OutboundPostParams params = new OutboundPostParams.Builder().recipientId("9908:976098897").senderId("9908:976098897").documentId(PeppolDocumentTypeId.EHF_INVOICE.stringValue()).processId(ProfileId.Predefined.BII04_INVOICE_ONLY.stringValue()).inputStream(is).build();
+        PeppolMessageCreator creator = new PeppolMessageCreator(mockRingoAccount, params, spoolDirectory);
+
+        try {
+            creator.extractDocument();
+            fail("Malformed XML should have been rejected");
+        } catch (InvalidUserInputWebException e) {
+            // expected
+        }
+
+        try (DirectoryStream<Path> spooled = Files.newDirectoryStream(spoolDirectory)) {
+            assertFalse(spooled.iterator().hasNext(), "Spooled payload should have been removed");
+        }
+    }
+
+    @Test
+    public void documentIsReadAsUtf8() throws Exception {
+        byte[] document = "<Invoice><Note>Blåbær</Note></Invoice>".getBytes("UTF-8");
+        PeppolMessage message = creatorFor(document, Files.createTempDirectory("ringo-spool")).extractDocument();
+
+        assertEquals(Files.readAllBytes(message.getPayloadPath()), document);
+        Files.delete(message.getPayloadPath());
+    }
+
+    @Test(expectedExceptions = InvalidUserInputWebException.class)
+    public void documentNotInUtf8IsRejected() throws Exception {
+        // Declaring another encoding does not change how the upload is read
+        byte[] document = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><Invoice><Note>Blåbær</Note></Invoice>".getBytes("ISO-8859-1");
+        creatorFor(document, Files.createTempDirectory("ringo-spool")).extractDocument();
+    }
+
+    private PeppolMessageCreator creatorFor(byte[] document, Path spoolDirectory) {
+        OutboundPostParams params = new OutboundPostParams.Builder().recipientId("9908:976098897").senderId("9908:976098897").documentId(PeppolDocumentTypeId.EHF_INVOICE.stringValue()).processId(ProfileId.Predefined.BII04_INVOICE_ONLY.stringValue()).inputStream(new ByteArrayInputStream(document)).build();
+        return new PeppolMessageCreator(mockRingoAccount, params, spoolDirectory);
+    }
+
 }
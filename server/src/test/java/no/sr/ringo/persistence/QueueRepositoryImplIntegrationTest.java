@@ -145,6 +145,27 @@ public class QueueRepositoryImplIntegrationTest {
         assertNotNull(fetched.getCreateDT());
     }
 
+    @Test(groups = {"persistence"})
+    public void testPendingValidation() {
+        PeppolMessage peppolMessage = PeppolMessageTestdataGenerator.outboxPostRequest();
+        peppolMessage.getPeppolHeader().setProcessIdentifier(ProcessIdentifier.of("urn:www.cenbii.eu:profile:bii05:ver1.0"));
+
+        MessageWithLocations messageWithLocations = peppolMessageRepository.persistOutboundMessage(account, peppolMessage);
+        OutboundMessageQueueId queueId = queueRepository.putMessageOnQueue(messageWithLocations.getMsgNo().toLong(), OutboundMessageQueueState.PENDING_VALIDATION);
+
+        // Not to be sent until validated
+        assertFalse(queueRepository.lockQueueItemForDelivery(queueId));
+        assertEquals(queueRepository.getQueuedMessages(OutboundMessageQueueState.PENDING_VALIDATION, 0).get(0).getOutboundQueueId(), queueId);
+
+        assertTrue(queueRepository.changeQueuedMessageState(queueId, OutboundMessageQueueState.PENDING_VALIDATION, OutboundMessageQueueState.VALIDATION_FAILED));
+        assertFalse(queueRepository.changeQueuedMessageState(queueId, OutboundMessageQueueState.PENDING_VALIDATION, OutboundMessageQueueState.QUEUED));
+        queueRepository.logOutboundError(new QueuedOutboundMessageError(queueId, "XmlDocument contains error", "XmlDocument contains error", null));
+
+        QueuedOutboundMessage queuedMessage = queueRepository.getQueuedMessageByMessageNo(messageWithLocations.getMsgNo());
+        assertEquals(queuedMessage.getState(), OutboundMessageQueueState.VALIDATION_FAILED);
+        assertEquals(queueRepository.getLastOutboundError(queueId).getDetails(), "XmlDocument contains error");
+    }
+
     private OutboundMessageQueueId createMessageAndPutOnQueue() {
         PeppolMessage peppolMessage = PeppolMessageTestdataGenerator.outboxPostRequest();
         peppolMessage.getPeppolHeader().setProcessIdentifier(ProcessIdentifier.of("urn:www.cenbii.eu:profile:bii05:ver1.0"));
@@ -0,0 +1,121 @@
+package no.sr.ringo.resource;
+
+import no.difi.vefa.peppol.common.model.ParticipantIdentifier;
+import no.sr.ringo.ObjectMother;
+import no.sr.ringo.account.Account;
+import no.sr.ringo.message.InboxBundleAcknowledgements;
+import no.sr.ringo.message.MessageMetaData;
+import no.sr.ringo.message.MessageMetaDataImpl;
+import no.sr.ringo.message.MessageNumber;
+import no.sr.ringo.message.ReceptionId;
+import no.sr.ringo.persistence.file.ArtifactReader;
+import no.sr.ringo.transport.TransferDirection;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.easymock.EasyMock.*;
+import static org.testng.Assert.*;
+
+public class InboxBundleWriterTest {
+
+    /** Stored with CR LF line endings, which are to be kept */
+    static final String PAYLOAD = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n<Invoice>Ærlig talt</Invoice>\r\n";
+
+    ArtifactReader mockArtifactReader;
+    InboxBundleAcknowledgements acknowledgements;
+    Account account = ObjectMother.getTestAccount();
+
+    @BeforeMethod
+    public void setUp() {
+        mockArtifactReader = createStrictMock(ArtifactReader.class);
+        acknowledgements = new InboxBundleAcknowledgements();
+    }
+
+    @Test
+    public void writesPayloadsFollowedByManifest() throws Exception {
+        MessageMetaData local = message(8, "file:///var/peppol/8.xml");
+        MessageMetaData remote = message(9, "https://payloads.example.com/9.xml");
+        MessageMetaData missing = message(10, "file:///var/peppol/10.xml");
+
+        expect(mockArtifactReader.openPayload(local.getPayloadUri(), TransferDirection.IN)).andReturn(new ByteArrayInputStream(PAYLOAD.getBytes(StandardCharsets.UTF_8)));
+        expect(mockArtifactReader.openPayload(missing.getPayloadUri(), TransferDirection.IN)).andThrow(new IOException("No such file"));
+        replay(mockArtifactReader);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new InboxBundleWriter(account, Arrays.asList(local, remote, missing), mockArtifactReader, acknowledgements).write(bytes);
+        verify(mockArtifactReader);
+
+        Map<String, String> entries = unzip(bytes.toByteArray());
+        assertEquals(entries.keySet().toArray(), new String[]{"8.xml", InboxBundleWriter.MANIFEST});
+        assertEquals(entries.get("8.xml"), PAYLOAD);
+
+        // Payloads held elsewhere, or unreadable, are left out
+        String manifest = entries.get(InboxBundleWriter.MANIFEST);
+        assertTrue(manifest.contains("<message msg-no=\"8\" uuid=\"" + local.getReceptionId().stringValue() + "\" receiver=\"9908:976098897\" file=\"8.xml\" size=\"" + PAYLOAD.getBytes(StandardCharsets.UTF_8).length + "\" digest=\"" + sha256(PAYLOAD) + "\"/>"), manifest);
+        assertFalse(manifest.contains("msg-no=\"9\""), manifest);
+        assertFalse(manifest.contains("msg-no=\"10\""), manifest);
+
+        Matcher token = Pattern.compile("ack-token=\"([^\"]+)\"").matcher(manifest);
+        assertTrue(token.find(), manifest);
+        assertTrue(acknowledgements.acknowledge(token.group(1), ObjectMother.getAdamsAccount().getAccountId()).isEmpty(), "Acknowledged by another account");
+        assertEquals(acknowledgements.acknowledge(token.group(1), account.getAccountId()), Collections.singletonList(MessageNumber.of(8L)));
+        assertTrue(acknowledgements.acknowledge(token.group(1), account.getAccountId()).isEmpty(), "Acknowledged twice");
+    }
+
+    @Test
+    public void emptyBundleHasNoToken() throws Exception {
+        replay(mockArtifactReader);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new InboxBundleWriter(account, Collections.<MessageMetaData>emptyList(), mockArtifactReader, acknowledgements).write(bytes);
+
+        String manifest = unzip(bytes.toByteArray()).get(InboxBundleWriter.MANIFEST);
+        assertFalse(manifest.contains("ack-token"), manifest);
+    }
+
+    private static MessageMetaData message(long msgNo, String payloadUri) {
+        MessageMetaDataImpl messageMetaData = new MessageMetaDataImpl();
+        messageMetaData.setMsgNo(MessageNumber.of(msgNo));
+        messageMetaData.setTransferDirection(TransferDirection.IN);
+        messageMetaData.setReceptionId(new ReceptionId());
+        messageMetaData.setPayloadUri(URI.create(payloadUri));
+        messageMetaData.getPeppolHeader().setReceiver(ParticipantIdentifier.of("9908:976098897"));
+        return messageMetaData;
+    }
+
+    private static Map<String, String> unzip(byte[] bytes) throws Exception {
+        Map<String, String> entries = new LinkedHashMap<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(bytes))) {
+            ZipEntry zipEntry;
+            while ((zipEntry = zip.getNextEntry()) != null) {
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                byte[] buffer = new byte[1024];
+                int length;
+                while ((length = zip.read(buffer)) != -1) {
+                    content.write(buffer, 0, length);
+                }
+                entries.put(zipEntry.getName(), new String(content.toByteArray(), StandardCharsets.UTF_8));
+            }
+        }
+        return entries;
+    }
+
+    private static String sha256(String payload) throws Exception {
+        return InboxBundleWriter.toHex(MessageDigest.getInstance("SHA-256").digest(payload.getBytes(StandardCharsets.UTF_8)));
+    }
+}
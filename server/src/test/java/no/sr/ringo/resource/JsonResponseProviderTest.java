@@ -0,0 +1,123 @@
+package no.sr.ringo.resource;
+
+import com.sun.jersey.core.header.OutBoundHeaders;
+import no.difi.vefa.peppol.common.model.ParticipantIdentifier;
+import no.sr.ringo.message.MessageMetaDataImpl;
+import no.sr.ringo.message.MessageNumber;
+import no.sr.ringo.message.MessageWithLocations;
+import no.sr.ringo.message.MessageWithLocationsImpl;
+import no.sr.ringo.peppol.PeppolDocumentTypeId;
+import no.sr.ringo.peppol.RingoUtils;
+import no.sr.ringo.response.MessagesQueryResponse;
+import no.sr.ringo.response.Navigation;
+import no.sr.ringo.response.OutboxBatchResponse;
+import no.sr.ringo.response.RestResponse;
+import no.sr.ringo.response.SingleOutboxResponse;
+import no.sr.ringo.transport.TransferDirection;
+import org.testng.annotations.Test;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Date;
+
+import static org.testng.Assert.*;
+
+public class JsonResponseProviderTest {
+
+    JsonResponseProvider jsonResponseProvider = new JsonResponseProvider();
+
+    @Test
+    public void testMessagesAsJson() throws Exception {
+        MessagesQueryResponse response = new MessagesQueryResponse(Arrays.asList(sampleMessage(1), sampleMessage(2)));
+        response.setNavigation(new Navigation(null, URI.create("https://ringo.domain.com/messages?index=2")));
+
+        MultivaluedMap<String, Object> headers = new OutBoundHeaders();
+        JsonObject json = parse(write(response, MediaType.APPLICATION_JSON_TYPE, headers));
+
+        assertEquals(json.getString("version"), "1.0");
+        assertEquals(json.getJsonObject("navigation").getString("next"), "https://ringo.domain.com/messages?index=2");
+        assertEquals(json.getJsonArray("messages").size(), 2);
+
+        JsonObject message = json.getJsonArray("messages").getJsonObject(1);
+        assertEquals(message.getJsonNumber("msg-no").longValue(), 2);
+        assertEquals(message.getString("self"), "https://ringo.domain.com/outbox/2");
+        assertEquals(message.getString("xml-document"), "https://ringo.domain.com/messages/2/xml-document");
+        assertEquals(message.getString("direction"), "OUT");
+        assertEquals(message.getString("received"), RingoUtils.formatDateTimeAsISO8601String(new Date(1325376000000L)));
+        assertFalse(message.containsKey("delivered"));
+        assertEquals(message.getJsonObject("peppol-header").getString("sender"), "9908:976098897");
+        assertEquals(message.getJsonObject("peppol-header").getString("document-id"), PeppolDocumentTypeId.EHF_INVOICE.toVefa().getIdentifier());
+        assertFalse(message.getJsonObject("peppol-header").containsKey("channel"));
+
+        assertTrue(headers.isEmpty());
+    }
+
+    @Test
+    public void testMessagesAsNdjson() throws Exception {
+        MessagesQueryResponse response = new MessagesQueryResponse(Arrays.asList(sampleMessage(1), sampleMessage(2)));
+        response.setNavigation(new Navigation(null, URI.create("https://ringo.domain.com/messages?index=2")));
+
+        MultivaluedMap<String, Object> headers = new OutBoundHeaders();
+        String ndjson = write(response, MediaType.valueOf(RingoMediaType.APPLICATION_NDJSON), headers);
+
+        String[] lines = ndjson.split("\n", -1);
+        assertEquals(lines.length, 3);
+        assertEquals(parse(lines[0]).getJsonNumber("msg-no").longValue(), 1);
+        assertEquals(parse(lines[1]).getJsonNumber("msg-no").longValue(), 2);
+        assertEquals(lines[2], "");
+
+        assertEquals(headers.getFirst("Link"), "<https://ringo.domain.com/messages?index=2>; rel=\"next\"");
+    }
+
+    @Test
+    public void testSingleMessageAsJson() throws Exception {
+        SingleOutboxResponse response = new SingleOutboxResponse(sampleMessage(4711), "VALIDATION_FAILED", "<ID> \"missing\"");
+
+        JsonObject json = parse(write(response, MediaType.APPLICATION_JSON_TYPE, new OutBoundHeaders()));
+
+        assertEquals(json.getJsonNumber("msg-no").longValue(), 4711);
+        assertEquals(json.getJsonObject("validation").getString("state"), "VALIDATION_FAILED");
+        assertEquals(json.getJsonObject("validation").getString("error"), "<ID> \"missing\"");
+    }
+
+    @Test
+    public void testOnlyWritesTypesSupported() {
+        assertFalse(jsonResponseProvider.isWriteable(OutboxBatchResponse.class, OutboxBatchResponse.class, null, MediaType.APPLICATION_JSON_TYPE));
+        assertFalse(jsonResponseProvider.isWriteable(RestResponse.class, RestResponse.class, null, MediaType.APPLICATION_JSON_TYPE));
+        assertFalse(jsonResponseProvider.isWriteable(String.class, String.class, null, MediaType.APPLICATION_JSON_TYPE));
+    }
+
+    private String write(Object entity, MediaType mediaType, MultivaluedMap<String, Object> headers) throws Exception {
+        assertTrue(jsonResponseProvider.isWriteable(entity.getClass(), entity.getClass(), null, mediaType));
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        jsonResponseProvider.writeTo(entity, entity.getClass(), entity.getClass(), null, mediaType, headers, outputStream);
+        return outputStream.toString("UTF-8");
+    }
+
+    private JsonObject parse(String json) {
+        try (JsonReader reader = Json.createReader(new StringReader(json))) {
+            return reader.readObject();
+        }
+    }
+
+    private MessageWithLocations sampleMessage(long msgNo) {
+        MessageMetaDataImpl messageMetaData = new MessageMetaDataImpl();
+        messageMetaData.setMsgNo(MessageNumber.of(msgNo));
+        messageMetaData.setTransferDirection(TransferDirection.OUT);
+        messageMetaData.setReceived(new Date(1325376000000L));
+        messageMetaData.getPeppolHeader().setSender(new ParticipantIdentifier("9908:976098897"));
+        messageMetaData.getPeppolHeader().setReceiver(new ParticipantIdentifier("9908:810017902"));
+        messageMetaData.getPeppolHeader().setDocumentTypeIdentifier(PeppolDocumentTypeId.EHF_INVOICE.toVefa());
+
+        return new MessageWithLocationsImpl(messageMetaData,
+                URI.create("https://ringo.domain.com/outbox/" + msgNo), URI.create("https://ringo.domain.com/messages/" + msgNo + "/xml-document"));
+    }
+}
@@ -1,23 +1,46 @@
 package no.sr.ringo.resource;
 
 import com.sun.jersey.api.uri.UriBuilderImpl;
+import com.sun.jersey.core.util.MultivaluedMapImpl;
 import no.sr.ringo.account.Account;
+import no.sr.ringo.account.AccountId;
+import no.sr.ringo.common.RingoConstants;
 import no.sr.ringo.document.DefaultPeppolDocument;
 import no.sr.ringo.document.FetchDocumentResultVisitorImpl;
 import no.sr.ringo.document.FetchDocumentUseCase;
 import no.sr.ringo.document.PeppolDocument;
 import no.sr.ringo.message.*;
+import no.sr.ringo.persistence.idempotency.IdempotencyKey;
+import no.sr.ringo.persistence.queue.OutboundMessageQueueState;
+import no.sr.ringo.response.SingleOutboxResponse;
 import no.sr.ringo.transport.TransferDirection;
+import no.sr.ringo.usecase.ReceiveBatchFromClientUseCase;
+import no.sr.ringo.validation.AsyncValidationService;
+import no.sr.ringo.validation.ValidationStatus;
 import org.easymock.EasyMock;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
 
 
 /**
@@ -27,12 +50,19 @@ import static org.testng.Assert.assertEquals;
  */
 public class OutboxResourceTest {
 
+    static final AccountId ACCOUNT_ID = new AccountId(1);
+
+    static final String DOCUMENT = "<Invoice/>";
+
 
     private Account mockRingoAccount;
     private FetchMessagesUseCase mockFetchMessageUseCase;
     private OutboxResource outboxResource;
     private FetchDocumentUseCase mockFetchDocumentUseCase;
     private UriLocationTool mockUriLocationUtil;
+    private AsyncValidationService mockAsyncValidationService;
+    private OutboxIdempotencyKeys mockOutboxIdempotencyKeys;
+    private ReceiveBatchFromClientUseCase mockReceiveBatchFromClientUseCase;
 
     @BeforeMethod
     public void setUp() throws Exception {
@@ -41,12 +71,18 @@ public class OutboxResourceTest {
         mockFetchMessageUseCase = EasyMock.createStrictMock(FetchMessagesUseCase.class);
         mockFetchDocumentUseCase = EasyMock.createStrictMock(FetchDocumentUseCase.class);
         mockUriLocationUtil = EasyMock.createMock(UriLocationTool.class);
+        mockAsyncValidationService = EasyMock.createNiceMock(AsyncValidationService.class);
+        mockOutboxIdempotencyKeys = EasyMock.createStrictMock(OutboxIdempotencyKeys.class);
+        mockReceiveBatchFromClientUseCase = EasyMock.createStrictMock(ReceiveBatchFromClientUseCase.class);
         outboxResource = new OutboxResource(null,
+                mockReceiveBatchFromClientUseCase,
                 mockRingoAccount,
                 mockFetchMessageUseCase,
                 mockFetchDocumentUseCase,
                 new UriLocationToolImpl(),
-                new PayloadResponseHelper(new FetchDocumentResultVisitorImpl(new DefaultPayloadUriRewriter()))
+                new PayloadResponseHelper(new FetchDocumentResultVisitorImpl(new DefaultPayloadUriRewriter())),
+                mockAsyncValidationService,
+                mockOutboxIdempotencyKeys
                 );
     }
 
@@ -64,6 +100,24 @@ public class OutboxResourceTest {
         assertEquals(message.getStatus(), 200);
     }
 
+    @Test
+    public void testGetSpecificMessageFailingValidation() throws Exception {
+        UriInfo uriInfo = createMockUriInfo();
+        MessageMetaData messageMetaData = messageMetaData(1);
+
+        expect(mockFetchMessageUseCase.findOutBoundMessageByMessageNo(mockRingoAccount, messageMetaData.getMsgNo().toLong())).andStubReturn(messageMetaData);
+        expect(mockAsyncValidationService.getValidationStatus(messageMetaData.getMsgNo()))
+                .andStubReturn(new ValidationStatus(OutboundMessageQueueState.VALIDATION_FAILED, "XmlDocument contains error\n[BII2-T10-R001] <ID> missing"));
+
+        replayAllMocks();
+
+        Response message = outboxResource.getMessage(messageMetaData.getMsgNo().toString(), uriInfo);
+
+        assertEquals(message.getStatus(), 200);
+        String xml = ((SingleOutboxResponse) message.getEntity()).asXml();
+        assertTrue(xml.contains("<validation state=\"VALIDATION_FAILED\">XmlDocument contains error\n[BII2-T10-R001] &lt;ID&gt; missing</validation>"), xml);
+    }
+
     @Test(expectedExceptions = PeppolMessageNotFoundException.class)
     public void testGetSpecificMessageForOutBoxException() throws Exception {
         Long msgNo = 1L;
@@ -99,6 +153,115 @@ public class OutboxResourceTest {
         Response response = outboxResource.downloadPeppolDocument(msgNo.toString());
     }
 
+    @Test
+    public void testRepeatedUploadIsReplayed() throws Exception {
+        UriInfo uriInfo = createMockUriInfo();
+        MessageMetaData messageMetaData = messageMetaData(1);
+        expect(mockRingoAccount.getAccountId()).andStubReturn(ACCOUNT_ID);
+        expect(mockOutboxIdempotencyKeys.reserve(ACCOUNT_ID, "upload-1"))
+                .andReturn(new IdempotencyKey(ACCOUNT_ID, "upload-1", messageMetaData.getMsgNo(), requestDigest(DOCUMENT), new Date()));
+        expect(mockFetchMessageUseCase.findOutBoundMessageByMessageNo(mockRingoAccount, 1L)).andReturn(messageMetaData);
+        replayAllMocks();
+
+        Response response = post(uriInfo, "upload-1");
+
+        assertEquals(response.getStatus(), 201);
+        assertEquals(response.getMetadata().getFirst(RingoConstants.IDEMPOTENT_REPLAYED_HEADER), "true");
+        verify(mockOutboxIdempotencyKeys, mockFetchMessageUseCase);
+    }
+
+    @Test
+    public void testKeyReusedByAnotherUploadIsRejected() throws Exception {
+        UriInfo uriInfo = createMockUriInfo();
+        expect(mockRingoAccount.getAccountId()).andStubReturn(ACCOUNT_ID);
+        expect(mockOutboxIdempotencyKeys.reserve(ACCOUNT_ID, "upload-1"))
+                .andReturn(new IdempotencyKey(ACCOUNT_ID, "upload-1", MessageNumber.of(1L), requestDigest("<Invoice>another</Invoice>"), new Date()));
+        replayAllMocks();
+
+        Response response = post(uriInfo, "upload-1");
+
+        assertEquals(response.getStatus(), 409);
+        verify(mockOutboxIdempotencyKeys, mockFetchMessageUseCase);
+    }
+
+    @Test
+    public void testRepeatedUploadInProgress() throws Exception {
+        UriInfo uriInfo = createMockUriInfo();
+        expect(mockRingoAccount.getAccountId()).andStubReturn(ACCOUNT_ID);
+        expect(mockOutboxIdempotencyKeys.reserve(ACCOUNT_ID, "upload-1"))
+                .andReturn(new IdempotencyKey(ACCOUNT_ID, "upload-1", null, null, new Date()));
+        replayAllMocks();
+
+        Response response = post(uriInfo, "upload-1");
+
+        assertEquals(response.getStatus(), 503);
+        assertEquals(response.getMetadata().getFirst("Retry-After"), OutboxResource.RETRY_AFTER);
+    }
+
+    @Test
+    public void testInvalidIdempotencyKey() throws Exception {
+        replayAllMocks();
+
+        Response response = post(createMockUriInfo(), "upload 1");
+
+        assertEquals(response.getStatus(), 400);
+        assertFalse(OutboxIdempotencyKeys.isValid(""));
+        assertTrue(OutboxIdempotencyKeys.isValid(UUID.randomUUID().toString()));
+    }
+
+    @Test
+    public void testUnreadableBatchIsRejected() throws Exception {
+        mockReceiveBatchFromClientUseCase.discard();
+        replay(mockReceiveBatchFromClientUseCase);
+        replayAllMocks();
+
+        Response response = outboxResource.postBatchArchive(archive(OutboundBatchHeaders.MANIFEST, "<outbox-batch><document"), createMockBatchUriInfo());
+
+        assertEquals(response.getStatus(), 400);
+        verify(mockReceiveBatchFromClientUseCase);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testBatchFailingToPersistIsLeftToExceptionMappers() throws Exception {
+        mockReceiveBatchFromClientUseCase.receive(EasyMock.anyObject(OutboundPostParams.class));
+        expect(mockReceiveBatchFromClientUseCase.complete()).andThrow(new IllegalStateException("Unable to insert 1 entries into MESSAGE"));
+        replay(mockReceiveBatchFromClientUseCase);
+        replayAllMocks();
+
+        // Answered with 500 rather than 400, as the batch could be persisted later on
+        outboxResource.postBatchArchive(archive("a.xml", DOCUMENT), createMockBatchUriInfo());
+    }
+
+    private static InputStream archive(String name, String content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            zip.putNextEntry(new ZipEntry(name));
+            zip.write(content.getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        }
+        return new ByteArrayInputStream(bytes.toByteArray());
+    }
+
+    private UriInfo createMockBatchUriInfo() {
+        UriInfo mockUriInfo = EasyMock.createMock(UriInfo.class);
+        expect(mockUriInfo.getQueryParameters()).andStubReturn(new MultivaluedMapImpl());
+        replay(mockUriInfo);
+        return mockUriInfo;
+    }
+
+    private Response post(UriInfo uriInfo, String idempotencyKey) {
+        MultivaluedMapImpl requestHeaders = new MultivaluedMapImpl();
+        requestHeaders.putSingle(RingoConstants.IDEMPOTENCY_KEY_HEADER, idempotencyKey);
+        HttpHeaders headers = EasyMock.createMock(HttpHeaders.class);
+        expect(headers.getRequestHeaders()).andStubReturn(requestHeaders);
+        replay(headers);
+        InputStream inputStream = new ByteArrayInputStream(DOCUMENT.getBytes(StandardCharsets.UTF_8));
+        return outboxResource.post(null, null, null, null, null, null, inputStream, null, uriInfo, headers);
+    }
+
+    private static String requestDigest(String document) throws IOException {
+        return new OutboxRequestDigest(null, null, null, null, null, null).drain(new ByteArrayInputStream(document.getBytes(StandardCharsets.UTF_8)));
+    }
 
     private MessageMetaDataImpl messageMetaData(Integer msgNo) {
         MessageMetaDataImpl messageMetaData = new MessageMetaDataImpl();
@@ -112,11 +275,12 @@ public class OutboxResourceTest {
         UriInfo strictMock = EasyMock.createStrictMock(UriInfo.class);
         UriBuilderImpl value = new UriBuilderImpl();
         expect(strictMock.getBaseUriBuilder()).andStubReturn(value);
+        expect(strictMock.getBaseUri()).andStubReturn(URI.create("http://localhost:8080/"));
         replay(strictMock);
         return strictMock;
     }
 
     private void replayAllMocks() {
-        replay(mockRingoAccount, mockFetchMessageUseCase, mockFetchDocumentUseCase, mockUriLocationUtil);
+        replay(mockRingoAccount, mockFetchMessageUseCase, mockFetchDocumentUseCase, mockUriLocationUtil, mockAsyncValidationService, mockOutboxIdempotencyKeys);
     }
 }
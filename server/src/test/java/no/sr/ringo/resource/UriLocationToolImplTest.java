@@ -0,0 +1,48 @@
+package no.sr.ringo.resource;
+
+import no.sr.ringo.message.MessageMetaDataImpl;
+import no.sr.ringo.message.MessageNumber;
+import no.sr.ringo.message.MessageWithLocations;
+import org.easymock.EasyMock;
+import org.testng.annotations.Test;
+
+import javax.ws.rs.core.UriBuilder;
+import javax.ws.rs.core.UriInfo;
+import java.net.URI;
+
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.testng.Assert.assertEquals;
+
+public class UriLocationToolImplTest {
+
+    UriLocationToolImpl uriLocationTool = new UriLocationToolImpl();
+
+    @Test
+    public void testDecorateWithLocators() throws Exception {
+        for (String baseUri : new String[]{"http://localhost:8080/", "http://ringo.domain.com/vefa-srest/", "http://ringo.domain.com:8443/a%20b/"}) {
+            UriInfo uriInfo = createMockUriInfo(URI.create(baseUri));
+
+            for (long msgNo : new long[]{1, 4711, Long.MAX_VALUE}) {
+                MessageMetaDataImpl messageMetaData = new MessageMetaDataImpl();
+                messageMetaData.setMsgNo(MessageNumber.of(msgNo));
+
+                MessageWithLocations outbox = uriLocationTool.decorateWithLocators(messageMetaData, uriInfo, OutboxResource.class);
+                MessageWithLocations inbox = uriLocationTool.decorateWithLocators(messageMetaData, uriInfo, InboxResource.class);
+
+                // Same as building each URI using a UriBuilder
+                assertEquals(outbox.getSelfURI(), UriBuilder.fromUri(baseUri).path(OutboxResource.class).scheme("https").path("/{msgno}").build(msgNo));
+                assertEquals(inbox.getSelfURI(), UriBuilder.fromUri(baseUri).path(InboxResource.class).scheme("https").path("/{msgno}").build(msgNo));
+                assertEquals(outbox.getXmlDocumentURI(), UriBuilder.fromUri(baseUri).path(MessagesResource.class).scheme("https").path("/{msgno}/xml-document").build(msgNo));
+                assertEquals(inbox.getXmlDocumentURI(), outbox.getXmlDocumentURI());
+            }
+        }
+    }
+
+    private UriInfo createMockUriInfo(URI baseUri) {
+        UriInfo strictMock = EasyMock.createStrictMock(UriInfo.class);
+        expect(strictMock.getBaseUri()).andStubReturn(baseUri);
+        replay(strictMock);
+        return strictMock;
+    }
+}
@@ -0,0 +1,156 @@
+package no.sr.ringo.servlet;
+
+import org.easymock.Capture;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.TimeUnit;
+
+import static no.sr.ringo.servlet.AdmissionControl.OperationClass.*;
+import static org.easymock.EasyMock.*;
+import static org.testng.Assert.*;
+
+public class AdmissionControlFilterTest {
+
+    HttpServletRequest mockRequest;
+    HttpServletResponse mockResponse;
+    FilterChain mockChain;
+
+    @BeforeMethod
+    public void setUp() {
+        mockRequest = createMock(HttpServletRequest.class);
+        mockResponse = createMock(HttpServletResponse.class);
+        mockChain = createMock(FilterChain.class);
+
+        expect(mockRequest.getDispatcherType()).andStubReturn(DispatcherType.REQUEST);
+        expect(mockRequest.getMethod()).andStubReturn("GET");
+        expect(mockRequest.getRequestURI()).andStubReturn("/vefa/inbox");
+        expect(mockRequest.getContextPath()).andStubReturn("/vefa");
+        expect(mockRequest.getUserPrincipal()).andStubReturn(() -> "sr");
+        expect(mockRequest.getParameter(InboxLongPollFilter.WAIT_PARAMETER)).andStubReturn(null);
+    }
+
+    @Test
+    public void rateExceededIsRejected() throws Exception {
+        // One poll per second, in bursts of two
+        AdmissionControl admissionControl = new AdmissionControl("10", "1", "2", "0", "1", "0", "1");
+        AdmissionControlFilter filter = new AdmissionControlFilter(admissionControl);
+        expect(mockRequest.isAsyncStarted()).andStubReturn(false);
+        mockChain.doFilter(mockRequest, mockResponse);
+        expectLastCall().times(2);
+        mockResponse.setHeader("Retry-After", "1");
+        mockResponse.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        replay(mockRequest, mockResponse, mockChain);
+
+        filter.doFilter(mockRequest, mockResponse, mockChain);
+        filter.doFilter(mockRequest, mockResponse, mockChain);
+        filter.doFilter(mockRequest, mockResponse, mockChain);
+
+        verify(mockResponse, mockChain);
+        assertEquals(admissionControl.getRejections().get("rate.poll"), Long.valueOf(1));
+        // Every account has buckets of its own
+        assertEquals(admissionControl.admit("other", POLL, System.nanoTime()), 0);
+    }
+
+    @Test
+    public void asyncRequestIsProcessedUntilCompleted() throws Exception {
+        AdmissionControl admissionControl = new AdmissionControl("1", "0", "1", "0", "1", "0", "1");
+        AdmissionControlFilter filter = new AdmissionControlFilter(admissionControl);
+        AsyncContext mockAsyncContext = createMock(AsyncContext.class);
+        Capture<AsyncListener> listener = newCapture();
+        expect(mockRequest.isAsyncStarted()).andReturn(true).andReturn(false);
+        expect(mockRequest.getAsyncContext()).andReturn(mockAsyncContext);
+        mockAsyncContext.addListener(capture(listener));
+        mockChain.doFilter(mockRequest, mockResponse);
+        expectLastCall().times(2);
+        mockResponse.setHeader("Retry-After", AdmissionControlFilter.RETRY_AFTER);
+        mockResponse.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        replay(mockRequest, mockResponse, mockChain, mockAsyncContext);
+
+        filter.doFilter(mockRequest, mockResponse, mockChain);
+        // Rejected, as the first request is still in progress
+        filter.doFilter(mockRequest, mockResponse, mockChain);
+        listener.getValue().onComplete(null);
+        filter.doFilter(mockRequest, mockResponse, mockChain);
+
+        verify(mockResponse, mockChain, mockAsyncContext);
+        assertEquals(admissionControl.getRejections().get("concurrency"), Long.valueOf(1));
+        assertTrue(admissionControl.enter());
+    }
+
+    @Test
+    public void longPollingIsNotCounted() throws Exception {
+        AdmissionControl admissionControl = new AdmissionControl("0", "0", "1", "0", "1", "0", "1");
+        AdmissionControlFilter filter = new AdmissionControlFilter(admissionControl);
+        reset(mockRequest);
+        expect(mockRequest.getDispatcherType()).andStubReturn(DispatcherType.REQUEST);
+        expect(mockRequest.getMethod()).andStubReturn("GET");
+        expect(mockRequest.getRequestURI()).andStubReturn("/vefa/inbox/events");
+        expect(mockRequest.getContextPath()).andStubReturn("/vefa");
+        expect(mockRequest.getUserPrincipal()).andStubReturn(() -> "sr");
+        mockChain.doFilter(mockRequest, mockResponse);
+        replay(mockRequest, mockResponse, mockChain);
+
+        filter.doFilter(mockRequest, mockResponse, mockChain);
+
+        verify(mockResponse, mockChain);
+    }
+
+    @Test
+    public void waitParameterExemptsOnlyTheInbox() throws Exception {
+        AdmissionControl admissionControl = new AdmissionControl("0", "0", "1", "0", "1", "0", "1");
+        AdmissionControlFilter filter = new AdmissionControlFilter(admissionControl);
+        reset(mockRequest);
+        expect(mockRequest.getDispatcherType()).andStubReturn(DispatcherType.REQUEST);
+        expect(mockRequest.getMethod()).andStubReturn("GET");
+        expect(mockRequest.getRequestURI()).andReturn("/vefa/inbox/").andStubReturn("/vefa/inbox/42/xml-document");
+        expect(mockRequest.getContextPath()).andStubReturn("/vefa");
+        expect(mockRequest.getUserPrincipal()).andStubReturn(() -> "sr");
+        expect(mockRequest.getParameter(InboxLongPollFilter.WAIT_PARAMETER)).andStubReturn("30");
+        mockChain.doFilter(mockRequest, mockResponse);
+        mockResponse.setHeader("Retry-After", AdmissionControlFilter.RETRY_AFTER);
+        mockResponse.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        replay(mockRequest, mockResponse, mockChain);
+
+        filter.doFilter(mockRequest, mockResponse, mockChain);
+        // Rejected, as no requests at all may be processed at once
+        filter.doFilter(mockRequest, mockResponse, mockChain);
+
+        verify(mockResponse, mockChain);
+        assertEquals(admissionControl.getRejections().get("concurrency"), Long.valueOf(1));
+    }
+
+    @Test
+    public void operationClasses() {
+        assertEquals(AdmissionControl.operationClassOf("POST", "/outbox"), UPLOAD);
+        assertEquals(AdmissionControl.operationClassOf("POST", "/outbox/batch"), UPLOAD);
+        assertEquals(AdmissionControl.operationClassOf("GET", "/inbox/42/xml-document"), DOWNLOAD);
+        assertEquals(AdmissionControl.operationClassOf("GET", "/inbox/bundle"), DOWNLOAD);
+        assertEquals(AdmissionControl.operationClassOf("GET", "/messages/count"), POLL);
+        assertEquals(AdmissionControl.operationClassOf("GET", "/outbox/42"), POLL);
+        assertNull(AdmissionControl.operationClassOf("POST", "/inbox/42/read"));
+        assertNull(AdmissionControl.operationClassOf("GET", "/admin/statistics"));
+    }
+
+    @Test
+    public void bucketIsRefilled() {
+        long now = 0;
+        TokenBucket bucket = new TokenBucket(2, 2, now);
+        assertEquals(bucket.take(now), 0);
+        assertEquals(bucket.take(now), 0);
+        assertEquals(bucket.take(now), TimeUnit.MILLISECONDS.toNanos(500));
+        now += TimeUnit.MILLISECONDS.toNanos(500);
+        assertEquals(bucket.take(now), 0);
+        // Never more than the capacity
+        now += TimeUnit.SECONDS.toNanos(10);
+        assertEquals(bucket.take(now), 0);
+        assertEquals(bucket.take(now), 0);
+        assertTrue(bucket.take(now) > 0);
+    }
+}
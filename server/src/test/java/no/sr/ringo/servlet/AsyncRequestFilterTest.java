@@ -0,0 +1,163 @@
+package no.sr.ringo.servlet;
+
+import com.google.inject.servlet.ServletScopes;
+import no.sr.ringo.persistence.guice.jdbc.JdbcTxManager;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static no.sr.ringo.servlet.AsyncRequestFilter.Operation.*;
+import static org.easymock.EasyMock.*;
+import static org.testng.Assert.*;
+
+public class AsyncRequestFilterTest {
+
+    JdbcTxManager mockJdbcTxManager;
+    HttpServletRequest mockRequest;
+    HttpServletResponse mockResponse;
+    AsyncContext mockAsyncContext;
+    FilterChain mockChain;
+    AsyncRequestFilter filter;
+
+    @BeforeMethod
+    public void setUp() {
+        mockJdbcTxManager = createMock(JdbcTxManager.class);
+        mockRequest = createMock(HttpServletRequest.class);
+        mockResponse = createMock(HttpServletResponse.class);
+        mockAsyncContext = createMock(AsyncContext.class);
+        mockChain = createMock(FilterChain.class);
+        // One upload at a time, with room for one more in the queue
+        filter = new AsyncRequestFilter(mockJdbcTxManager, "30000", "1", "1", "1", "1", "1", "1");
+
+        expect(mockJdbcTxManager.handOff(isA(Runnable.class))).andStubAnswer(() -> (Runnable) getCurrentArguments()[0]);
+        expect(mockRequest.getMethod()).andStubReturn("POST");
+        expect(mockRequest.getRequestURI()).andStubReturn("/vefa/outbox");
+        expect(mockRequest.getContextPath()).andStubReturn("/vefa");
+        expect(mockRequest.getDispatcherType()).andStubReturn(DispatcherType.REQUEST);
+        expect(mockRequest.isAsyncSupported()).andStubReturn(true);
+        expect(mockRequest.startAsync()).andStubReturn(mockAsyncContext);
+        mockRequest.setAttribute(AsyncRequestFilter.PROCESSED_BY_WORKER, Boolean.TRUE);
+        expectLastCall().anyTimes();
+        mockAsyncContext.setTimeout(30000);
+        expectLastCall().anyTimes();
+        mockAsyncContext.addListener(isA(AsyncListener.class));
+        expectLastCall().anyTimes();
+        expect(mockAsyncContext.getRequest()).andStubReturn(mockRequest);
+        expect(mockAsyncContext.getResponse()).andStubReturn(mockResponse);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        filter.shutdown();
+    }
+
+    @Test
+    public void uploadIsProcessedByWorker() throws Exception {
+        CountDownLatch completed = new CountDownLatch(1);
+        String[] thread = new String[1];
+        mockChain.doFilter(isA(AsyncRequestFilter.WorkerRequest.class), isA(AsyncRequestFilter.WorkerResponse.class));
+        expectLastCall().andAnswer(() -> {
+            thread[0] = Thread.currentThread().getName();
+            return null;
+        });
+        mockAsyncContext.complete();
+        expectLastCall().andAnswer(() -> {
+            completed.countDown();
+            return null;
+        });
+        replay(mockJdbcTxManager, mockRequest, mockResponse, mockAsyncContext, mockChain);
+
+        doFilterInRequestScope();
+
+        assertTrue(completed.await(10, TimeUnit.SECONDS), "Request not completed");
+        assertTrue(thread[0].startsWith("ringo-upload-"), thread[0]);
+        verify(mockChain, mockAsyncContext);
+    }
+
+    @Test
+    public void uploadIsRejectedWhenQueueIsFull() throws Exception {
+        CountDownLatch processing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch completed = new CountDownLatch(3);
+        mockChain.doFilter(isA(AsyncRequestFilter.WorkerRequest.class), isA(AsyncRequestFilter.WorkerResponse.class));
+        expectLastCall().andAnswer(() -> {
+            processing.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return null;
+        }).times(2);
+        mockAsyncContext.complete();
+        expectLastCall().andAnswer(() -> {
+            completed.countDown();
+            return null;
+        }).times(3);
+        expect(mockResponse.isCommitted()).andReturn(false);
+        mockResponse.setHeader("Retry-After", AsyncRequestFilter.RETRY_AFTER);
+        mockResponse.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        replay(mockJdbcTxManager, mockRequest, mockResponse, mockAsyncContext, mockChain);
+
+        doFilterInRequestScope();
+        assertTrue(processing.await(10, TimeUnit.SECONDS), "First upload not processed");
+        // Queued behind the first
+        doFilterInRequestScope();
+        // Rejected
+        doFilterInRequestScope();
+        release.countDown();
+
+        assertTrue(completed.await(10, TimeUnit.SECONDS), "Uploads not completed");
+        verify(mockResponse, mockChain);
+    }
+
+    @Test
+    public void workerIsCutOffOnTimeout() throws Exception {
+        ServletOutputStream mockOutputStream = createMock(ServletOutputStream.class);
+        expect(mockResponse.getOutputStream()).andStubReturn(mockOutputStream);
+        expect(mockResponse.isCommitted()).andReturn(false);
+        mockResponse.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        mockAsyncContext.complete();
+        replay(mockRequest, mockResponse, mockAsyncContext, mockOutputStream);
+        AsyncRequestFilter.Completion completion = new AsyncRequestFilter.Completion(mockAsyncContext);
+
+        completion.onTimeout(null);
+
+        // The worker, still running, neither writes the response nor sets its headers
+        completion.response.setHeader("ETag", "\"42\"");
+        completion.response.setStatus(HttpServletResponse.SC_OK);
+        try {
+            completion.response.getOutputStream().write(new byte[]{42}, 0, 1);
+            fail("Written after timing out");
+        } catch (IOException e) {
+            // expected
+        }
+        completion.complete();
+        verify(mockResponse, mockAsyncContext, mockOutputStream);
+    }
+
+    @Test
+    public void operations() {
+        assertEquals(AsyncRequestFilter.operationOf("POST", "/outbox/"), UPLOAD);
+        assertEquals(AsyncRequestFilter.operationOf("POST", "/outbox/batch"), UPLOAD);
+        assertEquals(AsyncRequestFilter.operationOf("GET", "/admin/statistics"), STATISTICS);
+        assertEquals(AsyncRequestFilter.operationOf("GET", "/inbox/bundle"), BUNDLE);
+        assertNull(AsyncRequestFilter.operationOf("GET", "/outbox"));
+        assertNull(AsyncRequestFilter.operationOf("POST", "/inbox/bundle"));
+    }
+
+    private void doFilterInRequestScope() throws Exception {
+        ServletScopes.scopeRequest(() -> {
+            filter.doFilter(mockRequest, mockResponse, mockChain);
+            return null;
+        }, Collections.emptyMap()).call();
+    }
+}
@@ -0,0 +1,104 @@
+package no.sr.ringo.servlet;
+
+import no.sr.ringo.ObjectMother;
+import no.sr.ringo.account.Account;
+import no.sr.ringo.account.RingoAccountProvider;
+import no.sr.ringo.message.AccountChangeVersions;
+import no.sr.ringo.message.PeppolMessageRepository;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.security.Principal;
+
+import static org.easymock.EasyMock.*;
+import static org.testng.Assert.*;
+
+public class ConditionalGetFilterTest {
+
+    static final String ACCEPT = "application/json, application/xml;q=0.5";
+
+    Account account = ObjectMother.getTestAccount();
+    Principal principal = () -> account.getUserName().stringValue();
+
+    RingoAccountProvider mockRingoAccountProvider;
+    PeppolMessageRepository mockPeppolMessageRepository;
+    HttpServletRequest mockRequest;
+    HttpServletResponse mockResponse;
+    FilterChain mockChain;
+    ConditionalGetFilter filter;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        mockRingoAccountProvider = createMock(RingoAccountProvider.class);
+        mockPeppolMessageRepository = createStrictMock(PeppolMessageRepository.class);
+        mockRequest = createMock(HttpServletRequest.class);
+        mockResponse = createMock(HttpServletResponse.class);
+        mockChain = createStrictMock(FilterChain.class);
+        filter = new ConditionalGetFilter(mockRingoAccountProvider, mockPeppolMessageRepository, new AccountChangeVersions());
+
+        expect(mockRequest.getMethod()).andStubReturn("GET");
+        expect(mockRequest.getDispatcherType()).andStubReturn(DispatcherType.REQUEST);
+        expect(mockRequest.getUserPrincipal()).andStubReturn(principal);
+        expect(mockRequest.getParameter(InboxLongPollFilter.WAIT_PARAMETER)).andStubReturn(null);
+        expect(mockRequest.getHeader("Accept")).andStubReturn(ACCEPT);
+        expect(mockRingoAccountProvider.getAccount(principal)).andStubReturn(account);
+    }
+
+    @Test
+    public void currentVersionIsNotModified() throws Exception {
+        String etag = ConditionalGetFilter.etag(42, ACCEPT);
+        expect(mockPeppolMessageRepository.getChangeVersion(account.getAccountId())).andReturn(42L);
+        expect(mockRequest.getHeader(ConditionalGetFilter.IF_NONE_MATCH)).andStubReturn("\"17\", " + etag);
+        mockResponse.setHeader(ConditionalGetFilter.ETAG, etag);
+        mockResponse.setHeader("Vary", "Accept");
+        mockResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        replay(mockRingoAccountProvider, mockPeppolMessageRepository, mockRequest, mockResponse, mockChain);
+
+        filter.doFilter(mockRequest, mockResponse, mockChain);
+
+        verify(mockPeppolMessageRepository, mockResponse, mockChain);
+    }
+
+    @Test
+    public void changedVersionIsPassedOn() throws Exception {
+        String etag = ConditionalGetFilter.etag(43, ACCEPT);
+        expect(mockPeppolMessageRepository.getChangeVersion(account.getAccountId())).andReturn(43L);
+        expect(mockRequest.getHeader(ConditionalGetFilter.IF_NONE_MATCH)).andStubReturn(ConditionalGetFilter.etag(42, ACCEPT));
+        mockResponse.setHeader(ConditionalGetFilter.ETAG, etag);
+        mockResponse.setHeader("Vary", "Accept");
+        mockChain.doFilter(mockRequest, mockResponse);
+        replay(mockRingoAccountProvider, mockPeppolMessageRepository, mockRequest, mockResponse, mockChain);
+
+        filter.doFilter(mockRequest, mockResponse, mockChain);
+
+        verify(mockPeppolMessageRepository, mockResponse, mockChain);
+    }
+
+    @Test
+    public void longPollingIsPassedOn() throws Exception {
+        reset(mockRequest);
+        expect(mockRequest.getMethod()).andStubReturn("GET");
+        expect(mockRequest.getDispatcherType()).andStubReturn(DispatcherType.REQUEST);
+        expect(mockRequest.getUserPrincipal()).andStubReturn(principal);
+        expect(mockRequest.getParameter(InboxLongPollFilter.WAIT_PARAMETER)).andStubReturn("30s");
+        mockChain.doFilter(mockRequest, mockResponse);
+        replay(mockRingoAccountProvider, mockPeppolMessageRepository, mockRequest, mockResponse, mockChain);
+
+        filter.doFilter(mockRequest, mockResponse, mockChain);
+
+        verify(mockPeppolMessageRepository, mockResponse, mockChain);
+    }
+
+    @Test
+    public void tagDependsOnAccept() {
+        assertNotEquals(ConditionalGetFilter.etag(42, ACCEPT), ConditionalGetFilter.etag(42, "application/xml"));
+        assertEquals(ConditionalGetFilter.etag(42, null), "\"42\"");
+        assertTrue(ConditionalGetFilter.matches("W/\"42\"", "\"42\""));
+        assertTrue(ConditionalGetFilter.matches("*", "\"42\""));
+        assertFalse(ConditionalGetFilter.matches(null, "\"42\""));
+    }
+}
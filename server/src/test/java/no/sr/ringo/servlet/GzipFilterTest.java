@@ -0,0 +1,303 @@
+package no.sr.ringo.servlet;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.easymock.EasyMock.*;
+import static org.testng.Assert.*;
+
+public class GzipFilterTest {
+
+    static final String ETAG = "\"42\"";
+
+    HttpServletRequest mockRequest;
+    HttpServletResponse mockResponse;
+    FilterChain mockChain;
+    ByteArrayOutputStream written;
+    GzipFilter filter;
+    boolean asyncStarted;
+    Boolean processedByWorker;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        mockRequest = createMock(HttpServletRequest.class);
+        mockResponse = createMock(HttpServletResponse.class);
+        mockChain = createMock(FilterChain.class);
+        written = new ByteArrayOutputStream();
+        filter = new GzipFilter("1024");
+        asyncStarted = false;
+        processedByWorker = null;
+
+        expect(mockRequest.getMethod()).andStubReturn("GET");
+        expect(mockRequest.getRequestURI()).andStubReturn("/vefa/messages");
+        expect(mockRequest.isAsyncStarted()).andStubAnswer(() -> asyncStarted);
+        expect(mockRequest.getAttribute(AsyncRequestFilter.PROCESSED_BY_WORKER)).andStubAnswer(() -> processedByWorker);
+        expect(mockRequest.getHeader(GzipFilter.CONTENT_ENCODING)).andStubReturn(null);
+        expect(mockRequest.getHeader(GzipFilter.ACCEPT_ENCODING)).andStubReturn("gzip, deflate");
+        expect(mockResponse.getHeader(GzipFilter.CONTENT_ENCODING)).andStubReturn(null);
+        expect(mockResponse.getHeader(ConditionalGetFilter.ETAG)).andStubReturn(ETAG);
+        expect(mockResponse.isCommitted()).andStubReturn(false);
+        expect(mockResponse.getOutputStream()).andStubReturn(new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+                written.write(b);
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+        });
+        mockResponse.addHeader("Vary", GzipFilter.ACCEPT_ENCODING);
+    }
+
+    @Test
+    public void largeResponseIsCompressed() throws Exception {
+        byte[] body = body(5000);
+        expect(mockResponse.getContentType()).andStubReturn("application/xml; charset=UTF-8");
+        mockResponse.setHeader(GzipFilter.CONTENT_ENCODING, GzipFilter.GZIP);
+        mockResponse.setHeader(ConditionalGetFilter.ETAG, "W/" + ETAG);
+        expectWritten(body);
+        replay(mockRequest, mockResponse, mockChain);
+
+        filter.doFilter(mockRequest, mockResponse, mockChain);
+
+        assertEquals(decompress(written.toByteArray()), body);
+        assertTrue(written.size() < body.length);
+        verify(mockResponse, mockChain);
+    }
+
+    @Test
+    public void responseOfWorkerIsCompleted() throws Exception {
+        // Processed by a worker of AsyncRequestFilter, the request is asynchronous while the resource writes
+        asyncStarted = true;
+        processedByWorker = Boolean.TRUE;
+        byte[] body = body(5000);
+        expect(mockResponse.getContentType()).andStubReturn("application/xml; charset=UTF-8");
+        mockResponse.setHeader(GzipFilter.CONTENT_ENCODING, GzipFilter.GZIP);
+        mockResponse.setHeader(ConditionalGetFilter.ETAG, "W/" + ETAG);
+        expectWritten(body);
+        replay(mockRequest, mockResponse, mockChain);
+
+        filter.doFilter(mockRequest, mockResponse, mockChain);
+
+        assertEquals(decompress(written.toByteArray()), body);
+        verify(mockResponse, mockChain);
+    }
+
+    @Test
+    public void suspendedResponseIsLeftOpen() throws Exception {
+        asyncStarted = true;
+        HttpServletResponse[] suspended = new HttpServletResponse[1];
+        expect(mockResponse.getContentType()).andStubReturn("text/event-stream");
+        mockResponse.flushBuffer();
+        expectLastCall().anyTimes();
+        mockChain.doFilter(same(mockRequest), isA(GzipFilter.GzipResponse.class));
+        expectLastCall().andAnswer(() -> {
+            suspended[0] = (HttpServletResponse) getCurrentArguments()[1];
+            return null;
+        });
+        replay(mockRequest, mockResponse, mockChain);
+
+        filter.doFilter(mockRequest, mockResponse, mockChain);
+
+        // Events are written once the chain has returned
+        byte[] event = "event: message\ndata: 42\n\n".getBytes(StandardCharsets.UTF_8);
+        suspended[0].getOutputStream().write(event);
+        suspended[0].flushBuffer();
+        assertEquals(written.toByteArray(), event);
+        verify(mockChain);
+    }
+
+    @Test
+    public void smallResponseIsSentAsIs() throws Exception {
+        byte[] body = body(100);
+        mockResponse.setContentLengthLong(body.length);
+        expectWritten(body);
+        replay(mockRequest, mockResponse, mockChain);
+
+        filter.doFilter(mockRequest, mockResponse, mockChain);
+
+        assertEquals(written.toByteArray(), body);
+        verify(mockResponse, mockChain);
+    }
+
+    @Test
+    public void zipIsNotCompressed() throws Exception {
+        byte[] body = body(5000);
+        expect(mockResponse.getContentType()).andStubReturn("application/zip");
+        mockResponse.setContentLengthLong(body.length);
+        expectWritten(body);
+        replay(mockRequest, mockResponse, mockChain);
+
+        filter.doFilter(mockRequest, mockResponse, mockChain);
+
+        assertEquals(written.toByteArray(), body);
+        verify(mockResponse, mockChain);
+    }
+
+    @Test
+    public void responseIsNotCompressedUnlessAccepted() throws Exception {
+        reset(mockRequest);
+        expect(mockRequest.getMethod()).andStubReturn("GET");
+        expect(mockRequest.getHeader(GzipFilter.CONTENT_ENCODING)).andStubReturn(null);
+        expect(mockRequest.getHeader(GzipFilter.ACCEPT_ENCODING)).andStubReturn("gzip;q=0, *");
+        mockChain.doFilter(mockRequest, mockResponse);
+        replay(mockRequest, mockResponse, mockChain);
+
+        filter.doFilter(mockRequest, mockResponse, mockChain);
+
+        verify(mockResponse, mockChain);
+    }
+
+    @Test
+    public void compressedUploadIsDecompressed() throws Exception {
+        byte[] body = body(5000);
+        reset(mockRequest);
+        expect(mockRequest.getMethod()).andStubReturn("POST");
+        expect(mockRequest.getHeader(GzipFilter.CONTENT_ENCODING)).andStubReturn("gzip");
+        expect(mockRequest.getHeader(GzipFilter.ACCEPT_ENCODING)).andStubReturn(null);
+        expect(mockRequest.getInputStream()).andStubReturn(servletInputStream(compress(body)));
+        byte[][] read = new byte[1][];
+        mockChain.doFilter(isA(GzipFilter.GzipRequest.class), same(mockResponse));
+        expectLastCall().andAnswer(() -> {
+            HttpServletRequest request = (HttpServletRequest) getCurrentArguments()[0];
+            assertNull(request.getHeader(GzipFilter.CONTENT_ENCODING));
+            assertEquals(request.getContentLength(), -1);
+            read[0] = readFully(request.getInputStream());
+            return null;
+        });
+        replay(mockRequest, mockResponse, mockChain);
+
+        filter.doFilter(mockRequest, mockResponse, mockChain);
+
+        assertEquals(read[0], body);
+        verify(mockChain);
+    }
+
+    @Test
+    public void unsupportedUploadIsRejected() throws Exception {
+        reset(mockRequest, mockResponse);
+        expect(mockRequest.getMethod()).andStubReturn("POST");
+        expect(mockRequest.getRequestURI()).andStubReturn("/vefa/outbox");
+        expect(mockRequest.getHeader(GzipFilter.CONTENT_ENCODING)).andStubReturn("br");
+        mockResponse.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+        replay(mockRequest, mockResponse, mockChain);
+
+        filter.doFilter(mockRequest, mockResponse, mockChain);
+
+        verify(mockResponse, mockChain);
+    }
+
+    @Test
+    public void acceptEncoding() {
+        assertTrue(GzipFilter.acceptsGzip("gzip"));
+        assertTrue(GzipFilter.acceptsGzip("deflate, x-gzip;q=0.5"));
+        assertTrue(GzipFilter.acceptsGzip("*"));
+        assertFalse(GzipFilter.acceptsGzip(null));
+        assertFalse(GzipFilter.acceptsGzip("deflate"));
+        assertFalse(GzipFilter.acceptsGzip("gzip;q=0"));
+        assertFalse(GzipFilter.acceptsGzip("*;q=0.5, gzip;q=0"));
+    }
+
+    @Test
+    public void compressibleContent() {
+        assertTrue(GzipFilter.isCompressible("application/xml; charset=UTF-8"));
+        assertTrue(GzipFilter.isCompressible("application/json"));
+        assertTrue(GzipFilter.isCompressible("text/plain"));
+        assertFalse(GzipFilter.isCompressible("text/event-stream"));
+        assertFalse(GzipFilter.isCompressible("application/zip"));
+        assertFalse(GzipFilter.isCompressible(null));
+    }
+
+    private void expectWritten(byte[] body) throws Exception {
+        mockChain.doFilter(same(mockRequest), isA(GzipFilter.GzipResponse.class));
+        expectLastCall().andAnswer(() -> {
+            HttpServletResponse response = (HttpServletResponse) getCurrentArguments()[1];
+            response.setContentLength(body.length);
+            ServletOutputStream out = response.getOutputStream();
+            // Written in parts, as by the entity providers
+            out.write(body, 0, body.length / 2);
+            out.write(body, body.length / 2, body.length - body.length / 2);
+            return null;
+        });
+    }
+
+    private static byte[] body(int length) {
+        byte[] body = new byte[length];
+        byte[] element = "<message><msg-no>42</msg-no></message>\n".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < length; i++) {
+            body[i] = element[i % element.length];
+        }
+        return body;
+    }
+
+    private static byte[] compress(byte[] bytes) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(bytes);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static byte[] decompress(byte[] bytes) throws IOException {
+        return readFully(new GZIPInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+    private static ServletInputStream servletInputStream(byte[] bytes) {
+        InputStream in = new ByteArrayInputStream(bytes);
+        return new ServletInputStream() {
+            @Override
+            public int read() throws IOException {
+                return in.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return in.read(b, off, len);
+            }
+
+            @Override
+            public boolean isFinished() {
+                return false;
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setReadListener(javax.servlet.ReadListener readListener) {
+            }
+        };
+    }
+}
@@ -51,13 +51,13 @@ public class AdminStatisticsResourceTest {
 
         replay(mockPeppolMessageRepository);
 
-        AdminResource statisticsResource = new AdminResource(null, testAccount,mockPeppolMessageRepository,null, new UriLocationToolImpl());
+        AdminResource statisticsResource = new AdminResource(null, testAccount,mockPeppolMessageRepository,null, new UriLocationToolImpl(), null, null, null);
         final Response overview = statisticsResource.adminStatistics();
 
         final int status = overview.getStatus();
         assertEquals(200, status);
 
-        String xml = (String) overview.getEntity();
+        String xml = ((RingoStatistics) overview.getEntity()).asXml();
         assertEquals(statistics.asXml(), xml);
     }
 
@@ -67,7 +67,7 @@ public class StatisticsResourceTest {
         final int status = overview.getStatus();
         assertEquals(200, status);
 
-        String xml = (String) overview.getEntity();
+        String xml = ((RingoStatistics) overview.getEntity()).asXml();
         assertEquals(statistics.asXml(), xml);
     }
 
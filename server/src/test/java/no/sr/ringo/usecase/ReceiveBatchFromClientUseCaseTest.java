@@ -0,0 +1,133 @@
+package no.sr.ringo.usecase;
+
+import no.sr.ringo.account.Account;
+import no.sr.ringo.cenbiimeta.ProfileId;
+import no.sr.ringo.common.UploadMode;
+import no.sr.ringo.email.EmailService;
+import no.sr.ringo.message.*;
+import no.sr.ringo.peppol.PeppolDocumentTypeId;
+import no.sr.ringo.persistence.queue.OutboundMessageQueueId;
+import no.sr.ringo.persistence.queue.OutboundMessageQueueState;
+import no.sr.ringo.persistence.queue.QueueRepository;
+import no.sr.ringo.resource.InvalidUserInputWebException;
+import no.sr.ringo.response.OutboxBatchResponse;
+import no.sr.ringo.validation.AsyncValidationService;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.easymock.EasyMock.*;
+import static org.testng.Assert.*;
+
+public class ReceiveBatchFromClientUseCaseTest {
+
+    static final String DOCUMENT = "<Invoice><ID>1</ID></Invoice>";
+
+    Account mockAccount;
+    PeppolMessageRepository mockPeppolMessageRepository;
+    QueueRepository mockQueueRepository;
+    EmailService mockEmailService;
+    AsyncValidationService mockAsyncValidationService;
+    Path payloadBasePath;
+    OutboundBatchHeaders headers;
+    ReceiveBatchFromClientUseCase useCase;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        mockAccount = createNiceMock(Account.class);
+        mockPeppolMessageRepository = createStrictMock(PeppolMessageRepository.class);
+        mockQueueRepository = createStrictMock(QueueRepository.class);
+        mockEmailService = createStrictMock(EmailService.class);
+        mockAsyncValidationService = createNiceMock(AsyncValidationService.class);
+        payloadBasePath = Files.createTempDirectory("ringo-payload");
+        useCase = new ReceiveBatchFromClientUseCase(mockAccount, mockPeppolMessageRepository, mockQueueRepository, mockEmailService,
+                payloadBasePath, null, mockAsyncValidationService, "3");
+
+        headers = new OutboundBatchHeaders();
+        headers.setShared(OutboundBatchHeaders.RECIPIENT_ID, "9908:976098897");
+        headers.setShared(OutboundBatchHeaders.SENDER_ID, "9908:976098897");
+        headers.setShared(OutboundBatchHeaders.DOCUMENT_ID, PeppolDocumentTypeId.EHF_INVOICE.stringValue());
+        headers.setShared(OutboundBatchHeaders.PROCESS_ID, ProfileId.Predefined.BII04_INVOICE_ONLY.stringValue());
+        headers.setShared(OutboundBatchHeaders.UPLOAD_MODE, UploadMode.BATCH.name());
+    }
+
+    @Test
+    public void documentsAreRejectedIndividually() throws Exception {
+        headers.readManifest(new ByteArrayInputStream(("<outbox-batch><document file=\"b.xml\" RecipientID=\"9908:810418052\"/></outbox-batch>").getBytes("UTF-8")));
+
+        expect(mockPeppolMessageRepository.persistOutboundMessages(same(mockAccount), anyObject())).andAnswer(() -> {
+            List<PeppolMessage> peppolMessages = (List<PeppolMessage>) getCurrentArguments()[1];
+            assertEquals(peppolMessages.size(), 2);
+            assertEquals(peppolMessages.get(1).getPeppolHeader().getReceiver().getIdentifier(), "9908:810418052");
+            return Arrays.asList(message(11), message(12));
+        });
+        expect(mockQueueRepository.putMessagesOnQueue(Arrays.asList(11L, 12L), OutboundMessageQueueState.QUEUED))
+                .andReturn(Arrays.asList(new OutboundMessageQueueId(1), new OutboundMessageQueueId(2)));
+        expect(mockEmailService.sendUploadErrorNotification(same(mockAccount), anyString(), eq("c.xml"))).andReturn(null);
+        replay(mockAccount, mockPeppolMessageRepository, mockQueueRepository, mockEmailService, mockAsyncValidationService);
+
+        useCase.receive(headers.postParams("a.xml", new ByteArrayInputStream(DOCUMENT.getBytes("UTF-8"))));
+        useCase.receive(headers.postParams("b.xml", new ByteArrayInputStream(DOCUMENT.getBytes("UTF-8"))));
+        useCase.receive(headers.postParams("c.xml", new ByteArrayInputStream("<Invoice>".getBytes("UTF-8"))));
+        List<OutboxBatchResponse.Entry> entries = useCase.complete();
+
+        assertEquals(entries.size(), 3);
+        assertEquals(entries.get(0).getStatus(), OutboxBatchResponse.Status.CREATED);
+        assertEquals(entries.get(0).getMessage().getMsgNo(), MessageNumber.of(11L));
+        assertEquals(entries.get(1).getFileName(), "b.xml");
+        assertEquals(entries.get(1).getMessage().getMsgNo(), MessageNumber.of(12L));
+        assertEquals(entries.get(2).getStatus(), OutboxBatchResponse.Status.REJECTED);
+        assertEquals(entries.get(2).getFileName(), "c.xml");
+        assertNotNull(entries.get(2).getError());
+
+        // Nothing is left behind in the spool directory
+        try (Stream<Path> spooled = Files.list(payloadBasePath.resolve("spool"))) {
+            assertEquals(spooled.count(), 0);
+        }
+        verify(mockPeppolMessageRepository, mockQueueRepository, mockEmailService);
+    }
+
+    @Test
+    public void nothingIsPersistedWhenEveryDocumentIsRejected() throws Exception {
+        headers.setShared(OutboundBatchHeaders.UPLOAD_MODE, UploadMode.SINGLE.name());
+        replay(mockAccount, mockPeppolMessageRepository, mockQueueRepository, mockEmailService, mockAsyncValidationService);
+
+        useCase.receive(headers.postParams("a.xml", new ByteArrayInputStream("<Invoice>".getBytes("UTF-8"))));
+
+        assertEquals(useCase.complete().get(0).getStatus(), OutboxBatchResponse.Status.REJECTED);
+        verify(mockPeppolMessageRepository, mockQueueRepository, mockEmailService);
+    }
+
+    @Test
+    public void batchHoldingTooManyDocumentsIsRejected() throws Exception {
+        replay(mockAccount, mockPeppolMessageRepository, mockQueueRepository, mockEmailService, mockAsyncValidationService);
+
+        useCase.receive(headers.postParams("a.xml", new ByteArrayInputStream(DOCUMENT.getBytes("UTF-8"))));
+        useCase.receive(headers.postParams("b.xml", new ByteArrayInputStream(DOCUMENT.getBytes("UTF-8"))));
+        useCase.receive(headers.postParams("c.xml", new ByteArrayInputStream(DOCUMENT.getBytes("UTF-8"))));
+        try {
+            useCase.receive(headers.postParams("d.xml", new ByteArrayInputStream(DOCUMENT.getBytes("UTF-8"))));
+            fail("Batch exceeds the maximum number of documents");
+        } catch (InvalidUserInputWebException e) {
+            assertEquals(e.getResponse().getStatus(), 400);
+        }
+        useCase.discard();
+
+        try (Stream<Path> spooled = Files.list(payloadBasePath.resolve("spool"))) {
+            assertEquals(spooled.count(), 0);
+        }
+        verify(mockPeppolMessageRepository, mockQueueRepository, mockEmailService);
+    }
+
+    private static MessageWithLocations message(long msgNo) {
+        MessageMetaDataImpl messageMetaData = new MessageMetaDataImpl();
+        messageMetaData.setMsgNo(MessageNumber.of(msgNo));
+        return new MessageWithLocationsImpl(messageMetaData);
+    }
+}
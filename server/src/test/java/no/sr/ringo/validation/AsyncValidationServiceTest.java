@@ -0,0 +1,121 @@
+package no.sr.ringo.validation;
+
+import no.sr.ringo.ObjectMother;
+import no.sr.ringo.account.Account;
+import no.sr.ringo.account.AccountRepository;
+import no.sr.ringo.email.EmailService;
+import no.sr.ringo.message.MessageMetaDataImpl;
+import no.sr.ringo.message.MessageNumber;
+import no.sr.ringo.message.PeppolMessageRepository;
+import no.sr.ringo.peppol.PeppolDocumentTypeId;
+import no.sr.ringo.persistence.queue.*;
+import org.easymock.Capture;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import static org.easymock.EasyMock.*;
+import static org.testng.Assert.*;
+
+public class AsyncValidationServiceTest {
+
+    static final OutboundMessageQueueId QUEUE_ID = new OutboundMessageQueueId(42);
+    static final MessageNumber MSG_NO = MessageNumber.of(4711);
+
+    QueueRepository mockQueueRepository;
+    PeppolMessageRepository mockPeppolMessageRepository;
+    AccountRepository mockAccountRepository;
+    EmailService mockEmailService;
+    DocumentValidator mockDocumentValidator;
+
+    AsyncValidationService asyncValidationService;
+    Account account = ObjectMother.getTestAccount();
+    Path payload;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        mockQueueRepository = createStrictMock(QueueRepository.class);
+        mockPeppolMessageRepository = createStrictMock(PeppolMessageRepository.class);
+        mockAccountRepository = createStrictMock(AccountRepository.class);
+        mockEmailService = createStrictMock(EmailService.class);
+        mockDocumentValidator = createStrictMock(DocumentValidator.class);
+
+        // Workers are not started, validation is invoked directly
+        asyncValidationService = new AsyncValidationService(mockQueueRepository, mockPeppolMessageRepository, mockAccountRepository,
+                mockEmailService, mockDocumentValidator, null, "false", "1", "10");
+
+        payload = Files.createTempFile("payload", ".xml");
+        MessageMetaDataImpl messageMetaData = new MessageMetaDataImpl();
+        messageMetaData.setMsgNo(MSG_NO);
+        messageMetaData.setPayloadUri(payload.toUri());
+        messageMetaData.getPeppolHeader().setDocumentTypeIdentifier(PeppolDocumentTypeId.EHF_INVOICE.toVefa());
+        expect(mockPeppolMessageRepository.findMessageByMessageNo(MSG_NO)).andReturn(messageMetaData);
+    }
+
+    @Test
+    public void validDocumentIsQueued() throws Exception {
+        expect(mockDocumentValidator.validate(PeppolDocumentTypeId.EHF_INVOICE.toVefa(), payload)).andReturn(ValidationResult.ok());
+        expect(mockQueueRepository.changeQueuedMessageState(QUEUE_ID, OutboundMessageQueueState.PENDING_VALIDATION, OutboundMessageQueueState.QUEUED)).andReturn(true);
+        replayAllMocks();
+
+        asyncValidationService.validate(QUEUE_ID, MSG_NO);
+
+        verifyAllMocks();
+    }
+
+    @Test
+    public void invalidDocumentFailsAndNotifiesOwner() throws Exception {
+        ValidationResult result = new ValidationResult(ValidationResult.Status.ERROR, Collections.singletonList("[BII2-T10-R001] ID missing"));
+        Capture<QueuedOutboundMessageError> error = newCapture();
+
+        expect(mockDocumentValidator.validate(PeppolDocumentTypeId.EHF_INVOICE.toVefa(), payload)).andReturn(result);
+        expect(mockQueueRepository.changeQueuedMessageState(QUEUE_ID, OutboundMessageQueueState.PENDING_VALIDATION, OutboundMessageQueueState.VALIDATION_FAILED)).andReturn(true);
+        expect(mockQueueRepository.logOutboundError(capture(error))).andReturn(new OutboundMessageQueueErrorId(1));
+        expect(mockAccountRepository.findAccountAsOwnerOfMessage(MSG_NO)).andReturn(account);
+        expect(mockEmailService.sendProcessingErrorNotification(account, "XmlDocument contains error\n[BII2-T10-R001] ID missing", MSG_NO)).andReturn(null);
+        replayAllMocks();
+
+        asyncValidationService.validate(QUEUE_ID, MSG_NO);
+
+        verifyAllMocks();
+        assertEquals(error.getValue().getOutboundQueueId(), QUEUE_ID);
+        assertEquals(error.getValue().getDetails(), "XmlDocument contains error\n[BII2-T10-R001] ID missing");
+    }
+
+    @Test
+    public void documentIsLeftPendingWhenValidatorIsUnavailable() throws Exception {
+        expect(mockDocumentValidator.validate(PeppolDocumentTypeId.EHF_INVOICE.toVefa(), payload)).andThrow(new IllegalStateException("Connection refused"));
+        replayAllMocks();
+
+        asyncValidationService.validate(QUEUE_ID, MSG_NO);
+
+        verifyAllMocks();
+    }
+
+    @Test
+    public void validationStatusOfFailedMessage() throws Exception {
+        reset(mockPeppolMessageRepository);
+        expect(mockQueueRepository.getQueuedMessageByMessageNo(MSG_NO)).andReturn(new QueuedOutboundMessage(QUEUE_ID, MSG_NO, OutboundMessageQueueState.VALIDATION_FAILED));
+        expect(mockQueueRepository.getLastOutboundError(QUEUE_ID)).andReturn(new QueuedOutboundMessageError(QUEUE_ID, "XmlDocument contains error", "XmlDocument contains error", null));
+        expect(mockQueueRepository.getQueuedMessageByMessageNo(MSG_NO)).andReturn(new QueuedOutboundMessage(QUEUE_ID, MSG_NO, OutboundMessageQueueState.QUEUED));
+        replayAllMocks();
+
+        ValidationStatus validationStatus = asyncValidationService.getValidationStatus(MSG_NO);
+        assertEquals(validationStatus.getState(), OutboundMessageQueueState.VALIDATION_FAILED);
+        assertEquals(validationStatus.getError(), "XmlDocument contains error");
+
+        // Once promoted, there is nothing to report
+        assertNull(asyncValidationService.getValidationStatus(MSG_NO));
+    }
+
+    private void replayAllMocks() {
+        replay(mockQueueRepository, mockPeppolMessageRepository, mockAccountRepository, mockEmailService, mockDocumentValidator);
+    }
+
+    private void verifyAllMocks() {
+        verify(mockQueueRepository, mockPeppolMessageRepository, mockAccountRepository, mockEmailService, mockDocumentValidator);
+    }
+}
@@ -0,0 +1,106 @@
+package no.sr.ringo.validation;
+
+import com.sun.net.httpserver.HttpServer;
+import no.difi.vefa.peppol.common.model.DocumentTypeIdentifier;
+import no.sr.ringo.peppol.PeppolDocumentTypeId;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.testng.Assert.*;
+
+public class HttpDocumentValidatorTest {
+
+    static final DocumentTypeIdentifier INVOICE = PeppolDocumentTypeId.EHF_INVOICE.toVefa();
+
+    HttpServer httpServer;
+    HttpDocumentValidator validator;
+
+    @BeforeClass
+    public void startValidationService() throws Exception {
+        httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        // Responds with an error for documents containing "bad" and fails for documents containing "crash"
+        httpServer.createContext("/validate", exchange -> {
+            ByteArrayOutputStream received = new ByteArrayOutputStream();
+            try (InputStream inputStream = exchange.getRequestBody()) {
+                byte[] buffer = new byte[1024];
+                int count;
+                while ((count = inputStream.read(buffer)) != -1) {
+                    received.write(buffer, 0, count);
+                }
+            }
+            String document = received.toString("UTF-8");
+            String status = document.contains("bad") ? "error" : "ok";
+            byte[] response = ("<validation><status>" + status + "</status></validation>").getBytes(StandardCharsets.UTF_8);
+            if (document.contains("crash")) {
+                // A failing service must not be mistaken for a valid document, even if its body says so
+                exchange.sendResponseHeaders(500, response.length);
+            } else {
+                exchange.sendResponseHeaders(200, response.length);
+            }
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(response);
+            }
+        });
+        httpServer.start();
+
+        validator = new HttpDocumentValidator("http://127.0.0.1:" + httpServer.getAddress().getPort() + "/validate", "5000");
+    }
+
+    @AfterClass
+    public void stopValidationService() {
+        httpServer.stop(0);
+    }
+
+    @Test
+    public void validatesUsingService() throws Exception {
+        Path document = Files.createTempFile("document", ".xml");
+        Files.write(document, "<Invoice>good</Invoice>".getBytes(StandardCharsets.UTF_8));
+
+        // Connections are returned to the pool, hence repeated requests must not exhaust it
+        for (int i = 0; i < HttpDocumentValidator.MAX_CONNECTIONS * 2; i++) {
+            assertTrue(validator.validate(INVOICE, document).isValid());
+        }
+
+        Files.write(document, "<Invoice>bad</Invoice>".getBytes(StandardCharsets.UTF_8));
+        assertEquals(validator.validate(INVOICE, document).getStatus(), ValidationResult.Status.ERROR);
+    }
+
+    @Test
+    public void parseResponse() {
+        assertEquals(HttpDocumentValidator.parseResponse(null).getStatus(), ValidationResult.Status.FATAL);
+        assertEquals(HttpDocumentValidator.parseResponse("<status>fatal</status>").getStatus(), ValidationResult.Status.FATAL);
+        assertEquals(HttpDocumentValidator.parseResponse("<status>error</status>").getStatus(), ValidationResult.Status.ERROR);
+        assertTrue(HttpDocumentValidator.parseResponse("<status>ok</status>").isValid());
+        assertTrue(HttpDocumentValidator.parseResponse("<v:validation xmlns:v=\"urn:v\">\n  <v:status> ok </v:status>\n</v:validation>").isValid());
+    }
+
+    @Test
+    public void responseWithoutStatusIsNotValid() {
+        assertEquals(HttpDocumentValidator.parseResponse("<validation/>").getStatus(), ValidationResult.Status.FATAL);
+        assertEquals(HttpDocumentValidator.parseResponse("<status>maybe</status>").getStatus(), ValidationResult.Status.FATAL);
+        assertEquals(HttpDocumentValidator.parseResponse("Bad gateway <status>ok</status>").getStatus(), ValidationResult.Status.FATAL);
+        assertEquals(HttpDocumentValidator.parseResponse("<!DOCTYPE status [<!ENTITY ok \"ok\">]><status>&ok;</status>").getStatus(), ValidationResult.Status.FATAL);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void serviceFailing() throws Exception {
+        Path document = Files.createTempFile("document", ".xml");
+        Files.write(document, "<Invoice>crash</Invoice>".getBytes(StandardCharsets.UTF_8));
+        validator.validate(INVOICE, document);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void serviceNotAvailable() throws Exception {
+        Path document = Files.createTempFile("document", ".xml");
+        new HttpDocumentValidator("http://127.0.0.1:1/validate", "1000").validate(INVOICE, document);
+    }
+}
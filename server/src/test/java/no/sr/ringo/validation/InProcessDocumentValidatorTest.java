@@ -0,0 +1,93 @@
+package no.sr.ringo.validation;
+
+import no.difi.vefa.peppol.common.model.DocumentTypeIdentifier;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.testng.Assert.*;
+
+public class InProcessDocumentValidatorTest {
+
+    static final String NS = "urn:ringo:test:order";
+    static final DocumentTypeIdentifier ORDER = DocumentTypeIdentifier.of(NS + "::Order##urn:ringo:test:customization::1.0");
+
+    static final String XSD = "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" targetNamespace=\"" + NS + "\" elementFormDefault=\"qualified\">" +
+            "<xs:element name=\"Order\"><xs:complexType><xs:sequence>" +
+            "<xs:element name=\"ID\" type=\"xs:string\"/><xs:element name=\"Amount\" type=\"xs:decimal\"/>" +
+            "</xs:sequence></xs:complexType></xs:element></xs:schema>";
+
+    // A schematron rule, "Amount must be positive", compiled into XSLT 1.0 producing SVRL
+    static final String SCHEMATRON_XSL = "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\" " +
+            "xmlns:svrl=\"http://purl.oclc.org/dsdl/svrl\" xmlns:o=\"" + NS + "\">" +
+            "<xsl:template match=\"/\"><svrl:schematron-output>" +
+            "<xsl:if test=\"not(/o:Order/o:Amount &gt; 0)\"><svrl:failed-assert flag=\"fatal\" location=\"/Order/Amount\">" +
+            "<svrl:text>Amount must be positive</svrl:text></svrl:failed-assert></xsl:if>" +
+            "</svrl:schematron-output></xsl:template></xsl:stylesheet>";
+
+    Path rulesDirectory;
+    InProcessDocumentValidator validator;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        rulesDirectory = Files.createTempDirectory("ringo-validation");
+        Path ruleSet = Files.createDirectories(rulesDirectory.resolve("order"));
+        Files.write(ruleSet.resolve("order.xsd"), XSD.getBytes(StandardCharsets.UTF_8));
+        Files.write(ruleSet.resolve("order-rules.xsl"), SCHEMATRON_XSL.getBytes(StandardCharsets.UTF_8));
+        Files.write(ruleSet.resolve(InProcessDocumentValidator.RULESET_PROPERTIES), ("documentType=" + NS + "::Order\n" +
+                "customizationId=urn:ringo:test:customization\n" +
+                "schema=order.xsd\n" +
+                "schematron=order-rules.xsl\n").getBytes(StandardCharsets.UTF_8));
+
+        validator = new InProcessDocumentValidator(rulesDirectory);
+    }
+
+    @Test
+    public void validDocument() throws Exception {
+        ValidationResult result = validator.validate(ORDER, document("<Order xmlns=\"" + NS + "\"><ID>1</ID><Amount>100</Amount></Order>"));
+        assertTrue(result.isValid(), result.toString());
+    }
+
+    @Test
+    public void schemaViolation() throws Exception {
+        ValidationResult result = validator.validate(ORDER, document("<Order xmlns=\"" + NS + "\"><ID>1</ID><Amount>lots</Amount></Order>"));
+        assertEquals(result.getStatus(), ValidationResult.Status.ERROR);
+    }
+
+    @Test
+    public void schematronViolation() throws Exception {
+        ValidationResult result = validator.validate(ORDER, document("<Order xmlns=\"" + NS + "\"><ID>1</ID><Amount>-1</Amount></Order>"));
+        assertEquals(result.getStatus(), ValidationResult.Status.ERROR);
+        assertTrue(result.getDescription().contains("Amount must be positive"), result.getDescription());
+    }
+
+    @Test
+    public void notWellFormed() throws Exception {
+        ValidationResult result = validator.validate(ORDER, document("<Order xmlns=\"" + NS + "\"><ID>1</Order>"));
+        assertEquals(result.getStatus(), ValidationResult.Status.FATAL);
+    }
+
+    @Test
+    public void externalEntitiesAreNotResolved() throws Exception {
+        Path secret = Files.createTempFile(rulesDirectory, "secret", ".txt");
+        Files.write(secret, "100".getBytes(StandardCharsets.UTF_8));
+        ValidationResult result = validator.validate(ORDER, document("<!DOCTYPE Order [<!ENTITY amount SYSTEM \"" + secret.toUri() + "\">]>" +
+                "<Order xmlns=\"" + NS + "\"><ID>1</ID><Amount>&amount;</Amount></Order>"));
+        assertEquals(result.getStatus(), ValidationResult.Status.FATAL);
+    }
+
+    @Test
+    public void unknownDocumentType() throws Exception {
+        ValidationResult result = validator.validate(DocumentTypeIdentifier.of(NS + "::Order##urn:ringo:other::1.0"), document("<Order/>"));
+        assertEquals(result.getStatus(), ValidationResult.Status.FATAL);
+    }
+
+    private Path document(String xml) throws Exception {
+        Path path = Files.createTempFile(rulesDirectory, "document", ".xml");
+        Files.write(path, xml.getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+}
@@ -0,0 +1,225 @@
+package no.sr.ringo.webhook;
+
+import com.sun.net.httpserver.HttpServer;
+import no.difi.vefa.peppol.common.model.ParticipantIdentifier;
+import no.sr.ringo.account.AccountId;
+import no.sr.ringo.message.InboxNotifier;
+import no.sr.ringo.message.MessageMetaDataImpl;
+import no.sr.ringo.message.MessageNumber;
+import no.sr.ringo.message.PeppolMessageRepository;
+import no.sr.ringo.message.ReceptionId;
+import no.sr.ringo.persistence.file.ArtifactReader;
+import no.sr.ringo.persistence.webhook.Webhook;
+import no.sr.ringo.persistence.webhook.WebhookDelivery;
+import no.sr.ringo.persistence.webhook.WebhookRepository;
+import no.sr.ringo.transport.TransferDirection;
+import org.apache.commons.io.IOUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.easymock.EasyMock.*;
+import static org.testng.Assert.*;
+
+/**
+ * Pushes messages to a webhook served by a local HTTP server.
+ */
+public class WebhookDispatcherTest {
+
+    static final String SECRET = "0123456789abcdef";
+    static final String PAYLOAD = "<Invoice>Ærlig talt</Invoice>";
+    static final String CLAIM_TOKEN = "claim";
+
+    WebhookRepository mockWebhookRepository;
+    PeppolMessageRepository mockPeppolMessageRepository;
+    ArtifactReader mockArtifactReader;
+
+    HttpServer server;
+    volatile int status;
+    /** Holds the requests, when set */
+    volatile CountDownLatch release;
+    volatile CountDownLatch requests;
+    volatile CountDownLatch responses;
+    final Map<String, String> received = new ConcurrentHashMap<>();
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        mockWebhookRepository = createMock(WebhookRepository.class);
+        mockPeppolMessageRepository = createMock(PeppolMessageRepository.class);
+        mockArtifactReader = createMock(ArtifactReader.class);
+        release = null;
+        requests = new CountDownLatch(2);
+        responses = new CountDownLatch(2);
+        received.clear();
+
+        // The periodic sweep finds nothing due
+        expect(mockWebhookRepository.findDueDeliveries(anyObject(Date.class), anyInt())).andStubReturn(Collections.<WebhookDelivery>emptyList());
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/hook", exchange -> {
+            requests.countDown();
+            if (release != null) {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            received.put("body", IOUtils.toString(exchange.getRequestBody(), "UTF-8"));
+            for (String header : new String[]{WebhookDispatcher.DELIVERY_HEADER, WebhookDispatcher.TIMESTAMP_HEADER, WebhookDispatcher.SIGNATURE_HEADER}) {
+                received.put(header, exchange.getRequestHeaders().getFirst(header));
+            }
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+            responses.countDown();
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void pushesSignedMessageAndMarksItAsRead() throws Exception {
+        status = 200;
+        WebhookDelivery delivery = delivery(0, true);
+        expect(mockPeppolMessageRepository.findMessageByMessageNo(MessageNumber.of(8L))).andReturn(message());
+        expect(mockArtifactReader.openPayload(URI.create("file:///var/peppol/8.xml"), TransferDirection.IN)).andReturn(new ByteArrayInputStream(PAYLOAD.getBytes(StandardCharsets.UTF_8)));
+        mockPeppolMessageRepository.markMessageAsRead(8L);
+        expect(mockWebhookRepository.markDelivered(eq(7), eq(CLAIM_TOKEN), anyObject(Date.class))).andReturn(true);
+        replay(mockWebhookRepository, mockPeppolMessageRepository, mockArtifactReader);
+
+        WebhookDispatcher dispatcher = createDispatcher();
+        dispatcher.deliver(delivery, CLAIM_TOKEN);
+        dispatcher.shutdown();
+        verify(mockWebhookRepository, mockPeppolMessageRepository, mockArtifactReader);
+
+        String body = received.get("body");
+        assertTrue(body.startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<webhook-delivery version=\"1.0\" delivery-id=\"7\">"), body);
+        assertTrue(body.contains("<self>inbox/8</self>"), body);
+        assertTrue(body.contains("<msg-no>8</msg-no>"), body);
+        assertTrue(body.contains("<payload encoding=\"base64\">" + Base64.getEncoder().encodeToString(PAYLOAD.getBytes(StandardCharsets.UTF_8)) + "</payload>"), body);
+
+        assertEquals(received.get(WebhookDispatcher.DELIVERY_HEADER), "7");
+        String expected = WebhookDispatcher.sign(SECRET, received.get(WebhookDispatcher.TIMESTAMP_HEADER), body.getBytes(StandardCharsets.UTF_8));
+        assertEquals(received.get(WebhookDispatcher.SIGNATURE_HEADER), "sha256=" + expected);
+    }
+
+    @Test
+    public void retriesWhenRejected() throws Exception {
+        status = 500;
+        expect(mockPeppolMessageRepository.findMessageByMessageNo(MessageNumber.of(8L))).andReturn(message());
+        expect(mockWebhookRepository.retryDelivery(eq(7), eq(CLAIM_TOKEN), anyObject(Date.class), contains("500"))).andReturn(true);
+        replay(mockWebhookRepository, mockPeppolMessageRepository, mockArtifactReader);
+
+        WebhookDispatcher dispatcher = createDispatcher();
+        dispatcher.deliver(delivery(0, false), CLAIM_TOKEN);
+        dispatcher.shutdown();
+        verify(mockWebhookRepository, mockPeppolMessageRepository, mockArtifactReader);
+
+        assertFalse(received.get("body").contains("<payload"));
+    }
+
+    @Test
+    public void givesUpAfterMaxAttempts() throws Exception {
+        status = 404;
+        expect(mockPeppolMessageRepository.findMessageByMessageNo(MessageNumber.of(8L))).andReturn(message());
+        expect(mockWebhookRepository.markFailed(eq(7), eq(CLAIM_TOKEN), contains("404"))).andReturn(true);
+        replay(mockWebhookRepository, mockPeppolMessageRepository, mockArtifactReader);
+
+        WebhookDispatcher dispatcher = createDispatcher();
+        dispatcher.deliver(delivery(2, false), CLAIM_TOKEN);
+        dispatcher.shutdown();
+        verify(mockWebhookRepository, mockPeppolMessageRepository, mockArtifactReader);
+    }
+
+    @Test
+    public void doesNotPushMessagesAlreadyRead() throws Exception {
+        MessageMetaDataImpl message = message();
+        message.setDelivered(new Date());
+        expect(mockPeppolMessageRepository.findMessageByMessageNo(MessageNumber.of(8L))).andReturn(message);
+        expect(mockWebhookRepository.markDelivered(7, CLAIM_TOKEN, message.getDelivered())).andReturn(true);
+        replay(mockWebhookRepository, mockPeppolMessageRepository, mockArtifactReader);
+
+        WebhookDispatcher dispatcher = createDispatcher();
+        dispatcher.deliver(delivery(0, false), CLAIM_TOKEN);
+        dispatcher.shutdown();
+        verify(mockWebhookRepository, mockPeppolMessageRepository, mockArtifactReader);
+
+        assertNull(received.get("body"));
+    }
+
+    @Test
+    public void claimsNoMoreDeliveriesThanFreeWorkers() throws Exception {
+        status = 200;
+        release = new CountDownLatch(1);
+        reset(mockWebhookRepository);
+        expect(mockWebhookRepository.findDueDeliveries(anyObject(Date.class), anyInt()))
+                .andReturn(Arrays.asList(delivery(7, 0, false), delivery(8, 0, false), delivery(9, 0, false)))
+                .andStubReturn(Collections.<WebhookDelivery>emptyList());
+        // The third delivery is left for a later sweep, rather than waiting for a worker past its claim
+        expect(mockWebhookRepository.claimDelivery(anyObject(Integer.class), anyString(), anyObject(Date.class), anyObject(Date.class))).andReturn(true).times(2);
+        expect(mockWebhookRepository.markDelivered(anyObject(Integer.class), anyString(), anyObject(Date.class))).andStubReturn(true);
+        expect(mockPeppolMessageRepository.findMessageByMessageNo(MessageNumber.of(8L))).andStubReturn(message());
+        mockPeppolMessageRepository.markMessageAsRead(8L);
+        expectLastCall().asStub();
+        replay(mockWebhookRepository, mockPeppolMessageRepository, mockArtifactReader);
+
+        // Two workers, allowed three requests to the webhook
+        WebhookDispatcher dispatcher = new WebhookDispatcher(mockWebhookRepository, mockPeppolMessageRepository, mockArtifactReader, new InboxNotifier(), "2", "3", "5000", "3");
+        assertTrue(requests.await(10, TimeUnit.SECONDS));
+        release.countDown();
+        assertTrue(responses.await(10, TimeUnit.SECONDS));
+        dispatcher.shutdown();
+        verify(mockWebhookRepository);
+    }
+
+    @Test
+    public void retryDelayIsDoubledUpToMaximum() {
+        assertEquals(WebhookDispatcher.retryDelay(0), WebhookDispatcher.RETRY_DELAY);
+        assertEquals(WebhookDispatcher.retryDelay(2), 4 * WebhookDispatcher.RETRY_DELAY);
+        assertEquals(WebhookDispatcher.retryDelay(9), WebhookDispatcher.MAX_RETRY_DELAY);
+        assertEquals(WebhookDispatcher.retryDelay(63), WebhookDispatcher.MAX_RETRY_DELAY);
+    }
+
+    private WebhookDispatcher createDispatcher() {
+        return new WebhookDispatcher(mockWebhookRepository, mockPeppolMessageRepository, mockArtifactReader, new InboxNotifier(), "2", "2", "5000", "3");
+    }
+
+    private WebhookDelivery delivery(int attempts, boolean includePayload) {
+        return delivery(7, attempts, includePayload);
+    }
+
+    private WebhookDelivery delivery(int id, int attempts, boolean includePayload) {
+        URI url = URI.create("http://localhost:" + server.getAddress().getPort() + "/hook");
+        return new WebhookDelivery(id, MessageNumber.of(8L), attempts, new Webhook(new AccountId(1), url, SECRET, includePayload));
+    }
+
+    private static MessageMetaDataImpl message() {
+        MessageMetaDataImpl messageMetaData = new MessageMetaDataImpl();
+        messageMetaData.setMsgNo(MessageNumber.of(8L));
+        messageMetaData.setTransferDirection(TransferDirection.IN);
+        messageMetaData.setReceived(new Date());
+        messageMetaData.setReceptionId(new ReceptionId());
+        messageMetaData.setPayloadUri(URI.create("file:///var/peppol/8.xml"));
+        messageMetaData.getPeppolHeader().setReceiver(ParticipantIdentifier.of("9908:976098897"));
+        return messageMetaData;
+    }
+}